@@ -0,0 +1,144 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.benchmarks.jmh;
+
+
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.directory.server.core.avltree.ArrayTree;
+import org.apache.directory.server.core.avltree.AvlTreeImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Benchmarks the {@link AvlTreeImpl} and {@link ArrayTree} in-memory trees, used by
+ * the AVL partition and to store the duplicate values of the JDBM and Mavibot tables.
+ * The trees contain the even integers below 2 * size, so that the odd integers can
+ * be inserted and removed without changing the size of the tree.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AvlTreeBenchmark
+{
+    private static final Comparator<Integer> COMPARATOR = new Comparator<Integer>()
+    {
+        public int compare( Integer i1, Integer i2 )
+        {
+            return i1.compareTo( i2 );
+        }
+    };
+
+    /** The tree implementation */
+    @Param(
+        { "avl", "array" })
+    public String tree;
+
+    /** The number of keys in the tree */
+    @Param(
+        { "16", "1024", "65536" })
+    public int size;
+
+    private AvlTreeImpl<Integer> avlTree;
+    private ArrayTree<Integer> arrayTree;
+    private Random random;
+
+
+    @Setup(Level.Trial)
+    public void createTree()
+    {
+        avlTree = new AvlTreeImpl<Integer>( COMPARATOR );
+        arrayTree = new ArrayTree<Integer>( COMPARATOR );
+
+        for ( int i = 0; i < size; i++ )
+        {
+            if ( "avl".equals( tree ) )
+            {
+                avlTree.insert( i * 2 );
+            }
+            else
+            {
+                arrayTree.insert( i * 2 );
+            }
+        }
+
+        random = new Random( 0L );
+    }
+
+
+    /**
+     * Looks up an existing key
+     */
+    @Benchmark
+    public Object find()
+    {
+        Integer key = random.nextInt( size ) * 2;
+
+        if ( "avl".equals( tree ) )
+        {
+            return avlTree.find( key );
+        }
+        else
+        {
+            return arrayTree.find( key );
+        }
+    }
+
+
+    /**
+     * Inserts a missing key, then removes it
+     */
+    @Benchmark
+    public Integer insertAndRemove()
+    {
+        Integer key = random.nextInt( size ) * 2 + 1;
+
+        if ( "avl".equals( tree ) )
+        {
+            avlTree.insert( key );
+
+            return avlTree.remove( key );
+        }
+        else
+        {
+            arrayTree.insert( key );
+
+            return arrayTree.remove( key );
+        }
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.benchmarks.jmh;
+
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+
+/**
+ * Runs the JMH benchmarks. It accepts the JMH command line options, but by default
+ * all the benchmarks of this package are run, and the results are written in JSON
+ * in the file given by the {@link #RESULT_FILE_PROPERTY} system property, so they
+ * can be compared across releases :
+ * <pre>
+ * java -jar target/benchmarks.jar [JMH options] [benchmarks regexp]
+ * </pre>
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public final class BenchmarkRunner
+{
+    /** The system property used to set the result file */
+    public static final String RESULT_FILE_PROPERTY = "apacheds.benchmarks.result";
+
+    /** The default result file */
+    public static final String DEFAULT_RESULT_FILE = "apacheds-benchmarks.json";
+
+
+    private BenchmarkRunner()
+    {
+    }
+
+
+    public static void main( String[] args ) throws Exception
+    {
+        CommandLineOptions commandLineOptions = new CommandLineOptions( args );
+
+        if ( commandLineOptions.shouldHelp() )
+        {
+            commandLineOptions.showHelp();
+            return;
+        }
+
+        ChainedOptionsBuilder options = new OptionsBuilder().parent( commandLineOptions );
+
+        if ( commandLineOptions.getIncludes().isEmpty() )
+        {
+            options.include( BenchmarkRunner.class.getPackage().getName() + "\\..*Benchmark" );
+        }
+
+        // The command line options take precedence
+        if ( !commandLineOptions.getResultFormat().hasValue() )
+        {
+            options.resultFormat( ResultFormatType.JSON );
+        }
+
+        if ( !commandLineOptions.getResult().hasValue() )
+        {
+            options.result( System.getProperty( RESULT_FILE_PROPERTY, DEFAULT_RESULT_FILE ) );
+        }
+
+        Runner runner = new Runner( options.build() );
+
+        if ( commandLineOptions.shouldList() )
+        {
+            runner.list();
+        }
+        else
+        {
+            runner.run();
+        }
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.benchmarks.jmh;
+
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.schema.extractor.SchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.extractor.impl.DefaultSchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.loader.LdifSchemaLoader;
+import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
+import org.apache.directory.api.util.exception.Exceptions;
+
+
+/**
+ * Loads the schema used by the benchmarks, once per benchmark JVM. The schema is
+ * extracted in a temporary directory, deleted when the JVM exits.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+final class BenchmarkSchema
+{
+    /** The loaded schema */
+    private static SchemaManager schemaManager;
+
+
+    private BenchmarkSchema()
+    {
+    }
+
+
+    /**
+     * @return The schema manager, with all the enabled schemas loaded
+     * @throws Exception If the schema can't be loaded
+     */
+    static synchronized SchemaManager getSchemaManager() throws Exception
+    {
+        if ( schemaManager == null )
+        {
+            File workingDirectory = createTempDirectory( "schema" );
+            SchemaLdifExtractor extractor = new DefaultSchemaLdifExtractor( workingDirectory );
+            extractor.extractOrCopy( true );
+
+            LdifSchemaLoader loader = new LdifSchemaLoader( new File( workingDirectory, "schema" ) );
+            SchemaManager loadedSchemaManager = new DefaultSchemaManager( loader );
+
+            if ( !loadedSchemaManager.loadAllEnabled() )
+            {
+                throw new IllegalStateException( "Schema load failed : "
+                    + Exceptions.printErrors( loadedSchemaManager.getErrors() ) );
+            }
+
+            schemaManager = loadedSchemaManager;
+        }
+
+        return schemaManager;
+    }
+
+
+    /**
+     * Creates a temporary directory, deleted when the JVM exits
+     *
+     * @param name The directory name suffix
+     * @return The created directory
+     * @throws IOException If the directory can't be created
+     */
+    static File createTempDirectory( String name ) throws IOException
+    {
+        File directory = File.createTempFile( "apacheds-benchmark", name );
+
+        if ( !directory.delete() || !directory.mkdirs() )
+        {
+            throw new IOException( "Cannot create the " + directory + " directory" );
+        }
+
+        FileUtils.forceDeleteOnExit( directory );
+
+        return directory;
+    }
+}
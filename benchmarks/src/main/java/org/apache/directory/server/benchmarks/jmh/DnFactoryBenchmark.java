@@ -0,0 +1,132 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.benchmarks.jmh;
+
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.server.core.api.CacheService;
+import org.apache.directory.server.core.api.DnFactory;
+import org.apache.directory.server.core.shared.DefaultDnFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Benchmarks the parsing and normalization of DNs by the {@link DefaultDnFactory},
+ * with and without its DN cache, compared to the creation of a schema aware Dn.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DnFactoryBenchmark
+{
+    /** Tells if the factory uses the DN cache */
+    @Param(
+        { "true", "false" })
+    public boolean cached;
+
+    /** The number of distinct DNs */
+    @Param(
+        { "100", "100000" })
+    public int nbDns;
+
+    private SchemaManager schemaManager;
+    private CacheService cacheService;
+    private DnFactory dnFactory;
+    private String[] dns;
+    private Random random;
+
+
+    @Setup(Level.Trial)
+    public void createFactory() throws Exception
+    {
+        schemaManager = BenchmarkSchema.getSchemaManager();
+
+        if ( cached )
+        {
+            cacheService = new CacheService();
+            cacheService.initialize( null );
+            dnFactory = new DefaultDnFactory( schemaManager, cacheService.getCache( "dnCache" ) );
+        }
+        else
+        {
+            dnFactory = new DefaultDnFactory( schemaManager, null );
+        }
+
+        dns = new String[nbDns];
+
+        for ( int i = 0; i < nbDns; i++ )
+        {
+            dns[i] = "cn=User " + i + ",ou=Dept" + ( i % 10 ) + ",ou=People,dc=Example,dc=Com";
+        }
+
+        random = new Random( 0L );
+    }
+
+
+    @TearDown(Level.Trial)
+    public void destroyFactory()
+    {
+        if ( cacheService != null )
+        {
+            cacheService.destroy();
+        }
+    }
+
+
+    /**
+     * Creates a DN through the factory
+     */
+    @Benchmark
+    public Dn create() throws Exception
+    {
+        return dnFactory.create( dns[random.nextInt( nbDns )] );
+    }
+
+
+    /**
+     * Parses and normalizes a DN, without the factory
+     */
+    @Benchmark
+    public Dn parse() throws Exception
+    {
+        return new Dn( schemaManager, dns[random.nextInt( nbDns )] );
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.benchmarks.jmh;
+
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.server.core.partition.impl.btree.jdbm.EntrySerializer;
+import org.apache.directory.server.core.partition.impl.btree.mavibot.MavibotEntrySerializer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+
+/**
+ * Benchmarks the serializers used to store the entries in the MasterTable of the
+ * JDBM and Mavibot partitions. The entries are decoded lazily, so reading a single
+ * attribute and reading all of them are measured separately.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EntrySerializerBenchmark
+{
+    /** The serializer */
+    @Param(
+        { "jdbm", "mavibot" })
+    public String serializer;
+
+    private EntrySerializer jdbmSerializer;
+    private MavibotEntrySerializer mavibotSerializer;
+    private Entry entry;
+    private byte[] bytes;
+
+
+    @Setup(Level.Trial)
+    public void createEntry() throws Exception
+    {
+        SchemaManager schemaManager = BenchmarkSchema.getSchemaManager();
+
+        jdbmSerializer = new EntrySerializer( schemaManager );
+        MavibotEntrySerializer.setSchemaManager( schemaManager );
+        mavibotSerializer = new MavibotEntrySerializer();
+
+        entry = new DefaultEntry( schemaManager, "cn=John Doe,ou=people,o=benchmark",
+            "objectClass: top",
+            "objectClass: person",
+            "objectClass: organizationalPerson",
+            "objectClass: inetOrgPerson",
+            "cn: John Doe",
+            "sn: Doe",
+            "givenName: John",
+            "uid: jdoe",
+            "mail: jdoe@example.com",
+            "telephoneNumber: +1 408 555 1234",
+            "description: A synthetic entry used to benchmark the entry serializers",
+            "ou: dept3",
+            "entryUUID: f290425c-8272-4e62-8a67-92b06f38dbf5",
+            "entryCSN: 20150101000000.000000Z#000000#000#000000",
+            "creatorsName: uid=admin,ou=system",
+            "createTimestamp: 20150101000000Z" );
+
+        bytes = serialize();
+    }
+
+
+    @Benchmark
+    public byte[] serialize() throws Exception
+    {
+        if ( "jdbm".equals( serializer ) )
+        {
+            return jdbmSerializer.serialize( entry );
+        }
+        else
+        {
+            return mavibotSerializer.serialize( entry );
+        }
+    }
+
+
+    private Entry deserialize() throws Exception
+    {
+        if ( "jdbm".equals( serializer ) )
+        {
+            return ( Entry ) jdbmSerializer.deserialize( bytes );
+        }
+        else
+        {
+            return mavibotSerializer.fromBytes( bytes );
+        }
+    }
+
+
+    /**
+     * Deserializes the entry, and reads one attribute, as the evaluators do
+     */
+    @Benchmark
+    public Attribute deserializeOneAttribute() throws Exception
+    {
+        return deserialize().get( "sn" );
+    }
+
+
+    /**
+     * Deserializes the entry, and reads all the attributes, as when the entry is returned
+     */
+    @Benchmark
+    public void deserializeAllAttributes( Blackhole blackhole ) throws Exception
+    {
+        for ( Attribute attribute : deserialize() )
+        {
+            blackhole.consume( attribute );
+        }
+    }
+}
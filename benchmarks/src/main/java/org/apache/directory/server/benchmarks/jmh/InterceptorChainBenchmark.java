@@ -0,0 +1,150 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.benchmarks.jmh;
+
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.server.core.api.CoreSession;
+import org.apache.directory.server.core.api.LdapPrincipal;
+import org.apache.directory.server.core.api.MockCoreSession;
+import org.apache.directory.server.core.api.MockDirectoryService;
+import org.apache.directory.server.core.api.interceptor.BaseInterceptor;
+import org.apache.directory.server.core.api.interceptor.Interceptor;
+import org.apache.directory.server.core.api.interceptor.context.LookupOperationContext;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Benchmarks the cost of going through the interceptor chain : a lookup goes through
+ * a pipeline of interceptors which only call the next one, the last one returning
+ * an entry, so that only the chain itself and the operation context creation are
+ * measured.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InterceptorChainBenchmark
+{
+    /** The number of interceptors the lookup goes through, the server has around 20 */
+    @Param(
+        { "1", "10", "20" })
+    public int nbInterceptors;
+
+    private CoreSession session;
+    private Dn dn;
+    private Interceptor[] pipeline;
+
+
+    /**
+     * An interceptor which only calls the next one
+     */
+    private static class PassThroughInterceptor extends BaseInterceptor
+    {
+        PassThroughInterceptor( String name )
+        {
+            super( name );
+        }
+    }
+
+
+    /**
+     * The last interceptor, returning the same entry for all the lookups
+     */
+    private static class LastInterceptor extends BaseInterceptor
+    {
+        private final Entry entry;
+
+
+        LastInterceptor( Entry entry )
+        {
+            super( "last" );
+            this.entry = entry;
+        }
+
+
+        @Override
+        public Entry lookup( LookupOperationContext lookupContext ) throws LdapException
+        {
+            return entry;
+        }
+    }
+
+
+    @Setup(Level.Trial)
+    public void createPipeline() throws Exception
+    {
+        SchemaManager schemaManager = BenchmarkSchema.getSchemaManager();
+
+        MockDirectoryService directoryService = new MockDirectoryService();
+        directoryService.setSchemaManager( schemaManager );
+        session = new MockCoreSession( new LdapPrincipal(), directoryService );
+
+        dn = new Dn( schemaManager, "cn=John Doe,ou=people,o=benchmark" );
+        Entry entry = new DefaultEntry( schemaManager, dn,
+            "objectClass: top",
+            "objectClass: person",
+            "cn: John Doe",
+            "sn: Doe" );
+
+        pipeline = new Interceptor[nbInterceptors + 1];
+
+        for ( int i = 0; i < nbInterceptors; i++ )
+        {
+            pipeline[i] = new PassThroughInterceptor( "interceptor" + i );
+        }
+
+        pipeline[nbInterceptors] = new LastInterceptor( entry );
+    }
+
+
+    /**
+     * Creates a lookup operation context, and runs it through the pipeline
+     */
+    @Benchmark
+    public Entry lookup() throws Exception
+    {
+        LookupOperationContext lookupContext = new LookupOperationContext( session, dn );
+        lookupContext.setInterceptors( pipeline );
+
+        return lookupContext.getNextInterceptorInstance().lookup( lookupContext );
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.benchmarks.jmh;
+
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.csn.CsnFactory;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.filter.ExprNode;
+import org.apache.directory.api.ldap.model.filter.FilterParser;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.util.Strings;
+import org.apache.directory.server.core.api.CacheService;
+import org.apache.directory.server.core.api.MockDirectoryService;
+import org.apache.directory.server.core.api.interceptor.context.AddOperationContext;
+import org.apache.directory.server.core.partition.impl.avl.AvlPartition;
+import org.apache.directory.server.xdbm.impl.avl.AvlIndex;
+import org.apache.directory.server.xdbm.search.CandidateSet;
+import org.apache.directory.server.xdbm.search.PartitionSearchResult;
+import org.apache.directory.server.xdbm.search.impl.CursorBuilder;
+import org.apache.directory.server.xdbm.search.impl.DefaultOptimizer;
+import org.apache.directory.server.xdbm.search.impl.EvaluatorBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Benchmarks the search planning : the annotation of a filter by the {@link DefaultOptimizer},
+ * and the computation of the candidates by the {@link CursorBuilder}, on an in-memory
+ * partition filled with synthetic person entries.
+ * <br>
+ * Each entry is cn=user&lt;n&gt;,ou=people,o=benchmark, with cn, sn and uid values
+ * equal to user&lt;n&gt;, and ou=dept&lt;n % 10&gt;. The ou and cn attributes are indexed,
+ * sn is not.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SearchBenchmark
+{
+    /** The number of entries in the partition */
+    @Param(
+        { "1000", "10000" })
+    public int nbEntries;
+
+    /** The filter used by the search */
+    @Param(
+        {
+            "(cn=user42)",
+            "(|(cn=user1)(cn=user2)(cn=user3))",
+            "(&(ou=dept3)(cn=user1*))",
+            "(&(objectClass=person)(!(ou=dept0)))",
+            "(sn=user42)" })
+    public String filter;
+
+    private SchemaManager schemaManager;
+    private CacheService cacheService;
+    private AvlPartition partition;
+    private DefaultOptimizer<Entry> optimizer;
+    private CursorBuilder cursorBuilder;
+    private ExprNode root;
+
+
+    @Setup(Level.Trial)
+    public void createPartition() throws Exception
+    {
+        schemaManager = BenchmarkSchema.getSchemaManager();
+        File workingDirectory = BenchmarkSchema.createTempDirectory( "partition" );
+
+        cacheService = new CacheService();
+        cacheService.initialize( null );
+
+        MockDirectoryService directoryService = new MockDirectoryService();
+        directoryService.setSchemaManager( schemaManager );
+
+        partition = new AvlPartition( schemaManager, directoryService.getDnFactory() );
+        partition.setId( "benchmark" );
+        partition.setCacheSize( 1000 );
+        partition.setPartitionPath( workingDirectory.toURI() );
+        partition.setSyncOnWrite( false );
+        partition.addIndex( new AvlIndex<String>( SchemaConstants.OU_AT_OID ) );
+        partition.addIndex( new AvlIndex<String>( SchemaConstants.CN_AT_OID ) );
+        partition.setSuffixDn( new Dn( schemaManager, "o=benchmark" ) );
+        partition.setCacheService( cacheService );
+        partition.initialize();
+
+        loadEntries();
+
+        optimizer = new DefaultOptimizer<Entry>( partition );
+        cursorBuilder = new CursorBuilder( partition, new EvaluatorBuilder( partition, schemaManager ) );
+        root = FilterParser.parse( schemaManager, filter );
+    }
+
+
+    @TearDown(Level.Trial)
+    public void destroyPartition() throws Exception
+    {
+        partition.destroy();
+        cacheService.destroy();
+    }
+
+
+    /**
+     * Adds the synthetic entries in the partition
+     */
+    private void loadEntries() throws Exception
+    {
+        CsnFactory csnFactory = new CsnFactory( 0 );
+        long uuid = 1L;
+
+        addEntry( new DefaultEntry( schemaManager, "o=benchmark",
+            "objectClass: top",
+            "objectClass: organization",
+            "o: benchmark" ), csnFactory, uuid++ );
+
+        addEntry( new DefaultEntry( schemaManager, "ou=people,o=benchmark",
+            "objectClass: top",
+            "objectClass: organizationalUnit",
+            "ou: people" ), csnFactory, uuid++ );
+
+        for ( int i = 0; i < nbEntries; i++ )
+        {
+            String name = "user" + i;
+
+            addEntry( new DefaultEntry( schemaManager, "cn=" + name + ",ou=people,o=benchmark",
+                "objectClass: top",
+                "objectClass: person",
+                "objectClass: organizationalPerson",
+                "objectClass: inetOrgPerson",
+                "cn: " + name,
+                "sn: " + name,
+                "uid: " + name,
+                "ou: dept" + ( i % 10 ) ), csnFactory, uuid++ );
+        }
+    }
+
+
+    private void addEntry( Entry entry, CsnFactory csnFactory, long uuid ) throws Exception
+    {
+        entry.add( SchemaConstants.ENTRY_CSN_AT, csnFactory.newInstance().toString() );
+        entry.add( SchemaConstants.ENTRY_UUID_AT, Strings.getUUID( uuid ).toString() );
+
+        partition.add( new AddOperationContext( null, entry ) );
+    }
+
+
+    /**
+     * Annotates the filter with the number of candidates of each node
+     */
+    @Benchmark
+    public Long annotate() throws Exception
+    {
+        return optimizer.annotate( root );
+    }
+
+
+    /**
+     * Annotates the filter, and computes the set of candidates from the indexes
+     */
+    @Benchmark
+    public int buildCandidates() throws Exception
+    {
+        optimizer.annotate( root );
+
+        PartitionSearchResult searchResult = new PartitionSearchResult( schemaManager );
+        CandidateSet candidates = new CandidateSet( partition.getEntryOrdinalMap() );
+        searchResult.setCandidateSet( candidates );
+
+        cursorBuilder.build( root, searchResult );
+
+        return candidates.size();
+    }
+}
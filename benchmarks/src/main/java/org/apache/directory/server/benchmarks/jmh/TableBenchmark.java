@@ -0,0 +1,201 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.benchmarks.jmh;
+
+
+import java.io.File;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import jdbm.RecordManager;
+import jdbm.helper.MRU;
+import jdbm.recman.BaseRecordManager;
+import jdbm.recman.CacheRecordManager;
+
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.cursor.Tuple;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.model.schema.comparators.SerializableComparator;
+import org.apache.directory.server.core.partition.impl.btree.jdbm.JdbmTable;
+import org.apache.directory.server.core.partition.impl.btree.jdbm.StringSerializer;
+import org.apache.directory.server.core.partition.impl.btree.mavibot.MavibotTable;
+import org.apache.directory.server.xdbm.Table;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+
+/**
+ * Benchmarks the get, put and cursor operations of the {@link JdbmTable} and
+ * {@link MavibotTable} tables, without duplicate values. The keys are random
+ * integers in their String form, read from a table filled with nbKeys keys.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TableBenchmark
+{
+    /** The number of tuples read by the cursor benchmark */
+    private static final int SCAN_LENGTH = 100;
+
+    /** The table implementation */
+    @Param(
+        { "jdbm", "mavibot" })
+    public String table;
+
+    /** The number of keys in the table */
+    @Param(
+        { "10000", "100000" })
+    public int nbKeys;
+
+    private Table<String, String> store;
+    private RecordManager jdbmRecordManager;
+    private org.apache.directory.mavibot.btree.RecordManager mavibotRecordManager;
+    private String[] keys;
+    private Random random;
+
+
+    @Setup(Level.Trial)
+    public void createTable() throws Exception
+    {
+        SchemaManager schemaManager = BenchmarkSchema.getSchemaManager();
+        File workingDirectory = BenchmarkSchema.createTempDirectory( "table" );
+
+        if ( "jdbm".equals( table ) )
+        {
+            BaseRecordManager base = new BaseRecordManager( new File( workingDirectory, "table" ).getPath() );
+            jdbmRecordManager = new CacheRecordManager( base, new MRU( 100 ) );
+
+            SerializableComparator<String> comparator = new SerializableComparator<String>(
+                SchemaConstants.INTEGER_ORDERING_MATCH_MR_OID );
+            comparator.setSchemaManager( schemaManager );
+
+            store = new JdbmTable<String, String>( schemaManager, "benchmark", jdbmRecordManager, comparator,
+                StringSerializer.INSTANCE, StringSerializer.INSTANCE );
+        }
+        else if ( "mavibot".equals( table ) )
+        {
+            mavibotRecordManager = new org.apache.directory.mavibot.btree.RecordManager( workingDirectory.getPath() );
+
+            store = new MavibotTable<String, String>( mavibotRecordManager, schemaManager, "benchmark",
+                org.apache.directory.mavibot.btree.serializer.StringSerializer.INSTANCE,
+                org.apache.directory.mavibot.btree.serializer.StringSerializer.INSTANCE, false );
+        }
+        else
+        {
+            throw new IllegalArgumentException( "Unknown table " + table );
+        }
+
+        keys = new String[nbKeys];
+
+        for ( int i = 0; i < nbKeys; i++ )
+        {
+            keys[i] = Integer.toString( i );
+            store.put( keys[i], "value" + i );
+        }
+
+        random = new Random( 0L );
+    }
+
+
+    @TearDown(Level.Trial)
+    public void closeTable() throws Exception
+    {
+        store.close();
+
+        if ( jdbmRecordManager != null )
+        {
+            jdbmRecordManager.close();
+        }
+
+        if ( mavibotRecordManager != null )
+        {
+            mavibotRecordManager.close();
+        }
+    }
+
+
+    private String randomKey()
+    {
+        return keys[random.nextInt( nbKeys )];
+    }
+
+
+    /**
+     * Reads the value of an existing key
+     */
+    @Benchmark
+    public String get() throws Exception
+    {
+        return store.get( randomKey() );
+    }
+
+
+    /**
+     * Replaces the value of an existing key
+     */
+    @Benchmark
+    public void put() throws Exception
+    {
+        String key = randomKey();
+        store.put( key, "value" + key );
+    }
+
+
+    /**
+     * Positions a cursor on an existing key, and reads the next tuples
+     */
+    @Benchmark
+    public void cursor( Blackhole blackhole ) throws Exception
+    {
+        Cursor<Tuple<String, String>> cursor = store.cursor();
+
+        try
+        {
+            cursor.before( new Tuple<String, String>( randomKey(), null ) );
+
+            for ( int i = 0; ( i < SCAN_LENGTH ) && cursor.next(); i++ )
+            {
+                blackhole.consume( cursor.get() );
+            }
+        }
+        finally
+        {
+            cursor.close();
+        }
+    }
+}
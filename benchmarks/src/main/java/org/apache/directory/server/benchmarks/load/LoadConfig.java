@@ -0,0 +1,294 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.benchmarks.load;
+
+
+import java.util.Arrays;
+import java.util.List;
+
+
+/**
+ * The load generator configuration, read from the command line. Each option is
+ * given as --&lt;name&gt; &lt;value&gt;, the other options keeping their default value.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class LoadConfig
+{
+    /** The number of generated users */
+    private int entries = 10000;
+
+    /** The indexed attributes */
+    private List<String> indexes = Arrays.asList( "uid", "cn", "ou" );
+
+    /** The partition implementation : jdbm, mavibot or avl */
+    private String partition = "jdbm";
+
+    /** The partition entry cache size */
+    private int cacheSize = 10000;
+
+    /** The number of concurrent client connections */
+    private int connections = 16;
+
+    /** The operations mix */
+    private OperationMix mix = new OperationMix( "search=80,modify=10,bind=6,add=2,delete=2" );
+
+    /** The warm-up duration, in seconds */
+    private int warmup = 10;
+
+    /** The measured duration, in seconds */
+    private int duration = 60;
+
+    /** The total rate, in operations per second. 0 means that each client runs its operations back to back */
+    private int rate = 0;
+
+    /** The LDAP port */
+    private int port = 10389;
+
+    /** The number of server IO threads, 0 for the default */
+    private int ioThreads = 0;
+
+
+    /**
+     * Reads the configuration from the command line arguments
+     *
+     * @param args The command line arguments
+     * @return The configuration
+     * @throws IllegalArgumentException If an option is not valid
+     */
+    public static LoadConfig parse( String[] args )
+    {
+        LoadConfig config = new LoadConfig();
+
+        for ( int i = 0; i < args.length; i += 2 )
+        {
+            String option = args[i];
+
+            if ( !option.startsWith( "--" ) || ( i + 1 == args.length ) )
+            {
+                throw new IllegalArgumentException( "Invalid option " + option );
+            }
+
+            String value = args[i + 1];
+
+            switch ( option.substring( 2 ) )
+            {
+                case "entries":
+                    config.entries = parsePositive( option, value );
+                    break;
+
+                case "indexes":
+                    config.indexes = Arrays.asList( value.split( "," ) );
+                    break;
+
+                case "partition":
+                    config.partition = value;
+                    break;
+
+                case "cacheSize":
+                    config.cacheSize = parsePositive( option, value );
+                    break;
+
+                case "connections":
+                    config.connections = parsePositive( option, value );
+                    break;
+
+                case "mix":
+                    config.mix = new OperationMix( value );
+                    break;
+
+                case "warmup":
+                    config.warmup = parsePositive( option, value );
+                    break;
+
+                case "duration":
+                    config.duration = parsePositive( option, value );
+                    break;
+
+                case "rate":
+                    config.rate = parsePositive( option, value );
+                    break;
+
+                case "port":
+                    config.port = parsePositive( option, value );
+                    break;
+
+                case "ioThreads":
+                    config.ioThreads = parsePositive( option, value );
+                    break;
+
+                default:
+                    throw new IllegalArgumentException( "Unknown option " + option );
+            }
+        }
+
+        if ( config.duration == 0 )
+        {
+            throw new IllegalArgumentException( "The duration can't be 0" );
+        }
+
+        return config;
+    }
+
+
+    private static int parsePositive( String option, String value )
+    {
+        int parsed = Integer.parseInt( value );
+
+        if ( parsed < 0 )
+        {
+            throw new IllegalArgumentException( "The " + option + " option can't be negative" );
+        }
+
+        return parsed;
+    }
+
+
+    /**
+     * @return The command line options description
+     */
+    public static String usage()
+    {
+        return "Options :\n"
+            + "  --entries <n>         the number of generated users (10000)\n"
+            + "  --indexes <a,b,...>   the indexed attributes (uid,cn,ou)\n"
+            + "  --partition <type>    the partition implementation, jdbm, mavibot or avl (jdbm)\n"
+            + "  --cacheSize <n>       the partition entry cache size (10000)\n"
+            + "  --connections <n>     the number of concurrent client connections (16)\n"
+            + "  --mix <op=weight,...> the operations mix, using bind, search, modify, add and delete\n"
+            + "                        (search=80,modify=10,bind=6,add=2,delete=2)\n"
+            + "  --warmup <s>          the warm-up duration in seconds, not measured (10)\n"
+            + "  --duration <s>        the measured duration in seconds (60)\n"
+            + "  --rate <n>            the total rate in operations per second, 0 to run the\n"
+            + "                        operations back to back (0)\n"
+            + "  --port <n>            the LDAP port (10389)\n"
+            + "  --ioThreads <n>       the number of server IO threads, 0 for the default (0)\n";
+    }
+
+
+    /**
+     * @return The number of generated users
+     */
+    public int getEntries()
+    {
+        return entries;
+    }
+
+
+    /**
+     * @return The indexed attributes
+     */
+    public List<String> getIndexes()
+    {
+        return indexes;
+    }
+
+
+    /**
+     * @return The partition implementation
+     */
+    public String getPartition()
+    {
+        return partition;
+    }
+
+
+    /**
+     * @return The partition entry cache size
+     */
+    public int getCacheSize()
+    {
+        return cacheSize;
+    }
+
+
+    /**
+     * @return The number of concurrent client connections
+     */
+    public int getConnections()
+    {
+        return connections;
+    }
+
+
+    /**
+     * @return The operations mix
+     */
+    public OperationMix getMix()
+    {
+        return mix;
+    }
+
+
+    /**
+     * @return The warm-up duration, in seconds
+     */
+    public int getWarmup()
+    {
+        return warmup;
+    }
+
+
+    /**
+     * @return The measured duration, in seconds
+     */
+    public int getDuration()
+    {
+        return duration;
+    }
+
+
+    /**
+     * @return The total rate in operations per second, 0 if the operations are run back to back
+     */
+    public int getRate()
+    {
+        return rate;
+    }
+
+
+    /**
+     * @return The LDAP port
+     */
+    public int getPort()
+    {
+        return port;
+    }
+
+
+    /**
+     * @return The number of server IO threads, 0 for the default
+     */
+    public int getIoThreads()
+    {
+        return ioThreads;
+    }
+
+
+    /**
+     * @see Object#toString()
+     */
+    public String toString()
+    {
+        return "entries=" + entries + ", indexes=" + indexes + ", partition=" + partition + ", cacheSize="
+            + cacheSize + ", connections=" + connections + ", mix=" + mix + ", warmup=" + warmup + "s, duration="
+            + duration + "s, rate=" + ( rate == 0 ? "unlimited" : rate + "/s" );
+    }
+}
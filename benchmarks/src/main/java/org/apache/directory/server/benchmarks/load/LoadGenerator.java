@@ -0,0 +1,307 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.benchmarks.load;
+
+
+import java.io.File;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.server.constants.ServerDNConstants;
+import org.apache.directory.server.core.api.CoreSession;
+import org.apache.directory.server.core.api.DirectoryService;
+import org.apache.directory.server.core.api.partition.Partition;
+import org.apache.directory.server.core.factory.AvlPartitionFactory;
+import org.apache.directory.server.core.factory.DefaultDirectoryServiceFactory;
+import org.apache.directory.server.core.factory.JdbmPartitionFactory;
+import org.apache.directory.server.core.factory.MavibotPartitionFactory;
+import org.apache.directory.server.core.factory.PartitionFactory;
+import org.apache.directory.server.ldap.LdapServer;
+import org.apache.directory.server.protocol.shared.transport.TcpTransport;
+
+
+/**
+ * A load generator, starting an embedded server on a generated set of users, and
+ * running a mix of operations from many concurrent client connections. It reports
+ * the throughput and latency percentiles of each operation :
+ * <pre>
+ * java -cp target/benchmarks.jar org.apache.directory.server.benchmarks.load.LoadGenerator [options]
+ * </pre>
+ * See {@link LoadConfig#usage()} for the options.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class LoadGenerator
+{
+    /** The generated partition suffix */
+    public static final String SUFFIX_DN = "dc=benchmark,dc=com";
+
+    /** The parent of the generated users */
+    public static final String PEOPLE_DN = "ou=people," + SUFFIX_DN;
+
+    /** The administrator DN */
+    public static final String ADMIN_DN = ServerDNConstants.ADMIN_SYSTEM_DN;
+
+    /** The administrator password */
+    public static final String ADMIN_PASSWORD = "secret";
+
+    /** The password of the generated users */
+    public static final String USER_PASSWORD = "secret";
+
+    /** The configuration */
+    private final LoadConfig config;
+
+    /** The embedded directory service */
+    private DirectoryService directoryService;
+
+    /** The embedded LDAP server */
+    private LdapServer ldapServer;
+
+
+    /**
+     * Creates a new instance of LoadGenerator.
+     *
+     * @param config The configuration
+     */
+    public LoadGenerator( LoadConfig config )
+    {
+        this.config = config;
+    }
+
+
+    /**
+     * @param user The user number
+     * @return The uid of a generated user
+     */
+    public static String getUid( int user )
+    {
+        return "user" + user;
+    }
+
+
+    /**
+     * @param user The user number
+     * @return The DN of a generated user
+     */
+    public static String getUserDn( int user )
+    {
+        return "uid=" + getUid( user ) + "," + PEOPLE_DN;
+    }
+
+
+    /**
+     * Starts the directory service, and adds the partition containing the users
+     */
+    private void startDirectoryService() throws Exception
+    {
+        DefaultDirectoryServiceFactory factory = new DefaultDirectoryServiceFactory();
+        factory.init( "loadgen" );
+        directoryService = factory.getDirectoryService();
+
+        PartitionFactory partitionFactory;
+
+        if ( "jdbm".equals( config.getPartition() ) )
+        {
+            partitionFactory = new JdbmPartitionFactory();
+        }
+        else if ( "mavibot".equals( config.getPartition() ) )
+        {
+            partitionFactory = new MavibotPartitionFactory();
+        }
+        else if ( "avl".equals( config.getPartition() ) )
+        {
+            partitionFactory = new AvlPartitionFactory();
+        }
+        else
+        {
+            throw new IllegalArgumentException( "Unknown partition type " + config.getPartition() );
+        }
+
+        Partition partition = partitionFactory.createPartition( directoryService.getSchemaManager(),
+            directoryService.getDnFactory(), "benchmark", SUFFIX_DN, config.getCacheSize(),
+            new File( directoryService.getInstanceLayout().getPartitionsDirectory(), "benchmark" ) );
+        partition.setCacheService( directoryService.getCacheService() );
+
+        for ( String index : config.getIndexes() )
+        {
+            partitionFactory.addIndex( partition, index.trim(), 100 );
+        }
+
+        partition.initialize();
+        directoryService.addPartition( partition );
+    }
+
+
+    /**
+     * Adds the generated users
+     */
+    private void loadEntries() throws Exception
+    {
+        SchemaManager schemaManager = directoryService.getSchemaManager();
+        CoreSession session = directoryService.getAdminSession();
+
+        session.add( new DefaultEntry( schemaManager, SUFFIX_DN,
+            "objectClass: top",
+            "objectClass: domain",
+            "dc: benchmark" ) );
+
+        session.add( new DefaultEntry( schemaManager, PEOPLE_DN,
+            "objectClass: top",
+            "objectClass: organizationalUnit",
+            "ou: people" ) );
+
+        long start = System.currentTimeMillis();
+
+        for ( int i = 0; i < config.getEntries(); i++ )
+        {
+            String uid = getUid( i );
+
+            session.add( new DefaultEntry( schemaManager, getUserDn( i ),
+                "objectClass: top",
+                "objectClass: person",
+                "objectClass: organizationalPerson",
+                "objectClass: inetOrgPerson",
+                "uid", uid,
+                "cn", "User " + i,
+                "sn", "User" + i,
+                "ou", "dept" + ( i % 100 ),
+                "mail", uid + "@benchmark.com",
+                "userPassword", USER_PASSWORD ) );
+
+            if ( ( i + 1 ) % 10000 == 0 )
+            {
+                System.out.println( "Added " + ( i + 1 ) + " entries" );
+            }
+        }
+
+        System.out.println( "Added " + config.getEntries() + " entries in "
+            + ( System.currentTimeMillis() - start ) + " ms" );
+    }
+
+
+    /**
+     * Starts the LDAP server
+     */
+    private void startLdapServer() throws Exception
+    {
+        int ioThreads = config.getIoThreads();
+
+        if ( ioThreads == 0 )
+        {
+            ioThreads = Runtime.getRuntime().availableProcessors() + 1;
+        }
+
+        ldapServer = new LdapServer();
+        ldapServer.setTransports( new TcpTransport( config.getPort(), ioThreads,
+            Math.max( 50, config.getConnections() * 2 ) ) );
+        ldapServer.setDirectoryService( directoryService );
+        ldapServer.start();
+    }
+
+
+    /**
+     * Runs the workers, first during the warm-up, then during the measurement
+     *
+     * @return The statistics
+     */
+    private LoadStatistics runWorkers() throws Exception
+    {
+        LoadStatistics statistics = new LoadStatistics();
+        AtomicBoolean running = new AtomicBoolean( true );
+        ExecutorService executor = Executors.newFixedThreadPool( config.getConnections() );
+
+        for ( int i = 0; i < config.getConnections(); i++ )
+        {
+            executor.execute( new LoadWorker( config, statistics, running, i ) );
+        }
+
+        System.out.println( "Warming up for " + config.getWarmup() + " s" );
+        Thread.sleep( TimeUnit.SECONDS.toMillis( config.getWarmup() ) );
+
+        System.out.println( "Measuring for " + config.getDuration() + " s" );
+        statistics.start();
+        Thread.sleep( TimeUnit.SECONDS.toMillis( config.getDuration() ) );
+        statistics.stop();
+
+        running.set( false );
+        executor.shutdown();
+        executor.awaitTermination( 1, TimeUnit.MINUTES );
+
+        return statistics;
+    }
+
+
+    /**
+     * Starts the server, runs the load and stops the server
+     *
+     * @return The statistics
+     * @throws Exception If the server can't be started
+     */
+    public LoadStatistics run() throws Exception
+    {
+        try
+        {
+            startDirectoryService();
+            loadEntries();
+            startLdapServer();
+
+            return runWorkers();
+        }
+        finally
+        {
+            if ( ldapServer != null )
+            {
+                ldapServer.stop();
+            }
+
+            if ( directoryService != null )
+            {
+                directoryService.shutdown();
+            }
+        }
+    }
+
+
+    public static void main( String[] args ) throws Exception
+    {
+        LoadConfig config;
+
+        try
+        {
+            config = LoadConfig.parse( args );
+        }
+        catch ( IllegalArgumentException iae )
+        {
+            System.err.println( iae.getMessage() );
+            System.err.println( LoadConfig.usage() );
+            System.exit( 1 );
+            return;
+        }
+
+        System.out.println( "Running with " + config );
+
+        LoadStatistics statistics = new LoadGenerator( config ).run();
+        statistics.print( System.out );
+    }
+}
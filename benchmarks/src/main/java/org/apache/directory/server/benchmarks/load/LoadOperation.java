@@ -0,0 +1,83 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.benchmarks.load;
+
+
+/**
+ * The operations run by the load generator.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public enum LoadOperation
+{
+    /** A simple bind as one of the generated users */
+    BIND("bind"),
+
+    /** An equality search on the uid of one of the generated users */
+    SEARCH("search"),
+
+    /** The replacement of the description of one of the generated users */
+    MODIFY("modify"),
+
+    /** The addition of a new entry */
+    ADD("add"),
+
+    /** The deletion of an entry added by the same client */
+    DELETE("delete");
+
+    /** The name used in the operations mix */
+    private final String name;
+
+
+    private LoadOperation( String name )
+    {
+        this.name = name;
+    }
+
+
+    /**
+     * @return The name used in the operations mix
+     */
+    public String getName()
+    {
+        return name;
+    }
+
+
+    /**
+     * Gets the operation from its name
+     *
+     * @param name The operation name
+     * @return The operation
+     * @throws IllegalArgumentException If the name is not known
+     */
+    public static LoadOperation getOperation( String name )
+    {
+        for ( LoadOperation operation : values() )
+        {
+            if ( operation.name.equalsIgnoreCase( name ) )
+            {
+                return operation;
+            }
+        }
+
+        throw new IllegalArgumentException( "Unknown operation " + name );
+    }
+}
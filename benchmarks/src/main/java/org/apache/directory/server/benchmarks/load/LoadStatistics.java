@@ -0,0 +1,155 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.benchmarks.load;
+
+
+import java.io.PrintStream;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.apache.directory.server.core.api.monitor.LatencyHistogram;
+
+
+/**
+ * The latencies and errors of each operation, shared by all the clients. The
+ * latencies are only recorded between {@link #start()} and {@link #stop()}, so that
+ * the warm-up phase is not measured.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class LoadStatistics
+{
+    /** The latencies, per operation ordinal */
+    private final LatencyHistogram[] latencies = new LatencyHistogram[LoadOperation.values().length];
+
+    /** The number of failed operations, per operation ordinal */
+    private final AtomicLongArray errors = new AtomicLongArray( LoadOperation.values().length );
+
+    /** Tells if the operations are recorded */
+    private volatile boolean recording;
+
+    /** The start of the measurement, in nanoseconds */
+    private long startTime;
+
+    /** The end of the measurement, in nanoseconds */
+    private long stopTime;
+
+
+    /**
+     * Creates a new instance of LoadStatistics.
+     */
+    public LoadStatistics()
+    {
+        for ( int i = 0; i < latencies.length; i++ )
+        {
+            latencies[i] = new LatencyHistogram();
+        }
+    }
+
+
+    /**
+     * Records a successful operation, if the measurement is running.
+     *
+     * @param operation The operation
+     * @param latency The operation latency, in nanoseconds
+     */
+    public void record( LoadOperation operation, long latency )
+    {
+        if ( recording )
+        {
+            latencies[operation.ordinal()].record( latency );
+        }
+    }
+
+
+    /**
+     * Records a failed operation, if the measurement is running.
+     *
+     * @param operation The operation
+     */
+    public void error( LoadOperation operation )
+    {
+        if ( recording )
+        {
+            errors.incrementAndGet( operation.ordinal() );
+        }
+    }
+
+
+    /**
+     * Starts the measurement, dropping what has been recorded before
+     */
+    public void start()
+    {
+        for ( int i = 0; i < latencies.length; i++ )
+        {
+            latencies[i].reset();
+            errors.set( i, 0L );
+        }
+
+        startTime = System.nanoTime();
+        recording = true;
+    }
+
+
+    /**
+     * Stops the measurement
+     */
+    public void stop()
+    {
+        recording = false;
+        stopTime = System.nanoTime();
+    }
+
+
+    /**
+     * Prints the throughput and latencies of each operation
+     *
+     * @param out The stream to print to
+     */
+    public void print( PrintStream out )
+    {
+        double seconds = ( stopTime - startTime ) / 1000000000d;
+        long totalCount = 0L;
+
+        out.println( String.format( "%-8s %10s %10s %8s %9s %9s %9s %9s %9s", "op", "count", "ops/s", "errors",
+            "mean(us)", "p50(us)", "p99(us)", "p999(us)", "max(us)" ) );
+
+        for ( LoadOperation operation : LoadOperation.values() )
+        {
+            LatencyHistogram latency = latencies[operation.ordinal()];
+            long count = latency.getCount();
+            long nbErrors = errors.get( operation.ordinal() );
+
+            if ( ( count == 0 ) && ( nbErrors == 0 ) )
+            {
+                continue;
+            }
+
+            totalCount += count;
+
+            out.println( String.format( "%-8s %10d %10.1f %8d %9d %9d %9d %9d %9d", operation.getName(), count,
+                count / seconds, nbErrors, latency.getMean(), latency.getP50(), latency.getP99(), latency.getP999(),
+                latency.getMax() ) );
+        }
+
+        out.println( String.format( "%-8s %10d %10.1f", "total", totalCount, totalCount / seconds ) );
+        out.println( "The percentiles are the upper bounds of power of two buckets" );
+    }
+}
@@ -0,0 +1,262 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.benchmarks.load;
+
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.directory.api.ldap.model.cursor.EntryCursor;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.DefaultModification;
+import org.apache.directory.api.ldap.model.entry.ModificationOperation;
+import org.apache.directory.api.ldap.model.message.SearchScope;
+import org.apache.directory.ldap.client.api.LdapConnection;
+import org.apache.directory.ldap.client.api.LdapNetworkConnection;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * A client of the load generator. It opens two connections to the server, one
+ * bound as the administrator for the searches and the updates, and one for the
+ * binds, so that the binds don't change the identity used by the other operations.
+ * <br>
+ * When a rate is given, the operations are scheduled at a fixed interval, and their
+ * latency is measured from the time they should have started, so that a slow server
+ * does not reduce the load it gets (open loop). Otherwise the operations are run
+ * back to back (closed loop).
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class LoadWorker implements Runnable
+{
+    private static final Logger LOG = LoggerFactory.getLogger( LoadWorker.class );
+
+    /** The configuration */
+    private final LoadConfig config;
+
+    /** The statistics */
+    private final LoadStatistics statistics;
+
+    /** Tells if the workers must keep running */
+    private final AtomicBoolean running;
+
+    /** The worker number, used to name the added entries */
+    private final int workerId;
+
+    /** The interval between two operations in nanoseconds, 0 to run them back to back */
+    private final long interval;
+
+    /** The random generator of this worker */
+    private final Random random;
+
+    /** The entries added by this worker, not deleted yet */
+    private final Deque<String> addedEntries = new ArrayDeque<String>();
+
+    /** The number of entries added by this worker */
+    private long nbAdded;
+
+    /** The connection used by the searches and the updates */
+    private LdapConnection connection;
+
+    /** The connection used by the binds */
+    private LdapConnection bindConnection;
+
+
+    /**
+     * Creates a new instance of LoadWorker.
+     *
+     * @param config The configuration
+     * @param statistics The statistics
+     * @param running Tells if the workers must keep running
+     * @param workerId The worker number
+     */
+    public LoadWorker( LoadConfig config, LoadStatistics statistics, AtomicBoolean running, int workerId )
+    {
+        this.config = config;
+        this.statistics = statistics;
+        this.running = running;
+        this.workerId = workerId;
+        random = new Random( workerId );
+
+        if ( config.getRate() > 0 )
+        {
+            interval = 1000000000L * config.getConnections() / config.getRate();
+        }
+        else
+        {
+            interval = 0L;
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void run()
+    {
+        try
+        {
+            connection = new LdapNetworkConnection( "localhost", config.getPort() );
+            connection.bind( LoadGenerator.ADMIN_DN, LoadGenerator.ADMIN_PASSWORD );
+            bindConnection = new LdapNetworkConnection( "localhost", config.getPort() );
+
+            // Spread the start of the workers over one interval
+            long next = System.nanoTime() + ( long ) ( random.nextDouble() * interval );
+
+            while ( running.get() )
+            {
+                long start;
+
+                if ( interval > 0 )
+                {
+                    long wait = next - System.nanoTime();
+
+                    if ( wait > 0 )
+                    {
+                        LockSupport.parkNanos( wait );
+                    }
+
+                    start = next;
+                    next += interval;
+                }
+                else
+                {
+                    start = System.nanoTime();
+                }
+
+                LoadOperation operation = config.getMix().next( random );
+
+                try
+                {
+                    operation = execute( operation );
+                    statistics.record( operation, System.nanoTime() - start );
+                }
+                catch ( Exception e )
+                {
+                    LOG.debug( "The {} operation failed", operation.getName(), e );
+                    statistics.error( operation );
+                }
+            }
+        }
+        catch ( Exception e )
+        {
+            LOG.error( "The worker {} failed", workerId, e );
+        }
+        finally
+        {
+            close( connection );
+            close( bindConnection );
+        }
+    }
+
+
+    /**
+     * Executes an operation
+     *
+     * @return The operation really executed, an add when there is nothing to delete
+     */
+    private LoadOperation execute( LoadOperation operation ) throws Exception
+    {
+        switch ( operation )
+        {
+            case BIND:
+                bindConnection.bind( LoadGenerator.getUserDn( random.nextInt( config.getEntries() ) ),
+                    LoadGenerator.USER_PASSWORD );
+                return operation;
+
+            case SEARCH:
+                EntryCursor cursor = connection.search( LoadGenerator.PEOPLE_DN,
+                    "(uid=" + LoadGenerator.getUid( random.nextInt( config.getEntries() ) ) + ")",
+                    SearchScope.SUBTREE, "*" );
+
+                try
+                {
+                    while ( cursor.next() )
+                    {
+                        cursor.get();
+                    }
+                }
+                finally
+                {
+                    cursor.close();
+                }
+
+                return operation;
+
+            case MODIFY:
+                connection.modify( LoadGenerator.getUserDn( random.nextInt( config.getEntries() ) ),
+                    new DefaultModification( ModificationOperation.REPLACE_ATTRIBUTE, "description",
+                        "modified by worker " + workerId + " at " + System.currentTimeMillis() ) );
+                return operation;
+
+            case DELETE:
+                String dn = addedEntries.pollFirst();
+
+                if ( dn != null )
+                {
+                    connection.delete( dn );
+                    return operation;
+                }
+
+                // Nothing to delete, add an entry instead
+
+            case ADD:
+            default:
+                String uid = "worker" + workerId + "-" + nbAdded++;
+                String addedDn = "uid=" + uid + "," + LoadGenerator.PEOPLE_DN;
+
+                connection.add( new DefaultEntry( addedDn,
+                    "objectClass: top",
+                    "objectClass: person",
+                    "objectClass: organizationalPerson",
+                    "objectClass: inetOrgPerson",
+                    "uid", uid,
+                    "cn", uid,
+                    "sn", uid,
+                    "ou: added" ) );
+                addedEntries.addLast( addedDn );
+
+                return LoadOperation.ADD;
+        }
+    }
+
+
+    private void close( LdapConnection ldapConnection )
+    {
+        if ( ldapConnection == null )
+        {
+            return;
+        }
+
+        try
+        {
+            ldapConnection.close();
+        }
+        catch ( Exception e )
+        {
+            LOG.debug( "Failed to close a connection", e );
+        }
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.benchmarks.load;
+
+
+import java.util.Random;
+
+
+/**
+ * A mix of operations, each one having a weight. The mix is given as a comma
+ * separated list of &lt;operation&gt;=&lt;weight&gt;, like "search=80,modify=15,bind=5".
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class OperationMix
+{
+    /** The cumulated weights, per operation ordinal */
+    private final int[] cumulatedWeights = new int[LoadOperation.values().length];
+
+    /** The sum of the weights */
+    private final int totalWeight;
+
+
+    /**
+     * Creates a new instance of OperationMix.
+     *
+     * @param mix The operations and their weights
+     * @throws IllegalArgumentException If the mix can't be parsed
+     */
+    public OperationMix( String mix )
+    {
+        int[] weights = new int[LoadOperation.values().length];
+
+        for ( String element : mix.split( "," ) )
+        {
+            int pos = element.indexOf( '=' );
+
+            if ( pos < 0 )
+            {
+                throw new IllegalArgumentException( "Invalid operation weight " + element );
+            }
+
+            LoadOperation operation = LoadOperation.getOperation( element.substring( 0, pos ).trim() );
+            int weight = Integer.parseInt( element.substring( pos + 1 ).trim() );
+
+            if ( weight < 0 )
+            {
+                throw new IllegalArgumentException( "Negative weight for " + operation.getName() );
+            }
+
+            weights[operation.ordinal()] += weight;
+        }
+
+        int total = 0;
+
+        for ( int i = 0; i < weights.length; i++ )
+        {
+            total += weights[i];
+            cumulatedWeights[i] = total;
+        }
+
+        if ( total == 0 )
+        {
+            throw new IllegalArgumentException( "The operations mix " + mix + " is empty" );
+        }
+
+        totalWeight = total;
+    }
+
+
+    /**
+     * Picks an operation, with a probability proportional to its weight
+     *
+     * @param random The random generator of the calling thread
+     * @return The operation
+     */
+    public LoadOperation next( Random random )
+    {
+        int value = random.nextInt( totalWeight );
+        LoadOperation[] operations = LoadOperation.values();
+
+        for ( int i = 0; i < cumulatedWeights.length; i++ )
+        {
+            if ( value < cumulatedWeights[i] )
+            {
+                return operations[i];
+            }
+        }
+
+        // Can't happen
+        return operations[operations.length - 1];
+    }
+
+
+    /**
+     * @see Object#toString()
+     */
+    public String toString()
+    {
+        StringBuilder sb = new StringBuilder();
+        int previous = 0;
+
+        for ( LoadOperation operation : LoadOperation.values() )
+        {
+            int weight = cumulatedWeights[operation.ordinal()] - previous;
+            previous = cumulatedWeights[operation.ordinal()];
+
+            if ( weight > 0 )
+            {
+                if ( sb.length() > 0 )
+                {
+                    sb.append( ',' );
+                }
+
+                sb.append( operation.getName() ).append( '=' ).append( weight );
+            }
+        }
+
+        return sb.toString();
+    }
+}
@@ -35,12 +35,14 @@ import org.apache.directory.server.xdbm.Index;
  *     name = "example",
  *     @Indexes( {
  *         @CreateIndex( attribute = "cn" ),
- *         @CreateIndex( attribute = "sn' )
+ *         @CreateIndex( attribute = "sn' ),
+ *         @CreateIndex( attribute = "mail", ngramSize = 3 )
  *     })
  * )
  * </pre>
  * There is one more parameter, the 'factory', which can be used to declare
- * a specific kind of Index. It defaults to JdbmIndex.
+ * a specific kind of Index. It defaults to JdbmIndex. The 'ngramSize' parameter
+ * enables a n-gram index used to evaluate (attr=*any*) filters.
  *
  * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
  */
@@ -59,4 +61,8 @@ public @interface CreateIndex
 
     /** The indexed attribute */
     String attribute();
+
+
+    /** The size of the n-grams used to index substrings, 0 to disable the substring index */
+    int ngramSize() default 0;
 }
@@ -270,6 +270,7 @@ public final class DSAnnotationProcessor
                         {
                             // JDBM index
                             JdbmIndex index = new JdbmIndex( createIndex.attribute(), false );
+                            index.setNgramSize( createIndex.ngramSize() );
 
                             btreePartition.addIndexedAttributes( index );
                         }
@@ -277,6 +278,7 @@ public final class DSAnnotationProcessor
                         {
                             // Mavibot index
                             MavibotIndex index = new MavibotIndex( createIndex.attribute(), false );
+                            index.setNgramSize( createIndex.ngramSize() );
 
                             btreePartition.addIndexedAttributes( index );
                         }
@@ -286,6 +288,7 @@ public final class DSAnnotationProcessor
                             // type.
                             // We use the generic index implementation.
                             JdbmIndex index = new JdbmIndex( createIndex.attribute(), false );
+                            index.setNgramSize( createIndex.ngramSize() );
 
                             btreePartition.addIndexedAttributes( index );
                         }
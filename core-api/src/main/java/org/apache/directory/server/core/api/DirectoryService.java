@@ -41,6 +41,7 @@ import org.apache.directory.server.core.api.entry.ServerEntryFactory;
 import org.apache.directory.server.core.api.event.EventService;
 import org.apache.directory.server.core.api.interceptor.Interceptor;
 import org.apache.directory.server.core.api.journal.Journal;
+import org.apache.directory.server.core.api.monitor.MonitorRegistry;
 import org.apache.directory.server.core.api.partition.Partition;
 import org.apache.directory.server.core.api.partition.PartitionNexus;
 import org.apache.directory.server.core.api.schema.SchemaPartition;
@@ -335,6 +336,17 @@ public interface DirectoryService extends ServerEntryFactory
     List<String> getInterceptors( OperationEnum operation );
 
 
+    /**
+     * Returns the precompiled pipeline of interceptors to call for a given operation.
+     * The returned array is shared and replaced as a whole when an interceptor is
+     * added or removed, it must not be modified.
+     *
+     * @param operation The operation
+     * @return the interceptors to call for the given operation, in order
+     */
+    Interceptor[] getInterceptorPipeline( OperationEnum operation );
+
+
     /**
      * Sets the interceptors in the server.
      *
@@ -495,6 +507,12 @@ public interface DirectoryService extends ServerEntryFactory
     OperationManager getOperationManager();
 
 
+    /**
+     * @return The registry of the statistics gathered by this DirectoryService
+     */
+    MonitorRegistry getMonitorRegistry();
+
+
     /**
      * @return The maximum allowed size for an incoming PDU
      */
@@ -1201,7 +1201,7 @@ public class LdapCoreSessionConnection extends AbstractLdapConnection
         bindContext.setCredentials( bindRequest.getCredentials() );
 
         bindContext.setDn( bindRequest.getDn().apply( directoryService.getSchemaManager() ) );
-        bindContext.setInterceptors( directoryService.getInterceptors( OperationEnum.BIND ) );
+        bindContext.setInterceptors( directoryService.getInterceptorPipeline( OperationEnum.BIND ) );
 
         for ( Control control : bindRequest.getControls().values() )
         {
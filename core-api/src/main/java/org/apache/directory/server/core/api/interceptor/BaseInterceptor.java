@@ -384,15 +384,13 @@ public abstract class BaseInterceptor implements Interceptor
      */
     protected Interceptor getNextInterceptor( OperationContext operationContext )
     {
-        String currentInterceptor = operationContext.getNextInterceptor();
+        Interceptor interceptor = operationContext.getNextInterceptorInstance();
 
-        if ( currentInterceptor.equals( "FINAL" ) )
+        if ( interceptor == null )
         {
             return FINAL_INTERCEPTOR;
         }
 
-        Interceptor interceptor = directoryService.getInterceptor( currentInterceptor );
-
         return interceptor;
     }
 
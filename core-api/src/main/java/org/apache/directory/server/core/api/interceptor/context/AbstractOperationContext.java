@@ -30,7 +30,9 @@ import org.apache.directory.api.ldap.model.exception.LdapException;
 import org.apache.directory.api.ldap.model.message.Control;
 import org.apache.directory.api.ldap.model.name.Dn;
 import org.apache.directory.server.core.api.CoreSession;
+import org.apache.directory.server.core.api.DirectoryService;
 import org.apache.directory.server.core.api.LdapPrincipal;
+import org.apache.directory.server.core.api.interceptor.Interceptor;
 
 
 /**
@@ -62,7 +64,7 @@ public abstract class AbstractOperationContext implements OperationContext
     protected Collection<String> byPassed;
 
     /** The interceptors to call for this operation */
-    protected List<String> interceptors;
+    protected Interceptor[] interceptors;
 
     /** The current interceptor position */
     protected int currentInterceptor;
@@ -293,6 +295,29 @@ public abstract class AbstractOperationContext implements OperationContext
      * {@inheritDoc}
      */
     public final void setInterceptors( List<String> interceptors )
+    {
+        DirectoryService directoryService = session.getDirectoryService();
+        Interceptor[] pipeline = new Interceptor[interceptors.size()];
+
+        for ( int i = 0; i < pipeline.length; i++ )
+        {
+            pipeline[i] = directoryService.getInterceptor( interceptors.get( i ) );
+
+            // A missing interceptor would silently end the chain
+            if ( pipeline[i] == null )
+            {
+                throw new IllegalArgumentException( "Unknown interceptor : " + interceptors.get( i ) );
+            }
+        }
+
+        this.interceptors = pipeline;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public final void setInterceptors( Interceptor[] interceptors )
     {
         this.interceptors = interceptors;
     }
@@ -303,15 +328,28 @@ public abstract class AbstractOperationContext implements OperationContext
      */
     public final String getNextInterceptor()
     {
-        if ( currentInterceptor == interceptors.size() )
+        Interceptor interceptor = getNextInterceptorInstance();
+
+        if ( interceptor == null )
         {
             return "FINAL";
         }
 
-        String interceptor = interceptors.get( currentInterceptor );
-        currentInterceptor++;
+        return interceptor.getName();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public final Interceptor getNextInterceptorInstance()
+    {
+        if ( currentInterceptor == interceptors.length )
+        {
+            return null;
+        }
 
-        return interceptor;
+        return interceptors[currentInterceptor++];
     }
 
 
@@ -72,7 +72,7 @@ public class BindOperationContext extends AbstractOperationContext
 
         if ( session != null )
         {
-            setInterceptors( session.getDirectoryService().getInterceptors( OperationEnum.BIND ) );
+            setInterceptors( session.getDirectoryService().getInterceptorPipeline( OperationEnum.BIND ) );
         }
     }
 
@@ -65,7 +65,7 @@ public class ModifyOperationContext extends AbstractChangeOperationContext
 
         if ( session != null )
         {
-            setInterceptors( session.getDirectoryService().getInterceptors( OperationEnum.MODIFY ) );
+            setInterceptors( session.getDirectoryService().getInterceptorPipeline( OperationEnum.MODIFY ) );
         }
     }
 
@@ -82,7 +82,7 @@ public class ModifyOperationContext extends AbstractChangeOperationContext
 
         if ( session != null )
         {
-            setInterceptors( session.getDirectoryService().getInterceptors( OperationEnum.MODIFY ) );
+            setInterceptors( session.getDirectoryService().getInterceptorPipeline( OperationEnum.MODIFY ) );
         }
 
         this.modItems = modItems;
@@ -95,7 +95,7 @@ public class ModifyOperationContext extends AbstractChangeOperationContext
 
         if ( session != null )
         {
-            setInterceptors( session.getDirectoryService().getInterceptors( OperationEnum.MODIFY ) );
+            setInterceptors( session.getDirectoryService().getInterceptorPipeline( OperationEnum.MODIFY ) );
         }
         else
         {
@@ -28,6 +28,7 @@ import org.apache.directory.api.ldap.model.message.Control;
 import org.apache.directory.api.ldap.model.name.Dn;
 import org.apache.directory.server.core.api.CoreSession;
 import org.apache.directory.server.core.api.LdapPrincipal;
+import org.apache.directory.server.core.api.interceptor.Interceptor;
 
 
 /**
@@ -222,14 +223,34 @@ public interface OperationContext
     String getNextInterceptor();
 
 
+    /**
+     * Gets the next interceptor in the pipeline of interceptors. The
+     * position in the pipeline will be incremented.
+     * 
+     * @return The next interceptor from the pipeline, or null if all the
+     * interceptors have been called
+     */
+    Interceptor getNextInterceptorInstance();
+
+
     /**
      * Sets the list of interceptors to go through for an operation
      * 
-     * @param interceptors The list of interceptors
+     * @param interceptors The list of interceptors names
+     * @throws IllegalArgumentException If one of the names is not the name of an interceptor
+     * of the DirectoryService. The pipeline is then left unchanged.
      */
     void setInterceptors( List<String> interceptors );
 
 
+    /**
+     * Sets the pipeline of interceptors to go through for an operation
+     * 
+     * @param interceptors The interceptors pipeline, which will not be modified
+     */
+    void setInterceptors( Interceptor[] interceptors );
+
+
     /**
      * Gets the session associated with this operation.
      *
@@ -66,7 +66,10 @@ public class SearchOperationContext extends FilteringOperationContext
 
     /** flag to indicate if this search is done for replication */
     private boolean syncreplSearch;
-    
+
+    /** flag set by the partition when the entries are returned ordered by the first sort key */
+    private boolean sortedByFirstKey;
+
     /**
      * Creates a new instance of SearchOperationContext.
      */
@@ -76,7 +79,7 @@ public class SearchOperationContext extends FilteringOperationContext
 
         if ( session != null )
         {
-            setInterceptors( session.getDirectoryService().getInterceptors( OperationEnum.SEARCH ) );
+            setInterceptors( session.getDirectoryService().getInterceptorPipeline( OperationEnum.SEARCH ) );
         }
     }
 
@@ -91,7 +94,7 @@ public class SearchOperationContext extends FilteringOperationContext
 
         if ( session != null )
         {
-            setInterceptors( session.getDirectoryService().getInterceptors( OperationEnum.SEARCH ) );
+            setInterceptors( session.getDirectoryService().getInterceptorPipeline( OperationEnum.SEARCH ) );
         }
 
         this.filter = searchRequest.getFilter();
@@ -127,7 +130,7 @@ public class SearchOperationContext extends FilteringOperationContext
 
         if ( session != null )
         {
-            setInterceptors( session.getDirectoryService().getInterceptors( OperationEnum.SEARCH ) );
+            setInterceptors( session.getDirectoryService().getInterceptorPipeline( OperationEnum.SEARCH ) );
         }
     }
 
@@ -151,7 +154,7 @@ public class SearchOperationContext extends FilteringOperationContext
 
         if ( session != null )
         {
-            setInterceptors( session.getDirectoryService().getInterceptors( OperationEnum.SEARCH ) );
+            setInterceptors( session.getDirectoryService().getInterceptorPipeline( OperationEnum.SEARCH ) );
         }
     }
 
@@ -217,6 +220,28 @@ public class SearchOperationContext extends FilteringOperationContext
     }
 
 
+    /**
+     * @return true if the partition returns the entries ordered by the first key
+     * of the server side sort control
+     */
+    public boolean isSortedByFirstKey()
+    {
+        return sortedByFirstKey;
+    }
+
+
+    /**
+     * sets the flag to indicate if the partition returns the entries ordered by
+     * the first key of the server side sort control
+     * 
+     * @param sortedByFirstKey
+     */
+    public void setSortedByFirstKey( boolean sortedByFirstKey )
+    {
+        this.sortedByFirstKey = sortedByFirstKey;
+    }
+
+
     /**
      * @return The alias dereferencing mode
      */
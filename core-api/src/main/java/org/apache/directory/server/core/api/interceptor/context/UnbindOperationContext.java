@@ -41,7 +41,7 @@ public class UnbindOperationContext extends AbstractOperationContext
     {
         super( session, session.getEffectivePrincipal().getDn() );
 
-        setInterceptors( session.getDirectoryService().getInterceptors( OperationEnum.UNBIND ) );
+        setInterceptors( session.getDirectoryService().getInterceptorPipeline( OperationEnum.UNBIND ) );
     }
 
 
@@ -50,7 +50,7 @@ public class UnbindOperationContext extends AbstractOperationContext
         super( session, session.getEffectivePrincipal().getDn() );
         setRequestControls( unbindRequest.getControls() );
 
-        setInterceptors( session.getDirectoryService().getInterceptors( OperationEnum.UNBIND ) );
+        setInterceptors( session.getDirectoryService().getInterceptorPipeline( OperationEnum.UNBIND ) );
     }
 
 
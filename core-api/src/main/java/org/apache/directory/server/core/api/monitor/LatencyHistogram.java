@@ -0,0 +1,318 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.api.monitor;
+
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+
+/**
+ * An histogram of latencies. The latencies are counted in buckets whose bounds are
+ * powers of 2, in microseconds : the first bucket counts the latencies shorter than
+ * 1 microsecond, the bucket N the latencies between 2^(N-1) and 2^N microseconds,
+ * and the last bucket all the longer latencies. The percentiles are approximated by
+ * the upper bound of the bucket they fall in, which is precise enough to spot the
+ * spikes an average would hide.
+ * <br>
+ * This class is thread safe, and does not block the threads recording a latency.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class LatencyHistogram implements LatencyHistogramMXBean
+{
+    /** The number of buckets. The last one counts the latencies longer than 2^22 microseconds (4s) */
+    public static final int NB_BUCKETS = 24;
+
+    /** The number of latencies per bucket */
+    private final AtomicLongArray buckets = new AtomicLongArray( NB_BUCKETS );
+
+    /** The number of recorded latencies */
+    private final AtomicLong count = new AtomicLong();
+
+    /** The total time, in nanoseconds */
+    private final AtomicLong totalTime = new AtomicLong();
+
+    /** The longest latency, in nanoseconds */
+    private final AtomicLong maxTime = new AtomicLong();
+
+
+    /**
+     * Records a latency.
+     *
+     * @param time The latency, in nanoseconds
+     */
+    public void record( long time )
+    {
+        if ( time < 0 )
+        {
+            // The nanoTime() clock is not always monotonic
+            time = 0;
+        }
+
+        long micros = time / 1000L;
+        int bucket = 64 - Long.numberOfLeadingZeros( micros );
+
+        if ( bucket >= NB_BUCKETS )
+        {
+            bucket = NB_BUCKETS - 1;
+        }
+
+        buckets.incrementAndGet( bucket );
+        count.incrementAndGet();
+        totalTime.addAndGet( time );
+
+        long max = maxTime.get();
+
+        while ( ( time > max ) && !maxTime.compareAndSet( max, time ) )
+        {
+            max = maxTime.get();
+        }
+    }
+
+
+    /**
+     * Records the time elapsed since a given start.
+     *
+     * @param start The start, as returned by {@link System#nanoTime()}
+     */
+    public void recordSince( long start )
+    {
+        record( System.nanoTime() - start );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getCount()
+    {
+        return count.get();
+    }
+
+
+    /**
+     * @return The total time, in nanoseconds
+     */
+    public long getTotalTime()
+    {
+        return totalTime.get();
+    }
+
+
+    /**
+     * @return The mean latency, in nanoseconds
+     */
+    public long getMeanTime()
+    {
+        long nbLatencies = count.get();
+
+        if ( nbLatencies == 0 )
+        {
+            return 0L;
+        }
+
+        return totalTime.get() / nbLatencies;
+    }
+
+
+    /**
+     * @return The longest latency, in nanoseconds
+     */
+    public long getMaxTime()
+    {
+        return maxTime.get();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getMean()
+    {
+        return getMeanTime() / 1000L;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getMax()
+    {
+        return getMaxTime() / 1000L;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getP50()
+    {
+        return getPercentile( 50d );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getP90()
+    {
+        return getPercentile( 90d );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getP99()
+    {
+        return getPercentile( 99d );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getP999()
+    {
+        return getPercentile( 99.9d );
+    }
+
+
+    /**
+     * Gets the number of latencies counted in a bucket
+     *
+     * @param bucket The bucket, between 0 and NB_BUCKETS - 1
+     * @return The number of latencies
+     */
+    public long getBucketCount( int bucket )
+    {
+        return buckets.get( bucket );
+    }
+
+
+    /**
+     * Gets the upper bound of a bucket
+     *
+     * @param bucket The bucket, between 0 and NB_BUCKETS - 1
+     * @return The upper bound, in microseconds, Long.MAX_VALUE for the last bucket
+     */
+    public static long getBucketUpperBound( int bucket )
+    {
+        if ( bucket >= NB_BUCKETS - 1 )
+        {
+            return Long.MAX_VALUE;
+        }
+
+        return 1L << bucket;
+    }
+
+
+    /**
+     * Gets an approximation of a percentile of the latencies, by returning the
+     * upper bound of the bucket containing this percentile.
+     *
+     * @param percentile The percentile, between 0 and 100
+     * @return The upper bound of the bucket, in microseconds, or 0 if no latency has been recorded
+     */
+    public long getPercentile( double percentile )
+    {
+        long nbLatencies = 0L;
+        long[] counts = new long[NB_BUCKETS];
+
+        // Take a snapshot, as the counters may be modified concurrently
+        for ( int i = 0; i < NB_BUCKETS; i++ )
+        {
+            counts[i] = buckets.get( i );
+            nbLatencies += counts[i];
+        }
+
+        if ( nbLatencies == 0 )
+        {
+            return 0L;
+        }
+
+        long threshold = ( long ) Math.ceil( nbLatencies * percentile / 100d );
+        long seen = 0L;
+
+        for ( int i = 0; i < NB_BUCKETS; i++ )
+        {
+            seen += counts[i];
+
+            if ( ( seen >= threshold ) && ( seen > 0 ) )
+            {
+                return getBucketUpperBound( i );
+            }
+        }
+
+        return getBucketUpperBound( NB_BUCKETS - 1 );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void reset()
+    {
+        for ( int i = 0; i < NB_BUCKETS; i++ )
+        {
+            buckets.set( i, 0L );
+        }
+
+        count.set( 0L );
+        totalTime.set( 0L );
+        maxTime.set( 0L );
+    }
+
+
+    /**
+     * @see Object#toString()
+     */
+    public String toString()
+    {
+        StringBuilder sb = new StringBuilder();
+
+        sb.append( getClass().getSimpleName() ).append( " : " ).append( getCount() ).append( " calls, mean " );
+        sb.append( getMeanTime() ).append( " ns, max " ).append( getMaxTime() ).append( " ns" );
+
+        for ( int i = 0; i < NB_BUCKETS; i++ )
+        {
+            long bucketCount = buckets.get( i );
+
+            if ( bucketCount != 0 )
+            {
+                sb.append( "\n    < " );
+
+                if ( i == NB_BUCKETS - 1 )
+                {
+                    sb.append( "inf" );
+                }
+                else
+                {
+                    sb.append( getBucketUpperBound( i ) ).append( " us" );
+                }
+
+                sb.append( " : " ).append( bucketCount );
+            }
+        }
+
+        return sb.toString();
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.api.monitor;
+
+
+/**
+ * The JMX view of a {@link LatencyHistogram}. All the times are in microseconds.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public interface LatencyHistogramMXBean
+{
+    /**
+     * @return The number of recorded latencies
+     */
+    long getCount();
+
+
+    /**
+     * @return The mean latency, in microseconds
+     */
+    long getMean();
+
+
+    /**
+     * @return The longest latency, in microseconds
+     */
+    long getMax();
+
+
+    /**
+     * @return The median latency, in microseconds
+     */
+    long getP50();
+
+
+    /**
+     * @return The 90th percentile of the latencies, in microseconds
+     */
+    long getP90();
+
+
+    /**
+     * @return The 99th percentile of the latencies, in microseconds
+     */
+    long getP99();
+
+
+    /**
+     * @return The 99.9th percentile of the latencies, in microseconds
+     */
+    long getP999();
+
+
+    /**
+     * Resets the histogram
+     */
+    void reset();
+}
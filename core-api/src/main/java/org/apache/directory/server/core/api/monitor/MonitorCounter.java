@@ -0,0 +1,82 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.api.monitor;
+
+
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * A counter, incremented without blocking the threads.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class MonitorCounter implements MonitorCounterMXBean
+{
+    /** The counter value */
+    private final AtomicLong value = new AtomicLong();
+
+
+    /**
+     * Increments the counter
+     */
+    public void increment()
+    {
+        value.incrementAndGet();
+    }
+
+
+    /**
+     * Adds a value to the counter
+     *
+     * @param delta The value to add
+     */
+    public void add( long delta )
+    {
+        value.addAndGet( delta );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getValue()
+    {
+        return value.get();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void reset()
+    {
+        value.set( 0L );
+    }
+
+
+    /**
+     * @see Object#toString()
+     */
+    public String toString()
+    {
+        return Long.toString( value.get() );
+    }
+}
@@ -0,0 +1,376 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.api.monitor;
+
+
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * The registry of the statistics gathered by a DirectoryService : the latency
+ * histograms and the counters, grouped by category. The statistics are created
+ * on their first use, and are never removed, so the callers can keep a reference
+ * on them to avoid the lookups on hot paths.
+ * <br>
+ * The statistics are exposed in the cn=monitor partition and, once
+ * {@link #enableJmx(String)} has been called, as MBeans in the platform MBean server.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class MonitorRegistry
+{
+    /** A logger for this class */
+    private static final Logger LOG = LoggerFactory.getLogger( MonitorRegistry.class );
+
+    /** The JMX domain of the MBeans */
+    public static final String JMX_DOMAIN = "org.apache.directory.server";
+
+    /** The latency of each operation, measured by the OperationManager */
+    public static final String OPERATIONS = "operations";
+
+    /** The latency of each operation in each partition, as '&lt;partition id&gt;.&lt;operation&gt;' */
+    public static final String PARTITIONS = "partitions";
+
+    /** The latency of the LDAP request handlers, per request type */
+    public static final String HANDLERS = "handlers";
+
+    /** The latency measured by the TimerInterceptors, as '&lt;interceptor&gt;.&lt;operation&gt;' */
+    public static final String INTERCEPTORS = "interceptors";
+
+    /** The time spent waiting for the operation locks */
+    public static final String LOCKS = "locks";
+
+    /** The search counters, as '&lt;partition id&gt;.&lt;counter&gt;' */
+    public static final String SEARCH = "search";
+
+    /** The entry cache counters, as '&lt;partition id&gt;.hits', '.misses' and '.evictions' */
+    public static final String CACHES = "caches";
+
+    /** The asynchronous event notifications counters and latencies */
+    public static final String EVENTS = "events";
+
+    /** The number of searches using an index to select the candidates */
+    public static final String INDEX_SCANS = "indexScans";
+
+    /** The number of searches reading all the entries of a partition */
+    public static final String FULL_SCANS = "fullScans";
+
+    /** The total number of candidates selected by the searches */
+    public static final String CANDIDATES = "candidates";
+
+    /** The number of entries returned to the clients */
+    public static final String ENTRIES_RETURNED = "entriesReturned";
+
+    /** The latency histograms, per category and name */
+    private final ConcurrentMap<String, ConcurrentMap<String, LatencyHistogram>> histograms = new ConcurrentHashMap<String, ConcurrentMap<String, LatencyHistogram>>();
+
+    /** The counters, per category and name */
+    private final ConcurrentMap<String, ConcurrentMap<String, MonitorCounter>> counters = new ConcurrentHashMap<String, ConcurrentMap<String, MonitorCounter>>();
+
+    /** The instance the MBeans are registered for, null if JMX is disabled */
+    private String jmxInstance;
+
+
+    /**
+     * Gets a latency histogram, creating it if needed.
+     *
+     * @param category The histogram category
+     * @param name The histogram name
+     * @return The histogram
+     */
+    public LatencyHistogram getHistogram( String category, String name )
+    {
+        LatencyHistogram histogram = getCategory( histograms, category ).get( name );
+
+        if ( histogram == null )
+        {
+            histogram = register( category, name, new LatencyHistogram() );
+        }
+
+        return histogram;
+    }
+
+
+    /**
+     * Registers a latency histogram created elsewhere, like the lock contention
+     * histograms. If a histogram is already registered with the same name, it is kept.
+     *
+     * @param category The histogram category
+     * @param name The histogram name
+     * @param histogram The histogram
+     * @return The registered histogram
+     */
+    public LatencyHistogram register( String category, String name, LatencyHistogram histogram )
+    {
+        LatencyHistogram existing = getCategory( histograms, category ).putIfAbsent( name, histogram );
+
+        if ( existing != null )
+        {
+            return existing;
+        }
+
+        registerMBean( "Latency", category, name, histogram );
+
+        return histogram;
+    }
+
+
+    /**
+     * Gets a counter, creating it if needed.
+     *
+     * @param category The counter category
+     * @param name The counter name
+     * @return The counter
+     */
+    public MonitorCounter getCounter( String category, String name )
+    {
+        MonitorCounter counter = getCategory( counters, category ).get( name );
+
+        if ( counter == null )
+        {
+            counter = register( category, name, new MonitorCounter() );
+        }
+
+        return counter;
+    }
+
+
+    /**
+     * Registers a counter created elsewhere, like the entry caches counters. If a
+     * counter is already registered with the same name, it is kept.
+     *
+     * @param category The counter category
+     * @param name The counter name
+     * @param counter The counter
+     * @return The registered counter
+     */
+    public MonitorCounter register( String category, String name, MonitorCounter counter )
+    {
+        MonitorCounter existing = getCategory( counters, category ).putIfAbsent( name, counter );
+
+        if ( existing != null )
+        {
+            return existing;
+        }
+
+        registerMBean( "Counter", category, name, counter );
+
+        return counter;
+    }
+
+
+    /**
+     * @return The categories having at least a histogram or a counter, sorted
+     */
+    public SortedSet<String> getCategories()
+    {
+        SortedSet<String> categories = new TreeSet<String>( histograms.keySet() );
+        categories.addAll( counters.keySet() );
+
+        return categories;
+    }
+
+
+    /**
+     * @param category The category
+     * @return A snapshot of the histograms of a category, sorted by name
+     */
+    public SortedMap<String, LatencyHistogram> getHistograms( String category )
+    {
+        Map<String, LatencyHistogram> categoryHistograms = histograms.get( category );
+
+        if ( categoryHistograms == null )
+        {
+            return Collections.unmodifiableSortedMap( new TreeMap<String, LatencyHistogram>() );
+        }
+
+        return Collections.unmodifiableSortedMap( new TreeMap<String, LatencyHistogram>( categoryHistograms ) );
+    }
+
+
+    /**
+     * @param category The category
+     * @return A snapshot of the counters of a category, sorted by name
+     */
+    public SortedMap<String, MonitorCounter> getCounters( String category )
+    {
+        Map<String, MonitorCounter> categoryCounters = counters.get( category );
+
+        if ( categoryCounters == null )
+        {
+            return Collections.unmodifiableSortedMap( new TreeMap<String, MonitorCounter>() );
+        }
+
+        return Collections.unmodifiableSortedMap( new TreeMap<String, MonitorCounter>( categoryCounters ) );
+    }
+
+
+    /**
+     * Resets all the histograms and counters
+     */
+    public void reset()
+    {
+        for ( Map<String, LatencyHistogram> categoryHistograms : histograms.values() )
+        {
+            for ( LatencyHistogram histogram : categoryHistograms.values() )
+            {
+                histogram.reset();
+            }
+        }
+
+        for ( Map<String, MonitorCounter> categoryCounters : counters.values() )
+        {
+            for ( MonitorCounter counter : categoryCounters.values() )
+            {
+                counter.reset();
+            }
+        }
+    }
+
+
+    /**
+     * Registers all the statistics, and the ones created later, as MBeans in the
+     * platform MBean server.
+     *
+     * @param instance The DirectoryService instance ID, used to tell the MBeans of
+     * several instances apart
+     */
+    public synchronized void enableJmx( String instance )
+    {
+        if ( jmxInstance != null )
+        {
+            return;
+        }
+
+        jmxInstance = instance;
+
+        for ( Map.Entry<String, ConcurrentMap<String, LatencyHistogram>> category : histograms.entrySet() )
+        {
+            for ( Map.Entry<String, LatencyHistogram> histogram : category.getValue().entrySet() )
+            {
+                registerMBean( "Latency", category.getKey(), histogram.getKey(), histogram.getValue() );
+            }
+        }
+
+        for ( Map.Entry<String, ConcurrentMap<String, MonitorCounter>> category : counters.entrySet() )
+        {
+            for ( Map.Entry<String, MonitorCounter> counter : category.getValue().entrySet() )
+            {
+                registerMBean( "Counter", category.getKey(), counter.getKey(), counter.getValue() );
+            }
+        }
+    }
+
+
+    /**
+     * Unregisters all the MBeans.
+     */
+    public synchronized void disableJmx()
+    {
+        if ( jmxInstance == null )
+        {
+            return;
+        }
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+        try
+        {
+            ObjectName pattern = new ObjectName( JMX_DOMAIN + ":instance=" + ObjectName.quote( jmxInstance ) + ",*" );
+
+            for ( ObjectName name : server.queryNames( pattern, null ) )
+            {
+                server.unregisterMBean( name );
+            }
+        }
+        catch ( JMException jme )
+        {
+            LOG.warn( "Failed to unregister the monitoring MBeans", jme );
+        }
+
+        jmxInstance = null;
+    }
+
+
+    /**
+     * Gets the map of a category, creating it if needed
+     */
+    private static <T> ConcurrentMap<String, T> getCategory( ConcurrentMap<String, ConcurrentMap<String, T>> map,
+        String category )
+    {
+        ConcurrentMap<String, T> categoryMap = map.get( category );
+
+        if ( categoryMap == null )
+        {
+            categoryMap = new ConcurrentHashMap<String, T>();
+            ConcurrentMap<String, T> existing = map.putIfAbsent( category, categoryMap );
+
+            if ( existing != null )
+            {
+                return existing;
+            }
+        }
+
+        return categoryMap;
+    }
+
+
+    /**
+     * Registers a statistic in the platform MBean server, if JMX is enabled
+     */
+    private synchronized void registerMBean( String type, String category, String name, Object mbean )
+    {
+        if ( jmxInstance == null )
+        {
+            return;
+        }
+
+        try
+        {
+            ObjectName objectName = new ObjectName( JMX_DOMAIN + ":instance=" + ObjectName.quote( jmxInstance )
+                + ",type=" + type + ",category=" + ObjectName.quote( category ) + ",name=" + ObjectName.quote( name ) );
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+            if ( !server.isRegistered( objectName ) )
+            {
+                server.registerMBean( mbean, objectName );
+            }
+        }
+        catch ( JMException jme )
+        {
+            LOG.warn( "Failed to register the " + category + "/" + name + " MBean", jme );
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.api.monitor;
+
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.apache.directory.server.core.api.OperationEnum;
+
+
+/**
+ * The latency histograms of each operation, for a component. The histograms are
+ * registered in a {@link MonitorRegistry} the first time an operation is recorded,
+ * with the operation method name as name, prefixed by the component name if any.
+ * The histograms are then kept in an array indexed by the operation, so recording
+ * a latency does not need any lookup.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class OperationLatencies
+{
+    /** The registry the histograms are registered in */
+    private final MonitorRegistry registry;
+
+    /** The histograms category */
+    private final String category;
+
+    /** The prefix of the histograms names, or null */
+    private final String prefix;
+
+    /** The histograms, per operation ordinal */
+    private final AtomicReferenceArray<LatencyHistogram> histograms = new AtomicReferenceArray<LatencyHistogram>(
+        OperationEnum.values().length );
+
+
+    /**
+     * Creates a new instance of OperationLatencies.
+     *
+     * @param registry The registry the histograms are registered in
+     * @param category The histograms category
+     * @param prefix The component name used as a prefix of the histograms names, or null
+     */
+    public OperationLatencies( MonitorRegistry registry, String category, String prefix )
+    {
+        this.registry = registry;
+        this.category = category;
+        this.prefix = prefix;
+    }
+
+
+    /**
+     * Gets the histogram of an operation
+     *
+     * @param operation The operation
+     * @return The histogram
+     */
+    public LatencyHistogram get( OperationEnum operation )
+    {
+        LatencyHistogram histogram = histograms.get( operation.ordinal() );
+
+        if ( histogram == null )
+        {
+            String name = operation.getMethodName();
+
+            if ( prefix != null )
+            {
+                name = prefix + "." + name;
+            }
+
+            // The registry always returns the same histogram for a given name
+            histogram = registry.getHistogram( category, name );
+            histograms.set( operation.ordinal(), histogram );
+        }
+
+        return histogram;
+    }
+
+
+    /**
+     * Records the time elapsed since the start of an operation.
+     *
+     * @param operation The operation
+     * @param start The start, as returned by {@link System#nanoTime()}
+     */
+    public void recordSince( OperationEnum operation, long start )
+    {
+        get( operation ).recordSince( start );
+    }
+}
@@ -249,6 +249,17 @@ public abstract class AbstractPartition implements Partition
     }
 
 
+    /**
+     * {@inheritDoc}
+     * The modifications are applied one at a time by default.
+     */
+    @Override
+    public boolean isConcurrentModificationsEnabled()
+    {
+        return false;
+    }
+
+
     /**
      * {@inheritDoc}
      */
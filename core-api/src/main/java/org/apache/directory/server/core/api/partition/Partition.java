@@ -149,6 +149,17 @@ public interface Partition
     void sync() throws Exception;
 
 
+    /**
+     * Tells if this partition can apply the modifications of distinct entries
+     * concurrently. When it can, the OperationManager only takes a shared lock
+     * while modifying an entry of this partition, and an entry lock serializing
+     * the modifications of the same entry.
+     *
+     * @return true if the modifications can be applied concurrently
+     */
+    boolean isConcurrentModificationsEnabled();
+
+
     /**
      * Deletes a leaf entry from this ContextPartition: non-leaf entries cannot be
      * deleted until this operation has been applied to their children.
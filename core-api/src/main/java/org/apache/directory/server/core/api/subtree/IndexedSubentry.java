@@ -0,0 +1,208 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.api.subtree;
+
+
+import java.util.Set;
+
+import org.apache.directory.api.ldap.model.exception.LdapInvalidDnException;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.subtree.Subentry;
+import org.apache.directory.api.ldap.model.subtree.SubtreeSpecification;
+
+
+/**
+ * A Subentry stored in the {@link SubentryCache}, with its subtree specification
+ * compiled : the base and the chop exclusions are turned into absolute Dns, so that
+ * the entries names can be checked without computing their relative names.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public final class IndexedSubentry
+{
+    /** An empty array of Dns */
+    private static final Dn[] NO_DN = new Dn[0];
+
+    /** The subentry Dn */
+    private final Dn dn;
+
+    /** The administrative point Dn */
+    private final Dn apDn;
+
+    /** The subentry */
+    private final Subentry subentry;
+
+    /** The base of the area selected by the subentry */
+    private final Dn baseDn;
+
+    /** The minimum distance from the base */
+    private final int minBaseDistance;
+
+    /** The maximum distance from the base */
+    private final int maxBaseDistance;
+
+    /** The absolute chopBefore exclusions */
+    private final Dn[] chopBeforeExclusions;
+
+    /** The absolute chopAfter exclusions */
+    private final Dn[] chopAfterExclusions;
+
+
+    /**
+     * Compiles the subtree specification of a subentry.
+     *
+     * @param dn The subentry Dn
+     * @param subentry The subentry
+     * @throws LdapInvalidDnException If the base or the exclusions can't be added to the AP Dn
+     */
+    IndexedSubentry( Dn dn, Subentry subentry ) throws LdapInvalidDnException
+    {
+        this.dn = dn;
+        this.subentry = subentry;
+        apDn = dn.getParent();
+
+        SubtreeSpecification ss = subentry.getSubtreeSpecification();
+        baseDn = apDn.add( ss.getBase() );
+        minBaseDistance = ss.getMinBaseDistance();
+        maxBaseDistance = ss.getMaxBaseDistance();
+        chopBeforeExclusions = toAbsolute( baseDn, ss.getChopBeforeExclusions() );
+        chopAfterExclusions = toAbsolute( baseDn, ss.getChopAfterExclusions() );
+    }
+
+
+    private static Dn[] toAbsolute( Dn baseDn, Set<Dn> exclusions ) throws LdapInvalidDnException
+    {
+        if ( ( exclusions == null ) || exclusions.isEmpty() )
+        {
+            return NO_DN;
+        }
+
+        Dn[] absolute = new Dn[exclusions.size()];
+        int i = 0;
+
+        for ( Dn exclusion : exclusions )
+        {
+            absolute[i++] = baseDn.add( exclusion );
+        }
+
+        return absolute;
+    }
+
+
+    /**
+     * @return The subentry Dn
+     */
+    public Dn getDn()
+    {
+        return dn;
+    }
+
+
+    /**
+     * @return The administrative point Dn
+     */
+    public Dn getAdministrativePoint()
+    {
+        return apDn;
+    }
+
+
+    /**
+     * @return The subentry
+     */
+    public Subentry getSubentry()
+    {
+        return subentry;
+    }
+
+
+    /**
+     * @return The base of the area selected by the subentry
+     */
+    public Dn getBaseDn()
+    {
+        return baseDn;
+    }
+
+
+    /**
+     * @return true if the subtree specification has a refinement, so that the selection
+     * of an entry depends on its objectClasses
+     */
+    public boolean hasRefinement()
+    {
+        return subentry.getSubtreeSpecification().getRefinement() != null;
+    }
+
+
+    /**
+     * Checks the name of an entry against the base, the distances and the chop
+     * exclusions of the subtree specification. The refinement is not evaluated.
+     *
+     * @param entryDn The entry Dn
+     * @return true if an entry with this name may be selected
+     */
+    public boolean selectsName( Dn entryDn )
+    {
+        if ( !entryDn.isDescendantOf( baseDn ) )
+        {
+            return false;
+        }
+
+        int entryRelativeDnSize = entryDn.size() - baseDn.size();
+
+        if ( ( maxBaseDistance != SubtreeSpecification.UNBOUNDED_MAX ) && ( entryRelativeDnSize > maxBaseDistance ) )
+        {
+            return false;
+        }
+
+        if ( ( minBaseDistance > 0 ) && ( entryRelativeDnSize < minBaseDistance ) )
+        {
+            return false;
+        }
+
+        for ( Dn chopBeforeDn : chopBeforeExclusions )
+        {
+            if ( entryDn.isDescendantOf( chopBeforeDn ) )
+            {
+                return false;
+            }
+        }
+
+        for ( Dn chopAfterDn : chopAfterExclusions )
+        {
+            if ( entryDn.isDescendantOf( chopAfterDn ) && !chopAfterDn.equals( entryDn ) )
+            {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+
+    /**
+     * @see Object#toString()
+     */
+    public String toString()
+    {
+        return dn.toString();
+    }
+}
@@ -20,11 +20,16 @@
 package org.apache.directory.server.core.api.subtree;
 
 
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
+import org.apache.directory.api.ldap.model.exception.LdapInvalidDnException;
 import org.apache.directory.api.ldap.model.name.Dn;
 import org.apache.directory.api.ldap.model.subtree.Subentry;
 
@@ -33,7 +38,15 @@ import org.apache.directory.api.ldap.model.subtree.Subentry;
  * A cache for subtree specifications. It associates a Subentry with a Dn,
  * representing its position in the DIT.<br>
  * This cache has a size limit set to 1000 at the moment. We should add a configuration
- * parameter to manage its size.
+ * parameter to manage its size.<br>
+ * The subentries are also indexed by the base of their area, so that the subentries
+ * which may select an entry can be found without evaluating all of them.
+ * <br>
+ * The cache also knows the subentries which references are being propagated to the
+ * entries of their area. Until the propagation is done, the references to such a subentry
+ * must be ignored : it only applies to the entries selected by the subentry in effect before
+ * the propagation started, if any. The new area of the subentry is thus used by all the
+ * entries at once, when the propagation ends.
  *
  * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
  */
@@ -51,6 +64,18 @@ public class SubentryCache implements Iterable<Dn>
     /** The Subentry cache */
     private final Map<Dn, Subentry> cache;
 
+    /** The subentries, by the base of their area */
+    private final SubentryIndex index = new SubentryIndex();
+
+    /** The normalized Dns of the subentries which references are being propagated */
+    private final Set<String> propagating = Collections.newSetFromMap( new ConcurrentHashMap<String, Boolean>() );
+
+    /** The subentries in effect while their references are being propagated, if they were already in effect */
+    private final Map<Dn, Subentry> previousSubentries = new ConcurrentHashMap<Dn, Subentry>();
+
+    /** Incremented each time a propagation starts or ends */
+    private final AtomicLong propagationEpoch = new AtomicLong();
+
 
     /**
      * Creates a new instance of SubentryCache with a default maximum size.
@@ -99,6 +124,7 @@ public class SubentryCache implements Iterable<Dn>
         if ( oldSubentry != null )
         {
             cacheSize.decrementAndGet();
+            index.remove( dn );
         }
 
         return oldSubentry;
@@ -120,6 +146,15 @@ public class SubentryCache implements Iterable<Dn>
             throw new IllegalStateException( "Cache is full: size=" + cacheSize.get() + ", max=" + cacheMaxSize );
         }
 
+        try
+        {
+            index.add( dn, subentry );
+        }
+        catch ( LdapInvalidDnException lide )
+        {
+            throw new IllegalArgumentException( "Cannot compute the area of the subentry " + dn, lide );
+        }
+
         Subentry oldSubentry = cache.put( dn, subentry );
 
         if ( oldSubentry == null )
@@ -131,6 +166,20 @@ public class SubentryCache implements Iterable<Dn>
     }
 
 
+    /**
+     * Gets the subentries which area contains a Dn, ie the subentries which may select
+     * an entry with this Dn. Their subtree specification still has to be evaluated, using
+     * {@link SubtreeEvaluator#evaluate(IndexedSubentry, Dn, org.apache.directory.api.ldap.model.entry.Entry)}.
+     *
+     * @param dn The entry Dn, schema aware
+     * @return The candidate subentries
+     */
+    public List<IndexedSubentry> getSubentries( Dn dn )
+    {
+        return index.select( dn );
+    }
+
+
     /**
      * Tells if there is a Subentry associated with a Dn
      * @param dn The Dn
@@ -151,6 +200,91 @@ public class SubentryCache implements Iterable<Dn>
     }
 
 
+    /**
+     * Starts the propagation of the references to a subentry. Until it ends, the references
+     * to this subentry are ignored, and the previous subentry, if any, is applied to the
+     * entries it selects.
+     *
+     * @param dn The subentry Dn, schema aware
+     * @param previous The subentry in effect before the propagation, null if there is none
+     */
+    public void startPropagation( Dn dn, Subentry previous )
+    {
+        if ( previous != null )
+        {
+            previousSubentries.put( dn, previous );
+        }
+        else
+        {
+            previousSubentries.remove( dn );
+        }
+
+        propagating.add( dn.getNormName() );
+        propagationEpoch.incrementAndGet();
+    }
+
+
+    /**
+     * Ends the propagation of the references to a subentry : the references to this
+     * subentry are used from now on.
+     *
+     * @param dn The subentry Dn, schema aware
+     */
+    public void endPropagation( Dn dn )
+    {
+        if ( propagating.remove( dn.getNormName() ) )
+        {
+            previousSubentries.remove( dn );
+            propagationEpoch.incrementAndGet();
+        }
+    }
+
+
+    /**
+     * @return true if the references to some subentries are being propagated
+     */
+    public boolean hasPropagations()
+    {
+        return !propagating.isEmpty();
+    }
+
+
+    /**
+     * Tells if the references to a subentry are being propagated, in which case they
+     * must be ignored.
+     *
+     * @param normalizedDn The normalized Dn of the subentry, as stored in the references
+     * @return true if the references to this subentry are being propagated
+     */
+    public boolean isPropagating( String normalizedDn )
+    {
+        return propagating.contains( normalizedDn );
+    }
+
+
+    /**
+     * Gets the subentries in effect while their references are being propagated. Each of
+     * them applies to the entries its subtree specification selects, whatever the references
+     * these entries have.
+     *
+     * @return The previous subentries, by Dn
+     */
+    public Map<Dn, Subentry> getPreviousSubentries()
+    {
+        return Collections.unmodifiableMap( previousSubentries );
+    }
+
+
+    /**
+     * @return A number changed each time a propagation starts or ends, so that the users
+     * of the references can tell if they have been computed with the same subentries
+     */
+    public long getPropagationEpoch()
+    {
+        return propagationEpoch.get();
+    }
+
+
     /**
      * @return The number of elements in the cache
      */
@@ -0,0 +1,228 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.api.subtree;
+
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.directory.api.ldap.model.exception.LdapInvalidDnException;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.subtree.Subentry;
+
+
+/**
+ * An index of the subentries, used to find the subentries which may select an entry
+ * without evaluating all of them. The subentries are stored in a tree of the RDNs of
+ * the base of their area, below their administrative point. The subentries which may
+ * select an entry are the ones found while walking the RDNs of this entry from the root.
+ * <br>
+ * The index is updated under a lock, which is fine as the subentries are rarely
+ * added or removed, while the lookups don't lock anything.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+class SubentryIndex
+{
+    /** An empty array of indexed subentries */
+    private static final IndexedSubentry[] NO_SUBENTRY = new IndexedSubentry[0];
+
+    /** The node associated with the root DSE */
+    private final Node root = new Node( null, null );
+
+    /** The indexed subentries, by Dn */
+    private final Map<Dn, IndexedSubentry> subentries = new HashMap<Dn, IndexedSubentry>();
+
+
+    /**
+     * Adds a subentry in the index, replacing the subentry with the same Dn.
+     *
+     * @param dn The subentry Dn, schema aware
+     * @param subentry The subentry
+     * @throws LdapInvalidDnException If the subtree specification can't be compiled
+     */
+    synchronized void add( Dn dn, Subentry subentry ) throws LdapInvalidDnException
+    {
+        IndexedSubentry indexed = new IndexedSubentry( dn, subentry );
+        remove( dn );
+
+        Dn baseDn = indexed.getBaseDn();
+        Node node = root;
+
+        for ( int i = baseDn.size() - 1; i >= 0; i-- )
+        {
+            String key = baseDn.getRdn( i ).getNormName();
+            Node child = node.children.get( key );
+
+            if ( child == null )
+            {
+                child = new Node( node, key );
+                node.children.put( key, child );
+            }
+
+            node = child;
+        }
+
+        node.add( indexed );
+        subentries.put( dn, indexed );
+    }
+
+
+    /**
+     * Removes a subentry from the index.
+     *
+     * @param dn The subentry Dn
+     */
+    synchronized void remove( Dn dn )
+    {
+        IndexedSubentry indexed = subentries.remove( dn );
+
+        if ( indexed == null )
+        {
+            return;
+        }
+
+        Dn baseDn = indexed.getBaseDn();
+        Node node = root;
+
+        for ( int i = baseDn.size() - 1; ( i >= 0 ) && ( node != null ); i-- )
+        {
+            node = node.children.get( baseDn.getRdn( i ).getNormName() );
+        }
+
+        if ( node == null )
+        {
+            return;
+        }
+
+        node.remove( indexed );
+
+        // Get rid of the nodes which don't hold anything anymore
+        while ( ( node.parent != null ) && node.isEmpty() )
+        {
+            node.parent.children.remove( node.key );
+            node = node.parent;
+        }
+    }
+
+
+    /**
+     * Selects the subentries which area contains an entry. Their subtree specification
+     * still has to be evaluated against the entry.
+     *
+     * @param name The entry Dn, schema aware
+     * @return The candidate subentries
+     */
+    List<IndexedSubentry> select( Dn name )
+    {
+        List<IndexedSubentry> selected = null;
+        int depth = name.size();
+        Node node = root;
+
+        for ( int level = 0; node != null; level++ )
+        {
+            if ( node.subentries.length > 0 )
+            {
+                if ( selected == null )
+                {
+                    selected = new ArrayList<IndexedSubentry>();
+                }
+
+                Collections.addAll( selected, node.subentries );
+            }
+
+            if ( level == depth )
+            {
+                break;
+            }
+
+            node = node.children.get( name.getRdn( depth - 1 - level ).getNormName() );
+        }
+
+        if ( selected == null )
+        {
+            return Collections.emptyList();
+        }
+
+        return selected;
+    }
+
+
+    /**
+     * A node of the index, associated with a Dn. The subentries are stored in an
+     * array replaced on each update, so that they can be read without locking.
+     */
+    private static final class Node
+    {
+        /** The parent node, null for the root */
+        private final Node parent;
+
+        /** The normalized RDN of this node in its parent */
+        private final String key;
+
+        /** The children, by normalized RDN */
+        private final ConcurrentHashMap<String, Node> children = new ConcurrentHashMap<String, Node>();
+
+        /** The subentries which area starts at this node */
+        private volatile IndexedSubentry[] subentries = NO_SUBENTRY;
+
+
+        private Node( Node parent, String key )
+        {
+            this.parent = parent;
+            this.key = key;
+        }
+
+
+        private void add( IndexedSubentry indexed )
+        {
+            IndexedSubentry[] result = new IndexedSubentry[subentries.length + 1];
+            System.arraycopy( subentries, 0, result, 0, subentries.length );
+            result[subentries.length] = indexed;
+            subentries = result;
+        }
+
+
+        private void remove( IndexedSubentry indexed )
+        {
+            List<IndexedSubentry> result = new ArrayList<IndexedSubentry>( subentries.length );
+
+            for ( IndexedSubentry subentry : subentries )
+            {
+                if ( subentry != indexed )
+                {
+                    result.add( subentry );
+                }
+            }
+
+            subentries = result.toArray( NO_SUBENTRY );
+        }
+
+
+        private boolean isEmpty()
+        {
+            return children.isEmpty() && ( subentries.length == 0 );
+        }
+    }
+}
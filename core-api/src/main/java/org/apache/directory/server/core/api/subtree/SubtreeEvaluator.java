@@ -22,6 +22,7 @@ package org.apache.directory.server.core.api.subtree;
 
 import org.apache.directory.api.ldap.model.entry.Entry;
 import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.filter.ExprNode;
 import org.apache.directory.api.ldap.model.name.Dn;
 import org.apache.directory.api.ldap.model.schema.SchemaManager;
 import org.apache.directory.api.ldap.model.subtree.SubtreeSpecification;
@@ -154,4 +155,32 @@ public class SubtreeEvaluator
          */
         return true;
     }
+
+
+    /**
+     * Determines if an entry is selected by the compiled subtree specification of an
+     * indexed subentry.
+     *
+     * @param subentry the indexed subentry
+     * @param entryDn the distinguished name of the candidate entry
+     * @param entry the candidate entry
+     * @return true if the entry is selected by the specification, false if it is not
+     * @throws LdapException if errors are encountered while evaluating selection
+     */
+    public boolean evaluate( IndexedSubentry subentry, Dn entryDn, Entry entry ) throws LdapException
+    {
+        if ( !subentry.selectsName( entryDn ) )
+        {
+            return false;
+        }
+
+        ExprNode refinement = subentry.getSubentry().getSubtreeSpecification().getRefinement();
+
+        if ( refinement != null )
+        {
+            return evaluator.evaluate( refinement, entryDn, entry );
+        }
+
+        return true;
+    }
 }
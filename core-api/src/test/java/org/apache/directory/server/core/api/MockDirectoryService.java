@@ -44,6 +44,7 @@ import org.apache.directory.server.core.api.changelog.ChangeLog;
 import org.apache.directory.server.core.api.event.EventService;
 import org.apache.directory.server.core.api.interceptor.Interceptor;
 import org.apache.directory.server.core.api.journal.Journal;
+import org.apache.directory.server.core.api.monitor.MonitorRegistry;
 import org.apache.directory.server.core.api.partition.Partition;
 import org.apache.directory.server.core.api.partition.PartitionNexus;
 import org.apache.directory.server.core.api.schema.SchemaPartition;
@@ -65,6 +66,9 @@ public class MockDirectoryService implements DirectoryService
     /** The schemaManager */
     SchemaManager schemaManager;
 
+    /** The statistics */
+    MonitorRegistry monitorRegistry = new MonitorRegistry();
+
 
     public MockDirectoryService()
     {
@@ -586,6 +590,20 @@ public class MockDirectoryService implements DirectoryService
     }
 
 
+    @Override
+    public Interceptor[] getInterceptorPipeline( OperationEnum operation )
+    {
+        return null;
+    }
+
+
+    @Override
+    public MonitorRegistry getMonitorRegistry()
+    {
+        return monitorRegistry;
+    }
+
+
     @Override
     public void addFirst( Interceptor interceptor ) throws LdapException
     {
@@ -0,0 +1,91 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.api.monitor;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.directory.server.core.api.OperationEnum;
+import org.junit.Test;
+
+
+/**
+ * Tests the {@link MonitorRegistry} class.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class MonitorRegistryTest
+{
+    @Test
+    public void testGetHistogram()
+    {
+        MonitorRegistry registry = new MonitorRegistry();
+
+        LatencyHistogram histogram = registry.getHistogram( MonitorRegistry.OPERATIONS, "add" );
+
+        assertSame( histogram, registry.getHistogram( MonitorRegistry.OPERATIONS, "add" ) );
+        assertEquals( 1, registry.getHistograms( MonitorRegistry.OPERATIONS ).size() );
+        assertTrue( registry.getHistograms( MonitorRegistry.PARTITIONS ).isEmpty() );
+        assertTrue( registry.getCategories().contains( MonitorRegistry.OPERATIONS ) );
+    }
+
+
+    @Test
+    public void testRegisterKeepsExisting()
+    {
+        MonitorRegistry registry = new MonitorRegistry();
+        MonitorCounter counter = new MonitorCounter();
+
+        assertSame( counter, registry.register( MonitorRegistry.CACHES, "example.hits", counter ) );
+        assertSame( counter, registry.register( MonitorRegistry.CACHES, "example.hits", new MonitorCounter() ) );
+        assertSame( counter, registry.getCounter( MonitorRegistry.CACHES, "example.hits" ) );
+    }
+
+
+    @Test
+    public void testOperationLatencies()
+    {
+        MonitorRegistry registry = new MonitorRegistry();
+        OperationLatencies latencies = new OperationLatencies( registry, MonitorRegistry.PARTITIONS, "example" );
+
+        latencies.get( OperationEnum.SEARCH ).record( 3000L );
+
+        assertSame( latencies.get( OperationEnum.SEARCH ),
+            registry.getHistogram( MonitorRegistry.PARTITIONS, "example.search" ) );
+        assertEquals( 1L, registry.getHistogram( MonitorRegistry.PARTITIONS, "example.search" ).getCount() );
+    }
+
+
+    @Test
+    public void testReset()
+    {
+        MonitorRegistry registry = new MonitorRegistry();
+
+        registry.getHistogram( MonitorRegistry.OPERATIONS, "add" ).record( 3000L );
+        registry.getCounter( MonitorRegistry.SEARCH, MonitorRegistry.ENTRIES_RETURNED ).add( 10L );
+
+        registry.reset();
+
+        assertEquals( 0L, registry.getHistogram( MonitorRegistry.OPERATIONS, "add" ).getCount() );
+        assertEquals( 0L, registry.getCounter( MonitorRegistry.SEARCH, MonitorRegistry.ENTRIES_RETURNED ).getValue() );
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.operations.lookup;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.server.core.annotations.ApplyLdifs;
+import org.apache.directory.server.core.annotations.CreateDS;
+import org.apache.directory.server.core.api.InterceptorEnum;
+import org.apache.directory.server.core.api.OperationEnum;
+import org.apache.directory.server.core.api.interceptor.context.LookupOperationContext;
+import org.apache.directory.server.core.integ.AbstractLdapTestUnit;
+import org.apache.directory.server.core.integ.FrameworkRunner;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+
+/**
+ * Test the lookup operation going through a custom interceptors pipeline
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+@RunWith(FrameworkRunner.class)
+@CreateDS(name = "LookupPipelineIT")
+@ApplyLdifs(
+    {
+        // Entry # 1
+        "dn: cn=test,ou=system",
+        "objectClass: person",
+        "cn: test",
+        "sn: sn_test" })
+public class LookupPipelineIT extends AbstractLdapTestUnit
+{
+    /**
+     * Do a lookup of the test entry, using the given context
+     */
+    private Entry lookup( LookupOperationContext lookupContext ) throws Exception
+    {
+        Entry entry = getService().getOperationManager().lookup( lookupContext );
+
+        assertNotNull( entry );
+        assertEquals( "test", entry.get( "cn" ).getString() );
+
+        return entry;
+    }
+
+
+    private LookupOperationContext createContext() throws Exception
+    {
+        Dn dn = new Dn( getService().getSchemaManager(), "cn=test,ou=system" );
+
+        return new LookupOperationContext( getService().getAdminSession(), dn, "*" );
+    }
+
+
+    /**
+     * Test a lookup going through the default pipeline, set by name
+     */
+    @Test
+    public void testLookupWithDefaultPipeline() throws Exception
+    {
+        List<String> names = getService().getInterceptors( OperationEnum.LOOKUP );
+        LookupOperationContext lookupContext = createContext();
+        lookupContext.setInterceptors( names );
+
+        lookup( lookupContext );
+
+        // All the interceptors have been called
+        assertEquals( names.size(), lookupContext.getCurrentInterceptor() );
+    }
+
+
+    /**
+     * Test a lookup going through a reduced pipeline
+     */
+    @Test
+    public void testLookupWithCustomPipeline() throws Exception
+    {
+        LookupOperationContext lookupContext = createContext();
+        lookupContext.setInterceptors( Arrays.asList(
+            InterceptorEnum.NORMALIZATION_INTERCEPTOR.getName(),
+            InterceptorEnum.OPERATIONAL_ATTRIBUTE_INTERCEPTOR.getName() ) );
+
+        lookup( lookupContext );
+
+        // Only the two selected interceptors have been called
+        assertEquals( 2, lookupContext.getCurrentInterceptor() );
+
+        // A pipeline with a single interceptor goes directly to the partitions after it
+        lookupContext = createContext();
+        lookupContext.setInterceptors( Arrays.asList( InterceptorEnum.NORMALIZATION_INTERCEPTOR.getName() ) );
+
+        lookup( lookupContext );
+
+        assertEquals( 1, lookupContext.getCurrentInterceptor() );
+    }
+
+
+    /**
+     * Test that a pipeline containing an unknown interceptor is rejected, and that the
+     * context keeps its previous pipeline
+     */
+    @Test
+    public void testLookupWithUnknownInterceptor() throws Exception
+    {
+        List<String> names = new ArrayList<String>( getService().getInterceptors( OperationEnum.LOOKUP ) );
+        int nbInterceptors = names.size();
+        names.add( 1, "unknownInterceptor" );
+
+        LookupOperationContext lookupContext = createContext();
+
+        try
+        {
+            lookupContext.setInterceptors( names );
+            fail( "An unknown interceptor should be rejected" );
+        }
+        catch ( IllegalArgumentException iae )
+        {
+            // Expected
+        }
+
+        lookup( lookupContext );
+
+        // The default pipeline has been used
+        assertEquals( nbInterceptors, lookupContext.getCurrentInterceptor() );
+    }
+}
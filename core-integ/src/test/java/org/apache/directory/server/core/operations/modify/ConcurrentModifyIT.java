@@ -0,0 +1,455 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.core.operations.modify;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Lock;
+
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.entry.DefaultModification;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.Modification;
+import org.apache.directory.api.ldap.model.entry.ModificationOperation;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.server.core.annotations.ApplyLdifs;
+import org.apache.directory.server.core.annotations.CreateDS;
+import org.apache.directory.server.core.api.CoreSession;
+import org.apache.directory.server.core.api.interceptor.BaseInterceptor;
+import org.apache.directory.server.core.api.interceptor.context.ModifyOperationContext;
+import org.apache.directory.server.core.integ.AbstractLdapTestUnit;
+import org.apache.directory.server.core.integ.FrameworkRunner;
+import org.apache.directory.server.core.partition.impl.btree.AbstractBTreePartition;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+
+/**
+ * Test the locks taken by the OperationManager when modifying the entries of a
+ * partition which applies the modifications concurrently.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+@RunWith(FrameworkRunner.class)
+@CreateDS(name = "ConcurrentModifyIT", additionalInterceptors =
+    { ConcurrentModifyIT.CsnRecorder.class })
+@ApplyLdifs(
+    {
+        "dn: cn=Tori Amos,ou=system",
+        "objectClass: inetOrgPerson",
+        "objectClass: organizationalPerson",
+        "objectClass: person",
+        "objectClass: top",
+        "cn: Tori Amos",
+        "sn: Amos",
+
+        "dn: cn=Debbie Harry,ou=system",
+        "objectClass: inetOrgPerson",
+        "objectClass: organizationalPerson",
+        "objectClass: person",
+        "objectClass: top",
+        "cn: Debbie Harry",
+        "sn: Harry",
+
+        "dn: cn=singers,ou=system",
+        "objectClass: groupOfNames",
+        "objectClass: top",
+        "cn: singers",
+        "member: cn=Tori Amos,ou=system"
+})
+public class ConcurrentModifyIT extends AbstractLdapTestUnit
+{
+    /** The maximum time to wait for a thread, in milliseconds */
+    private static final long TIMEOUT = 10000L;
+
+    /** The time after which a thread still running is considered blocked, in milliseconds */
+    private static final long BLOCKED = 500L;
+
+
+    /**
+     * Records the entryCSN of the modifications of an entry, in the order they
+     * leave the interceptor chain, ie the order of the changelog and of the journal.
+     */
+    public static class CsnRecorder extends BaseInterceptor
+    {
+        /** The recorded CSNs */
+        private static final List<String> CSNS = Collections.synchronizedList( new ArrayList<String>() );
+
+        /** The entry which modifications are recorded */
+        private static volatile Dn recordedDn;
+
+
+        public CsnRecorder()
+        {
+            super( "CsnRecorder" );
+        }
+
+
+        @Override
+        public void modify( ModifyOperationContext modifyContext ) throws LdapException
+        {
+            next( modifyContext );
+
+            if ( !modifyContext.getDn().equals( recordedDn ) )
+            {
+                return;
+            }
+
+            for ( Modification mod : modifyContext.getModItems() )
+            {
+                if ( SchemaConstants.ENTRY_CSN_AT.equalsIgnoreCase( mod.getAttribute().getId() ) )
+                {
+                    CSNS.add( mod.getAttribute().getString() );
+                }
+            }
+        }
+    }
+
+
+    @Before
+    public void enableConcurrentModifications() throws Exception
+    {
+        getPartition().setConcurrentModificationsEnabled( true );
+    }
+
+
+    @After
+    public void disableConcurrentModifications() throws Exception
+    {
+        getPartition().setConcurrentModificationsEnabled( false );
+    }
+
+
+    private AbstractBTreePartition getPartition() throws Exception
+    {
+        Dn dn = new Dn( getService().getSchemaManager(), "ou=system" );
+
+        return ( AbstractBTreePartition ) getService().getPartitionNexus().getPartition( dn );
+    }
+
+
+    /**
+     * Modifies an entry in a new thread
+     */
+    private Thread modify( final Dn dn, final List<Throwable> failures, final Modification... mods )
+    {
+        Thread thread = new Thread()
+        {
+            public void run()
+            {
+                try
+                {
+                    getService().getAdminSession().modify( dn, mods );
+                }
+                catch ( Throwable t )
+                {
+                    failures.add( t );
+                }
+            }
+        };
+
+        thread.start();
+
+        return thread;
+    }
+
+
+    private Modification replace( String attribute, String value )
+    {
+        return new DefaultModification( ModificationOperation.REPLACE_ATTRIBUTE, attribute, value );
+    }
+
+
+    /**
+     * Looks an entry up in a new thread, until it's stopped
+     */
+    private Thread lookup( final Dn dn, final List<Throwable> failures, final AtomicBoolean stop )
+    {
+        Thread thread = new Thread()
+        {
+            public void run()
+            {
+                try
+                {
+                    while ( !stop.get() )
+                    {
+                        getService().getAdminSession().lookup( dn );
+                    }
+                }
+                catch ( Throwable t )
+                {
+                    failures.add( t );
+                }
+            }
+        };
+
+        thread.start();
+
+        return thread;
+    }
+
+
+    @Test
+    public void testModifyTakesTheExclusiveLockWhenDisabled() throws Exception
+    {
+        getPartition().setConcurrentModificationsEnabled( false );
+
+        Dn dn = new Dn( getService().getSchemaManager(), "cn=Tori Amos,ou=system" );
+        assertFalse( getService().getPartitionNexus().getPartition( dn ).isConcurrentModificationsEnabled() );
+
+        List<Throwable> failures = Collections.synchronizedList( new ArrayList<Throwable>() );
+        Lock readLock = getService().getOperationManager().getRWLock( dn ).readLock();
+        readLock.lock();
+
+        Thread thread;
+
+        try
+        {
+            // The modification waits for the readers
+            thread = modify( dn, failures, replace( "description", "exclusive" ) );
+            thread.join( BLOCKED );
+
+            assertTrue( thread.isAlive() );
+        }
+        finally
+        {
+            readLock.unlock();
+        }
+
+        thread.join( TIMEOUT );
+
+        assertFalse( thread.isAlive() );
+        assertTrue( failures.isEmpty() );
+    }
+
+
+    @Test
+    public void testModifyTakesTheSharedLock() throws Exception
+    {
+        Dn dn = new Dn( getService().getSchemaManager(), "cn=Tori Amos,ou=system" );
+        assertTrue( getService().getPartitionNexus().getPartition( dn ).isConcurrentModificationsEnabled() );
+
+        List<Throwable> failures = Collections.synchronizedList( new ArrayList<Throwable>() );
+        Lock readLock = getService().getOperationManager().getRWLock( dn ).readLock();
+        readLock.lock();
+
+        try
+        {
+            // The modification only needs the shared lock, it's not blocked by the readers
+            Thread thread = modify( dn, failures, replace( "description", "concurrent" ) );
+            thread.join( TIMEOUT );
+
+            assertFalse( thread.isAlive() );
+        }
+        finally
+        {
+            readLock.unlock();
+        }
+
+        assertTrue( failures.isEmpty() );
+
+        Entry entry = getService().getAdminSession().lookup( dn );
+        assertTrue( entry.contains( "description", "concurrent" ) );
+    }
+
+
+    @Test
+    public void testCachedEntryModifyTakesTheExclusiveLock() throws Exception
+    {
+        Dn dn = new Dn( getService().getSchemaManager(), "cn=singers,ou=system" );
+        List<Throwable> failures = Collections.synchronizedList( new ArrayList<Throwable>() );
+        Lock readLock = getService().getOperationManager().getRWLock( dn ).readLock();
+        readLock.lock();
+
+        Thread thread;
+
+        try
+        {
+            // The interceptors cache the groups : the modification waits for the readers
+            thread = modify( dn, failures, new DefaultModification( ModificationOperation.ADD_ATTRIBUTE, "member",
+                "cn=Debbie Harry,ou=system" ) );
+            thread.join( BLOCKED );
+
+            assertTrue( thread.isAlive() );
+        }
+        finally
+        {
+            readLock.unlock();
+        }
+
+        thread.join( TIMEOUT );
+
+        assertFalse( thread.isAlive() );
+        assertTrue( failures.isEmpty() );
+
+        Entry entry = getService().getAdminSession().lookup( dn );
+        assertTrue( entry.contains( "member", "cn=Debbie Harry,ou=system" ) );
+    }
+
+
+    @Test
+    public void testObjectClassModifyTakesTheExclusiveLock() throws Exception
+    {
+        Dn dn = new Dn( getService().getSchemaManager(), "cn=Debbie Harry,ou=system" );
+        List<Throwable> failures = Collections.synchronizedList( new ArrayList<Throwable>() );
+        Lock readLock = getService().getOperationManager().getRWLock( dn ).readLock();
+        readLock.lock();
+
+        Thread thread;
+
+        try
+        {
+            thread = modify( dn, failures, new DefaultModification( ModificationOperation.ADD_ATTRIBUTE,
+                "objectClass", "extensibleObject" ) );
+            thread.join( BLOCKED );
+
+            assertTrue( thread.isAlive() );
+        }
+        finally
+        {
+            readLock.unlock();
+        }
+
+        thread.join( TIMEOUT );
+
+        assertFalse( thread.isAlive() );
+        assertTrue( failures.isEmpty() );
+    }
+
+
+    @Test
+    public void testConcurrentModifications() throws Exception
+    {
+        CoreSession session = getService().getAdminSession();
+        List<Throwable> failures = Collections.synchronizedList( new ArrayList<Throwable>() );
+        final Dn[] dns = new Dn[]
+            {
+                new Dn( getService().getSchemaManager(), "cn=Tori Amos,ou=system" ),
+                new Dn( getService().getSchemaManager(), "cn=Debbie Harry,ou=system" )
+        };
+
+        List<Thread> threads = new ArrayList<Thread>();
+
+        for ( int i = 0; i < 20; i++ )
+        {
+            threads.add( modify( dns[i % 2], failures, new DefaultModification(
+                ModificationOperation.ADD_ATTRIBUTE, "description", "value" + i ) ) );
+        }
+
+        for ( Thread thread : threads )
+        {
+            thread.join( TIMEOUT );
+            assertFalse( thread.isAlive() );
+        }
+
+        assertTrue( failures.isEmpty() );
+
+        for ( int i = 0; i < 2; i++ )
+        {
+            Entry entry = session.lookup( dns[i] );
+
+            for ( int j = i; j < 20; j += 2 )
+            {
+                assertTrue( entry.contains( "description", "value" + j ) );
+            }
+        }
+    }
+
+
+    @Test
+    public void testConcurrentModificationsOfAnEntry() throws Exception
+    {
+        CoreSession session = getService().getAdminSession();
+        List<Throwable> failures = Collections.synchronizedList( new ArrayList<Throwable>() );
+        Dn dn = new Dn( getService().getSchemaManager(), "cn=Debbie Harry,ou=system" );
+        AtomicBoolean stop = new AtomicBoolean();
+
+        CsnRecorder.CSNS.clear();
+        CsnRecorder.recordedDn = dn;
+
+        List<Thread> lookups = new ArrayList<Thread>();
+
+        try
+        {
+            // Some readers load the entry in the cache while it's modified
+            for ( int i = 0; i < 4; i++ )
+            {
+                lookups.add( lookup( dn, failures, stop ) );
+            }
+
+            List<Thread> threads = new ArrayList<Thread>();
+
+            for ( int i = 0; i < 20; i++ )
+            {
+                threads.add( modify( dn, failures, replace( "description", "value" + i ) ) );
+            }
+
+            for ( Thread thread : threads )
+            {
+                thread.join( TIMEOUT );
+                assertFalse( thread.isAlive() );
+            }
+        }
+        finally
+        {
+            stop.set( true );
+            CsnRecorder.recordedDn = null;
+        }
+
+        for ( Thread thread : lookups )
+        {
+            thread.join( TIMEOUT );
+            assertFalse( thread.isAlive() );
+        }
+
+        assertTrue( failures.isEmpty() );
+
+        // The modifications of the entry have left the chain one at a time, in the order of their CSNs
+        List<String> csns = new ArrayList<String>( CsnRecorder.CSNS );
+        assertEquals( 20, csns.size() );
+
+        for ( int i = 1; i < csns.size(); i++ )
+        {
+            assertTrue( csns.get( i - 1 ).compareTo( csns.get( i ) ) < 0 );
+        }
+
+        String lastCsn = csns.get( csns.size() - 1 );
+
+        // The stored entry is the last modified one
+        AbstractBTreePartition partition = getPartition();
+        Entry stored = partition.getMasterTable().get( partition.getEntryId( dn ) );
+        assertEquals( lastCsn, stored.get( SchemaConstants.ENTRY_CSN_AT ).getString() );
+
+        // And so is the cached one
+        Entry entry = session.lookup( dn, "*", "+" );
+        assertEquals( lastCsn, entry.get( SchemaConstants.ENTRY_CSN_AT ).getString() );
+        assertEquals( stored.get( "description" ), entry.get( "description" ) );
+    }
+}
@@ -30,6 +30,7 @@ import java.util.List;
 
 import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.cursor.SearchCursor;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
 import org.apache.directory.api.ldap.model.entry.Entry;
 import org.apache.directory.api.ldap.model.filter.ExprNode;
 import org.apache.directory.api.ldap.model.filter.PresenceNode;
@@ -47,10 +48,14 @@ import org.apache.directory.api.ldap.model.message.controls.SortResultCode;
 import org.apache.directory.api.ldap.model.name.Dn;
 import org.apache.directory.ldap.client.api.LdapConnection;
 import org.apache.directory.server.core.annotations.ApplyLdifFiles;
+import org.apache.directory.server.core.annotations.ContextEntry;
 import org.apache.directory.server.core.annotations.CreateDS;
+import org.apache.directory.server.core.annotations.CreateIndex;
+import org.apache.directory.server.core.annotations.CreatePartition;
 import org.apache.directory.server.core.annotations.LoadSchema;
 import org.apache.directory.server.core.integ.AbstractLdapTestUnit;
 import org.apache.directory.server.core.integ.FrameworkRunner;
+import org.apache.directory.server.core.shared.EntrySorter;
 import org.apache.directory.server.core.integ.IntegrationUtils;
 import org.junit.AfterClass;
 import org.junit.Before;
@@ -66,7 +71,25 @@ import org.junit.runner.RunWith;
 @RunWith(FrameworkRunner.class)
 @CreateDS(name = "SearchDS",
     loadedSchemas =
-        { @LoadSchema(name = "nis", enabled = true) })
+        { @LoadSchema(name = "nis", enabled = true) },
+    partitions =
+        {
+            @CreatePartition(
+                name = "sorted",
+                suffix = "dc=sorted,dc=com",
+                contextEntry = @ContextEntry(
+                    entryLdif =
+                    "dn: dc=sorted,dc=com\n" +
+                        "dc: sorted\n" +
+                        "objectClass: top\n" +
+                        "objectClass: domain\n\n"),
+                indexes =
+                    {
+                        @CreateIndex(attribute = "objectClass"),
+                        @CreateIndex(attribute = "uid"),
+                        @CreateIndex(attribute = "employeeNumber")
+                })
+        })
 @ApplyLdifFiles(
     { "sortedsearch-test-data.ldif" })
 public class SortedSearchIT extends AbstractLdapTestUnit
@@ -361,6 +384,244 @@ public class SortedSearchIT extends AbstractLdapTestUnit
     }
 
 
+    /**
+     * Searches the entries with the given sort keys, and returns their Dn in the order they are received
+     */
+    private List<String> sortedSearch( String base, String filter, SortKey... sortKeys ) throws Exception
+    {
+        SearchRequest request = new SearchRequestImpl();
+        request.setBase( new Dn( base ) );
+        request.setFilter( filter );
+        request.setScope( SearchScope.SUBTREE );
+
+        if ( sortKeys.length > 0 )
+        {
+            SortRequest sortRequest = new SortRequestControlImpl();
+
+            for ( SortKey sortKey : sortKeys )
+            {
+                sortRequest.addSortKey( sortKey );
+            }
+
+            request.addControl( sortRequest );
+        }
+
+        SearchCursor cursor = connection.search( request );
+        List<String> dns = new ArrayList<String>();
+
+        while ( cursor.next() )
+        {
+            dns.add( ( ( SearchResultEntry ) cursor.get() ).getEntry().getDn().getName() );
+        }
+
+        cursor.close();
+
+        return dns;
+    }
+
+
+    private SortKey sortKey( String attributeType, boolean reverseOrder )
+    {
+        SortKey sortKey = new SortKey( attributeType );
+        sortKey.setReverseOrder( reverseOrder );
+
+        return sortKey;
+    }
+
+
+    private List<String> parentDns( String... uids )
+    {
+        List<String> dns = new ArrayList<String>();
+
+        for ( String uid : uids )
+        {
+            if ( uid.equals( "user2" ) || uid.equals( "user3" ) )
+            {
+                dns.add( "uid=" + uid + ",ou=children,ou=parent,ou=system" );
+            }
+            else if ( uid.equals( "user4" ) || uid.equals( "user5" ) )
+            {
+                dns.add( "uid=" + uid + ",ou=grandchildren,ou=children,ou=parent,ou=system" );
+            }
+            else
+            {
+                dns.add( "uid=" + uid + ",ou=parent,ou=system" );
+            }
+        }
+
+        return dns;
+    }
+
+
+    /**
+     * Checks the sort on several keys, user0 and user2 sharing the same givenName
+     */
+    private void checkSortByMultipleKeys() throws Exception
+    {
+        assertEquals(
+            parentDns( "person1", "person2", "person3", "user2", "user0", "user1", "user3", "user4", "user5",
+                "user6", "user7" ),
+            sortedSearch( "ou=parent,ou=system", "(objectClass=person)", sortKey( "givenName", false ),
+                sortKey( "sn", true ) ) );
+
+        assertEquals(
+            parentDns( "user7", "user6", "user5", "user4", "user3", "user1", "user0", "user2", "person3",
+                "person2", "person1" ),
+            sortedSearch( "ou=parent,ou=system", "(objectClass=person)", sortKey( "givenName", true ),
+                sortKey( "sn", false ) ) );
+    }
+
+
+    /**
+     * Checks that the entries sharing the same key are returned in the order they are read
+     */
+    private void checkSortIsStable() throws Exception
+    {
+        List<String> unsorted = sortedSearch( "ou=parent,ou=system", "(objectClass=person)" );
+        List<String> sameKey = parentDns( "user0", "user2" );
+
+        if ( unsorted.indexOf( sameKey.get( 0 ) ) > unsorted.indexOf( sameKey.get( 1 ) ) )
+        {
+            sameKey = parentDns( "user2", "user0" );
+        }
+
+        List<String> expected = parentDns( "person1", "person2", "person3" );
+        expected.addAll( sameKey );
+        expected.addAll( parentDns( "user1", "user3", "user4", "user5", "user6", "user7" ) );
+
+        assertEquals( expected, sortedSearch( "ou=parent,ou=system", "(objectClass=person)",
+            sortKey( "givenName", false ) ) );
+    }
+
+
+    @Test
+    public void testSortByMultipleKeys() throws Exception
+    {
+        checkSortByMultipleKeys();
+    }
+
+
+    @Test
+    public void testSortIsStable() throws Exception
+    {
+        checkSortIsStable();
+    }
+
+
+    /**
+     * The entries are sorted by runs written in temporary files, which are then merged
+     */
+    @Test
+    public void testSortWithExternalMerge() throws Exception
+    {
+        System.setProperty( EntrySorter.MAX_ENTRIES_IN_MEMORY_PROPERTY, "2" );
+
+        try
+        {
+            checkSortByMultipleKeys();
+            checkSortIsStable();
+
+            assertEquals(
+                parentDns( "user6", "user0", "user1", "person3", "user2", "user3", "user4", "user5", "user7",
+                    "person1", "person2" ),
+                sortedSearch( "ou=parent,ou=system", "(objectClass=person)", sortKey( "cn", false ) ) );
+        }
+        finally
+        {
+            System.clearProperty( EntrySorter.MAX_ENTRIES_IN_MEMORY_PROPERTY );
+        }
+    }
+
+
+    @Test
+    public void testWithInvalidSecondKeyAndCriticality() throws Exception
+    {
+        ctrl.setCritical( true );
+        sk.setAttributeTypeDesc( "sn" );
+        ctrl.addSortKey( new SortKey( "Non-existing-At" ) );
+
+        SearchCursor cursor = connection.search( req );
+        assertFalse( cursor.next() );
+
+        SearchResultDone sd = cursor.getSearchResultDone();
+
+        cursor.close();
+
+        SortResponse resp = ( SortResponse ) sd.getControl( SortResponse.OID );
+        assertNotNull( resp );
+
+        assertEquals( SortResultCode.NOSUCHATTRIBUTE, resp.getSortResult() );
+        assertEquals( "Non-existing-At", resp.getAttributeName() );
+        assertEquals( ResultCodeEnum.UNAVAILABLE_CRITICAL_EXTENSION, sd.getLdapResult().getResultCode() );
+    }
+
+
+    /**
+     * The first key is indexed : the entries are read in the index order, and only the
+     * entries sharing the same first key are sorted using the next keys
+     */
+    @Test
+    public void testSortByIndexedAttribute() throws Exception
+    {
+        String[][] values =
+            {
+                { "3", "a", "s0" },
+                { "1", "b", "s1" },
+                { "2", "a", "s2" },
+                { "1", "c", "s3" },
+                { "2", "b", "s4" },
+                { "3", "c", "s5" } };
+
+        for ( int i = 0; i < values.length; i++ )
+        {
+            connection.add( new DefaultEntry( "cn=e" + i + ",dc=sorted,dc=com",
+                "objectClass: top",
+                "objectClass: person",
+                "objectClass: organizationalPerson",
+                "objectClass: inetOrgPerson",
+                "cn: e" + i,
+                "employeeNumber", values[i][0],
+                "uid", values[i][1],
+                "sn", values[i][2] ) );
+        }
+
+        try
+        {
+            // employeeNumber is single valued, its index can be read in both directions
+            assertEquals( sortedDns( 3, 1, 4, 2, 5, 0 ), sortedSearch( "dc=sorted,dc=com", "(objectClass=person)",
+                sortKey( "employeeNumber", false ), sortKey( "sn", true ) ) );
+            assertEquals( sortedDns( 0, 5, 2, 4, 1, 3 ), sortedSearch( "dc=sorted,dc=com", "(objectClass=person)",
+                sortKey( "employeeNumber", true ), sortKey( "sn", false ) ) );
+            assertEquals( sortedDns( 0, 2, 1, 4, 3, 5 ), sortedSearch( "dc=sorted,dc=com", "(objectClass=person)",
+                sortKey( "uid", false ), sortKey( "cn", false ) ) );
+
+            // The candidates are selected using the index of the first key
+            assertEquals( sortedDns( 0, 2, 1, 4, 3, 5 ), sortedSearch( "dc=sorted,dc=com", "(uid=*)",
+                sortKey( "uid", false ), sortKey( "sn", false ) ) );
+        }
+        finally
+        {
+            for ( int i = 0; i < values.length; i++ )
+            {
+                connection.delete( "cn=e" + i + ",dc=sorted,dc=com" );
+            }
+        }
+    }
+
+
+    private List<String> sortedDns( int... numbers )
+    {
+        List<String> dns = new ArrayList<String>();
+
+        for ( int number : numbers )
+        {
+            dns.add( "cn=e" + number + ",dc=sorted,dc=com" );
+        }
+
+        return dns;
+    }
+
+
     @Test
     public void testSortByDn() throws Exception
     {
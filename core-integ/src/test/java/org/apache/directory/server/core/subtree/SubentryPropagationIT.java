@@ -0,0 +1,458 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.subtree;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.DefaultModification;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.ModificationOperation;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.exception.LdapOtherException;
+import org.apache.directory.api.ldap.model.filter.ObjectClassNode;
+import org.apache.directory.api.ldap.model.message.AliasDerefMode;
+import org.apache.directory.api.ldap.model.message.SearchScope;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.server.core.annotations.CreateDS;
+import org.apache.directory.server.core.api.CoreSession;
+import org.apache.directory.server.core.api.InterceptorEnum;
+import org.apache.directory.server.core.api.interceptor.context.ModifyOperationContext;
+import org.apache.directory.server.core.api.monitor.MonitorCounter;
+import org.apache.directory.server.core.api.monitor.MonitorRegistry;
+import org.apache.directory.server.core.integ.AbstractLdapTestUnit;
+import org.apache.directory.server.core.integ.FrameworkRunner;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+
+/**
+ * Tests the propagation of the subentries references by batches.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+@RunWith(FrameworkRunner.class)
+@CreateDS(name = "SubentryPropagationIT-class")
+public class SubentryPropagationIT extends AbstractLdapTestUnit
+{
+    /** The maximum time to wait for a propagation, in milliseconds */
+    private static final long TIMEOUT = 30000L;
+
+
+    @After
+    public void restorePropagator()
+    {
+        SubentryInterceptor interceptor = getInterceptor();
+        interceptor.setPropagator( new SubentryPropagator( interceptor, getService(),
+            SubentryPropagator.DEFAULT_BATCH_SIZE ) );
+    }
+
+
+    private SubentryInterceptor getInterceptor()
+    {
+        return ( SubentryInterceptor ) getService().getInterceptor(
+            InterceptorEnum.SUBENTRY_INTERCEPTOR.getName() );
+    }
+
+
+    /**
+     * Creates an administrative area containing some entries
+     */
+    private Dn createArea( String name, int nbEntries ) throws Exception
+    {
+        CoreSession session = getService().getAdminSession();
+        Dn apDn = new Dn( getService().getSchemaManager(), "dc=" + name + ",ou=system" );
+
+        session.add( new DefaultEntry( getService().getSchemaManager(), apDn,
+            "objectClass: top",
+            "objectClass: domain",
+            "administrativeRole: collectiveAttributeSpecificArea",
+            "dc", name ) );
+
+        for ( int i = 0; i < nbEntries; i++ )
+        {
+            session.add( new DefaultEntry( getService().getSchemaManager(), "cn=entry" + i + "," + apDn,
+                "objectClass: top",
+                "objectClass: person",
+                "cn", "entry" + i,
+                "sn: entry" ) );
+        }
+
+        return apDn;
+    }
+
+
+    /**
+     * Adds a collective attribute subentry selecting the whole area
+     */
+    private Dn addSubentry( Dn apDn ) throws Exception
+    {
+        Dn subentryDn = new Dn( getService().getSchemaManager(), "cn=subentry," + apDn );
+
+        getService().getAdminSession().add( new DefaultEntry( getService().getSchemaManager(), subentryDn,
+            "objectClass: top",
+            "objectClass: subentry",
+            "objectClass: collectiveAttributeSubentry",
+            "subtreeSpecification: { }",
+            "c-o: Test Org",
+            "cn: subentry" ) );
+
+        return subentryDn;
+    }
+
+
+    private void waitForPropagation( SubentryPropagator propagator, Dn subentryDn ) throws Exception
+    {
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+
+        while ( propagator.isPropagating( subentryDn ) )
+        {
+            assertTrue( "The propagation is not done", System.currentTimeMillis() < deadline );
+            Thread.sleep( 10L );
+        }
+    }
+
+
+    /**
+     * Counts the entries of the area referencing the subentry
+     */
+    private int countReferencing( Dn apDn, Dn subentryDn ) throws Exception
+    {
+        Cursor<Entry> cursor = getService().getAdminSession().search( apDn, SearchScope.SUBTREE,
+            ObjectClassNode.OBJECT_CLASS_NODE, AliasDerefMode.NEVER_DEREF_ALIASES,
+            SchemaConstants.COLLECTIVE_ATTRIBUTE_SUBENTRIES_AT );
+        int count = 0;
+
+        try
+        {
+            while ( cursor.next() )
+            {
+                Entry entry = cursor.get();
+
+                if ( entry.contains( SchemaConstants.COLLECTIVE_ATTRIBUTE_SUBENTRIES_AT,
+                    subentryDn.getNormName() ) )
+                {
+                    count++;
+                }
+            }
+        }
+        finally
+        {
+            cursor.close();
+        }
+
+        return count;
+    }
+
+
+    @Test
+    public void testPropagationByBatches() throws Exception
+    {
+        SubentryInterceptor interceptor = getInterceptor();
+        SubentryPropagator propagator = new SubentryPropagator( interceptor, getService(), 3 );
+        interceptor.setPropagator( propagator );
+
+        Dn apDn = createArea( "batches", 10 );
+        MonitorCounter updated = getService().getMonitorRegistry().getCounter( MonitorRegistry.INTERCEPTORS,
+            "subentryPropagation.updated" );
+        long updatedBefore = updated.getValue();
+
+        Dn subentryDn = addSubentry( apDn );
+
+        // The first batch is applied by the add operation
+        assertTrue( updated.getValue() - updatedBefore >= 3 );
+
+        waitForPropagation( propagator, subentryDn );
+
+        // The AP and its 10 entries have been updated
+        assertTrue( updated.getValue() - updatedBefore >= 11 );
+        assertEquals( 11, countReferencing( apDn, subentryDn ) );
+        assertNotNull( getService().getSubentryCache().getSubentry( subentryDn ) );
+        assertFalse( propagator.getPendingSubentries().containsKey( subentryDn ) );
+    }
+
+
+    @Test
+    public void testFailedPropagation() throws Exception
+    {
+        SubentryInterceptor interceptor = getInterceptor();
+        final AtomicInteger modifications = new AtomicInteger();
+
+        // Fails once the first batch has been applied
+        SubentryPropagator propagator = new SubentryPropagator( interceptor, getService(), 2 )
+        {
+            @Override
+            void modify( ModifyOperationContext modifyContext ) throws LdapException
+            {
+                if ( modifications.incrementAndGet() > 2 )
+                {
+                    throw new LdapOtherException( "Failure injected by the test" );
+                }
+
+                super.modify( modifyContext );
+            }
+        };
+
+        interceptor.setPropagator( propagator );
+
+        Dn apDn = createArea( "failure", 6 );
+        Dn subentryDn = addSubentry( apDn );
+
+        waitForPropagation( propagator, subentryDn );
+
+        // The subentry is not pending anymore, it is used for the entries added in the area
+        assertFalse( propagator.getPendingSubentries().containsKey( subentryDn ) );
+        assertNotNull( getService().getSubentryCache().getSubentry( subentryDn ) );
+        assertTrue( countReferencing( apDn, subentryDn ) < 7 );
+
+        // The propagation is not ended : the subentry does not apply yet
+        assertTrue( getService().getSubentryCache().isPropagating( subentryDn.getNormName() ) );
+        assertNull( getService().getAdminSession().lookup( new Dn( getService().getSchemaManager(),
+            "cn=entry0," + apDn ), "*" ).get( "c-o" ) );
+
+        Dn addedDn = new Dn( getService().getSchemaManager(), "cn=added," + apDn );
+        getService().getAdminSession().add( new DefaultEntry( getService().getSchemaManager(), addedDn,
+            "objectClass: top",
+            "objectClass: person",
+            "cn: added",
+            "sn: added" ) );
+
+        Entry added = getService().getAdminSession().lookup( addedDn, "+" );
+        assertTrue( added.contains( SchemaConstants.COLLECTIVE_ATTRIBUTE_SUBENTRIES_AT, subentryDn.getNormName() ) );
+    }
+
+
+    /**
+     * Creates a propagator which background batches wait for the latch to be released
+     */
+    private SubentryPropagator createBlockingPropagator( int batchSize, final CountDownLatch latch )
+    {
+        final Thread testThread = Thread.currentThread();
+
+        return new SubentryPropagator( getInterceptor(), getService(), batchSize )
+        {
+            @Override
+            void modify( ModifyOperationContext modifyContext ) throws LdapException
+            {
+                if ( Thread.currentThread() != testThread )
+                {
+                    try
+                    {
+                        latch.await( TIMEOUT, TimeUnit.MILLISECONDS );
+                    }
+                    catch ( InterruptedException ie )
+                    {
+                        throw new LdapOtherException( ie.getMessage() );
+                    }
+                }
+
+                super.modify( modifyContext );
+            }
+        };
+    }
+
+
+    /**
+     * Counts the entries of the area which have the collective attribute of the subentry
+     */
+    private int countCollective( Dn apDn ) throws Exception
+    {
+        Cursor<Entry> cursor = getService().getAdminSession().search( apDn, SearchScope.ONELEVEL,
+            ObjectClassNode.OBJECT_CLASS_NODE, AliasDerefMode.NEVER_DEREF_ALIASES, "*" );
+        int count = 0;
+
+        try
+        {
+            while ( cursor.next() )
+            {
+                if ( cursor.get().get( "c-o" ) != null )
+                {
+                    count++;
+                }
+            }
+        }
+        finally
+        {
+            cursor.close();
+        }
+
+        return count;
+    }
+
+
+    @Test
+    public void testAddedSubentryAppliesOnceDone() throws Exception
+    {
+        CountDownLatch latch = new CountDownLatch( 1 );
+        SubentryPropagator propagator = createBlockingPropagator( 2, latch );
+        getInterceptor().setPropagator( propagator );
+
+        Dn apDn = createArea( "atomicAdd", 6 );
+        Dn subentryDn = addSubentry( apDn );
+
+        try
+        {
+            // The first batch has been applied, but the subentry does not apply to its entries yet
+            assertTrue( countReferencing( apDn, subentryDn ) > 0 );
+            assertTrue( propagator.isPropagating( subentryDn ) );
+            assertEquals( 0, countCollective( apDn ) );
+        }
+        finally
+        {
+            latch.countDown();
+        }
+
+        waitForPropagation( propagator, subentryDn );
+
+        assertFalse( getService().getSubentryCache().isPropagating( subentryDn.getNormName() ) );
+        assertEquals( 6, countCollective( apDn ) );
+    }
+
+
+    @Test
+    public void testModifiedSubentryAppliesOnceDone() throws Exception
+    {
+        Dn apDn = createArea( "atomicModify", 6 );
+        Dn subentryDn = addSubentry( apDn );
+        waitForPropagation( getInterceptor().getPropagator(), subentryDn );
+        assertEquals( 6, countCollective( apDn ) );
+
+        CountDownLatch latch = new CountDownLatch( 1 );
+        SubentryPropagator propagator = createBlockingPropagator( 2, latch );
+        getInterceptor().setPropagator( propagator );
+
+        // Excludes the first entry from the area
+        getService().getAdminSession().modify( subentryDn, new DefaultModification(
+            ModificationOperation.REPLACE_ATTRIBUTE, "subtreeSpecification",
+            "{ specificExclusions { chopBefore:\"cn=entry0\" } }" ) );
+
+        try
+        {
+            // The previous area is still in effect
+            assertTrue( propagator.isPropagating( subentryDn ) );
+            assertEquals( 6, countCollective( apDn ) );
+        }
+        finally
+        {
+            latch.countDown();
+        }
+
+        waitForPropagation( propagator, subentryDn );
+
+        assertEquals( 5, countCollective( apDn ) );
+        assertNull( getService().getAdminSession().lookup( new Dn( getService().getSchemaManager(),
+            "cn=entry0," + apDn ), "*" ).get( "c-o" ) );
+    }
+
+
+    @Test
+    public void testConcurrentReaders() throws Exception
+    {
+        SubentryInterceptor interceptor = getInterceptor();
+        SubentryPropagator propagator = new SubentryPropagator( interceptor, getService(), 5 );
+        interceptor.setPropagator( propagator );
+
+        final Dn apDn = createArea( "readers", 100 );
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        final AtomicInteger searches = new AtomicInteger();
+        final boolean[] done = new boolean[1];
+        List<Thread> readers = new ArrayList<Thread>();
+
+        for ( int i = 0; i < 2; i++ )
+        {
+            Thread reader = new Thread( "reader-" + i )
+            {
+                public void run()
+                {
+                    try
+                    {
+                        while ( !isDone( done ) )
+                        {
+                            Cursor<Entry> cursor = getService().getAdminSession().search( apDn,
+                                SearchScope.SUBTREE, ObjectClassNode.OBJECT_CLASS_NODE,
+                                AliasDerefMode.NEVER_DEREF_ALIASES, "*", "+" );
+                            int count = 0;
+
+                            while ( cursor.next() )
+                            {
+                                cursor.get();
+                                count++;
+                            }
+
+                            cursor.close();
+
+                            // The AP and its entries are always all returned
+                            assertEquals( 101, count );
+                            searches.incrementAndGet();
+                        }
+                    }
+                    catch ( Throwable t )
+                    {
+                        failure.compareAndSet( null, t );
+                    }
+                }
+            };
+
+            readers.add( reader );
+            reader.start();
+        }
+
+        Dn subentryDn = addSubentry( apDn );
+        waitForPropagation( propagator, subentryDn );
+
+        synchronized ( done )
+        {
+            done[0] = true;
+        }
+
+        for ( Thread reader : readers )
+        {
+            reader.join( TIMEOUT );
+        }
+
+        assertNull( String.valueOf( failure.get() ), failure.get() );
+        assertTrue( searches.get() > 0 );
+        assertEquals( 101, countReferencing( apDn, subentryDn ) );
+    }
+
+
+    private static boolean isDone( boolean[] done )
+    {
+        synchronized ( done )
+        {
+            return done[0];
+        }
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.shared;
+
+
+import org.apache.directory.api.ldap.model.cursor.AbstractCursor;
+import org.apache.directory.api.ldap.model.cursor.CursorException;
+import org.apache.directory.api.ldap.model.cursor.InvalidCursorPositionException;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+
+
+/**
+ * A base class for the cursors over sorted entries which can only be produced
+ * forward. Moving backward is done by producing the entries again from the start,
+ * which is cheap when the cursor is only moved back before the first entry, as
+ * it's done when checking if a search returns any entry.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+abstract class AbstractReplayingEntryCursor extends AbstractCursor<Entry>
+{
+    /** The current entry */
+    private Entry current;
+
+    /** The position of the current entry, starting at 1. 0 means before the first entry */
+    private long position;
+
+    /** Tells if the cursor is after the last entry */
+    private boolean afterLast;
+
+
+    /**
+     * Restarts the production of the entries from the first one
+     *
+     * @throws LdapException If the entries can't be produced again
+     * @throws CursorException If the entries can't be produced again
+     */
+    protected abstract void restart() throws LdapException, CursorException;
+
+
+    /**
+     * Produces the next entry
+     *
+     * @return The next entry, or null if all the entries have been produced
+     * @throws LdapException If the entry can't be produced
+     * @throws CursorException If the entry can't be produced
+     */
+    protected abstract Entry produceNext() throws LdapException, CursorException;
+
+
+    @Override
+    public boolean available()
+    {
+        return current != null;
+    }
+
+
+    @Override
+    public void before( Entry element ) throws LdapException, CursorException
+    {
+        throw new UnsupportedOperationException();
+    }
+
+
+    @Override
+    public void after( Entry element ) throws LdapException, CursorException
+    {
+        throw new UnsupportedOperationException();
+    }
+
+
+    @Override
+    public void beforeFirst() throws LdapException, CursorException
+    {
+        checkNotClosed( "beforeFirst()" );
+
+        if ( ( position != 0 ) || afterLast )
+        {
+            restart();
+        }
+
+        current = null;
+        position = 0;
+        afterLast = false;
+    }
+
+
+    @Override
+    public void afterLast() throws LdapException, CursorException
+    {
+        checkNotClosed( "afterLast()" );
+
+        while ( next() )
+        {
+            // Produce all the remaining entries
+        }
+    }
+
+
+    @Override
+    public boolean first() throws LdapException, CursorException
+    {
+        beforeFirst();
+
+        return next();
+    }
+
+
+    @Override
+    public boolean last() throws LdapException, CursorException
+    {
+        afterLast();
+
+        return previous();
+    }
+
+
+    @Override
+    public boolean previous() throws LdapException, CursorException
+    {
+        checkNotClosed( "previous()" );
+
+        long target = afterLast ? position : position - 1;
+
+        if ( target < 0 )
+        {
+            return false;
+        }
+
+        // Produce the entries again, up to the previous one
+        beforeFirst();
+
+        while ( position < target )
+        {
+            next();
+        }
+
+        return target > 0;
+    }
+
+
+    @Override
+    public boolean next() throws LdapException, CursorException
+    {
+        checkNotClosed( "next()" );
+
+        if ( afterLast )
+        {
+            return false;
+        }
+
+        current = produceNext();
+
+        if ( current == null )
+        {
+            afterLast = true;
+
+            return false;
+        }
+
+        position++;
+
+        return true;
+    }
+
+
+    @Override
+    public Entry get() throws CursorException
+    {
+        if ( current == null )
+        {
+            throw new InvalidCursorPositionException();
+        }
+
+        return current;
+    }
+}
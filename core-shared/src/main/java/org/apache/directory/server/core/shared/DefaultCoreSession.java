@@ -20,7 +20,6 @@
 package org.apache.directory.server.core.shared;
 
 
-import java.io.File;
 import java.io.IOException;
 import java.net.SocketAddress;
 import java.text.ParseException;
@@ -29,7 +28,6 @@ import java.util.Arrays;
 import java.util.List;
 import java.util.Set;
 
-import jdbm.recman.BaseRecordManager;
 
 import org.apache.directory.api.ldap.extras.controls.syncrepl.syncInfoValue.SyncRequestValue;
 import org.apache.directory.api.ldap.model.constants.AuthenticationLevel;
@@ -1123,7 +1121,7 @@ public class DefaultCoreSession implements CoreSession
 
             if ( ( sortRespCtrl != null ) && ( sortRespCtrl.getSortResult() == SortResultCode.SUCCESS ) )
             {
-                cursor = sortResults( cursor, sortControl, getDirectoryService().getSchemaManager() );
+                cursor = sortResults( cursor, sortControl, searchContext, getDirectoryService().getSchemaManager() );
             }
 
             // the below condition is to satisfy the scenario 6 in section 2 of rfc2891
@@ -1200,18 +1198,33 @@ public class DefaultCoreSession implements CoreSession
     {
         SortResponse resp = new SortResponseControlImpl();
 
-        List<SortKey> keys = sortControl.getSortKeys();
-
-        // only ONE key is supported by the server for now
-        if ( keys.size() > 1 )
+        // All the keys must be usable, in the order they have been given
+        for ( SortKey sk : sortControl.getSortKeys() )
         {
-            ldapResult.setDiagnosticMessage( "Cannot sort results based on more than one attribute" );
-            resp.setSortResult( SortResultCode.UNWILLINGTOPERFORM );
-            return resp;
+            if ( !canSort( sk, resp, ldapResult, schemaManager ) )
+            {
+                return resp;
+            }
         }
 
-        SortKey sk = keys.get( 0 );
+        resp.setSortResult( SortResultCode.SUCCESS );
 
+        return resp;
+    }
+
+
+    /**
+     * Checks if the search results can be sorted using the given sort key. If not,
+     * the sort response control and the LDAP result are updated with the reason.
+     * 
+     * @param sk the sort key
+     * @param resp the sort response control
+     * @param ldapResult the refrence to the LDAP result of the ongoing search operation
+     * @param schemaManager schema manager
+     * @return true if the sort key can be used
+     */
+    private boolean canSort( SortKey sk, SortResponse resp, LdapResult ldapResult, SchemaManager schemaManager )
+    {
         AttributeType at = schemaManager.getAttributeType( sk.getAttributeTypeDesc() );
 
         if ( at == null )
@@ -1220,7 +1233,7 @@ public class DefaultCoreSession implements CoreSession
                 + " exists in the server's schema" );
             resp.setSortResult( SortResultCode.NOSUCHATTRIBUTE );
             resp.setAttributeName( sk.getAttributeTypeDesc() );
-            return resp;
+            return false;
         }
 
         String mrOid = sk.getMatchingRuleId();
@@ -1237,7 +1250,7 @@ public class DefaultCoreSession implements CoreSession
                         + " is not applicable for the attribute " + sk.getAttributeTypeDesc() );
                     resp.setSortResult( SortResultCode.INAPPROPRIATEMATCHING );
                     resp.setAttributeName( sk.getAttributeTypeDesc() );
-                    return resp;
+                    return false;
                 }
             }
 
@@ -1250,7 +1263,7 @@ public class DefaultCoreSession implements CoreSession
                 ldapResult.setDiagnosticMessage( "Given matchingrule " + mrOid + " is not supported" );
                 resp.setSortResult( SortResultCode.INAPPROPRIATEMATCHING );
                 resp.setAttributeName( sk.getAttributeTypeDesc() );
-                return resp;
+                return false;
             }
         }
         else
@@ -1262,93 +1275,62 @@ public class DefaultCoreSession implements CoreSession
                 mr = at.getEquality();
             }
 
-            ldapResult.setDiagnosticMessage( "Matchingrule is required for sorting by the attribute "
-                + sk.getAttributeTypeDesc() );
-            resp.setSortResult( SortResultCode.INAPPROPRIATEMATCHING );
-            resp.setAttributeName( sk.getAttributeTypeDesc() );
+            boolean hasComparator = ( mr != null );
 
-            if ( mr == null )
+            if ( hasComparator )
             {
-                return resp;
+                try
+                {
+                    schemaManager.lookupComparatorRegistry( mr.getOid() );
+                }
+                catch ( LdapException e )
+                {
+                    hasComparator = false;
+                }
             }
 
-            try
+            if ( !hasComparator )
             {
-                schemaManager.lookupComparatorRegistry( mr.getOid() );
-            }
-            catch ( LdapException e )
-            {
-                return resp;
+                ldapResult.setDiagnosticMessage( "Matchingrule is required for sorting by the attribute "
+                    + sk.getAttributeTypeDesc() );
+                resp.setSortResult( SortResultCode.INAPPROPRIATEMATCHING );
+                resp.setAttributeName( sk.getAttributeTypeDesc() );
+                return false;
             }
         }
 
-        resp.setSortResult( SortResultCode.SUCCESS );
-
-        return resp;
+        return true;
     }
 
 
     /**
-     * Sorts the entries based on the given sortkey and returns the cursor
+     * Sorts the entries based on the given sortkeys and returns the cursor. If the partition
+     * has returned the entries ordered by the first key, only the entries sharing the same first
+     * key are sorted using the next keys. Otherwise all the entries are sorted, in memory or
+     * using temporary files when there are too many of them.
      * 
      * @param unsortedEntries the cursor containing un-sorted entries
      * @param control the sort control
+     * @param searchContext the search operation context
      * @param schemaManager schema manager
      * @return a cursor containing sorted entries
      * @throws CursorException
      * @throws LdapException
      * @throws IOException
-     * @throws KeyNotFoundException 
      */
-    private Cursor<Entry> sortResults( Cursor<Entry> unsortedEntries, SortRequest control, SchemaManager schemaManager )
+    private Cursor<Entry> sortResults( Cursor<Entry> unsortedEntries, SortRequest control,
+        SearchOperationContext searchContext, SchemaManager schemaManager )
         throws CursorException, LdapException, IOException
     {
-        unsortedEntries.beforeFirst();
-
-        Entry first = null;
-
-        if ( unsortedEntries.next() )
-        {
-            first = unsortedEntries.get();
-        }
+        EntrySorter sorter = new EntrySorter( control.getSortKeys(), schemaManager );
 
-        if ( !unsortedEntries.next() )
+        // A search from the RootDSE reads the partitions one after the other
+        if ( searchContext.isSortedByFirstKey() && !searchContext.getDn().isEmpty() )
         {
-            unsortedEntries.beforeFirst();
-
-            return unsortedEntries;
+            return sorter.sortByNextKeys( unsortedEntries );
         }
 
-        SortKey sk = control.getSortKeys().get( 0 );
-
-        AttributeType at = schemaManager.getAttributeType( sk.getAttributeTypeDesc() );
-
-        SortedEntryComparator comparator = new SortedEntryComparator( at, sk.getMatchingRuleId(), sk.isReverseOrder(),
-            schemaManager );
-
-        SortedEntrySerializer keySerializer = new SortedEntrySerializer();
-        SortedEntrySerializer.setSchemaManager( schemaManager );
-        
-        File file = File.createTempFile( "replica", ".sorted-data" );// see DIRSERVER-2007
-        BaseRecordManager recMan = new BaseRecordManager( file.getAbsolutePath() );
-
-        jdbm.btree.BTree<Entry, String> btree = new jdbm.btree.BTree<Entry, String>( recMan, comparator, keySerializer, NullStringSerializer.INSTANCE );
-        
-
-        btree.insert( first, "", false );
-
-        // at this stage the cursor will be _on_ the next element, so read it
-        btree.insert( unsortedEntries.get(), "", false );
-
-        while ( unsortedEntries.next() )
-        {
-            Entry entry = unsortedEntries.get();
-            btree.insert( entry, "", false );
-        }
-
-        unsortedEntries.close();
-
-        return new SortedEntryCursor( btree, recMan, file );
+        return sorter.sort( unsortedEntries );
     }
 
 
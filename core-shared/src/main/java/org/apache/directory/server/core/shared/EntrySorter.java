@@ -0,0 +1,229 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.shared;
+
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.cursor.CursorException;
+import org.apache.directory.api.ldap.model.cursor.ListCursor;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.message.controls.SortKey;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Sorts the entries returned by a search, as requested by a server side sort control
+ * (<a href="http://tools.ietf.org/html/rfc2891">RFC 2891</a>).
+ * <br>
+ * The entries are sorted in memory as long as their number is below a threshold.
+ * Above it, the entries are sorted by chunks, each sorted chunk being written in a
+ * temporary file, and the files are merged while the entries are returned.
+ * <br>
+ * The threshold can be set with the {@link #MAX_ENTRIES_IN_MEMORY_PROPERTY} system property.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class EntrySorter
+{
+    private static final Logger LOG = LoggerFactory.getLogger( EntrySorter.class );
+
+    /** The system property used to set the maximum number of entries sorted in memory */
+    public static final String MAX_ENTRIES_IN_MEMORY_PROPERTY = "apacheds.sort.maxEntriesInMemory";
+
+    /** The default maximum number of entries sorted in memory */
+    public static final int DEFAULT_MAX_ENTRIES_IN_MEMORY = 10000;
+
+    /** The comparator */
+    private final SortedEntryComparator comparator;
+
+    /** The maximum number of entries sorted in memory */
+    private final int maxEntriesInMemory;
+
+    /** The serializer used to write the sorted runs */
+    private final SortedEntrySerializer serializer = new SortedEntrySerializer();
+
+
+    /**
+     * Creates a new instance of EntrySorter, using the configured threshold.
+     *
+     * @param sortKeys The sort keys
+     * @param schemaManager The schema manager
+     * @throws LdapException If the sort keys can't be used
+     */
+    public EntrySorter( List<SortKey> sortKeys, SchemaManager schemaManager ) throws LdapException
+    {
+        this( sortKeys, schemaManager, Integer.getInteger( MAX_ENTRIES_IN_MEMORY_PROPERTY,
+            DEFAULT_MAX_ENTRIES_IN_MEMORY ) );
+    }
+
+
+    /**
+     * Creates a new instance of EntrySorter.
+     *
+     * @param sortKeys The sort keys
+     * @param schemaManager The schema manager
+     * @param maxEntriesInMemory The maximum number of entries sorted in memory
+     * @throws LdapException If the sort keys can't be used
+     */
+    public EntrySorter( List<SortKey> sortKeys, SchemaManager schemaManager, int maxEntriesInMemory )
+        throws LdapException
+    {
+        comparator = new SortedEntryComparator( sortKeys, schemaManager );
+        this.maxEntriesInMemory = Math.max( 1, maxEntriesInMemory );
+        SortedEntrySerializer.setSchemaManager( schemaManager );
+    }
+
+
+    /**
+     * Sorts the entries. The given cursor is closed once all its entries have been read.
+     *
+     * @param unsortedEntries The entries to sort
+     * @return A cursor over the sorted entries
+     * @throws LdapException If the entries can't be read
+     * @throws CursorException If the entries can't be read
+     * @throws IOException If the sorted runs can't be written
+     */
+    public Cursor<Entry> sort( Cursor<Entry> unsortedEntries ) throws LdapException, CursorException, IOException
+    {
+        List<Entry> entries = new ArrayList<Entry>();
+        List<File> runFiles = new ArrayList<File>();
+
+        try
+        {
+            unsortedEntries.beforeFirst();
+
+            while ( unsortedEntries.next() )
+            {
+                entries.add( unsortedEntries.get() );
+
+                if ( entries.size() >= maxEntriesInMemory )
+                {
+                    runFiles.add( writeRun( entries ) );
+                    entries.clear();
+                }
+            }
+
+            if ( runFiles.isEmpty() )
+            {
+                Collections.sort( entries, comparator );
+
+                return new ListCursor<Entry>( entries );
+            }
+
+            if ( !entries.isEmpty() )
+            {
+                runFiles.add( writeRun( entries ) );
+            }
+
+            LOG.debug( "Merging {} sorted runs", runFiles.size() );
+
+            return new MergeSortedEntryCursor( runFiles, comparator );
+        }
+        catch ( IOException ioe )
+        {
+            deleteRuns( runFiles );
+            throw ioe;
+        }
+        catch ( RuntimeException re )
+        {
+            deleteRuns( runFiles );
+            throw re;
+        }
+        finally
+        {
+            unsortedEntries.close();
+        }
+    }
+
+
+    /**
+     * Sorts entries already ordered by the first sort key : only the entries sharing the
+     * same first key are sorted together, while they are returned.
+     *
+     * @param orderedEntries The entries ordered by the first sort key
+     * @return A cursor over the sorted entries
+     */
+    public Cursor<Entry> sortByNextKeys( Cursor<Entry> orderedEntries )
+    {
+        if ( comparator.getNbKeys() == 1 )
+        {
+            return orderedEntries;
+        }
+
+        return new GroupSortedEntryCursor( orderedEntries, comparator );
+    }
+
+
+    /**
+     * Sorts a chunk of entries and writes them in a temporary file. Each entry is
+     * written as its length followed by its serialized form.
+     */
+    private File writeRun( List<Entry> entries ) throws IOException
+    {
+        Collections.sort( entries, comparator );
+
+        File file = File.createTempFile( "apacheds", ".sorted-run" );
+        DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( file ) ) );
+
+        try
+        {
+            for ( Entry entry : entries )
+            {
+                byte[] bytes = serializer.serialize( entry );
+                out.writeInt( bytes.length );
+                out.write( bytes );
+            }
+        }
+        catch ( IOException ioe )
+        {
+            out.close();
+            file.delete();
+            throw ioe;
+        }
+
+        out.close();
+
+        return file;
+    }
+
+
+    private void deleteRuns( List<File> runFiles )
+    {
+        for ( File file : runFiles )
+        {
+            if ( !file.delete() )
+            {
+                LOG.warn( "Failed to delete the sorted entry run file {}", file );
+            }
+        }
+    }
+}
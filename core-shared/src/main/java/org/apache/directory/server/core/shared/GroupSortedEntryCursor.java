@@ -0,0 +1,146 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.shared;
+
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.cursor.CursorException;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+
+
+/**
+ * A cursor over entries already ordered by the first sort key, as they are returned
+ * by a partition reading them in the order of an index. Only the consecutive entries
+ * sharing the same first key are sorted using the other keys, so the entries are
+ * returned without reading all of them first.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+class GroupSortedEntryCursor extends AbstractReplayingEntryCursor
+{
+    /** The cursor over the entries ordered by the first key */
+    private final Cursor<Entry> wrapped;
+
+    /** The comparator used to sort the entries */
+    private final SortedEntryComparator comparator;
+
+    /** The sorted entries sharing the same first key */
+    private final List<Entry> group = new ArrayList<Entry>();
+
+    /** The position in the current group */
+    private int groupPosition;
+
+    /** The first entry of the next group, already read from the wrapped cursor */
+    private Entry pending;
+
+
+    /**
+     * Creates a new instance of GroupSortedEntryCursor.
+     *
+     * @param wrapped The entries ordered by the first sort key
+     * @param comparator The comparator using all the sort keys
+     */
+    GroupSortedEntryCursor( Cursor<Entry> wrapped, SortedEntryComparator comparator )
+    {
+        this.wrapped = wrapped;
+        this.comparator = comparator;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    protected void restart() throws LdapException, CursorException
+    {
+        wrapped.beforeFirst();
+        group.clear();
+        groupPosition = 0;
+        pending = null;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    protected Entry produceNext() throws LdapException, CursorException
+    {
+        if ( groupPosition < group.size() )
+        {
+            return group.get( groupPosition++ );
+        }
+
+        group.clear();
+        groupPosition = 0;
+
+        Entry first = pending;
+        pending = null;
+
+        if ( ( first == null ) && wrapped.next() )
+        {
+            first = wrapped.get();
+        }
+
+        if ( first == null )
+        {
+            return null;
+        }
+
+        group.add( first );
+
+        // Read all the entries having the same first key
+        while ( wrapped.next() )
+        {
+            Entry entry = wrapped.get();
+
+            if ( comparator.compareFirstKey( first, entry ) != 0 )
+            {
+                pending = entry;
+                break;
+            }
+
+            group.add( entry );
+        }
+
+        Collections.sort( group, comparator );
+
+        return group.get( groupPosition++ );
+    }
+
+
+    @Override
+    public void close()
+    {
+        wrapped.close();
+        super.close();
+    }
+
+
+    @Override
+    public void close( Exception cause )
+    {
+        wrapped.close( cause );
+        super.close( cause );
+    }
+}
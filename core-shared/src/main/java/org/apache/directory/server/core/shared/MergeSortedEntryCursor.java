@@ -0,0 +1,264 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.shared;
+
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import org.apache.directory.api.ldap.model.cursor.CursorException;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * A cursor merging sorted runs of entries stored in temporary files, as written
+ * by the {@link EntrySorter}. Only the current entry of each run is kept in memory.
+ * The files are deleted when the cursor is closed.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+class MergeSortedEntryCursor extends AbstractReplayingEntryCursor
+{
+    private static final Logger LOG = LoggerFactory.getLogger( MergeSortedEntryCursor.class );
+
+    /** The size of the buffer used to read a run */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /** The files containing the sorted runs */
+    private final List<File> runFiles;
+
+    /** The comparator used to sort the entries */
+    private final Comparator<Entry> comparator;
+
+    /** The serializer used to read the entries */
+    private final SortedEntrySerializer serializer = new SortedEntrySerializer();
+
+    /** The runs being merged, ordered by their current entry */
+    private PriorityQueue<Run> queue;
+
+    /** The opened runs */
+    private List<Run> runs = new ArrayList<Run>();
+
+
+    /**
+     * A sorted run, and its current entry
+     */
+    private static class Run
+    {
+        /** The position of the run, used to keep the merge stable */
+        private final int index;
+
+        /** The stream the entries are read from */
+        private final DataInputStream in;
+
+        /** The current entry */
+        private Entry current;
+
+
+        private Run( int index, File file ) throws IOException
+        {
+            this.index = index;
+            in = new DataInputStream( new BufferedInputStream( new FileInputStream( file ), BUFFER_SIZE ) );
+        }
+
+
+        /**
+         * Reads the next entry of the run
+         *
+         * @return true if there was an entry to read
+         */
+        private boolean advance( SortedEntrySerializer serializer ) throws IOException
+        {
+            int length;
+
+            try
+            {
+                length = in.readInt();
+            }
+            catch ( EOFException eofe )
+            {
+                current = null;
+
+                return false;
+            }
+
+            byte[] bytes = new byte[length];
+            in.readFully( bytes );
+            current = ( Entry ) serializer.deserialize( bytes );
+
+            return true;
+        }
+
+
+        private void close()
+        {
+            try
+            {
+                in.close();
+            }
+            catch ( IOException ioe )
+            {
+                LOG.warn( "Failed to close a sorted run", ioe );
+            }
+        }
+    }
+
+
+    /**
+     * Creates a new instance of MergeSortedEntryCursor.
+     *
+     * @param runFiles The files containing the sorted runs
+     * @param comparator The comparator used to sort the runs
+     * @throws CursorException If the runs can't be read
+     */
+    MergeSortedEntryCursor( List<File> runFiles, Comparator<Entry> comparator ) throws CursorException
+    {
+        this.runFiles = runFiles;
+        this.comparator = comparator;
+
+        restart();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    protected void restart() throws CursorException
+    {
+        closeRuns();
+
+        queue = new PriorityQueue<Run>( Math.max( 1, runFiles.size() ), new Comparator<Run>()
+        {
+            public int compare( Run run1, Run run2 )
+            {
+                int c = comparator.compare( run1.current, run2.current );
+
+                if ( c == 0 )
+                {
+                    // The runs are written in the order the entries have been read
+                    return run1.index - run2.index;
+                }
+
+                return c;
+            }
+        } );
+
+        try
+        {
+            for ( int i = 0; i < runFiles.size(); i++ )
+            {
+                Run run = new Run( i, runFiles.get( i ) );
+                runs.add( run );
+
+                if ( run.advance( serializer ) )
+                {
+                    queue.add( run );
+                }
+            }
+        }
+        catch ( IOException ioe )
+        {
+            throw new CursorException( ioe );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    protected Entry produceNext() throws CursorException
+    {
+        Run run = queue.poll();
+
+        if ( run == null )
+        {
+            return null;
+        }
+
+        Entry entry = run.current;
+
+        try
+        {
+            if ( run.advance( serializer ) )
+            {
+                queue.add( run );
+            }
+        }
+        catch ( IOException ioe )
+        {
+            throw new CursorException( ioe );
+        }
+
+        return entry;
+    }
+
+
+    @Override
+    public void close()
+    {
+        deleteFiles();
+        super.close();
+    }
+
+
+    @Override
+    public void close( Exception cause )
+    {
+        deleteFiles();
+        super.close( cause );
+    }
+
+
+    private void closeRuns()
+    {
+        for ( Run run : runs )
+        {
+            run.close();
+        }
+
+        runs.clear();
+    }
+
+
+    private void deleteFiles()
+    {
+        closeRuns();
+
+        for ( File file : runFiles )
+        {
+            if ( !file.delete() )
+            {
+                LOG.warn( "Failed to delete the sorted entry run file {}", file );
+            }
+        }
+
+        runFiles.clear();
+    }
+}
@@ -22,60 +22,88 @@ package org.apache.directory.server.core.shared;
 
 import java.io.Serializable;
 import java.util.Comparator;
+import java.util.List;
 import java.util.TreeSet;
 
 import org.apache.directory.api.ldap.model.entry.Attribute;
 import org.apache.directory.api.ldap.model.entry.Entry;
 import org.apache.directory.api.ldap.model.entry.Value;
 import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.message.controls.SortKey;
 import org.apache.directory.api.ldap.model.schema.AttributeType;
 import org.apache.directory.api.ldap.model.schema.LdapComparator;
 import org.apache.directory.api.ldap.model.schema.MatchingRule;
 import org.apache.directory.api.ldap.model.schema.SchemaManager;
 
 /**
- * A comparator to sort the entries as per <a href="http://tools.ietf.org/html/rfc2891">RFC 2891</a>
+ * A comparator to sort the entries as per <a href="http://tools.ietf.org/html/rfc2891">RFC 2891</a>.
+ * The entries are compared using the first sort key, then the following ones when
+ * they are equal.
  * 
  * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
  */
 class SortedEntryComparator implements Comparator<Entry>, Serializable
 {
 
-    /** the attribute's type */
-    private transient AttributeType type;
+    /** the attributes' type, one per sort key */
+    private transient AttributeType[] types;
 
-    /** comparator used for comparing the values of the given attribute type */
-    private transient LdapComparator comparator;
+    /** comparators used for comparing the values of the given attribute types */
+    private transient LdapComparator[] comparators;
 
-    /** flag to indicate if the attribute type is multivalued */
-    private boolean multivalued;
+    /** flags to indicate if the attribute types are multivalued */
+    private boolean[] multivalued;
 
-    /** flag for indicating the order of sorting */
-    private boolean reverse;
+    /** flags for indicating the order of sorting */
+    private boolean[] reverse;
 
-    /** flag to indicate if the attribute is human readable or binary */
-    private boolean hr;
+    /** flags to indicate if the attributes are human readable or binary */
+    private boolean[] hr;
 
 
     /**
      * 
      * Creates a new instance of SortedEntryComparator.
      *
-     * @param at the attribute's type
-     * @param mrOid the OID or name of the matchingrule
-     * @param reverse flag to indicate the sort order
+     * @param sortKeys the sort keys, in order of precedence
+     * @param schemaManager the schema manager
      */
-    public SortedEntryComparator( AttributeType at, String mrule, boolean reverse, SchemaManager schemaManager ) throws LdapException
+    public SortedEntryComparator( List<SortKey> sortKeys, SchemaManager schemaManager ) throws LdapException
     {
-        this.type = at;
-        this.reverse = reverse;
+        int nbKeys = sortKeys.size();
+
+        types = new AttributeType[nbKeys];
+        comparators = new LdapComparator[nbKeys];
+        multivalued = new boolean[nbKeys];
+        reverse = new boolean[nbKeys];
+        hr = new boolean[nbKeys];
 
-        if ( !at.isSingleValued() )
+        for ( int i = 0; i < nbKeys; i++ )
         {
-            multivalued = true;
+            SortKey sk = sortKeys.get( i );
+            AttributeType at = schemaManager.lookupAttributeTypeRegistry( sk.getAttributeTypeDesc() );
+
+            types[i] = at;
+            reverse[i] = sk.isReverseOrder();
+            multivalued[i] = !at.isSingleValued();
+            hr[i] = at.getSyntax().isHumanReadable();
+            comparators[i] = getComparator( at, sk.getMatchingRuleId(), schemaManager );
         }
+    }
 
-        hr = at.getSyntax().isHumanReadable();
+
+    /**
+     * Gets the comparator to use for a sort key
+     *
+     * @param at the attribute's type
+     * @param mrule the OID or name of the matchingrule, if any
+     * @param schemaManager the schema manager
+     * @return the comparator
+     */
+    static LdapComparator getComparator( AttributeType at, String mrule, SchemaManager schemaManager )
+        throws LdapException
+    {
+        LdapComparator comparator;
 
         if ( mrule != null )
         {
@@ -93,45 +121,93 @@ class SortedEntryComparator implements Comparator<Entry>, Serializable
             comparator = schemaManager.lookupComparatorRegistry( mr.getOid() );
         }
         
-        ( ( LdapComparator ) comparator ).setSchemaManager( schemaManager );
+        comparator.setSchemaManager( schemaManager );
+
+        return comparator;
     }
 
 
     @Override
     public int compare( Entry entry1, Entry entry2 )
     {
-        Attribute at1 = entry1.get( type );
+        for ( int i = 0; i < types.length; i++ )
+        {
+            int c = compareKey( i, entry1, entry2 );
+
+            if ( c != 0 )
+            {
+                return c;
+            }
+        }
+
+        return 0;
+    }
+
+
+    /**
+     * Compares two entries using only the first sort key
+     *
+     * @param entry1 the first entry
+     * @param entry2 the second entry
+     * @return the result of the comparison, 0 if the entries have the same first key
+     */
+    public int compareFirstKey( Entry entry1, Entry entry2 )
+    {
+        return compareKey( 0, entry1, entry2 );
+    }
+
+
+    /**
+     * @return the number of sort keys
+     */
+    public int getNbKeys()
+    {
+        return types.length;
+    }
+
+
+    /**
+     * Compares two entries using one sort key
+     */
+    private int compareKey( int key, Entry entry1, Entry entry2 )
+    {
+        Attribute at1 = entry1.get( types[key] );
 
-        Attribute at2 = entry2.get( type );
+        Attribute at2 = entry2.get( types[key] );
 
         // as per section 2.2 of the spec null values are considered larger
         if ( at1 == null )
         {
-            return ( reverse ? -1 : 1 );
+            if ( at2 == null )
+            {
+                return 0;
+            }
+
+            return ( reverse[key] ? -1 : 1 );
         }
         else if ( at2 == null )
         {
-            return ( reverse ? 1 : -1 );
+            return ( reverse[key] ? 1 : -1 );
         }
 
         Object o1 = null;
         Object o2 = null;
 
-        if ( multivalued )
+        if ( multivalued[key] )
         {
-            TreeSet ts = new TreeSet( comparator );
+            TreeSet ts = new TreeSet( comparators[key] );
 
-            o1 = sortAndGetFirst( at1, ts );
+            o1 = sortAndGetFirst( key, at1, ts );
 
             ts.clear();
-            o2 = sortAndGetFirst( at2, ts );
+            o2 = sortAndGetFirst( key, at2, ts );
         }
         else
         {
             Value<?> v1 = at1.get();
             Value<?> v2 = at2.get();
 
-            if ( hr )
+            if ( hr[key] )
             {
                 o1 = v1.getString();
                 o2 = v2.getString();
@@ -143,38 +219,30 @@ class SortedEntryComparator implements Comparator<Entry>, Serializable
             }
         }
 
-        int c = 1;
-
-        if ( reverse )
+        if ( reverse[key] )
         {
-            c = comparator.compare( o2, o1 );
+            return comparators[key].compare( o2, o1 );
         }
         else
         {
-            c = comparator.compare( o1, o2 );
+            return comparators[key].compare( o1, o2 );
         }
-
-        if ( c == 0 )
-        {
-            return 1;
-        }
-
-        return c;
     }
 
 
     /**
      * sorts the values of an attribute and picks the least value
      * 
+     * @param key the sort key
      * @param at the attribute
      * @param ts the TreeSet for sorting 
      * @return the least value among the values of the attribute
      */
-    private Object sortAndGetFirst( Attribute at, TreeSet ts )
+    private Object sortAndGetFirst( int key, Attribute at, TreeSet ts )
     {
         for ( Value v : at )
         {
-            if ( hr )
+            if ( hr[key] )
             {
                 ts.add( v.getString() );
             }
@@ -186,4 +254,4 @@ class SortedEntryComparator implements Comparator<Entry>, Serializable
 
         return ts.first();
     }
-}
\ No newline at end of file
+}
@@ -30,6 +30,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.cursor.CursorException;
@@ -62,6 +64,7 @@ import org.apache.directory.api.util.exception.MultiException;
 import org.apache.directory.server.constants.ServerDNConstants;
 import org.apache.directory.server.core.api.DirectoryService;
 import org.apache.directory.server.core.api.InterceptorEnum;
+import org.apache.directory.server.core.api.OperationEnum;
 import org.apache.directory.server.core.api.entry.ClonedServerEntry;
 import org.apache.directory.server.core.api.filtering.CursorList;
 import org.apache.directory.server.core.api.filtering.EntryFilteringCursor;
@@ -78,6 +81,9 @@ import org.apache.directory.server.core.api.interceptor.context.MoveOperationCon
 import org.apache.directory.server.core.api.interceptor.context.RenameOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.SearchOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.UnbindOperationContext;
+import org.apache.directory.server.core.api.monitor.MonitorRegistry;
+import org.apache.directory.server.core.api.monitor.MonitoredComponent;
+import org.apache.directory.server.core.api.monitor.OperationLatencies;
 import org.apache.directory.server.core.api.partition.AbstractPartition;
 import org.apache.directory.server.core.api.partition.Partition;
 import org.apache.directory.server.core.api.partition.PartitionNexus;
@@ -125,6 +131,9 @@ public class DefaultPartitionNexus extends AbstractPartition implements Partitio
     /** The cn=schema Dn */
     private Dn subschemSubentryDn;
 
+    /** The latency of the operations, per partition ID */
+    private final ConcurrentMap<String, OperationLatencies> partitionLatencies = new ConcurrentHashMap<String, OperationLatencies>();
+
 
     /**
      * Creates the root nexus singleton of the entire system.  The root DSE has
@@ -214,6 +223,16 @@ public class DefaultPartitionNexus extends AbstractPartition implements Partitio
 
                 createContextCsnModList();
 
+                // The monitoring partition is reachable, but is not a naming context
+                MonitorPartition monitorPartition = new MonitorPartition( schemaManager,
+                    directoryService.getMonitorRegistry() );
+                monitorPartition.initialize();
+
+                synchronized ( partitionLookupTree )
+                {
+                    partitionLookupTree.add( monitorPartition.getSuffixDn(), monitorPartition );
+                }
+
                 initialized = true;
             }
             finally
@@ -336,7 +355,9 @@ public class DefaultPartitionNexus extends AbstractPartition implements Partitio
     public void add( AddOperationContext addContext ) throws LdapException
     {
         Partition partition = getPartition( addContext.getDn() );
+        long start = System.nanoTime();
         partition.add( addContext );
+        getLatencies( partition ).recordSince( OperationEnum.ADD, start );
     }
 
 
@@ -389,7 +410,9 @@ public class DefaultPartitionNexus extends AbstractPartition implements Partitio
     public Entry delete( DeleteOperationContext deleteContext ) throws LdapException
     {
         Partition partition = getPartition( deleteContext.getDn() );
+        long start = System.nanoTime();
         Entry deletedEntry = partition.delete( deleteContext );
+        getLatencies( partition ).recordSince( OperationEnum.DELETE, start );
 
         return deletedEntry;
     }
@@ -413,8 +436,11 @@ public class DefaultPartitionNexus extends AbstractPartition implements Partitio
         }
 
         Partition partition = getPartition( dn );
+        long start = System.nanoTime();
+        boolean hasEntry = partition.hasEntry( hasEntryContext );
+        getLatencies( partition ).recordSince( OperationEnum.HAS_ENTRY, start );
 
-        return partition.hasEntry( hasEntryContext );
+        return hasEntry;
     }
 
 
@@ -439,7 +465,9 @@ public class DefaultPartitionNexus extends AbstractPartition implements Partitio
         }
 
         Partition partition = getPartition( dn );
+        long start = System.nanoTime();
         Entry entry = partition.lookup( lookupContext );
+        getLatencies( partition ).recordSince( OperationEnum.LOOKUP, start );
 
         if ( entry == null )
         {
@@ -465,8 +493,10 @@ public class DefaultPartitionNexus extends AbstractPartition implements Partitio
         }
 
         Partition partition = getPartition( modifyContext.getDn() );
+        long start = System.nanoTime();
 
         partition.modify( modifyContext );
+        getLatencies( partition ).recordSince( OperationEnum.MODIFY, start );
 
         if ( modifyContext.isPushToEvtInterceptor() )
         {
@@ -482,8 +512,10 @@ public class DefaultPartitionNexus extends AbstractPartition implements Partitio
     {
         // Get the current partition
         Partition partition = getPartition( moveContext.getDn() );
+        long start = System.nanoTime();
 
         partition.move( moveContext );
+        getLatencies( partition ).recordSince( OperationEnum.MOVE, start );
     }
 
 
@@ -493,7 +525,9 @@ public class DefaultPartitionNexus extends AbstractPartition implements Partitio
     public void moveAndRename( MoveAndRenameOperationContext moveAndRenameContext ) throws LdapException
     {
         Partition partition = getPartition( moveAndRenameContext.getDn() );
+        long start = System.nanoTime();
         partition.moveAndRename( moveAndRenameContext );
+        getLatencies( partition ).recordSince( OperationEnum.MOVE_AND_RENAME, start );
     }
 
 
@@ -503,7 +537,9 @@ public class DefaultPartitionNexus extends AbstractPartition implements Partitio
     public void rename( RenameOperationContext renameContext ) throws LdapException
     {
         Partition partition = getPartition( renameContext.getDn() );
+        long start = System.nanoTime();
         partition.rename( renameContext );
+        getLatencies( partition ).recordSince( OperationEnum.RENAME, start );
     }
 
 
@@ -608,7 +644,13 @@ public class DefaultPartitionNexus extends AbstractPartition implements Partitio
         // Normal case : do a search on the specific partition
         Partition backend = getPartition( base );
 
-        return backend.search( searchContext );
+        // This is the time needed to select the candidates and to create the cursor,
+        // the entries are read while the cursor is browsed
+        long start = System.nanoTime();
+        EntryFilteringCursor cursor = backend.search( searchContext );
+        getLatencies( backend ).recordSince( OperationEnum.SEARCH, start );
+
+        return cursor;
     }
 
 
@@ -787,6 +829,11 @@ public class DefaultPartitionNexus extends AbstractPartition implements Partitio
             partition.initialize();
         }
 
+        if ( partition instanceof MonitoredComponent )
+        {
+            ( ( MonitoredComponent ) partition ).registerStatistics( directoryService.getMonitorRegistry() );
+        }
+
         synchronized ( partitionLookupTree )
         {
             Dn partitionSuffix = partition.getSuffixDn();
@@ -985,6 +1032,29 @@ public class DefaultPartitionNexus extends AbstractPartition implements Partitio
     }
 
 
+    /**
+     * Gets the latency histograms of a partition
+     */
+    private OperationLatencies getLatencies( Partition partition )
+    {
+        OperationLatencies latencies = partitionLatencies.get( partition.getId() );
+
+        if ( latencies == null )
+        {
+            latencies = new OperationLatencies( directoryService.getMonitorRegistry(), MonitorRegistry.PARTITIONS,
+                partition.getId() );
+            OperationLatencies existing = partitionLatencies.putIfAbsent( partition.getId(), latencies );
+
+            if ( existing != null )
+            {
+                latencies = existing;
+            }
+        }
+
+        return latencies;
+    }
+
+
     /**
      * @return the directoryService
      */
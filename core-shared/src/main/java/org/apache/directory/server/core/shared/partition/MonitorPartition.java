@@ -0,0 +1,356 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.shared.partition;
+
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.cursor.ListCursor;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.exception.LdapNoSuchObjectException;
+import org.apache.directory.api.ldap.model.exception.LdapUnwillingToPerformException;
+import org.apache.directory.api.ldap.model.message.ResultCodeEnum;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.name.Rdn;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.server.core.api.event.ExpressionEvaluator;
+import org.apache.directory.server.core.api.filtering.EntryFilteringCursor;
+import org.apache.directory.server.core.api.filtering.EntryFilteringCursorImpl;
+import org.apache.directory.server.core.api.interceptor.context.AddOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.DeleteOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.HasEntryOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.LookupOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.ModifyOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.MoveAndRenameOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.MoveOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.RenameOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.SearchOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.UnbindOperationContext;
+import org.apache.directory.server.core.api.monitor.LatencyHistogram;
+import org.apache.directory.server.core.api.monitor.MonitorCounter;
+import org.apache.directory.server.core.api.monitor.MonitorRegistry;
+
+
+/**
+ * A read only partition exposing the statistics of a {@link MonitorRegistry} under
+ * cn=monitor. The entries are built from the current statistics on each request :
+ * <pre>
+ * cn=monitor
+ *   cn=&lt;category&gt;,cn=monitor
+ *     cn=&lt;statistic&gt;,cn=&lt;category&gt;,cn=monitor
+ * </pre>
+ * All the entries are applicationProcess entries. The values of a statistic are
+ * stored as 'key=value' description values : a latency histogram has the count,
+ * meanMicros, maxMicros, p50Micros, p90Micros, p99Micros and p999Micros keys, a
+ * counter has the value key.
+ * <br>
+ * This partition is not a naming context : it is only reachable by searching it
+ * or one of its entries directly.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class MonitorPartition extends AbstractPartition
+{
+    /** The partition ID */
+    public static final String ID = "monitor";
+
+    /** The partition suffix */
+    public static final String SUFFIX = "cn=monitor";
+
+    /** The attribute holding the statistics values */
+    private static final String DESCRIPTION_AT = "description";
+
+    /** The statistics */
+    private final MonitorRegistry registry;
+
+    /** The evaluator used to filter the entries */
+    private ExpressionEvaluator evaluator;
+
+
+    /**
+     * Creates a new instance of MonitorPartition.
+     *
+     * @param schemaManager The SchemaManager
+     * @param registry The statistics to expose
+     * @throws LdapException If the suffix can't be created
+     */
+    public MonitorPartition( SchemaManager schemaManager, MonitorRegistry registry ) throws LdapException
+    {
+        this.schemaManager = schemaManager;
+        this.registry = registry;
+        id = ID;
+        suffixDn = new Dn( schemaManager, SUFFIX );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    protected void doInit() throws Exception
+    {
+        evaluator = new ExpressionEvaluator( schemaManager );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    protected void doDestroy() throws Exception
+    {
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void sync() throws Exception
+    {
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public EntryFilteringCursor search( SearchOperationContext searchContext ) throws LdapException
+    {
+        Dn base = searchContext.getDn();
+        List<Entry> entries = getEntries();
+        List<Entry> selected = new ArrayList<Entry>();
+        boolean baseFound = false;
+
+        for ( Entry entry : entries )
+        {
+            Dn dn = entry.getDn();
+            boolean inScope;
+
+            switch ( searchContext.getScope() )
+            {
+                case OBJECT:
+                    inScope = dn.equals( base );
+                    break;
+
+                case ONELEVEL:
+                    inScope = !dn.equals( base ) && dn.getParent().equals( base );
+                    break;
+
+                default:
+                    inScope = dn.isDescendantOf( base );
+                    break;
+            }
+
+            baseFound |= dn.equals( base );
+
+            if ( inScope && evaluator.evaluate( searchContext.getFilter(), dn, entry ) )
+            {
+                selected.add( entry );
+            }
+        }
+
+        if ( !baseFound )
+        {
+            throw new LdapNoSuchObjectException( base.getName() );
+        }
+
+        return new EntryFilteringCursorImpl( new ListCursor<Entry>( selected ), searchContext, schemaManager );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public Entry lookup( LookupOperationContext lookupContext ) throws LdapException
+    {
+        Dn dn = lookupContext.getDn();
+
+        for ( Entry entry : getEntries() )
+        {
+            if ( entry.getDn().equals( dn ) )
+            {
+                return entry;
+            }
+        }
+
+        return null;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean hasEntry( HasEntryOperationContext hasEntryContext ) throws LdapException
+    {
+        Dn dn = hasEntryContext.getDn();
+
+        for ( Entry entry : getEntries() )
+        {
+            if ( entry.getDn().equals( dn ) )
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void add( AddOperationContext addContext ) throws LdapException
+    {
+        throw readOnly();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public Entry delete( DeleteOperationContext deleteContext ) throws LdapException
+    {
+        throw readOnly();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void modify( ModifyOperationContext modifyContext ) throws LdapException
+    {
+        throw readOnly();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void rename( RenameOperationContext renameContext ) throws LdapException
+    {
+        throw readOnly();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void move( MoveOperationContext moveContext ) throws LdapException
+    {
+        throw readOnly();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void moveAndRename( MoveAndRenameOperationContext moveAndRenameContext ) throws LdapException
+    {
+        throw readOnly();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void unbind( UnbindOperationContext unbindContext ) throws LdapException
+    {
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void saveContextCsn() throws Exception
+    {
+    }
+
+
+    private LdapUnwillingToPerformException readOnly()
+    {
+        return new LdapUnwillingToPerformException( ResultCodeEnum.UNWILLING_TO_PERFORM,
+            "The " + SUFFIX + " partition is read only" );
+    }
+
+
+    /**
+     * Builds the entries from the current statistics
+     */
+    private List<Entry> getEntries() throws LdapException
+    {
+        List<Entry> entries = new ArrayList<Entry>();
+
+        entries.add( createEntry( suffixDn, ID ) );
+
+        for ( String category : registry.getCategories() )
+        {
+            Dn categoryDn = new Dn( schemaManager, SchemaConstants.CN_AT + "=" + Rdn.escapeValue( category ) + ","
+                + SUFFIX );
+            entries.add( createEntry( categoryDn, category ) );
+
+            for ( Map.Entry<String, LatencyHistogram> histogram : registry.getHistograms( category ).entrySet() )
+            {
+                LatencyHistogram value = histogram.getValue();
+                Entry entry = createEntry( createDn( histogram.getKey(), categoryDn ), histogram.getKey() );
+
+                entry.add( DESCRIPTION_AT,
+                    "count=" + value.getCount(),
+                    "meanMicros=" + value.getMean(),
+                    "maxMicros=" + value.getMax(),
+                    "p50Micros=" + value.getP50(),
+                    "p90Micros=" + value.getP90(),
+                    "p99Micros=" + value.getP99(),
+                    "p999Micros=" + value.getP999() );
+                entries.add( entry );
+            }
+
+            for ( Map.Entry<String, MonitorCounter> counter : registry.getCounters( category ).entrySet() )
+            {
+                Entry entry = createEntry( createDn( counter.getKey(), categoryDn ), counter.getKey() );
+
+                entry.add( DESCRIPTION_AT, "value=" + counter.getValue().getValue() );
+                entries.add( entry );
+            }
+        }
+
+        return entries;
+    }
+
+
+    private Dn createDn( String name, Dn parentDn ) throws LdapException
+    {
+        return new Dn( schemaManager, SchemaConstants.CN_AT + "=" + Rdn.escapeValue( name ) + ","
+            + parentDn.getName() );
+    }
+
+
+    private Entry createEntry( Dn dn, String name ) throws LdapException
+    {
+        Entry entry = new DefaultEntry( schemaManager, dn,
+            "objectClass: top",
+            "objectClass: applicationProcess" );
+
+        entry.add( SchemaConstants.CN_AT, name );
+
+        return entry;
+    }
+}
@@ -31,13 +31,14 @@ import java.nio.channels.FileLock;
 import java.nio.channels.OverlappingFileLockException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
@@ -97,6 +98,7 @@ import org.apache.directory.server.core.api.interceptor.context.HasEntryOperatio
 import org.apache.directory.server.core.api.interceptor.context.LookupOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.OperationContext;
 import org.apache.directory.server.core.api.journal.Journal;
+import org.apache.directory.server.core.api.monitor.MonitorRegistry;
 import org.apache.directory.server.core.api.partition.Partition;
 import org.apache.directory.server.core.api.partition.PartitionNexus;
 import org.apache.directory.server.core.api.schema.SchemaPartition;
@@ -161,6 +163,9 @@ public class DefaultDirectoryService implements DirectoryService
     /** the journal service */
     private Journal journal;
 
+    /** The statistics gathered by this DirectoryService. It has to be created before the OperationManager */
+    private final MonitorRegistry monitorRegistry = new MonitorRegistry();
+
     /**
      * the interface used to perform various operations on this
      * DirectoryService
@@ -243,8 +248,11 @@ public class DefaultDirectoryService implements DirectoryService
     private Lock readLock = interceptorsLock.readLock();
     private Lock writeLock = interceptorsLock.writeLock();
 
-    /** A map associating a list of interceptor to each operation */
-    private Map<OperationEnum, List<String>> operationInterceptors;
+    /** A map associating a list of interceptor names to each operation, never modified once published */
+    private volatile Map<OperationEnum, List<String>> operationInterceptors;
+
+    /** A map associating the pipeline of interceptors to each operation, never modified once published */
+    private volatile Map<OperationEnum, Interceptor[]> operationPipelines;
 
     /** The System partition */
     private Partition systemPartition;
@@ -445,26 +453,24 @@ public class DefaultDirectoryService implements DirectoryService
      */
     public List<String> getInterceptors( OperationEnum operation )
     {
-        List<String> cloned = new ArrayList<String>();
-
-        readLock.lock();
-
-        try
-        {
-            cloned.addAll( operationInterceptors.get( operation ) );
+        // The lists are immutable, and replaced when the interceptors are modified
+        return operationInterceptors.get( operation );
+    }
 
-            return cloned;
-        }
-        finally
-        {
-            readLock.unlock();
-        }
 
+    /**
+     * {@inheritDoc}
+     */
+    public Interceptor[] getInterceptorPipeline( OperationEnum operation )
+    {
+        return operationPipelines.get( operation );
     }
 
 
     /**
-     * Compute the list of  to call for each operation
+     * Compute the list of interceptors to call for each operation. The lists and the
+     * pipelines are built aside and published at once, so that the running operations
+     * keep using the previous ones.
      */
     private void initOperationsList()
     {
@@ -472,7 +478,10 @@ public class DefaultDirectoryService implements DirectoryService
 
         try
         {
-            operationInterceptors = new ConcurrentHashMap<OperationEnum, List<String>>();
+            Map<OperationEnum, List<String>> newOperationInterceptors = new EnumMap<OperationEnum, List<String>>(
+                OperationEnum.class );
+            Map<OperationEnum, Interceptor[]> newOperationPipelines = new EnumMap<OperationEnum, Interceptor[]>(
+                OperationEnum.class );
 
             for ( OperationEnum operation : OperationEnum.getOperations() )
             {
@@ -483,8 +492,19 @@ public class DefaultDirectoryService implements DirectoryService
                     gatherInterceptors( interceptor, interceptor.getClass(), operation, operationList );
                 }
 
-                operationInterceptors.put( operation, operationList );
+                Interceptor[] pipeline = new Interceptor[operationList.size()];
+
+                for ( int i = 0; i < pipeline.length; i++ )
+                {
+                    pipeline[i] = interceptorNames.get( operationList.get( i ) );
+                }
+
+                newOperationInterceptors.put( operation, Collections.unmodifiableList( operationList ) );
+                newOperationPipelines.put( operation, pipeline );
             }
+
+            operationInterceptors = newOperationInterceptors;
+            operationPipelines = newOperationPipelines;
         }
         finally
         {
@@ -564,30 +584,6 @@ public class DefaultDirectoryService implements DirectoryService
 
         try
         {
-            for ( OperationEnum operation : OperationEnum.getOperations() )
-            {
-                List<String> operationList = operationInterceptors.get( operation );
-
-                Method[] methods = interceptor.getClass().getDeclaredMethods();
-
-                for ( Method method : methods )
-                {
-                    if ( method.getName().equals( operation.getMethodName() ) )
-                    {
-                        if ( position == -1 )
-                        {
-                            operationList.add( interceptor.getName() );
-                        }
-                        else
-                        {
-                            operationList.add( position, interceptor.getName() );
-                        }
-
-                        break;
-                    }
-                }
-            }
-
             interceptorNames.put( interceptor.getName(), interceptor );
 
             if ( position == -1 )
@@ -598,6 +594,8 @@ public class DefaultDirectoryService implements DirectoryService
             {
                 interceptors.add( position, interceptor );
             }
+
+            initOperationsList();
         }
         finally
         {
@@ -611,31 +609,17 @@ public class DefaultDirectoryService implements DirectoryService
      */
     private void removeOperationsList( String interceptorName )
     {
-        Interceptor interceptor = interceptorNames.get( interceptorName );
-
         writeLock.lock();
 
         try
         {
-            for ( OperationEnum operation : OperationEnum.getOperations() )
-            {
-                List<String> operationList = operationInterceptors.get( operation );
+            Interceptor interceptor = interceptorNames.remove( interceptorName );
 
-                Method[] methods = interceptor.getClass().getDeclaredMethods();
-
-                for ( Method method : methods )
-                {
-                    if ( method.getName().equals( operation.getMethodName() ) )
-                    {
-                        operationList.remove( interceptor.getName() );
-
-                        break;
-                    }
-                }
+            if ( interceptor != null )
+            {
+                interceptors.remove( interceptor );
+                initOperationsList();
             }
-
-            interceptorNames.remove( interceptorName );
-            interceptors.remove( interceptor );
         }
         finally
         {
@@ -987,7 +971,7 @@ public class DefaultDirectoryService implements DirectoryService
         BindOperationContext bindContext = new BindOperationContext( null );
         bindContext.setCredentials( credentials );
         bindContext.setDn( principalDn.apply( schemaManager ) );
-        bindContext.setInterceptors( getInterceptors( OperationEnum.BIND ) );
+        bindContext.setInterceptors( getInterceptorPipeline( OperationEnum.BIND ) );
 
         operationManager.bind( bindContext );
 
@@ -1014,7 +998,7 @@ public class DefaultDirectoryService implements DirectoryService
         bindContext.setCredentials( credentials );
         bindContext.setDn( principalDn.apply( schemaManager ) );
         bindContext.setSaslMechanism( saslMechanism );
-        bindContext.setInterceptors( getInterceptors( OperationEnum.BIND ) );
+        bindContext.setInterceptors( getInterceptorPipeline( OperationEnum.BIND ) );
 
         operationManager.bind( bindContext );
 
@@ -1201,6 +1185,15 @@ public class DefaultDirectoryService implements DirectoryService
     }
 
 
+    /**
+     * {@inheritDoc}
+     */
+    public MonitorRegistry getMonitorRegistry()
+    {
+        return monitorRegistry;
+    }
+
+
     /**
      * @throws Exception if the LDAP server cannot be started
      */
@@ -1242,6 +1235,9 @@ public class DefaultDirectoryService implements DirectoryService
         initialize();
         showSecurityWarnings();
 
+        // Expose the statistics through JMX
+        monitorRegistry.enableJmx( instanceId );
+
         started = true;
 
         if ( !testEntries.isEmpty() )
@@ -1327,6 +1323,8 @@ public class DefaultDirectoryService implements DirectoryService
             }
         }
 
+        monitorRegistry.disableJmx();
+
         LOG.debug( "+++ DirectoryService stopped" );
         started = false;
     }
@@ -2066,6 +2064,9 @@ public class DefaultDirectoryService implements DirectoryService
             {
                 interceptors.add( position, interceptor );
             }
+
+            interceptorNames.put( interceptor.getName(), interceptor );
+            initOperationsList();
         }
         finally
         {
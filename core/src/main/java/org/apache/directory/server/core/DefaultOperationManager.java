@@ -21,14 +21,23 @@ package org.apache.directory.server.core;
 
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.apache.directory.api.ldap.model.constants.Loggers;
 import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.entry.Attribute;
 import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.Modification;
 import org.apache.directory.api.ldap.model.entry.Value;
 import org.apache.directory.api.ldap.model.exception.LdapAffectMultipleDsaException;
 import org.apache.directory.api.ldap.model.exception.LdapException;
@@ -41,9 +50,12 @@ import org.apache.directory.api.ldap.model.exception.LdapURLEncodingException;
 import org.apache.directory.api.ldap.model.message.ResultCodeEnum;
 import org.apache.directory.api.ldap.model.message.SearchScope;
 import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
 import org.apache.directory.api.ldap.model.url.LdapUrl;
+import org.apache.directory.api.util.Strings;
 import org.apache.directory.server.core.api.CoreSession;
 import org.apache.directory.server.core.api.DirectoryService;
+import org.apache.directory.server.core.api.OperationEnum;
 import org.apache.directory.server.core.api.OperationManager;
 import org.apache.directory.server.core.api.ReferralManager;
 import org.apache.directory.server.core.api.filtering.EntryFilteringCursor;
@@ -62,6 +74,8 @@ import org.apache.directory.server.core.api.interceptor.context.OperationContext
 import org.apache.directory.server.core.api.interceptor.context.RenameOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.SearchOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.UnbindOperationContext;
+import org.apache.directory.server.core.api.monitor.MonitorRegistry;
+import org.apache.directory.server.core.api.monitor.OperationLatencies;
 import org.apache.directory.server.i18n.I18n;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -88,16 +102,67 @@ public class DefaultOperationManager implements OperationManager
     private static final boolean IS_TIME = OPERATION_TIME.isDebugEnabled();
     private static final boolean IS_STAT = OPERATION_STAT.isDebugEnabled();
 
+    /** The object classes of the entries the interceptors keep some state about */
+    private static final String[] CACHED_OCS = new String[]
+        {
+            SchemaConstants.SUBENTRY_OC,
+            SchemaConstants.GROUP_OF_NAMES_OC,
+            SchemaConstants.GROUP_OF_UNIQUE_NAMES_OC,
+            SchemaConstants.REFERRAL_OC
+    };
+
+    /** The names of the attributes which modification is always applied alone */
+    private static final Set<String> EXCLUSIVE_MODIFICATION_ATS = new HashSet<String>();
+
+    static
+    {
+        EXCLUSIVE_MODIFICATION_ATS.add( Strings.toLowerCase( SchemaConstants.OBJECT_CLASS_AT ) );
+        EXCLUSIVE_MODIFICATION_ATS.add( Strings.toLowerCase( SchemaConstants.ADMINISTRATIVE_ROLE_AT ) );
+        EXCLUSIVE_MODIFICATION_ATS.add( Strings.toLowerCase( SchemaConstants.REF_AT ) );
+    }
+
+    /** The number of locks serializing the modifications of a same entry, a power of 2 */
+    private static final int NB_ENTRY_LOCKS = 64;
+
     /** The directory service instance */
     private final DirectoryService directoryService;
 
     /** A lock used to protect against concurrent operations */
     private ReadWriteLock rwLock = new ReentrantReadWriteLock( true );
 
+    /** Tells if each partition is protected by its own lock, instead of the global lock */
+    private boolean partitionLocking = false;
+
+    /** The locks protecting each partition, per partition suffix */
+    private final ConcurrentMap<Dn, ReadWriteLock> partitionLocks = new ConcurrentHashMap<Dn, ReadWriteLock>();
+
+    /** The time spent waiting for the read locks, per partition suffix (the empty Dn for the global lock) */
+    private final ConcurrentMap<Dn, LockContentionHistogram> readContention = new ConcurrentHashMap<Dn, LockContentionHistogram>();
+
+    /** The time spent waiting for the write locks, per partition suffix (the empty Dn for the global lock) */
+    private final ConcurrentMap<Dn, LockContentionHistogram> writeContention = new ConcurrentHashMap<Dn, LockContentionHistogram>();
+
+    /** The latency of the successful operations */
+    private final OperationLatencies operationLatencies;
+
+    /**
+     * The locks serializing the modifications of a same entry applied with the shared lock :
+     * they go through the whole interceptor chain one at a time, so that their CSNs, their
+     * changelog and journal records, and their events are ordered the same way.
+     */
+    private final Lock[] entryLocks = new Lock[NB_ENTRY_LOCKS];
+
 
     public DefaultOperationManager( DirectoryService directoryService )
     {
         this.directoryService = directoryService;
+        operationLatencies = new OperationLatencies( directoryService.getMonitorRegistry(),
+            MonitorRegistry.OPERATIONS, null );
+
+        for ( int i = 0; i < NB_ENTRY_LOCKS; i++ )
+        {
+            entryLocks[i] = new ReentrantLock();
+        }
     }
 
 
@@ -110,6 +175,59 @@ public class DefaultOperationManager implements OperationManager
     }
 
 
+    /**
+     * {@inheritDoc}
+     */
+    public ReadWriteLock getRWLock( Dn dn )
+    {
+        return getLock( getLockedSuffix( dn ) );
+    }
+
+
+    /**
+     * Tells if each partition is protected by its own lock. When this is the case, the
+     * operations on distinct partitions don't wait for each other. Otherwise, a single
+     * lock protects all the partitions.
+     *
+     * @return true if each partition has its own lock
+     */
+    public boolean isPartitionLocking()
+    {
+        return partitionLocking;
+    }
+
+
+    /**
+     * Set the partition locking flag. It has to be set before the server is started.
+     *
+     * @param partitionLocking true if each partition has its own lock
+     */
+    public void setPartitionLocking( boolean partitionLocking )
+    {
+        this.partitionLocking = partitionLocking;
+    }
+
+
+    /**
+     * @return The histograms of the time spent waiting for a read lock, per partition
+     * suffix. The empty Dn is associated with the global lock.
+     */
+    public Map<Dn, LockContentionHistogram> getReadLockContention()
+    {
+        return Collections.unmodifiableMap( readContention );
+    }
+
+
+    /**
+     * @return The histograms of the time spent waiting for a write lock, per partition
+     * suffix. The empty Dn is associated with the global lock.
+     */
+    public Map<Dn, LockContentionHistogram> getWriteLockContention()
+    {
+        return Collections.unmodifiableMap( writeContention );
+    }
+
+
     /**
      * Acquires a ReadLock
      */
@@ -146,6 +264,225 @@ public class DefaultOperationManager implements OperationManager
     }
 
 
+    /**
+     * Acquires the ReadLock protecting the partition containing an entry
+     *
+     * @param dn The entry's Dn
+     * @return The acquired lock
+     */
+    private ReadWriteLock lockRead( Dn dn )
+    {
+        Dn suffixDn = getLockedSuffix( dn );
+        ReadWriteLock lock = getLock( suffixDn );
+
+        long start = System.nanoTime();
+        lock.readLock().lock();
+        getHistogram( readContention, suffixDn ).record( System.nanoTime() - start );
+
+        return lock;
+    }
+
+
+    /**
+     * Acquires the WriteLock protecting the partition containing an entry
+     *
+     * @param dn The entry's Dn
+     * @return The acquired lock
+     */
+    private ReadWriteLock lockWrite( Dn dn )
+    {
+        Dn suffixDn = getLockedSuffix( dn );
+        ReadWriteLock lock = getLock( suffixDn );
+
+        long start = System.nanoTime();
+        lock.writeLock().lock();
+        getHistogram( writeContention, suffixDn ).record( System.nanoTime() - start );
+
+        return lock;
+    }
+
+
+    /**
+     * Tells if a modification can be applied while holding only the shared lock : the
+     * partition must apply the modifications of distinct entries concurrently, and the
+     * modification must not change the nature of the entry (its object classes, its
+     * administrative role, or the referral it points to), as the interceptors keep some
+     * state about the subentries, the groups, the referrals and the administrative points.
+     */
+    private boolean isConcurrentModification( ModifyOperationContext modifyContext )
+    {
+        Dn dn = modifyContext.getDn();
+
+        if ( ( dn == null ) || dn.isEmpty() )
+        {
+            return false;
+        }
+
+        try
+        {
+            if ( !directoryService.getPartitionNexus().getPartition( dn ).isConcurrentModificationsEnabled() )
+            {
+                return false;
+            }
+        }
+        catch ( LdapException le )
+        {
+            // No partition for this entry : the operation will fail later
+            return false;
+        }
+
+        for ( Modification modification : modifyContext.getModItems() )
+        {
+            AttributeType attributeType = modification.getAttribute().getAttributeType();
+
+            if ( attributeType == null )
+            {
+                if ( EXCLUSIVE_MODIFICATION_ATS.contains( Strings.toLowerCase( modification.getAttribute().getId() ) ) )
+                {
+                    return false;
+                }
+
+                continue;
+            }
+
+            for ( String name : attributeType.getNames() )
+            {
+                if ( EXCLUSIVE_MODIFICATION_ATS.contains( Strings.toLowerCase( name ) ) )
+                {
+                    return false;
+                }
+            }
+        }
+
+        return true;
+    }
+
+
+    /**
+     * Gets the lock serializing the modifications of an entry
+     */
+    private Lock getEntryLock( Dn dn )
+    {
+        int hash = dn.getNormName().hashCode();
+
+        // Spread the high bits, as for a HashMap
+        hash ^= ( hash >>> 16 );
+
+        return entryLocks[hash & ( NB_ENTRY_LOCKS - 1 )];
+    }
+
+
+    /**
+     * Tells if an entry is one of those the interceptors keep some state about
+     */
+    private boolean isCachedEntry( Entry entry )
+    {
+        if ( ( entry == null ) || entry.containsAttribute( SchemaConstants.ADMINISTRATIVE_ROLE_AT ) )
+        {
+            return true;
+        }
+
+        Attribute objectClass = entry.get( SchemaConstants.OBJECT_CLASS_AT );
+
+        if ( objectClass == null )
+        {
+            return true;
+        }
+
+        for ( String oc : CACHED_OCS )
+        {
+            if ( objectClass.contains( oc ) )
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+
+    /**
+     * Gets the suffix of the partition whose lock protects an entry. The empty Dn is
+     * returned when the global lock is used : when the partition locking is disabled,
+     * or when the entry does not belong to any partition (the RootDSE, typically).
+     */
+    private Dn getLockedSuffix( Dn dn )
+    {
+        if ( !partitionLocking || ( dn == null ) || dn.isEmpty() )
+        {
+            return Dn.EMPTY_DN;
+        }
+
+        try
+        {
+            Dn suffixDn = directoryService.getPartitionNexus().getPartition( dn ).getSuffixDn();
+
+            return ( suffixDn == null ) ? Dn.EMPTY_DN : suffixDn;
+        }
+        catch ( LdapException le )
+        {
+            // No partition for this entry : the operation will fail later
+            return Dn.EMPTY_DN;
+        }
+    }
+
+
+    /**
+     * Gets the lock associated with a partition suffix, creating it if needed
+     */
+    private ReadWriteLock getLock( Dn suffixDn )
+    {
+        if ( suffixDn.isEmpty() )
+        {
+            return rwLock;
+        }
+
+        ReadWriteLock lock = partitionLocks.get( suffixDn );
+
+        if ( lock == null )
+        {
+            lock = new ReentrantReadWriteLock( true );
+            ReadWriteLock existing = partitionLocks.putIfAbsent( suffixDn, lock );
+
+            if ( existing != null )
+            {
+                lock = existing;
+            }
+        }
+
+        return lock;
+    }
+
+
+    /**
+     * Gets the contention histogram associated with a partition suffix, creating it if needed
+     */
+    private LockContentionHistogram getHistogram( ConcurrentMap<Dn, LockContentionHistogram> histograms, Dn suffixDn )
+    {
+        LockContentionHistogram histogram = histograms.get( suffixDn );
+
+        if ( histogram == null )
+        {
+            histogram = new LockContentionHistogram();
+            LockContentionHistogram existing = histograms.putIfAbsent( suffixDn, histogram );
+
+            if ( existing != null )
+            {
+                histogram = existing;
+            }
+            else
+            {
+                String kind = ( histograms == readContention ) ? "read" : "write";
+                String suffix = suffixDn.isEmpty() ? "global" : suffixDn.getNormName();
+                directoryService.getMonitorRegistry().register( MonitorRegistry.LOCKS, kind + " " + suffix,
+                    histogram );
+            }
+        }
+
+        return histogram;
+    }
+
+
     /**
      * Eagerly populates fields of operation contexts so multiple Interceptors
      * in the processing pathway can reuse this value without performing a
@@ -344,12 +681,7 @@ public class DefaultOperationManager implements OperationManager
             OPERATION_LOG.debug( ">> AddOperation : {}", addContext );
         }
 
-        long addStart = 0L;
-
-        if ( IS_TIME )
-        {
-            addStart = System.nanoTime();
-        }
+        long addStart = System.nanoTime();
 
         ensureStarted();
 
@@ -388,9 +720,9 @@ public class DefaultOperationManager implements OperationManager
         }
 
         // Call the Add method
-        Interceptor head = directoryService.getInterceptor( addContext.getNextInterceptor() );
+        Interceptor head = addContext.getNextInterceptorInstance();
 
-        lockWrite();
+        ReadWriteLock lock = lockWrite( addContext.getDn() );
 
         try
         {
@@ -398,7 +730,7 @@ public class DefaultOperationManager implements OperationManager
         }
         finally
         {
-            unlockWrite();
+            lock.writeLock().unlock();
         }
 
         if ( IS_DEBUG )
@@ -406,6 +738,8 @@ public class DefaultOperationManager implements OperationManager
             OPERATION_LOG.debug( "<< AddOperation successful" );
         }
 
+        operationLatencies.recordSince( OperationEnum.ADD, addStart );
+
         if ( IS_TIME )
         {
             OPERATION_TIME.debug( "Add operation took " + ( System.nanoTime() - addStart ) + " ns" );
@@ -423,19 +757,14 @@ public class DefaultOperationManager implements OperationManager
             OPERATION_LOG.debug( ">> BindOperation : {}", bindContext );
         }
 
-        long opStart = 0L;
-
-        if ( IS_TIME )
-        {
-            opStart = System.nanoTime();
-        }
+        long opStart = System.nanoTime();
 
         ensureStarted();
 
         // Call the Delete method
-        Interceptor head = directoryService.getInterceptor( bindContext.getNextInterceptor() );
+        Interceptor head = bindContext.getNextInterceptorInstance();
 
-        lockRead();
+        ReadWriteLock lock = lockRead( bindContext.getDn() );
 
         try
         {
@@ -443,7 +772,7 @@ public class DefaultOperationManager implements OperationManager
         }
         finally
         {
-            unlockRead();
+            lock.readLock().unlock();
         }
 
         if ( IS_DEBUG )
@@ -451,6 +780,8 @@ public class DefaultOperationManager implements OperationManager
             OPERATION_LOG.debug( "<< BindOperation successful" );
         }
 
+        operationLatencies.recordSince( OperationEnum.BIND, opStart );
+
         if ( IS_TIME )
         {
             OPERATION_TIME.debug( "Bind operation took " + ( System.nanoTime() - opStart ) + " ns" );
@@ -468,12 +799,7 @@ public class DefaultOperationManager implements OperationManager
             OPERATION_LOG.debug( ">> CompareOperation : {}", compareContext );
         }
 
-        long opStart = 0L;
-
-        if ( IS_TIME )
-        {
-            opStart = System.nanoTime();
-        }
+        long opStart = System.nanoTime();
 
         ensureStarted();
         // Normalize the compareContext Dn
@@ -531,11 +857,11 @@ public class DefaultOperationManager implements OperationManager
         compareContext.setOriginalEntry( getOriginalEntry( compareContext ) );
 
         // Call the Compare method
-        Interceptor head = directoryService.getInterceptor( compareContext.getNextInterceptor() );
+        Interceptor head = compareContext.getNextInterceptorInstance();
 
         boolean result = false;
 
-        lockRead();
+        ReadWriteLock lock = lockRead( compareContext.getDn() );
 
         try
         {
@@ -543,7 +869,7 @@ public class DefaultOperationManager implements OperationManager
         }
         finally
         {
-            unlockRead();
+            lock.readLock().unlock();
         }
 
         if ( IS_DEBUG )
@@ -551,6 +877,8 @@ public class DefaultOperationManager implements OperationManager
             OPERATION_LOG.debug( "<< CompareOperation successful" );
         }
 
+        operationLatencies.recordSince( OperationEnum.COMPARE, opStart );
+
         if ( IS_TIME )
         {
             OPERATION_TIME.debug( "Compare operation took " + ( System.nanoTime() - opStart ) + " ns" );
@@ -570,12 +898,7 @@ public class DefaultOperationManager implements OperationManager
             OPERATION_LOG.debug( ">> DeleteOperation : {}", deleteContext );
         }
 
-        long opStart = 0L;
-
-        if ( IS_TIME )
-        {
-            opStart = System.nanoTime();
-        }
+        long opStart = System.nanoTime();
 
         ensureStarted();
 
@@ -632,20 +955,20 @@ public class DefaultOperationManager implements OperationManager
         }
 
         // populate the context with the old entry
-        lockWrite();
+        ReadWriteLock lock = lockWrite( deleteContext.getDn() );
 
         try
         {
             eagerlyPopulateFields( deleteContext );
 
             // Call the Delete method
-            Interceptor head = directoryService.getInterceptor( deleteContext.getNextInterceptor() );
+            Interceptor head = deleteContext.getNextInterceptorInstance();
 
             head.delete( deleteContext );
         }
         finally
         {
-            unlockWrite();
+            lock.writeLock().unlock();
         }
 
         if ( IS_DEBUG )
@@ -653,6 +976,8 @@ public class DefaultOperationManager implements OperationManager
             OPERATION_LOG.debug( "<< DeleteOperation successful" );
         }
 
+        operationLatencies.recordSince( OperationEnum.DELETE, opStart );
+
         if ( IS_TIME )
         {
             OPERATION_TIME.debug( "Delete operation took " + ( System.nanoTime() - opStart ) + " ns" );
@@ -670,16 +995,11 @@ public class DefaultOperationManager implements OperationManager
             OPERATION_LOG.debug( ">> GetRootDseOperation : {}", getRootDseContext );
         }
 
-        long opStart = 0L;
-
-        if ( IS_TIME )
-        {
-            opStart = System.nanoTime();
-        }
+        long opStart = System.nanoTime();
 
         ensureStarted();
 
-        Interceptor head = directoryService.getInterceptor( getRootDseContext.getNextInterceptor() );
+        Interceptor head = getRootDseContext.getNextInterceptorInstance();
 
         Entry root = head.getRootDse( getRootDseContext );
 
@@ -688,6 +1008,8 @@ public class DefaultOperationManager implements OperationManager
             OPERATION_LOG.debug( "<< getRootDseOperation successful" );
         }
 
+        operationLatencies.recordSince( OperationEnum.GET_ROOT_DSE, opStart );
+
         if ( IS_TIME )
         {
             OPERATION_TIME.debug( "GetRootDSE operation took " + ( System.nanoTime() - opStart ) + " ns" );
@@ -707,20 +1029,15 @@ public class DefaultOperationManager implements OperationManager
             OPERATION_LOG.debug( ">> hasEntryOperation : {}", hasEntryContext );
         }
 
-        long opStart = 0L;
-
-        if ( IS_TIME )
-        {
-            opStart = System.nanoTime();
-        }
+        long opStart = System.nanoTime();
 
         ensureStarted();
 
-        Interceptor head = directoryService.getInterceptor( hasEntryContext.getNextInterceptor() );
+        Interceptor head = hasEntryContext.getNextInterceptorInstance();
 
         boolean result = false;
 
-        lockRead();
+        ReadWriteLock lock = lockRead( hasEntryContext.getDn() );
 
         try
         {
@@ -728,7 +1045,7 @@ public class DefaultOperationManager implements OperationManager
         }
         finally
         {
-            unlockRead();
+            lock.readLock().unlock();
         }
 
         if ( IS_DEBUG )
@@ -736,6 +1053,8 @@ public class DefaultOperationManager implements OperationManager
             OPERATION_LOG.debug( "<< HasEntryOperation successful" );
         }
 
+        operationLatencies.recordSince( OperationEnum.HAS_ENTRY, opStart );
+
         if ( IS_TIME )
         {
             OPERATION_TIME.debug( "HasEntry operation took " + ( System.nanoTime() - opStart ) + " ns" );
@@ -755,20 +1074,15 @@ public class DefaultOperationManager implements OperationManager
             OPERATION_LOG.debug( ">> LookupOperation : {}", lookupContext );
         }
 
-        long opStart = 0L;
-
-        if ( IS_TIME )
-        {
-            opStart = System.nanoTime();
-        }
+        long opStart = System.nanoTime();
 
         ensureStarted();
 
-        Interceptor head = directoryService.getInterceptor( lookupContext.getNextInterceptor() );
+        Interceptor head = lookupContext.getNextInterceptorInstance();
 
         Entry entry = null;
 
-        lockRead();
+        ReadWriteLock lock = lockRead( lookupContext.getDn() );
 
         try
         {
@@ -776,7 +1090,7 @@ public class DefaultOperationManager implements OperationManager
         }
         finally
         {
-            unlockRead();
+            lock.readLock().unlock();
         }
 
         if ( IS_DEBUG )
@@ -784,6 +1098,8 @@ public class DefaultOperationManager implements OperationManager
             OPERATION_LOG.debug( "<< LookupOperation successful" );
         }
 
+        operationLatencies.recordSince( OperationEnum.LOOKUP, opStart );
+
         if ( IS_TIME )
         {
             OPERATION_TIME.debug( "Lookup operation took " + ( System.nanoTime() - opStart ) + " ns" );
@@ -803,12 +1119,7 @@ public class DefaultOperationManager implements OperationManager
             OPERATION_LOG.debug( ">> ModifyOperation : {}", modifyContext );
         }
 
-        long opStart = 0L;
-
-        if ( IS_TIME )
-        {
-            opStart = System.nanoTime();
-        }
+        long opStart = System.nanoTime();
 
         ensureStarted();
 
@@ -873,21 +1184,60 @@ public class DefaultOperationManager implements OperationManager
             referralManager.unlock();
         }
 
-        lockWrite();
+        // The partition may apply this modification concurrently with others
+        boolean shared = isConcurrentModification( modifyContext );
+        ReadWriteLock lock = shared ? lockRead( dn ) : lockWrite( dn );
+
+        // The modifications of the same entry are still applied one after the other. The
+        // entry lock is only taken while holding the shared lock, so that no thread waits
+        // for the shared lock while holding an entry lock
+        Lock entryLock = null;
+
+        if ( shared )
+        {
+            entryLock = getEntryLock( dn );
+            entryLock.lock();
+        }
 
         try
         {
             // populate the context with the old entry
             eagerlyPopulateFields( modifyContext );
 
+            if ( shared && isCachedEntry( modifyContext.getEntry() ) )
+            {
+                // The interceptors keep some state about this entry : it's modified alone.
+                entryLock.unlock();
+                entryLock = null;
+                lock.readLock().unlock();
+                shared = false;
+                lock = lockWrite( dn );
+
+                // The entry may have changed while the lock was released
+                modifyContext.setEntry( null );
+                eagerlyPopulateFields( modifyContext );
+            }
+
             // Call the Modify method
-            Interceptor head = directoryService.getInterceptor( modifyContext.getNextInterceptor() );
+            Interceptor head = modifyContext.getNextInterceptorInstance();
 
             head.modify( modifyContext );
         }
         finally
         {
-            unlockWrite();
+            if ( entryLock != null )
+            {
+                entryLock.unlock();
+            }
+
+            if ( shared )
+            {
+                lock.readLock().unlock();
+            }
+            else
+            {
+                lock.writeLock().unlock();
+            }
         }
 
         if ( IS_DEBUG )
@@ -895,6 +1245,8 @@ public class DefaultOperationManager implements OperationManager
             OPERATION_LOG.debug( "<< ModifyOperation successful" );
         }
 
+        operationLatencies.recordSince( OperationEnum.MODIFY, opStart );
+
         if ( IS_TIME )
         {
             OPERATION_TIME.debug( "Modify operation took " + ( System.nanoTime() - opStart ) + " ns" );
@@ -912,12 +1264,7 @@ public class DefaultOperationManager implements OperationManager
             OPERATION_LOG.debug( ">> MoveOperation : {}", moveContext );
         }
 
-        long opStart = 0L;
-
-        if ( IS_TIME )
-        {
-            opStart = System.nanoTime();
-        }
+        long opStart = System.nanoTime();
 
         ensureStarted();
 
@@ -991,7 +1338,7 @@ public class DefaultOperationManager implements OperationManager
             directoryService.getReferralManager().unlock();
         }
 
-        lockWrite();
+        ReadWriteLock lock = lockWrite( moveContext.getDn() );
 
         try
         {
@@ -1000,13 +1347,13 @@ public class DefaultOperationManager implements OperationManager
             moveContext.setOriginalEntry( originalEntry );
 
             // Call the Move method
-            Interceptor head = directoryService.getInterceptor( moveContext.getNextInterceptor() );
+            Interceptor head = moveContext.getNextInterceptorInstance();
 
             head.move( moveContext );
         }
         finally
         {
-            unlockWrite();
+            lock.writeLock().unlock();
         }
 
         if ( IS_DEBUG )
@@ -1014,6 +1361,8 @@ public class DefaultOperationManager implements OperationManager
             OPERATION_LOG.debug( "<< MoveOperation successful" );
         }
 
+        operationLatencies.recordSince( OperationEnum.MOVE, opStart );
+
         if ( IS_TIME )
         {
             OPERATION_TIME.debug( "Move operation took " + ( System.nanoTime() - opStart ) + " ns" );
@@ -1031,12 +1380,7 @@ public class DefaultOperationManager implements OperationManager
             OPERATION_LOG.debug( ">> MoveAndRenameOperation : {}", moveAndRenameContext );
         }
 
-        long opStart = 0L;
-
-        if ( IS_TIME )
-        {
-            opStart = System.nanoTime();
-        }
+        long opStart = System.nanoTime();
 
         ensureStarted();
 
@@ -1111,7 +1455,7 @@ public class DefaultOperationManager implements OperationManager
             directoryService.getReferralManager().unlock();
         }
 
-        lockWrite();
+        ReadWriteLock lock = lockWrite( moveAndRenameContext.getDn() );
 
         try
         {
@@ -1119,13 +1463,13 @@ public class DefaultOperationManager implements OperationManager
             moveAndRenameContext.setModifiedEntry( moveAndRenameContext.getOriginalEntry().clone() );
 
             // Call the MoveAndRename method
-            Interceptor head = directoryService.getInterceptor( moveAndRenameContext.getNextInterceptor() );
+            Interceptor head = moveAndRenameContext.getNextInterceptorInstance();
 
             head.moveAndRename( moveAndRenameContext );
         }
         finally
         {
-            unlockWrite();
+            lock.writeLock().unlock();
         }
 
         if ( IS_DEBUG )
@@ -1133,6 +1477,8 @@ public class DefaultOperationManager implements OperationManager
             OPERATION_LOG.debug( "<< MoveAndRenameOperation successful" );
         }
 
+        operationLatencies.recordSince( OperationEnum.MOVE_AND_RENAME, opStart );
+
         if ( IS_TIME )
         {
             OPERATION_TIME.debug( "MoveAndRename operation took " + ( System.nanoTime() - opStart ) + " ns" );
@@ -1150,12 +1496,7 @@ public class DefaultOperationManager implements OperationManager
             OPERATION_LOG.debug( ">> RenameOperation : {}", renameContext );
         }
 
-        long opStart = 0L;
-
-        if ( IS_TIME )
-        {
-            opStart = System.nanoTime();
-        }
+        long opStart = System.nanoTime();
 
         ensureStarted();
 
@@ -1224,7 +1565,7 @@ public class DefaultOperationManager implements OperationManager
         // Call the rename method
         // populate the context with the old entry
 
-        lockWrite();
+        ReadWriteLock lock = lockWrite( renameContext.getDn() );
 
         try
         {
@@ -1234,13 +1575,13 @@ public class DefaultOperationManager implements OperationManager
             renameContext.setModifiedEntry( originalEntry.clone() );
 
             // Call the Rename method
-            Interceptor head = directoryService.getInterceptor( renameContext.getNextInterceptor() );
+            Interceptor head = renameContext.getNextInterceptorInstance();
 
             head.rename( renameContext );
         }
         finally
         {
-            unlockWrite();
+            lock.writeLock().unlock();
         }
 
         if ( IS_DEBUG )
@@ -1248,6 +1589,8 @@ public class DefaultOperationManager implements OperationManager
             OPERATION_LOG.debug( "<< RenameOperation successful" );
         }
 
+        operationLatencies.recordSince( OperationEnum.RENAME, opStart );
+
         if ( IS_TIME )
         {
             OPERATION_TIME.debug( "Rename operation took " + ( System.nanoTime() - opStart ) + " ns" );
@@ -1265,12 +1608,7 @@ public class DefaultOperationManager implements OperationManager
             OPERATION_LOG.debug( ">> SearchOperation : {}", searchContext );
         }
 
-        long opStart = 0L;
-
-        if ( IS_TIME )
-        {
-            opStart = System.nanoTime();
-        }
+        long opStart = System.nanoTime();
 
         ensureStarted();
 
@@ -1331,11 +1669,11 @@ public class DefaultOperationManager implements OperationManager
         }
 
         // Call the Search method
-        Interceptor head = directoryService.getInterceptor( searchContext.getNextInterceptor() );
+        Interceptor head = searchContext.getNextInterceptorInstance();
 
         EntryFilteringCursor cursor = null;
 
-        lockRead();
+        ReadWriteLock lock = lockRead( searchContext.getDn() );
 
         try
         {
@@ -1343,7 +1681,7 @@ public class DefaultOperationManager implements OperationManager
         }
         finally
         {
-            unlockRead();
+            lock.readLock().unlock();
         }
 
         if ( IS_DEBUG )
@@ -1351,6 +1689,8 @@ public class DefaultOperationManager implements OperationManager
             OPERATION_LOG.debug( "<< SearchOperation successful" );
         }
 
+        operationLatencies.recordSince( OperationEnum.SEARCH, opStart );
+
         if ( IS_TIME )
         {
             OPERATION_TIME.debug( "Search operation took " + ( System.nanoTime() - opStart ) + " ns" );
@@ -1370,17 +1710,12 @@ public class DefaultOperationManager implements OperationManager
             OPERATION_LOG.debug( ">> UnbindOperation : {}", unbindContext );
         }
 
-        long opStart = 0L;
-
-        if ( IS_TIME )
-        {
-            opStart = System.nanoTime();
-        }
+        long opStart = System.nanoTime();
 
         ensureStarted();
 
         // Call the Unbind method
-        Interceptor head = directoryService.getInterceptor( unbindContext.getNextInterceptor() );
+        Interceptor head = unbindContext.getNextInterceptorInstance();
 
         head.unbind( unbindContext );
 
@@ -1389,6 +1724,8 @@ public class DefaultOperationManager implements OperationManager
             OPERATION_LOG.debug( "<< UnbindOperation successful" );
         }
 
+        operationLatencies.recordSince( OperationEnum.UNBIND, opStart );
+
         if ( IS_TIME )
         {
             OPERATION_TIME.debug( "Unbind operation took " + ( System.nanoTime() - opStart ) + " ns" );
@@ -0,0 +1,61 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core;
+
+
+import org.apache.directory.server.core.api.monitor.LatencyHistogram;
+
+
+/**
+ * An histogram of the time spent waiting for a lock. The waits are counted in
+ * the buckets of a {@link LatencyHistogram}.
+ * <br>
+ * This class is thread safe, and does not block the threads recording a wait.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class LockContentionHistogram extends LatencyHistogram
+{
+    /**
+     * @return The total wait time, in nanoseconds
+     */
+    public long getTotalWaitTime()
+    {
+        return getTotalTime();
+    }
+
+
+    /**
+     * @return The mean wait time, in nanoseconds
+     */
+    public long getMeanWaitTime()
+    {
+        return getMeanTime();
+    }
+
+
+    /**
+     * @return The longest wait time, in nanoseconds
+     */
+    public long getMaxWaitTime()
+    {
+        return getMaxTime();
+    }
+}
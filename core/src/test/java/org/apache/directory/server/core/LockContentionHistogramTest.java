@@ -0,0 +1,86 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core;
+
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+
+/**
+ * Tests the {@link LockContentionHistogram} class.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class LockContentionHistogramTest
+{
+    @Test
+    public void testEmpty()
+    {
+        LockContentionHistogram histogram = new LockContentionHistogram();
+
+        assertEquals( 0L, histogram.getCount() );
+        assertEquals( 0L, histogram.getMeanWaitTime() );
+        assertEquals( 0L, histogram.getPercentile( 99d ) );
+    }
+
+
+    @Test
+    public void testRecord()
+    {
+        LockContentionHistogram histogram = new LockContentionHistogram();
+
+        // 0.5 us, 3 us, 3 us, 1 ms
+        histogram.record( 500L );
+        histogram.record( 3000L );
+        histogram.record( 3000L );
+        histogram.record( 1000000L );
+
+        assertEquals( 4L, histogram.getCount() );
+        assertEquals( 1006500L, histogram.getTotalWaitTime() );
+        assertEquals( 1000000L, histogram.getMaxWaitTime() );
+
+        assertEquals( 1L, histogram.getBucketCount( 0 ) );
+        assertEquals( 2L, histogram.getBucketCount( 2 ) );
+        assertEquals( 1L, histogram.getBucketCount( 10 ) );
+
+        assertEquals( 1L, histogram.getPercentile( 25d ) );
+        assertEquals( 4L, histogram.getPercentile( 50d ) );
+        assertEquals( 1024L, histogram.getPercentile( 100d ) );
+
+        histogram.reset();
+
+        assertEquals( 0L, histogram.getCount() );
+        assertEquals( 0L, histogram.getBucketCount( 2 ) );
+    }
+
+
+    @Test
+    public void testLongWait()
+    {
+        LockContentionHistogram histogram = new LockContentionHistogram();
+
+        histogram.record( Long.MAX_VALUE );
+
+        assertEquals( 1L, histogram.getBucketCount( LockContentionHistogram.NB_BUCKETS - 1 ) );
+        assertEquals( Long.MAX_VALUE, histogram.getPercentile( 50d ) );
+    }
+}
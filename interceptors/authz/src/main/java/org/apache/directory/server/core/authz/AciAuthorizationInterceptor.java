@@ -26,6 +26,7 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import javax.naming.directory.SearchControls;
@@ -53,6 +54,7 @@ import org.apache.directory.api.ldap.model.message.SearchScope;
 import org.apache.directory.api.ldap.model.name.Dn;
 import org.apache.directory.api.ldap.model.schema.AttributeType;
 import org.apache.directory.api.ldap.model.schema.normalizers.ConcreteNameComponentNormalizer;
+import org.apache.directory.api.ldap.model.subtree.Subentry;
 import org.apache.directory.server.constants.ServerDNConstants;
 import org.apache.directory.server.core.api.CoreSession;
 import org.apache.directory.server.core.api.DirectoryService;
@@ -75,6 +77,7 @@ import org.apache.directory.server.core.api.interceptor.context.OperationContext
 import org.apache.directory.server.core.api.interceptor.context.RenameOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.SearchOperationContext;
 import org.apache.directory.server.core.api.partition.PartitionNexus;
+import org.apache.directory.server.core.api.subtree.SubentryCache;
 import org.apache.directory.server.core.api.subtree.SubentryUtils;
 import org.apache.directory.server.core.authz.support.ACDFEngine;
 import org.apache.directory.server.core.authz.support.AciContext;
@@ -149,6 +152,9 @@ public class AciAuthorizationInterceptor extends BaseInterceptor
     /** a groupCache that responds to add, delete, and modify attempts */
     private GroupCache groupCache;
 
+    /** the access control decisions, reused for the entries protected by the same ACIs */
+    private AciDecisionCache decisionCache;
+
     /** a normalizing ACIItem parser */
     private ACIItemParser aciParser;
 
@@ -298,6 +304,11 @@ public class AciAuthorizationInterceptor extends BaseInterceptor
         initTupleCache();
         initGroupCache();
 
+        decisionCache = new AciDecisionCache();
+        decisionCache.registerStatistics( directoryService.getMonitorRegistry() );
+        tupleCache.setDecisionCache( decisionCache );
+        groupCache.setDecisionCache( decisionCache );
+
         // Init the SubentryUtils instance
         subentryUtils = new SubentryUtils( directoryService );
     }
@@ -330,6 +341,10 @@ public class AciAuthorizationInterceptor extends BaseInterceptor
      * differently: their parent, the administrative entry is accessed to
      * determine the perscriptiveACIs effecting the AP and hence the subentry
      * which is considered to be in the same context.
+     * <br>
+     * The references to the subentries being propagated are ignored : the
+     * subentries in effect before the propagation apply instead to the entries
+     * they select, so that the new area takes effect at once.
      *
      * @param tuples the collection of tuples to add to
      * @param dn the normalized distinguished name of the protected entry
@@ -362,6 +377,8 @@ public class AciAuthorizationInterceptor extends BaseInterceptor
          * to be in the same naming context as their access point so the subentries
          * effecting their parent entry applies to them as well.
          */
+        Dn protectedDn = dn;
+
         if ( oc.contains( SchemaConstants.SUBENTRY_OC ) )
         {
             Dn parentDn = dn.getParent();
@@ -370,19 +387,36 @@ public class AciAuthorizationInterceptor extends BaseInterceptor
                 SchemaConstants.ALL_ATTRIBUTES_ARRAY );
 
             originalEntry = directoryService.getPartitionNexus().lookup( lookupContext );
+            protectedDn = parentDn;
         }
 
+        SubentryCache subentryCache = directoryService.getSubentryCache();
         Attribute subentries = originalEntry.get( ACCESS_CONTROL_SUBENTRIES_AT );
 
-        if ( subentries == null )
+        if ( subentries != null )
         {
-            return;
+            for ( Value<?> value : subentries )
+            {
+                String subentryDn = value.getString();
+
+                if ( !subentryCache.isPropagating( subentryDn ) )
+                {
+                    tuples.addAll( tupleCache.getACITuples( subentryDn ) );
+                }
+            }
         }
 
-        for ( Value<?> value : subentries )
+        for ( Map.Entry<Dn, Subentry> previous : subentryCache.getPreviousSubentries().entrySet() )
         {
-            String subentryDn = value.getString();
-            tuples.addAll( tupleCache.getACITuples( subentryDn ) );
+            Dn subentryDn = previous.getKey();
+            Subentry subentry = previous.getValue();
+
+            if ( subentry.isAccessControlAdminRole()
+                && directoryService.getEvaluator().evaluate( subentry.getSubtreeSpecification(),
+                    subentryDn.getParent(), protectedDn, originalEntry ) )
+            {
+                tuples.addAll( tupleCache.getACITuples( subentryDn.getNormName() ) );
+            }
         }
     }
 
@@ -679,6 +713,7 @@ public class AciAuthorizationInterceptor extends BaseInterceptor
 
             tupleCache.subentryDeleted( dn, entry );
             groupCache.groupDeleted( dn, entry );
+            decisionCache.principalChanged( dn );
 
             return;
         }
@@ -704,6 +739,7 @@ public class AciAuthorizationInterceptor extends BaseInterceptor
 
         tupleCache.subentryDeleted( dn, entry );
         groupCache.groupDeleted( dn, entry );
+        decisionCache.principalChanged( dn );
     }
 
 
@@ -822,6 +858,7 @@ public class AciAuthorizationInterceptor extends BaseInterceptor
             Entry modifiedEntry = modifyContext.getAlteredEntry();
             tupleCache.subentryModified( dn, mods, modifiedEntry );
             groupCache.groupModified( dn, mods, entry, schemaManager );
+            decisionCache.principalChanged( dn );
 
             return;
         }
@@ -946,6 +983,7 @@ public class AciAuthorizationInterceptor extends BaseInterceptor
         Entry modifiedEntry = modifyContext.getAlteredEntry();
         tupleCache.subentryModified( dn, mods, modifiedEntry );
         groupCache.groupModified( dn, mods, entry, schemaManager );
+        decisionCache.principalChanged( dn );
     }
 
 
@@ -1252,44 +1290,23 @@ public class AciAuthorizationInterceptor extends BaseInterceptor
             return;
         }
 
-        LdapPrincipal principal = lookupContext.getSession().getEffectivePrincipal();
-        Dn userName = principal.getDn();
-        Set<Dn> userGroups = groupCache.getGroups( userName.getNormName() );
-        Collection<ACITuple> tuples = new HashSet<ACITuple>();
-        addPerscriptiveAciTuples( lookupContext, tuples, dn, entry );
-        addEntryAciTuples( tuples, entry );
-        addSubentryAciTuples( lookupContext, tuples, dn, entry );
+        EntryPermissions permissions = new EntryPermissions( lookupContext, dn, entry, entry );
 
         // check that we have read access to the entry
-        AciContext aciContext = new AciContext( schemaManager, lookupContext );
-        aciContext.setUserGroupNames( userGroups );
-        aciContext.setUserDn( userName );
-        aciContext.setAuthenticationLevel( principal.getAuthenticationLevel() );
-        aciContext.setEntryDn( dn );
-        aciContext.setMicroOperations( LOOKUP_PERMS );
-        aciContext.setAciTuples( tuples );
-        aciContext.setEntry( entry );
-
-        engine.checkPermission( aciContext );
+        if ( !permissions.hasPermission( LOOKUP_PERMS, null, null, entry ) )
+        {
+            throw new LdapNoPermissionException();
+        }
 
         // check that we have read access to every attribute type and value
         for ( Attribute attribute : entry )
         {
-
             for ( Value<?> value : attribute )
             {
-                AciContext valueAciContext = new AciContext( schemaManager, lookupContext );
-                valueAciContext.setUserGroupNames( userGroups );
-                valueAciContext.setUserDn( userName );
-                valueAciContext.setAuthenticationLevel( principal.getAuthenticationLevel() );
-                valueAciContext.setEntryDn( dn );
-                valueAciContext.setAttributeType( attribute.getAttributeType() );
-                valueAciContext.setAttrValue( value );
-                valueAciContext.setMicroOperations( READ_PERMS );
-                valueAciContext.setAciTuples( tuples );
-                valueAciContext.setEntry( entry );
-
-                engine.checkPermission( valueAciContext );
+                if ( !permissions.hasPermission( READ_PERMS, attribute.getAttributeType(), value, entry ) )
+                {
+                    throw new LdapNoPermissionException();
+                }
             }
         }
     }
@@ -1314,25 +1331,10 @@ public class AciAuthorizationInterceptor extends BaseInterceptor
          * tests.  If we hasPermission() returns false we immediately short the
          * process and return false.
          */
+        Entry originalEntry = ( ( ClonedServerEntry ) clonedEntry ).getOriginalEntry();
+        EntryPermissions permissions = new EntryPermissions( opContext, normName, clonedEntry, originalEntry );
 
-        LdapPrincipal principal = opContext.getSession().getEffectivePrincipal();
-        Dn userDn = principal.getDn();
-        Set<Dn> userGroups = groupCache.getGroups( userDn.getNormName() );
-        Collection<ACITuple> tuples = new HashSet<ACITuple>();
-        addPerscriptiveAciTuples( opContext, tuples, normName, clonedEntry );
-        addEntryAciTuples( tuples, ( ( ClonedServerEntry ) clonedEntry ).getOriginalEntry() );
-        addSubentryAciTuples( opContext, tuples, normName, ( ( ClonedServerEntry ) clonedEntry ).getOriginalEntry() );
-
-        AciContext aciContext = new AciContext( schemaManager, opContext );
-        aciContext.setUserGroupNames( userGroups );
-        aciContext.setUserDn( userDn );
-        aciContext.setAuthenticationLevel( principal.getAuthenticationLevel() );
-        aciContext.setEntryDn( normName );
-        aciContext.setMicroOperations( SEARCH_ENTRY_PERMS );
-        aciContext.setAciTuples( tuples );
-        aciContext.setEntry( ( ( ClonedServerEntry ) clonedEntry ).getOriginalEntry() );
-
-        if ( !engine.hasPermission( aciContext ) )
+        if ( !permissions.hasPermission( SEARCH_ENTRY_PERMS, null, null, originalEntry ) )
         {
             return false;
         }
@@ -1352,17 +1354,7 @@ public class AciAuthorizationInterceptor extends BaseInterceptor
             AttributeType attributeType = attribute.getAttributeType();
             Attribute attr = clonedEntry.get( attributeType );
 
-            aciContext = new AciContext( schemaManager, opContext );
-            aciContext.setUserGroupNames( userGroups );
-            aciContext.setUserDn( userDn );
-            aciContext.setAuthenticationLevel( principal.getAuthenticationLevel() );
-            aciContext.setEntryDn( normName );
-            aciContext.setAttributeType( attributeType );
-            aciContext.setMicroOperations( SEARCH_ATTRVAL_PERMS );
-            aciContext.setAciTuples( tuples );
-            aciContext.setEntry( clonedEntry );
-
-            if ( !engine.hasPermission( aciContext ) )
+            if ( !permissions.hasPermission( SEARCH_ATTRVAL_PERMS, attributeType, null, clonedEntry ) )
             {
                 attributeToRemove.add( attributeType );
 
@@ -1374,18 +1366,7 @@ public class AciAuthorizationInterceptor extends BaseInterceptor
             // attribute type scope is ok now let's determine value level scope
             for ( Value<?> value : attr )
             {
-                aciContext = new AciContext( schemaManager, opContext );
-                aciContext.setUserGroupNames( userGroups );
-                aciContext.setUserDn( userDn );
-                aciContext.setAuthenticationLevel( principal.getAuthenticationLevel() );
-                aciContext.setEntryDn( normName );
-                aciContext.setAttributeType( attr.getAttributeType() );
-                aciContext.setAttrValue( value );
-                aciContext.setMicroOperations( SEARCH_ATTRVAL_PERMS );
-                aciContext.setAciTuples( tuples );
-                aciContext.setEntry( clonedEntry );
-
-                if ( !engine.hasPermission( aciContext ) )
+                if ( !permissions.hasPermission( SEARCH_ATTRVAL_PERMS, attr.getAttributeType(), value, clonedEntry ) )
                 {
                     valueToRemove.add( value );
                 }
@@ -1410,6 +1391,182 @@ public class AciAuthorizationInterceptor extends BaseInterceptor
         return true;
     }
 
+
+    /**
+     * The permissions of the principal of an operation on an entry. The decisions are
+     * taken from the {@link AciDecisionCache} when the ACIs protecting the entry don't
+     * depend on it, and the groups and the ACI tuples are only read when a decision
+     * has to be computed.
+     */
+    private final class EntryPermissions
+    {
+        /** The operation context */
+        private final OperationContext opContext;
+
+        /** The principal */
+        private final LdapPrincipal principal;
+
+        /** The protected entry Dn */
+        private final Dn entryDn;
+
+        /** The entry the prescriptiveACIs are read for */
+        private final Entry protectedEntry;
+
+        /** The entry the entryACI and subentryACI are read from */
+        private final Entry aciEntry;
+
+        /** The generation of the decisions cache when we started */
+        private final long generation;
+
+        /** The propagation epoch of the subentries when we started */
+        private final long propagationEpoch;
+
+        /** The key of the ACIs protecting the entry, null if the decisions can't be cached */
+        private final AciDecisionCache.AciKey aciKey;
+
+        /** The cached decisions, if any */
+        private AciDecisionCache.Decisions decisions;
+
+        /** The groups the principal belongs to */
+        private Set<Dn> userGroups;
+
+        /** The ACI tuples protecting the entry */
+        private Collection<ACITuple> tuples;
+
+
+        private EntryPermissions( OperationContext opContext, Dn entryDn, Entry protectedEntry, Entry aciEntry )
+            throws LdapException
+        {
+            this.opContext = opContext;
+            this.principal = opContext.getSession().getEffectivePrincipal();
+            this.entryDn = entryDn;
+            this.protectedEntry = protectedEntry;
+            this.aciEntry = aciEntry;
+            generation = decisionCache.getGeneration();
+
+            Entry originalEntry = protectedEntry;
+
+            if ( protectedEntry instanceof ClonedServerEntry )
+            {
+                originalEntry = ( ( ClonedServerEntry ) protectedEntry ).getOriginalEntry();
+            }
+
+            propagationEpoch = directoryService.getSubentryCache().getPropagationEpoch();
+
+            // The subentries are protected by the ACIs of their administrative point : don't cache them.
+            // Neither are the decisions while some subentries are propagated, as the ACIs protecting
+            // an entry then depend on its position, not only on its references.
+            if ( originalEntry.contains( OBJECT_CLASS_AT, SchemaConstants.SUBENTRY_OC )
+                || aciEntry.contains( OBJECT_CLASS_AT, SchemaConstants.SUBENTRY_OC )
+                || directoryService.getSubentryCache().hasPropagations() )
+            {
+                aciKey = null;
+            }
+            else
+            {
+                aciKey = new AciDecisionCache.AciKey( principal.getAuthenticationLevel(),
+                    originalEntry.get( ACCESS_CONTROL_SUBENTRIES_AT ), aciEntry.get( ENTRY_ACI_AT ) );
+                decisions = decisionCache.getDecisions( principal.getDn(), aciKey );
+            }
+        }
+
+
+        /**
+         * Tells if the principal is granted some permissions on the entry, an attribute
+         * type or a value.
+         */
+        private boolean hasPermission( Collection<MicroOperation> perms, AttributeType attributeType,
+            Value<?> value, Entry entry ) throws LdapException
+        {
+            if ( ( decisions != null ) && decisions.isCacheable() )
+            {
+                Boolean decision = decisions.get( getDecisionKey( perms, attributeType, value ) );
+
+                if ( decision != null )
+                {
+                    return decision;
+                }
+            }
+
+            AciContext aciContext = new AciContext( schemaManager, opContext );
+            aciContext.setUserGroupNames( getUserGroups() );
+            aciContext.setUserDn( principal.getDn() );
+            aciContext.setAuthenticationLevel( principal.getAuthenticationLevel() );
+            aciContext.setEntryDn( entryDn );
+            aciContext.setAttributeType( attributeType );
+            aciContext.setAttrValue( value );
+            aciContext.setMicroOperations( perms );
+            aciContext.setAciTuples( getTuples() );
+            aciContext.setEntry( entry );
+
+            boolean decision = engine.hasPermission( aciContext );
+
+            // The decisions may have been created while reading the tuples
+            if ( ( decisions != null ) && decisions.isCacheable() )
+            {
+                decisions.put( getDecisionKey( perms, attributeType, value ), decision );
+            }
+
+            return decision;
+        }
+
+
+        /**
+         * The key of a decision. The values are not protected individually by a cacheable
+         * set of ACIs, so all the values of an attribute share the same decision.
+         */
+        private String getDecisionKey( Collection<MicroOperation> perms, AttributeType attributeType, Value<?> value )
+        {
+            StringBuilder sb = new StringBuilder();
+            sb.append( perms );
+
+            if ( attributeType != null )
+            {
+                sb.append( '/' ).append( attributeType.getOid() );
+
+                if ( value != null )
+                {
+                    sb.append( "/*" );
+                }
+            }
+
+            return sb.toString();
+        }
+
+
+        private Set<Dn> getUserGroups() throws LdapException
+        {
+            if ( userGroups == null )
+            {
+                userGroups = groupCache.getGroups( principal.getDn().getNormName() );
+            }
+
+            return userGroups;
+        }
+
+
+        private Collection<ACITuple> getTuples() throws LdapException
+        {
+            if ( tuples == null )
+            {
+                tuples = new HashSet<ACITuple>();
+                addPerscriptiveAciTuples( opContext, tuples, entryDn, protectedEntry );
+                addEntryAciTuples( tuples, aciEntry );
+                addSubentryAciTuples( opContext, tuples, entryDn, aciEntry );
+
+                // The tuples may have been read while a propagation has started
+                if ( ( aciKey != null ) && ( decisions == null )
+                    && ( propagationEpoch == directoryService.getSubentryCache().getPropagationEpoch() ) )
+                {
+                    decisions = decisionCache.putDecisions( principal.getDn(), aciKey, tuples, generation );
+                }
+            }
+
+            return tuples;
+        }
+    }
+
+
     /**
      * WARNING: create one of these filters fresh every time for each new search.
      */
@@ -0,0 +1,477 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.authz;
+
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.directory.api.ldap.aci.ACITuple;
+import org.apache.directory.api.ldap.aci.ProtectedItem;
+import org.apache.directory.api.ldap.aci.UserClass;
+import org.apache.directory.api.ldap.aci.protectedItem.AttributeValueItem;
+import org.apache.directory.api.ldap.aci.protectedItem.ClassesItem;
+import org.apache.directory.api.ldap.aci.protectedItem.MaxImmSubItem;
+import org.apache.directory.api.ldap.aci.protectedItem.MaxValueCountItem;
+import org.apache.directory.api.ldap.aci.protectedItem.RangeOfValuesItem;
+import org.apache.directory.api.ldap.aci.protectedItem.RestrictedByItem;
+import org.apache.directory.api.ldap.aci.protectedItem.SelfValueItem;
+import org.apache.directory.api.ldap.model.constants.AuthenticationLevel;
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.Value;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.server.core.api.monitor.MonitorCounter;
+import org.apache.directory.server.core.api.monitor.MonitorRegistry;
+
+
+/**
+ * A cache for the access control decisions. The entries protected by the same ACIs
+ * get the same decisions for a given user, as long as these ACIs don't depend on the
+ * entry itself, so we can avoid evaluating the ACI tuples for each of them.
+ * <br>
+ * The decisions are stored per principal, then per set of ACIs, which is identified
+ * by the accessControlSubentries and the entryACI values of the entry and by the
+ * authentication level. Each set holds the decisions per operation and attribute.
+ * A set of ACIs is not cached when one of its tuples depends on the entry (thisEntry
+ * and parentOfEntry user classes, classes, maxImmSub, rangeOfValues, selfValue,
+ * attributeValue, maxValueCount and restrictedBy protected items).
+ * <br>
+ * The cache is cleared when a prescriptiveACI or a group membership is changed, and
+ * the decisions of a principal are removed when its entry is changed.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class AciDecisionCache
+{
+    /** The system property used to set the maximum number of principals in the cache */
+    public static final String MAX_PRINCIPALS_PROPERTY = "apacheds.aci.decisionCache.maxPrincipals";
+
+    /** The system property used to set the maximum number of sets of ACIs per principal */
+    public static final String MAX_ACI_SETS_PROPERTY = "apacheds.aci.decisionCache.maxAciSets";
+
+    /** The default maximum number of principals in the cache */
+    public static final int DEFAULT_MAX_PRINCIPALS = 1000;
+
+    /** The default maximum number of sets of ACIs per principal */
+    public static final int DEFAULT_MAX_ACI_SETS = 1000;
+
+    /** The decisions, per principal and set of ACIs */
+    private final ConcurrentMap<String, ConcurrentMap<AciKey, Decisions>> principals = new ConcurrentHashMap<String, ConcurrentMap<AciKey, Decisions>>();
+
+    /** Incremented each time the cache is invalidated */
+    private final AtomicLong generation = new AtomicLong();
+
+    /** The maximum number of principals in the cache */
+    private final int maxPrincipals;
+
+    /** The maximum number of sets of ACIs per principal */
+    private final int maxAciSets;
+
+    /** The number of decisions found in the cache */
+    private MonitorCounter hits = new MonitorCounter();
+
+    /** The number of decisions which had to be computed */
+    private MonitorCounter misses = new MonitorCounter();
+
+
+    /**
+     * Creates a new instance of AciDecisionCache, using the configured sizes.
+     */
+    public AciDecisionCache()
+    {
+        this( Integer.getInteger( MAX_PRINCIPALS_PROPERTY, DEFAULT_MAX_PRINCIPALS ),
+            Integer.getInteger( MAX_ACI_SETS_PROPERTY, DEFAULT_MAX_ACI_SETS ) );
+    }
+
+
+    /**
+     * Creates a new instance of AciDecisionCache.
+     *
+     * @param maxPrincipals The maximum number of principals in the cache
+     * @param maxAciSets The maximum number of sets of ACIs per principal
+     */
+    public AciDecisionCache( int maxPrincipals, int maxAciSets )
+    {
+        this.maxPrincipals = Math.max( 1, maxPrincipals );
+        this.maxAciSets = Math.max( 1, maxAciSets );
+    }
+
+
+    /**
+     * Registers the hits and misses counters.
+     *
+     * @param registry The registry
+     */
+    public void registerStatistics( MonitorRegistry registry )
+    {
+        hits = registry.register( MonitorRegistry.CACHES, "aciDecisions.hits", hits );
+        misses = registry.register( MonitorRegistry.CACHES, "aciDecisions.misses", misses );
+    }
+
+
+    /**
+     * @return The current generation of the cache, to be given back when storing some decisions
+     */
+    public long getGeneration()
+    {
+        return generation.get();
+    }
+
+
+    /**
+     * Gets the decisions of a principal for the entries protected by the same ACIs
+     * as the given entry.
+     *
+     * @param principalDn The principal Dn
+     * @param aciKey The key of the ACIs protecting the entry
+     * @return The decisions, or null if none have been cached
+     */
+    public Decisions getDecisions( Dn principalDn, AciKey aciKey )
+    {
+        ConcurrentMap<AciKey, Decisions> aciSets = principals.get( principalDn.getNormName() );
+
+        if ( aciSets == null )
+        {
+            return null;
+        }
+
+        return aciSets.get( aciKey );
+    }
+
+
+    /**
+     * Stores the decisions of a principal for a set of ACIs. The decisions are only
+     * cached if the tuples don't depend on the protected entry, and if the cache has
+     * not been invalidated since the tuples have been read.
+     *
+     * @param principalDn The principal Dn
+     * @param aciKey The key of the ACIs protecting the entry
+     * @param tuples The tuples of these ACIs
+     * @param fromGeneration The generation of the cache before the tuples have been read
+     * @return The decisions to use
+     */
+    public Decisions putDecisions( Dn principalDn, AciKey aciKey, Collection<ACITuple> tuples, long fromGeneration )
+    {
+        Decisions decisions = new Decisions( isCacheable( tuples ) );
+
+        if ( generation.get() != fromGeneration )
+        {
+            return decisions;
+        }
+
+        String principal = principalDn.getNormName();
+        ConcurrentMap<AciKey, Decisions> aciSets = principals.get( principal );
+
+        if ( aciSets == null )
+        {
+            if ( principals.size() >= maxPrincipals )
+            {
+                principals.clear();
+            }
+
+            aciSets = new ConcurrentHashMap<AciKey, Decisions>();
+            ConcurrentMap<AciKey, Decisions> existing = principals.putIfAbsent( principal, aciSets );
+
+            if ( existing != null )
+            {
+                aciSets = existing;
+            }
+        }
+        else if ( aciSets.size() >= maxAciSets )
+        {
+            aciSets.clear();
+        }
+
+        Decisions existing = aciSets.putIfAbsent( aciKey, decisions );
+
+        if ( existing != null )
+        {
+            return existing;
+        }
+
+        // The cache may have been invalidated while we were storing the decisions
+        if ( generation.get() != fromGeneration )
+        {
+            aciSets.remove( aciKey, decisions );
+        }
+
+        return decisions;
+    }
+
+
+    /**
+     * Removes all the decisions, when some ACIs or some groups have changed.
+     */
+    public void clear()
+    {
+        generation.incrementAndGet();
+        principals.clear();
+    }
+
+
+    /**
+     * Removes the decisions of a principal, when its entry has changed.
+     *
+     * @param principalDn The principal Dn
+     */
+    public void principalChanged( Dn principalDn )
+    {
+        if ( principals.containsKey( principalDn.getNormName() ) )
+        {
+            generation.incrementAndGet();
+            principals.remove( principalDn.getNormName() );
+        }
+    }
+
+
+    /**
+     * Tells if the decisions made with a set of tuples are the same for all the
+     * entries protected by these tuples, ie if none of them depends on the entry
+     * DN, on its objectClasses, its children or its values.
+     *
+     * @param tuples The tuples
+     * @return true if the decisions can be cached
+     */
+    public static boolean isCacheable( Collection<ACITuple> tuples )
+    {
+        for ( ACITuple tuple : tuples )
+        {
+            for ( UserClass userClass : tuple.getUserClasses() )
+            {
+                if ( ( userClass == UserClass.THIS_ENTRY ) || ( userClass == UserClass.PARENT_OF_ENTRY ) )
+                {
+                    return false;
+                }
+            }
+
+            for ( ProtectedItem item : tuple.getProtectedItems() )
+            {
+                if ( ( item instanceof ClassesItem ) || ( item instanceof MaxImmSubItem )
+                    || ( item instanceof RangeOfValuesItem ) || ( item instanceof SelfValueItem )
+                    || ( item instanceof AttributeValueItem ) || ( item instanceof MaxValueCountItem )
+                    || ( item instanceof RestrictedByItem ) )
+                {
+                    return false;
+                }
+            }
+        }
+
+        return true;
+    }
+
+
+    /**
+     * @return The number of decisions found in the cache
+     */
+    public long getHits()
+    {
+        return hits.getValue();
+    }
+
+
+    /**
+     * @return The number of decisions which had to be computed
+     */
+    public long getMisses()
+    {
+        return misses.getValue();
+    }
+
+
+    /**
+     * The decisions made for a principal on the entries protected by a set of ACIs.
+     */
+    public class Decisions
+    {
+        /** Tells if the decisions can be reused for the other entries */
+        private final boolean cacheable;
+
+        /** The decisions, per operation and attribute */
+        private final ConcurrentMap<String, Boolean> decisions = new ConcurrentHashMap<String, Boolean>();
+
+
+        private Decisions( boolean cacheable )
+        {
+            this.cacheable = cacheable;
+        }
+
+
+        /**
+         * @return true if the decisions can be reused for the other entries
+         */
+        public boolean isCacheable()
+        {
+            return cacheable;
+        }
+
+
+        /**
+         * Gets a decision.
+         *
+         * @param decisionKey The operation and attribute the decision is about
+         * @return The decision, or null if it has not been cached
+         */
+        public Boolean get( String decisionKey )
+        {
+            Boolean decision = decisions.get( decisionKey );
+
+            if ( decision == null )
+            {
+                misses.increment();
+            }
+            else
+            {
+                hits.increment();
+            }
+
+            return decision;
+        }
+
+
+        /**
+         * Stores a decision, if the decisions can be cached.
+         *
+         * @param decisionKey The operation and attribute the decision is about
+         * @param decision The decision
+         */
+        public void put( String decisionKey, boolean decision )
+        {
+            if ( cacheable )
+            {
+                decisions.put( decisionKey, decision );
+            }
+        }
+    }
+
+
+    /**
+     * Identifies the set of ACIs protecting an entry : the access control subentries
+     * it belongs to and its entryACI values, and the level the principal has been
+     * authenticated with.
+     */
+    public static final class AciKey
+    {
+        /** The authentication level of the principal */
+        private final AuthenticationLevel authenticationLevel;
+
+        /** The normalized Dns of the access control subentries, sorted */
+        private final List<String> subentries;
+
+        /** The entryACI values */
+        private final Set<String> entryAcis;
+
+        /** The hash code */
+        private final int hashCode;
+
+
+        /**
+         * Creates the key of the ACIs protecting an entry.
+         *
+         * @param authenticationLevel The authentication level of the principal
+         * @param subentries The accessControlSubentries attribute of the entry, may be null
+         * @param entryAci The entryACI attribute of the entry, may be null
+         */
+        public AciKey( AuthenticationLevel authenticationLevel, Attribute subentries, Attribute entryAci )
+        {
+            this.authenticationLevel = authenticationLevel;
+            this.subentries = new ArrayList<String>();
+            this.entryAcis = new HashSet<String>();
+
+            if ( subentries != null )
+            {
+                for ( Value<?> value : subentries )
+                {
+                    this.subentries.add( value.getString() );
+                }
+
+                Collections.sort( this.subentries );
+            }
+
+            if ( entryAci != null )
+            {
+                for ( Value<?> value : entryAci )
+                {
+                    entryAcis.add( value.getString() );
+                }
+            }
+
+            int h = authenticationLevel.hashCode();
+            h = h * 31 + this.subentries.hashCode();
+            hashCode = h * 31 + entryAcis.hashCode();
+        }
+
+
+        /**
+         * Creates the key of the ACIs protecting an entry.
+         *
+         * @param authenticationLevel The authentication level of the principal
+         * @param entry The protected entry
+         * @return The key
+         */
+        public static AciKey create( AuthenticationLevel authenticationLevel, Entry entry )
+        {
+            return new AciKey( authenticationLevel, entry.get( SchemaConstants.ACCESS_CONTROL_SUBENTRIES_AT ),
+                entry.get( SchemaConstants.ENTRY_ACI_AT ) );
+        }
+
+
+        @Override
+        public int hashCode()
+        {
+            return hashCode;
+        }
+
+
+        @Override
+        public boolean equals( Object obj )
+        {
+            if ( this == obj )
+            {
+                return true;
+            }
+
+            if ( !( obj instanceof AciKey ) )
+            {
+                return false;
+            }
+
+            AciKey other = ( AciKey ) obj;
+
+            return ( hashCode == other.hashCode ) && ( authenticationLevel == other.authenticationLevel )
+                && subentries.equals( other.subentries ) && entryAcis.equals( other.entryAcis );
+        }
+
+
+        @Override
+        public String toString()
+        {
+            return authenticationLevel + " " + subentries + " " + entryAcis;
+        }
+    }
+}
@@ -95,6 +95,9 @@ public class GroupCache
 
     private static final Set<Dn> EMPTY_GROUPS = new HashSet<Dn>();
 
+    /** The access control decisions cache, cleared when a group membership changes */
+    private AciDecisionCache decisionCache;
+
     /** String key for the Dn of a group to a Set (HashSet) for the Strings of member DNs */
     private Cache ehCache;
 
@@ -123,6 +126,27 @@ public class GroupCache
     }
 
 
+    /**
+     * Sets the access control decisions cache, which has to be cleared when the
+     * members of a group are changed.
+     *
+     * @param decisionCache The decisions cache
+     */
+    public void setDecisionCache( AciDecisionCache decisionCache )
+    {
+        this.decisionCache = decisionCache;
+    }
+
+
+    private void clearDecisions()
+    {
+        if ( decisionCache != null )
+        {
+            decisionCache.clear();
+        }
+    }
+
+
     private Dn parseNormalized( String name ) throws LdapException
     {
         Dn dn = dnFactory.create( name );
@@ -304,6 +328,7 @@ public class GroupCache
 
         Element cacheElement = new Element( name.getNormName(), memberSet );
         ehCache.put( cacheElement );
+        clearDecisions();
 
         if ( IS_DEBUG )
         {
@@ -330,6 +355,7 @@ public class GroupCache
         }
 
         ehCache.remove( name.getNormName() );
+        clearDecisions();
 
         if ( IS_DEBUG )
         {
@@ -420,6 +446,7 @@ public class GroupCache
                 {
                     Set<String> memberSet = ( Set<String> ) memSetElement.getValue();
                     modify( memberSet, modification.getOperation(), modification.getAttribute() );
+                    clearDecisions();
                 }
 
                 break;
@@ -458,6 +485,7 @@ public class GroupCache
         {
             Set<String> memberSet = ( Set<String> ) memSetElement.getValue();
             modify( memberSet, modOp, members );
+            clearDecisions();
         }
 
         if ( IS_DEBUG )
@@ -573,6 +601,7 @@ public class GroupCache
 
             Element cacheElement = new Element( newName.getNormName(), members );
             ehCache.put( cacheElement );
+            clearDecisions();
 
             if ( IS_DEBUG )
             {
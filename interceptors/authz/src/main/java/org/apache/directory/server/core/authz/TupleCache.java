@@ -91,6 +91,9 @@ public class TupleCache
     /** A storage for the ObjectClass attributeType */
     private AttributeType OBJECT_CLASS_AT;
 
+    /** The access control decisions cache, cleared when some tuples change */
+    private AciDecisionCache decisionCache;
+
 
     /**
      * Creates a ACITuple cache.
@@ -111,6 +114,27 @@ public class TupleCache
     }
 
 
+    /**
+     * Sets the access control decisions cache, which has to be cleared when the
+     * prescriptiveACIs are changed.
+     *
+     * @param decisionCache The decisions cache
+     */
+    public void setDecisionCache( AciDecisionCache decisionCache )
+    {
+        this.decisionCache = decisionCache;
+    }
+
+
+    private void clearDecisions()
+    {
+        if ( decisionCache != null )
+        {
+            decisionCache.clear();
+        }
+    }
+
+
     private Dn parseNormalized( String name ) throws LdapException
     {
         Dn dn = dnFactory.create( name );
@@ -232,6 +256,7 @@ public class TupleCache
         }
 
         tuples.put( dn.getNormName(), entryTuples );
+        clearDecisions();
     }
 
 
@@ -243,6 +268,7 @@ public class TupleCache
         }
 
         tuples.remove( normName.toString() );
+        clearDecisions();
     }
 
 
@@ -296,5 +322,6 @@ public class TupleCache
     public void subentryRenamed( Dn oldName, Dn newName )
     {
         tuples.put( newName.getNormName(), tuples.remove( oldName.getNormName() ) );
+        clearDecisions();
     }
 }
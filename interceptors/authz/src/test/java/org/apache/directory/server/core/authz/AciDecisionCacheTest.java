@@ -0,0 +1,164 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.authz;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
+
+import org.apache.directory.api.ldap.aci.ACITuple;
+import org.apache.directory.api.ldap.aci.MicroOperation;
+import org.apache.directory.api.ldap.aci.ProtectedItem;
+import org.apache.directory.api.ldap.aci.UserClass;
+import org.apache.directory.api.ldap.model.constants.AuthenticationLevel;
+import org.apache.directory.api.ldap.model.entry.DefaultAttribute;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.server.core.authz.AciDecisionCache.AciKey;
+import org.apache.directory.server.core.authz.AciDecisionCache.Decisions;
+import org.junit.Before;
+import org.junit.Test;
+
+
+/**
+ * Tests {@link AciDecisionCache}.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class AciDecisionCacheTest
+{
+    private static final Set<MicroOperation> BROWSE = Collections.singleton( MicroOperation.BROWSE );
+
+    private AciDecisionCache cache;
+    private Dn principal;
+    private AciKey aciKey;
+
+
+    @Before
+    public void init() throws Exception
+    {
+        cache = new AciDecisionCache( 10, 10 );
+        principal = new Dn( "uid=user,ou=system" );
+        aciKey = new AciKey( AuthenticationLevel.SIMPLE,
+            new DefaultAttribute( "accessControlSubentries", "cn=acs,ou=system" ), null );
+    }
+
+
+    private static Collection<ACITuple> getTuples( UserClass userClass, ProtectedItem protectedItem )
+    {
+        Collection<ACITuple> tuples = new ArrayList<ACITuple>();
+        tuples.add( new ACITuple( Collections.singleton( userClass ), AuthenticationLevel.NONE,
+            Collections.singleton( protectedItem ), BROWSE, true, 0 ) );
+
+        return tuples;
+    }
+
+
+    @Test
+    public void testIsCacheable()
+    {
+        assertTrue( AciDecisionCache.isCacheable( new ArrayList<ACITuple>() ) );
+        assertTrue( AciDecisionCache.isCacheable( getTuples( UserClass.ALL_USERS, ProtectedItem.ENTRY ) ) );
+        assertTrue( AciDecisionCache.isCacheable( getTuples( UserClass.ALL_USERS,
+            ProtectedItem.ALL_USER_ATTRIBUTE_TYPES_AND_VALUES ) ) );
+        assertFalse( AciDecisionCache.isCacheable( getTuples( UserClass.THIS_ENTRY, ProtectedItem.ENTRY ) ) );
+        assertFalse( AciDecisionCache.isCacheable( getTuples( UserClass.PARENT_OF_ENTRY, ProtectedItem.ENTRY ) ) );
+    }
+
+
+    @Test
+    public void testAciKey() throws Exception
+    {
+        AciKey key1 = new AciKey( AuthenticationLevel.SIMPLE, new DefaultAttribute( "accessControlSubentries",
+            "cn=a,ou=system", "cn=b,ou=system" ), new DefaultAttribute( "entryACI", "aci" ) );
+        AciKey key2 = new AciKey( AuthenticationLevel.SIMPLE, new DefaultAttribute( "accessControlSubentries",
+            "cn=b,ou=system", "cn=a,ou=system" ), new DefaultAttribute( "entryACI", "aci" ) );
+        AciKey key3 = new AciKey( AuthenticationLevel.STRONG, new DefaultAttribute( "accessControlSubentries",
+            "cn=a,ou=system", "cn=b,ou=system" ), new DefaultAttribute( "entryACI", "aci" ) );
+        AciKey key4 = new AciKey( AuthenticationLevel.SIMPLE, new DefaultAttribute( "accessControlSubentries",
+            "cn=a,ou=system", "cn=b,ou=system" ), new DefaultAttribute( "entryACI", "other aci" ) );
+
+        assertEquals( key1, key2 );
+        assertEquals( key1.hashCode(), key2.hashCode() );
+        assertFalse( key1.equals( key3 ) );
+        assertFalse( key1.equals( key4 ) );
+    }
+
+
+    @Test
+    public void testDecisions()
+    {
+        assertNull( cache.getDecisions( principal, aciKey ) );
+
+        Decisions decisions = cache.putDecisions( principal, aciKey,
+            getTuples( UserClass.ALL_USERS, ProtectedItem.ENTRY ), cache.getGeneration() );
+        decisions.put( "browse", true );
+
+        assertSame( decisions, cache.getDecisions( principal, aciKey ) );
+        assertEquals( Boolean.TRUE, decisions.get( "browse" ) );
+        assertNull( decisions.get( "read" ) );
+        assertEquals( 1L, cache.getHits() );
+        assertEquals( 1L, cache.getMisses() );
+    }
+
+
+    @Test
+    public void testEntryDependentDecisionsAreNotKept()
+    {
+        Decisions decisions = cache.putDecisions( principal, aciKey,
+            getTuples( UserClass.THIS_ENTRY, ProtectedItem.ENTRY ), cache.getGeneration() );
+        decisions.put( "browse", true );
+
+        assertFalse( decisions.isCacheable() );
+        assertNull( decisions.get( "browse" ) );
+    }
+
+
+    @Test
+    public void testInvalidation() throws Exception
+    {
+        long generation = cache.getGeneration();
+        cache.putDecisions( principal, aciKey, getTuples( UserClass.ALL_USERS, ProtectedItem.ENTRY ), generation );
+        assertNotNull( cache.getDecisions( principal, aciKey ) );
+
+        cache.clear();
+        assertNull( cache.getDecisions( principal, aciKey ) );
+
+        // Decisions computed before the invalidation are not stored
+        cache.putDecisions( principal, aciKey, getTuples( UserClass.ALL_USERS, ProtectedItem.ENTRY ), generation );
+        assertNull( cache.getDecisions( principal, aciKey ) );
+
+        cache.putDecisions( principal, aciKey, getTuples( UserClass.ALL_USERS, ProtectedItem.ENTRY ),
+            cache.getGeneration() );
+        cache.principalChanged( new Dn( "uid=other,ou=system" ) );
+        assertNotNull( cache.getDecisions( principal, aciKey ) );
+
+        cache.principalChanged( principal );
+        assertNull( cache.getDecisions( principal, aciKey ) );
+    }
+}
@@ -20,8 +20,10 @@
 package org.apache.directory.server.core.collective;
 
 
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.apache.directory.api.ldap.model.constants.SchemaConstants;
@@ -38,6 +40,7 @@ import org.apache.directory.api.ldap.model.message.ResultCodeEnum;
 import org.apache.directory.api.ldap.model.name.Dn;
 import org.apache.directory.api.ldap.model.schema.AttributeType;
 import org.apache.directory.api.ldap.model.schema.SchemaUtils;
+import org.apache.directory.api.ldap.model.subtree.Subentry;
 import org.apache.directory.server.core.api.CoreSession;
 import org.apache.directory.server.core.api.DirectoryService;
 import org.apache.directory.server.core.api.InterceptorEnum;
@@ -50,6 +53,7 @@ import org.apache.directory.server.core.api.interceptor.context.FilteringOperati
 import org.apache.directory.server.core.api.interceptor.context.LookupOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.ModifyOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.SearchOperationContext;
+import org.apache.directory.server.core.api.subtree.SubentryCache;
 import org.apache.directory.server.i18n.I18n;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -318,7 +322,9 @@ public class CollectiveAttributeInterceptor extends BaseInterceptor
      * Adds the set of collective attributes requested in the returning attribute list
      * and contained in subentries referenced by the entry. Excludes collective
      * attributes that are specified to be excluded via the 'collectiveExclusions'
-     * attribute in the entry.
+     * attribute in the entry. The references to the subentries being propagated are
+     * ignored : the subentries in effect before the propagation are applied instead
+     * to the entries they select.
      *
      * @param opContext the context of the operation collective attributes
      * are added to
@@ -330,14 +336,48 @@ public class CollectiveAttributeInterceptor extends BaseInterceptor
     {
         CoreSession session = opContext.getSession();
 
-        Attribute collectiveAttributeSubentries = ( ( ClonedServerEntry ) entry ).getOriginalEntry().get(
-            COLLECTIVE_ATTRIBUTE_SUBENTRIES_AT );
+        Entry originalEntry = ( ( ClonedServerEntry ) entry ).getOriginalEntry();
+        Attribute collectiveAttributeSubentries = originalEntry.get( COLLECTIVE_ATTRIBUTE_SUBENTRIES_AT );
+        SubentryCache subentryCache = directoryService.getSubentryCache();
+        List<Dn> subentryDns = new ArrayList<Dn>();
+
+        if ( collectiveAttributeSubentries != null )
+        {
+            for ( Value<?> value : collectiveAttributeSubentries )
+            {
+                String subentryDnStr = value.getString();
+
+                if ( !subentryCache.isPropagating( subentryDnStr ) )
+                {
+                    subentryDns.add( dnFactory.create( subentryDnStr ) );
+                }
+            }
+        }
+
+        for ( Map.Entry<Dn, Subentry> previous : subentryCache.getPreviousSubentries().entrySet() )
+        {
+            Dn subentryDn = previous.getKey();
+            Subentry subentry = previous.getValue();
+            Dn entryDn = entry.getDn();
+
+            if ( !entryDn.isSchemaAware() )
+            {
+                entryDn = dnFactory.create( entryDn.getName() );
+            }
+
+            if ( subentry.isCollectiveAdminRole()
+                && directoryService.getEvaluator().evaluate( subentry.getSubtreeSpecification(),
+                    subentryDn.getParent(), entryDn, originalEntry ) )
+            {
+                subentryDns.add( subentryDn );
+            }
+        }
 
         /*
          * If there are no collective attribute subentries referenced then we
          * have no collective attributes to inject to this entry.
          */
-        if ( collectiveAttributeSubentries == null )
+        if ( subentryDns.isEmpty() )
         {
             return;
         }
@@ -383,11 +423,8 @@ public class CollectiveAttributeInterceptor extends BaseInterceptor
          * attributes of the subentry and copy collective attributes from the
          * subentry into the entry.
          */
-        for ( Value<?> value : collectiveAttributeSubentries )
+        for ( Dn subentryDn : subentryDns )
         {
-            String subentryDnStr = value.getString();
-            Dn subentryDn = dnFactory.create( subentryDnStr );
-
             LOG.debug( "Applying subentries {}", subentryDn.getName() );
 
             /*
@@ -24,7 +24,9 @@ import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.CopyOnWriteArrayList;
 
+import org.apache.directory.api.ldap.model.entry.Entry;
 import org.apache.directory.api.ldap.model.filter.ExprNode;
+import org.apache.directory.api.ldap.model.name.Dn;
 import org.apache.directory.api.ldap.model.schema.SchemaManager;
 import org.apache.directory.api.ldap.model.schema.normalizers.ConcreteNameComponentNormalizer;
 import org.apache.directory.api.ldap.model.schema.normalizers.NameComponentNormalizer;
@@ -47,20 +49,37 @@ class DefaultEventService implements EventService
     /** The list of RegistrationEntries being registered */
     private List<RegistrationEntry> registrations = new CopyOnWriteArrayList<RegistrationEntry>();
 
+    /** The registrations, indexed by their base */
+    private final RegistrationIndex registrationIndex = new RegistrationIndex();
+
     /** The DirectoryService instance */
     private DirectoryService directoryService;
 
     /** A normalizer used for filters */
     private FilterNormalizingVisitor filterNormalizer;
 
+    /** The dispatcher notifying the asynchronous listeners, if any */
+    private EventDispatcher dispatcher;
+
 
     /**
      * Create an instance of EventService
      * @param directoryService The associated DirectoryService
-     * @param registrations The list of Registrations
      */
     public DefaultEventService( DirectoryService directoryService )
     {
+        this( directoryService, null );
+    }
+
+
+    /**
+     * Create an instance of EventService
+     * @param directoryService The associated DirectoryService
+     * @param dispatcher The dispatcher notifying the asynchronous listeners
+     */
+    DefaultEventService( DirectoryService directoryService, EventDispatcher dispatcher )
+    {
+        this.dispatcher = dispatcher;
         this.directoryService = directoryService;
         SchemaManager schemaManager = directoryService.getSchemaManager();
         NameComponentNormalizer ncn = new ConcreteNameComponentNormalizer( schemaManager );
@@ -76,7 +95,9 @@ class DefaultEventService implements EventService
         criteria.getBase().apply( directoryService.getSchemaManager() );
         ExprNode result = ( ExprNode ) criteria.getFilter().accept( filterNormalizer );
         criteria.setFilter( result );
-        registrations.add( new RegistrationEntry( listener, criteria ) );
+        RegistrationEntry registration = new RegistrationEntry( listener, criteria );
+        registrations.add( registration );
+        registrationIndex.add( registration );
     }
 
 
@@ -90,8 +111,15 @@ class DefaultEventService implements EventService
             if ( entry.getListener() == listener )
             {
                 registrations.remove( entry );
+                registrationIndex.remove( entry );
             }
         }
+
+        // The pending notifications are useless now
+        if ( dispatcher != null )
+        {
+            dispatcher.discard( listener );
+        }
     }
 
 
@@ -102,4 +130,18 @@ class DefaultEventService implements EventService
     {
         return Collections.unmodifiableList( registrations );
     }
+
+
+    /**
+     * Gets the registrations having the given entry in scope, and which filter may
+     * match it. The filters still have to be evaluated against the entry.
+     *
+     * @param name The entry Dn
+     * @param entry The entry
+     * @return The candidate registrations
+     */
+    List<RegistrationEntry> getCandidateRegistrations( Dn name, Entry entry )
+    {
+        return registrationIndex.select( name, entry );
+    }
 }
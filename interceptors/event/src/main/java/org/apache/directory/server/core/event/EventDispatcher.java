@@ -0,0 +1,352 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.event;
+
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.directory.server.core.api.DirectoryService;
+import org.apache.directory.server.core.api.event.DirectoryListener;
+import org.apache.directory.server.core.api.event.DisconnectableListener;
+import org.apache.directory.server.core.api.event.EventType;
+import org.apache.directory.server.core.api.interceptor.context.OperationContext;
+import org.apache.directory.server.core.api.monitor.LatencyHistogram;
+import org.apache.directory.server.core.api.monitor.MonitorCounter;
+import org.apache.directory.server.core.api.monitor.MonitorRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Sends the notifications to the asynchronous listeners. Each listener has its own
+ * bounded {@link ListenerQueue}, and all the queues are drained by a shared pool of
+ * threads, so that a slow listener only fills its own queue.
+ * <br>
+ * The statistics are stored in the {@link MonitorRegistry#EVENTS} category :
+ * <ul>
+ *   <li>queued : the number of notifications queued</li>
+ *   <li>coalesced : the number of modifications merged with a pending one</li>
+ *   <li>dropped : the number of notifications dropped</li>
+ *   <li>disconnected : the number of listeners removed because they were too slow</li>
+ *   <li>depth : the number of pending notifications, in all the queues</li>
+ *   <li>lag : the time between the queuing of a notification and its delivery</li>
+ *   <li>blocked : the time the operations waited for a full queue</li>
+ * </ul>
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+class EventDispatcher
+{
+    /** A logger for this class */
+    private static final Logger LOG = LoggerFactory.getLogger( EventDispatcher.class );
+
+    /** The DirectoryService */
+    private final DirectoryService directoryService;
+
+    /** The maximum number of pending notifications per listener */
+    private final int queueSize;
+
+    /** What to do when a queue is full */
+    private final EventQueuePolicy policy;
+
+    /** The maximum time an operation waits for some room in a full queue, in milliseconds */
+    private final long blockTimeout;
+
+    /** The threads notifying the listeners */
+    private final ExecutorService executor;
+
+    /** The queues, per listener */
+    private final ConcurrentMap<DirectoryListener, ListenerQueue> queues = new ConcurrentHashMap<DirectoryListener, ListenerQueue>();
+
+    /** The statistics */
+    private final MonitorCounter queued;
+    private final MonitorCounter coalesced;
+    private final MonitorCounter dropped;
+    private final MonitorCounter disconnected;
+    private final LatencyHistogram lag;
+    private final LatencyHistogram blocked;
+
+
+    /**
+     * Creates a new instance of EventDispatcher.
+     *
+     * @param directoryService The DirectoryService
+     * @param nbThreads The number of threads notifying the listeners
+     * @param queueSize The maximum number of pending notifications per listener
+     * @param policy What to do when a queue is full
+     * @param blockTimeout The maximum time an operation waits for some room in a full
+     * queue, in milliseconds, before the listener is disconnected
+     */
+    EventDispatcher( DirectoryService directoryService, int nbThreads, int queueSize, EventQueuePolicy policy,
+        long blockTimeout )
+    {
+        this.directoryService = directoryService;
+        this.queueSize = Math.max( 1, queueSize );
+        this.policy = policy;
+        this.blockTimeout = Math.max( 0L, blockTimeout );
+        executor = Executors.newFixedThreadPool( Math.max( 1, nbThreads ), new DispatcherThreadFactory() );
+
+        MonitorRegistry registry = directoryService.getMonitorRegistry();
+        queued = registry.getCounter( MonitorRegistry.EVENTS, "queued" );
+        coalesced = registry.getCounter( MonitorRegistry.EVENTS, "coalesced" );
+        dropped = registry.getCounter( MonitorRegistry.EVENTS, "dropped" );
+        disconnected = registry.getCounter( MonitorRegistry.EVENTS, "disconnected" );
+        lag = registry.getHistogram( MonitorRegistry.EVENTS, "lag" );
+        blocked = registry.getHistogram( MonitorRegistry.EVENTS, "blocked" );
+        registry.register( MonitorRegistry.EVENTS, "depth", new QueueDepth() );
+    }
+
+
+    /**
+     * Queues a notification for an asynchronous listener.
+     *
+     * @param opContext The operation context
+     * @param type The type of change
+     * @param listener The listener to notify
+     */
+    void dispatch( OperationContext opContext, EventType type, DirectoryListener listener )
+    {
+        ListenerQueue queue = queues.get( listener );
+
+        if ( queue == null )
+        {
+            queue = new ListenerQueue( listener, this );
+            ListenerQueue existing = queues.putIfAbsent( listener, queue );
+
+            if ( existing != null )
+            {
+                queue = existing;
+            }
+        }
+
+        if ( !queue.offer( opContext, type ) )
+        {
+            disconnect( listener );
+        }
+    }
+
+
+    /**
+     * Removes a listener which can't keep up with the changes
+     */
+    private void disconnect( DirectoryListener listener )
+    {
+        LOG.warn( "The notification queue of {} is full, the listener is removed", listener );
+        disconnected.increment();
+        directoryService.getEventService().removeListener( listener );
+        discard( listener );
+
+        if ( listener instanceof DisconnectableListener )
+        {
+            try
+            {
+                ( ( DisconnectableListener ) listener ).disconnect();
+            }
+            catch ( RuntimeException re )
+            {
+                LOG.error( "Failed to disconnect the listener {}", listener, re );
+            }
+        }
+    }
+
+
+    /**
+     * Drops the queue of a listener which has been removed.
+     *
+     * @param listener The removed listener
+     */
+    void discard( DirectoryListener listener )
+    {
+        ListenerQueue queue = queues.remove( listener );
+
+        if ( queue != null )
+        {
+            queue.discard();
+        }
+    }
+
+
+    /**
+     * Submits a queue to the threads.
+     *
+     * @param queue The queue having some notifications to send
+     */
+    void schedule( ListenerQueue queue )
+    {
+        try
+        {
+            executor.execute( queue );
+        }
+        catch ( RejectedExecutionException ree )
+        {
+            // The dispatcher has been shut down
+            queue.discard();
+        }
+    }
+
+
+    /**
+     * @param listener The listener
+     * @return The number of notifications pending for this listener
+     */
+    int getQueueDepth( DirectoryListener listener )
+    {
+        ListenerQueue queue = queues.get( listener );
+
+        return queue == null ? 0 : queue.size();
+    }
+
+
+    /**
+     * Stops the threads, waiting a bit for the pending notifications to be sent.
+     */
+    void shutdown()
+    {
+        executor.shutdown();
+
+        try
+        {
+            if ( !executor.awaitTermination( 5, TimeUnit.SECONDS ) )
+            {
+                executor.shutdownNow();
+            }
+        }
+        catch ( InterruptedException ie )
+        {
+            Thread.currentThread().interrupt();
+            executor.shutdownNow();
+        }
+
+        for ( ListenerQueue queue : queues.values() )
+        {
+            queue.discard();
+        }
+
+        queues.clear();
+    }
+
+
+    int getQueueSize()
+    {
+        return queueSize;
+    }
+
+
+    EventQueuePolicy getPolicy()
+    {
+        return policy;
+    }
+
+
+    long getBlockTimeout()
+    {
+        return blockTimeout;
+    }
+
+
+    MonitorCounter getQueued()
+    {
+        return queued;
+    }
+
+
+    MonitorCounter getCoalesced()
+    {
+        return coalesced;
+    }
+
+
+    MonitorCounter getDropped()
+    {
+        return dropped;
+    }
+
+
+    LatencyHistogram getLag()
+    {
+        return lag;
+    }
+
+
+    LatencyHistogram getBlocked()
+    {
+        return blocked;
+    }
+
+
+    /**
+     * The number of pending notifications, computed from the queues. It can't be reset.
+     */
+    private class QueueDepth extends MonitorCounter
+    {
+        @Override
+        public long getValue()
+        {
+            long depth = 0L;
+
+            for ( ListenerQueue queue : queues.values() )
+            {
+                depth += queue.size();
+            }
+
+            return depth;
+        }
+
+
+        @Override
+        public void reset()
+        {
+            // The depth is not a counter
+        }
+
+
+        @Override
+        public String toString()
+        {
+            return Long.toString( getValue() );
+        }
+    }
+
+
+    /**
+     * Creates the daemon threads notifying the listeners
+     */
+    private static class DispatcherThreadFactory implements ThreadFactory
+    {
+        /** The number of threads created so far */
+        private final AtomicInteger counter = new AtomicInteger();
+
+
+        public Thread newThread( Runnable runnable )
+        {
+            Thread thread = new Thread( runnable, "EventDispatcher-" + counter.incrementAndGet() );
+            thread.setDaemon( true );
+
+            return thread;
+        }
+    }
+}
@@ -27,10 +27,6 @@ import static org.apache.directory.api.ldap.model.message.SearchScope.SUBTREE;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
 
 import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.entry.Entry;
@@ -43,6 +39,7 @@ import org.apache.directory.server.core.api.InterceptorEnum;
 import org.apache.directory.server.core.api.entry.ClonedServerEntry;
 import org.apache.directory.server.core.api.event.DirectoryListener;
 import org.apache.directory.server.core.api.event.Evaluator;
+import org.apache.directory.server.core.api.event.EventService;
 import org.apache.directory.server.core.api.event.EventType;
 import org.apache.directory.server.core.api.event.ExpressionEvaluator;
 import org.apache.directory.server.core.api.event.NotificationCriteria;
@@ -70,8 +67,49 @@ public class EventInterceptor extends BaseInterceptor
     /** A logger for this class */
     private static final Logger LOG = LoggerFactory.getLogger( EventInterceptor.class );
 
+    /** The system property used to set the number of threads notifying the asynchronous listeners */
+    public static final String THREADS_PROPERTY = "apacheds.event.threads";
+
+    /** The system property used to set the maximum number of pending notifications per listener */
+    public static final String QUEUE_SIZE_PROPERTY = "apacheds.event.queueSize";
+
+    /** The system property used to set the policy applied when a listener queue is full */
+    public static final String QUEUE_POLICY_PROPERTY = "apacheds.event.queuePolicy";
+
+    /** The default number of threads notifying the asynchronous listeners */
+    public static final int DEFAULT_THREADS = 10;
+
+    /** The system property used to set the maximum time an operation waits for a full queue, in milliseconds */
+    public static final String BLOCK_TIMEOUT_PROPERTY = "apacheds.event.blockTimeout";
+
+    /** The default maximum number of pending notifications per listener */
+    public static final int DEFAULT_QUEUE_SIZE = 1000;
+
+    /** The default maximum time an operation waits for a full queue, in milliseconds */
+    public static final long DEFAULT_BLOCK_TIMEOUT = 1000L;
+
     private Evaluator evaluator;
-    private ExecutorService executor;
+
+    /** The number of threads notifying the asynchronous listeners */
+    private int nbThreads = Integer.getInteger( THREADS_PROPERTY, DEFAULT_THREADS );
+
+    /** The maximum number of pending notifications per listener */
+    private int queueSize = Integer.getInteger( QUEUE_SIZE_PROPERTY, DEFAULT_QUEUE_SIZE );
+
+    /**
+     * What to do when the queue of a listener is full. The listener is disconnected by
+     * default, as the operation holds its lock while it waits for some room
+     */
+    private EventQueuePolicy queuePolicy = EventQueuePolicy.DROP_AND_DISCONNECT;
+
+    /** The maximum time an operation waits for a full queue, with the BLOCK and COALESCE policies */
+    private long blockTimeout = Long.getLong( BLOCK_TIMEOUT_PROPERTY, DEFAULT_BLOCK_TIMEOUT );
+
+    /** The dispatcher sending the notifications to the asynchronous listeners */
+    private EventDispatcher dispatcher;
+
+    /** The EventService created by this interceptor, which indexes the registrations */
+    private DefaultEventService eventService;
 
 
     /**
@@ -80,12 +118,26 @@ public class EventInterceptor extends BaseInterceptor
     public EventInterceptor()
     {
         super( InterceptorEnum.EVENT_INTERCEPTOR );
+
+        String policy = System.getProperty( QUEUE_POLICY_PROPERTY );
+
+        if ( policy != null )
+        {
+            if ( EventQueuePolicy.getPolicy( policy ) != null )
+            {
+                queuePolicy = EventQueuePolicy.getPolicy( policy );
+            }
+            else
+            {
+                LOG.warn( "Unknown event queue policy '{}', using {}", policy, queuePolicy );
+            }
+        }
     }
 
 
     /**
-     * Initialize the event interceptor. It creates a pool of executor which will be used
-     * to call the listeners in separate threads.
+     * Initialize the event interceptor. It creates a pool of threads which will be used
+     * to call the asynchronous listeners, each of them having its own queue.
      */
     public void init( DirectoryService directoryService ) throws LdapException
     {
@@ -93,126 +145,115 @@ public class EventInterceptor extends BaseInterceptor
         super.init( directoryService );
 
         evaluator = new ExpressionEvaluator( schemaManager );
-        executor = new ThreadPoolExecutor( 1, 10, 1000, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>( 100 ) );
+        dispatcher = new EventDispatcher( directoryService, nbThreads, queueSize, queuePolicy, blockTimeout );
 
-        this.directoryService.setEventService( new DefaultEventService( directoryService ) );
+        eventService = new DefaultEventService( directoryService, dispatcher );
+        this.directoryService.setEventService( eventService );
         LOG.info( "Initialization complete." );
     }
 
 
     /**
-     * Call the listener passing it the context.
+     * Stops the threads notifying the asynchronous listeners.
+     */
+    public void destroy()
+    {
+        if ( dispatcher != null )
+        {
+            dispatcher.shutdown();
+        }
+    }
+
+
+    /**
+     * @param nbThreads The number of threads notifying the asynchronous listeners. Must
+     * be set before the interceptor is initialized.
+     */
+    public void setNbThreads( int nbThreads )
+    {
+        this.nbThreads = nbThreads;
+    }
+
+
+    /**
+     * @param queueSize The maximum number of pending notifications per asynchronous
+     * listener. Must be set before the interceptor is initialized.
+     */
+    public void setQueueSize( int queueSize )
+    {
+        this.queueSize = queueSize;
+    }
+
+
+    /**
+     * @param queuePolicy What to do when the queue of an asynchronous listener is full.
+     * Must be set before the interceptor is initialized.
+     */
+    public void setQueuePolicy( EventQueuePolicy queuePolicy )
+    {
+        this.queuePolicy = queuePolicy;
+    }
+
+
+    /**
+     * @param blockTimeout The maximum time an operation waits for some room in the full
+     * queue of an asynchronous listener, in milliseconds, before the listener is
+     * disconnected. Only used by the BLOCK and COALESCE policies. Must be set before
+     * the interceptor is initialized.
      */
-    private void fire( final OperationContext opContext, EventType type, final DirectoryListener listener )
+    public void setBlockTimeout( long blockTimeout )
     {
+        this.blockTimeout = blockTimeout;
+    }
+
+
+    /**
+     * @param listener An asynchronous listener
+     * @return The number of notifications waiting to be sent to this listener
+     */
+    public int getQueueDepth( DirectoryListener listener )
+    {
+        return dispatcher == null ? 0 : dispatcher.getQueueDepth( listener );
+    }
+
+
+    /**
+     * Call the listener passing it the context. The asynchronous listeners are
+     * notified by the dispatcher threads.
+     */
+    private void fire( OperationContext opContext, EventType type, DirectoryListener listener )
+    {
+        if ( !listener.isSynchronous() )
+        {
+            dispatcher.dispatch( opContext, type, listener );
+
+            return;
+        }
+
         switch ( type )
         {
             case ADD:
-                if ( listener.isSynchronous() )
-                {
-                    listener.entryAdded( ( AddOperationContext ) opContext );
-                }
-                else
-                {
-                    executor.execute( new Runnable()
-                    {
-                        public void run()
-                        {
-                            listener.entryAdded( ( AddOperationContext ) opContext );
-                        }
-                    } );
-                }
-
+                listener.entryAdded( ( AddOperationContext ) opContext );
                 break;
 
             case DELETE:
-                if ( listener.isSynchronous() )
-                {
-                    listener.entryDeleted( ( DeleteOperationContext ) opContext );
-                }
-                else
-                {
-                    executor.execute( new Runnable()
-                    {
-                        public void run()
-                        {
-                            listener.entryDeleted( ( DeleteOperationContext ) opContext );
-                        }
-                    } );
-                }
-
+                listener.entryDeleted( ( DeleteOperationContext ) opContext );
                 break;
 
             case MODIFY:
-                if ( listener.isSynchronous() )
-                {
-                    listener.entryModified( ( ModifyOperationContext ) opContext );
-                }
-                else
-                {
-                    executor.execute( new Runnable()
-                    {
-                        public void run()
-                        {
-                            listener.entryModified( ( ModifyOperationContext ) opContext );
-                        }
-                    } );
-                }
-
+                listener.entryModified( ( ModifyOperationContext ) opContext );
                 break;
 
             case MOVE:
-                if ( listener.isSynchronous() )
-                {
-                    listener.entryMoved( ( MoveOperationContext ) opContext );
-                }
-                else
-                {
-                    executor.execute( new Runnable()
-                    {
-                        public void run()
-                        {
-                            listener.entryMoved( ( MoveOperationContext ) opContext );
-                        }
-                    } );
-                }
-
+                listener.entryMoved( ( MoveOperationContext ) opContext );
                 break;
 
             case RENAME:
-                if ( listener.isSynchronous() )
-                {
-                    listener.entryRenamed( ( RenameOperationContext ) opContext );
-                }
-                else
-                {
-                    executor.execute( new Runnable()
-                    {
-                        public void run()
-                        {
-                            listener.entryRenamed( ( RenameOperationContext ) opContext );
-                        }
-                    } );
-                }
-
+                listener.entryRenamed( ( RenameOperationContext ) opContext );
                 break;
 
             case MOVE_AND_RENAME:
-                if ( listener.isSynchronous() )
-                {
-                    listener.entryMovedAndRenamed( ( MoveAndRenameOperationContext ) opContext );
-                }
-                else
-                {
-                    executor.execute( new Runnable()
-                    {
-                        public void run()
-                        {
-                            listener.entryMovedAndRenamed( ( MoveAndRenameOperationContext ) opContext );
-                        }
-                    } );
-                }
-
+                listener.entryMovedAndRenamed( ( MoveAndRenameOperationContext ) opContext );
                 break;
 
             default:
@@ -398,7 +439,35 @@ public class EventInterceptor extends BaseInterceptor
      */
     private List<RegistrationEntry> getSelectingRegistrations( Dn name, Entry entry ) throws LdapException
     {
-        List<RegistrationEntry> registrations = directoryService.getEventService().getRegistrationEntries();
+        EventService currentEventService = directoryService.getEventService();
+
+        // The registrations are indexed by our own EventService, we only have
+        // to evaluate the filter of those having the entry in scope
+        if ( currentEventService == eventService )
+        {
+            List<RegistrationEntry> candidates = eventService.getCandidateRegistrations( name, entry );
+
+            if ( candidates.isEmpty() )
+            {
+                return candidates;
+            }
+
+            List<RegistrationEntry> selecting = new ArrayList<RegistrationEntry>( candidates.size() );
+
+            for ( RegistrationEntry registration : candidates )
+            {
+                NotificationCriteria criteria = registration.getCriteria();
+
+                if ( evaluator.evaluate( criteria.getFilter(), criteria.getBase(), entry ) )
+                {
+                    selecting.add( registration );
+                }
+            }
+
+            return selecting;
+        }
+
+        List<RegistrationEntry> registrations = currentEventService.getRegistrationEntries();
 
         if ( registrations.isEmpty() )
         {
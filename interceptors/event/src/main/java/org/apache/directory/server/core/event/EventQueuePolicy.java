@@ -0,0 +1,75 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.event;
+
+
+/**
+ * What to do when the notification queue of an asynchronous listener is full.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public enum EventQueuePolicy
+{
+    /**
+     * The operation waits until there is some room in the queue. As the operation
+     * holds its lock meanwhile, it does not wait for more than the block timeout :
+     * the listener is then handled as with {@link #DROP_AND_DISCONNECT}.
+     */
+    BLOCK,
+
+    /**
+     * The listener is unregistered and its pending notifications are dropped. A
+     * {@link org.apache.directory.server.core.api.event.DisconnectableListener} is
+     * told so, to close the client connection.
+     */
+    DROP_AND_DISCONNECT,
+
+    /**
+     * A modification replaces a pending modification of the same entry, as long as
+     * no other change has been queued for this entry in between. When the queue is
+     * full anyway, the operation waits, as with {@link #BLOCK}.
+     */
+    COALESCE;
+
+
+    /**
+     * Gets the policy from its name, whatever its case.
+     *
+     * @param name The policy name
+     * @return The policy, or null if the name is unknown
+     */
+    public static EventQueuePolicy getPolicy( String name )
+    {
+        if ( name == null )
+        {
+            return null;
+        }
+
+        for ( EventQueuePolicy policy : values() )
+        {
+            if ( policy.name().equalsIgnoreCase( name.trim() ) )
+            {
+                return policy;
+            }
+        }
+
+        return null;
+    }
+}
@@ -0,0 +1,366 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.event;
+
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.server.core.api.event.DirectoryListener;
+import org.apache.directory.server.core.api.event.EventType;
+import org.apache.directory.server.core.api.interceptor.context.AddOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.DeleteOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.ModifyOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.MoveAndRenameOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.MoveOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.OperationContext;
+import org.apache.directory.server.core.api.interceptor.context.RenameOperationContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * The bounded queue of the notifications sent to an asynchronous listener. The
+ * queue is drained by the threads of the {@link EventDispatcher}, one batch at a
+ * time, so that a listener never has more than one thread notifying it and a slow
+ * listener does not hold a thread for long. What happens when the queue is full
+ * depends on the {@link EventQueuePolicy}.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+class ListenerQueue implements Runnable
+{
+    /** A logger for this class */
+    private static final Logger LOG = LoggerFactory.getLogger( ListenerQueue.class );
+
+    /** The maximum number of notifications sent before giving the thread back */
+    private static final int BATCH_SIZE = 64;
+
+    /** The listener */
+    private final DirectoryListener listener;
+
+    /** The dispatcher running this queue */
+    private final EventDispatcher dispatcher;
+
+    /** The pending notifications */
+    private final Deque<QueuedEvent> events = new ArrayDeque<QueuedEvent>();
+
+    /** The pending modifications which can be coalesced, by entry Dn */
+    private final Map<Dn, QueuedEvent> pendingModifications = new HashMap<Dn, QueuedEvent>();
+
+    /** Tells if the queue has been submitted to the dispatcher threads */
+    private boolean scheduled;
+
+    /** Tells if the listener has been removed */
+    private boolean discarded;
+
+
+    /**
+     * Creates a new instance of ListenerQueue.
+     *
+     * @param listener The listener
+     * @param dispatcher The dispatcher running this queue
+     */
+    ListenerQueue( DirectoryListener listener, EventDispatcher dispatcher )
+    {
+        this.listener = listener;
+        this.dispatcher = dispatcher;
+    }
+
+
+    /**
+     * Queues a notification.
+     *
+     * @param opContext The operation context
+     * @param type The type of change
+     * @return false if the queue is full and its listener must be disconnected. With the
+     * BLOCK and COALESCE policies, this only happens once the block timeout is expired
+     */
+    boolean offer( OperationContext opContext, EventType type )
+    {
+        EventQueuePolicy policy = dispatcher.getPolicy();
+        boolean schedule;
+
+        synchronized ( this )
+        {
+            if ( discarded )
+            {
+                return true;
+            }
+
+            Dn dn = opContext.getDn();
+
+            if ( policy == EventQueuePolicy.COALESCE )
+            {
+                if ( type == EventType.MODIFY )
+                {
+                    QueuedEvent pending = pendingModifications.get( dn );
+
+                    if ( pending != null )
+                    {
+                        // The listener will only see the last state of the entry
+                        pending.opContext = opContext;
+                        dispatcher.getCoalesced().increment();
+
+                        return true;
+                    }
+                }
+                else
+                {
+                    // Don't coalesce the modifications queued before and after this change
+                    pendingModifications.remove( dn );
+                }
+            }
+
+            if ( events.size() >= dispatcher.getQueueSize() )
+            {
+                if ( policy == EventQueuePolicy.DROP_AND_DISCONNECT )
+                {
+                    discard();
+
+                    return false;
+                }
+
+                if ( !waitForRoom() )
+                {
+                    if ( discarded )
+                    {
+                        // The listener has been removed meanwhile
+                        return true;
+                    }
+
+                    if ( Thread.currentThread().isInterrupted() )
+                    {
+                        LOG.warn( "Interrupted while waiting for the queue of {}, the notification is dropped",
+                            listener );
+                        dispatcher.getDropped().increment();
+
+                        return true;
+                    }
+
+                    // The listener is too slow, the operation can't wait any longer
+                    discard();
+
+                    return false;
+                }
+            }
+
+            QueuedEvent event = new QueuedEvent( opContext, type );
+            events.add( event );
+            dispatcher.getQueued().increment();
+
+            if ( ( policy == EventQueuePolicy.COALESCE ) && ( type == EventType.MODIFY ) )
+            {
+                pendingModifications.put( dn, event );
+            }
+
+            schedule = !scheduled;
+            scheduled = true;
+        }
+
+        if ( schedule )
+        {
+            dispatcher.schedule( this );
+        }
+
+        return true;
+    }
+
+
+    /**
+     * Waits until the queue is not full anymore, for the dispatcher's block timeout at
+     * most. Must be called while holding the lock.
+     *
+     * @return false if the queue is still full, or if the listener has been removed
+     */
+    private boolean waitForRoom()
+    {
+        long t0 = System.nanoTime();
+        long deadline = t0 + TimeUnit.MILLISECONDS.toNanos( dispatcher.getBlockTimeout() );
+
+        try
+        {
+            while ( !discarded && ( events.size() >= dispatcher.getQueueSize() ) )
+            {
+                long remaining = TimeUnit.NANOSECONDS.toMillis( deadline - System.nanoTime() );
+
+                if ( remaining <= 0L )
+                {
+                    return false;
+                }
+
+                wait( remaining );
+            }
+        }
+        catch ( InterruptedException ie )
+        {
+            Thread.currentThread().interrupt();
+
+            return false;
+        }
+        finally
+        {
+            dispatcher.getBlocked().recordSince( t0 );
+        }
+
+        return !discarded;
+    }
+
+
+    /**
+     * Drops all the pending notifications, and the ones queued later on.
+     */
+    synchronized void discard()
+    {
+        discarded = true;
+        dispatcher.getDropped().add( events.size() );
+        events.clear();
+        pendingModifications.clear();
+        notifyAll();
+    }
+
+
+    /**
+     * @return The number of pending notifications
+     */
+    synchronized int size()
+    {
+        return events.size();
+    }
+
+
+    /**
+     * Sends a batch of notifications to the listener, and submits the queue again
+     * if there are some notifications left.
+     */
+    public void run()
+    {
+        for ( int i = 0; i < BATCH_SIZE; i++ )
+        {
+            QueuedEvent event;
+
+            synchronized ( this )
+            {
+                event = events.poll();
+
+                if ( event == null )
+                {
+                    scheduled = false;
+
+                    return;
+                }
+
+                if ( pendingModifications.get( event.opContext.getDn() ) == event )
+                {
+                    pendingModifications.remove( event.opContext.getDn() );
+                }
+
+                notifyAll();
+            }
+
+            dispatcher.getLag().recordSince( event.queuedAt );
+            fire( event );
+        }
+
+        synchronized ( this )
+        {
+            if ( events.isEmpty() )
+            {
+                scheduled = false;
+
+                return;
+            }
+        }
+
+        // Let the other listeners be notified before sending the next batch
+        dispatcher.schedule( this );
+    }
+
+
+    /**
+     * Calls the listener
+     */
+    private void fire( QueuedEvent event )
+    {
+        try
+        {
+            switch ( event.type )
+            {
+                case ADD:
+                    listener.entryAdded( ( AddOperationContext ) event.opContext );
+                    break;
+
+                case DELETE:
+                    listener.entryDeleted( ( DeleteOperationContext ) event.opContext );
+                    break;
+
+                case MODIFY:
+                    listener.entryModified( ( ModifyOperationContext ) event.opContext );
+                    break;
+
+                case MOVE:
+                    listener.entryMoved( ( MoveOperationContext ) event.opContext );
+                    break;
+
+                case RENAME:
+                    listener.entryRenamed( ( RenameOperationContext ) event.opContext );
+                    break;
+
+                case MOVE_AND_RENAME:
+                    listener.entryMovedAndRenamed( ( MoveAndRenameOperationContext ) event.opContext );
+                    break;
+
+                default:
+                    throw new IllegalArgumentException( "Unexpected event type " + event.type );
+            }
+        }
+        catch ( RuntimeException re )
+        {
+            LOG.error( "Failed to notify the listener {} of a {} event", listener, event.type, re );
+        }
+    }
+
+
+    /**
+     * A queued notification
+     */
+    private static final class QueuedEvent
+    {
+        /** The operation context, replaced when a modification is coalesced */
+        private OperationContext opContext;
+
+        /** The type of change */
+        private final EventType type;
+
+        /** When the notification has been queued, in nanoseconds */
+        private final long queuedAt = System.nanoTime();
+
+
+        private QueuedEvent( OperationContext opContext, EventType type )
+        {
+            this.opContext = opContext;
+            this.type = type;
+        }
+    }
+}
@@ -0,0 +1,417 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.event;
+
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.filter.AndNode;
+import org.apache.directory.api.ldap.model.filter.ExprNode;
+import org.apache.directory.api.ldap.model.filter.PresenceNode;
+import org.apache.directory.api.ldap.model.filter.SimpleNode;
+import org.apache.directory.api.ldap.model.filter.SubstringNode;
+import org.apache.directory.api.ldap.model.message.SearchScope;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.apache.directory.server.core.api.event.NotificationCriteria;
+import org.apache.directory.server.core.api.event.RegistrationEntry;
+
+
+/**
+ * An index of the RegistrationEntries, used to find the listeners which may be
+ * interested in a change without evaluating all of them. The registrations are
+ * stored in a tree of the RDNs of their base, each node holding the registrations
+ * of its base, by scope. A change on an entry only has to walk the RDNs of this
+ * entry from the root to collect the registrations having it in scope.
+ * <br>
+ * For each registration, we also keep the attributes which must be present in an
+ * entry for the filter to match it, so that the registrations which can't select
+ * the entry are discarded without evaluating their filter.
+ * <br>
+ * The index is updated under a lock, which is fine as the registrations are rarely
+ * added or removed, while the lookups don't lock anything.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+class RegistrationIndex
+{
+    /** An empty array of indexed registrations */
+    private static final IndexedRegistration[] NO_REGISTRATION = new IndexedRegistration[0];
+
+    /** An empty array of attributeTypes */
+    private static final AttributeType[] NO_ATTRIBUTE_TYPE = new AttributeType[0];
+
+    /** Orders the selected registrations the way they have been added */
+    private static final Comparator<IndexedRegistration> REGISTRATION_ORDER = new Comparator<IndexedRegistration>()
+    {
+        public int compare( IndexedRegistration r1, IndexedRegistration r2 )
+        {
+            return r1.order < r2.order ? -1 : ( r1.order == r2.order ? 0 : 1 );
+        }
+    };
+
+    /** The node associated with the root DSE */
+    private final Node root = new Node( null, null );
+
+    /** The number of registrations added so far, used to order them */
+    private long counter;
+
+
+    /**
+     * Adds a registration in the index. Its base Dn must be schema aware and its
+     * filter normalized.
+     *
+     * @param registration The registration to add
+     */
+    synchronized void add( RegistrationEntry registration )
+    {
+        Dn base = registration.getCriteria().getBase();
+        Node node = root;
+
+        for ( int i = base.size() - 1; i >= 0; i-- )
+        {
+            String key = base.getRdn( i ).getNormName();
+            Node child = node.children.get( key );
+
+            if ( child == null )
+            {
+                child = new Node( node, key );
+                node.children.put( key, child );
+            }
+
+            node = child;
+        }
+
+        node.add( new IndexedRegistration( registration, counter++ ) );
+    }
+
+
+    /**
+     * Removes a registration from the index.
+     *
+     * @param registration The registration to remove
+     */
+    synchronized void remove( RegistrationEntry registration )
+    {
+        Dn base = registration.getCriteria().getBase();
+        Node node = root;
+
+        for ( int i = base.size() - 1; ( i >= 0 ) && ( node != null ); i-- )
+        {
+            node = node.children.get( base.getRdn( i ).getNormName() );
+        }
+
+        if ( node == null )
+        {
+            return;
+        }
+
+        node.remove( registration );
+
+        // Get rid of the nodes which don't hold anything anymore
+        while ( ( node.parent != null ) && node.isEmpty() )
+        {
+            node.parent.children.remove( node.key );
+            node = node.parent;
+        }
+    }
+
+
+    /**
+     * Selects the registrations having the entry in scope, and which filter may
+     * match it. The filters still have to be evaluated against the entry.
+     *
+     * @param name The entry Dn, schema aware
+     * @param entry The entry
+     * @return The candidate registrations, in the order they have been added
+     */
+    List<RegistrationEntry> select( Dn name, Entry entry )
+    {
+        List<IndexedRegistration> selected = null;
+        int depth = name.size();
+        Node node = root;
+
+        for ( int level = 0; node != null; level++ )
+        {
+            selected = collect( node.subtree, entry, selected );
+
+            if ( level == depth )
+            {
+                selected = collect( node.object, entry, selected );
+
+                break;
+            }
+
+            if ( level == depth - 1 )
+            {
+                selected = collect( node.oneLevel, entry, selected );
+            }
+
+            node = node.children.get( name.getRdn( depth - 1 - level ).getNormName() );
+        }
+
+        if ( selected == null )
+        {
+            return Collections.emptyList();
+        }
+
+        if ( selected.size() > 1 )
+        {
+            Collections.sort( selected, REGISTRATION_ORDER );
+        }
+
+        List<RegistrationEntry> registrations = new ArrayList<RegistrationEntry>( selected.size() );
+
+        for ( IndexedRegistration indexed : selected )
+        {
+            registrations.add( indexed.registration );
+        }
+
+        return registrations;
+    }
+
+
+    /**
+     * Adds the registrations which filter may match the entry to the selected ones
+     */
+    private List<IndexedRegistration> collect( IndexedRegistration[] registrations, Entry entry,
+        List<IndexedRegistration> selected )
+    {
+        for ( IndexedRegistration indexed : registrations )
+        {
+            if ( indexed.mayMatch( entry ) )
+            {
+                if ( selected == null )
+                {
+                    selected = new ArrayList<IndexedRegistration>();
+                }
+
+                selected.add( indexed );
+            }
+        }
+
+        return selected;
+    }
+
+
+    /**
+     * Gathers the attributeTypes an entry must have for the filter to match it.
+     * We only look at the AND nodes and at the leaves evaluated against the entry
+     * attribute : the other nodes can match an entry without any given attribute.
+     */
+    private static void collectRequiredAttributes( ExprNode filter, Set<AttributeType> attributeTypes )
+    {
+        AttributeType attributeType = null;
+
+        if ( filter instanceof AndNode )
+        {
+            for ( ExprNode child : ( ( AndNode ) filter ).getChildren() )
+            {
+                collectRequiredAttributes( child, attributeTypes );
+            }
+        }
+        else if ( filter instanceof SimpleNode )
+        {
+            attributeType = ( ( SimpleNode<?> ) filter ).getAttributeType();
+        }
+        else if ( filter instanceof PresenceNode )
+        {
+            attributeType = ( ( PresenceNode ) filter ).getAttributeType();
+        }
+        else if ( filter instanceof SubstringNode )
+        {
+            attributeType = ( ( SubstringNode ) filter ).getAttributeType();
+        }
+
+        // All the entries have an ObjectClass, no need to check it
+        if ( ( attributeType != null ) && !attributeType.getOid().equals( SchemaConstants.OBJECT_CLASS_AT_OID ) )
+        {
+            attributeTypes.add( attributeType );
+        }
+    }
+
+
+    /**
+     * A registration, with the attributes its filter requires
+     */
+    private static final class IndexedRegistration
+    {
+        /** The registration */
+        private final RegistrationEntry registration;
+
+        /** The position of this registration in the order they have been added */
+        private final long order;
+
+        /** The attributes an entry must have to be selected */
+        private final AttributeType[] requiredAttributes;
+
+
+        private IndexedRegistration( RegistrationEntry registration, long order )
+        {
+            this.registration = registration;
+            this.order = order;
+
+            Set<AttributeType> attributeTypes = new LinkedHashSet<AttributeType>();
+            collectRequiredAttributes( registration.getCriteria().getFilter(), attributeTypes );
+            requiredAttributes = attributeTypes.toArray( NO_ATTRIBUTE_TYPE );
+        }
+
+
+        /**
+         * Tells if the filter may match the entry, ie if the entry has all the
+         * attributes the filter requires
+         */
+        private boolean mayMatch( Entry entry )
+        {
+            if ( entry == null )
+            {
+                return true;
+            }
+
+            for ( AttributeType attributeType : requiredAttributes )
+            {
+                if ( entry.get( attributeType ) == null )
+                {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+    }
+
+
+    /**
+     * A node of the index, associated with a Dn. The registrations are stored in
+     * arrays replaced on each update, so that they can be read without locking.
+     */
+    private static final class Node
+    {
+        /** The parent node, null for the root */
+        private final Node parent;
+
+        /** The normalized RDN of this node in its parent */
+        private final String key;
+
+        /** The children, by normalized RDN */
+        private final ConcurrentHashMap<String, Node> children = new ConcurrentHashMap<String, Node>();
+
+        /** The registrations with an OBJECT scope */
+        private volatile IndexedRegistration[] object = NO_REGISTRATION;
+
+        /** The registrations with an ONELEVEL scope */
+        private volatile IndexedRegistration[] oneLevel = NO_REGISTRATION;
+
+        /** The registrations with a SUBTREE scope */
+        private volatile IndexedRegistration[] subtree = NO_REGISTRATION;
+
+
+        private Node( Node parent, String key )
+        {
+            this.parent = parent;
+            this.key = key;
+        }
+
+
+        private void add( IndexedRegistration indexed )
+        {
+            SearchScope scope = indexed.registration.getCriteria().getScope();
+
+            switch ( scope )
+            {
+                case OBJECT:
+                    object = append( object, indexed );
+                    break;
+
+                case ONELEVEL:
+                    oneLevel = append( oneLevel, indexed );
+                    break;
+
+                default:
+                    subtree = append( subtree, indexed );
+                    break;
+            }
+        }
+
+
+        private void remove( RegistrationEntry registration )
+        {
+            NotificationCriteria criteria = registration.getCriteria();
+
+            switch ( criteria.getScope() )
+            {
+                case OBJECT:
+                    object = removeFrom( object, registration );
+                    break;
+
+                case ONELEVEL:
+                    oneLevel = removeFrom( oneLevel, registration );
+                    break;
+
+                default:
+                    subtree = removeFrom( subtree, registration );
+                    break;
+            }
+        }
+
+
+        private boolean isEmpty()
+        {
+            return children.isEmpty() && ( object.length == 0 ) && ( oneLevel.length == 0 )
+                && ( subtree.length == 0 );
+        }
+
+
+        private static IndexedRegistration[] append( IndexedRegistration[] registrations,
+            IndexedRegistration indexed )
+        {
+            IndexedRegistration[] result = new IndexedRegistration[registrations.length + 1];
+            System.arraycopy( registrations, 0, result, 0, registrations.length );
+            result[registrations.length] = indexed;
+
+            return result;
+        }
+
+
+        private static IndexedRegistration[] removeFrom( IndexedRegistration[] registrations,
+            RegistrationEntry registration )
+        {
+            List<IndexedRegistration> kept = new ArrayList<IndexedRegistration>( registrations.length );
+
+            for ( IndexedRegistration indexed : registrations )
+            {
+                if ( indexed.registration != registration )
+                {
+                    kept.add( indexed );
+                }
+            }
+
+            return kept.toArray( NO_REGISTRATION );
+        }
+    }
+}
@@ -0,0 +1,390 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.event;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.server.core.api.MockDirectoryService;
+import org.apache.directory.server.core.api.event.DirectoryListener;
+import org.apache.directory.server.core.api.event.DisconnectableListener;
+import org.apache.directory.server.core.api.event.EventService;
+import org.apache.directory.server.core.api.event.EventType;
+import org.apache.directory.server.core.api.event.NotificationCriteria;
+import org.apache.directory.server.core.api.event.RegistrationEntry;
+import org.apache.directory.server.core.api.interceptor.context.AddOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.DeleteOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.ModifyOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.MoveAndRenameOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.MoveOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.OperationContext;
+import org.apache.directory.server.core.api.interceptor.context.RenameOperationContext;
+import org.apache.directory.server.core.api.monitor.MonitorRegistry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+
+/**
+ * Tests the behavior of the EventDispatcher and of its listener queues when a
+ * listener is slower than the operations.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class EventDispatcherTest
+{
+    /** The maximum time to wait for a thread, in milliseconds */
+    private static final long TIMEOUT = 10000L;
+
+    /** The DirectoryService */
+    private MockDirectoryService directoryService;
+
+    /** The listeners removed from the event service */
+    private List<DirectoryListener> removed;
+
+    /** The dispatcher */
+    private EventDispatcher dispatcher;
+
+    /** The listener */
+    private SlowListener listener;
+
+
+    @Before
+    public void init()
+    {
+        removed = Collections.synchronizedList( new ArrayList<DirectoryListener>() );
+
+        final EventService eventService = new EventService()
+        {
+            public void addListener( DirectoryListener listener, NotificationCriteria criteria )
+            {
+            }
+
+
+            public void removeListener( DirectoryListener listener )
+            {
+                removed.add( listener );
+            }
+
+
+            public List<RegistrationEntry> getRegistrationEntries()
+            {
+                return Collections.emptyList();
+            }
+        };
+
+        directoryService = new MockDirectoryService()
+        {
+            @Override
+            public EventService getEventService()
+            {
+                return eventService;
+            }
+        };
+
+        listener = new SlowListener();
+    }
+
+
+    @After
+    public void shutdown()
+    {
+        listener.release.countDown();
+
+        if ( dispatcher != null )
+        {
+            dispatcher.shutdown();
+        }
+    }
+
+
+    private long getCounter( String name )
+    {
+        return directoryService.getMonitorRegistry().getCounter( MonitorRegistry.EVENTS, name ).getValue();
+    }
+
+
+    private ModifyOperationContext modify( String dn ) throws Exception
+    {
+        return new ModifyOperationContext( null, new Dn( dn ), null );
+    }
+
+
+    /**
+     * Sends a first notification, and waits for the listener to block on it
+     */
+    private void blockListener() throws Exception
+    {
+        dispatcher.dispatch( modify( "ou=first" ), EventType.MODIFY, listener );
+
+        assertTrue( listener.entered.await( TIMEOUT, TimeUnit.MILLISECONDS ) );
+    }
+
+
+    /**
+     * Dispatches a notification in a new thread
+     */
+    private Thread dispatch( final OperationContext opContext, final EventType type )
+    {
+        Thread thread = new Thread()
+        {
+            public void run()
+            {
+                dispatcher.dispatch( opContext, type, listener );
+            }
+        };
+
+        thread.start();
+
+        return thread;
+    }
+
+
+    /**
+     * Waits until all the notifications have been sent
+     */
+    private void waitForDelivery( int expected ) throws Exception
+    {
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+
+        while ( ( listener.received.size() < expected ) && ( System.currentTimeMillis() < deadline ) )
+        {
+            Thread.sleep( 10L );
+        }
+
+        assertEquals( expected, listener.received.size() );
+    }
+
+
+    @Test
+    public void testDropAndDisconnect() throws Exception
+    {
+        dispatcher = new EventDispatcher( directoryService, 1, 2, EventQueuePolicy.DROP_AND_DISCONNECT, TIMEOUT );
+        blockListener();
+
+        dispatcher.dispatch( modify( "ou=a" ), EventType.MODIFY, listener );
+        dispatcher.dispatch( modify( "ou=b" ), EventType.MODIFY, listener );
+        assertEquals( 2, dispatcher.getQueueDepth( listener ) );
+        assertTrue( removed.isEmpty() );
+
+        // The queue is full : the listener is removed at once
+        dispatcher.dispatch( modify( "ou=c" ), EventType.MODIFY, listener );
+
+        assertEquals( 1, removed.size() );
+        assertSame( listener, removed.get( 0 ) );
+        assertTrue( listener.disconnected );
+        assertEquals( 0, dispatcher.getQueueDepth( listener ) );
+        assertEquals( 2L, getCounter( "dropped" ) );
+        assertEquals( 1L, getCounter( "disconnected" ) );
+
+        // The pending notifications are not sent
+        listener.release.countDown();
+        Thread.sleep( 100L );
+        assertEquals( 1, listener.received.size() );
+    }
+
+
+    @Test
+    public void testBlockWaitsForRoom() throws Exception
+    {
+        dispatcher = new EventDispatcher( directoryService, 1, 1, EventQueuePolicy.BLOCK, TIMEOUT );
+        blockListener();
+
+        dispatcher.dispatch( modify( "ou=a" ), EventType.MODIFY, listener );
+
+        Thread thread = dispatch( modify( "ou=b" ), EventType.MODIFY );
+        thread.join( 200L );
+
+        // The queue is full, the operation waits
+        assertTrue( thread.isAlive() );
+
+        listener.release.countDown();
+        thread.join( TIMEOUT );
+
+        assertFalse( thread.isAlive() );
+        waitForDelivery( 3 );
+        assertEquals( "ou=a", listener.received.get( 1 ).getDn().getName() );
+        assertEquals( "ou=b", listener.received.get( 2 ).getDn().getName() );
+        assertTrue( removed.isEmpty() );
+        assertFalse( listener.disconnected );
+    }
+
+
+    @Test
+    public void testBlockTimeout() throws Exception
+    {
+        dispatcher = new EventDispatcher( directoryService, 1, 1, EventQueuePolicy.BLOCK, 100L );
+        blockListener();
+
+        dispatcher.dispatch( modify( "ou=a" ), EventType.MODIFY, listener );
+
+        // The operation does not wait more than the timeout, then the listener is removed
+        Thread thread = dispatch( modify( "ou=b" ), EventType.MODIFY );
+        thread.join( TIMEOUT );
+
+        assertFalse( thread.isAlive() );
+        assertEquals( 1, removed.size() );
+        assertTrue( listener.disconnected );
+        assertEquals( 1L, getCounter( "disconnected" ) );
+    }
+
+
+    @Test
+    public void testCoalesce() throws Exception
+    {
+        dispatcher = new EventDispatcher( directoryService, 1, 10, EventQueuePolicy.COALESCE, TIMEOUT );
+        blockListener();
+
+        ModifyOperationContext last = modify( "ou=a" );
+
+        dispatcher.dispatch( modify( "ou=a" ), EventType.MODIFY, listener );
+        dispatcher.dispatch( modify( "ou=b" ), EventType.MODIFY, listener );
+        dispatcher.dispatch( modify( "ou=a" ), EventType.MODIFY, listener );
+        dispatcher.dispatch( last, EventType.MODIFY, listener );
+
+        // The modifications of ou=a are merged
+        assertEquals( 2, dispatcher.getQueueDepth( listener ) );
+        assertEquals( 2L, getCounter( "coalesced" ) );
+
+        // The modifications before and after a deletion are not merged
+        dispatcher.dispatch( new DeleteOperationContext( null, new Dn( "ou=a" ) ), EventType.DELETE, listener );
+        dispatcher.dispatch( modify( "ou=a" ), EventType.MODIFY, listener );
+        assertEquals( 4, dispatcher.getQueueDepth( listener ) );
+
+        listener.release.countDown();
+        waitForDelivery( 5 );
+
+        assertSame( last, listener.received.get( 1 ) );
+        assertEquals( "ou=b", listener.received.get( 2 ).getDn().getName() );
+        assertTrue( listener.received.get( 3 ) instanceof DeleteOperationContext );
+        assertTrue( listener.received.get( 4 ) instanceof ModifyOperationContext );
+    }
+
+
+    @Test
+    public void testBlockDoesNotCoalesce() throws Exception
+    {
+        dispatcher = new EventDispatcher( directoryService, 1, 10, EventQueuePolicy.BLOCK, TIMEOUT );
+        blockListener();
+
+        dispatcher.dispatch( modify( "ou=a" ), EventType.MODIFY, listener );
+        dispatcher.dispatch( modify( "ou=a" ), EventType.MODIFY, listener );
+
+        assertEquals( 2, dispatcher.getQueueDepth( listener ) );
+        assertEquals( 0L, getCounter( "coalesced" ) );
+
+        listener.release.countDown();
+        waitForDelivery( 3 );
+    }
+
+
+    /**
+     * A listener blocked by its first notification until it's released
+     */
+    private static class SlowListener implements DisconnectableListener
+    {
+        /** Released when the listener has received its first notification */
+        private final CountDownLatch entered = new CountDownLatch( 1 );
+
+        /** Released by the test to let the listener go on */
+        private final CountDownLatch release = new CountDownLatch( 1 );
+
+        /** The received notifications */
+        private final List<OperationContext> received = Collections
+            .synchronizedList( new ArrayList<OperationContext>() );
+
+        /** Tells if the listener has been disconnected */
+        private volatile boolean disconnected;
+
+
+        private void receive( OperationContext opContext )
+        {
+            received.add( opContext );
+            entered.countDown();
+
+            try
+            {
+                release.await();
+            }
+            catch ( InterruptedException ie )
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+
+        public void entryAdded( AddOperationContext addContext )
+        {
+            receive( addContext );
+        }
+
+
+        public void entryDeleted( DeleteOperationContext deleteContext )
+        {
+            receive( deleteContext );
+        }
+
+
+        public void entryModified( ModifyOperationContext modifyContext )
+        {
+            receive( modifyContext );
+        }
+
+
+        public void entryRenamed( RenameOperationContext renameContext )
+        {
+            receive( renameContext );
+        }
+
+
+        public void entryMoved( MoveOperationContext moveContext )
+        {
+            receive( moveContext );
+        }
+
+
+        public void entryMovedAndRenamed( MoveAndRenameOperationContext moveAndRenameContext )
+        {
+            receive( moveAndRenameContext );
+        }
+
+
+        public boolean isSynchronous()
+        {
+            return false;
+        }
+
+
+        public void disconnect()
+        {
+            disconnected = true;
+        }
+    }
+}
@@ -0,0 +1,232 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.event;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.filter.PresenceNode;
+import org.apache.directory.api.ldap.model.message.SearchScope;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
+import org.apache.directory.server.core.api.event.NotificationCriteria;
+import org.apache.directory.server.core.api.event.RegistrationEntry;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+
+/**
+ * Tests the selection of the registrations by the RegistrationIndex.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class RegistrationIndexTest
+{
+    /** A reference to the schemaManager */
+    private static SchemaManager schemaManager;
+
+    /** The index */
+    private RegistrationIndex index;
+
+
+    @BeforeClass
+    public static void setup() throws Exception
+    {
+        schemaManager = new DefaultSchemaManager();
+    }
+
+
+    @Before
+    public void init()
+    {
+        index = new RegistrationIndex();
+    }
+
+
+    private Dn dn( String name ) throws Exception
+    {
+        return new Dn( schemaManager, name );
+    }
+
+
+    private RegistrationEntry register( String base, SearchScope scope ) throws Exception
+    {
+        NotificationCriteria criteria = new NotificationCriteria();
+        criteria.setBase( dn( base ) );
+        criteria.setScope( scope );
+
+        RegistrationEntry registration = new RegistrationEntry( null, criteria );
+        index.add( registration );
+
+        return registration;
+    }
+
+
+    private List<RegistrationEntry> select( String name ) throws Exception
+    {
+        return index.select( dn( name ), null );
+    }
+
+
+    @Test
+    public void testObjectScope() throws Exception
+    {
+        RegistrationEntry registration = register( "ou=users,ou=system", SearchScope.OBJECT );
+
+        assertEquals( Arrays.asList( registration ), select( "ou=users,ou=system" ) );
+
+        // The Dn are compared normalized
+        assertEquals( Arrays.asList( registration ), select( "OU=Users, ou=SYSTEM" ) );
+
+        assertTrue( select( "ou=system" ).isEmpty() );
+        assertTrue( select( "cn=test,ou=users,ou=system" ).isEmpty() );
+        assertTrue( select( "ou=groups,ou=system" ).isEmpty() );
+    }
+
+
+    @Test
+    public void testOneLevelScope() throws Exception
+    {
+        RegistrationEntry registration = register( "ou=users,ou=system", SearchScope.ONELEVEL );
+
+        assertEquals( Arrays.asList( registration ), select( "cn=test,ou=users,ou=system" ) );
+
+        assertTrue( select( "ou=users,ou=system" ).isEmpty() );
+        assertTrue( select( "cn=child,cn=test,ou=users,ou=system" ).isEmpty() );
+        assertTrue( select( "cn=test,ou=groups,ou=system" ).isEmpty() );
+    }
+
+
+    @Test
+    public void testSubtreeScope() throws Exception
+    {
+        RegistrationEntry registration = register( "ou=users,ou=system", SearchScope.SUBTREE );
+
+        assertEquals( Arrays.asList( registration ), select( "ou=users,ou=system" ) );
+        assertEquals( Arrays.asList( registration ), select( "cn=test,ou=users,ou=system" ) );
+        assertEquals( Arrays.asList( registration ), select( "cn=child,cn=test,ou=users,ou=system" ) );
+
+        assertTrue( select( "ou=system" ).isEmpty() );
+        assertTrue( select( "cn=test,ou=groups,ou=system" ).isEmpty() );
+    }
+
+
+    @Test
+    public void testSelectionOrder() throws Exception
+    {
+        RegistrationEntry subtree = register( "ou=system", SearchScope.SUBTREE );
+        RegistrationEntry object = register( "cn=test,ou=users,ou=system", SearchScope.OBJECT );
+        RegistrationEntry oneLevel = register( "ou=users,ou=system", SearchScope.ONELEVEL );
+        RegistrationEntry other = register( "ou=groups,ou=system", SearchScope.SUBTREE );
+
+        // The registrations are returned in the order they have been added
+        assertEquals( Arrays.asList( subtree, object, oneLevel ), select( "cn=test,ou=users,ou=system" ) );
+        assertEquals( Arrays.asList( subtree, other ), select( "cn=test,ou=groups,ou=system" ) );
+    }
+
+
+    @Test
+    public void testRemove() throws Exception
+    {
+        RegistrationEntry parent = register( "ou=system", SearchScope.SUBTREE );
+        RegistrationEntry child = register( "cn=test,ou=users,ou=system", SearchScope.SUBTREE );
+        RegistrationEntry sibling = register( "cn=test,ou=users,ou=system", SearchScope.OBJECT );
+
+        assertEquals( Arrays.asList( parent, child, sibling ), select( "cn=test,ou=users,ou=system" ) );
+
+        index.remove( child );
+        assertEquals( Arrays.asList( parent, sibling ), select( "cn=test,ou=users,ou=system" ) );
+
+        index.remove( sibling );
+        assertEquals( Arrays.asList( parent ), select( "cn=test,ou=users,ou=system" ) );
+
+        // Removing twice, or a registration which has never been added, does nothing
+        index.remove( sibling );
+        index.remove( new RegistrationEntry( null, child.getCriteria() ) );
+        assertEquals( Arrays.asList( parent ), select( "cn=test,ou=users,ou=system" ) );
+
+        index.remove( parent );
+        assertTrue( select( "cn=test,ou=users,ou=system" ).isEmpty() );
+
+        // The index can still be used once emptied
+        RegistrationEntry added = register( "cn=test,ou=users,ou=system", SearchScope.OBJECT );
+        assertEquals( Arrays.asList( added ), select( "cn=test,ou=users,ou=system" ) );
+    }
+
+
+    @Test
+    public void testRootDse() throws Exception
+    {
+        RegistrationEntry object = register( "", SearchScope.OBJECT );
+        RegistrationEntry oneLevel = register( "", SearchScope.ONELEVEL );
+        RegistrationEntry subtree = register( "", SearchScope.SUBTREE );
+
+        assertEquals( Arrays.asList( object, subtree ), select( "" ) );
+        assertEquals( Arrays.asList( oneLevel, subtree ), select( "ou=system" ) );
+        assertEquals( Arrays.asList( subtree ), select( "cn=test,ou=users,ou=system" ) );
+
+        index.remove( subtree );
+        assertEquals( Arrays.asList( object ), select( "" ) );
+        assertTrue( select( "cn=test,ou=users,ou=system" ).isEmpty() );
+
+        index.remove( object );
+        index.remove( oneLevel );
+        assertTrue( select( "" ).isEmpty() );
+        assertTrue( select( "ou=system" ).isEmpty() );
+    }
+
+
+    @Test
+    public void testRequiredAttributes() throws Exception
+    {
+        NotificationCriteria criteria = new NotificationCriteria();
+        criteria.setBase( dn( "ou=system" ) );
+        criteria.setScope( SearchScope.SUBTREE );
+        criteria.setFilter( new PresenceNode( schemaManager.getAttributeType( "sn" ) ) );
+
+        RegistrationEntry registration = new RegistrationEntry( null, criteria );
+        index.add( registration );
+
+        Dn name = dn( "cn=test,ou=system" );
+
+        Entry person = new DefaultEntry( schemaManager, name,
+            "objectClass: person",
+            "cn: test",
+            "sn: test" );
+
+        Entry device = new DefaultEntry( schemaManager, name,
+            "objectClass: device",
+            "cn: test" );
+
+        assertEquals( Arrays.asList( registration ), index.select( name, person ) );
+        assertTrue( index.select( name, device ).isEmpty() );
+
+        // Without an entry, the registration is a candidate
+        assertEquals( Arrays.asList( registration ), index.select( name, null ) );
+    }
+}
@@ -324,6 +324,22 @@ public class ReferralInterceptor extends BaseInterceptor
             return;
         }
 
+        // Only the referrals have to be updated : check it with a read lock, so
+        // that the modifications of other entries don't serialize on the ReferralManager
+        referralManager.lockRead();
+
+        try
+        {
+            if ( !referralManager.isReferral( dn ) )
+            {
+                return;
+            }
+        }
+        finally
+        {
+            referralManager.unlock();
+        }
+
         // Update the referralManager. We have to read the entry again
         // as it has been modified, before updating the ReferralManager
         // TODO: this can be spare, as we already have the altered entry
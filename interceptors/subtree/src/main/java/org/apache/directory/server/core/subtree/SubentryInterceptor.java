@@ -22,7 +22,9 @@ package org.apache.directory.server.core.subtree;
 
 import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import javax.naming.directory.SearchControls;
@@ -41,13 +43,12 @@ import org.apache.directory.api.ldap.model.entry.Value;
 import org.apache.directory.api.ldap.model.exception.LdapException;
 import org.apache.directory.api.ldap.model.exception.LdapInvalidAttributeValueException;
 import org.apache.directory.api.ldap.model.exception.LdapNoSuchAttributeException;
-import org.apache.directory.api.ldap.model.exception.LdapOperationErrorException;
 import org.apache.directory.api.ldap.model.exception.LdapOperationException;
 import org.apache.directory.api.ldap.model.exception.LdapOtherException;
 import org.apache.directory.api.ldap.model.exception.LdapSchemaViolationException;
+import org.apache.directory.api.ldap.model.exception.LdapUnwillingToPerformException;
 import org.apache.directory.api.ldap.model.filter.EqualityNode;
 import org.apache.directory.api.ldap.model.filter.ExprNode;
-import org.apache.directory.api.ldap.model.filter.ObjectClassNode;
 import org.apache.directory.api.ldap.model.filter.PresenceNode;
 import org.apache.directory.api.ldap.model.message.AliasDerefMode;
 import org.apache.directory.api.ldap.model.message.ResultCodeEnum;
@@ -78,6 +79,7 @@ import org.apache.directory.server.core.api.interceptor.context.OperationContext
 import org.apache.directory.server.core.api.interceptor.context.RenameOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.SearchOperationContext;
 import org.apache.directory.server.core.api.partition.PartitionNexus;
+import org.apache.directory.server.core.api.subtree.IndexedSubentry;
 import org.apache.directory.server.core.api.subtree.SubentryCache;
 import org.apache.directory.server.core.api.subtree.SubtreeEvaluator;
 import org.apache.directory.server.i18n.I18n;
@@ -110,13 +112,8 @@ public class SubentryInterceptor extends BaseInterceptor
     /** A reference to the nexus for direct backend operations */
     private PartitionNexus nexus;
 
-    /** An enum used for the entries update */
-    private enum OperationEnum
-    {
-        ADD,
-        REMOVE,
-        REPLACE
-    }
+    /** Propagates the references to the subentries into the selected entries */
+    private SubentryPropagator propagator;
 
 
     /**
@@ -287,6 +284,49 @@ public class SubentryInterceptor extends BaseInterceptor
                 }
             }
         }
+
+        // Resume the propagations which were not done when the server was stopped
+        propagator = new SubentryPropagator( this, directoryService, Integer.getInteger(
+            SubentryPropagator.BATCH_SIZE_PROPERTY, SubentryPropagator.DEFAULT_BATCH_SIZE ) );
+        propagator.resume();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void destroy()
+    {
+        if ( propagator != null )
+        {
+            propagator.shutdown();
+        }
+    }
+
+
+    /**
+     * @return The propagator of the subentries references
+     */
+    SubentryPropagator getPropagator()
+    {
+        return propagator;
+    }
+
+
+    /**
+     * Replaces the propagator of the subentries references. The current one is stopped.
+     *
+     * @param propagator The new propagator
+     */
+    void setPropagator( SubentryPropagator propagator )
+    {
+        if ( this.propagator != null )
+        {
+            this.propagator.shutdown();
+        }
+
+        this.propagator = propagator;
     }
 
 
@@ -359,74 +399,16 @@ public class SubentryInterceptor extends BaseInterceptor
 
 
     /**
-     * Update all the entries under an AP adding the
+     * Checks that the references to a subentry are not being propagated, as the
+     * subentry can't be modified before the propagation is done
      */
-    private void updateEntries( OperationEnum operation, CoreSession session, Dn subentryDn, Dn apDn,
-        SubtreeSpecification ss, Dn baseDn, List<Attribute> operationalAttributes ) throws LdapException
+    private void checkNotPropagating( Dn subentryDn ) throws LdapException
     {
-        ExprNode filter = ObjectClassNode.OBJECT_CLASS_NODE; // (objectClass=*)
-        SearchControls controls = new SearchControls();
-        controls.setSearchScope( SearchControls.SUBTREE_SCOPE );
-        controls.setReturningAttributes( new String[]
-            { SchemaConstants.ALL_OPERATIONAL_ATTRIBUTES, SchemaConstants.ALL_USER_ATTRIBUTES } );
-
-        SearchOperationContext searchOperationContext = new SearchOperationContext( session,
-            baseDn, filter, controls );
-        searchOperationContext.setAliasDerefMode( AliasDerefMode.NEVER_DEREF_ALIASES );
-
-        EntryFilteringCursor subentries = nexus.search( searchOperationContext );
-
-        try
+        if ( propagator.isPropagating( subentryDn ) )
         {
-            while ( subentries.next() )
-            {
-                Entry candidate = subentries.get();
-                Dn candidateDn = candidate.getDn();
-
-                if ( directoryService.getEvaluator().evaluate( ss, apDn, candidateDn, candidate ) )
-                {
-                    List<Modification> modifications = null;
-
-                    switch ( operation )
-                    {
-                        case ADD:
-                            modifications = getOperationalModsForAdd( candidate, operationalAttributes );
-                            break;
-
-                        case REMOVE:
-                            modifications = getOperationalModsForRemove( subentryDn, candidate );
-                            break;
-
-                        case REPLACE:
-                            // TODO: why is that commented out???
-                            //modifications = getOperationalModsForReplace( subentryDn, candidate );
-                            break;
-
-                        default:
-                            throw new IllegalArgumentException( "Unexpected operation " + operation );
-                    }
-
-                    LOG.debug( "The entry {} has been evaluated to true for subentry {}", candidate.getDn(), subentryDn );
-                    nexus.modify( new ModifyOperationContext( session, candidateDn, modifications ) );
-                }
-            }
-
-            subentries.close();
-        }
-        catch ( Exception e )
-        {
-            throw new LdapOtherException( e.getMessage(), e );
-        }
-        finally
-        {
-            try
-            {
-                subentries.close();
-            }
-            catch ( Exception e )
-            {
-                LOG.error( I18n.err( I18n.ERR_168 ), e );
-            }
+            String msg = "The subentry " + subentryDn + " is being propagated, it can't be changed yet";
+            LOG.warn( msg );
+            throw new LdapUnwillingToPerformException( ResultCodeEnum.UNWILLING_TO_PERFORM, msg );
         }
     }
 
@@ -556,12 +538,15 @@ public class SubentryInterceptor extends BaseInterceptor
         SubentryCache subentryCache = directoryService.getSubentryCache();
         SubtreeEvaluator evaluator = directoryService.getEvaluator();
 
-        for ( Dn subentryDn : subentryCache )
+        // Only the subentries which area contains the old or the new name can select the entry
+        Set<IndexedSubentry> candidates = new LinkedHashSet<IndexedSubentry>( subentryCache.getSubentries( oldName ) );
+        candidates.addAll( subentryCache.getSubentries( newName ) );
+
+        for ( IndexedSubentry candidate : candidates )
         {
-            Dn apDn = subentryDn.getParent();
-            SubtreeSpecification ss = subentryCache.getSubentry( subentryDn ).getSubtreeSpecification();
-            boolean isOldNameSelected = evaluator.evaluate( ss, apDn, oldName, entry );
-            boolean isNewNameSelected = evaluator.evaluate( ss, apDn, newName, entry );
+            Dn subentryDn = candidate.getDn();
+            boolean isOldNameSelected = evaluator.evaluate( candidate, oldName, entry );
+            boolean isNewNameSelected = evaluator.evaluate( candidate, newName, entry );
 
             if ( isOldNameSelected == isNewNameSelected )
             {
@@ -709,7 +694,7 @@ public class SubentryInterceptor extends BaseInterceptor
      * Gets the subschema operational attributes to be added to or removed from
      * an entry selected by a subentry's subtreeSpecification.
      */
-    private List<Attribute> getSubentryOperationalAttributes( Dn dn, Subentry subentry ) throws LdapException
+    List<Attribute> getSubentryOperationalAttributes( Dn dn, Subentry subentry ) throws LdapException
     {
         List<Attribute> attributes = new ArrayList<Attribute>();
 
@@ -756,7 +741,7 @@ public class SubentryInterceptor extends BaseInterceptor
      * @return the set of modifications required to remove an entry's reference to
      * a subentry
      */
-    private List<Modification> getOperationalModsForRemove( Dn subentryDn, Entry candidate ) throws LdapException
+    List<Modification> getOperationalModsForRemove( Dn subentryDn, Entry candidate ) throws LdapException
     {
         List<Modification> modifications = new ArrayList<Modification>();
         String dn = subentryDn.getNormName();
@@ -785,7 +770,7 @@ public class SubentryInterceptor extends BaseInterceptor
      * selected by the subtree specification.  This method calculates the
      * modify operation to be performed on the entry.
      */
-    private List<Modification> getOperationalModsForAdd( Entry entry, List<Attribute> operationalAttributes )
+    List<Modification> getOperationalModsForAdd( Entry entry, List<Attribute> operationalAttributes )
         throws LdapException
     {
         List<Modification> modifications = new ArrayList<Modification>();
@@ -825,13 +810,17 @@ public class SubentryInterceptor extends BaseInterceptor
     {
         List<Modification> modList = new ArrayList<Modification>();
 
-        for ( Dn subentryDn : directoryService.getSubentryCache() )
+        for ( IndexedSubentry candidate : directoryService.getSubentryCache().getSubentries( name ) )
         {
-            Dn apDn = subentryDn.getParent();
-            SubtreeSpecification ss = directoryService.getSubentryCache().getSubentry( subentryDn )
-                .getSubtreeSpecification();
-            boolean isOldEntrySelected = directoryService.getEvaluator().evaluate( ss, apDn, name, oldEntry );
-            boolean isNewEntrySelected = directoryService.getEvaluator().evaluate( ss, apDn, name, newEntry );
+            // The name has not changed : without a refinement, the selection can't change either
+            if ( !candidate.hasRefinement() )
+            {
+                continue;
+            }
+
+            Dn subentryDn = candidate.getDn();
+            boolean isOldEntrySelected = directoryService.getEvaluator().evaluate( candidate, name, oldEntry );
+            boolean isNewEntrySelected = directoryService.getEvaluator().evaluate( candidate, name, newEntry );
 
             if ( isOldEntrySelected == isNewEntrySelected )
             {
@@ -894,6 +883,33 @@ public class SubentryInterceptor extends BaseInterceptor
     }
 
 
+    /**
+     * Injects a reference to a subentry selecting an added entry into this entry
+     */
+    private void injectSubentryReference( Entry entry, Dn subentryDn, Subentry subentry ) throws LdapException
+    {
+        if ( subentry.isAccessControlAdminRole() )
+        {
+            setOperationalAttribute( entry, subentryDn, ACCESS_CONTROL_SUBENTRIES_AT );
+        }
+
+        if ( subentry.isSchemaAdminRole() )
+        {
+            setOperationalAttribute( entry, subentryDn, SUBSCHEMA_SUBENTRY_AT );
+        }
+
+        if ( subentry.isCollectiveAdminRole() )
+        {
+            setOperationalAttribute( entry, subentryDn, COLLECTIVE_ATTRIBUTE_SUBENTRIES_AT );
+        }
+
+        if ( subentry.isTriggersAdminRole() )
+        {
+            setOperationalAttribute( entry, subentryDn, TRIGGER_EXECUTION_SUBENTRIES_AT );
+        }
+    }
+
+
     //-------------------------------------------------------------------------------------------
     // Interceptor API methods
     //-------------------------------------------------------------------------------------------
@@ -935,31 +951,28 @@ public class SubentryInterceptor extends BaseInterceptor
             List<Attribute> operationalAttributes = getSubentryOperationalAttributes( dn, subentry );
 
             /* ----------------------------------------------------------------
-             * Parse the subtreeSpecification of the subentry and add it to the
-             * SubtreeSpecification cache.  If the parse succeeds we continue
-             * to add the entry to the DIT.  Thereafter we search out entries
-             * to modify the subentry operational attributes of.
+             * Parse the subtreeSpecification of the subentry.  If the parse
+             * succeeds we continue to add the entry to the DIT.  Thereafter we
+             * search out entries to modify the subentry operational attributes
+             * of.
              * ----------------------------------------------------------------
              */
             setSubtreeSpecification( subentry, entry );
-            directoryService.getSubentryCache().addSubentry( dn, subentry );
 
             // Now inject the subentry into the backend
             next( addContext );
 
             /* ----------------------------------------------------------------
-             * Find the baseDn for the subentry and use that to search the tree
-             * while testing each entry returned for inclusion within the
-             * subtree of the subentry's subtreeSpecification.  All included
-             * entries will have their operational attributes merged with the
-             * operational attributes calculated above.
+             * Search the tree from the baseDn of the subentry while testing
+             * each entry returned for inclusion within the subtree of the
+             * subentry's subtreeSpecification.  All included entries will
+             * have their operational attributes merged with the operational
+             * attributes of the subentry. A large area is updated in the
+             * background, and the subentry is added to the SubentryCache
+             * once all the included entries have been updated.
              * ----------------------------------------------------------------
              */
-            Dn baseDn = apDn;
-            baseDn = baseDn.add( subentry.getSubtreeSpecification().getBase() );
-
-            updateEntries( OperationEnum.ADD, addContext.getSession(), dn, apDn, subentry.getSubtreeSpecification(),
-                baseDn, operationalAttributes );
+            propagator.add( dn, subentry );
 
             // Store the newly modified entry into the context for later use in interceptor
             // just in case
@@ -970,44 +983,28 @@ public class SubentryInterceptor extends BaseInterceptor
             // The added entry is not a Subentry.
             // Nevertheless, we have to check if the entry is added into an AdministrativePoint
             // and is associated with some SubtreeSpecification
-            // We brutally check *all* the subentries, as we don't hold a hierarchy
-            // of AP
-            // TODO : add a hierarchy of subentries
-            for ( Dn subentryDn : directoryService.getSubentryCache() )
+            // Only the subentries which area contains the entry have to be evaluated
+            for ( IndexedSubentry candidate : directoryService.getSubentryCache().getSubentries( dn ) )
             {
-                Dn apDn = subentryDn.getParent();
-
-                // No need to evaluate the entry if it's not below an AP.
-                if ( dn.isDescendantOf( apDn ) )
+                // Now, evaluate the entry wrt the subentry ss
+                // and inject a ref to the subentry if it evaluates to true
+                if ( directoryService.getEvaluator().evaluate( candidate, dn, entry ) )
                 {
-                    Subentry subentry = directoryService.getSubentryCache().getSubentry( subentryDn );
-                    SubtreeSpecification ss = subentry.getSubtreeSpecification();
-
-                    // Now, evaluate the entry wrt the subentry ss
-                    // and inject a ref to the subentry if it evaluates to true
-                    if ( directoryService.getEvaluator().evaluate( ss, apDn, dn, entry ) )
-                    {
-
-                        if ( subentry.isAccessControlAdminRole() )
-                        {
-                            setOperationalAttribute( entry, subentryDn, ACCESS_CONTROL_SUBENTRIES_AT );
-                        }
-
-                        if ( subentry.isSchemaAdminRole() )
-                        {
-                            setOperationalAttribute( entry, subentryDn, SUBSCHEMA_SUBENTRY_AT );
-                        }
+                    injectSubentryReference( entry, candidate.getDn(), candidate.getSubentry() );
+                }
+            }
 
-                        if ( subentry.isCollectiveAdminRole() )
-                        {
-                            setOperationalAttribute( entry, subentryDn, COLLECTIVE_ATTRIBUTE_SUBENTRIES_AT );
-                        }
+            // The subentries being propagated must also be referenced, as the
+            // propagation may have already gone past this entry
+            for ( Map.Entry<Dn, Subentry> pendingSubentry : propagator.getPendingSubentries().entrySet() )
+            {
+                Dn subentryDn = pendingSubentry.getKey();
+                Subentry subentry = pendingSubentry.getValue();
 
-                        if ( subentry.isTriggersAdminRole() )
-                        {
-                            setOperationalAttribute( entry, subentryDn, TRIGGER_EXECUTION_SUBENTRIES_AT );
-                        }
-                    }
+                if ( directoryService.getEvaluator().evaluate( subentry.getSubtreeSpecification(),
+                    subentryDn.getParent(), dn, entry ) )
+                {
+                    injectSubentryReference( entry, subentryDn, subentry );
                 }
             }
 
@@ -1033,29 +1030,26 @@ public class SubentryInterceptor extends BaseInterceptor
         // We first remove the re
         if ( entry.contains( OBJECT_CLASS_AT, SchemaConstants.SUBENTRY_OC ) )
         {
-            Subentry removedSubentry = directoryService.getSubentryCache().getSubentry( dn );
+            checkNotPropagating( dn );
+
+            // Update the cache. A subentry which has failed to be propagated is not in effect anymore
+            Subentry removedSubentry = directoryService.getSubentryCache().removeSubentry( dn );
+            directoryService.getSubentryCache().endPropagation( dn );
+
+            // Now delete the subentry itself
+            next( deleteContext );
 
             /* ----------------------------------------------------------------
-             * Find the baseDn for the subentry and use that to search the tree
-             * for all entries included by the subtreeSpecification.  Then we
-             * check the entry for subentry operational attribute that contain
-             * the Dn of the subentry.  These are the subentry operational
+             * Search the tree from the baseDn of the subentry for all the
+             * entries containing the Dn of the subentry in their subentry
+             * operational attributes.  These are the subentry operational
              * attributes we remove from the entry in a modify operation.
              * ----------------------------------------------------------------
              */
-            Dn apDn = dn.getParent();
-            Dn baseDn = apDn;
-            baseDn = baseDn.add( removedSubentry.getSubtreeSpecification().getBase() );
-
-            // Remove all the references to this removed subentry from all the selected entries
-            updateEntries( OperationEnum.REMOVE, deleteContext.getSession(), dn, apDn,
-                removedSubentry.getSubtreeSpecification(), baseDn, null );
-
-            // Update the cache
-            directoryService.getSubentryCache().removeSubentry( dn );
-
-            // Now delete the subentry itself
-            next( deleteContext );
+            if ( removedSubentry != null )
+            {
+                propagator.remove( dn, removedSubentry );
+            }
         }
         else
         {
@@ -1101,7 +1095,9 @@ public class SubentryInterceptor extends BaseInterceptor
         // Check if we have a modified subentry attribute in a Subentry entry
         if ( containsSubentryOC && isSubtreeSpecificationModification )
         {
-            Subentry subentry = directoryService.getSubentryCache().removeSubentry( dn );
+            checkNotPropagating( dn );
+
+            Subentry subentry = directoryService.getSubentryCache().getSubentry( dn );
             SubtreeSpecification ssOld = subentry.getSubtreeSpecification();
             SubtreeSpecification ssNew;
 
@@ -1116,103 +1112,21 @@ public class SubentryInterceptor extends BaseInterceptor
                 throw new LdapInvalidAttributeValueException( ResultCodeEnum.INVALID_ATTRIBUTE_SYNTAX, msg );
             }
 
-            subentry.setSubtreeSpecification( ssNew );
-            subentry.setAdministrativeRoles( getSubentryTypes( entry, modifications ) );
-            directoryService.getSubentryCache().addSubentry( dn, subentry );
+            // The old subentry stays in effect until the references have been moved
+            Subentry oldSubentry = new Subentry();
+            oldSubentry.setSubtreeSpecification( ssOld );
+            oldSubentry.setAdministrativeRoles( getSubentryAdminRoles( entry ) );
+            String oldSpecification = entry.get( SUBTREE_SPECIFICATION_AT ).getString();
 
             next( modifyContext );
+            directoryService.getSubentryCache().removeSubentry( dn );
 
-            // search for all entries selected by the old SS and remove references to subentry
-            Dn apName = dn.getParent();
-            Dn oldBaseDn = apName;
-            oldBaseDn = oldBaseDn.add( ssOld.getBase() );
-
-            ExprNode filter = new PresenceNode( OBJECT_CLASS_AT );
-            SearchControls controls = new SearchControls();
-            controls.setSearchScope( SearchControls.SUBTREE_SCOPE );
-            controls.setReturningAttributes( new String[]
-                { SchemaConstants.ALL_OPERATIONAL_ATTRIBUTES, SchemaConstants.ALL_USER_ATTRIBUTES } );
-
-            SearchOperationContext searchOperationContext = new SearchOperationContext( modifyContext.getSession(),
-                oldBaseDn, filter, controls );
-            searchOperationContext.setAliasDerefMode( AliasDerefMode.NEVER_DEREF_ALIASES );
-
-            EntryFilteringCursor subentries = nexus.search( searchOperationContext );
-
-            try
-            {
-                while ( subentries.next() )
-                {
-                    Entry candidate = subentries.get();
-                    Dn candidateDn = candidate.getDn();
-
-                    if ( directoryService.getEvaluator().evaluate( ssOld, apName, candidateDn, candidate ) )
-                    {
-                        nexus.modify( new ModifyOperationContext( modifyContext.getSession(), candidateDn,
-                            getOperationalModsForRemove( dn, candidate ) ) );
-                    }
-                }
-
-                subentries.close();
-            }
-            catch ( Exception e )
-            {
-                throw new LdapOperationErrorException( e.getMessage(), e );
-            }
-            finally
-            {
-                try
-                {
-                    subentries.close();
-                }
-                catch ( Exception e )
-                {
-                    LOG.error( I18n.err( I18n.ERR_168 ), e );
-                }
-            }
-
-            // search for all selected entries by the new SS and add references to subentry
-            subentry = directoryService.getSubentryCache().getSubentry( dn );
-            List<Attribute> operationalAttributes = getSubentryOperationalAttributes( dn, subentry );
-            Dn newBaseDn = apName;
-            newBaseDn = newBaseDn.add( ssNew.getBase() );
-
-            searchOperationContext = new SearchOperationContext( modifyContext.getSession(), newBaseDn, filter,
-                controls );
-            searchOperationContext.setAliasDerefMode( AliasDerefMode.NEVER_DEREF_ALIASES );
-
-            subentries = nexus.search( searchOperationContext );
-
-            try
-            {
-                while ( subentries.next() )
-                {
-                    Entry candidate = subentries.get();
-                    Dn candidateDn = candidate.getDn();
-
-                    if ( directoryService.getEvaluator().evaluate( ssNew, apName, candidateDn, candidate ) )
-                    {
-                        nexus.modify( new ModifyOperationContext( modifyContext.getSession(), candidateDn,
-                            getOperationalModsForAdd( candidate, operationalAttributes ) ) );
-                    }
-                }
-                subentries.close();
-            }
-            catch ( Exception e )
-            {
-                throw new LdapOperationErrorException( e.getMessage(), e );
-            }
-            finally
-            {
-                try
-                {
-                    subentries.close();
-                }
-                catch ( Exception e )
-                {
-                    LOG.error( I18n.err( I18n.ERR_168 ), e );
-                }
-            }
+            // remove the references to the subentry from all the entries selected by the old SS,
+            // and add references to the subentry into all the entries selected by the new SS. The
+            // subentry is put back into the cache once done.
+            subentry.setSubtreeSpecification( ssNew );
+            subentry.setAdministrativeRoles( getSubentryTypes( entry, modifications ) );
+            propagator.modify( dn, oldSubentry, oldSpecification, subentry );
         }
         else
         {
@@ -1270,6 +1184,8 @@ public class SubentryInterceptor extends BaseInterceptor
 
         if ( entry.contains( OBJECT_CLASS_AT, SchemaConstants.SUBENTRY_OC ) )
         {
+            checkNotPropagating( oldDn );
+
             // This is a subentry. Moving a subentry means we have to:
             // o Check that there is a new AP where we move the subentry
             // o Remove the op Attr from all the entry selected by the subentry
@@ -1384,6 +1300,8 @@ public class SubentryInterceptor extends BaseInterceptor
 
         if ( entry.contains( OBJECT_CLASS_AT, SchemaConstants.SUBENTRY_OC ) )
         {
+            checkNotPropagating( oldDn );
+
             Subentry subentry = directoryService.getSubentryCache().removeSubentry( oldDn );
             SubtreeSpecification ss = subentry.getSubtreeSpecification();
             Dn apName = oldDn.getParent();
@@ -1480,6 +1398,8 @@ public class SubentryInterceptor extends BaseInterceptor
 
         if ( entry.contains( OBJECT_CLASS_AT, SchemaConstants.SUBENTRY_OC ) )
         {
+            checkNotPropagating( oldDn );
+
             // @Todo To be reviewed !!!
             Subentry subentry = directoryService.getSubentryCache().removeSubentry( oldDn );
             SubtreeSpecification ss = subentry.getSubtreeSpecification();
@@ -0,0 +1,891 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.subtree;
+
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import javax.naming.directory.SearchControls;
+
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.Modification;
+import org.apache.directory.api.ldap.model.entry.Value;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.filter.ObjectClassNode;
+import org.apache.directory.api.ldap.model.message.AliasDerefMode;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.subtree.AdministrativeRole;
+import org.apache.directory.api.ldap.model.subtree.Subentry;
+import org.apache.directory.api.ldap.model.subtree.SubtreeSpecification;
+import org.apache.directory.api.ldap.model.subtree.SubtreeSpecificationParser;
+import org.apache.directory.server.core.api.CoreSession;
+import org.apache.directory.server.core.api.DirectoryService;
+import org.apache.directory.server.core.api.InstanceLayout;
+import org.apache.directory.server.core.api.filtering.EntryFilteringCursor;
+import org.apache.directory.server.core.api.interceptor.context.ModifyOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.SearchOperationContext;
+import org.apache.directory.server.core.api.monitor.MonitorCounter;
+import org.apache.directory.server.core.api.monitor.MonitorRegistry;
+import org.apache.directory.server.core.api.partition.PartitionNexus;
+import org.apache.directory.server.i18n.I18n;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Propagates the references to a subentry into the entries selected by its
+ * subtreeSpecification, when the subentry is added or deleted, or when its
+ * subtreeSpecification is modified.
+ * <br>
+ * The jobs are run one after the other, and the modifications are applied by batches.
+ * Each batch is applied while holding the write lock the OperationManager uses for the
+ * partition, as a client operation does, and the partitions are synced after each batch.
+ * The first batch of a job is applied by the operation which has submitted it, so that a
+ * small administrative area is updated before the operation returns. The remaining batches
+ * are applied by a background thread.
+ * <br>
+ * The new area of the subentry takes effect atomically, when the propagation is done : the
+ * propagation is registered in the {@link org.apache.directory.server.core.api.subtree.SubentryCache},
+ * and until it ends, the access control and collective attribute interceptors ignore the
+ * references to the subentry. They apply the subentry in effect before the propagation, if any,
+ * to the entries its subtree specification selects, whether their references have already been
+ * updated or not. An added subentry is only stored in the cache once all the selected entries
+ * reference it. Until then, the entries added in the administrative area get a reference to it.
+ * If the propagation fails, the subentry is stored in the cache, but the propagation is not
+ * ended : the previous subentry stays in effect until the propagation is resumed, when the
+ * server is restarted.
+ * <br>
+ * The pending jobs are written in a journal, in the run directory, and are resumed when
+ * the server is restarted. A job can be resumed at any time, as the entries which have
+ * already been updated are skipped.
+ * <br>
+ * The progress is logged after each batch, and the statistics are stored in the
+ * {@link MonitorRegistry#INTERCEPTORS} category :
+ * <ul>
+ *   <li>subentryPropagation.updated : the number of entries updated</li>
+ *   <li>subentryPropagation.pending : the number of jobs not done yet</li>
+ * </ul>
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+class SubentryPropagator
+{
+    /** The logger for this class */
+    private static final Logger LOG = LoggerFactory.getLogger( SubentryPropagator.class );
+
+    /** The system property used to set the number of entries updated per batch */
+    static final String BATCH_SIZE_PROPERTY = "apacheds.subentry.propagation.batchSize";
+
+    /** The default number of entries updated per batch */
+    static final int DEFAULT_BATCH_SIZE = 1000;
+
+    /** The name of the journal file, in the run directory */
+    private static final String JOURNAL_FILE = "subentry-propagation.journal";
+
+    /** The kind of propagation */
+    enum Operation
+    {
+        /** Add the references to the subentry */
+        ADD,
+
+        /** Remove the references to the subentry */
+        REMOVE
+    }
+
+    /** The interceptor computing the modifications */
+    private final SubentryInterceptor interceptor;
+
+    /** The DirectoryService */
+    private final DirectoryService directoryService;
+
+    /** The nexus */
+    private final PartitionNexus nexus;
+
+    /** The number of entries updated per batch */
+    private final int batchSize;
+
+    /** The journal, or null if there is no run directory */
+    private final File journal;
+
+    /** The background thread */
+    private final ExecutorService executor;
+
+    /** The jobs to run, in order. The first one is the running job */
+    private final LinkedList<PropagationJob> jobs = new LinkedList<PropagationJob>();
+
+    /** The jobs which have failed, resumed when the server is restarted */
+    private final List<PropagationJob> failedJobs = new ArrayList<PropagationJob>();
+
+    /** The added subentries which are not yet stored in the cache */
+    private final Map<Dn, Subentry> pendingSubentries = new ConcurrentHashMap<Dn, Subentry>();
+
+    /** Set when the server is stopped */
+    private volatile boolean stopped;
+
+    /** The number of entries updated */
+    private final MonitorCounter updated;
+
+
+    /**
+     * Creates a new instance of SubentryPropagator.
+     *
+     * @param interceptor The interceptor computing the modifications
+     * @param directoryService The DirectoryService
+     * @param batchSize The number of entries updated per batch
+     */
+    SubentryPropagator( SubentryInterceptor interceptor, DirectoryService directoryService, int batchSize )
+    {
+        this.interceptor = interceptor;
+        this.directoryService = directoryService;
+        this.batchSize = Math.max( 1, batchSize );
+        nexus = directoryService.getPartitionNexus();
+
+        InstanceLayout layout = directoryService.getInstanceLayout();
+        journal = ( layout == null ) ? null : new File( layout.getRunDirectory(), JOURNAL_FILE );
+
+        executor = Executors.newSingleThreadExecutor( new ThreadFactory()
+        {
+            public Thread newThread( Runnable runnable )
+            {
+                Thread thread = new Thread( runnable, "SubentryPropagator" );
+                thread.setDaemon( true );
+
+                return thread;
+            }
+        } );
+
+        MonitorRegistry registry = directoryService.getMonitorRegistry();
+        updated = registry.getCounter( MonitorRegistry.INTERCEPTORS, "subentryPropagation.updated" );
+        registry.register( MonitorRegistry.INTERCEPTORS, "subentryPropagation.pending", new PendingJobs() );
+    }
+
+
+    /**
+     * Adds the references to an added subentry. The subentry is stored in the cache, and
+     * takes effect, once all the selected entries have been updated.
+     *
+     * @param subentryDn The subentry Dn
+     * @param subentry The subentry
+     * @throws LdapException If the propagation can't be prepared
+     */
+    void add( Dn subentryDn, Subentry subentry ) throws LdapException
+    {
+        PropagationJob job = new PropagationJob( Operation.ADD, subentryDn, getBaseDn( subentryDn, subentry ),
+            subentry, null, null );
+
+        directoryService.getSubentryCache().startPropagation( subentryDn, null );
+        submit( job );
+    }
+
+
+    /**
+     * Moves the references to a subentry which subtreeSpecification has been modified : they
+     * are removed from the entries selected by the previous subtreeSpecification, then added
+     * to the entries selected by the new one. The previous subentry stays in effect until the
+     * subentry is stored back in the cache, once all the selected entries have been updated.
+     *
+     * @param subentryDn The subentry Dn
+     * @param previous The subentry with the previous subtreeSpecification and administrative roles
+     * @param previousSpecification The previous subtreeSpecification value
+     * @param subentry The modified subentry
+     * @throws LdapException If the propagation can't be prepared
+     */
+    void modify( Dn subentryDn, Subentry previous, String previousSpecification, Subentry subentry )
+        throws LdapException
+    {
+        PropagationJob removeJob = new PropagationJob( Operation.REMOVE, subentryDn, getBaseDn( subentryDn,
+            previous ), null, null, null );
+        PropagationJob addJob = new PropagationJob( Operation.ADD, subentryDn, getBaseDn( subentryDn, subentry ),
+            subentry, previous, previousSpecification );
+
+        directoryService.getSubentryCache().startPropagation( subentryDn, previous );
+        submit( removeJob );
+        submit( addJob );
+    }
+
+
+    /**
+     * Removes the references to a subentry which has been removed from the cache.
+     *
+     * @param subentryDn The subentry Dn
+     * @param subentry The subentry, with the subtreeSpecification which has selected the entries
+     * @throws LdapException If the propagation can't be prepared
+     */
+    void remove( Dn subentryDn, Subentry subentry ) throws LdapException
+    {
+        submit( new PropagationJob( Operation.REMOVE, subentryDn, getBaseDn( subentryDn, subentry ), null, null,
+            null ) );
+    }
+
+
+    /**
+     * @return The added subentries which are not yet stored in the cache
+     */
+    Map<Dn, Subentry> getPendingSubentries()
+    {
+        return pendingSubentries;
+    }
+
+
+    /**
+     * Tells if the references to a subentry are being propagated
+     *
+     * @param subentryDn The subentry Dn
+     * @return true if a job for this subentry is not done yet
+     */
+    boolean isPropagating( Dn subentryDn )
+    {
+        synchronized ( jobs )
+        {
+            for ( PropagationJob job : jobs )
+            {
+                if ( job.subentryDn.equals( subentryDn ) )
+                {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+    }
+
+
+    /**
+     * Resumes the jobs stored in the journal. This must be called once the cache has been
+     * loaded, as the added subentries are removed from it until their job is done.
+     */
+    void resume()
+    {
+        if ( ( journal == null ) || !journal.exists() )
+        {
+            return;
+        }
+
+        List<PropagationJob> resumed = new ArrayList<PropagationJob>();
+
+        try
+        {
+            DataInputStream in = new DataInputStream( new BufferedInputStream( new FileInputStream( journal ) ) );
+
+            try
+            {
+                int nbJobs = in.readInt();
+                SubtreeSpecificationParser ssParser = new SubtreeSpecificationParser(
+                    directoryService.getSchemaManager() );
+
+                for ( int i = 0; i < nbJobs; i++ )
+                {
+                    Operation operation = Operation.valueOf( in.readUTF() );
+                    Dn subentryDn = directoryService.getDnFactory().create( in.readUTF() );
+                    Dn baseDn = directoryService.getDnFactory().create( in.readUTF() );
+                    Subentry subentry = null;
+                    Subentry previous = null;
+                    String previousSpecification = null;
+
+                    if ( operation == Operation.ADD )
+                    {
+                        if ( in.readBoolean() )
+                        {
+                            previousSpecification = in.readUTF();
+                            previous = new Subentry();
+                            previous.setSubtreeSpecification( ssParser.parse( previousSpecification ) );
+
+                            Set<AdministrativeRole> roles = new HashSet<AdministrativeRole>();
+                            int nbRoles = in.readInt();
+
+                            for ( int j = 0; j < nbRoles; j++ )
+                            {
+                                roles.add( AdministrativeRole.valueOf( in.readUTF() ) );
+                            }
+
+                            previous.setAdministrativeRoles( roles );
+                        }
+
+                        subentry = directoryService.getSubentryCache().removeSubentry( subentryDn );
+
+                        if ( subentry == null )
+                        {
+                            LOG.warn( "The subentry {} does not exist anymore, its propagation is not resumed",
+                                subentryDn );
+                            continue;
+                        }
+
+                        // The previous subentry is in effect until the propagation is done
+                        directoryService.getSubentryCache().startPropagation( subentryDn, previous );
+                    }
+
+                    resumed.add( new PropagationJob( operation, subentryDn, baseDn, subentry, previous,
+                        previousSpecification ) );
+                }
+            }
+            finally
+            {
+                in.close();
+            }
+        }
+        catch ( Exception e )
+        {
+            LOG.error( "Failed to read the subentry propagation journal {}", journal, e );
+        }
+
+        synchronized ( jobs )
+        {
+            jobs.addAll( resumed );
+            writeJournal();
+
+            if ( jobs.isEmpty() )
+            {
+                return;
+            }
+        }
+
+        LOG.info( "Resuming the propagation of {} subentries", resumed.size() );
+        executor.execute( new Worker() );
+    }
+
+
+    /**
+     * Stops the background thread. The jobs which are not done are kept in the journal.
+     */
+    void shutdown()
+    {
+        stopped = true;
+        executor.shutdown();
+
+        try
+        {
+            if ( !executor.awaitTermination( 5, TimeUnit.SECONDS ) )
+            {
+                executor.shutdownNow();
+            }
+        }
+        catch ( InterruptedException ie )
+        {
+            Thread.currentThread().interrupt();
+            executor.shutdownNow();
+        }
+    }
+
+
+    /**
+     * Queues a job. If no other job is running, its first batch is applied right away.
+     */
+    private void submit( PropagationJob job )
+    {
+        synchronized ( jobs )
+        {
+            jobs.add( job );
+            writeJournal();
+
+            if ( jobs.size() > 1 )
+            {
+                // The previous jobs will run this one when they are done
+                return;
+            }
+        }
+
+        if ( canApplyInline( job ) && propagate( job, 1 ) )
+        {
+            synchronized ( jobs )
+            {
+                if ( jobs.isEmpty() )
+                {
+                    return;
+                }
+            }
+        }
+
+        executor.execute( new Worker() );
+    }
+
+
+    /**
+     * Tells if the current thread can apply a batch of a job : a thread holding the read
+     * lock of the partition can't take its write lock, the job is then run in the background.
+     */
+    private boolean canApplyInline( PropagationJob job )
+    {
+        ReadWriteLock lock = directoryService.getOperationManager().getRWLock( job.baseDn );
+
+        if ( lock instanceof ReentrantReadWriteLock )
+        {
+            ReentrantReadWriteLock reentrantLock = ( ReentrantReadWriteLock ) lock;
+
+            return reentrantLock.isWriteLockedByCurrentThread() || ( reentrantLock.getReadHoldCount() == 0 );
+        }
+
+        return false;
+    }
+
+
+    /**
+     * Applies some batches of a job.
+     *
+     * @param job The job
+     * @param maxBatches The maximum number of batches to apply
+     * @return true if the job is over, false if it has to be resumed
+     */
+    private boolean propagate( PropagationJob job, int maxBatches )
+    {
+        if ( job.operation == Operation.ADD )
+        {
+            pendingSubentries.put( job.subentryDn, job.subentry );
+        }
+
+        CoreSession session = directoryService.getAdminSession();
+        SearchControls controls = new SearchControls();
+        controls.setSearchScope( SearchControls.SUBTREE_SCOPE );
+        controls.setReturningAttributes( new String[]
+            { SchemaConstants.ALL_OPERATIONAL_ATTRIBUTES, SchemaConstants.ALL_USER_ATTRIBUTES } );
+
+        SearchOperationContext searchOperationContext = new SearchOperationContext( session, job.baseDn,
+            ObjectClassNode.OBJECT_CLASS_NODE, controls );
+        searchOperationContext.setAliasDerefMode( AliasDerefMode.NEVER_DEREF_ALIASES );
+
+        List<ModifyOperationContext> batch = new ArrayList<ModifyOperationContext>();
+        int nbBatches = 0;
+        job.read = 0;
+        EntryFilteringCursor candidates = null;
+
+        try
+        {
+            candidates = nexus.search( searchOperationContext );
+
+            while ( candidates.next() )
+            {
+                if ( stopped )
+                {
+                    return false;
+                }
+
+                Entry candidate = candidates.get();
+                job.read++;
+
+                List<Modification> modifications = job.getModifications( candidate );
+
+                if ( modifications.isEmpty() )
+                {
+                    continue;
+                }
+
+                batch.add( new ModifyOperationContext( session, candidate.getDn(), modifications ) );
+
+                if ( batch.size() >= batchSize )
+                {
+                    apply( job, batch );
+                    nbBatches++;
+
+                    if ( nbBatches >= maxBatches )
+                    {
+                        return false;
+                    }
+                }
+            }
+
+            apply( job, batch );
+        }
+        catch ( Exception e )
+        {
+            LOG.error( "Failed to propagate the subentry {}, the propagation will be resumed at the next start",
+                job.subentryDn, e );
+
+            // The entries added in the area must still reference the subentry, but the
+            // propagation is not ended : the references are ignored until it's resumed
+            if ( job.operation == Operation.ADD )
+            {
+                directoryService.getSubentryCache().addSubentry( job.subentryDn, job.subentry );
+                pendingSubentries.remove( job.subentryDn );
+            }
+
+            synchronized ( jobs )
+            {
+                jobs.remove( job );
+                failedJobs.add( job );
+                writeJournal();
+            }
+
+            return true;
+        }
+        finally
+        {
+            if ( candidates != null )
+            {
+                try
+                {
+                    candidates.close();
+                }
+                catch ( Exception e )
+                {
+                    LOG.error( I18n.err( I18n.ERR_168 ), e );
+                }
+            }
+        }
+
+        // All the entries reference the subentry : it takes effect
+        if ( job.operation == Operation.ADD )
+        {
+            directoryService.getSubentryCache().addSubentry( job.subentryDn, job.subentry );
+            pendingSubentries.remove( job.subentryDn );
+            directoryService.getSubentryCache().endPropagation( job.subentryDn );
+        }
+
+        LOG.debug( "Propagation of the subentry {} done, {} entries updated", job.subentryDn, job.updated );
+
+        synchronized ( jobs )
+        {
+            jobs.remove( job );
+            writeJournal();
+        }
+
+        return true;
+    }
+
+
+    /**
+     * Applies a batch of modifications under the partition write lock, and syncs the partitions
+     */
+    private void apply( PropagationJob job, List<ModifyOperationContext> batch ) throws Exception
+    {
+        if ( batch.isEmpty() )
+        {
+            return;
+        }
+
+        Lock lock = directoryService.getOperationManager().getRWLock( job.baseDn ).writeLock();
+        lock.lock();
+
+        try
+        {
+            for ( ModifyOperationContext modifyContext : batch )
+            {
+                modify( modifyContext );
+            }
+
+            nexus.sync();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+
+        job.updated += batch.size();
+        updated.add( batch.size() );
+        batch.clear();
+
+        LOG.info( "Propagation of the subentry {} : {} entries read, {} entries updated", job.subentryDn,
+            job.read, job.updated );
+    }
+
+
+    /**
+     * Applies the modification of an entry of the area
+     *
+     * @param modifyContext The modification
+     * @throws LdapException If the entry can't be modified
+     */
+    void modify( ModifyOperationContext modifyContext ) throws LdapException
+    {
+        nexus.modify( modifyContext );
+    }
+
+
+    /**
+     * Writes the pending and failed jobs in the journal, or deletes it if there is none.
+     * This method must be called while holding the jobs lock.
+     */
+    private void writeJournal()
+    {
+        if ( journal == null )
+        {
+            return;
+        }
+
+        if ( jobs.isEmpty() && failedJobs.isEmpty() )
+        {
+            if ( journal.exists() && !journal.delete() )
+            {
+                LOG.warn( "Failed to delete the subentry propagation journal {}", journal );
+            }
+
+            return;
+        }
+
+        File tmpJournal = new File( journal.getPath() + ".tmp" );
+
+        try
+        {
+            DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream(
+                tmpJournal ) ) );
+
+            try
+            {
+                out.writeInt( jobs.size() + failedJobs.size() );
+
+                for ( PropagationJob job : failedJobs )
+                {
+                    job.write( out );
+                }
+
+                for ( PropagationJob job : jobs )
+                {
+                    job.write( out );
+                }
+            }
+            finally
+            {
+                out.close();
+            }
+
+            if ( journal.exists() && !journal.delete() )
+            {
+                throw new IOException( "Cannot delete " + journal );
+            }
+
+            if ( !tmpJournal.renameTo( journal ) )
+            {
+                throw new IOException( "Cannot rename " + tmpJournal );
+            }
+        }
+        catch ( IOException ioe )
+        {
+            LOG.error( "Failed to write the subentry propagation journal {}", journal, ioe );
+        }
+    }
+
+
+    /**
+     * Computes the base of the area selected by a subentry
+     */
+    private Dn getBaseDn( Dn subentryDn, Subentry subentry ) throws LdapException
+    {
+        Dn baseDn = subentryDn.getParent();
+
+        return baseDn.add( subentry.getSubtreeSpecification().getBase() );
+    }
+
+
+    /**
+     * The propagation of the references to a subentry.
+     */
+    private class PropagationJob
+    {
+        /** The kind of propagation */
+        private final Operation operation;
+
+        /** The subentry Dn */
+        private final Dn subentryDn;
+
+        /** The base of the area selected by the subentry */
+        private final Dn baseDn;
+
+        /** The added subentry, null when the references are removed */
+        private final Subentry subentry;
+
+        /** The subentry in effect until the references are added, if any */
+        private final Subentry previous;
+
+        /** The subtreeSpecification of the previous subentry */
+        private final String previousSpecification;
+
+        /** The references added to the selected entries */
+        private final List<Attribute> operationalAttributes;
+
+        /** The number of entries read so far */
+        private long read;
+
+        /** The number of entries updated so far */
+        private long updated;
+
+
+        private PropagationJob( Operation operation, Dn subentryDn, Dn baseDn, Subentry subentry, Subentry previous,
+            String previousSpecification ) throws LdapException
+        {
+            this.operation = operation;
+            this.subentryDn = subentryDn;
+            this.baseDn = baseDn;
+            this.subentry = subentry;
+            this.previous = previous;
+            this.previousSpecification = previousSpecification;
+
+            if ( operation == Operation.ADD )
+            {
+                operationalAttributes = interceptor.getSubentryOperationalAttributes( subentryDn, subentry );
+            }
+            else
+            {
+                operationalAttributes = Collections.emptyList();
+            }
+        }
+
+
+        /**
+         * Computes the modifications to apply to an entry of the area. Nothing has to be done
+         * if the entry has already been updated, so a job can be run again.
+         */
+        private List<Modification> getModifications( Entry candidate ) throws LdapException
+        {
+            if ( operation == Operation.REMOVE )
+            {
+                // All the references are removed, whatever the entries selected by the subentry
+                return interceptor.getOperationalModsForRemove( subentryDn, candidate );
+            }
+
+            SubtreeSpecification ss = subentry.getSubtreeSpecification();
+
+            if ( !directoryService.getEvaluator().evaluate( ss, subentryDn.getParent(), candidate.getDn(),
+                candidate ) || isReferencing( candidate ) )
+            {
+                return Collections.emptyList();
+            }
+
+            return interceptor.getOperationalModsForAdd( candidate, operationalAttributes );
+        }
+
+
+        /**
+         * Tells if an entry already has all the references to the subentry
+         */
+        private boolean isReferencing( Entry candidate )
+        {
+            for ( Attribute operationalAttribute : operationalAttributes )
+            {
+                Attribute opAttrInEntry = candidate.get( operationalAttribute.getAttributeType() );
+
+                if ( opAttrInEntry == null )
+                {
+                    return false;
+                }
+
+                for ( Value<?> value : operationalAttribute )
+                {
+                    if ( !opAttrInEntry.contains( value ) )
+                    {
+                        return false;
+                    }
+                }
+            }
+
+            return true;
+        }
+
+
+        private void write( DataOutputStream out ) throws IOException
+        {
+            out.writeUTF( operation.name() );
+            out.writeUTF( subentryDn.getName() );
+            out.writeUTF( baseDn.getName() );
+
+            if ( operation == Operation.ADD )
+            {
+                out.writeBoolean( previous != null );
+
+                if ( previous != null )
+                {
+                    out.writeUTF( previousSpecification );
+                    out.writeInt( previous.getAdministrativeRoles().size() );
+
+                    for ( AdministrativeRole role : previous.getAdministrativeRoles() )
+                    {
+                        out.writeUTF( role.name() );
+                    }
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Runs the queued jobs, until there is none left.
+     */
+    private class Worker implements Runnable
+    {
+        public void run()
+        {
+            while ( !stopped )
+            {
+                PropagationJob job;
+
+                synchronized ( jobs )
+                {
+                    job = jobs.peek();
+                }
+
+                if ( ( job == null ) || !propagate( job, Integer.MAX_VALUE ) )
+                {
+                    return;
+                }
+            }
+        }
+    }
+
+
+    /**
+     * The number of jobs not done yet. It can't be reset.
+     */
+    private class PendingJobs extends MonitorCounter
+    {
+        @Override
+        public long getValue()
+        {
+            synchronized ( jobs )
+            {
+                return jobs.size() + failedJobs.size();
+            }
+        }
+
+
+        @Override
+        public void reset()
+        {
+            // The number of pending jobs is not a counter
+        }
+
+
+        @Override
+        public String toString()
+        {
+            return Long.toString( getValue() );
+        }
+    }
+}
@@ -0,0 +1,240 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.subtree;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import net.sf.ehcache.Cache;
+import net.sf.ehcache.CacheManager;
+
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.filter.FilterParser;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.model.subtree.Subentry;
+import org.apache.directory.api.ldap.model.subtree.SubtreeSpecification;
+import org.apache.directory.api.ldap.model.subtree.SubtreeSpecificationModifier;
+import org.apache.directory.api.ldap.schema.extractor.SchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.extractor.impl.DefaultSchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.loader.LdifSchemaLoader;
+import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
+import org.apache.directory.api.util.exception.Exceptions;
+import org.apache.directory.server.core.api.DnFactory;
+import org.apache.directory.server.core.api.subtree.IndexedSubentry;
+import org.apache.directory.server.core.api.subtree.SubentryCache;
+import org.apache.directory.server.core.api.subtree.SubtreeEvaluator;
+import org.apache.directory.server.core.shared.DefaultDnFactory;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+
+/**
+ * Unit test cases for the index of the SubentryCache.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class SubentryCacheTest
+{
+    private static DnFactory dnFactory;
+    private static SchemaManager schemaManager;
+    private static SubtreeEvaluator evaluator;
+
+
+    @BeforeClass
+    public static void init() throws Exception
+    {
+        String workingDirectory = System.getProperty( "workingDirectory" );
+
+        if ( workingDirectory == null )
+        {
+            String path = SubentryCacheTest.class.getResource( "" ).getPath();
+            int targetPos = path.indexOf( "target" );
+            workingDirectory = path.substring( 0, targetPos + 6 );
+        }
+
+        File schemaRepository = new File( workingDirectory, "schema" );
+        SchemaLdifExtractor extractor = new DefaultSchemaLdifExtractor( new File( workingDirectory ) );
+        extractor.extractOrCopy( true );
+        LdifSchemaLoader loader = new LdifSchemaLoader( schemaRepository );
+        schemaManager = new DefaultSchemaManager( loader );
+
+        boolean loaded = schemaManager.loadAllEnabled();
+
+        if ( !loaded )
+        {
+            fail( "Schema load failed : " + Exceptions.printErrors( schemaManager.getErrors() ) );
+        }
+
+        CacheManager.getInstance().addCacheIfAbsent( "dnCache" );
+        Cache dnCache = CacheManager.getInstance().getCache( "dnCache" );
+        dnFactory = new DefaultDnFactory( schemaManager, dnCache );
+
+        evaluator = new SubtreeEvaluator( schemaManager );
+    }
+
+
+    @AfterClass
+    public static void tearDown() throws Exception
+    {
+        evaluator = null;
+        schemaManager = null;
+    }
+
+
+    private Subentry createSubentry( SubtreeSpecification ss )
+    {
+        Subentry subentry = new Subentry();
+        subentry.setSubtreeSpecification( ss );
+
+        return subentry;
+    }
+
+
+    private Set<String> getSubentries( SubentryCache cache, String dn ) throws Exception
+    {
+        Set<String> names = new HashSet<String>();
+
+        for ( IndexedSubentry indexed : cache.getSubentries( dnFactory.create( dn ) ) )
+        {
+            names.add( indexed.getDn().getRdn().getValue().getString() );
+        }
+
+        return names;
+    }
+
+
+    @Test
+    public void testGetSubentries() throws Exception
+    {
+        SubentryCache cache = new SubentryCache();
+
+        SubtreeSpecificationModifier modifier = new SubtreeSpecificationModifier();
+        modifier.setBase( dnFactory.create( "ou=users" ) );
+        cache.addSubentry( dnFactory.create( "cn=a,ou=system" ), createSubentry( modifier.getSubtreeSpecification() ) );
+
+        modifier = new SubtreeSpecificationModifier();
+        cache.addSubentry( dnFactory.create( "cn=b,ou=system" ), createSubentry( modifier.getSubtreeSpecification() ) );
+        cache.addSubentry( dnFactory.create( "cn=c,ou=groups,ou=system" ),
+            createSubentry( modifier.getSubtreeSpecification() ) );
+
+        Set<String> subentries = getSubentries( cache, "uid=akarasulu,ou=users,ou=system" );
+        assertEquals( 2, subentries.size() );
+        assertTrue( subentries.contains( "a" ) );
+        assertTrue( subentries.contains( "b" ) );
+
+        subentries = getSubentries( cache, "ou=users,ou=system" );
+        assertEquals( 2, subentries.size() );
+
+        subentries = getSubentries( cache, "ou=system" );
+        assertEquals( 1, subentries.size() );
+        assertTrue( subentries.contains( "b" ) );
+
+        subentries = getSubentries( cache, "cn=admins,ou=groups,ou=system" );
+        assertEquals( 2, subentries.size() );
+        assertTrue( subentries.contains( "b" ) );
+        assertTrue( subentries.contains( "c" ) );
+
+        assertTrue( getSubentries( cache, "ou=abc" ).isEmpty() );
+
+        // Remove a subentry, and replace another one with a different base
+        cache.removeSubentry( dnFactory.create( "cn=b,ou=system" ) );
+        modifier = new SubtreeSpecificationModifier();
+        modifier.setBase( dnFactory.create( "ou=groups" ) );
+        cache.addSubentry( dnFactory.create( "cn=a,ou=system" ), createSubentry( modifier.getSubtreeSpecification() ) );
+
+        assertTrue( getSubentries( cache, "uid=akarasulu,ou=users,ou=system" ).isEmpty() );
+        assertTrue( getSubentries( cache, "ou=system" ).isEmpty() );
+
+        subentries = getSubentries( cache, "cn=admins,ou=groups,ou=system" );
+        assertEquals( 2, subentries.size() );
+        assertTrue( subentries.contains( "a" ) );
+        assertTrue( subentries.contains( "c" ) );
+        assertEquals( 2, cache.getCacheSize() );
+    }
+
+
+    @Test
+    public void testEvaluateIndexedSubentry() throws Exception
+    {
+        SubtreeSpecificationModifier modifier = new SubtreeSpecificationModifier();
+        Set<Dn> chopAfter = new HashSet<Dn>();
+        chopAfter.add( dnFactory.create( "uid=Tori Amos" ) );
+        modifier.setChopAfterExclusions( chopAfter );
+        Set<Dn> chopBefore = new HashSet<Dn>();
+        chopBefore.add( dnFactory.create( "ou=threelevels,ou=twolevels,uid=akarasulu" ) );
+        modifier.setChopBeforeExclusions( chopBefore );
+        modifier.setMinBaseDistance( 1 );
+        modifier.setMaxBaseDistance( 3 );
+        modifier.setBase( dnFactory.create( "ou=users" ) );
+        modifier.setRefinement( FilterParser.parse( schemaManager, "(objectClass=person)" ) );
+        SubtreeSpecification ss = modifier.getSubtreeSpecification();
+
+        SubentryCache cache = new SubentryCache();
+        Dn subentryDn = dnFactory.create( "cn=subentry,ou=system" );
+        cache.addSubentry( subentryDn, createSubentry( ss ) );
+
+        String[] names = new String[]
+            {
+                "ou=system",
+                "ou=users,ou=system",
+                "uid=akarasulu,ou=users,ou=system",
+                "uid=Tori Amos,ou=users,ou=system",
+                "ou=child,uid=Tori Amos,ou=users,ou=system",
+                "ou=twolevels,uid=akarasulu,ou=users,ou=system",
+                "ou=threelevels,ou=twolevels,uid=akarasulu,ou=users,ou=system",
+                "ou=fourlevels,ou=threelevels,ou=twolevels,uid=akarasulu,ou=users,ou=system"
+        };
+
+        for ( String name : names )
+        {
+            Dn entryDn = dnFactory.create( name );
+
+            for ( String objectClass : new String[]
+                { "person", "organizationalUnit" } )
+            {
+                Entry entry = new DefaultEntry( schemaManager, entryDn, "objectClass: top", "objectClass: "
+                    + objectClass );
+                boolean expected = evaluator.evaluate( ss, subentryDn.getParent(), entryDn, entry );
+                List<IndexedSubentry> candidates = cache.getSubentries( entryDn );
+
+                if ( candidates.isEmpty() )
+                {
+                    assertFalse( name, expected );
+                }
+                else
+                {
+                    assertEquals( 1, candidates.size() );
+                    assertEquals( name, expected, evaluator.evaluate( candidates.get( 0 ), entryDn, entry ) );
+                }
+            }
+        }
+    }
+}
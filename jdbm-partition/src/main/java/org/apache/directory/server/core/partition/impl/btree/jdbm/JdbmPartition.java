@@ -65,6 +65,8 @@ import org.apache.directory.server.core.api.partition.Partition;
 import org.apache.directory.server.core.partition.impl.btree.AbstractBTreePartition;
 import org.apache.directory.server.i18n.I18n;
 import org.apache.directory.server.xdbm.Index;
+import org.apache.directory.server.xdbm.NgramIndex;
+import org.apache.directory.server.xdbm.OffHeapEntryCache;
 import org.apache.directory.server.xdbm.search.impl.CursorBuilder;
 import org.apache.directory.server.xdbm.search.impl.DefaultOptimizer;
 import org.apache.directory.server.xdbm.search.impl.DefaultSearchEngine;
@@ -87,6 +89,9 @@ public class JdbmPartition extends AbstractBTreePartition
 
     private static final String JDBM_DB_FILE_EXTN = ".db";
 
+    /** The sub-directory storing the n-gram indices */
+    private static final String NGRAM_DIR = "ngram";
+
     private static final FilenameFilter DB_FILTER = new FilenameFilter()
     {
 
@@ -141,7 +146,10 @@ public class JdbmPartition extends AbstractBTreePartition
             EvaluatorBuilder evaluatorBuilder = new EvaluatorBuilder( this, schemaManager );
             CursorBuilder cursorBuilder = new CursorBuilder( this, evaluatorBuilder );
 
-            setSearchEngine( new DefaultSearchEngine( this, cursorBuilder, evaluatorBuilder, getOptimizer() ) );
+            DefaultSearchEngine engine = new DefaultSearchEngine( this, cursorBuilder, evaluatorBuilder,
+                getOptimizer() );
+            engine.setStreaming( searchStreamingEnabled );
+            setSearchEngine( engine );
 
             // Create the underlying directories (only if needed)
             File partitionDir = new File( getPartitionPath() );
@@ -217,6 +225,9 @@ public class JdbmPartition extends AbstractBTreePartition
                 buildUserIndex( indexToBuild );
             }
 
+            // Build the n-gram indices which have just been created
+            buildNgramIndices();
+
             deleteUnusedIndexFiles( allIndices, allIndexDbFiles );
 
             if ( cacheService != null )
@@ -302,6 +313,43 @@ public class JdbmPartition extends AbstractBTreePartition
     }
 
 
+    /**
+     * {@inheritDoc}
+     * The JDBM tables and indexes serialize their own updates, so distinct entries
+     * can be modified concurrently.
+     */
+    @Override
+    protected boolean supportsConcurrentModifications()
+    {
+        return true;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     * The entries are serialized as in the master table.
+     */
+    @Override
+    protected OffHeapEntryCache createOffHeapEntryCache( int sizeInMb )
+    {
+        final EntrySerializer serializer = new EntrySerializer( schemaManager );
+
+        return new OffHeapEntryCache( sizeInMb )
+        {
+            protected byte[] serialize( Entry entry ) throws IOException
+            {
+                return serializer.serialize( entry );
+            }
+
+
+            protected Entry deserialize( byte[] bytes ) throws IOException
+            {
+                return ( Entry ) serializer.deserialize( bytes );
+            }
+        };
+    }
+
+
     /**
      * This method is called when the synch thread is waking up, to write
      * the modified data.
@@ -327,11 +375,40 @@ public class JdbmPartition extends AbstractBTreePartition
             idx.sync();
         }
 
+        // Sync all the n-gram indices
+        for ( NgramIndex ngramIdx : ngramIndices.values() )
+        {
+            ngramIdx.sync();
+        }
+
         // Sync the master table
         ( ( JdbmMasterTable ) master ).sync();
     }
 
 
+    /**
+     * {@inheritDoc}
+     * The n-grams are stored in a JDBM index, in the 'ngram' sub-directory of the partition.
+     */
+    @Override
+    protected Index<String, String> createNgramIndex( AttributeType attributeType ) throws Exception
+    {
+        File ngramDir = new File( new File( partitionPath ), NGRAM_DIR );
+
+        if ( !ngramDir.exists() && !ngramDir.mkdirs() )
+        {
+            throw new IOException( I18n.err( I18n.ERR_112_COULD_NOT_CREATE_DIRECORY, ngramDir ) );
+        }
+
+        JdbmIndex<String> ngramIdx = new JdbmIndex<String>( attributeType.getOid(), false );
+        ngramIdx.setNumDupLimit( JdbmIndex.DEFAULT_DUPLICATE_LIMIT );
+        ngramIdx.setWkDirPath( ngramDir.toURI() );
+        ngramIdx.init( schemaManager, attributeType );
+
+        return ngramIdx;
+    }
+
+
     /**
      * Builds user defined indexes on a attributes by browsing all the entries present in master db
      * 
@@ -473,6 +550,7 @@ public class JdbmPartition extends AbstractBTreePartition
             jdbmIndex.setCacheSize( index.getCacheSize() );
             jdbmIndex.setNumDupLimit( JdbmIndex.DEFAULT_DUPLICATE_LIMIT );
             jdbmIndex.setWkDirPath( index.getWkDirPath() );
+            jdbmIndex.setNgramSize( index.getNgramSize() );
         }
 
         jdbmIndex.init( schemaManager, schemaManager.lookupAttributeTypeRegistry( index.getAttributeId() ) );
@@ -564,6 +642,13 @@ public class JdbmPartition extends AbstractBTreePartition
     @Override
     public void updateCache( OperationContext opCtx )
     {
+        if ( offHeapEntryCache != null )
+        {
+            super.updateCache( opCtx );
+
+            return;
+        }
+
         if ( entryCache == null )
         {
             return;
@@ -609,6 +694,11 @@ public class JdbmPartition extends AbstractBTreePartition
     @Override
     public Entry lookupCache( String id )
     {
+        if ( offHeapEntryCache != null )
+        {
+            return super.lookupCache( id );
+        }
+
         if ( entryCache == null )
         {
             return null;
@@ -628,6 +718,13 @@ public class JdbmPartition extends AbstractBTreePartition
     @Override
     public void addToCache( String id, Entry entry )
     {
+        if ( offHeapEntryCache != null )
+        {
+            super.addToCache( id, entry );
+
+            return;
+        }
+
         if ( entryCache == null )
         {
             return;
@@ -21,9 +21,14 @@ package org.apache.directory.server.core.partition.impl.btree.jdbm;
 
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.ObjectOutputStream;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -33,6 +38,7 @@ import org.apache.directory.api.ldap.model.entry.Attribute;
 import org.apache.directory.api.ldap.model.entry.DefaultAttribute;
 import org.apache.directory.api.ldap.model.entry.DefaultEntry;
 import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.name.Dn;
 import org.apache.directory.api.ldap.model.schema.SchemaManager;
 import org.apache.directory.api.ldap.model.schema.normalizers.DeepTrimToLowerNormalizer;
 import org.apache.directory.api.ldap.model.schema.normalizers.OidNormalizer;
@@ -42,6 +48,8 @@ import org.apache.directory.api.ldap.schema.loader.LdifSchemaLoader;
 import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
 import org.apache.directory.api.util.Strings;
 import org.apache.directory.api.util.exception.Exceptions;
+import org.apache.directory.server.xdbm.CompactEntryCodec;
+import org.apache.directory.server.xdbm.LazyEntry;
 import org.junit.BeforeClass;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -287,4 +295,104 @@ public class ServerEntrySerializerTest
 
         assertEquals( entry, result );
     }
+
+
+    @Test
+    public void testDeserializeDecodesAttributesLazily() throws Exception
+    {
+        Entry entry = new DefaultEntry( schemaManager,
+            "cn=test,dc=example,dc=com",
+            "objectClass: top",
+            "objectClass: person",
+            "cn: test",
+            "sn: Test",
+            "description: a description" );
+
+        EntrySerializer ses = new EntrySerializer( schemaManager );
+
+        byte[] data = ses.serialize( entry );
+
+        assertTrue( CompactEntryCodec.isCompact( data, 0 ) );
+
+        Entry result = ( Entry ) ses.deserialize( data );
+
+        assertTrue( result instanceof LazyEntry );
+        assertEquals( 4, result.size() );
+        assertEquals( "test", result.get( "cn" ).getString() );
+        assertTrue( result.contains( "sn", "test" ) );
+        assertNull( result.get( "userPassword" ) );
+        assertEquals( "cn=test", result.getDn().getName() );
+
+        // Modify the entry and check the other attributes are still there
+        result.add( "description", "another description" );
+        result.removeAttributes( "sn" );
+
+        assertEquals( 3, result.size() );
+        assertEquals( 2, result.get( "description" ).size() );
+        assertTrue( result.hasObjectClass( "person" ) );
+    }
+
+
+    @Test
+    public void testSerializeUndecodedEntry() throws Exception
+    {
+        Entry entry = new DefaultEntry( schemaManager,
+            "cn=test,dc=example,dc=com",
+            "objectClass: top",
+            "objectClass: person",
+            "cn: test",
+            "sn: Test",
+            "userPassword", Strings.getBytesUtf8( "password" ) );
+
+        EntrySerializer ses = new EntrySerializer( schemaManager );
+
+        Entry result = ( Entry ) ses.deserialize( ses.serialize( entry ) );
+        Entry clone = result.clone();
+
+        // The clone has not been decoded, so its attributes are copied as they are
+        clone.setDn( new Dn( schemaManager, "cn=renamed,dc=example,dc=com" ) );
+        Entry renamed = ( Entry ) ses.deserialize( ses.serialize( clone ) );
+
+        assertEquals( "cn=renamed", renamed.getDn().getName() );
+        assertEquals( 4, renamed.size() );
+        assertTrue( renamed.contains( "userPassword", Strings.getBytesUtf8( "password" ) ) );
+
+        entry.setDn( new Dn( schemaManager, "cn=test" ) );
+        assertEquals( entry, result );
+    }
+
+
+    @Test
+    public void testDeserializeJavaSerializedEntry() throws Exception
+    {
+        Entry entry = new DefaultEntry( schemaManager,
+            "cn=test",
+            "objectClass: top",
+            "objectClass: person",
+            "cn: test",
+            "sn: Test" );
+
+        // The format used by the previous versions of the serializer
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream( baos );
+
+        out.writeByte( 1 );
+        entry.getDn().getRdn().writeExternal( out );
+        out.writeInt( entry.getAttributes().size() );
+
+        for ( Attribute attribute : entry.getAttributes() )
+        {
+            out.writeUTF( attribute.getAttributeType().getOid() );
+            attribute.writeExternal( out );
+        }
+
+        out.flush();
+
+        EntrySerializer ses = new EntrySerializer( schemaManager );
+
+        Entry result = ( Entry ) ses.deserialize( baos.toByteArray() );
+
+        assertFalse( result instanceof LazyEntry );
+        assertEquals( entry, result );
+    }
 }
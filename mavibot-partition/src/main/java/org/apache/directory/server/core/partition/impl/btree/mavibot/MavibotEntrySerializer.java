@@ -21,11 +21,8 @@ package org.apache.directory.server.core.partition.impl.btree.mavibot;
 
 
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutput;
-import java.io.ObjectOutputStream;
 import java.nio.ByteBuffer;
 import java.util.Comparator;
 
@@ -42,6 +39,7 @@ import org.apache.directory.api.ldap.model.schema.SchemaManager;
 import org.apache.directory.mavibot.btree.serializer.AbstractElementSerializer;
 import org.apache.directory.mavibot.btree.serializer.BufferHandler;
 import org.apache.directory.server.i18n.I18n;
+import org.apache.directory.server.xdbm.CompactEntryCodec;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -102,95 +100,25 @@ public class MavibotEntrySerializer extends AbstractElementSerializer<Entry>
 
 
     /**
-     * <p>
-     * 
-     * This is the place where we serialize entries, and all theirs
-     * elements. the reason why we don't call the underlying methods
-     * (<code>ServerAttribute.write(), Value.write()</code>) is that we need
-     * access to the registries to read back the values.
-     * <p>
-     * The structure used to store the entry is the following :
-     * <ul>
-     *   <li><b>[a byte]</b> : if the Dn is empty 0 will be written else 1</li>
-     *   <li><b>[Rdn]</b> : The entry's Rdn.</li>
-     *   <li><b>[numberAttr]</b> : the bumber of attributes. Can be 0</li>
-     *   <li>For each Attribute :
-     *     <ul>
-     *       <li><b>[attribute's oid]</b> : The attribute's OID to get back
-     *       the attributeType on deserialization</li>
-     *       <li><b>[Attribute]</b> The attribute</li>
-     *     </ul>
-     *   </li>
-     * </ul>
+     * Serializes an entry using the {@link CompactEntryCodec} format. The attribute
+     * types are stored as compact OIDs, and an offset table allows the attributes to
+     * be decoded only when they are read.
      */
     public byte[] serialize( Entry entry )
     {
-        try
-        {
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-
-            ObjectOutput out = new ObjectOutputStream( baos );
-
-            // First, the Dn
-            Dn dn = entry.getDn();
-
-            // Write the Rdn of the Dn
-            if ( dn.isEmpty() )
-            {
-                out.writeByte( 0 );
-            }
-            else
-            {
-                out.writeByte( 1 );
-                Rdn rdn = dn.getRdn();
-                rdn.writeExternal( out );
-            }
-
-            // Then the attributes.
-            out.writeInt( entry.getAttributes().size() );
-
-            // Iterate through the keys. We store the Attribute
-            // here, to be able to restore it in the readExternal :
-            // we need access to the registries, which are not available
-            // in the ServerAttribute class.
-            for ( Attribute attribute : entry.getAttributes() )
-            {
-                AttributeType attributeType = attribute.getAttributeType();
-
-                // Write the oid to be able to restore the AttributeType when deserializing
-                // the attribute
-                String oid = attributeType.getOid();
-
-                out.writeUTF( oid );
-
-                // Write the attribute
-                attribute.writeExternal( out );
-            }
-
-            out.flush();
-
-            // Note : we don't store the ObjectClassAttribute. It has already
-            // been stored as an attribute.
-
-            if ( IS_DEBUG )
-            {
-                LOG.debug( ">------------------------------------------------" );
-                LOG.debug( "Serialize " + entry );
-            }
-
-            byte[] bytes = baos.toByteArray();
-
-            return bytes;
-        }
-        catch ( Exception e )
+        if ( IS_DEBUG )
         {
-            throw new RuntimeException( e );
+            LOG.debug( ">------------------------------------------------" );
+            LOG.debug( "Serialize " + entry );
         }
+
+        return CompactEntryCodec.encode( entry );
     }
 
 
     /**
-     *  Deserialize a Entry.
+     *  Deserialize a Entry. The entries stored using the Java serialization by the
+     *  previous versions are still read.
      *  
      *  @param bytes the byte array containing the serialized entry
      *  @return An instance of a Entry object 
@@ -198,6 +126,15 @@ public class MavibotEntrySerializer extends AbstractElementSerializer<Entry>
      */
     public Entry deserialize( ByteBuffer buffer ) throws IOException
     {
+        if ( CompactEntryCodec.isCompact( buffer.array(), buffer.position() ) )
+        {
+            int length = buffer.remaining();
+            Entry entry = CompactEntryCodec.decode( schemaManager, buffer.array(), buffer.position(), length );
+            buffer.position( buffer.position() + length );
+
+            return entry;
+        }
+
         // read the length
         int len = buffer.limit();
 
@@ -300,6 +237,11 @@ public class MavibotEntrySerializer extends AbstractElementSerializer<Entry>
     @Override
     public Entry fromBytes( byte[] buffer, int pos ) throws IOException
     {
+        if ( CompactEntryCodec.isCompact( buffer, pos ) )
+        {
+            return CompactEntryCodec.decode( schemaManager, buffer, pos, buffer.length - pos );
+        }
+
         // read the length
         int len = buffer.length - pos;
 
@@ -57,6 +57,7 @@ import org.apache.directory.server.core.api.partition.Partition;
 import org.apache.directory.server.core.partition.impl.btree.AbstractBTreePartition;
 import org.apache.directory.server.i18n.I18n;
 import org.apache.directory.server.xdbm.Index;
+import org.apache.directory.server.xdbm.OffHeapEntryCache;
 import org.apache.directory.server.xdbm.search.impl.CursorBuilder;
 import org.apache.directory.server.xdbm.search.impl.DefaultOptimizer;
 import org.apache.directory.server.xdbm.search.impl.DefaultSearchEngine;
@@ -132,7 +133,10 @@ public class MavibotPartition extends AbstractBTreePartition
             EvaluatorBuilder evaluatorBuilder = new EvaluatorBuilder( this, schemaManager );
             CursorBuilder cursorBuilder = new CursorBuilder( this, evaluatorBuilder );
 
-            setSearchEngine( new DefaultSearchEngine( this, cursorBuilder, evaluatorBuilder, getOptimizer() ) );
+            DefaultSearchEngine engine = new DefaultSearchEngine( this, cursorBuilder, evaluatorBuilder,
+                getOptimizer() );
+            engine.setStreaming( searchStreamingEnabled );
+            setSearchEngine( engine );
 
             // Create the underlying directories (only if needed)
             File partitionDir = new File( getPartitionPath() );
@@ -163,6 +167,9 @@ public class MavibotPartition extends AbstractBTreePartition
             Cache masterTableCache = cacheService.getCache( suffixDn.getName() );
             master = new MavibotMasterTable( recordMan, schemaManager, "master", masterTableCache.getCacheConfiguration().getMaxElementsInMemory() );
 
+            // The n-gram indices are kept in memory, rebuild them
+            buildNgramIndices();
+
             // get all index db files first
             File[] allIndexDbFiles = partitionDir.listFiles( DB_FILTER );
 
@@ -255,6 +262,7 @@ public class MavibotPartition extends AbstractBTreePartition
             mavibotIndex = new MavibotIndex( index.getAttributeId(), true );
             mavibotIndex.setCacheSize( index.getCacheSize() );
             mavibotIndex.setWkDirPath( index.getWkDirPath() );
+            mavibotIndex.setNgramSize( index.getNgramSize() );
         }
 
         mavibotIndex.setRecordManager( recordMan );
@@ -437,6 +445,43 @@ public class MavibotPartition extends AbstractBTreePartition
     }
 
 
+    /**
+     * {@inheritDoc}
+     * The Mavibot BTrees serialize their own updates, so distinct entries can be
+     * modified concurrently.
+     */
+    @Override
+    protected boolean supportsConcurrentModifications()
+    {
+        return true;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     * The entries are serialized as in the master table.
+     */
+    @Override
+    protected OffHeapEntryCache createOffHeapEntryCache( int sizeInMb )
+    {
+        final MavibotEntrySerializer serializer = new MavibotEntrySerializer();
+
+        return new OffHeapEntryCache( sizeInMb )
+        {
+            protected byte[] serialize( Entry entry ) throws IOException
+            {
+                return serializer.serialize( entry );
+            }
+
+
+            protected Entry deserialize( byte[] bytes ) throws IOException
+            {
+                return serializer.fromBytes( bytes );
+            }
+        };
+    }
+
+
     public RecordManager getRecordMan()
     {
         return recordMan;
@@ -445,6 +490,11 @@ public class MavibotPartition extends AbstractBTreePartition
 
     public Entry lookupCache( String id )
     {
+        if ( offHeapEntryCache != null )
+        {
+            return super.lookupCache( id );
+        }
+
         if ( entryCache == null )
         {
             return null;
@@ -464,6 +514,13 @@ public class MavibotPartition extends AbstractBTreePartition
     @Override
     public void addToCache( String id, Entry entry )
     {
+        if ( offHeapEntryCache != null )
+        {
+            super.addToCache( id, entry );
+
+            return;
+        }
+
         if ( entryCache == null )
         {
             return;
@@ -481,6 +538,13 @@ public class MavibotPartition extends AbstractBTreePartition
     @Override
     public void updateCache( OperationContext opCtx )
     {
+        if ( offHeapEntryCache != null )
+        {
+            super.updateCache( opCtx );
+
+            return;
+        }
+
         if ( entryCache == null )
         {
             return;
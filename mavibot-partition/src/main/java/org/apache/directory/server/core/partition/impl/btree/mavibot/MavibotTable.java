@@ -360,7 +360,7 @@ public class MavibotTable<K, V> extends AbstractTable<K, V>
      * {@inheritDoc}
      */
     @Override
-    public void put( K key, V value ) throws Exception
+    public synchronized void put( K key, V value ) throws Exception
     {
         try
         {
@@ -388,7 +388,7 @@ public class MavibotTable<K, V> extends AbstractTable<K, V>
      * {@inheritDoc}
      */
     @Override
-    public void remove( K key ) throws Exception
+    public synchronized void remove( K key ) throws Exception
     {
         try
         {
@@ -440,7 +440,7 @@ public class MavibotTable<K, V> extends AbstractTable<K, V>
      * {@inheritDoc}
      */
     @Override
-    public void remove( K key, V value ) throws Exception
+    public synchronized void remove( K key, V value ) throws Exception
     {
         try
         {
@@ -20,8 +20,13 @@
 package org.apache.directory.server.kerberos.kdc;
 
 
+import java.util.concurrent.atomic.AtomicLong;
+
 import javax.security.auth.kerberos.KerberosPrincipal;
 
+import net.sf.ehcache.Cache;
+import net.sf.ehcache.Element;
+
 import org.apache.directory.api.ldap.model.constants.AuthenticationLevel;
 import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.entry.Attribute;
@@ -30,14 +35,25 @@ import org.apache.directory.api.ldap.model.entry.DefaultModification;
 import org.apache.directory.api.ldap.model.entry.Entry;
 import org.apache.directory.api.ldap.model.entry.Modification;
 import org.apache.directory.api.ldap.model.entry.ModificationOperation;
+import org.apache.directory.api.ldap.model.entry.Value;
 import org.apache.directory.api.ldap.model.exception.LdapException;
 import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.message.SearchScope;
 import org.apache.directory.api.ldap.model.schema.SchemaManager;
 import org.apache.directory.api.util.Strings;
 import org.apache.directory.server.constants.ServerDNConstants;
 import org.apache.directory.server.core.api.CoreSession;
 import org.apache.directory.server.core.api.DirectoryService;
 import org.apache.directory.server.core.api.LdapPrincipal;
+import org.apache.directory.server.core.api.entry.ClonedServerEntry;
+import org.apache.directory.server.core.api.event.DirectoryListenerAdapter;
+import org.apache.directory.server.core.api.event.NotificationCriteria;
+import org.apache.directory.server.core.api.interceptor.context.AddOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.DeleteOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.ModifyOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.MoveAndRenameOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.MoveOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.RenameOperationContext;
 import org.apache.directory.server.core.shared.DefaultCoreSession;
 import org.apache.directory.server.kerberos.changepwd.exceptions.ChangePasswdErrorType;
 import org.apache.directory.server.kerberos.changepwd.exceptions.ChangePasswordException;
@@ -46,22 +62,39 @@ import org.apache.directory.server.kerberos.shared.store.PrincipalStoreEntry;
 import org.apache.directory.server.protocol.shared.kerberos.GetPrincipal;
 import org.apache.directory.server.protocol.shared.kerberos.StoreUtils;
 import org.apache.directory.shared.kerberos.KerberosAttribute;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 
 /**
  * A PrincipalStore backing entries in a DirectoryService.
- * 
+ * <br>
+ * The principals read from the directory can be kept in a cache, so that the most used
+ * ones, like krbtgt, are not searched for each request. The cached principals are removed
+ * when their entries are added, modified, moved or deleted, and the size of the cache and
+ * the time the principals are kept are set by the cache configuration.
  *
  * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
  */
 public class DirectoryPrincipalStore implements PrincipalStore
 {
+    private static final Logger LOG = LoggerFactory.getLogger( DirectoryPrincipalStore.class );
+
     /** The directory service backing store for this PrincipalStore. */
     private final DirectoryService directoryService;
     private final Dn searchBaseDn;
 
     private CoreSession adminSession;
 
+    /** The cache of the principals, by name, or null if the principals are not cached */
+    private Cache principalCache;
+
+    /** The listener removing the changed principals from the cache */
+    private PrincipalCacheListener cacheListener;
+
+    /** The number of changes, used to avoid caching a principal read while it is changed */
+    private final AtomicLong changes = new AtomicLong();
+
 
     /**
      * Creates a new instance of DirectoryPrincipalStore.
@@ -69,10 +102,62 @@ public class DirectoryPrincipalStore implements PrincipalStore
      * @param directoryService backing store for this PrincipalStore
      */
     public DirectoryPrincipalStore( DirectoryService directoryService, Dn searchBaseDn )
+    {
+        this( directoryService, searchBaseDn, null );
+    }
+
+
+    /**
+     * Creates a new instance of DirectoryPrincipalStore, caching the principals it reads.
+     *
+     * @param directoryService backing store for this PrincipalStore
+     * @param searchBaseDn the base of the principals entries
+     * @param principalCache the cache of the principals, or null if they are not cached
+     */
+    public DirectoryPrincipalStore( DirectoryService directoryService, Dn searchBaseDn, Cache principalCache )
     {
         this.directoryService = directoryService;
         this.adminSession = directoryService.getAdminSession();
         this.searchBaseDn = searchBaseDn;
+
+        if ( principalCache != null )
+        {
+            NotificationCriteria criteria = new NotificationCriteria();
+            criteria.setBase( searchBaseDn );
+            criteria.setScope( SearchScope.SUBTREE );
+
+            try
+            {
+                cacheListener = new PrincipalCacheListener();
+                directoryService.getEventService().addListener( cacheListener, criteria );
+                this.principalCache = principalCache;
+            }
+            catch ( Exception e )
+            {
+                // The cached principals could not be removed when changed
+                LOG.warn( "Cannot listen to the changes under {}, the principals won't be cached", searchBaseDn, e );
+                cacheListener = null;
+            }
+        }
+    }
+
+
+    /**
+     * Stops caching the principals.
+     */
+    public void close()
+    {
+        if ( cacheListener != null )
+        {
+            directoryService.getEventService().removeListener( cacheListener );
+            cacheListener = null;
+        }
+
+        if ( principalCache != null )
+        {
+            principalCache.removeAll();
+            principalCache = null;
+        }
     }
 
 
@@ -152,6 +237,122 @@ public class DirectoryPrincipalStore implements PrincipalStore
      */
     public PrincipalStoreEntry getPrincipal( KerberosPrincipal principal ) throws Exception
     {
-        return ( PrincipalStoreEntry ) new GetPrincipal( principal ).execute( adminSession, searchBaseDn );
+        Cache cache = principalCache;
+
+        if ( cache == null )
+        {
+            return ( PrincipalStoreEntry ) new GetPrincipal( principal ).execute( adminSession, searchBaseDn );
+        }
+
+        String name = principal.getName();
+        Element element = cache.get( name );
+
+        if ( element != null )
+        {
+            return ( PrincipalStoreEntry ) element.getObjectValue();
+        }
+
+        long changesBefore = changes.get();
+        PrincipalStoreEntry entry = ( PrincipalStoreEntry ) new GetPrincipal( principal ).execute( adminSession,
+            searchBaseDn );
+
+        // Don't cache a principal which may have been changed while it was read
+        if ( ( entry != null ) && ( changes.get() == changesBefore ) )
+        {
+            cache.put( new Element( name, entry ) );
+        }
+
+        return entry;
+    }
+
+
+    /**
+     * Removes from the cache the principals of a changed entry
+     *
+     * @param entry the entry, as it was before or after the change
+     */
+    private void uncache( Entry entry )
+    {
+        Cache cache = principalCache;
+
+        if ( ( cache == null ) || ( entry == null ) )
+        {
+            return;
+        }
+
+        Attribute principalNames = entry.get( KerberosAttribute.KRB5_PRINCIPAL_NAME_AT );
+
+        if ( principalNames == null )
+        {
+            return;
+        }
+
+        for ( Value<?> value : principalNames )
+        {
+            cache.remove( value.getString() );
+        }
+    }
+
+
+    /**
+     * Removes the principals from the cache when their entries are changed. The listener
+     * is synchronous, so that a changed key is not used anymore once the change is done.
+     */
+    private class PrincipalCacheListener extends DirectoryListenerAdapter
+    {
+        @Override
+        public void entryAdded( AddOperationContext addContext )
+        {
+            changes.incrementAndGet();
+            uncache( addContext.getEntry() );
+        }
+
+
+        @Override
+        public void entryDeleted( DeleteOperationContext deleteContext )
+        {
+            changes.incrementAndGet();
+            uncache( deleteContext.getEntry() );
+        }
+
+
+        @Override
+        public void entryModified( ModifyOperationContext modifyContext )
+        {
+            changes.incrementAndGet();
+            uncache( modifyContext.getEntry() );
+            uncache( modifyContext.getAlteredEntry() );
+        }
+
+
+        @Override
+        public void entryRenamed( RenameOperationContext renameContext )
+        {
+            changes.incrementAndGet();
+            uncache( ( ( ClonedServerEntry ) renameContext.getEntry() ).getOriginalEntry() );
+        }
+
+
+        @Override
+        public void entryMoved( MoveOperationContext moveContext )
+        {
+            changes.incrementAndGet();
+            uncache( moveContext.getOriginalEntry() );
+        }
+
+
+        @Override
+        public void entryMovedAndRenamed( MoveAndRenameOperationContext moveAndRenameContext )
+        {
+            changes.incrementAndGet();
+            uncache( moveAndRenameContext.getOriginalEntry() );
+        }
+
+
+        @Override
+        public boolean isSynchronous()
+        {
+            return true;
+        }
     }
 }
@@ -32,7 +32,6 @@ import org.apache.directory.server.kerberos.protocol.KerberosProtocolHandler;
 import org.apache.directory.server.kerberos.protocol.codec.KerberosProtocolCodecFactory;
 import org.apache.directory.server.kerberos.shared.replay.ReplayCache;
 import org.apache.directory.server.kerberos.shared.replay.ReplayCacheImpl;
-import org.apache.directory.server.kerberos.shared.store.PrincipalStore;
 import org.apache.directory.server.protocol.shared.DirectoryBackedService;
 import org.apache.directory.server.protocol.shared.transport.TcpTransport;
 import org.apache.directory.server.protocol.shared.transport.Transport;
@@ -63,6 +62,9 @@ public class KdcServer extends DirectoryBackedService
     /** the cache used for storing AS and TGS requests */
     private ReplayCache replayCache;
 
+    /** the store of the principals, caching them */
+    private DirectoryPrincipalStore store;
+
     private KerberosConfig config;
 
     private ChangePasswordServer changePwdServer;
@@ -105,9 +107,10 @@ public class KdcServer extends DirectoryBackedService
      */
     public void start() throws IOException, LdapInvalidDnException
     {
-        PrincipalStore store;
+        LOG.debug( "initializing the kerberos principal cache" );
 
-        store = new DirectoryPrincipalStore( getDirectoryService(), new Dn( this.getSearchBaseDn() ) );
+        Cache principalCache = getDirectoryService().getCacheService().getCache( "kdcPrincipalCache" );
+        store = new DirectoryPrincipalStore( getDirectoryService(), new Dn( this.getSearchBaseDn() ), principalCache );
 
         LOG.debug( "initializing the kerberos replay cache" );
 
@@ -177,6 +180,12 @@ public class KdcServer extends DirectoryBackedService
             replayCache.clear();
         }
 
+        if ( store != null )
+        {
+            store.close();
+            store = null;
+        }
+
         LOG.info( "Kerberos service stopped." );
 
         if ( changePwdServer != null )
@@ -0,0 +1,344 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.kerberos.kdc;
+
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.security.auth.kerberos.KerberosPrincipal;
+
+import net.sf.ehcache.Cache;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.directory.api.ldap.model.entry.DefaultAttribute;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.DefaultModification;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.Modification;
+import org.apache.directory.api.ldap.model.entry.ModificationOperation;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.name.Rdn;
+import org.apache.directory.server.core.annotations.ContextEntry;
+import org.apache.directory.server.core.annotations.CreateDS;
+import org.apache.directory.server.core.annotations.CreatePartition;
+import org.apache.directory.server.core.annotations.LoadSchema;
+import org.apache.directory.server.core.api.CoreSession;
+import org.apache.directory.server.core.api.DirectoryService;
+import org.apache.directory.server.core.api.filtering.EntryFilter;
+import org.apache.directory.server.core.api.filtering.EntryFilteringCursor;
+import org.apache.directory.server.core.api.interceptor.BaseInterceptor;
+import org.apache.directory.server.core.api.interceptor.context.SearchOperationContext;
+import org.apache.directory.server.core.factory.DSAnnotationProcessor;
+import org.apache.directory.server.kerberos.shared.crypto.encryption.KerberosKeyFactory;
+import org.apache.directory.server.kerberos.shared.store.PrincipalStoreEntry;
+import org.apache.directory.shared.kerberos.KerberosAttribute;
+import org.apache.directory.shared.kerberos.codec.types.EncryptionType;
+import org.apache.directory.shared.kerberos.components.EncryptionKey;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+
+/**
+ * Tests the cache of the principals read by the DirectoryPrincipalStore.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+@CreateDS(
+    name = "DirectoryPrincipalStoreTest",
+    partitions =
+        {
+            @CreatePartition(
+                name = "example",
+                suffix = "dc=example,dc=com",
+                contextEntry = @ContextEntry(
+                    entryLdif =
+                    "dn: dc=example,dc=com\n" +
+                        "dc: example\n" +
+                        "objectClass: top\n" +
+                        "objectClass: domain\n\n"))
+    },
+    loadedSchemas =
+        {
+            @LoadSchema(name = "krb5kdc", enabled = true)
+    },
+    additionalInterceptors =
+        {
+            DirectoryPrincipalStoreTest.SearchInterceptor.class
+    })
+public class DirectoryPrincipalStoreTest
+{
+    private static final String PRINCIPAL_NAME = "alice@EXAMPLE.COM";
+
+    private static DirectoryService service;
+
+    private static CoreSession session;
+
+    private static Dn searchBaseDn;
+
+    private DirectoryPrincipalStore store;
+
+    private Cache cache;
+
+    private Dn principalDn;
+
+    private KerberosPrincipal principal;
+
+
+    /**
+     * Counts the searches, and can apply a modification while a search is
+     * returning its entries.
+     */
+    public static class SearchInterceptor extends BaseInterceptor
+    {
+        /** The number of searches */
+        private static final AtomicInteger SEARCHES = new AtomicInteger();
+
+        /** The modification to apply during the next search */
+        private static volatile Modification modification;
+
+        /** The modified entry */
+        private static volatile Dn modifiedDn;
+
+
+        public SearchInterceptor()
+        {
+            super( "SearchInterceptor" );
+        }
+
+
+        @Override
+        public EntryFilteringCursor search( SearchOperationContext searchContext ) throws LdapException
+        {
+            SEARCHES.incrementAndGet();
+            EntryFilteringCursor cursor = next( searchContext );
+
+            cursor.addEntryFilter( new EntryFilter()
+            {
+                public boolean accept( SearchOperationContext operation, Entry result ) throws LdapException
+                {
+                    Modification mod = modification;
+
+                    if ( mod != null )
+                    {
+                        // The entry has already been read
+                        modification = null;
+                        directoryService.getAdminSession().modify( modifiedDn, mod );
+                    }
+
+                    return true;
+                }
+
+
+                public String toString( String tabs )
+                {
+                    return tabs + "ModifyingFilter";
+                }
+            } );
+
+            return cursor;
+        }
+    }
+
+
+    @BeforeClass
+    public static void createService() throws Exception
+    {
+        service = DSAnnotationProcessor.getDirectoryService();
+        session = service.getAdminSession();
+        searchBaseDn = new Dn( service.getSchemaManager(), "dc=example,dc=com" );
+    }
+
+
+    @AfterClass
+    public static void shutdownService() throws Exception
+    {
+        service.shutdown();
+        FileUtils.deleteDirectory( service.getInstanceLayout().getInstanceDirectory() );
+    }
+
+
+    @Before
+    public void addPrincipal() throws Exception
+    {
+        principalDn = new Dn( service.getSchemaManager(), "cn=alice,dc=example,dc=com" );
+        principal = new KerberosPrincipal( PRINCIPAL_NAME );
+
+        Entry entry = new DefaultEntry( service.getSchemaManager(), principalDn,
+            "objectClass: top",
+            "objectClass: person",
+            "objectClass: inetOrgPerson",
+            "objectClass: krb5principal",
+            "objectClass: krb5kdcentry",
+            "cn: alice",
+            "sn: alice",
+            "uid: alice",
+            KerberosAttribute.KRB5_PRINCIPAL_NAME_AT + ": " + PRINCIPAL_NAME,
+            KerberosAttribute.KRB5_KEY_VERSION_NUMBER_AT + ": 0" );
+        entry.add( getKeyAttribute( "secret" ) );
+        session.add( entry );
+
+        cache = service.getCacheService().getCache( "kdcPrincipalCache" );
+        store = new DirectoryPrincipalStore( service, searchBaseDn, cache );
+    }
+
+
+    @After
+    public void deletePrincipal() throws Exception
+    {
+        store.close();
+        SearchInterceptor.modification = null;
+
+        if ( session.exists( principalDn ) )
+        {
+            session.delete( principalDn );
+        }
+    }
+
+
+    private DefaultAttribute getKeyAttribute( String password ) throws Exception
+    {
+        DefaultAttribute keyAttribute = new DefaultAttribute( service.getSchemaManager()
+            .lookupAttributeTypeRegistry( KerberosAttribute.KRB5_KEY_AT ) );
+
+        for ( EncryptionKey key : KerberosKeyFactory.getKerberosKeys( PRINCIPAL_NAME, password ).values() )
+        {
+            ByteBuffer buffer = ByteBuffer.allocate( key.computeLength() );
+            key.encode( buffer );
+            keyAttribute.add( buffer.array() );
+        }
+
+        return keyAttribute;
+    }
+
+
+    private Modification changeKey( String password ) throws Exception
+    {
+        return new DefaultModification( ModificationOperation.REPLACE_ATTRIBUTE, getKeyAttribute( password ) );
+    }
+
+
+    private void assertKeys( String password, PrincipalStoreEntry entry )
+    {
+        Map<EncryptionType, EncryptionKey> expected = KerberosKeyFactory.getKerberosKeys( PRINCIPAL_NAME, password );
+
+        assertNotNull( entry );
+        assertEquals( expected.size(), entry.getKeyMap().size() );
+
+        for ( Map.Entry<EncryptionType, EncryptionKey> key : expected.entrySet() )
+        {
+            assertArrayEquals( key.getValue().getKeyValue(), entry.getKeyMap().get( key.getKey() ).getKeyValue() );
+        }
+    }
+
+
+    @Test
+    public void testCacheHit() throws Exception
+    {
+        PrincipalStoreEntry entry = store.getPrincipal( principal );
+        assertKeys( "secret", entry );
+        assertNotNull( cache.get( PRINCIPAL_NAME ) );
+
+        int searches = SearchInterceptor.SEARCHES.get();
+
+        // The second read does not search the directory
+        assertSame( entry, store.getPrincipal( principal ) );
+        assertEquals( searches, SearchInterceptor.SEARCHES.get() );
+    }
+
+
+    @Test
+    public void testNoCache() throws Exception
+    {
+        store.close();
+        store = new DirectoryPrincipalStore( service, searchBaseDn );
+
+        PrincipalStoreEntry entry = store.getPrincipal( principal );
+        assertKeys( "secret", entry );
+        assertNotSame( entry, store.getPrincipal( principal ) );
+        assertNull( cache.get( PRINCIPAL_NAME ) );
+    }
+
+
+    @Test
+    public void testModifiedKey() throws Exception
+    {
+        assertKeys( "secret", store.getPrincipal( principal ) );
+
+        session.modify( principalDn, changeKey( "new secret" ) );
+
+        // The next read must return the new key
+        assertNull( cache.get( PRINCIPAL_NAME ) );
+        assertKeys( "new secret", store.getPrincipal( principal ) );
+    }
+
+
+    @Test
+    public void testDeleted() throws Exception
+    {
+        assertNotNull( store.getPrincipal( principal ) );
+
+        session.delete( principalDn );
+
+        assertNull( cache.get( PRINCIPAL_NAME ) );
+    }
+
+
+    @Test
+    public void testRenamed() throws Exception
+    {
+        assertEquals( principalDn.getName(), store.getPrincipal( principal ).getDistinguishedName() );
+
+        session.rename( principalDn, new Rdn( "cn=alice2" ), false );
+        principalDn = new Dn( service.getSchemaManager(), "cn=alice2,dc=example,dc=com" );
+
+        assertNull( cache.get( PRINCIPAL_NAME ) );
+        assertEquals( principalDn.getName(), store.getPrincipal( principal ).getDistinguishedName() );
+    }
+
+
+    @Test
+    public void testChangedWhileRead() throws Exception
+    {
+        // The key is changed after the entry has been read, but before it is cached
+        SearchInterceptor.modifiedDn = principalDn;
+        SearchInterceptor.modification = changeKey( "new secret" );
+
+        assertKeys( "secret", store.getPrincipal( principal ) );
+        assertNull( SearchInterceptor.modification );
+
+        // The principal read while it was changed has not been cached
+        assertNull( cache.get( PRINCIPAL_NAME ) );
+        assertKeys( "new secret", store.getPrincipal( principal ) );
+        assertNotNull( cache.get( PRINCIPAL_NAME ) );
+    }
+}
@@ -36,6 +36,8 @@ import org.apache.directory.api.ldap.model.message.ResultCodeEnum;
 import org.apache.directory.api.ldap.model.message.ResultResponse;
 import org.apache.directory.api.ldap.model.message.ResultResponseRequest;
 import org.apache.directory.server.core.api.CoreSession;
+import org.apache.directory.server.core.api.monitor.LatencyHistogram;
+import org.apache.directory.server.core.api.monitor.MonitorRegistry;
 import org.apache.directory.server.core.shared.DefaultCoreSession;
 import org.apache.directory.server.i18n.I18n;
 import org.apache.directory.server.ldap.LdapServer;
@@ -61,6 +63,9 @@ public abstract class LdapRequestHandler<T extends Request> implements MessageHa
     /** The reference on the Ldap server instance */
     protected LdapServer ldapServer;
 
+    /** The time spent in this handler, created on the first request */
+    private volatile LatencyHistogram latency;
+
 
     /**
      * @return The associated ldap server instance
@@ -190,7 +195,7 @@ public abstract class LdapRequestHandler<T extends Request> implements MessageHa
         // only if it's not a BindRequest
         if ( message instanceof BindRequest )
         {
-            handle( ldapSession, message );
+            handleAndRecord( ldapSession, message );
         }
         else
         {
@@ -204,7 +209,7 @@ public abstract class LdapRequestHandler<T extends Request> implements MessageHa
             if ( ldapSession.isAuthenticated() )
             {
                 coreSession = ldapSession.getCoreSession();
-                handle( ldapSession, message );
+                handleAndRecord( ldapSession, message );
                 return;
             }
 
@@ -219,12 +224,32 @@ public abstract class LdapRequestHandler<T extends Request> implements MessageHa
                 return;
             }
 
-            handle( ldapSession, message );
+            handleAndRecord( ldapSession, message );
             return;
         }
     }
 
 
+    /**
+     * Handles the message, and records the time spent in the handler in the
+     * server statistics.
+     */
+    private void handleAndRecord( LdapSession ldapSession, T message ) throws Exception
+    {
+        long start = System.nanoTime();
+
+        handle( ldapSession, message );
+
+        if ( latency == null )
+        {
+            latency = ldapServer.getDirectoryService().getMonitorRegistry().getHistogram( MonitorRegistry.HANDLERS,
+                getClass().getSimpleName() );
+        }
+
+        latency.recordSince( start );
+    }
+
+
     /**
      * Handle a Ldap message associated with a session
      * 
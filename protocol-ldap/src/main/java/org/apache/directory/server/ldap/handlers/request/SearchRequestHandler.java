@@ -71,6 +71,7 @@ import org.apache.directory.server.core.api.ReferralManager;
 import org.apache.directory.server.core.api.entry.ClonedServerEntry;
 import org.apache.directory.server.core.api.event.EventType;
 import org.apache.directory.server.core.api.event.NotificationCriteria;
+import org.apache.directory.server.core.api.monitor.MonitorRegistry;
 import org.apache.directory.server.core.api.partition.PartitionNexus;
 import org.apache.directory.server.i18n.I18n;
 import org.apache.directory.server.ldap.LdapSession;
@@ -426,6 +427,8 @@ public class SearchRequestHandler extends LdapRequestHandler<SearchRequest>
             count++;
         }
 
+        countEntriesReturned( count );
+
         // check if the result code is not already set
         // the result code might be set when sort control is present
         if ( ldapResult.getResultCode() == null )
@@ -446,6 +449,16 @@ public class SearchRequestHandler extends LdapRequestHandler<SearchRequest>
     }
 
 
+    /**
+     * Adds the number of entries sent to the client to the server statistics
+     */
+    private void countEntriesReturned( long nbEntries )
+    {
+        ldapServer.getDirectoryService().getMonitorRegistry()
+            .getCounter( MonitorRegistry.SEARCH, MonitorRegistry.ENTRIES_RETURNED ).add( nbEntries );
+    }
+
+
     private void readPagedResults( LdapSession session, SearchRequest req, LdapResult ldapResult,
         Cursor<Entry> cursor, long sizeLimit, int pagedLimit, PagedSearchContext pagedContext,
         PagedResultsDecorator pagedResultsControl ) throws Exception
@@ -476,6 +489,8 @@ public class SearchRequestHandler extends LdapRequestHandler<SearchRequest>
             pageCount++;
         }
 
+        countEntriesReturned( pageCount );
+
         // DO NOT WRITE THE RESPONSE - JUST RETURN IT
         ldapResult.setResultCode( ResultCodeEnum.SUCCESS );
 
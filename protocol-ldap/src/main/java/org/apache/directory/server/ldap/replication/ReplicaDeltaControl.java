@@ -0,0 +1,142 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.server.ldap.replication;
+
+
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.directory.api.ldap.codec.api.CodecControl;
+import org.apache.directory.api.ldap.codec.api.LdapApiService;
+import org.apache.directory.api.ldap.model.entry.Modification;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.message.Control;
+import org.apache.directory.api.ldap.model.message.Message;
+import org.apache.directory.api.ldap.model.message.controls.OpaqueControl;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+
+
+/**
+ * The control used by the delta syncrepl mode. A consumer adds it, without value, to
+ * its sync request to ask for delta messages. The provider then adds it to the entries
+ * sent for a modification, with the modifications serialized by the
+ * {@link ReplicaDeltaSerializer} as its value : the entry itself only contains the
+ * entryUUID and entryCSN attributes.
+ * <br/>
+ * The control is never critical : a provider which does not know it ignores it, and
+ * sends the whole modified entries.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public final class ReplicaDeltaControl
+{
+    /** The control OID */
+    public static final String OID = "1.3.6.1.4.1.18060.0.0.10";
+
+
+    private ReplicaDeltaControl()
+    {
+    }
+
+
+    /**
+     * Creates the control a consumer adds to its sync request to ask for delta messages
+     *
+     * @param codec The LDAP codec service
+     * @return The request control
+     */
+    public static CodecControl<? extends Control> newRequestControl( LdapApiService codec )
+    {
+        CodecControl<? extends Control> control = codec.newControl( OID );
+        control.setCritical( false );
+
+        return control;
+    }
+
+
+    /**
+     * Creates the control carrying the modifications of a delta message
+     *
+     * @param codec The LDAP codec service
+     * @param modifications The modifications applied on the entry
+     * @return The response control
+     * @throws IOException If the modifications can't be serialized
+     */
+    public static CodecControl<? extends Control> newResponseControl( LdapApiService codec,
+        List<Modification> modifications ) throws IOException
+    {
+        CodecControl<? extends Control> control = codec.newControl( OID );
+        control.setCritical( false );
+        control.setValue( ReplicaDeltaSerializer.serialize( modifications ) );
+
+        return control;
+    }
+
+
+    /**
+     * Tells if a sync request asks for delta messages
+     *
+     * @param request The sync request
+     * @return true if the request contains the delta control
+     */
+    public static boolean isRequested( Message request )
+    {
+        return request.getControls().containsKey( OID );
+    }
+
+
+    /**
+     * Reads the modifications carried by a search result entry
+     *
+     * @param schemaManager The schema manager
+     * @param response The search result entry
+     * @return The modifications, or null if the entry is not a delta message
+     * @throws IOException If the control value is not valid
+     * @throws LdapException If an attribute is not known by the schema
+     */
+    public static List<Modification> getModifications( SchemaManager schemaManager, Message response )
+        throws IOException, LdapException
+    {
+        Control control = response.getControls().get( OID );
+
+        if ( control == null )
+        {
+            return null;
+        }
+
+        byte[] value = null;
+
+        if ( control instanceof CodecControl<?> )
+        {
+            value = ( ( CodecControl<?> ) control ).getValue();
+        }
+        else if ( control instanceof OpaqueControl )
+        {
+            value = ( ( OpaqueControl ) control ).getEncodedValue();
+        }
+
+        if ( value == null )
+        {
+            throw new IOException( "The replication delta control has no value" );
+        }
+
+        return ReplicaDeltaSerializer.deserialize( schemaManager, value );
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.server.ldap.replication;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.DefaultAttribute;
+import org.apache.directory.api.ldap.model.entry.DefaultModification;
+import org.apache.directory.api.ldap.model.entry.Modification;
+import org.apache.directory.api.ldap.model.entry.ModificationOperation;
+import org.apache.directory.api.ldap.model.entry.Value;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.util.Strings;
+
+
+/**
+ * Serializes the modifications of a delta syncrepl message, in a compact binary format : <br/>
+ * <ul>
+ * <li>byte : the format version</li>
+ * <li>int : the number of modifications</li>
+ * <li>for each modification :
+ *   <ul>
+ *   <li>byte : the modification operation</li>
+ *   <li>UTF : the attribute ID</li>
+ *   <li>int : the number of values</li>
+ *   <li>for each value : a byte telling if the value is human readable, then the value length
+ *   and bytes</li>
+ *   </ul>
+ * </li>
+ * </ul>
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public final class ReplicaDeltaSerializer
+{
+    /** The format version */
+    private static final byte VERSION = 1;
+
+
+    private ReplicaDeltaSerializer()
+    {
+    }
+
+
+    /**
+     * Serializes a list of modifications
+     *
+     * @param modifications The modifications
+     * @return The serialized modifications
+     * @throws IOException If the modifications can't be serialized
+     */
+    public static byte[] serialize( List<Modification> modifications ) throws IOException
+    {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream( baos );
+
+        out.writeByte( VERSION );
+        out.writeInt( modifications.size() );
+
+        for ( Modification modification : modifications )
+        {
+            Attribute attribute = modification.getAttribute();
+
+            out.writeByte( modification.getOperation().getValue() );
+            out.writeUTF( attribute.getUpId() );
+            out.writeInt( attribute.size() );
+
+            for ( Value<?> value : attribute )
+            {
+                byte[] bytes = value.getBytes();
+
+                out.writeBoolean( value.isHumanReadable() );
+                out.writeInt( bytes.length );
+                out.write( bytes );
+            }
+        }
+
+        out.flush();
+
+        return baos.toByteArray();
+    }
+
+
+    /**
+     * Deserializes a list of modifications
+     *
+     * @param schemaManager The schema manager
+     * @param bytes The serialized modifications
+     * @return The modifications
+     * @throws IOException If the bytes are not serialized modifications
+     * @throws LdapException If an attribute is not known by the schema
+     */
+    public static List<Modification> deserialize( SchemaManager schemaManager, byte[] bytes )
+        throws IOException, LdapException
+    {
+        DataInputStream in = new DataInputStream( new ByteArrayInputStream( bytes ) );
+
+        if ( in.readByte() != VERSION )
+        {
+            throw new IOException( "Unsupported replication delta format" );
+        }
+
+        int nbModifications = in.readInt();
+        List<Modification> modifications = new ArrayList<Modification>( nbModifications );
+
+        for ( int i = 0; i < nbModifications; i++ )
+        {
+            ModificationOperation operation = ModificationOperation.getOperation( in.readByte() );
+            String upId = in.readUTF();
+            int nbValues = in.readInt();
+
+            Attribute attribute = new DefaultAttribute( upId, schemaManager.lookupAttributeTypeRegistry( upId ) );
+
+            for ( int j = 0; j < nbValues; j++ )
+            {
+                boolean humanReadable = in.readBoolean();
+                byte[] value = new byte[in.readInt()];
+                in.readFully( value );
+
+                if ( humanReadable )
+                {
+                    attribute.add( Strings.utf8ToString( value ) );
+                }
+                else
+                {
+                    attribute.add( value );
+                }
+            }
+
+            modifications.add( new DefaultModification( operation, attribute ) );
+        }
+
+        return modifications;
+    }
+}
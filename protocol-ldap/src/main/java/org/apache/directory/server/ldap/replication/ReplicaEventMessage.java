@@ -21,15 +21,25 @@
 package org.apache.directory.server.ldap.replication;
 
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
 import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.Modification;
 import org.apache.directory.api.ldap.model.exception.LdapException;
 import org.apache.directory.api.ldap.model.message.controls.ChangeType;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
 import org.apache.directory.server.core.api.entry.ClonedServerEntry;
+import org.apache.directory.server.core.api.interceptor.context.FilteringOperationContext;
 
 
 /**
- * A place holder storing an Entry and the operation applied on it
+ * A place holder storing an Entry and the operation applied on it. A delta message
+ * also stores the modifications applied on the entry, which are sent to the consumers
+ * instead of the whole entry.
  *
  * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
  */
@@ -41,6 +51,9 @@ public class ReplicaEventMessage
     /** The entry */
     private Entry entry;
 
+    /** The modifications, for a delta message */
+    private List<Modification> modifications;
+
     /**
      * Create a new ReplicaEvent instance for a Add/Delete+Modify operation
      * @param changeType The change type
@@ -61,6 +74,19 @@ public class ReplicaEventMessage
     }
 
 
+    /**
+     * Create a new delta ReplicaEvent instance for a Modify operation
+     * @param changeType The change type
+     * @param entry The modified entry
+     * @param modifications The modifications applied on the entry
+     */
+    public ReplicaEventMessage( ChangeType changeType, Entry entry, List<Modification> modifications )
+    {
+        this( changeType, entry );
+        this.modifications = modifications;
+    }
+
+
     /**
      * @return The changeType
      */
@@ -79,6 +105,80 @@ public class ReplicaEventMessage
     }
 
 
+    /**
+     * @return The modifications applied on the entry, or null if this is not a delta message
+     */
+    public List<Modification> getModifications()
+    {
+        return modifications;
+    }
+
+
+    /**
+     * Gets the modifications of the attributes a consumer has selected, the same way the
+     * attributes of the entries it receives are selected.
+     *
+     * @param schemaManager The schema manager
+     * @param selection The operation context holding the attributes selected by the consumer
+     * @return The modifications of the selected attributes, or null if this is not a delta message
+     */
+    public List<Modification> getModifications( SchemaManager schemaManager, FilteringOperationContext selection )
+    {
+        if ( modifications == null )
+        {
+            return null;
+        }
+
+        List<Modification> selected = new ArrayList<Modification>( modifications.size() );
+
+        for ( Modification modification : modifications )
+        {
+            AttributeType attributeType = modification.getAttribute().getAttributeType();
+
+            if ( attributeType != null )
+            {
+                if ( selection.contains( schemaManager, attributeType ) )
+                {
+                    selected.add( modification );
+                }
+            }
+            else if ( selection.contains( schemaManager, modification.getAttribute().getUpId() ) )
+            {
+                selected.add( modification );
+            }
+        }
+
+        return selected;
+    }
+
+
+    /**
+     * @return true if the message only stores the modifications applied on the entry
+     */
+    public boolean isDelta()
+    {
+        return modifications != null;
+    }
+
+
+    /**
+     * Creates the entry sent to a consumer for a delta message : it only contains the
+     * entryUUID and entryCSN of the entry, the modifications are sent in a
+     * {@link ReplicaDeltaControl}.
+     *
+     * @return The entry sent to the consumer
+     * @throws LdapException If the entry can't be created
+     */
+    public Entry getDeltaEntry() throws LdapException
+    {
+        Entry deltaEntry = new DefaultEntry( entry.getDn() );
+        deltaEntry.add( entry.get( SchemaConstants.ENTRY_UUID_AT ).clone() );
+        deltaEntry.add( entry.get( SchemaConstants.ENTRY_CSN_AT ).clone() );
+
+        return deltaEntry;
+    }
+
+
     /**
      * checks if the event's CSN is older than the given CSN
      *
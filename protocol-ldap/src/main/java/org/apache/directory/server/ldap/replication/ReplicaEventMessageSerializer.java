@@ -29,8 +29,10 @@ import java.io.ObjectOutputStream;
 
 import jdbm.helper.Serializer;
 
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.entry.DefaultEntry;
 import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.exception.LdapException;
 import org.apache.directory.api.ldap.model.message.controls.ChangeType;
 import org.apache.directory.api.ldap.model.name.Dn;
 import org.apache.directory.api.ldap.model.schema.SchemaManager;
@@ -45,6 +47,15 @@ import org.apache.directory.api.ldap.model.schema.SchemaManager;
  * <li>byte[] : the serialized DN</li>
  * <li>byte[] : the serialized entry</li>
  * </ul>
+ * A delta message is serialized following this format : <br/>
+ * <ul>
+ * <li>byte : the delta message marker</li>
+ * <li>byte : EventType</li>
+ * <li>byte[] : the serialized DN</li>
+ * <li>UTF : the entryUUID</li>
+ * <li>UTF : the entryCSN</li>
+ * <li>int, byte[] : the modifications serialized by {@link ReplicaDeltaSerializer}</li>
+ * </ul>
  * 
  * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
  */
@@ -53,6 +64,9 @@ public class ReplicaEventMessageSerializer implements Serializer
     /** The serialVersionUID */
     private static final long serialVersionUID = 1L;
 
+    /** The marker of a delta message, replacing the EventType */
+    private static final byte DELTA_MESSAGE = -1;
+
     /** The schemaManager */
     private transient SchemaManager schemaManager;
 
@@ -81,6 +95,24 @@ public class ReplicaEventMessageSerializer implements Serializer
         try ( ByteArrayOutputStream baos = new ByteArrayOutputStream();
             ObjectOutput out = new ObjectOutputStream( baos ) )
         {
+            if ( replicaEventMessage.isDelta() )
+            {
+                out.writeByte( DELTA_MESSAGE );
+                out.writeByte( changeType.getValue() );
+                entry.getDn().writeExternal( out );
+
+                // Only the entryUUID and entryCSN of the entry are needed
+                out.writeUTF( entry.get( SchemaConstants.ENTRY_UUID_AT ).getString() );
+                out.writeUTF( entry.get( SchemaConstants.ENTRY_CSN_AT ).getString() );
+
+                byte[] modifications = ReplicaDeltaSerializer.serialize( replicaEventMessage.getModifications() );
+                out.writeInt( modifications.length );
+                out.write( modifications );
+
+                out.flush();
+
+                return baos.toByteArray();
+            }
 
             // The change type first
             out.writeByte( changeType.getValue() );
@@ -115,6 +147,12 @@ public class ReplicaEventMessageSerializer implements Serializer
         {
             // The changeType
             byte type = in.readByte();
+
+            if ( type == DELTA_MESSAGE )
+            {
+                return deserializeDelta( in );
+            }
+
             ChangeType changeType = ChangeType.getChangeType( type );
 
             // The Entry's DN
@@ -136,4 +174,33 @@ public class ReplicaEventMessageSerializer implements Serializer
 
         return replicaEventMessage;
     }
+
+
+    /**
+     * Deserialize a delta ReplicaEventMessage, once its marker has been read
+     */
+    private ReplicaEventMessage deserializeDelta( ObjectInputStream in ) throws IOException, ClassNotFoundException
+    {
+        ChangeType changeType = ChangeType.getChangeType( in.readByte() );
+
+        Dn entryDn = new Dn( schemaManager );
+        entryDn.readExternal( in );
+
+        try
+        {
+            Entry entry = new DefaultEntry( schemaManager, entryDn );
+            entry.add( SchemaConstants.ENTRY_UUID_AT, in.readUTF() );
+            entry.add( SchemaConstants.ENTRY_CSN_AT, in.readUTF() );
+
+            byte[] modifications = new byte[in.readInt()];
+            in.readFully( modifications );
+
+            return new ReplicaEventMessage( changeType, entry,
+                ReplicaDeltaSerializer.deserialize( schemaManager, modifications ) );
+        }
+        catch ( LdapException le )
+        {
+            throw new IOException( le );
+        }
+    }
 }
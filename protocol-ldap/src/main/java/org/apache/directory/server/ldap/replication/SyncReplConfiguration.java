@@ -134,6 +134,12 @@ public class SyncReplConfiguration implements ReplicationConsumerConfig
     /** flag to indicate if this node is part of a MMR setup, default value is true */
     private boolean mmrMode = true;
 
+    /** flag to indicate if only the modifications of the modified entries are received, default value is false */
+    private boolean deltaSync = false;
+
+    /** flag to indicate if the initial content is loaded in bulk, default value is false */
+    private boolean bulkLoad = false;
+
 
     /**
      * Creates a new instance of SyncreplConfiguration
@@ -589,6 +595,63 @@ public class SyncReplConfiguration implements ReplicationConsumerConfig
     }
 
 
+    /**
+     * @return true if only the modifications of the modified entries are received
+     */
+    public boolean isDeltaSync()
+    {
+        return deltaSync;
+    }
+
+
+    /**
+     * enable/disable the delta syncrepl option
+     *
+     * @param deltaSync
+     */
+    public void setDeltaSync( boolean deltaSync )
+    {
+        this.deltaSync = deltaSync;
+    }
+
+
+    /**
+     * Tells if the initial content is loaded in bulk. The entries are still added one by one
+     * through the OperationManager, but the ADD operations only go through the Normalization,
+     * Referral, OperationalAttribute, Schema, Event, ChangeLog and Journal interceptors. The
+     * entries are still checked against the consumer schema, but the following checks are
+     * skipped for them :
+     * <ul>
+     *   <li>the authentication and the authorization checks (ACI and default authorization)</li>
+     *   <li>the checks done by the ExceptionInterceptor, the partition still rejects an entry
+     *   which already exists or which parent does not exist</li>
+     *   <li>the administrative model, subentries and collective attributes computations</li>
+     *   <li>the triggers</li>
+     * </ul>
+     * The subentries, the groups, the administrative points and the entries below an administrative
+     * point go through the whole pipeline, as do all the operations received once the initial
+     * content has been loaded.
+     *
+     * @return true if the initial content is loaded in bulk
+     */
+    public boolean isBulkLoad()
+    {
+        return bulkLoad;
+    }
+
+
+    /**
+     * enable/disable the bulk load of the initial content. The checks skipped
+     * when loading in bulk are listed in {@link #isBulkLoad()}.
+     *
+     * @param bulkLoad
+     */
+    public void setBulkLoad( boolean bulkLoad )
+    {
+        this.bulkLoad = bulkLoad;
+    }
+
+
     public String toString()
     {
         StringBuilder sb = new StringBuilder();
@@ -642,6 +705,16 @@ public class SyncReplConfiguration implements ReplicationConsumerConfig
             sb.append( "MS, " );
         }
 
+        if ( deltaSync )
+        {
+            sb.append( "delta, " );
+        }
+
+        if ( bulkLoad )
+        {
+            sb.append( "bulk, " );
+        }
+
         sb.append( "provider:" ).append( producer ).append( ", " );
         sb.append( "user:'" ).append( replUserDn ).append( "', " );
 
@@ -0,0 +1,482 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.server.ldap.replication.consumer;
+
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.directory.api.ldap.model.constants.Loggers;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Applies the changes received by a consumer with parallel workers. The changes are
+ * partitioned by entryUUID, so that the changes of an entry are applied in the order
+ * they have been received. A change is applied by the worker still applying a change
+ * of its parent entry, if any, so that a child is not added before its parent. The
+ * changes impacting a subtree (moddn and recursive deletions) are applied alone, once
+ * all the previous changes have been applied.
+ * <br>
+ * The changes which fail are counted, and the count is returned by {@link #flush()}, so
+ * that the caller does not store a cookie covering a change which has not been applied,
+ * and receives it again. A failed change which turns out to be already applied is not
+ * counted. A change which keeps failing is counted at most {@link #ATTEMPTS_PROPERTY}
+ * times : it is then logged and skipped, so that it does not block the next changes forever.
+ * <br>
+ * The number of workers can be set with the {@link #THREADS_PROPERTY} system property.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+class ChangeApplier
+{
+    /** A dedicated logger for the consumer */
+    private static final Logger CONSUMER_LOG = LoggerFactory.getLogger( Loggers.CONSUMER_LOG.getName() );
+
+    /** The system property used to set the number of workers */
+    static final String THREADS_PROPERTY = "apacheds.replication.consumer.applyThreads";
+
+    /** The system property used to set the number of times a change is attempted before being skipped */
+    static final String ATTEMPTS_PROPERTY = "apacheds.replication.consumer.maxAttempts";
+
+    /** The default number of times a change is attempted before being skipped */
+    static final int DEFAULT_MAX_ATTEMPTS = 3;
+
+    /** The maximum time to wait for the workers to apply their changes when shutting down, in seconds */
+    private static final long SHUTDOWN_TIMEOUT = 60L;
+
+    /** The workers, each one applying its changes in order */
+    private final ExecutorService[] workers;
+
+    /** The changes not applied yet, by entryUUID */
+    private final Map<String, Pending> pendingByUuid = new HashMap<String, Pending>();
+
+    /** The changes not applied yet, by entry Dn */
+    private final Map<Dn, Pending> pendingByDn = new HashMap<Dn, Pending>();
+
+    /** The number of changes not applied yet */
+    private int pending;
+
+    /** The number of changes submitted since the last flush */
+    private int unflushed;
+
+    /** The number of changes which failed since the last flush */
+    private int failed;
+
+    /** The number of times a change is attempted before being skipped */
+    private final int maxAttempts;
+
+    /** The number of failed attempts of the changes which have not been applied yet, by change id */
+    private final Map<String, Integer> attempts = new HashMap<String, Integer>();
+
+
+    /**
+     * Creates a new instance of ChangeApplier, using the configured number of workers
+     *
+     * @param name The name of the workers
+     */
+    ChangeApplier( String name )
+    {
+        this( name, Integer.getInteger( THREADS_PROPERTY, Runtime.getRuntime().availableProcessors() ),
+            Integer.getInteger( ATTEMPTS_PROPERTY, DEFAULT_MAX_ATTEMPTS ) );
+    }
+
+
+    /**
+     * Creates a new instance of ChangeApplier.
+     *
+     * @param name The name of the workers
+     * @param nbWorkers The number of workers
+     */
+    ChangeApplier( String name, int nbWorkers )
+    {
+        this( name, nbWorkers, DEFAULT_MAX_ATTEMPTS );
+    }
+
+
+    /**
+     * Creates a new instance of ChangeApplier.
+     *
+     * @param name The name of the workers
+     * @param nbWorkers The number of workers
+     * @param maxAttempts The number of times a change is attempted before being skipped
+     */
+    ChangeApplier( String name, int nbWorkers, int maxAttempts )
+    {
+        this.maxAttempts = Math.max( 1, maxAttempts );
+        workers = new ExecutorService[Math.max( 1, nbWorkers )];
+
+        for ( int i = 0; i < workers.length; i++ )
+        {
+            workers[i] = Executors.newSingleThreadExecutor( new WorkerThreadFactory( name + "-" + i ) );
+        }
+    }
+
+
+    /**
+     * Submits a change to apply
+     *
+     * @param uuid The entryUUID of the changed entry
+     * @param dn The Dn of the changed entry
+     * @param subtree Tells if the change impacts the entry's subtree
+     * @param change The change
+     * @throws InterruptedException If the thread is interrupted while waiting for the previous changes
+     */
+    void submit( final String uuid, final Dn dn, boolean subtree, final Change change )
+        throws InterruptedException
+    {
+        if ( subtree )
+        {
+            synchronized ( this )
+            {
+                waitForPending();
+                unflushed++;
+            }
+
+            apply( dn, change );
+
+            return;
+        }
+
+        int worker = -1;
+
+        synchronized ( this )
+        {
+            Pending sameEntry = pendingByUuid.get( uuid );
+            Pending parent = dn.isRootDse() ? null : pendingByDn.get( dn.getParent() );
+
+            if ( sameEntry != null )
+            {
+                worker = sameEntry.worker;
+            }
+
+            if ( parent != null )
+            {
+                if ( worker == -1 )
+                {
+                    worker = parent.worker;
+                }
+                else if ( worker != parent.worker )
+                {
+                    // The entry and its parent are being changed by two workers
+                    waitForPending();
+                    worker = -1;
+                }
+            }
+
+            if ( worker == -1 )
+            {
+                worker = ( uuid.hashCode() & 0x7FFFFFFF ) % workers.length;
+            }
+
+            register( pendingByUuid, uuid, worker );
+            register( pendingByDn, dn, worker );
+            pending++;
+            unflushed++;
+        }
+
+        workers[worker].execute( new Runnable()
+        {
+            public void run()
+            {
+                try
+                {
+                    apply( dn, change );
+                }
+                finally
+                {
+                    completed( uuid, dn );
+                }
+            }
+        } );
+    }
+
+
+    /**
+     * Applies a change, counting it if it fails
+     */
+    private void apply( Dn dn, Change change )
+    {
+        String id = change.getId();
+
+        try
+        {
+            change.apply();
+        }
+        catch ( Exception e )
+        {
+            if ( isApplied( change ) )
+            {
+                CONSUMER_LOG.debug( "The change of the entry {} has already been applied", dn );
+            }
+            else
+            {
+                failed( dn, id, e );
+
+                return;
+            }
+        }
+
+        if ( id != null )
+        {
+            synchronized ( this )
+            {
+                attempts.remove( id );
+            }
+        }
+    }
+
+
+    /**
+     * Tells if a change which has failed is already applied, the failure being then ignored
+     */
+    private boolean isApplied( Change change )
+    {
+        try
+        {
+            return change.isApplied();
+        }
+        catch ( Exception e )
+        {
+            CONSUMER_LOG.debug( "Cannot check if the change has been applied", e );
+
+            return false;
+        }
+    }
+
+
+    /**
+     * Counts a failed change, unless it has already failed too many times : it is then skipped
+     */
+    private synchronized void failed( Dn dn, String id, Exception e )
+    {
+        if ( id == null )
+        {
+            CONSUMER_LOG.error( "Failed to apply the change of the entry {}", dn, e );
+            failed++;
+
+            return;
+        }
+
+        Integer previous = attempts.get( id );
+        int nbAttempts = ( previous == null ) ? 1 : previous + 1;
+
+        if ( nbAttempts >= maxAttempts )
+        {
+            CONSUMER_LOG.error( "Failed to apply the change {} of the entry {} {} times, skipping it", id, dn,
+                nbAttempts, e );
+            attempts.remove( id );
+        }
+        else
+        {
+            CONSUMER_LOG.error( "Failed to apply the change {} of the entry {}, attempt {} of {}", id, dn,
+                nbAttempts, maxAttempts, e );
+            attempts.put( id, nbAttempts );
+            failed++;
+        }
+    }
+
+
+    private <K> void register( Map<K, Pending> pendings, K key, int worker )
+    {
+        Pending p = pendings.get( key );
+
+        if ( p == null )
+        {
+            pendings.put( key, new Pending( worker ) );
+        }
+        else
+        {
+            p.count++;
+        }
+    }
+
+
+    private <K> void unregister( Map<K, Pending> pendings, K key )
+    {
+        Pending p = pendings.get( key );
+
+        if ( ( p != null ) && ( --p.count == 0 ) )
+        {
+            pendings.remove( key );
+        }
+    }
+
+
+    private synchronized void completed( String uuid, Dn dn )
+    {
+        unregister( pendingByUuid, uuid );
+        unregister( pendingByDn, dn );
+        pending--;
+
+        if ( pending == 0 )
+        {
+            notifyAll();
+        }
+    }
+
+
+    private synchronized void waitForPending() throws InterruptedException
+    {
+        while ( pending > 0 )
+        {
+            wait();
+        }
+    }
+
+
+    /**
+     * Waits until all the submitted changes have been applied
+     *
+     * @return The number of changes which failed since the last flush
+     * @throws InterruptedException If the thread is interrupted while waiting
+     */
+    synchronized int flush() throws InterruptedException
+    {
+        waitForPending();
+        int result = failed;
+        unflushed = 0;
+        failed = 0;
+
+        return result;
+    }
+
+
+    /**
+     * @return The number of changes submitted since the last flush
+     */
+    synchronized int getUnflushed()
+    {
+        return unflushed;
+    }
+
+
+    /**
+     * Stops the workers. The changes already submitted are applied before the workers stop.
+     */
+    void shutdown()
+    {
+        for ( ExecutorService worker : workers )
+        {
+            worker.shutdown();
+        }
+
+        try
+        {
+            for ( ExecutorService worker : workers )
+            {
+                if ( !worker.awaitTermination( SHUTDOWN_TIMEOUT, TimeUnit.SECONDS ) )
+                {
+                    CONSUMER_LOG.warn( "The changes have not all been applied after {} seconds", SHUTDOWN_TIMEOUT );
+                }
+            }
+        }
+        catch ( InterruptedException ie )
+        {
+            CONSUMER_LOG.warn( "Interrupted while waiting for the changes to be applied" );
+            Thread.currentThread().interrupt();
+        }
+    }
+
+
+    /**
+     * A change to apply
+     */
+    abstract static class Change
+    {
+        /**
+         * Applies the change
+         *
+         * @throws Exception If the change cannot be applied
+         */
+        abstract void apply() throws Exception;
+
+
+        /**
+         * Tells if the change is already applied, once applying it has failed : the same
+         * change can be received again after a resync.
+         *
+         * @return true if the change is already applied. The default is false
+         * @throws Exception If the check cannot be done
+         */
+        boolean isApplied() throws Exception
+        {
+            return false;
+        }
+
+
+        /**
+         * @return The identifier of the change, the same when it is received again, used to
+         * count its attempts. The default is null : the change is attempted forever
+         */
+        String getId()
+        {
+            return null;
+        }
+    }
+
+
+    /**
+     * The number of changes not applied yet for an entry, and the worker applying them
+     */
+    private static class Pending
+    {
+        private final int worker;
+
+        private int count = 1;
+
+
+        private Pending( int worker )
+        {
+            this.worker = worker;
+        }
+    }
+
+
+    /**
+     * Creates the daemon threads applying the changes
+     */
+    private static class WorkerThreadFactory implements ThreadFactory
+    {
+        /** The thread name */
+        private final String name;
+
+
+        private WorkerThreadFactory( String name )
+        {
+            this.name = name;
+        }
+
+
+        public Thread newThread( Runnable runnable )
+        {
+            Thread thread = new Thread( runnable, name );
+            thread.setDaemon( true );
+
+            return thread;
+        }
+    }
+}
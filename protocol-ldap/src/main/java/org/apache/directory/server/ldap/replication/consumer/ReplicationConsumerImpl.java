@@ -22,9 +22,13 @@ package org.apache.directory.server.ldap.replication.consumer;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import org.apache.commons.collections.map.LRUMap;
 import org.apache.directory.api.ldap.codec.controls.manageDsaIT.ManageDsaITDecorator;
@@ -48,6 +52,7 @@ import org.apache.directory.api.ldap.model.entry.Entry;
 import org.apache.directory.api.ldap.model.entry.Modification;
 import org.apache.directory.api.ldap.model.entry.ModificationOperation;
 import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.exception.LdapInvalidDnException;
 import org.apache.directory.api.ldap.model.exception.LdapNoSuchObjectException;
 import org.apache.directory.api.ldap.model.filter.AndNode;
 import org.apache.directory.api.ldap.model.filter.EqualityNode;
@@ -80,7 +85,10 @@ import org.apache.directory.ldap.client.api.LdapNetworkConnection;
 import org.apache.directory.ldap.client.api.future.SearchFuture;
 import org.apache.directory.server.core.api.CoreSession;
 import org.apache.directory.server.core.api.DirectoryService;
+import org.apache.directory.server.core.api.InterceptorEnum;
+import org.apache.directory.server.core.api.OperationEnum;
 import org.apache.directory.server.core.api.OperationManager;
+import org.apache.directory.server.core.api.interceptor.Interceptor;
 import org.apache.directory.server.core.api.interceptor.context.AddOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.DeleteOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.LookupOperationContext;
@@ -89,6 +97,7 @@ import org.apache.directory.server.core.api.interceptor.context.MoveAndRenameOpe
 import org.apache.directory.server.core.api.interceptor.context.MoveOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.RenameOperationContext;
 import org.apache.directory.server.ldap.LdapProtocolUtils;
+import org.apache.directory.server.ldap.replication.ReplicaDeltaControl;
 import org.apache.directory.server.ldap.replication.ReplicationConsumerConfig;
 import org.apache.directory.server.ldap.replication.SyncReplConfiguration;
 import org.slf4j.Logger;
@@ -161,6 +170,51 @@ public class ReplicationConsumerImpl implements ConnectionClosedEventListener, R
 
     private static final Map<String, Object> UUID_LOCK_MAP = new LRUMap( 1000 );
 
+    /** The system property used to set the number of changes applied before storing the cookie */
+    public static final String BATCH_SIZE_PROPERTY = "apacheds.replication.consumer.batchSize";
+
+    /** The default number of changes applied before storing the cookie */
+    public static final int DEFAULT_BATCH_SIZE = 500;
+
+    /** The delay, in milliseconds, after which the applied changes are committed when no change is received */
+    private static final long COMMIT_DELAY = 100L;
+
+    /** The applier of the received changes */
+    private ChangeApplier applier;
+
+    /** Tells if a received change has failed since the last sync started. The cookie is not stored then */
+    private volatile boolean changeFailed;
+
+    /** The number of changes applied before storing the cookie */
+    private int batchSize = Integer.getInteger( BATCH_SIZE_PROPERTY, DEFAULT_BATCH_SIZE );
+
+    /** The interceptors the entries go through when the initial content is loaded in bulk */
+    private static final Set<String> BULK_LOAD_INTERCEPTORS = new HashSet<String>( Arrays.asList(
+        InterceptorEnum.NORMALIZATION_INTERCEPTOR.getName(),
+        InterceptorEnum.REFERRAL_INTERCEPTOR.getName(),
+        InterceptorEnum.OPERATIONAL_ATTRIBUTE_INTERCEPTOR.getName(),
+        InterceptorEnum.SCHEMA_INTERCEPTOR.getName(),
+        InterceptorEnum.EVENT_INTERCEPTOR.getName(),
+        InterceptorEnum.CHANGE_LOG_INTERCEPTOR.getName(),
+        InterceptorEnum.JOURNAL_INTERCEPTOR.getName() ) );
+
+    /** The object classes of the entries cached by the interceptors, which can't be loaded in bulk */
+    private static final String[] CACHED_OCS = new String[]
+        {
+            SchemaConstants.SUBENTRY_OC,
+            SchemaConstants.GROUP_OF_NAMES_OC,
+            SchemaConstants.GROUP_OF_UNIQUE_NAMES_OC
+    };
+
+    /** Tells if the entries received are the initial content, loaded in bulk */
+    private volatile boolean bulkLoading;
+
+    /** The interceptors used to load the initial content in bulk */
+    private Interceptor[] bulkLoadPipeline;
+
+    /** The administrative points received while loading in bulk, their subtrees are not loaded in bulk */
+    private final Set<Dn> administrativePoints = new HashSet<Dn>();
+
 
     /**
      * @return the config
@@ -193,6 +247,8 @@ public class ReplicationConsumerImpl implements ConnectionClosedEventListener, R
         Attribute ridAttr = new DefaultAttribute( RID_AT_TYPE );
         ridMod = new DefaultModification( ModificationOperation.REPLACE_ATTRIBUTE, ridAttr );
 
+        applier = new ChangeApplier( "ReplicationConsumer-" + config.getReplicaId() );
+
         prepareSyncSearchRequest();
     }
 
@@ -288,6 +344,12 @@ public class ReplicationConsumerImpl implements ConnectionClosedEventListener, R
 
         searchRequest.addAttributes( config.getAttributes() );
 
+        if ( config.isDeltaSync() )
+        {
+            // ask the provider to only send the modifications of the modified entries
+            searchRequest.addControl( ReplicaDeltaControl.newRequestControl( directoryService.getLdapCodecService() ) );
+        }
+
         if ( !config.isChaseReferrals() )
         {
             searchRequest.addControl( new ManageDsaITDecorator( directoryService.getLdapCodecService(),
@@ -331,8 +393,9 @@ public class ReplicationConsumerImpl implements ConnectionClosedEventListener, R
 
 
     /**
-     * Process a SearchResultEntry received from a consumer. We have to handle all the
-     * cases :
+     * Process a SearchResultEntry received from a consumer. The change is submitted to the
+     * applier, and the cookie is stored once the batch of changes it belongs to is durable.
+     * We have to handle all the cases :
      * - Add
      * - Modify
      * - Moddn
@@ -344,125 +407,277 @@ public class ReplicationConsumerImpl implements ConnectionClosedEventListener, R
     {
         CONSUMER_LOG.debug( "------------- starting handleSearchResult ------------" );
 
-        SyncStateValue syncStateCtrl = ( SyncStateValue ) syncResult.getControl( SyncStateValue.OID );
+        final SyncStateValue syncStateCtrl = ( SyncStateValue ) syncResult.getControl( SyncStateValue.OID );
 
         try
         {
-            Entry remoteEntry = new DefaultEntry( schemaManager, syncResult.getEntry() );
+            final Entry remoteEntry = new DefaultEntry( schemaManager, syncResult.getEntry() );
+            final List<Modification> delta = ReplicaDeltaControl.getModifications( schemaManager, syncResult );
             String uuid = remoteEntry.get( ENTRY_UUID_AT ).getString();
-            // lock on UUID to serialize the updates when there are multiple consumers
-            // connected to several producers and to the *same* base/partition
-            Object lock = getLockFor( uuid );
+            int rid = -1;
 
-            synchronized ( lock )
+            if ( syncStateCtrl.getCookie() != null )
             {
-                int rid = -1;
+                syncCookie = syncStateCtrl.getCookie();
+                rid = LdapProtocolUtils.getReplicaId( Strings.utf8ToString( syncCookie ) );
+                CONSUMER_LOG.debug( "assigning the cookie from sync state value control: {}",
+                    Strings.utf8ToString( syncCookie ) );
+            }
+
+            final int replicaId = rid;
+            final SyncStateTypeEnum state = syncStateCtrl.getSyncStateType();
+            Attribute remoteCsn = remoteEntry.get( SchemaConstants.ENTRY_CSN_AT );
+            final String changeId = uuid + ";" + state + ";" + ( ( remoteCsn == null ) ? "" : remoteCsn.getString() );
+
+            // Decided here, in the order the entries are received, as the changes
+            // are applied concurrently
+            final boolean bulkLoad = bulkLoading && ( state == SyncStateTypeEnum.ADD ) && canBulkLoad( remoteEntry );
+
+            // The moddn and deletions are applied on a whole subtree
+            boolean subtree = ( state == SyncStateTypeEnum.MODDN ) || ( state == SyncStateTypeEnum.DELETE );
 
-                if ( syncStateCtrl.getCookie() != null )
+            applier.submit( uuid, remoteEntry.getDn(), subtree, new ChangeApplier.Change()
+            {
+                public void apply() throws Exception
                 {
-                    syncCookie = syncStateCtrl.getCookie();
-                    rid = LdapProtocolUtils.getReplicaId( Strings.utf8ToString( syncCookie ) );
-                    CONSUMER_LOG.debug( "assigning the cookie from sync state value control: {}",
-                        Strings.utf8ToString( syncCookie ) );
+                    applyChange( remoteEntry, delta, syncStateCtrl, replicaId, bulkLoad );
                 }
 
-                SyncStateTypeEnum state = syncStateCtrl.getSyncStateType();
 
-                // check to avoid conversion of UUID from byte[] to String
-                if ( CONSUMER_LOG.isDebugEnabled() )
+                boolean isApplied() throws Exception
                 {
-                    CONSUMER_LOG.debug( "state name {}", state.name() );
-                    CONSUMER_LOG.debug( "entryUUID = {}", Strings.uuidToString( syncStateCtrl.getEntryUUID() ) );
+                    return isChangeApplied( remoteEntry, state );
                 }
 
-                Dn remoteDn = remoteEntry.getDn();
 
-                switch ( state )
+                String getId()
                 {
-                    case ADD:
-                        boolean remoteDnExist = false;
+                    return changeId;
+                }
+            } );
 
-                        try
-                        {
-                            remoteDnExist = session.exists( remoteDn );
-                        }
-                        catch ( LdapNoSuchObjectException lnsoe )
-                        {
-                            CONSUMER_LOG.error( lnsoe.getMessage() );
-                        }
+            if ( applier.getUnflushed() >= batchSize )
+            {
+                commitBatch();
+            }
+        }
+        catch ( Exception e )
+        {
+            CONSUMER_LOG.error( e.getMessage(), e );
+        }
 
-                        if ( !remoteDnExist )
-                        {
-                            CONSUMER_LOG.debug( "adding entry with dn {}", remoteDn );
-                            CONSUMER_LOG.debug( remoteEntry.toString() );
-                            AddOperationContext addContext = new AddOperationContext( session, remoteEntry );
-                            addContext.setReplEvent( true );
-                            addContext.setRid( rid );
-
-                            OperationManager operationManager = directoryService.getOperationManager();
-                            operationManager.add( addContext );
-                        }
-                        else
-                        {
-                            CONSUMER_LOG.debug( "updating entry in refreshOnly mode {}", remoteDn );
-                            modify( remoteEntry, rid );
-                        }
+        CONSUMER_LOG.debug( "------------- Ending handleSearchResult ------------" );
+    }
 
-                        break;
 
-                    case MODIFY:
-                        CONSUMER_LOG.debug( "modifying entry with dn {}", remoteEntry.getDn().getName() );
-                        modify( remoteEntry, rid );
+    /**
+     * Tells if a change received from the provider, which has failed, is already applied : the
+     * deleted entry does not exist anymore, or the local entry is as recent as the remote one.
+     */
+    private boolean isChangeApplied( Entry remoteEntry, SyncStateTypeEnum state ) throws Exception
+    {
+        boolean exists = session.exists( remoteEntry.getDn() );
 
-                        break;
+        if ( state == SyncStateTypeEnum.DELETE )
+        {
+            return !exists;
+        }
 
-                    case MODDN:
-                        String entryUuid = Strings.uuidToString( syncStateCtrl.getEntryUUID() ).toString();
-                        applyModDnOperation( remoteEntry, entryUuid, rid );
+        Attribute remoteCsn = remoteEntry.get( SchemaConstants.ENTRY_CSN_AT );
 
-                        break;
+        if ( !exists || ( remoteCsn == null ) )
+        {
+            return false;
+        }
 
-                    case DELETE:
-                        CONSUMER_LOG.debug( "deleting entry with dn {}", remoteEntry.getDn().getName() );
+        Attribute localCsn = session.lookup( remoteEntry.getDn(), SchemaConstants.ENTRY_CSN_AT ).get(
+            SchemaConstants.ENTRY_CSN_AT );
 
-                        if ( !session.exists( remoteDn ) )
-                        {
-                            CONSUMER_LOG
-                                .debug(
-                                    "looks like entry {} was already deleted in a prior update (possibly from another provider), skipping delete",
-                                    remoteDn );
-                        }
-                        else
+        return ( localCsn != null )
+            && ( new Csn( localCsn.getString() ).compareTo( new Csn( remoteCsn.getString() ) ) >= 0 );
+    }
+
+
+    /**
+     * Applies a change received from the provider. The delta is the list of modifications
+     * sent instead of the whole entry for a delta message, or null.
+     *
+     * @throws Exception If the change cannot be applied
+     */
+    private void applyChange( Entry remoteEntry, List<Modification> delta, SyncStateValue syncStateCtrl, int rid,
+        boolean bulkLoad ) throws Exception
+    {
+        String uuid = remoteEntry.get( ENTRY_UUID_AT ).getString();
+        // lock on UUID to serialize the updates when there are multiple consumers
+        // connected to several producers and to the *same* base/partition
+        Object lock = getLockFor( uuid );
+
+        synchronized ( lock )
+        {
+            SyncStateTypeEnum state = syncStateCtrl.getSyncStateType();
+
+            // check to avoid conversion of UUID from byte[] to String
+            if ( CONSUMER_LOG.isDebugEnabled() )
+            {
+                CONSUMER_LOG.debug( "state name {}", state.name() );
+                CONSUMER_LOG.debug( "entryUUID = {}", Strings.uuidToString( syncStateCtrl.getEntryUUID() ) );
+            }
+
+            Dn remoteDn = remoteEntry.getDn();
+
+            switch ( state )
+            {
+                case ADD:
+                    boolean remoteDnExist = false;
+
+                    try
+                    {
+                        remoteDnExist = session.exists( remoteDn );
+                    }
+                    catch ( LdapNoSuchObjectException lnsoe )
+                    {
+                        CONSUMER_LOG.error( lnsoe.getMessage() );
+                    }
+
+                    if ( !remoteDnExist )
+                    {
+                        CONSUMER_LOG.debug( "adding entry with dn {}", remoteDn );
+                        CONSUMER_LOG.debug( remoteEntry.toString() );
+                        AddOperationContext addContext = new AddOperationContext( session, remoteEntry );
+                        addContext.setReplEvent( true );
+                        addContext.setRid( rid );
+
+                        if ( bulkLoad )
                         {
-                            // incase of a MODDN operation resulting in a branch to be moved out of scope
-                            // ApacheDS replication provider sends a single delete event on the Dn of the moved branch
-                            // so the branch needs to be recursively deleted here
-                            deleteRecursive( remoteEntry.getDn(), rid );
+                            addContext.setInterceptors( bulkLoadPipeline );
                         }
 
-                        break;
+                        OperationManager operationManager = directoryService.getOperationManager();
+                        operationManager.add( addContext );
+                    }
+                    else
+                    {
+                        CONSUMER_LOG.debug( "updating entry in refreshOnly mode {}", remoteDn );
+                        modify( remoteEntry, rid );
+                    }
+
+                    break;
+
+                case MODIFY:
+                    CONSUMER_LOG.debug( "modifying entry with dn {}", remoteEntry.getDn().getName() );
+                    if ( delta != null )
+                    {
+                        modify( remoteEntry, delta, rid );
+                    }
+                    else
+                    {
+                        modify( remoteEntry, rid );
+                    }
+
+                    break;
+
+                case MODDN:
+                    String entryUuid = Strings.uuidToString( syncStateCtrl.getEntryUUID() ).toString();
+                    applyModDnOperation( remoteEntry, entryUuid, rid );
+
+                    break;
+
+                case DELETE:
+                    CONSUMER_LOG.debug( "deleting entry with dn {}", remoteEntry.getDn().getName() );
+
+                    if ( !session.exists( remoteDn ) )
+                    {
+                        CONSUMER_LOG
+                            .debug(
+                                "looks like entry {} was already deleted in a prior update (possibly from another provider), skipping delete",
+                                remoteDn );
+                    }
+                    else
+                    {
+                        // incase of a MODDN operation resulting in a branch to be moved out of scope
+                        // ApacheDS replication provider sends a single delete event on the Dn of the moved branch
+                        // so the branch needs to be recursively deleted here
+                        deleteRecursive( remoteEntry.getDn(), rid );
+                    }
+
+                    break;
+
+                case PRESENT:
+                    CONSUMER_LOG.debug( "entry present {}", remoteEntry );
+                    break;
+
+                default:
+                    throw new IllegalArgumentException( "Unexpected sync state " + state );
+            }
+        }
+    }
 
-                    case PRESENT:
-                        CONSUMER_LOG.debug( "entry present {}", remoteEntry );
-                        break;
 
-                    default:
-                        throw new IllegalArgumentException( "Unexpected sync state " + state );
+    /**
+     * Reads the next response sent by the provider. The changes already received are
+     * committed if no response is received for a short while.
+     */
+    private Response nextResponse( SearchFuture sf ) throws Exception
+    {
+        if ( applier.getUnflushed() > 0 )
+        {
+            try
+            {
+                Response resp = sf.get( COMMIT_DELAY, TimeUnit.MILLISECONDS );
+
+                if ( resp != null )
+                {
+                    return resp;
                 }
+            }
+            catch ( TimeoutException te )
+            {
+                // Nothing received, commit the changes
+            }
+
+            commitBatch();
+        }
+
+        return sf.get();
+    }
+
+
+    /**
+     * Waits for the submitted changes to be applied, makes them durable, and then stores
+     * the cookie of the last one. If a change has failed, the cookie is not stored and
+     * the consumer is disconnected : it will resync from the last stored cookie. A change
+     * failing again after a few resyncs is skipped by the applier.
+     */
+    private void commitBatch()
+    {
+        try
+        {
+            int failed = applier.flush();
+            directoryService.getPartitionNexus().sync();
+
+            if ( failed > 0 )
+            {
+                CONSUMER_LOG.error( "{} replicated changes could not be applied, the consumer {} will resync from "
+                    + "its last stored cookie", failed, config.getReplicaId() );
+                changeFailed = true;
 
-                // store the cookie only if the above operation was successful
-                if ( syncStateCtrl.getCookie() != null )
+                if ( !disconnected )
                 {
-                    storeCookie();
+                    disconnect();
                 }
             }
+
+            storeCookie();
+        }
+        catch ( InterruptedException ie )
+        {
+            CONSUMER_LOG.warn( "Interrupted while waiting for the changes to be applied" );
+            Thread.currentThread().interrupt();
         }
         catch ( Exception e )
         {
-            CONSUMER_LOG.error( e.getMessage(), e );
+            CONSUMER_LOG.error( "Failed to commit the replicated changes", e );
         }
-
-        CONSUMER_LOG.debug( "------------- Ending handleSearchResult ------------" );
     }
 
 
@@ -475,6 +690,12 @@ public class ReplicationConsumerImpl implements ConnectionClosedEventListener, R
         {
             CONSUMER_LOG.debug( "............... inside handleSyncInfo ..............." );
 
+            // the deletions must be applied after the changes already received
+            commitBatch();
+
+            // The initial content has been received
+            bulkLoading = false;
+
             byte[] syncInfoBytes = syncInfoResp.getResponseValue();
 
             if ( syncInfoBytes == null )
@@ -557,6 +778,7 @@ public class ReplicationConsumerImpl implements ConnectionClosedEventListener, R
         CONSUMER_LOG.debug( "Starting the SyncRepl process for consumer {}", config.getReplicaId() );
 
         // read the cookie if persisted
+        changeFailed = false;
         readCookie();
 
         if ( config.isRefreshNPersist() )
@@ -703,6 +925,11 @@ public class ReplicationConsumerImpl implements ConnectionClosedEventListener, R
         {
             disconnect();
         }
+
+        if ( applier != null )
+        {
+            applier.shutdown();
+        }
     }
 
 
@@ -753,10 +980,20 @@ public class ReplicationConsumerImpl implements ConnectionClosedEventListener, R
 
         searchRequest.addControl( syncReq );
 
+        // Without cookie, the whole content is received and loaded in bulk
+        bulkLoading = config.isBulkLoad() && ( syncCookie == null );
+
+        if ( bulkLoading )
+        {
+            CONSUMER_LOG.info( "Loading the initial content from {} in bulk", config.getProducer() );
+            bulkLoadPipeline = createBulkLoadPipeline();
+            administrativePoints.clear();
+        }
+
         // Do the search. We use a searchAsync because we want to get SearchResultDone responses
         SearchFuture sf = connection.searchAsync( searchRequest );
 
-        Response resp = sf.get();
+        Response resp = nextResponse( sf );
 
         CONSUMER_LOG.debug( "Response from {} : {}", config.getProducer(), resp );
 
@@ -780,10 +1017,14 @@ public class ReplicationConsumerImpl implements ConnectionClosedEventListener, R
             }
 
             // Next entry
-            resp = sf.get();
+            resp = nextResponse( sf );
             CONSUMER_LOG.debug( "Response from {} : {}", config.getProducer(), resp );
         }
 
+        // The changes received so far are applied before going on
+        commitBatch();
+        bulkLoading = false;
+
         if ( sf.isCancelled() )
         {
 
@@ -856,6 +1097,83 @@ public class ReplicationConsumerImpl implements ConnectionClosedEventListener, R
     }
 
 
+    /**
+     * Creates the reduced pipeline used to add the entries of the initial content. The
+     * entries have been completed by the provider, so only the interceptors which maintain
+     * the state of the server are kept, plus the SchemaInterceptor : the consumer schema may
+     * differ from the provider one, and an invalid entry must not be stored.
+     */
+    private Interceptor[] createBulkLoadPipeline()
+    {
+        List<Interceptor> pipeline = new ArrayList<Interceptor>();
+
+        for ( Interceptor interceptor : directoryService.getInterceptorPipeline( OperationEnum.ADD ) )
+        {
+            if ( BULK_LOAD_INTERCEPTORS.contains( interceptor.getName() ) )
+            {
+                pipeline.add( interceptor );
+            }
+        }
+
+        return pipeline.toArray( new Interceptor[pipeline.size()] );
+    }
+
+
+    /**
+     * Tells if an entry can be added through the bulk load pipeline : the subentries, the
+     * groups and the administrative points are cached by the interceptors, they have to
+     * go through the whole pipeline. So do the entries below an administrative point, as
+     * the subentries which select them are computed by the SubentryInterceptor.
+     */
+    private boolean canBulkLoad( Entry entry ) throws LdapInvalidDnException
+    {
+        Dn dn = entry.getDn();
+
+        if ( !dn.isSchemaAware() )
+        {
+            dn.apply( schemaManager );
+        }
+
+        if ( entry.containsAttribute( SchemaConstants.ADMINISTRATIVE_ROLE_AT ) )
+        {
+            administrativePoints.add( dn );
+
+            return false;
+        }
+
+        for ( Dn administrativePoint : administrativePoints )
+        {
+            if ( dn.isDescendantOf( administrativePoint ) )
+            {
+                return false;
+            }
+        }
+
+        // The administrative points which were already there
+        if ( !directoryService.getSubentryCache().getSubentries( dn ).isEmpty() )
+        {
+            return false;
+        }
+
+        Attribute objectClass = entry.get( SchemaConstants.OBJECT_CLASS_AT );
+
+        if ( objectClass == null )
+        {
+            return false;
+        }
+
+        for ( String oc : CACHED_OCS )
+        {
+            if ( objectClass.contains( oc ) )
+            {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+
     /**
      * Disconnect from the producer
      */
@@ -888,8 +1206,8 @@ public class ReplicationConsumerImpl implements ConnectionClosedEventListener, R
         }
         finally
         {
-            // persist the cookie
-            storeCookie();
+            // persist the cookie, once the received changes are applied
+            commitBatch();
 
             // reset the cookie
             syncCookie = null;
@@ -909,6 +1227,12 @@ public class ReplicationConsumerImpl implements ConnectionClosedEventListener, R
             return;
         }
 
+        if ( changeFailed )
+        {
+            CONSUMER_LOG.debug( "A change has failed, the cookie is not stored" );
+            return;
+        }
+
         if ( ( lastSavedCookie != null ) && Arrays.equals( syncCookie, lastSavedCookie ) )
         {
             return;
@@ -1194,6 +1518,83 @@ public class ReplicationConsumerImpl implements ConnectionClosedEventListener, R
     }
 
 
+    /**
+     * Applies the modifications sent by the provider for a delta message. The remote entry
+     * only contains the entryUUID and the entryCSN of the modified entry.
+     * <br>
+     * The modifications are relative to the previous state of the entry : they are discarded
+     * if the local entry is as recent as the remote one, whatever the replication mode, as
+     * they have already been applied (a message sent again after a reconnection), or they are
+     * older than a local modification (MMR mode).
+     */
+    private void modify( Entry remoteEntry, List<Modification> delta, int rid ) throws Exception
+    {
+        Entry localEntry = session.lookup( remoteEntry.getDn(), SchemaConstants.ENTRY_CSN_AT );
+        Attribute localCsnAttr = localEntry.get( SchemaConstants.ENTRY_CSN_AT );
+
+        if ( localCsnAttr != null )
+        {
+            Csn localCsn = new Csn( localCsnAttr.getString() );
+            Csn remoteCsn = new Csn( remoteEntry.get( SchemaConstants.ENTRY_CSN_AT ).getString() );
+
+            if ( localCsn.compareTo( remoteCsn ) >= 0 )
+            {
+                // just discard the received modifications, they are already applied, or old
+                CONSUMER_LOG.debug( "local modification is latest, discarding the modification of dn {}",
+                    remoteEntry.getDn() );
+                return;
+            }
+        }
+
+        List<Modification> serverModifications = new ArrayList<Modification>( delta.size() + 1 );
+        boolean hasCsn = false;
+
+        for ( Modification mod : delta )
+        {
+            String attrId = mod.getAttribute().getId();
+
+            if ( isIgnoredOnModification( attrId ) )
+            {
+                continue;
+            }
+
+            hasCsn |= SchemaConstants.ENTRY_CSN_AT.equalsIgnoreCase( attrId );
+            serverModifications.add( new DefaultModification( schemaManager, mod ) );
+        }
+
+        if ( !hasCsn )
+        {
+            serverModifications.add( new DefaultModification( ModificationOperation.REPLACE_ATTRIBUTE,
+                remoteEntry.get( SchemaConstants.ENTRY_CSN_AT ) ) );
+        }
+
+        ModifyOperationContext modifyContext = new ModifyOperationContext( session, remoteEntry.getDn(),
+            serverModifications );
+        modifyContext.setReplEvent( true );
+        modifyContext.setRid( rid );
+
+        OperationManager operationManager = directoryService.getOperationManager();
+        operationManager.modify( modifyContext );
+    }
+
+
+    /**
+     * Tells if the modifications of an attribute are not applied on the consumer
+     */
+    private boolean isIgnoredOnModification( String attrId )
+    {
+        for ( String ignored : MOD_IGNORE_AT )
+        {
+            if ( ignored.equalsIgnoreCase( attrId ) )
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+
     /**
      * Create a new list combining a list and a newly added attribute
      */
@@ -1376,17 +1777,21 @@ public class ReplicationConsumerImpl implements ConnectionClosedEventListener, R
     }
 
 
-    private synchronized Object getLockFor( String uuid )
+    private Object getLockFor( String uuid )
     {
-        Object lock = UUID_LOCK_MAP.get( uuid );
-
-        if ( lock == null )
+        // The map is shared by all the consumers
+        synchronized ( UUID_LOCK_MAP )
         {
-            lock = new Object();
-            UUID_LOCK_MAP.put( uuid, lock );
-        }
+            Object lock = UUID_LOCK_MAP.get( uuid );
+
+            if ( lock == null )
+            {
+                lock = new Object();
+                UUID_LOCK_MAP.put( uuid, lock );
+            }
 
-        return lock;
+            return lock;
+        }
     }
 
 
@@ -79,6 +79,9 @@ public class ReplConsumerManager
     /** The schema manager instance */
     private SchemaManager schemaManager;
 
+    /** The journal shared by the replica event logs */
+    private ReplicaJournal journal;
+
     /** The replication factory DN */
     private static final String REPL_CONSUMER_DN_STR = "ou=consumers,ou=system";
     private Dn replConsumerDn;
@@ -100,11 +103,13 @@ public class ReplConsumerManager
      * Create a new instance of the producer replication manager.
      * 
      * @param directoryService The directoryService instance
+     * @param journal The journal shared by the replica event logs
      * @throws Exception if we add an error while creating the configuration
      */
-    public ReplConsumerManager( DirectoryService directoryService ) throws Exception
+    public ReplConsumerManager( DirectoryService directoryService, ReplicaJournal journal ) throws Exception
     {
         this.directoryService = directoryService;
+        this.journal = journal;
         adminSession = directoryService.getAdminSession();
         schemaManager = directoryService.getSchemaManager();
         replConsumerDn = directoryService.getDnFactory().create( REPL_CONSUMER_DN_STR );
@@ -298,7 +303,7 @@ public class ReplConsumerManager
     private ReplicaEventLog convertEntryToReplica( Entry entry ) throws Exception
     {
         String id = entry.get( SchemaConstants.ADS_DS_REPLICA_ID ).getString();
-        ReplicaEventLog replica = new ReplicaEventLog( directoryService, Integer.parseInt( id ) );
+        ReplicaEventLog replica = new ReplicaEventLog( directoryService, journal, Integer.parseInt( id ) );
 
         NotificationCriteria searchCriteria = new NotificationCriteria();
 
@@ -21,25 +21,15 @@
 package org.apache.directory.server.ldap.replication.provider;
 
 
-import java.io.File;
 import java.io.IOException;
 
-import jdbm.RecordManager;
-import jdbm.recman.BaseRecordManager;
-import jdbm.recman.TransactionManager;
-
 import org.apache.directory.api.ldap.model.constants.Loggers;
-import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.name.Dn;
-import org.apache.directory.api.ldap.model.schema.SchemaManager;
-import org.apache.directory.api.ldap.model.schema.comparators.SerializableComparator;
 import org.apache.directory.server.core.api.DirectoryService;
 import org.apache.directory.server.core.api.event.EventType;
 import org.apache.directory.server.core.api.event.NotificationCriteria;
 import org.apache.directory.server.core.partition.impl.btree.jdbm.JdbmTable;
-import org.apache.directory.server.core.partition.impl.btree.jdbm.StringSerializer;
 import org.apache.directory.server.ldap.replication.ReplicaEventMessage;
-import org.apache.directory.server.ldap.replication.ReplicaEventMessageSerializer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -55,7 +45,7 @@ import org.slf4j.LoggerFactory;
  * <li>refreshNPersist : a flag indicating that the consumer is processing in Refresh and persist mode</li>
  * <li></li>
  * </ul>
- * A separate log is maintained for each syncrepl consumer.<br/>
+ * A separate index of the shared {@link ReplicaJournal} is maintained for each syncrepl consumer.<br/>
  * We also associate a Queue with each structure, which will store the messages to send to the consumer.
  *
  * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
@@ -96,18 +86,21 @@ public class ReplicaEventLog implements Comparable<ReplicaEventLog>
     private int purgeThresholdCount = DEFAULT_PURGE_THRESHOLD_COUNT;
 
     // fields that won't be serialized
-    /** The Journal of modifications */
-    private JdbmTable<String, ReplicaEventMessage> journal;
+    /** The journal shared by all the consumers */
+    private ReplicaJournal journal;
 
-    /** the underlying file  */
-    private File journalFile;
+    /** The index of the messages of this consumer in the journal */
+    private JdbmTable<String, ReplicaEventMessage> index;
 
-    /** The record manager*/
-    private RecordManager recman;
+    /** The name of the index */
+    private String name;
 
     /** A flag used to indicate that the consumer is not up to date */
     private volatile boolean dirty;
 
+    /** Tells if the consumer has asked for delta messages. Unknown until the consumer connects */
+    private volatile boolean deltaSync;
+
     /** the DN of the entry where this event log details are stored */
     private Dn consumerEntryDn;
 
@@ -123,29 +116,21 @@ public class ReplicaEventLog implements Comparable<ReplicaEventLog>
      * Creates a new instance of EventLog for a replica
      * 
      * @param directoryService The DirectoryService instance
+     * @param journal The journal shared by all the consumers
      * @param replicaId The replica ID
      */
-    public ReplicaEventLog( DirectoryService directoryService, int replicaId ) throws IOException
+    public ReplicaEventLog( DirectoryService directoryService, ReplicaJournal journal, int replicaId )
+        throws IOException
     {
         PROVIDER_LOG.debug( "Creating the replication queue for replica {}", replicaId );
-        SchemaManager schemaManager = directoryService.getSchemaManager();
         this.replicaId = replicaId;
         this.searchCriteria = new NotificationCriteria();
         this.searchCriteria.setEventMask( EventType.ALL_EVENT_TYPES_MASK );
 
-        // Create the journal file, or open if already exists
-        File replDir = directoryService.getInstanceLayout().getReplDirectory();
-        journalFile = new File( replDir, REPLICA_EVENT_LOG_NAME_PREFIX + replicaId );
-        recman = new BaseRecordManager( journalFile.getAbsolutePath() );
-        TransactionManager transactionManager = ( ( BaseRecordManager ) recman ).getTransactionManager();
-        transactionManager.setMaximumTransactionsInLog( 200 );
-
-        SerializableComparator<String> comparator = new SerializableComparator<String>(
-            SchemaConstants.CSN_ORDERING_MATCH_MR_OID );
-        comparator.setSchemaManager( schemaManager );
-
-        journal = new JdbmTable<String, ReplicaEventMessage>( schemaManager, journalFile.getName(), recman, comparator,
-            StringSerializer.INSTANCE, new ReplicaEventMessageSerializer( schemaManager ) );
+        // Create the index in the journal, or open if already exists
+        this.journal = journal;
+        name = REPLICA_EVENT_LOG_NAME_PREFIX + replicaId;
+        index = journal.openIndex( name );
     }
 
 
@@ -163,9 +148,7 @@ public class ReplicaEventLog implements Comparable<ReplicaEventLog>
             PROVIDER_LOG.debug( "logging entry with Dn {} with the event {}", message.getEntry().getDn(),
                 message.getChangeType() );
 
-            String entryCsn = message.getEntry().get( SchemaConstants.ENTRY_CSN_AT ).getString();
-            journal.put( entryCsn, message );
-            journal.sync();
+            journal.append( index, message );
         }
         catch ( Exception e )
         {
@@ -205,20 +188,31 @@ public class ReplicaEventLog implements Comparable<ReplicaEventLog>
     {
         PROVIDER_LOG.debug( "Stopping the EventLog for replicaId {}", replicaId );
 
-        // Close the producer and session, DO NOT close connection 
-        if ( journal != null )
+        // Close the index, the journal is shared with the other consumers
+        if ( index != null )
         {
-            journal.close();
+            journal.closeIndex( index );
         }
 
-        journal = null;
+        index = null;
+    }
+
 
-        if ( recman != null )
+    /**
+     * Removes all the messages of this EventLog from the journal, then stops it
+     * 
+     * @throws Exception If the messages can't be removed
+     */
+    public void drop() throws Exception
+    {
+        PROVIDER_LOG.debug( "Dropping the EventLog for replicaId {}", replicaId );
+
+        if ( index != null )
         {
-            recman.close();
+            journal.dropIndex( index );
         }
 
-        recman = null;
+        stop();
     }
 
 
@@ -422,6 +416,25 @@ public class ReplicaEventLog implements Comparable<ReplicaEventLog>
     }
 
 
+    /**
+     * @return True if only the modifications are sent to the consumer
+     */
+    public boolean isDeltaSync()
+    {
+        return deltaSync;
+    }
+
+
+    /**
+     * Set the deltaSync flag
+     * @param deltaSync Tells if the consumer has asked for delta messages
+     */
+    public void setDeltaSync( boolean deltaSync )
+    {
+        this.deltaSync = deltaSync;
+    }
+
+
     /**
      * @return The queue name
      */
@@ -438,7 +451,7 @@ public class ReplicaEventLog implements Comparable<ReplicaEventLog>
      */
     public ReplicaJournalCursor getCursor( String consumerCsn ) throws Exception
     {
-        return new ReplicaJournalCursor( journal, consumerCsn );
+        return new ReplicaJournalCursor( journal, index, consumerCsn );
     }
 
 
@@ -447,7 +460,7 @@ public class ReplicaEventLog implements Comparable<ReplicaEventLog>
      */
     public String getName()
     {
-        return journal.getName();
+        return name;
     }
 
 
@@ -458,7 +471,7 @@ public class ReplicaEventLog implements Comparable<ReplicaEventLog>
     {
         try
         {
-            return journal.count();
+            return index.count();
         }
         catch ( IOException e )
         {
@@ -519,7 +532,7 @@ public class ReplicaEventLog implements Comparable<ReplicaEventLog>
         return "ReplicaEventLog [hostName=" + hostName + ", searchFilter=" + searchFilter + ", lastSentCsn="
             + lastSentCsn + ", searchCriteria=" + searchCriteria + ", replicaId=" + replicaId
             + ", refreshNPersist=" + refreshNPersist + ", maxInactivePeriod=" + maxIdlePeriod
-            + ", purgeThresholdCount=" + purgeThresholdCount + ", journalFile=" + journalFile
+            + ", purgeThresholdCount=" + purgeThresholdCount + ", name=" + name
             + ", dirty=" + dirty + ", consumerEntryDn=" + consumerEntryDn + "]";
     }
 }
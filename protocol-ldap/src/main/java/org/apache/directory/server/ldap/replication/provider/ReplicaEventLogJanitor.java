@@ -20,7 +20,6 @@
 package org.apache.directory.server.ldap.replication.provider;
 
 
-import java.io.File;
 import java.util.Map;
 
 import org.apache.directory.api.ldap.model.constants.SchemaConstants;
@@ -34,7 +33,8 @@ import org.slf4j.LoggerFactory;
 
 
 /**
- * Deletes old entries from the replication event logs that are configured in refreshNPersist mode.
+ * Deletes old entries from the replication event logs that are configured in refreshNPersist mode,
+ * then the messages of the shared journal which have been sent to the slowest consumer.
  * 
  * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
  */
@@ -46,6 +46,9 @@ public class ReplicaEventLogJanitor extends Thread
 
     private Map<Integer, ReplicaEventLog> replicaLogMap;
 
+    /** The journal shared by the replica event logs */
+    private ReplicaJournal journal;
+
     private volatile boolean stop = false;
 
     /** A lock used to wait */
@@ -58,12 +61,13 @@ public class ReplicaEventLogJanitor extends Thread
 
 
     public ReplicaEventLogJanitor( final DirectoryService directoryService,
-        final Map<Integer, ReplicaEventLog> replicaLogMap )
+        final Map<Integer, ReplicaEventLog> replicaLogMap, final ReplicaJournal journal )
     {
         // if log is in refreshNpersist mode, has more entries than the log's threshold count then 
         // all the entries before the last sent CSN and older than 2 hours will be purged
         this.directoryService = directoryService;
         this.replicaLogMap = replicaLogMap;
+        this.journal = journal;
         setDaemon( true );
     }
 
@@ -166,6 +170,8 @@ public class ReplicaEventLogJanitor extends Thread
                 }
             }
 
+            purgeJournal();
+
             try
             {
                 synchronized ( lock )
@@ -181,6 +187,49 @@ public class ReplicaEventLogJanitor extends Thread
     }
 
 
+    /**
+     * Removes the messages of the shared journal older than the last CSN sent to the
+     * slowest consumer, and older than 2 hours
+     */
+    private void purgeJournal()
+    {
+        String oldestSentCsn = null;
+
+        for ( ReplicaEventLog log : replicaLogMap.values() )
+        {
+            String lastSentCsn = log.getLastSentCsn();
+
+            if ( lastSentCsn == null )
+            {
+                LOG.debug( "last sent CSN is null for the replica {}, skipping the journal cleanup", log.getName() );
+                return;
+            }
+
+            if ( ( oldestSentCsn == null ) || ( lastSentCsn.compareTo( oldestSentCsn ) < 0 ) )
+            {
+                oldestSentCsn = lastSentCsn;
+            }
+        }
+
+        if ( oldestSentCsn == null )
+        {
+            return;
+        }
+
+        try
+        {
+            long now = DateUtils.getDate( DateUtils.getGeneralizedTime() ).getTime();
+            long deleteCount = journal.purge( oldestSentCsn, now - thresholdTime );
+
+            LOG.debug( "purged {} messages from the replication journal", deleteCount );
+        }
+        catch ( Exception e )
+        {
+            LOG.warn( "Failed to purge old messages from the replication journal", e );
+        }
+    }
+
+
     public synchronized void removeEventLog( ReplicaEventLog replicaEventLog )
     {
         directoryService.getEventService().removeListener( replicaEventLog.getPersistentListener() );
@@ -191,10 +240,7 @@ public class ReplicaEventLogJanitor extends Thread
 
         try
         {
-            replicaEventLog.stop();
-
-            new File( directoryService.getInstanceLayout().getReplDirectory(), name + ".db" ).delete();
-            new File( directoryService.getInstanceLayout().getReplDirectory(), name + ".lg" ).delete();
+            replicaEventLog.drop();
             LOG.info( "successfully removed replication event log {}", name );
         }
         catch ( Exception e )
@@ -0,0 +1,648 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.server.ldap.replication.provider;
+
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import jdbm.RecordManager;
+import jdbm.helper.Serializer;
+import jdbm.recman.BaseRecordManager;
+import jdbm.recman.TransactionManager;
+
+import org.apache.directory.api.ldap.model.constants.Loggers;
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.csn.Csn;
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.cursor.Tuple;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.model.schema.comparators.SerializableComparator;
+import org.apache.directory.server.core.api.DirectoryService;
+import org.apache.directory.server.core.partition.impl.btree.jdbm.JdbmTable;
+import org.apache.directory.server.core.partition.impl.btree.jdbm.StringSerializer;
+import org.apache.directory.server.ldap.replication.ReplicaEventMessage;
+import org.apache.directory.server.ldap.replication.ReplicaEventMessageSerializer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * The replication journal shared by all the consumers of a provider. The messages are
+ * appended once, in a single table ordered by CSN, and each consumer has its own index
+ * table, stored in the same file, listing the CSNs of the messages it has to receive.
+ * A consumer which has to receive a message different from the shared one (for instance
+ * a deletion when an entry is moved out of its base) stores it in its index.
+ * <br>
+ * The appended messages are not written by the thread logging them : they are queued, and
+ * a committer thread takes all the messages queued since its last commit, stores them and
+ * commits them at once, so that the concurrent operations, and the consumers of an operation,
+ * share the same commit. The queue is swapped while holding the journal lock, but the messages
+ * are stored and synced outside of it, so the logging threads are not blocked by a running
+ * commit. By default the logging thread then waits until its message has been committed, so
+ * a message logged is never lost when the server crashes. Not waiting can be requested by
+ * setting the {@link #WAIT_FOR_COMMIT_PROPERTY} system property to false.
+ * <br>
+ * The tables are protected by the {@link #getStoreLock() store lock}, held by the committer
+ * while it stores and commits a batch, and by the readers of the journal.
+ * <br>
+ * The shared messages are purged once they have been sent to the slowest consumer.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class ReplicaJournal
+{
+    /** A logger for the replication provider */
+    private static final Logger PROVIDER_LOG = LoggerFactory.getLogger( Loggers.PROVIDER_LOG.getName() );
+
+    /** The name of the journal file. It must not start with the replica event log prefix */
+    public static final String JOURNAL_NAME = "REPL_JOURNAL";
+
+    /** The name of the shared messages table */
+    private static final String MESSAGES_TABLE_NAME = "messages";
+
+    /** The system property telling if the logging threads wait for their messages to be committed, true by default */
+    public static final String WAIT_FOR_COMMIT_PROPERTY = "apacheds.replication.journal.waitForCommit";
+
+    /** The number of recently appended messages kept to be shared with the next consumers */
+    private static final int RECENT_MESSAGES_SIZE = 64;
+
+    /** The index value of a message shared with the other consumers */
+    private static final ReplicaEventMessage SHARED_MESSAGE = new ReplicaEventMessage( null, null );
+
+    /** The schema manager */
+    private final SchemaManager schemaManager;
+
+    /** The record manager */
+    private RecordManager recman;
+
+    /** The shared messages, by CSN */
+    private JdbmTable<String, ReplicaEventMessage> messages;
+
+    /** The messages recently appended, by CSN */
+    private final Map<String, ReplicaEventMessage> recentMessages = new LinkedHashMap<String, ReplicaEventMessage>()
+    {
+        private static final long serialVersionUID = 1L;
+
+
+        @Override
+        protected boolean removeEldestEntry( Map.Entry<String, ReplicaEventMessage> eldest )
+        {
+            return size() > RECENT_MESSAGES_SIZE;
+        }
+    };
+
+    /** Tells if the logging threads wait for their messages to be committed */
+    private final boolean waitForCommit;
+
+    /** The messages appended and not yet stored, protected by the journal lock */
+    private List<PendingMessage> pendingMessages = new ArrayList<PendingMessage>();
+
+    /** The lock protecting the tables */
+    private final Object storeLock = new Object();
+
+    /** The number of updates of the journal */
+    private long updates;
+
+    /** The number of updates committed */
+    private long committedUpdates;
+
+    /** The first update of the last batch which could not be committed */
+    private long firstFailedUpdate;
+
+    /** The last update of the last batch which could not be committed */
+    private long lastFailedUpdate;
+
+    /** The thread committing the appended messages */
+    private final Thread committer;
+
+    /** Tells if the journal is closed */
+    private boolean closed;
+
+
+    /**
+     * Creates a new instance of ReplicaJournal, creating its file if it does not exist
+     *
+     * @param directoryService The DirectoryService instance
+     * @throws IOException If the journal can't be opened
+     */
+    public ReplicaJournal( DirectoryService directoryService ) throws IOException
+    {
+        this( new File( directoryService.getInstanceLayout().getReplDirectory(), JOURNAL_NAME ),
+            directoryService.getSchemaManager(),
+            Boolean.parseBoolean( System.getProperty( WAIT_FOR_COMMIT_PROPERTY, "true" ) ) );
+    }
+
+
+    /**
+     * Creates a new instance of ReplicaJournal, creating its file if it does not exist
+     *
+     * @param journalFile The journal file
+     * @param schemaManager The schema manager
+     * @param waitForCommit Tells if the logging threads wait for their messages to be committed
+     * @throws IOException If the journal can't be opened
+     */
+    ReplicaJournal( File journalFile, SchemaManager schemaManager, boolean waitForCommit ) throws IOException
+    {
+        this.schemaManager = schemaManager;
+        this.waitForCommit = waitForCommit;
+
+        recman = new BaseRecordManager( journalFile.getAbsolutePath() );
+        TransactionManager transactionManager = ( ( BaseRecordManager ) recman ).getTransactionManager();
+        transactionManager.setMaximumTransactionsInLog( 200 );
+
+        messages = new JdbmTable<String, ReplicaEventMessage>( schemaManager, MESSAGES_TABLE_NAME, recman,
+            createComparator(), StringSerializer.INSTANCE, new ReplicaEventMessageSerializer( schemaManager ) );
+
+        committer = new Thread( new Committer(), "ReplicaJournalCommitter" );
+        committer.setDaemon( true );
+        committer.start();
+    }
+
+
+    private SerializableComparator<String> createComparator()
+    {
+        SerializableComparator<String> comparator = new SerializableComparator<String>(
+            SchemaConstants.CSN_ORDERING_MATCH_MR_OID );
+        comparator.setSchemaManager( schemaManager );
+
+        return comparator;
+    }
+
+
+    /**
+     * Opens the index of a consumer, creating it if it does not exist
+     *
+     * @param name The index name
+     * @return The index
+     * @throws IOException If the index can't be opened
+     */
+    JdbmTable<String, ReplicaEventMessage> openIndex( String name ) throws IOException
+    {
+        synchronized ( storeLock )
+        {
+            return new JdbmTable<String, ReplicaEventMessage>( schemaManager, name, recman, createComparator(),
+                StringSerializer.INSTANCE, new IndexValueSerializer( schemaManager ) );
+        }
+    }
+
+
+    /**
+     * Closes the index of a consumer, keeping its content
+     *
+     * @param index The index
+     * @throws IOException If the index can't be stored
+     */
+    void closeIndex( JdbmTable<String, ReplicaEventMessage> index ) throws IOException
+    {
+        synchronized ( storeLock )
+        {
+            if ( recman != null )
+            {
+                index.close();
+            }
+        }
+    }
+
+
+    /**
+     * Removes all the messages of a consumer index
+     *
+     * @param index The index
+     * @throws Exception If the messages can't be removed
+     */
+    void dropIndex( JdbmTable<String, ReplicaEventMessage> index ) throws Exception
+    {
+        synchronized ( storeLock )
+        {
+            List<String> csns = new ArrayList<String>();
+            Cursor<Tuple<String, ReplicaEventMessage>> cursor = index.cursor();
+
+            try
+            {
+                while ( cursor.next() )
+                {
+                    csns.add( cursor.get().getKey() );
+                }
+            }
+            finally
+            {
+                cursor.close();
+            }
+
+            for ( String csn : csns )
+            {
+                index.remove( csn );
+            }
+
+            index.sync();
+        }
+    }
+
+
+    /**
+     * Appends a message for a consumer. The message is stored once for all the consumers
+     * receiving it. Unless the journal has been created without waiting for the commits,
+     * this method returns once the message has been committed.
+     *
+     * @param index The consumer index
+     * @param message The message
+     * @throws Exception If the message can't be stored
+     */
+    void append( JdbmTable<String, ReplicaEventMessage> index, ReplicaEventMessage message ) throws Exception
+    {
+        long sequence;
+
+        synchronized ( this )
+        {
+            if ( closed )
+            {
+                throw new IOException( "The replication journal is closed" );
+            }
+
+            pendingMessages.add( new PendingMessage( index, message ) );
+            sequence = ++updates;
+            notifyAll();
+        }
+
+        if ( waitForCommit )
+        {
+            waitForCommit( sequence );
+        }
+    }
+
+
+    /**
+     * Stores a message taken from the queue. This method must be called while holding
+     * the store lock.
+     */
+    private void store( PendingMessage pending ) throws Exception
+    {
+        ReplicaEventMessage message = pending.message;
+        String csn = message.getEntry().get( SchemaConstants.ENTRY_CSN_AT ).getString();
+        ReplicaEventMessage shared = recentMessages.get( csn );
+
+        if ( shared == null )
+        {
+            if ( messages.has( csn ) )
+            {
+                // Another message with the same CSN, the consumer keeps its own copy
+                pending.index.put( csn, message );
+            }
+            else
+            {
+                messages.put( csn, message );
+                recentMessages.put( csn, message );
+                pending.index.put( csn, SHARED_MESSAGE );
+            }
+        }
+        else if ( ( shared.getEntry() == message.getEntry() )
+            && ( shared.getChangeType() == message.getChangeType() )
+            && ( shared.isDelta() == message.isDelta() ) )
+        {
+            pending.index.put( csn, SHARED_MESSAGE );
+        }
+        else
+        {
+            pending.index.put( csn, message );
+        }
+    }
+
+
+    /**
+     * Commits the stored messages. This method must be called while holding the store lock.
+     *
+     * @throws IOException If the messages can't be committed
+     */
+    void commit() throws IOException
+    {
+        messages.sync();
+    }
+
+
+    /**
+     * Waits until a message has been committed
+     */
+    private synchronized void waitForCommit( long sequence ) throws InterruptedException, IOException
+    {
+        // The committer commits the queued messages before stopping
+        while ( committedUpdates < sequence )
+        {
+            wait();
+        }
+
+        if ( ( sequence >= firstFailedUpdate ) && ( sequence <= lastFailedUpdate ) )
+        {
+            throw new IOException( "The replication journal could not be committed" );
+        }
+    }
+
+
+    /**
+     * @return The lock protecting the tables of the journal
+     */
+    Object getStoreLock()
+    {
+        return storeLock;
+    }
+
+
+    /**
+     * Reads a message referenced by a consumer index
+     *
+     * @param csn The message CSN
+     * @param indexed The message read from the index
+     * @return The message, or null if it has been purged
+     * @throws Exception If the message can't be read
+     */
+    ReplicaEventMessage getMessage( String csn, ReplicaEventMessage indexed ) throws Exception
+    {
+        if ( indexed != SHARED_MESSAGE )
+        {
+            return indexed;
+        }
+
+        synchronized ( storeLock )
+        {
+            return messages.get( csn );
+        }
+    }
+
+
+    /**
+     * Removes the shared messages sent to all the consumers, and older than a given time
+     *
+     * @param oldestSentCsn The last CSN sent to the slowest consumer
+     * @param maxTime The time of the most recent message which can be removed
+     * @return The number of removed messages
+     * @throws Exception If the messages can't be removed
+     */
+    long purge( String oldestSentCsn, long maxTime ) throws Exception
+    {
+        List<String> csns = new ArrayList<String>();
+
+        synchronized ( storeLock )
+        {
+            Cursor<Tuple<String, ReplicaEventMessage>> cursor = messages.cursor();
+
+            try
+            {
+                while ( cursor.next() )
+                {
+                    String csn = cursor.get().getKey();
+
+                    if ( ( csn.compareTo( oldestSentCsn ) >= 0 ) || ( new Csn( csn ).getTimestamp() > maxTime ) )
+                    {
+                        break;
+                    }
+
+                    csns.add( csn );
+                }
+            }
+            finally
+            {
+                cursor.close();
+            }
+
+            for ( String csn : csns )
+            {
+                messages.remove( csn );
+                recentMessages.remove( csn );
+            }
+        }
+
+        if ( !csns.isEmpty() )
+        {
+            // The removals are committed with the next batch
+            synchronized ( this )
+            {
+                updates++;
+                notifyAll();
+            }
+        }
+
+        return csns.size();
+    }
+
+
+    /**
+     * Commits the messages appended and waits for the committer to stop, then closes the file
+     *
+     * @throws Exception If the journal can't be closed
+     */
+    public void close() throws Exception
+    {
+        synchronized ( this )
+        {
+            if ( closed )
+            {
+                return;
+            }
+
+            closed = true;
+            notifyAll();
+        }
+
+        committer.join();
+
+        synchronized ( storeLock )
+        {
+            messages.close();
+            recman.close();
+            messages = null;
+            recman = null;
+        }
+    }
+
+
+    /**
+     * A message appended and not yet stored
+     */
+    private static class PendingMessage
+    {
+        /** The index of the consumer */
+        private final JdbmTable<String, ReplicaEventMessage> index;
+
+        /** The message */
+        private final ReplicaEventMessage message;
+
+
+        private PendingMessage( JdbmTable<String, ReplicaEventMessage> index, ReplicaEventMessage message )
+        {
+            this.index = index;
+            this.message = message;
+        }
+    }
+
+
+    /**
+     * Stores and commits the appended messages, grouping all the messages appended while the
+     * previous commit was running. The queue is taken while holding the journal lock, and
+     * the messages are stored and committed outside of it. When the journal is closed, the
+     * messages still queued are committed before the committer stops.
+     */
+    private class Committer implements Runnable
+    {
+        public void run()
+        {
+            while ( true )
+            {
+                List<PendingMessage> batch;
+                long sequence;
+
+                synchronized ( ReplicaJournal.this )
+                {
+                    while ( ( committedUpdates == updates ) && !closed )
+                    {
+                        try
+                        {
+                            ReplicaJournal.this.wait();
+                        }
+                        catch ( InterruptedException ie )
+                        {
+                            PROVIDER_LOG.warn( "The replication journal committer has been interrupted" );
+                        }
+                    }
+
+                    if ( committedUpdates == updates )
+                    {
+                        // Closed, and everything has been committed
+                        return;
+                    }
+
+                    batch = pendingMessages;
+                    pendingMessages = new ArrayList<PendingMessage>();
+                    sequence = updates;
+                }
+
+                boolean committed = commitBatch( batch );
+
+                synchronized ( ReplicaJournal.this )
+                {
+                    if ( !committed )
+                    {
+                        firstFailedUpdate = committedUpdates + 1;
+                        lastFailedUpdate = sequence;
+                    }
+
+                    committedUpdates = sequence;
+                    ReplicaJournal.this.notifyAll();
+                }
+            }
+        }
+
+
+        /**
+         * Stores and commits a batch of messages
+         *
+         * @return true if the batch has been committed
+         */
+        private boolean commitBatch( List<PendingMessage> batch )
+        {
+            synchronized ( storeLock )
+            {
+                for ( PendingMessage pending : batch )
+                {
+                    try
+                    {
+                        store( pending );
+                    }
+                    catch ( Exception e )
+                    {
+                        // The index may have been closed since the message has been appended
+                        PROVIDER_LOG.error( "Failed to store a message in the replication journal", e );
+                    }
+                }
+
+                try
+                {
+                    commit();
+                    PROVIDER_LOG.debug( "committed {} messages in the replication journal", batch.size() );
+
+                    return true;
+                }
+                catch ( IOException ioe )
+                {
+                    PROVIDER_LOG.error( "Failed to commit the replication journal", ioe );
+
+                    return false;
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Serializes the values of a consumer index : a marker for a shared message, or the
+     * message itself.
+     */
+    private static class IndexValueSerializer implements Serializer
+    {
+        private static final long serialVersionUID = 1L;
+
+        /** The marker of a shared message */
+        private static final byte SHARED = 0;
+
+        /** The marker of a message stored in the index */
+        private static final byte OWN = 1;
+
+        /** The serializer of the messages stored in the index */
+        private transient ReplicaEventMessageSerializer messageSerializer;
+
+
+        IndexValueSerializer( SchemaManager schemaManager )
+        {
+            messageSerializer = new ReplicaEventMessageSerializer( schemaManager );
+        }
+
+
+        public byte[] serialize( Object object ) throws IOException
+        {
+            if ( object == SHARED_MESSAGE )
+            {
+                return new byte[]
+                    { SHARED };
+            }
+
+            byte[] serialized = messageSerializer.serialize( object );
+            byte[] bytes = new byte[serialized.length + 1];
+            bytes[0] = OWN;
+            System.arraycopy( serialized, 0, bytes, 1, serialized.length );
+
+            return bytes;
+        }
+
+
+        public Object deserialize( byte[] bytes ) throws IOException
+        {
+            if ( bytes[0] == SHARED )
+            {
+                return SHARED_MESSAGE;
+            }
+
+            return messageSerializer.deserialize( Arrays.copyOfRange( bytes, 1, bytes.length ) );
+        }
+    }
+}
@@ -24,7 +24,6 @@ package org.apache.directory.server.ldap.replication.provider;
 import java.util.Iterator;
 
 import org.apache.directory.api.ldap.model.constants.Loggers;
-import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.cursor.AbstractCursor;
 import org.apache.directory.api.ldap.model.cursor.Cursor;
 import org.apache.directory.api.ldap.model.cursor.CursorException;
@@ -38,7 +37,7 @@ import org.slf4j.LoggerFactory;
 
 
 /**
- * Define a cursor on top of a replication journal.
+ * Define a cursor on top of the index of a consumer in the replication journal.
  *
  * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
  */
@@ -53,11 +52,17 @@ public class ReplicaJournalCursor extends AbstractCursor<ReplicaEventMessage>
     /** Speedup for logs */
     private static final boolean IS_DEBUG = LOG_CURSOR.isDebugEnabled();
 
-    /** the underlying journal's cursor */
+    /** the underlying index's cursor */
     private Cursor<Tuple<String, ReplicaEventMessage>> tupleCursor;
 
-    /** the event log journal */
-    private JdbmTable<String, ReplicaEventMessage> journal;
+    /** the journal shared by the consumers */
+    private ReplicaJournal journal;
+
+    /** the index of the consumer messages */
+    private JdbmTable<String, ReplicaEventMessage> index;
+
+    /** the CSN of the current message */
+    private String currentCsn;
 
     /** the consumer's CSN based on which messages will be qualified for sending */
     private String consumerCsn;
@@ -69,12 +74,14 @@ public class ReplicaJournalCursor extends AbstractCursor<ReplicaEventMessage>
 
 
     /**
-     * Creates a cursor on top of the given journal
-     * @param journal the log journal
+     * Creates a cursor on top of the given consumer index
+     * @param journal the shared journal
+     * @param index the consumer index in the journal
      * @param consumerCsn the consumer's CSN taken from cookie
      * @throws Exception 
      */
-    public ReplicaJournalCursor( JdbmTable<String, ReplicaEventMessage> journal, String consumerCsn ) throws Exception
+    public ReplicaJournalCursor( ReplicaJournal journal, JdbmTable<String, ReplicaEventMessage> index,
+        String consumerCsn ) throws Exception
     {
         if ( IS_DEBUG )
         {
@@ -82,8 +89,13 @@ public class ReplicaJournalCursor extends AbstractCursor<ReplicaEventMessage>
         }
 
         this.journal = journal;
-        this.tupleCursor = journal.cursor();
+        this.index = index;
         this.consumerCsn = consumerCsn;
+
+        synchronized ( journal.getStoreLock() )
+        {
+            this.tupleCursor = index.cursor();
+        }
     }
 
 
@@ -195,38 +207,59 @@ public class ReplicaJournalCursor extends AbstractCursor<ReplicaEventMessage>
      */
     public boolean next() throws LdapException, CursorException
     {
-        while ( tupleCursor.next() )
+        // The journal is shared with the other consumers
+        synchronized ( journal.getStoreLock() )
         {
-            Tuple<String, ReplicaEventMessage> tuple = tupleCursor.get();
-
-            String csn = tuple.getKey();
-            ReplicaEventMessage message = tuple.getValue();
-
-            if ( skipQualifying )
+            while ( tupleCursor.next() )
             {
-                qualifiedEvtMsg = message;
-                return true;
-            }
+                Tuple<String, ReplicaEventMessage> tuple = tupleCursor.get();
 
-            boolean qualified = isQualified( csn, message );
+                String csn = tuple.getKey();
+                ReplicaEventMessage message = getMessage( csn, tuple.getValue() );
 
-            if ( qualified )
-            {
-                qualifiedEvtMsg = message;
-                return true;
-            }
-            else
-            {
-                journal.remove( csn );
+                if ( message == null )
+                {
+                    // the shared message has been purged
+                    index.remove( csn );
+                    continue;
+                }
+
+                if ( skipQualifying || isQualified( csn, message ) )
+                {
+                    currentCsn = csn;
+                    qualifiedEvtMsg = message;
+                    return true;
+                }
+                else
+                {
+                    index.remove( csn );
+                }
             }
         }
 
+        currentCsn = null;
         qualifiedEvtMsg = null;
 
         return false;
     }
 
 
+    /**
+     * reads the message referenced by the index from the journal
+     */
+    private ReplicaEventMessage getMessage( String csn, ReplicaEventMessage indexed ) throws CursorException
+    {
+        try
+        {
+            return journal.getMessage( csn, indexed );
+        }
+        catch ( Exception e )
+        {
+            throw new CursorException( e );
+        }
+    }
+
+
     /**
      * {@inheritDoc}
      */
@@ -286,9 +319,12 @@ public class ReplicaJournalCursor extends AbstractCursor<ReplicaEventMessage>
     {
         try
         {
-            if ( qualifiedEvtMsg != null )
+            if ( currentCsn != null )
             {
-                journal.remove( qualifiedEvtMsg.getEntry().get( SchemaConstants.ENTRY_CSN_AT ).getString() );
+                synchronized ( journal.getStoreLock() )
+                {
+                    index.remove( currentCsn );
+                }
             }
         }
         catch ( Exception e )
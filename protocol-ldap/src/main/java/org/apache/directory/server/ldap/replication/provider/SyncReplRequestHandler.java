@@ -58,6 +58,7 @@ import org.apache.directory.api.ldap.model.entry.StringValue;
 import org.apache.directory.api.ldap.model.entry.Value;
 import org.apache.directory.api.ldap.model.exception.LdapException;
 import org.apache.directory.api.ldap.model.exception.LdapInvalidAttributeValueException;
+import org.apache.directory.api.ldap.model.exception.LdapNoSuchObjectException;
 import org.apache.directory.api.ldap.model.exception.LdapURLEncodingException;
 import org.apache.directory.api.ldap.model.filter.AndNode;
 import org.apache.directory.api.ldap.model.filter.EqualityNode;
@@ -66,6 +67,7 @@ import org.apache.directory.api.ldap.model.filter.GreaterEqNode;
 import org.apache.directory.api.ldap.model.filter.LessEqNode;
 import org.apache.directory.api.ldap.model.filter.OrNode;
 import org.apache.directory.api.ldap.model.filter.PresenceNode;
+import org.apache.directory.api.ldap.model.message.Control;
 import org.apache.directory.api.ldap.model.message.IntermediateResponse;
 import org.apache.directory.api.ldap.model.message.IntermediateResponseImpl;
 import org.apache.directory.api.ldap.model.message.LdapResult;
@@ -97,6 +99,7 @@ import org.apache.directory.server.core.api.event.NotificationCriteria;
 import org.apache.directory.server.core.api.interceptor.context.DeleteOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.ModifyOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.OperationContext;
+import org.apache.directory.server.core.api.interceptor.context.SearchOperationContext;
 import org.apache.directory.server.core.api.partition.Partition;
 import org.apache.directory.server.i18n.I18n;
 import org.apache.directory.server.ldap.LdapProtocolUtils;
@@ -104,6 +107,7 @@ import org.apache.directory.server.ldap.LdapServer;
 import org.apache.directory.server.ldap.LdapSession;
 import org.apache.directory.server.ldap.handlers.SearchAbandonListener;
 import org.apache.directory.server.ldap.handlers.SearchTimeLimitingMonitor;
+import org.apache.directory.server.ldap.replication.ReplicaDeltaControl;
 import org.apache.directory.server.ldap.replication.ReplicaEventMessage;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -147,6 +151,9 @@ public class SyncReplRequestHandler implements ReplicationRequestHandler
 
     private ReplicaEventLogJanitor logJanitor;
 
+    /** The journal shared by the replica event logs */
+    private ReplicaJournal journal;
+
     private AttributeType replLogMaxIdleAT;
 
     private AttributeType replLogPurgeThresholdCountAT;
@@ -205,12 +212,15 @@ public class SyncReplRequestHandler implements ReplicationRequestHandler
                 }
             }
 
+            // Open the journal shared by the consumers
+            journal = new ReplicaJournal( dirService );
+
             // Create the replication manager
-            replicaUtil = new ReplConsumerManager( dirService );
+            replicaUtil = new ReplConsumerManager( dirService, journal );
 
             loadReplicaInfo();
 
-            logJanitor = new ReplicaEventLogJanitor( dirService, replicaLogMap );
+            logJanitor = new ReplicaEventLogJanitor( dirService, replicaLogMap, journal );
             logJanitor.start();
 
             registerPersistentSearches();
@@ -280,6 +290,15 @@ public class SyncReplRequestHandler implements ReplicationRequestHandler
             }
         }
 
+        try
+        {
+            journal.close();
+        }
+        catch ( Exception e )
+        {
+            PROVIDER_LOG.error( "Failed to close the replication journal", e );
+        }
+
         // flush the dirty repos
         storeReplicaInfo();
 
@@ -371,6 +390,9 @@ public class SyncReplRequestHandler implements ReplicationRequestHandler
 
         ReplicaJournalCursor cursor = clientMsgLog.getCursor( fromCsn );
 
+        // The modifications sent in the delta messages are selected like the entries attributes
+        SearchOperationContext selection = new SearchOperationContext( session.getCoreSession(), req );
+
         PROVIDER_LOG.debug( "Processing the log for replica {}", clientMsgLog.getId() );
 
         try
@@ -382,6 +404,32 @@ public class SyncReplRequestHandler implements ReplicationRequestHandler
                 PROVIDER_LOG.debug( "Read message from the queue {}", entry );
 
                 lastSentCsn = entry.get( csnAT ).getString();
+                Control deltaControl = null;
+
+                if ( replicaEventMessage.isDelta() )
+                {
+                    if ( clientMsgLog.isDeltaSync() )
+                    {
+                        entry = replicaEventMessage.getDeltaEntry();
+                        deltaControl = ReplicaDeltaControl.newResponseControl(
+                            ldapServer.getDirectoryService().getLdapCodecService(),
+                            replicaEventMessage.getModifications( dirService.getSchemaManager(), selection ) );
+                    }
+                    else
+                    {
+                        // The consumer expects the whole entry
+                        entry = lookupEntry( entry.getDn() );
+
+                        if ( entry == null )
+                        {
+                            PROVIDER_LOG.debug( "The entry {} does not exist anymore, skipping its modification",
+                                replicaEventMessage.getEntry().getDn() );
+                            clientMsgLog.setLastSentCsn( lastSentCsn );
+
+                            continue;
+                        }
+                    }
+                }
 
                 ChangeType changeType = replicaEventMessage.getChangeType();
 
@@ -409,7 +457,7 @@ public class SyncReplRequestHandler implements ReplicationRequestHandler
                         throw new IllegalStateException( I18n.err( I18n.ERR_686 ) );
                 }
 
-                sendSearchResultEntry( session, req, entry, syncStateType );
+                sendSearchResultEntry( session, req, entry, syncStateType, deltaControl );
 
                 clientMsgLog.setLastSentCsn( lastSentCsn );
 
@@ -426,6 +474,23 @@ public class SyncReplRequestHandler implements ReplicationRequestHandler
     }
 
 
+    /**
+     * Reads the current state of an entry, or returns null if it has been deleted or moved
+     */
+    private Entry lookupEntry( Dn dn ) throws LdapException
+    {
+        try
+        {
+            return dirService.getAdminSession().lookup( dn, SchemaConstants.ALL_USER_ATTRIBUTES,
+                SchemaConstants.ALL_OPERATIONAL_ATTRIBUTES );
+        }
+        catch ( LdapNoSuchObjectException lnsoe )
+        {
+            return null;
+        }
+    }
+
+
     /**
      * process the update of the consumer, starting from the given LastEntryCSN the consumer
      * has sent with the sync request.
@@ -436,6 +501,7 @@ public class SyncReplRequestHandler implements ReplicationRequestHandler
         synchronized ( replicaLog )
         {
             boolean refreshNPersist = isRefreshNPersist( req );
+            replicaLog.setDeltaSync( ReplicaDeltaControl.isRequested( req ) );
 
             // if this method is called with refreshAndPersist
             // means the client was offline after it initiated a persistent synch session
@@ -532,6 +598,7 @@ public class SyncReplRequestHandler implements ReplicationRequestHandler
         ReplicaEventLog replicaLog = createReplicaEventLog( hostName, originalFilter );
 
         replicaLog.setRefreshNPersist( refreshNPersist );
+        replicaLog.setDeltaSync( ReplicaDeltaControl.isRequested( request ) );
         StringValue contexCsnValue = new StringValue( contextCsn );
 
         // modify the filter to include the context Csn
@@ -625,7 +692,7 @@ public class SyncReplRequestHandler implements ReplicationRequestHandler
         {
             PROVIDER_LOG.warn( "initial content refresh didn't succeed due to {}", searchDoneResp.getLdapResult()
                 .getResultCode() );
-            replicaLog.stop();
+            replicaLog.drop();
             replicaLog = null;
 
             // remove the listener
@@ -730,7 +797,7 @@ public class SyncReplRequestHandler implements ReplicationRequestHandler
 
             Entry entry = cursor.get();
 
-            sendSearchResultEntry( session, req, entry, SyncStateTypeEnum.ADD );
+            sendSearchResultEntry( session, req, entry, SyncStateTypeEnum.ADD, null );
 
             String lastSentCsn = entry.get( csnAT ).getString();
             replicaLog.setLastSentCsn( lastSentCsn );
@@ -757,10 +824,10 @@ public class SyncReplRequestHandler implements ReplicationRequestHandler
 
     /**
      * Prepare and send a search result entry response, with the associated
-     * SyncState control.
+     * SyncState control, and the delta control if the entry is a delta message.
      */
     private void sendSearchResultEntry( LdapSession session, SearchRequest req, Entry entry,
-        SyncStateTypeEnum syncStateType ) throws Exception
+        SyncStateTypeEnum syncStateType, Control deltaControl ) throws Exception
     {
         Attribute uuid = entry.get( SchemaConstants.ENTRY_UUID_AT );
 
@@ -780,6 +847,11 @@ public class SyncReplRequestHandler implements ReplicationRequestHandler
         Response resp = generateResponse( session, req, entry );
         resp.addControl( syncStateControl );
 
+        if ( deltaControl != null )
+        {
+            resp.addControl( deltaControl );
+        }
+
         PROVIDER_LOG.debug( "Sending the entry:\n {}", resp );
         session.getIoSession().write( resp );
     }
@@ -1047,7 +1119,7 @@ public class SyncReplRequestHandler implements ReplicationRequestHandler
                 PROVIDER_LOG.debug( "no replica logs found to initialize" );
             }
 
-            // remove unused logs
+            // remove unused logs, the logs are now indexes of the shared journal
             for ( File f : getAllReplJournalNames() )
             {
                 if ( !eventLogNames.contains( f.getName() ) )
@@ -1148,7 +1220,7 @@ public class SyncReplRequestHandler implements ReplicationRequestHandler
 
         PROVIDER_LOG.debug( "creating a new event log for the replica with id {}", replicaId );
 
-        ReplicaEventLog replicaLog = new ReplicaEventLog( dirService, replicaId );
+        ReplicaEventLog replicaLog = new ReplicaEventLog( dirService, journal, replicaId );
         replicaLog.setHostName( hostName );
         replicaLog.setSearchFilter( filter );
 
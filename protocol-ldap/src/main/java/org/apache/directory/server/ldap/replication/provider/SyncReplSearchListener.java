@@ -45,9 +45,11 @@ import org.apache.directory.server.core.api.interceptor.context.ModifyOperationC
 import org.apache.directory.server.core.api.interceptor.context.MoveAndRenameOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.MoveOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.RenameOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.SearchOperationContext;
 import org.apache.directory.server.i18n.I18n;
 import org.apache.directory.server.ldap.LdapProtocolUtils;
 import org.apache.directory.server.ldap.LdapSession;
+import org.apache.directory.server.ldap.replication.ReplicaDeltaControl;
 import org.apache.directory.server.ldap.replication.ReplicaEventMessage;
 import org.apache.mina.core.future.WriteFuture;
 import org.slf4j.Logger;
@@ -295,7 +297,8 @@ public class SyncReplSearchListener implements DirectoryListener, AbandonListene
 
     /**
      * Process a Modify operation. A modify event is send to the consumer, or stored in its 
-     * queue if the consumer is not connected.
+     * queue if the consumer is not connected. Only the modifications are sent to a consumer
+     * which has asked for delta messages.
      * 
      * @param modifyContext The modify operation context
      */
@@ -311,14 +314,41 @@ public class SyncReplSearchListener implements DirectoryListener, AbandonListene
         try
         {
             //System.out.println( "MODIFY Listener : log " + alteredEntry.getDn() );
-            consumerMsgLog.log( new ReplicaEventMessage( ChangeType.MODIFY, alteredEntry ) );
+            ReplicaEventMessage message;
+
+            if ( consumerMsgLog.isDeltaSync() )
+            {
+                message = new ReplicaEventMessage( ChangeType.MODIFY, alteredEntry, modifyContext.getModItems() );
+            }
+            else
+            {
+                message = new ReplicaEventMessage( ChangeType.MODIFY, alteredEntry );
+            }
+
+            consumerMsgLog.log( message );
             
             if ( pushInRealTime )
             {
 
                 SearchResultEntry resultEntry = new SearchResultEntryImpl( searchRequest.getMessageId() );
                 resultEntry.setObjectName( modifyContext.getDn() );
-                resultEntry.setEntry( alteredEntry );
+
+                if ( message.isDelta() )
+                {
+                    // Only the modifications of the attributes selected by the consumer are sent
+                    DirectoryService directoryService = session.getCoreSession().getDirectoryService();
+                    SearchOperationContext selection = new SearchOperationContext( session.getCoreSession(),
+                        searchRequest );
+
+                    resultEntry.setEntry( message.getDeltaEntry() );
+                    resultEntry.addControl( ReplicaDeltaControl.newResponseControl(
+                        directoryService.getLdapCodecService(),
+                        message.getModifications( directoryService.getSchemaManager(), selection ) ) );
+                }
+                else
+                {
+                    resultEntry.setEntry( alteredEntry );
+                }
 
                 SyncStateValue syncModify = createControl( session.getCoreSession().getDirectoryService(), SyncStateTypeEnum.MODIFY, alteredEntry );
 
@@ -0,0 +1,331 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.server.ldap.replication;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.directory.api.ldap.codec.api.LdapApiService;
+import org.apache.directory.api.ldap.codec.api.LdapApiServiceFactory;
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.csn.CsnFactory;
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.DefaultAttribute;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.DefaultModification;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.Modification;
+import org.apache.directory.api.ldap.model.entry.ModificationOperation;
+import org.apache.directory.api.ldap.model.entry.Value;
+import org.apache.directory.api.ldap.model.message.SearchRequest;
+import org.apache.directory.api.ldap.model.message.SearchRequestImpl;
+import org.apache.directory.api.ldap.model.message.SearchResultEntry;
+import org.apache.directory.api.ldap.model.message.SearchResultEntryImpl;
+import org.apache.directory.api.ldap.model.message.controls.ChangeType;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.schema.extractor.SchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.extractor.impl.DefaultSchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.loader.LdifSchemaLoader;
+import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
+import org.apache.directory.api.util.exception.Exceptions;
+import org.apache.directory.server.core.api.interceptor.context.SearchOperationContext;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+
+/**
+ * Tests the encoding of the delta syncrepl messages, and the modifications they carry.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class ReplicaDeltaTest
+{
+    /** The SchemaManager instance */
+    private static SchemaManager schemaManager;
+
+    /** The CsnFactory */
+    private static CsnFactory csnFactory;
+
+    /** The LDAP codec */
+    private static LdapApiService codec;
+
+
+    @BeforeClass
+    public static void init() throws Exception
+    {
+        String workingDirectory = System.getProperty( "workingDirectory" );
+
+        if ( workingDirectory == null )
+        {
+            String path = ReplicaDeltaTest.class.getResource( "" ).getPath();
+            int targetPos = path.indexOf( "target" );
+            workingDirectory = path.substring( 0, targetPos + 6 );
+        }
+
+        File schemaRepository = new File( workingDirectory, "schema" );
+        SchemaLdifExtractor extractor = new DefaultSchemaLdifExtractor( new File( workingDirectory ) );
+        extractor.extractOrCopy( true );
+        LdifSchemaLoader loader = new LdifSchemaLoader( schemaRepository );
+        schemaManager = new DefaultSchemaManager( loader );
+
+        if ( !schemaManager.loadAllEnabled() )
+        {
+            fail( "Schema load failed : " + Exceptions.printErrors( schemaManager.getErrors() ) );
+        }
+
+        csnFactory = new CsnFactory( 0 );
+        codec = LdapApiServiceFactory.getSingleton();
+    }
+
+
+    private Entry createEntry() throws Exception
+    {
+        return new DefaultEntry( schemaManager, "cn=test,ou=system",
+            "objectClass: top",
+            "objectClass: person",
+            "objectClass: inetOrgPerson",
+            "cn: test",
+            "sn: Test",
+            "description: first",
+            "description: second",
+            "telephoneNumber: 1234",
+            "jpegPhoto:: AAECAwQ=",
+            "entryUUID: f1b1bd8e-1ab7-4c8d-8ee6-3c31e5e5e5e5",
+            "entryCSN: " + csnFactory.newInstance() );
+    }
+
+
+    /**
+     * Creates modifications using every operation, on text and binary values
+     */
+    private List<Modification> createModifications() throws Exception
+    {
+        List<Modification> modifications = new ArrayList<Modification>();
+
+        modifications.add( new DefaultModification( ModificationOperation.ADD_ATTRIBUTE,
+            new DefaultAttribute( schemaManager.getAttributeType( "description" ), "third", "\u00e9t\u00e9" ) ) );
+        modifications.add( new DefaultModification( ModificationOperation.REMOVE_ATTRIBUTE,
+            new DefaultAttribute( schemaManager.getAttributeType( "description" ), "first" ) ) );
+        modifications.add( new DefaultModification( ModificationOperation.REMOVE_ATTRIBUTE,
+            new DefaultAttribute( schemaManager.getAttributeType( "telephoneNumber" ) ) ) );
+        modifications.add( new DefaultModification( ModificationOperation.REPLACE_ATTRIBUTE,
+            new DefaultAttribute( schemaManager.getAttributeType( "jpegPhoto" ), new byte[]
+                { 0x05, 0x06, ( byte ) 0xFF } ) ) );
+        modifications.add( new DefaultModification( ModificationOperation.REPLACE_ATTRIBUTE,
+            new DefaultAttribute( schemaManager.getAttributeType( SchemaConstants.ENTRY_CSN_AT ),
+                csnFactory.newInstance().toString() ) ) );
+
+        return modifications;
+    }
+
+
+    /**
+     * Applies modifications on an entry, the way the partitions do
+     */
+    private void apply( Entry entry, List<Modification> modifications ) throws Exception
+    {
+        for ( Modification modification : modifications )
+        {
+            Attribute attribute = modification.getAttribute();
+
+            switch ( modification.getOperation() )
+            {
+                case ADD_ATTRIBUTE:
+                    entry.add( attribute );
+                    break;
+
+                case REMOVE_ATTRIBUTE:
+                    if ( attribute.size() == 0 )
+                    {
+                        entry.removeAttributes( attribute.getAttributeType() );
+                    }
+                    else
+                    {
+                        for ( Value<?> value : attribute )
+                        {
+                            entry.remove( attribute.getAttributeType(), value );
+                        }
+                    }
+
+                    break;
+
+                case REPLACE_ATTRIBUTE:
+                    entry.put( attribute );
+                    break;
+
+                default:
+                    fail( "Unexpected operation " + modification.getOperation() );
+            }
+        }
+    }
+
+
+    private void assertModificationsEquals( List<Modification> expected, List<Modification> modifications )
+    {
+        assertEquals( expected.size(), modifications.size() );
+
+        for ( int i = 0; i < expected.size(); i++ )
+        {
+            assertEquals( expected.get( i ).getOperation(), modifications.get( i ).getOperation() );
+            assertEquals( expected.get( i ).getAttribute(), modifications.get( i ).getAttribute() );
+        }
+    }
+
+
+    @Test
+    public void testSerializerRoundTrip() throws Exception
+    {
+        List<Modification> modifications = createModifications();
+
+        List<Modification> decoded = ReplicaDeltaSerializer.deserialize( schemaManager,
+            ReplicaDeltaSerializer.serialize( modifications ) );
+
+        assertModificationsEquals( modifications, decoded );
+    }
+
+
+    @Test
+    public void testApplyRoundTrip() throws Exception
+    {
+        List<Modification> modifications = createModifications();
+
+        // The entry as modified on the provider
+        Entry expected = createEntry();
+        apply( expected, modifications );
+
+        // The entry as modified on the consumer, from the delta control
+        SearchResultEntry resultEntry = new SearchResultEntryImpl( 1 );
+        resultEntry.setEntry( new ReplicaEventMessage( ChangeType.MODIFY, expected, modifications ).getDeltaEntry() );
+        resultEntry.addControl( ReplicaDeltaControl.newResponseControl( codec, modifications ) );
+
+        Entry entry = createEntry();
+        apply( entry, ReplicaDeltaControl.getModifications( schemaManager, resultEntry ) );
+
+        assertEquals( expected, entry );
+        assertTrue( entry.contains( "description", "\u00e9t\u00e9" ) );
+    }
+
+
+    @Test
+    public void testDeltaEntry() throws Exception
+    {
+        Entry entry = createEntry();
+        ReplicaEventMessage message = new ReplicaEventMessage( ChangeType.MODIFY, entry, createModifications() );
+
+        assertTrue( message.isDelta() );
+
+        Entry deltaEntry = message.getDeltaEntry();
+
+        assertEquals( entry.getDn(), deltaEntry.getDn() );
+        assertEquals( 2, deltaEntry.size() );
+        assertEquals( entry.get( SchemaConstants.ENTRY_UUID_AT ), deltaEntry.get( SchemaConstants.ENTRY_UUID_AT ) );
+        assertEquals( entry.get( SchemaConstants.ENTRY_CSN_AT ), deltaEntry.get( SchemaConstants.ENTRY_CSN_AT ) );
+    }
+
+
+    /**
+     * Selects the modifications sent to a consumer requesting the given attributes
+     */
+    private List<Modification> select( ReplicaEventMessage message, String... attributes )
+    {
+        SearchOperationContext selection = new SearchOperationContext( null );
+        selection.setReturningAttributes( attributes );
+
+        return message.getModifications( schemaManager, selection );
+    }
+
+
+    @Test
+    public void testSelectedModifications() throws Exception
+    {
+        List<Modification> modifications = createModifications();
+        ReplicaEventMessage message = new ReplicaEventMessage( ChangeType.MODIFY, createEntry(), modifications );
+
+        // The user attributes only
+        List<Modification> selected = select( message, SchemaConstants.ALL_USER_ATTRIBUTES );
+        assertModificationsEquals( modifications.subList( 0, 4 ), selected );
+
+        // The operational attributes only
+        selected = select( message, SchemaConstants.ALL_OPERATIONAL_ATTRIBUTES );
+        assertModificationsEquals( modifications.subList( 4, 5 ), selected );
+
+        // All the attributes
+        selected = select( message, SchemaConstants.ALL_USER_ATTRIBUTES,
+            SchemaConstants.ALL_OPERATIONAL_ATTRIBUTES );
+        assertModificationsEquals( modifications, selected );
+
+        // No attribute
+        assertTrue( select( message, SchemaConstants.NO_ATTRIBUTE ).isEmpty() );
+
+        // Not a delta message
+        assertNull( new ReplicaEventMessage( ChangeType.MODIFY, createEntry() ).getModifications( schemaManager,
+            new SearchOperationContext( null ) ) );
+    }
+
+
+    @Test
+    public void testNoDeltaControl() throws Exception
+    {
+        SearchResultEntry resultEntry = new SearchResultEntryImpl( 1 );
+        resultEntry.setEntry( createEntry() );
+
+        assertNull( ReplicaDeltaControl.getModifications( schemaManager, resultEntry ) );
+    }
+
+
+    @Test
+    public void testRequestControl() throws Exception
+    {
+        SearchRequest request = new SearchRequestImpl();
+
+        assertFalse( ReplicaDeltaControl.isRequested( request ) );
+
+        request.addControl( ReplicaDeltaControl.newRequestControl( codec ) );
+
+        assertTrue( ReplicaDeltaControl.isRequested( request ) );
+        assertFalse( request.getControls().get( ReplicaDeltaControl.OID ).isCritical() );
+    }
+
+
+    @Test
+    public void testJournalRoundTrip() throws Exception
+    {
+        List<Modification> modifications = createModifications();
+        Entry entry = createEntry();
+        ReplicaEventMessageSerializer serializer = new ReplicaEventMessageSerializer( schemaManager );
+
+        ReplicaEventMessage message = ( ReplicaEventMessage ) serializer.deserialize(
+            serializer.serialize( new ReplicaEventMessage( ChangeType.MODIFY, entry, modifications ) ) );
+
+        assertTrue( message.isDelta() );
+        assertEquals( ChangeType.MODIFY, message.getChangeType() );
+        assertEquals( entry.getDn(), message.getEntry().getDn() );
+        assertEquals( entry.get( SchemaConstants.ENTRY_CSN_AT ), message.getEntry().get( SchemaConstants.ENTRY_CSN_AT ) );
+        assertModificationsEquals( modifications, message.getModifications() );
+    }
+}
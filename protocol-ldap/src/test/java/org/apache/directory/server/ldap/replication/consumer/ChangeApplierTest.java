@@ -0,0 +1,289 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.server.ldap.replication.consumer;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+
+/**
+ * Tests the ordering and the failure handling of the ChangeApplier.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class ChangeApplierTest
+{
+    /** The applier */
+    private ChangeApplier applier;
+
+    /** The applied changes, in the order they have been applied */
+    private List<String> applied;
+
+
+    @Before
+    public void init()
+    {
+        applier = new ChangeApplier( "ChangeApplierTest", 4 );
+        applied = Collections.synchronizedList( new ArrayList<String>() );
+    }
+
+
+    @After
+    public void shutdown()
+    {
+        applier.shutdown();
+    }
+
+
+    /**
+     * Creates a change recording its name once applied, after a pause
+     */
+    private ChangeApplier.Change change( final String name, final long pause )
+    {
+        return new ChangeApplier.Change()
+        {
+            public void apply() throws Exception
+            {
+                if ( pause > 0 )
+                {
+                    Thread.sleep( pause );
+                }
+
+                applied.add( name );
+            }
+        };
+    }
+
+
+    /**
+     * Creates a change which fails
+     */
+    private ChangeApplier.Change failure()
+    {
+        return new ChangeApplier.Change()
+        {
+            public void apply() throws Exception
+            {
+                throw new IllegalStateException( "failed" );
+            }
+        };
+    }
+
+
+    @Test
+    public void testChangesOfAnEntryAreOrdered() throws Exception
+    {
+        for ( int i = 0; i < 20; i++ )
+        {
+            for ( int entry = 0; entry < 5; entry++ )
+            {
+                Dn dn = new Dn( "ou=entry" + entry + ",ou=system" );
+
+                // The first changes are the slowest ones
+                applier.submit( "uuid" + entry, dn, false, change( entry + "-" + i, 20 - i ) );
+            }
+        }
+
+        assertEquals( 0, applier.flush() );
+        assertEquals( 100, applied.size() );
+
+        for ( int entry = 0; entry < 5; entry++ )
+        {
+            int expected = 0;
+
+            for ( String name : applied )
+            {
+                if ( name.startsWith( entry + "-" ) )
+                {
+                    assertEquals( entry + "-" + expected, name );
+                    expected++;
+                }
+            }
+
+            assertEquals( 20, expected );
+        }
+    }
+
+
+    @Test
+    public void testChildIsAppliedAfterItsParent() throws Exception
+    {
+        for ( int i = 0; i < 10; i++ )
+        {
+            Dn parent = new Dn( "ou=parent" + i + ",ou=system" );
+            Dn child = new Dn( "ou=child,ou=parent" + i + ",ou=system" );
+
+            applier.submit( "parent" + i, parent, false, change( "parent" + i, 50 ) );
+            applier.submit( "child" + i, child, false, change( "child" + i, 0 ) );
+        }
+
+        assertEquals( 0, applier.flush() );
+        assertEquals( 20, applied.size() );
+
+        for ( int i = 0; i < 10; i++ )
+        {
+            assertTrue( applied.indexOf( "parent" + i ) < applied.indexOf( "child" + i ) );
+        }
+    }
+
+
+    @Test
+    public void testSubtreeChangeIsAppliedAlone() throws Exception
+    {
+        for ( int i = 0; i < 10; i++ )
+        {
+            applier.submit( "uuid" + i, new Dn( "ou=entry" + i + ",ou=system" ), false, change( "entry" + i, 20 ) );
+        }
+
+        applier.submit( "subtree", new Dn( "ou=system" ), true, change( "subtree", 0 ) );
+
+        assertEquals( 11, applier.getUnflushed() );
+        assertEquals( 0, applier.flush() );
+        assertEquals( "subtree", applied.get( 10 ) );
+    }
+
+
+    @Test
+    public void testFailuresAreReported() throws Exception
+    {
+        applier.submit( "uuid0", new Dn( "ou=entry0,ou=system" ), false, change( "entry0", 0 ) );
+        applier.submit( "uuid1", new Dn( "ou=entry1,ou=system" ), false, failure() );
+        applier.submit( "uuid1", new Dn( "ou=entry1,ou=system" ), false, change( "entry1", 0 ) );
+        applier.submit( "subtree", new Dn( "ou=system" ), true, failure() );
+
+        // The failed changes do not prevent the next ones from being applied
+        assertEquals( 2, applier.flush() );
+        assertEquals( 2, applied.size() );
+
+        // The failures are reported once
+        applier.submit( "uuid0", new Dn( "ou=entry0,ou=system" ), false, change( "entry0", 0 ) );
+        assertEquals( 0, applier.flush() );
+    }
+
+
+    /**
+     * Creates a change which always fails, identified by its id
+     */
+    private ChangeApplier.Change failure( final String id, final boolean applied )
+    {
+        return new ChangeApplier.Change()
+        {
+            public void apply() throws Exception
+            {
+                throw new IllegalStateException( "failed" );
+            }
+
+
+            boolean isApplied()
+            {
+                return applied;
+            }
+
+
+            String getId()
+            {
+                return id;
+            }
+        };
+    }
+
+
+    @Test
+    public void testAlwaysFailingChangeIsSkipped() throws Exception
+    {
+        applier.shutdown();
+        applier = new ChangeApplier( "ChangeApplierTest", 4, 3 );
+        Dn dn = new Dn( "ou=entry0,ou=system" );
+
+        // The change is received again after each resync, until it's skipped
+        for ( int i = 0; i < 2; i++ )
+        {
+            applier.submit( "uuid0", dn, false, failure( "uuid0;csn0", false ) );
+            applier.submit( "uuid1", new Dn( "ou=entry1,ou=system" ), false, change( "entry1-" + i, 0 ) );
+            assertEquals( 1, applier.flush() );
+        }
+
+        applier.submit( "uuid0", dn, false, failure( "uuid0;csn0", false ) );
+        applier.submit( "uuid0", dn, false, change( "entry0", 0 ) );
+        assertEquals( 0, applier.flush() );
+        assertTrue( applied.contains( "entry0" ) );
+
+        // The attempts of a subtree change are counted too
+        for ( int i = 0; i < 2; i++ )
+        {
+            applier.submit( "subtree", new Dn( "ou=system" ), true, failure( "subtree;csn1", false ) );
+            assertEquals( 1, applier.flush() );
+        }
+
+        applier.submit( "subtree", new Dn( "ou=system" ), true, failure( "subtree;csn1", false ) );
+        assertEquals( 0, applier.flush() );
+
+        // Another change of the same entry is attempted again
+        applier.submit( "uuid0", dn, false, failure( "uuid0;csn2", false ) );
+        assertEquals( 1, applier.flush() );
+    }
+
+
+    @Test
+    public void testAppliedChangeIsNotAFailure() throws Exception
+    {
+        applier.submit( "uuid0", new Dn( "ou=entry0,ou=system" ), false, failure( "uuid0;csn0", true ) );
+        applier.submit( "subtree", new Dn( "ou=system" ), true, failure( "subtree;csn1", true ) );
+
+        assertEquals( 0, applier.flush() );
+    }
+
+
+    @Test
+    public void testShutdownAppliesTheSubmittedChanges() throws Exception
+    {
+        final CountDownLatch started = new CountDownLatch( 1 );
+
+        applier.submit( "uuid0", new Dn( "ou=entry0,ou=system" ), false, new ChangeApplier.Change()
+        {
+            public void apply() throws Exception
+            {
+                started.countDown();
+                Thread.sleep( 100 );
+                applied.add( "first" );
+            }
+        } );
+
+        applier.submit( "uuid0", new Dn( "ou=entry0,ou=system" ), false, change( "second", 0 ) );
+
+        assertTrue( started.await( 10, TimeUnit.SECONDS ) );
+        applier.shutdown();
+
+        assertEquals( 2, applied.size() );
+        assertEquals( "second", applied.get( 1 ) );
+    }
+}
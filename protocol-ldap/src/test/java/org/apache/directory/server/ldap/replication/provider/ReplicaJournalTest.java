@@ -0,0 +1,317 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.server.ldap.replication.provider;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.directory.api.ldap.model.csn.CsnFactory;
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.cursor.Tuple;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.message.controls.ChangeType;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.schema.extractor.SchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.extractor.impl.DefaultSchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.loader.LdifSchemaLoader;
+import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
+import org.apache.directory.api.util.exception.Exceptions;
+import org.apache.directory.server.core.partition.impl.btree.jdbm.JdbmTable;
+import org.apache.directory.server.ldap.replication.ReplicaEventMessage;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+
+/**
+ * Tests the group commit of the replication journal.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class ReplicaJournalTest
+{
+    /** The maximum time to wait for a thread, in milliseconds */
+    private static final long TIMEOUT = 10000L;
+
+    /** The SchemaManager instance */
+    private static SchemaManager schemaManager;
+
+    /** The CsnFactory */
+    private static CsnFactory csnFactory;
+
+    /** The journal file */
+    private File journalFile;
+
+    /** The journal */
+    private ReplicaJournal journal;
+
+
+    @BeforeClass
+    public static void init() throws Exception
+    {
+        String workingDirectory = System.getProperty( "workingDirectory" );
+
+        if ( workingDirectory == null )
+        {
+            String path = ReplicaJournalTest.class.getResource( "" ).getPath();
+            int targetPos = path.indexOf( "target" );
+            workingDirectory = path.substring( 0, targetPos + 6 );
+        }
+
+        File schemaRepository = new File( workingDirectory, "schema" );
+        SchemaLdifExtractor extractor = new DefaultSchemaLdifExtractor( new File( workingDirectory ) );
+        extractor.extractOrCopy( true );
+        LdifSchemaLoader loader = new LdifSchemaLoader( schemaRepository );
+        schemaManager = new DefaultSchemaManager( loader );
+
+        if ( !schemaManager.loadAllEnabled() )
+        {
+            fail( "Schema load failed : " + Exceptions.printErrors( schemaManager.getErrors() ) );
+        }
+
+        csnFactory = new CsnFactory( 0 );
+    }
+
+
+    @Before
+    public void createFile() throws Exception
+    {
+        journalFile = File.createTempFile( getClass().getSimpleName(), "db" );
+    }
+
+
+    @After
+    public void deleteFiles() throws Exception
+    {
+        if ( journal != null )
+        {
+            journal.close();
+            journal = null;
+        }
+
+        new File( journalFile.getAbsolutePath() + ".db" ).delete();
+        new File( journalFile.getAbsolutePath() + ".lg" ).delete();
+        journalFile.delete();
+    }
+
+
+    private ReplicaEventMessage createMessage( int i ) throws Exception
+    {
+        Entry entry = new DefaultEntry( schemaManager, "ou=test" + i + ",ou=system",
+            "ObjectClass: top",
+            "ObjectClass: organizationalUnit",
+            "ou", "test" + i,
+            "entryCsn", csnFactory.newInstance().toString() );
+
+        return new ReplicaEventMessage( ChangeType.ADD, entry );
+    }
+
+
+    /**
+     * Reads the messages of an index, checking they are ordered by CSN
+     */
+    private List<ReplicaEventMessage> readIndex( ReplicaJournal journal, JdbmTable<String, ReplicaEventMessage> index )
+        throws Exception
+    {
+        List<ReplicaEventMessage> result = new ArrayList<ReplicaEventMessage>();
+        String previousCsn = null;
+
+        synchronized ( journal.getStoreLock() )
+        {
+            Cursor<Tuple<String, ReplicaEventMessage>> cursor = index.cursor();
+
+            while ( cursor.next() )
+            {
+                Tuple<String, ReplicaEventMessage> tuple = cursor.get();
+
+                if ( previousCsn != null )
+                {
+                    assertTrue( previousCsn.compareTo( tuple.getKey() ) < 0 );
+                }
+
+                previousCsn = tuple.getKey();
+                ReplicaEventMessage message = journal.getMessage( tuple.getKey(), tuple.getValue() );
+                assertNotNull( message );
+                result.add( message );
+            }
+
+            cursor.close();
+        }
+
+        return result;
+    }
+
+
+    /**
+     * A journal which commit is blocked until it is released
+     */
+    private ReplicaJournal createBlockedJournal( final CountDownLatch commitStarted, final CountDownLatch release,
+        boolean waitForCommit ) throws IOException
+    {
+        return new ReplicaJournal( journalFile, schemaManager, waitForCommit )
+        {
+            @Override
+            void commit() throws IOException
+            {
+                commitStarted.countDown();
+
+                try
+                {
+                    release.await();
+                }
+                catch ( InterruptedException ie )
+                {
+                    throw new IOException( ie );
+                }
+
+                super.commit();
+            }
+        };
+    }
+
+
+    /**
+     * Appends a message in a new thread
+     */
+    private Thread append( final JdbmTable<String, ReplicaEventMessage> index, final ReplicaEventMessage message,
+        final List<Throwable> failures )
+    {
+        Thread thread = new Thread()
+        {
+            public void run()
+            {
+                try
+                {
+                    journal.append( index, message );
+                }
+                catch ( Throwable t )
+                {
+                    failures.add( t );
+                }
+            }
+        };
+
+        thread.start();
+
+        return thread;
+    }
+
+
+    @Test
+    public void testAppendWaitsForCommit() throws Exception
+    {
+        CountDownLatch commitStarted = new CountDownLatch( 1 );
+        CountDownLatch release = new CountDownLatch( 1 );
+        journal = createBlockedJournal( commitStarted, release, true );
+        JdbmTable<String, ReplicaEventMessage> index = journal.openIndex( "REPL_EVENT_LOG.1" );
+        List<Throwable> failures = new ArrayList<Throwable>();
+
+        Thread appender = append( index, createMessage( 0 ), failures );
+
+        assertTrue( commitStarted.await( TIMEOUT, TimeUnit.MILLISECONDS ) );
+        appender.join( 200L );
+
+        // The message is not committed, the appender is still waiting
+        assertTrue( appender.isAlive() );
+
+        release.countDown();
+        appender.join( TIMEOUT );
+
+        assertFalse( appender.isAlive() );
+        assertTrue( failures.isEmpty() );
+        assertEquals( 1, readIndex( journal, index ).size() );
+    }
+
+
+    @Test
+    public void testCommitDoesNotBlockAppenders() throws Exception
+    {
+        CountDownLatch commitStarted = new CountDownLatch( 1 );
+        CountDownLatch release = new CountDownLatch( 1 );
+        journal = createBlockedJournal( commitStarted, release, false );
+        JdbmTable<String, ReplicaEventMessage> index = journal.openIndex( "REPL_EVENT_LOG.1" );
+        List<Throwable> failures = new ArrayList<Throwable>();
+
+        journal.append( index, createMessage( 0 ) );
+        assertTrue( commitStarted.await( TIMEOUT, TimeUnit.MILLISECONDS ) );
+
+        // The committer holds the store lock, the next messages are only queued
+        Thread appender = append( index, createMessage( 1 ), failures );
+        appender.join( TIMEOUT );
+
+        assertFalse( appender.isAlive() );
+        assertTrue( failures.isEmpty() );
+
+        release.countDown();
+        journal.close();
+        journal = new ReplicaJournal( journalFile, schemaManager, true );
+        index = journal.openIndex( "REPL_EVENT_LOG.1" );
+
+        assertEquals( 2, readIndex( journal, index ).size() );
+    }
+
+
+    @Test
+    public void testCommittedMessagesAreKeptInOrder() throws Exception
+    {
+        journal = new ReplicaJournal( journalFile, schemaManager, true );
+        JdbmTable<String, ReplicaEventMessage> index1 = journal.openIndex( "REPL_EVENT_LOG.1" );
+        JdbmTable<String, ReplicaEventMessage> index2 = journal.openIndex( "REPL_EVENT_LOG.2" );
+
+        for ( int i = 0; i < 100; i++ )
+        {
+            ReplicaEventMessage message = createMessage( i );
+
+            // The same message, logged for the two consumers, is shared
+            journal.append( index1, message );
+            journal.append( index2, message );
+        }
+
+        journal.close();
+        journal = new ReplicaJournal( journalFile, schemaManager, true );
+        index1 = journal.openIndex( "REPL_EVENT_LOG.1" );
+        index2 = journal.openIndex( "REPL_EVENT_LOG.2" );
+
+        List<ReplicaEventMessage> messages1 = readIndex( journal, index1 );
+        List<ReplicaEventMessage> messages2 = readIndex( journal, index2 );
+
+        assertEquals( 100, messages1.size() );
+        assertEquals( 100, messages2.size() );
+
+        for ( int i = 0; i < 100; i++ )
+        {
+            assertEquals( "test" + i, messages1.get( i ).getEntry().get( "ou" ).getString() );
+            assertEquals( "test" + i, messages2.get( i ).getEntry().get( "ou" ).getString() );
+        }
+    }
+}
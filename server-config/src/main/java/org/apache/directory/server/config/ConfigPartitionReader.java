@@ -43,6 +43,7 @@ import org.apache.directory.api.ldap.model.entry.Value;
 import org.apache.directory.api.ldap.model.exception.LdapException;
 import org.apache.directory.api.ldap.model.exception.LdapInvalidDnException;
 import org.apache.directory.api.ldap.model.filter.EqualityNode;
+import org.apache.directory.api.ldap.model.filter.ExprNode;
 import org.apache.directory.api.ldap.model.message.AliasDerefMode;
 import org.apache.directory.api.ldap.model.message.SearchScope;
 import org.apache.directory.api.ldap.model.name.Dn;
@@ -55,6 +56,7 @@ import org.apache.directory.server.core.api.interceptor.context.SearchOperationC
 import org.apache.directory.server.core.partition.impl.btree.AbstractBTreePartition;
 import org.apache.directory.server.i18n.I18n;
 import org.apache.directory.server.xdbm.IndexEntry;
+import org.apache.directory.server.xdbm.search.Evaluator;
 import org.apache.directory.server.xdbm.search.PartitionSearchResult;
 import org.apache.directory.server.xdbm.search.SearchEngine;
 import org.slf4j.Logger;
@@ -492,6 +494,9 @@ public class ConfigPartitionReader
         // Create a container for all the read beans
         List<AdsBaseBean> beansList = new ArrayList<AdsBaseBean>();
 
+        // The ordinals of the removed entries are not reused while we read the candidates
+        long searchGeneration = configPartition.getEntryOrdinalMap().beginSearch();
+
         try
         {
             // Do the search
@@ -503,14 +508,35 @@ public class ConfigPartitionReader
             PartitionSearchResult searchResult = se.computeResult( schemaManager, searchContext );
 
             cursor = searchResult.getResultSet();
+            Evaluator<? extends ExprNode> evaluator = searchResult.getEvaluator();
 
-            // First, check if we have some entries to process.
-            if ( !cursor.next() )
+            // Loop on all the found elements
+            while ( cursor.next() )
             {
-                if ( mandatory )
+                IndexEntry<String, String> forwardEntry = cursor.get();
+
+                // Now, get the entry
+                Entry entry = configPartition.fetch( forwardEntry.getId() );
+
+                // The candidates may be read from the indexes as the cursor moves : they
+                // have to be checked against the filter
+                if ( ( entry == null ) || !evaluator.evaluate( entry ) )
                 {
-                    cursor.close();
+                    continue;
+                }
+
+                LOG.debug( "Entry read : {}", entry );
+
+                AdsBaseBean bean = readConfig( entry );
+                // Adding the bean to the list
+                beansList.add( bean );
+            }
 
+            // Check if we have found some entries
+            if ( beansList.isEmpty() )
+            {
+                if ( mandatory )
+                {
                     // the requested element is mandatory so let's throw an exception
                     String message = "No instance was configured under the DN '"
                         + baseDn + "' for the objectClass '" + name + "'.";
@@ -522,21 +548,6 @@ public class ConfigPartitionReader
                     return null;
                 }
             }
-
-            // Loop on all the found elements
-            do
-            {
-                IndexEntry<String, String> forwardEntry = cursor.get();
-
-                // Now, get the entry
-                Entry entry = configPartition.fetch( forwardEntry.getId() );
-                LOG.debug( "Entry read : {}", entry );
-
-                AdsBaseBean bean = readConfig( entry );
-                // Adding the bean to the list
-                beansList.add( bean );
-            }
-            while ( cursor.next() );
         }
         catch ( ConfigurationException ce )
         {
@@ -551,6 +562,8 @@ public class ConfigPartitionReader
         }
         finally
         {
+            configPartition.getEntryOrdinalMap().endSearch( searchGeneration );
+
             if ( cursor != null )
             {
                 try
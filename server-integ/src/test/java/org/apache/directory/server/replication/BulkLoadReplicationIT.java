@@ -0,0 +1,408 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+
+package org.apache.directory.server.replication;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.csn.Csn;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.server.annotations.CreateConsumer;
+import org.apache.directory.server.annotations.CreateLdapServer;
+import org.apache.directory.server.annotations.CreateTransport;
+import org.apache.directory.server.core.annotations.ContextEntry;
+import org.apache.directory.server.core.annotations.CreateDS;
+import org.apache.directory.server.core.annotations.CreateIndex;
+import org.apache.directory.server.core.annotations.CreatePartition;
+import org.apache.directory.server.core.api.CoreSession;
+import org.apache.directory.server.core.api.DirectoryService;
+import org.apache.directory.server.core.factory.DSAnnotationProcessor;
+import org.apache.directory.server.core.integ.FrameworkRunner;
+import org.apache.directory.server.factory.ServerAnnotationProcessor;
+import org.apache.directory.server.ldap.LdapServer;
+import org.apache.directory.server.ldap.replication.consumer.ReplicationConsumer;
+import org.apache.directory.server.ldap.replication.consumer.ReplicationConsumerImpl;
+import org.apache.directory.server.ldap.replication.provider.SyncReplRequestHandler;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+
+/**
+ * Tests the bulk load of the initial content by a consumer. The provider content
+ * contains an administrative point, a subentry and a group in the middle of plain
+ * entries : they have to go through the whole interceptor chain on the consumer.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class BulkLoadReplicationIT
+{
+    /** The number of plain entries added before and after the special ones */
+    private static final int NB_USERS = 20;
+
+    private static LdapServer providerServer;
+
+    private static LdapServer consumerServer;
+
+    private static SchemaManager schemaManager;
+
+    private static CoreSession providerSession;
+
+    private static CoreSession consumerSession;
+
+    private static ReplicationConsumerImpl consumer;
+
+    private static List<Dn> users = new ArrayList<Dn>();
+
+    private static List<Dn> areaUsers = new ArrayList<Dn>();
+
+    private static Dn areaDn;
+
+    private static Dn subentryDn;
+
+    private static Dn groupDn;
+
+
+    @BeforeClass
+    public static void setUp() throws Exception
+    {
+        Class.forName( FrameworkRunner.class.getName() );
+        CountDownLatch counter = new CountDownLatch( 2 );
+
+        startProvider( counter );
+        loadProvider();
+
+        // The consumer is started once the provider is loaded, so that
+        // the whole content is received as the initial content
+        startConsumer( counter );
+
+        // Wait for the two servers to be up and running
+        counter.await();
+    }
+
+
+    @AfterClass
+    public static void tearDown() throws Exception
+    {
+        consumerServer.stop();
+        consumerServer.getDirectoryService().shutdown();
+        providerServer.stop();
+        providerServer.getDirectoryService().shutdown();
+    }
+
+
+    /**
+     * Adds some users, an administrative point with a collective attribute subentry
+     * and some users below it, a group, and some more users.
+     */
+    private static void loadProvider() throws Exception
+    {
+        for ( int i = 0; i < NB_USERS; i++ )
+        {
+            users.add( addUser( "dc=example,dc=com", "user" + i ) );
+        }
+
+        areaDn = new Dn( schemaManager, "ou=area,dc=example,dc=com" );
+
+        providerSession.add( new DefaultEntry( schemaManager, areaDn,
+            "objectClass: top",
+            "objectClass: organizationalUnit",
+            "ou: area",
+            "administrativeRole: collectiveAttributeSpecificArea" ) );
+
+        subentryDn = new Dn( schemaManager, "cn=collective,ou=area,dc=example,dc=com" );
+
+        providerSession.add( new DefaultEntry( schemaManager, subentryDn,
+            "objectClass: top",
+            "objectClass: subentry",
+            "objectClass: collectiveAttributeSubentry",
+            "cn: collective",
+            "c-l: Munich",
+            "subtreeSpecification: { }" ) );
+
+        for ( int i = 0; i < NB_USERS; i++ )
+        {
+            areaUsers.add( addUser( "ou=area,dc=example,dc=com", "areaUser" + i ) );
+        }
+
+        groupDn = new Dn( schemaManager, "cn=group,dc=example,dc=com" );
+
+        providerSession.add( new DefaultEntry( schemaManager, groupDn,
+            "objectClass: top",
+            "objectClass: groupOfNames",
+            "cn: group",
+            "member", users.get( 0 ).getName() ) );
+
+        for ( int i = NB_USERS; i < 2 * NB_USERS; i++ )
+        {
+            users.add( addUser( "dc=example,dc=com", "user" + i ) );
+        }
+    }
+
+
+    private static Dn addUser( String parent, String user ) throws Exception
+    {
+        Dn dn = new Dn( schemaManager, "cn=" + user + "," + parent );
+
+        providerSession.add( new DefaultEntry( schemaManager, dn,
+            "objectClass", "person",
+            "cn", user,
+            "sn", user ) );
+
+        return dn;
+    }
+
+
+    /**
+     * Check that the entry was replicated to the target server. That is the case when the entry exists on the target
+     * server and its entryCSN is greater than or equal compared to the source entry. We wait up to 10 seconds,
+     * by 100ms steps, until either the entry s found, or we have exhausted the 10 seconds delay.
+     */
+    private boolean checkEntryReplicated( Dn entryDn ) throws Exception
+    {
+        for ( int i = 0; i < 100; i++ )
+        {
+            if ( consumerSession.exists( entryDn ) )
+            {
+                Entry providerEntry = providerSession.lookup( entryDn, "*", "+" );
+                Entry consumerEntry = consumerSession.lookup( entryDn, "*", "+" );
+                Csn providerCSN = new Csn( providerEntry.get( SchemaConstants.ENTRY_CSN_AT ).getString() );
+                Csn consumerCSN = new Csn( consumerEntry.get( SchemaConstants.ENTRY_CSN_AT ).getString() );
+
+                if ( consumerCSN.compareTo( providerCSN ) >= 0 )
+                {
+                    return true;
+                }
+            }
+
+            Thread.sleep( 100 );
+        }
+
+        return false;
+    }
+
+
+    private void compareEntries( Dn dn ) throws Exception
+    {
+        String[] searchAttributes = new String[]
+            {
+                SchemaConstants.ALL_USER_ATTRIBUTES,
+                SchemaConstants.ENTRY_UUID_AT
+        };
+
+        Entry providerEntry = providerSession.lookup( dn, searchAttributes );
+        Entry consumerEntry = consumerSession.lookup( dn, searchAttributes );
+
+        assertEquals( providerEntry, consumerEntry );
+    }
+
+
+    @Test
+    public void testBulkLoad() throws Exception
+    {
+        assertTrue( consumer.getConfig().isBulkLoad() );
+
+        for ( Dn userDn : users )
+        {
+            assertTrue( checkEntryReplicated( userDn ) );
+            compareEntries( userDn );
+        }
+
+        assertTrue( checkEntryReplicated( areaDn ) );
+        compareEntries( areaDn );
+
+        for ( Dn userDn : areaUsers )
+        {
+            assertTrue( checkEntryReplicated( userDn ) );
+            compareEntries( userDn );
+        }
+
+        assertTrue( checkEntryReplicated( groupDn ) );
+        compareEntries( groupDn );
+    }
+
+
+    @Test
+    public void testBulkLoadSubentry() throws Exception
+    {
+        assertTrue( checkEntryReplicated( subentryDn ) );
+        compareEntries( subentryDn );
+
+        // The subentry went through the SubentryInterceptor
+        DirectoryService consumerService = consumerServer.getDirectoryService();
+        assertTrue( consumerService.getSubentryCache().hasSubentry( subentryDn ) );
+
+        // It selects the entries below the administrative point, not the other ones
+        for ( Dn userDn : areaUsers )
+        {
+            assertTrue( checkEntryReplicated( userDn ) );
+            assertFalse( consumerService.getSubentryCache().getSubentries( userDn ).isEmpty() );
+
+            Entry consumerEntry = consumerSession.lookup( userDn, "*" );
+            assertTrue( consumerEntry.contains( "c-l", "Munich" ) );
+        }
+
+        for ( Dn userDn : users )
+        {
+            assertTrue( checkEntryReplicated( userDn ) );
+
+            Entry consumerEntry = consumerSession.lookup( userDn, "*" );
+            assertFalse( consumerEntry.containsAttribute( "c-l" ) );
+        }
+    }
+
+
+    @Test
+    public void testBulkLoadThenPersist() throws Exception
+    {
+        // Wait for the initial content
+        assertTrue( checkEntryReplicated( users.get( users.size() - 1 ) ) );
+
+        // The changes done once the initial content is loaded are still replicated
+        Dn userDn = addUser( "ou=area,dc=example,dc=com", "lateUser" );
+
+        assertTrue( checkEntryReplicated( userDn ) );
+        compareEntries( userDn );
+
+        Entry consumerEntry = consumerSession.lookup( userDn, "*" );
+        assertTrue( consumerEntry.contains( "c-l", "Munich" ) );
+    }
+
+
+    @CreateDS(
+        allowAnonAccess = true,
+        name = "provider-bulk-replication",
+        enableChangeLog = false,
+        partitions =
+            {
+                @CreatePartition(
+                    name = "example",
+                    suffix = "dc=example,dc=com",
+                    indexes =
+                        {
+                            @CreateIndex(attribute = "objectClass"),
+                            @CreateIndex(attribute = "dc"),
+                            @CreateIndex(attribute = "ou")
+                    },
+                    contextEntry = @ContextEntry(entryLdif =
+                        "dn: dc=example,dc=com\n" +
+                            "objectClass: domain\n" +
+                            "dc: example"))
+        })
+    @CreateLdapServer(transports =
+        { @CreateTransport(port = 16200, protocol = "LDAP") })
+    public static void startProvider( final CountDownLatch counter ) throws Exception
+    {
+        DirectoryService provDirService = DSAnnotationProcessor.getDirectoryService();
+
+        providerServer = ServerAnnotationProcessor.getLdapServer( provDirService );
+        providerServer.setReplicationReqHandler( new SyncReplRequestHandler() );
+        providerServer.startReplicationProducer();
+
+        schemaManager = provDirService.getSchemaManager();
+        providerSession = provDirService.getAdminSession();
+        counter.countDown();
+    }
+
+
+    @CreateDS(
+        allowAnonAccess = true,
+        enableChangeLog = false,
+        name = "consumer-bulk-replication",
+        partitions =
+            {
+                @CreatePartition(
+                    name = "example",
+                    suffix = "dc=example,dc=com",
+                    indexes =
+                        {
+                            @CreateIndex(attribute = "objectClass"),
+                            @CreateIndex(attribute = "dc"),
+                            @CreateIndex(attribute = "ou")
+                    },
+                    contextEntry = @ContextEntry(entryLdif =
+                        "dn: dc=example,dc=com\n" +
+                            "objectClass: domain\n" +
+                            "dc: example"))
+        })
+    @CreateLdapServer(transports =
+        { @CreateTransport(port = 17200, protocol = "LDAP") })
+    @CreateConsumer
+        (
+            remotePort = 16200,
+            replUserDn = "uid=admin,ou=system",
+            replUserPassword = "secret",
+            useTls = false,
+            baseDn = "dc=example,dc=com",
+            refreshInterval = 1000,
+            replicaId = 1
+        )
+        public static void startConsumer( final CountDownLatch counter ) throws Exception
+    {
+        DirectoryService consDirService = DSAnnotationProcessor.getDirectoryService();
+        consumerServer = ServerAnnotationProcessor.getLdapServer( consDirService );
+
+        consumer = ( ReplicationConsumerImpl ) ServerAnnotationProcessor.createConsumer();
+        consumer.getConfig().setBulkLoad( true );
+
+        List<ReplicationConsumer> replConsumers = new ArrayList<ReplicationConsumer>();
+        replConsumers.add( consumer );
+
+        consumerServer.setReplConsumers( replConsumers );
+
+        Dn configDn = new Dn( consDirService.getSchemaManager(), "ads-replConsumerId=localhost,ou=system" );
+        consumer.getConfig().setConfigEntryDn( configDn );
+
+        Entry consConfigEntry = new DefaultEntry( consDirService.getSchemaManager(), configDn,
+            "objectClass: ads-replConsumer",
+            "ads-replConsumerId: localhost",
+            "ads-searchBaseDN", consumer.getConfig().getBaseDn(),
+            "ads-replProvHostName", consumer.getConfig().getRemoteHost(),
+            "ads-replProvPort", String.valueOf( consumer.getConfig().getRemotePort() ),
+            "ads-replRefreshInterval", String.valueOf( consumer.getConfig().getRefreshInterval() ),
+            "ads-replRefreshNPersist", String.valueOf( consumer.getConfig().isRefreshNPersist() ),
+            "ads-replSearchScope", consumer.getConfig().getSearchScope().getLdapUrlValue(),
+            "ads-replSearchFilter", consumer.getConfig().getFilter(),
+            "ads-replSearchSizeLimit", String.valueOf( consumer.getConfig().getSearchSizeLimit() ),
+            "ads-replSearchTimeOut", String.valueOf( consumer.getConfig().getSearchTimeout() ),
+            "ads-replUserDn", consumer.getConfig().getReplUserDn(),
+            "ads-replUserPassword", consumer.getConfig().getReplUserPassword() );
+
+        consConfigEntry.put( "ads-replAliasDerefMode", consumer.getConfig().getAliasDerefMode().getJndiValue() );
+        consConfigEntry.put( "ads-replAttributes", consumer.getConfig().getAttributes() );
+
+        consumerSession = consDirService.getAdminSession();
+        consumerSession.add( consConfigEntry );
+        counter.countDown();
+
+        consumerServer.startReplicationConsumers();
+    }
+}
@@ -96,7 +96,10 @@ public class AvlPartition extends AbstractBTreePartition
                 setOptimizer( new DefaultOptimizer<Entry>( this ) );
             }
 
-            setSearchEngine( new DefaultSearchEngine( this, cursorBuilder, evaluatorBuilder, getOptimizer() ) );
+            DefaultSearchEngine engine = new DefaultSearchEngine( this, cursorBuilder, evaluatorBuilder,
+                getOptimizer() );
+            engine.setStreaming( searchStreamingEnabled );
+            setSearchEngine( engine );
 
             if ( isInitialized() )
             {
@@ -176,6 +179,7 @@ public class AvlPartition extends AbstractBTreePartition
             LOG.debug( "Supplied index {} is not a AvlIndex. "
                 + "Will create new AvlIndex using copied configuration parameters.", index );
             avlIndex = new AvlIndex( index.getAttributeId(), true );
+            avlIndex.setNgramSize( index.getNgramSize() );
         }
 
         avlIndex.init( schemaManager, schemaManager.lookupAttributeTypeRegistry( index.getAttributeId() ) );
@@ -184,6 +188,29 @@ public class AvlPartition extends AbstractBTreePartition
     }
 
 
+    /**
+     * {@inheritDoc}
+     * The AVL indices are kept in memory : their statistics are always computed
+     * from their content.
+     */
+    @Override
+    protected void loadIndexStatistics()
+    {
+        // Nothing to do
+    }
+
+
+    /**
+     * {@inheritDoc}
+     * The AVL indices are kept in memory : their statistics are not stored.
+     */
+    @Override
+    protected void saveIndexStatistics()
+    {
+        // Nothing to do
+    }
+
+
     /**
      * {@inheritDoc}
      */
@@ -20,17 +20,27 @@
 package org.apache.directory.server.core.partition.impl.btree;
 
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.net.URI;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
@@ -38,8 +48,10 @@ import net.sf.ehcache.Cache;
 import net.sf.ehcache.Element;
 import net.sf.ehcache.store.LruPolicy;
 
+import org.apache.commons.io.IOUtils;
 import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.cursor.Tuple;
 import org.apache.directory.api.ldap.model.entry.Attribute;
 import org.apache.directory.api.ldap.model.entry.BinaryValue;
 import org.apache.directory.api.ldap.model.entry.Entry;
@@ -81,15 +93,23 @@ import org.apache.directory.server.core.api.interceptor.context.OperationContext
 import org.apache.directory.server.core.api.interceptor.context.RenameOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.SearchOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.UnbindOperationContext;
+import org.apache.directory.server.core.api.monitor.MonitorRegistry;
+import org.apache.directory.server.core.api.monitor.MonitoredComponent;
 import org.apache.directory.server.core.api.partition.AbstractPartition;
 import org.apache.directory.server.core.api.partition.Partition;
 import org.apache.directory.server.i18n.I18n;
+import org.apache.directory.server.xdbm.EntryOrdinalMap;
 import org.apache.directory.server.xdbm.Index;
 import org.apache.directory.server.xdbm.IndexEntry;
 import org.apache.directory.server.xdbm.IndexNotFoundException;
+import org.apache.directory.server.xdbm.IndexStatistics;
 import org.apache.directory.server.xdbm.MasterTable;
+import org.apache.directory.server.xdbm.NgramIndex;
+import org.apache.directory.server.xdbm.OffHeapEntryCache;
 import org.apache.directory.server.xdbm.ParentIdAndRdn;
 import org.apache.directory.server.xdbm.Store;
+import org.apache.directory.server.xdbm.StripedLock;
+import org.apache.directory.server.xdbm.impl.avl.AvlIndex;
 import org.apache.directory.server.xdbm.search.Optimizer;
 import org.apache.directory.server.xdbm.search.PartitionSearchResult;
 import org.apache.directory.server.xdbm.search.SearchEngine;
@@ -102,7 +122,7 @@ import org.slf4j.LoggerFactory;
  *
  * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
  */
-public abstract class AbstractBTreePartition extends AbstractPartition implements Store
+public abstract class AbstractBTreePartition extends AbstractPartition implements Store, MonitoredComponent
 {
     /** static logger */
     private static final Logger LOG = LoggerFactory.getLogger( AbstractBTreePartition.class );
@@ -116,12 +136,40 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     /** Tells if the Optimizer is enabled */
     protected boolean optimizerEnabled = true;
 
+    /** Tells if the search candidates are read from the indexes while the entries are returned */
+    protected boolean searchStreamingEnabled = true;
+
+    /** Tells if modifications of distinct entries can be applied concurrently, when the store supports it */
+    protected boolean concurrentModificationsEnabled = false;
+
+    /**
+     * The lock protecting the partition structure. It's held exclusively by the move
+     * and rename operations, and by the modifications when they can't be applied
+     * concurrently
+     */
+    private final ReentrantReadWriteLock structureLock = new ReentrantReadWriteLock();
+
+    /** The locks protecting the entries while they are concurrently modified */
+    private final StripedLock entryLocks = new StripedLock();
+
+    /** The lock protecting the context CSN when modifications are applied concurrently */
+    private final Object contextCsnLock = new Object();
+
     /** The default cache size is set to 10 000 objects */
     public static final int DEFAULT_CACHE_SIZE = 10000;
 
     /** The Entry cache size for this partition */
     protected int cacheSize = DEFAULT_CACHE_SIZE;
 
+    /** The size of the off-heap entry cache, in megabytes. 0 means the on-heap cache is used */
+    protected int offHeapCacheSize = 0;
+
+    /** The off-heap entry cache, if configured */
+    protected OffHeapEntryCache offHeapEntryCache;
+
+    /** The name of the file storing the index statistics in the partition directory */
+    public static final String INDEX_STATISTICS_FILE = "index.stats";
+
     /** The alias cache */
     protected Cache aliasCache;
 
@@ -143,12 +191,21 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     /** the master table storing entries by primary key */
     protected MasterTable master;
 
+    /** the dense ordinals associated with the master table entry IDs */
+    protected EntryOrdinalMap entryOrdinalMap = new EntryOrdinalMap();
+
     /** a map of attributeType numeric UUID to user userIndices */
     protected Map<String, Index<?, String>> userIndices = new HashMap<String, Index<?, String>>();
 
     /** a map of attributeType numeric UUID to system userIndices */
     protected Map<String, Index<?, String>> systemIndices = new HashMap<String, Index<?, String>>();
 
+    /** a map of attributeType numeric UUID to the n-gram indices used for substring filters */
+    protected Map<String, NgramIndex> ngramIndices = new HashMap<String, NgramIndex>();
+
+    /** a map of attributeType numeric UUID to the user indices statistics */
+    protected Map<String, IndexStatistics> indexStatistics = new HashMap<String, IndexStatistics>();
+
     /** the relative distinguished name index */
     protected Index<ParentIdAndRdn, String> rdnIdx;
 
@@ -274,6 +331,65 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     }
 
 
+    /**
+     * Gets the size of the off-heap entry cache for this BTreePartition.
+     *
+     * @return the size of the off-heap entry cache, in megabytes, or 0 if the entries
+     * are cached on heap
+     */
+    public int getOffHeapCacheSize()
+    {
+        return offHeapCacheSize;
+    }
+
+
+    /**
+     * Used to store the cached entries out of the heap, in a cache whose size is given
+     * in megabytes. When set, this cache replaces the on-heap entry cache. It has to be
+     * set before the partition is initialized.
+     *
+     * @param offHeapCacheSize the size of the off-heap entry cache, in megabytes
+     */
+    public void setOffHeapCacheSize( int offHeapCacheSize )
+    {
+        this.offHeapCacheSize = offHeapCacheSize;
+    }
+
+
+    /**
+     * @return the off-heap entry cache, or null if the entries are cached on heap
+     */
+    public OffHeapEntryCache getOffHeapEntryCache()
+    {
+        return offHeapEntryCache;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void registerStatistics( MonitorRegistry registry )
+    {
+        if ( offHeapEntryCache != null )
+        {
+            offHeapEntryCache.registerStatistics( registry, getId() );
+        }
+    }
+
+
+    /**
+     * Creates the off-heap entry cache, using the entry serialization of the
+     * partition. Partitions supporting such a cache must override this method.
+     *
+     * @param sizeInMb The size of the cache, in megabytes
+     * @return The off-heap entry cache, or null if the partition does not support it
+     */
+    protected OffHeapEntryCache createOffHeapEntryCache( int sizeInMb )
+    {
+        return null;
+    }
+
+
     /**
      * Tells if the Optimizer is enabled or not
      * @return true if the optimizer is enabled
@@ -294,6 +410,63 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     }
 
 
+    /**
+     * Tells if the search streaming mode is enabled or not (the default). In this mode, the
+     * filter is evaluated lazily : the candidates are read from the indexes as the entries
+     * are returned, instead of being all gathered before the first entry is returned.
+     * @return true if the candidates are read from the indexes while the entries are returned
+     */
+    public boolean isSearchStreamingEnabled()
+    {
+        return searchStreamingEnabled;
+    }
+
+
+    /**
+     * Set the search streaming flag. It must be set before the partition is initialized.
+     * @param searchStreamingEnabled The flag
+     */
+    public void setSearchStreamingEnabled( boolean searchStreamingEnabled )
+    {
+        this.searchStreamingEnabled = searchStreamingEnabled;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     * This is only possible if the underlying store supports concurrent updates.
+     */
+    @Override
+    public boolean isConcurrentModificationsEnabled()
+    {
+        return concurrentModificationsEnabled && supportsConcurrentModifications();
+    }
+
+
+    /**
+     * Set the concurrent modifications flag, disabled by default. When set, a modify
+     * operation only locks the modified entry, while the move and rename operations
+     * still lock the whole partition.
+     * @param concurrentModificationsEnabled The flag
+     */
+    public void setConcurrentModificationsEnabled( boolean concurrentModificationsEnabled )
+    {
+        this.concurrentModificationsEnabled = concurrentModificationsEnabled;
+    }
+
+
+    /**
+     * Tells if the tables and indexes of this partition can be updated by many
+     * threads at the same time. Partitions which support it must override this method.
+     *
+     * @return true if the modifications can be applied concurrently
+     */
+    protected boolean supportsConcurrentModifications()
+    {
+        return false;
+    }
+
+
     /**
      * Sets the path in which this Partition stores data. This may be an URL to
      * a file or directory, or an JDBC URL.
@@ -444,6 +617,303 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     }
 
 
+    /**
+     * Sets up the n-gram indices associated with the user indices having a
+     * n-gram size. Must be called after the user indices are initialized.
+     */
+    protected void setupNgramIndices() throws Exception
+    {
+        Map<String, NgramIndex> tmp = new HashMap<String, NgramIndex>();
+
+        for ( Index<?, String> index : userIndices.values() )
+        {
+            int ngramSize = index.getNgramSize();
+
+            if ( ngramSize <= 0 )
+            {
+                continue;
+            }
+
+            AttributeType attributeType = index.getAttribute();
+
+            if ( !attributeType.getSyntax().isHumanReadable() )
+            {
+                LOG.warn( "Cannot create a n-gram index for the binary attribute {}", attributeType.getName() );
+                continue;
+            }
+
+            Index<String, String> ngramIdx = createNgramIndex( attributeType );
+            tmp.put( attributeType.getOid(), new NgramIndex( attributeType, ngramIdx, ngramSize ) );
+        }
+
+        ngramIndices = tmp;
+    }
+
+
+    /**
+     * Creates and initializes the index storing the n-grams for an AttributeType.
+     * The default implementation uses an in-memory index, which is built when the
+     * partition is initialized. Store implementations may override this method
+     * to persist the n-grams.
+     *
+     * @param attributeType The indexed AttributeType
+     * @return The initialized index
+     * @throws Exception If the index can't be created
+     */
+    protected Index<String, String> createNgramIndex( AttributeType attributeType ) throws Exception
+    {
+        AvlIndex<String> ngramIdx = new AvlIndex<String>( attributeType.getOid(), false );
+        ngramIdx.init( schemaManager, attributeType );
+
+        return ngramIdx;
+    }
+
+
+    /**
+     * Builds the empty n-gram indices by browsing all the entries present in the
+     * master table.
+     *
+     * WARN: MUST be called after the master table has been created
+     *
+     * @throws Exception If the indices can't be built
+     */
+    protected void buildNgramIndices() throws Exception
+    {
+        List<NgramIndex> toBuild = new ArrayList<NgramIndex>();
+
+        for ( NgramIndex ngramIndex : ngramIndices.values() )
+        {
+            if ( ngramIndex.getIndex().count() == 0L )
+            {
+                toBuild.add( ngramIndex );
+            }
+        }
+
+        if ( toBuild.isEmpty() || ( master.count() == 0L ) )
+        {
+            return;
+        }
+
+        LOG.info( "Building the n-gram indices {} for partition {}", toBuild, id );
+
+        Cursor<Tuple<String, Entry>> cursor = master.cursor();
+        cursor.beforeFirst();
+
+        while ( cursor.next() )
+        {
+            Tuple<String, Entry> tuple = cursor.get();
+            Entry entry = tuple.getValue();
+
+            for ( NgramIndex ngramIndex : toBuild )
+            {
+                ngramIndex.update( tuple.getKey(), null,
+                    ngramIndex.getNgrams( entry.get( ngramIndex.getAttributeType() ) ) );
+            }
+        }
+
+        cursor.close();
+    }
+
+
+    /**
+     * Sets up the statistics of the user indices, and reads the persisted values.
+     * Must be called after the user indices are initialized.
+     */
+    protected void setupIndexStatistics() throws Exception
+    {
+        Map<String, IndexStatistics> tmp = new HashMap<String, IndexStatistics>();
+
+        for ( Index<?, String> index : userIndices.values() )
+        {
+            AttributeType attributeType = index.getAttribute();
+            tmp.put( attributeType.getOid(), new IndexStatistics( attributeType ) );
+        }
+
+        indexStatistics = tmp;
+
+        loadIndexStatistics();
+    }
+
+
+    /**
+     * Reads the index statistics stored in the partition directory, if any. The
+     * statistics which don't match the current index content are ignored, and will
+     * be computed again when needed.
+     */
+    protected void loadIndexStatistics()
+    {
+        if ( partitionPath == null )
+        {
+            return;
+        }
+
+        File statisticsFile = new File( new File( partitionPath ), INDEX_STATISTICS_FILE );
+
+        if ( !statisticsFile.exists() )
+        {
+            return;
+        }
+
+        DataInputStream in = null;
+
+        try
+        {
+            in = new DataInputStream( new BufferedInputStream( new FileInputStream( statisticsFile ) ) );
+
+            int nbIndices = in.readInt();
+
+            for ( int i = 0; i < nbIndices; i++ )
+            {
+                String oid = in.readUTF();
+                IndexStatistics statistics = indexStatistics.get( oid );
+
+                if ( statistics == null )
+                {
+                    // The index has been removed : read the statistics and forget them
+                    statistics = new IndexStatistics( schemaManager.lookupAttributeTypeRegistry( oid ) );
+                    statistics.readExternal( in );
+                    continue;
+                }
+
+                statistics.readExternal( in );
+
+                if ( statistics.count() != userIndices.get( oid ).count() )
+                {
+                    // The index has been modified after the statistics were stored
+                    statistics.invalidate();
+                }
+            }
+        }
+        catch ( Exception e )
+        {
+            LOG.warn( "Cannot read the index statistics of partition {}, they will be computed again", id, e );
+
+            for ( IndexStatistics statistics : indexStatistics.values() )
+            {
+                statistics.invalidate();
+            }
+        }
+        finally
+        {
+            IOUtils.closeQuietly( in );
+        }
+    }
+
+
+    /**
+     * Stores the index statistics in the partition directory
+     */
+    protected void saveIndexStatistics()
+    {
+        if ( ( partitionPath == null ) || indexStatistics.isEmpty() )
+        {
+            return;
+        }
+
+        File partitionDir = new File( partitionPath );
+
+        if ( !partitionDir.exists() )
+        {
+            return;
+        }
+
+        DataOutputStream out = null;
+
+        try
+        {
+            out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( new File( partitionDir,
+                INDEX_STATISTICS_FILE ) ) ) );
+
+            out.writeInt( indexStatistics.size() );
+
+            for ( Map.Entry<String, IndexStatistics> statistics : indexStatistics.entrySet() )
+            {
+                out.writeUTF( statistics.getKey() );
+                statistics.getValue().writeExternal( out );
+            }
+
+            out.flush();
+        }
+        catch ( IOException ioe )
+        {
+            LOG.warn( "Cannot store the index statistics of partition {}", id, ioe );
+        }
+        finally
+        {
+            IOUtils.closeQuietly( out );
+        }
+    }
+
+
+    /**
+     * Gets a copy of the user indexed attributes of an entry. It is used to update
+     * the n-gram indices and the index statistics once the entry has been modified.
+     *
+     * @param entry The entry, may be null
+     * @return The copied attributes, per AttributeType OID
+     */
+    private Map<String, Attribute> copyIndexedAttributes( Entry entry )
+    {
+        Map<String, Attribute> attributes = new HashMap<String, Attribute>();
+
+        if ( entry == null )
+        {
+            return attributes;
+        }
+
+        for ( Attribute attribute : entry )
+        {
+            String oid = attribute.getAttributeType().getOid();
+
+            if ( userIndices.containsKey( oid ) )
+            {
+                attributes.put( oid, attribute.clone() );
+            }
+        }
+
+        return attributes;
+    }
+
+
+    /**
+     * Updates the n-gram indices and the index statistics for an entry, given its
+     * user indexed attributes before and after an operation.
+     *
+     * @param id The entry ID
+     * @param oldAttributes The indexed attributes before the operation, null for an addition
+     * @param newAttributes The indexed attributes after the operation, null for a deletion
+     * @throws Exception If an index can't be updated
+     */
+    private void updateDerivedIndices( String id, Map<String, Attribute> oldAttributes,
+        Map<String, Attribute> newAttributes ) throws Exception
+    {
+        for ( Map.Entry<String, IndexStatistics> statistics : indexStatistics.entrySet() )
+        {
+            String oid = statistics.getKey();
+            Attribute oldAttribute = ( oldAttributes == null ) ? null : oldAttributes.get( oid );
+            Attribute newAttribute = ( newAttributes == null ) ? null : newAttributes.get( oid );
+
+            if ( ( oldAttribute != null ) || ( newAttribute != null ) )
+            {
+                statistics.getValue().update( oldAttribute, newAttribute );
+            }
+        }
+
+        for ( Map.Entry<String, NgramIndex> ngramIndex : ngramIndices.entrySet() )
+        {
+            String oid = ngramIndex.getKey();
+            Attribute oldAttribute = ( oldAttributes == null ) ? null : oldAttributes.get( oid );
+            Attribute newAttribute = ( newAttributes == null ) ? null : newAttributes.get( oid );
+
+            if ( ( oldAttribute != null ) || ( newAttribute != null ) )
+            {
+                NgramIndex index = ngramIndex.getValue();
+                index.update( id, index.getNgrams( oldAttribute ), index.getNgrams( newAttribute ) );
+            }
+        }
+    }
+
+
     /**
      * Gets the DefaultSearchEngine used by this ContextPartition to search the
      * Database.
@@ -499,6 +969,15 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
         initialized = false;
 
         entryDnCache.removeAll();
+        entryOrdinalMap.clear();
+
+        if ( offHeapEntryCache != null )
+        {
+            offHeapEntryCache.clear();
+            offHeapEntryCache = null;
+        }
+
+        saveIndexStatistics();
         
         MultiException errors = new MultiException( I18n.err( I18n.ERR_577 ) );
 
@@ -516,6 +995,21 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
             }
         }
 
+        for ( NgramIndex ngramIndex : ngramIndices.values() )
+        {
+            try
+            {
+                ngramIndex.close();
+                LOG.debug( "Closed {} n-gram index for {} partition.", ngramIndex.getAttributeType().getName(),
+                    suffixDn );
+            }
+            catch ( Throwable t )
+            {
+                LOG.error( I18n.err( I18n.ERR_124 ), t );
+                errors.addThrowable( t );
+            }
+        }
+
         for ( Index<?, String> index : systemIndices.values() )
         {
             try
@@ -565,6 +1059,18 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
         // Now, initialize the configured index
         setupSystemIndices();
         setupUserIndices();
+        setupNgramIndices();
+        setupIndexStatistics();
+
+        if ( offHeapCacheSize > 0 )
+        {
+            offHeapEntryCache = createOffHeapEntryCache( offHeapCacheSize );
+
+            if ( offHeapEntryCache != null )
+            {
+                LOG.debug( "Using an off-heap entry cache of {} MB for {} partition", offHeapCacheSize, id );
+            }
+        }
 
         if ( cacheService != null )
         {
@@ -825,6 +1331,9 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
                 }
             }
 
+            // Update the n-gram indices and the index statistics
+            updateDerivedIndices( id, null, copyIndexedAttributes( entry ) );
+
             // Add the parentId in the entry
             entry.put( SchemaConstants.ENTRY_PARENT_ID_AT, parentId );
 
@@ -1070,6 +1579,9 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
                 }
             }
 
+            // Update the n-gram indices and the index statistics
+            updateDerivedIndices( id, copyIndexedAttributes( entry ), null );
+
             lockWrite();
 
             try
@@ -1079,6 +1591,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
                 dumpRdnIdx();
 
                 entryDnCache.remove( id );
+                entryOrdinalMap.release( id );
                 
                 Attribute csn = entry.get( entryCsnAT );
                 // can be null while doing subentry deletion
@@ -1137,7 +1650,21 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
                 }
             }
             
-            PartitionSearchResult searchResult = searchEngine.computeResult( schemaManager, searchContext );
+            // The ordinals released from now on are not reused until the cursor is closed
+            long searchGeneration = entryOrdinalMap.beginSearch();
+            PartitionSearchResult searchResult;
+
+            try
+            {
+                searchResult = searchEngine.computeResult( schemaManager, searchContext );
+            }
+            catch ( Exception e )
+            {
+                entryOrdinalMap.endSearch( searchGeneration );
+                throw e;
+            }
+
+            searchResult.setSearchGeneration( searchGeneration );
 
             Cursor<Entry> result = new EntryCursorAdaptor( this, searchResult );
 
@@ -1257,24 +1784,42 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
                 return entry;
             }
 
+            rwLock.readLock().lock();
+
+            // When the entries are modified concurrently, the entry is read and cached under
+            // its lock, otherwise we could put back in the cache an entry modified meanwhile
+            Lock entryLock = isConcurrentModificationsEnabled() ? entryLocks.getLock( id ) : null;
+
+            if ( entryLock != null )
+            {
+                entryLock.lock();
+            }
+
             try
             {
-                rwLock.readLock().lock();
                 entry = master.get( id );
+
+                if ( entry != null )
+                {
+                    // We have to store the DN in this entry
+                    entry.setDn( dn );
+
+                    // always store original entry in the cache
+                    addToCache( id, entry );
+                }
             }
             finally
             {
+                if ( entryLock != null )
+                {
+                    entryLock.unlock();
+                }
+
                 rwLock.readLock().unlock();
             }
 
             if ( entry != null )
             {
-                // We have to store the DN in this entry
-                entry.setDn( dn );
-
-                // always store original entry in the cache
-                addToCache( id, entry );
-
                 entry = new ClonedServerEntry( entry );
 
                 if ( !entry.containsAttribute( entryDnAT ) )
@@ -1306,13 +1851,8 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
         {
             setRWLock( modifyContext );
 
-            Entry modifiedEntry = modify( modifyContext.getDn(),
-                modifyContext.getModItems().toArray( new Modification[]
-                    {} ) );
-
-            modifyContext.setAlteredEntry( modifiedEntry );
-
-            updateCache( modifyContext );
+            modify( modifyContext.getDn(), modifyContext, modifyContext.getModItems().toArray( new Modification[]
+                {} ) );
         }
         catch ( Exception e )
         {
@@ -1324,11 +1864,76 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     /**
      * {@inheritDoc}
      */
-    public final synchronized Entry modify( Dn dn, Modification... mods ) throws Exception
+    public final Entry modify( Dn dn, Modification... mods ) throws Exception
+    {
+        return modify( dn, null, mods );
+    }
+
+
+    /**
+     * Applies the modifications to an entry. When a ModifyOperationContext is given, the
+     * modified entry is stored into it and the cache is updated while the entry is still
+     * locked, so that a slower concurrent modification can't put a stale entry back in the
+     * cache.
+     */
+    private Entry modify( Dn dn, ModifyOperationContext modifyContext, Modification... mods ) throws Exception
+    {
+        if ( !isConcurrentModificationsEnabled() )
+        {
+            structureLock.writeLock().lock();
+
+            try
+            {
+                return modifyEntry( getEntryId( dn ), modifyContext, mods );
+            }
+            finally
+            {
+                structureLock.writeLock().unlock();
+            }
+        }
+
+        // The entry is protected by its own lock, other entries can be modified concurrently
+        structureLock.readLock().lock();
+
+        try
+        {
+            String id = getEntryId( dn );
+
+            if ( id == null )
+            {
+                throw new LdapNoSuchObjectException( I18n.err( I18n.ERR_699, dn ) );
+            }
+
+            Lock entryLock = entryLocks.getLock( id );
+            entryLock.lock();
+
+            try
+            {
+                return modifyEntry( id, modifyContext, mods );
+            }
+            finally
+            {
+                entryLock.unlock();
+            }
+        }
+        finally
+        {
+            structureLock.readLock().unlock();
+        }
+    }
+
+
+    /**
+     * Applies the modifications to an entry. The caller holds the locks protecting the entry.
+     */
+    private Entry modifyEntry( String id, ModifyOperationContext modifyContext, Modification... mods )
+        throws Exception
     {
-        String id = getEntryId( dn );
         Entry entry = master.get( id );
 
+        // Keep the indexed attributes of the entry before it gets modified
+        Map<String, Attribute> oldAttributes = copyIndexedAttributes( entry );
+
         for ( Modification mod : mods )
         {
             Attribute attrMods = mod.getAttribute();
@@ -1352,6 +1957,8 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
             }
         }
 
+        updateDerivedIndices( id, oldAttributes, copyIndexedAttributes( entry ) );
+
         updateCsnIndex( entry, id );
 
         // Remove the EntryDN
@@ -1366,6 +1973,13 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
             sync();
         }
 
+        if ( modifyContext != null )
+        {
+            modifyContext.setAlteredEntry( entry );
+
+            updateCache( modifyContext );
+        }
+
         return entry;
     }
 
@@ -1806,101 +2420,110 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     /**
      * {@inheritDoc}
      */
-    public final synchronized void move( Dn oldDn, Dn newSuperiorDn, Dn newDn, Entry modifiedEntry )
+    public final void move( Dn oldDn, Dn newSuperiorDn, Dn newDn, Entry modifiedEntry )
         throws Exception
     {
-        // Check that the parent Dn exists
-        String newParentId = getEntryId( newSuperiorDn );
+        structureLock.writeLock().lock();
 
-        if ( newParentId == null )
+        try
         {
-            // This is not allowed : the parent must exist
-            LdapEntryAlreadyExistsException ne = new LdapEntryAlreadyExistsException(
-                I18n.err( I18n.ERR_256_NO_SUCH_OBJECT, newSuperiorDn.getName() ) );
-            throw ne;
-        }
+            // Check that the parent Dn exists
+            String newParentId = getEntryId( newSuperiorDn );
 
-        // Now check that the new entry does not exist
-        String newId = getEntryId( newDn );
+            if ( newParentId == null )
+            {
+                // This is not allowed : the parent must exist
+                LdapEntryAlreadyExistsException ne = new LdapEntryAlreadyExistsException(
+                    I18n.err( I18n.ERR_256_NO_SUCH_OBJECT, newSuperiorDn.getName() ) );
+                throw ne;
+            }
 
-        if ( newId != null )
-        {
-            // This is not allowed : we should not be able to move an entry
-            // to an existing position
-            LdapEntryAlreadyExistsException ne = new LdapEntryAlreadyExistsException(
-                I18n.err( I18n.ERR_250_ENTRY_ALREADY_EXISTS, newSuperiorDn.getName() ) );
-            throw ne;
-        }
+            // Now check that the new entry does not exist
+            String newId = getEntryId( newDn );
 
-        // Get the entry and the old parent IDs
-        String entryId = getEntryId( oldDn );
-        String oldParentId = getParentId( entryId );
+            if ( newId != null )
+            {
+                // This is not allowed : we should not be able to move an entry
+                // to an existing position
+                LdapEntryAlreadyExistsException ne = new LdapEntryAlreadyExistsException(
+                    I18n.err( I18n.ERR_250_ENTRY_ALREADY_EXISTS, newSuperiorDn.getName() ) );
+                throw ne;
+            }
 
-        /*
-         * All aliases including and below oldChildDn, will be affected by
-         * the move operation with respect to one and subtree userIndices since
-         * their relationship to ancestors above oldChildDn will be
-         * destroyed.  For each alias below and including oldChildDn we will
-         * drop the index tuples mapping ancestor ids above oldChildDn to the
-         * respective target ids of the aliases.
-         */
-        dropMovedAliasIndices( oldDn );
+            // Get the entry and the old parent IDs
+            String entryId = getEntryId( oldDn );
+            String oldParentId = getParentId( entryId );
 
-        // Update the Rdn index
-        // First drop the old entry
-        ParentIdAndRdn movedEntry = rdnIdx.reverseLookup( entryId );
+            /*
+             * All aliases including and below oldChildDn, will be affected by
+             * the move operation with respect to one and subtree userIndices since
+             * their relationship to ancestors above oldChildDn will be
+             * destroyed.  For each alias below and including oldChildDn we will
+             * drop the index tuples mapping ancestor ids above oldChildDn to the
+             * respective target ids of the aliases.
+             */
+            dropMovedAliasIndices( oldDn );
 
-        updateRdnIdx( oldParentId, REMOVE_CHILD, movedEntry.getNbDescendants() );
+            // Update the Rdn index
+            // First drop the old entry
+            ParentIdAndRdn movedEntry = rdnIdx.reverseLookup( entryId );
 
-        rdnIdx.drop( entryId );
+            updateRdnIdx( oldParentId, REMOVE_CHILD, movedEntry.getNbDescendants() );
 
-        // Now, add the new entry at the right position
-        movedEntry.setParentId( newParentId );
-        rdnIdx.add( movedEntry, entryId );
+            rdnIdx.drop( entryId );
 
-        updateRdnIdx( newParentId, ADD_CHILD, movedEntry.getNbDescendants() );
+            // Now, add the new entry at the right position
+            movedEntry.setParentId( newParentId );
+            rdnIdx.add( movedEntry, entryId );
 
-        /*
-         * Read Alias Index Tuples
-         *
-         * If this is a name change due to a move operation then the one and
-         * subtree userIndices for aliases were purged before the aliases were
-         * moved.  Now we must add them for each alias entry we have moved.
-         *
-         * aliasTarget is used as a marker to tell us if we're moving an
-         * alias.  If it is null then the moved entry is not an alias.
-         */
-        Dn aliasTarget = aliasIdx.reverseLookup( entryId );
+            updateRdnIdx( newParentId, ADD_CHILD, movedEntry.getNbDescendants() );
 
-        if ( null != aliasTarget )
-        {
-            aliasTarget.apply( schemaManager );
-            addAliasIndices( entryId, buildEntryDn( entryId ), aliasTarget );
-        }
+            /*
+             * Read Alias Index Tuples
+             *
+             * If this is a name change due to a move operation then the one and
+             * subtree userIndices for aliases were purged before the aliases were
+             * moved.  Now we must add them for each alias entry we have moved.
+             *
+             * aliasTarget is used as a marker to tell us if we're moving an
+             * alias.  If it is null then the moved entry is not an alias.
+             */
+            Dn aliasTarget = aliasIdx.reverseLookup( entryId );
 
-        // the below case arises only when the move( Dn oldDn, Dn newSuperiorDn, Dn newDn  ) is called
-        // directly using the Store API, in this case the value of modified entry will be null
-        // we need to lookup the entry to update the parent UUID
-        if ( modifiedEntry == null )
-        {
-            modifiedEntry = fetch( entryId );
-        }
+            if ( null != aliasTarget )
+            {
+                aliasTarget.apply( schemaManager );
+                addAliasIndices( entryId, buildEntryDn( entryId ), aliasTarget );
+            }
 
-        // Update the master table with the modified entry
-        modifiedEntry.put( SchemaConstants.ENTRY_PARENT_ID_AT, newParentId );
+            // the below case arises only when the move( Dn oldDn, Dn newSuperiorDn, Dn newDn  ) is called
+            // directly using the Store API, in this case the value of modified entry will be null
+            // we need to lookup the entry to update the parent UUID
+            if ( modifiedEntry == null )
+            {
+                modifiedEntry = fetch( entryId );
+            }
 
-        // Remove the EntryDN
-        modifiedEntry.removeAttributes( entryDnAT );
+            // Update the master table with the modified entry
+            modifiedEntry.put( SchemaConstants.ENTRY_PARENT_ID_AT, newParentId );
 
-        entryDnCache.removeAll();
-        
-        setContextCsn( modifiedEntry.get( entryCsnAT ).getString() );
+            // Remove the EntryDN
+            modifiedEntry.removeAttributes( entryDnAT );
 
-        master.put( entryId, modifiedEntry );
+            entryDnCache.removeAll();
 
-        if ( isSyncOnWrite.get() )
+            setContextCsn( modifiedEntry.get( entryCsnAT ).getString() );
+
+            master.put( entryId, modifiedEntry );
+
+            if ( isSyncOnWrite.get() )
+            {
+                sync();
+            }
+        }
+        finally
         {
-            sync();
+            structureLock.writeLock().unlock();
         }
     }
 
@@ -1947,60 +2570,69 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     /**
      * {@inheritDoc}
      */
-    public final synchronized void moveAndRename( Dn oldDn, Dn newSuperiorDn, Rdn newRdn, Entry modifiedEntry,
+    public final void moveAndRename( Dn oldDn, Dn newSuperiorDn, Rdn newRdn, Entry modifiedEntry,
         boolean deleteOldRdn ) throws Exception
     {
-        // Check that the old entry exists
-        String oldId = getEntryId( oldDn );
+        structureLock.writeLock().lock();
 
-        if ( oldId == null )
+        try
         {
-            // This is not allowed : the old entry must exist
-            LdapNoSuchObjectException nse = new LdapNoSuchObjectException(
-                I18n.err( I18n.ERR_256_NO_SUCH_OBJECT, oldDn ) );
-            throw nse;
-        }
+            // Check that the old entry exists
+            String oldId = getEntryId( oldDn );
+
+            if ( oldId == null )
+            {
+                // This is not allowed : the old entry must exist
+                LdapNoSuchObjectException nse = new LdapNoSuchObjectException(
+                    I18n.err( I18n.ERR_256_NO_SUCH_OBJECT, oldDn ) );
+                throw nse;
+            }
 
-        // Check that the new superior exist
-        String newSuperiorId = getEntryId( newSuperiorDn );
+            // Check that the new superior exist
+            String newSuperiorId = getEntryId( newSuperiorDn );
 
-        if ( newSuperiorId == null )
-        {
-            // This is not allowed : the new superior must exist
-            LdapNoSuchObjectException nse = new LdapNoSuchObjectException(
-                I18n.err( I18n.ERR_256_NO_SUCH_OBJECT, newSuperiorDn ) );
-            throw nse;
-        }
+            if ( newSuperiorId == null )
+            {
+                // This is not allowed : the new superior must exist
+                LdapNoSuchObjectException nse = new LdapNoSuchObjectException(
+                    I18n.err( I18n.ERR_256_NO_SUCH_OBJECT, newSuperiorDn ) );
+                throw nse;
+            }
 
-        Dn newDn = newSuperiorDn.add( newRdn );
+            Dn newDn = newSuperiorDn.add( newRdn );
 
-        // Now check that the new entry does not exist
-        String newId = getEntryId( newDn );
+            // Now check that the new entry does not exist
+            String newId = getEntryId( newDn );
 
-        if ( newId != null )
-        {
-            // This is not allowed : we should not be able to move an entry
-            // to an existing position
-            LdapEntryAlreadyExistsException ne = new LdapEntryAlreadyExistsException(
-                I18n.err( I18n.ERR_250_ENTRY_ALREADY_EXISTS, newSuperiorDn.getName() ) );
-            throw ne;
-        }
+            if ( newId != null )
+            {
+                // This is not allowed : we should not be able to move an entry
+                // to an existing position
+                LdapEntryAlreadyExistsException ne = new LdapEntryAlreadyExistsException(
+                    I18n.err( I18n.ERR_250_ENTRY_ALREADY_EXISTS, newSuperiorDn.getName() ) );
+                throw ne;
+            }
 
-        // First, rename
-        // Get the old UUID
-        if ( modifiedEntry == null )
-        {
-            modifiedEntry = master.get( oldId );
-        }
+            // First, rename
+            // Get the old UUID
+            if ( modifiedEntry == null )
+            {
+                modifiedEntry = master.get( oldId );
+            }
 
-        rename( oldId, newRdn, deleteOldRdn, modifiedEntry );
-        moveAndRename( oldDn, oldId, newSuperiorDn, newRdn, modifiedEntry );
+            rename( oldId, newRdn, deleteOldRdn, modifiedEntry );
+            moveAndRename( oldDn, oldId, newSuperiorDn, newRdn, modifiedEntry );
 
-        entryDnCache.removeAll();
-        
-        if ( isSyncOnWrite.get() )
+            entryDnCache.removeAll();
+
+            if ( isSyncOnWrite.get() )
+            {
+                sync();
+            }
+        }
+        finally
         {
-            sync();
+            structureLock.writeLock().unlock();
         }
     }
 
@@ -2114,9 +2746,13 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
 
     private void rename( String oldId, Rdn newRdn, boolean deleteOldRdn, Entry entry ) throws Exception
     {
+        // Keep the indexed attributes of the stored entry, before it gets renamed
+        Entry storedEntry = master.get( oldId );
+        Map<String, Attribute> oldAttributes = copyIndexedAttributes( storedEntry );
+
         if ( entry == null )
         {
-            entry = master.get( oldId );
+            entry = storedEntry;
         }
 
         Dn updn = entry.getDn();
@@ -2214,6 +2850,8 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
             }
         }
 
+        updateDerivedIndices( oldId, oldAttributes, copyIndexedAttributes( entry ) );
+
         // Remove the EntryDN
         entry.removeAttributes( entryDnAT );
 
@@ -2228,37 +2866,46 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
      * {@inheritDoc}
      */
     @SuppressWarnings("unchecked")
-    public final synchronized void rename( Dn dn, Rdn newRdn, boolean deleteOldRdn, Entry entry ) throws Exception
+    public final void rename( Dn dn, Rdn newRdn, boolean deleteOldRdn, Entry entry ) throws Exception
     {
-        String oldId = getEntryId( dn );
+        structureLock.writeLock().lock();
+
+        try
+        {
+            String oldId = getEntryId( dn );
 
-        rename( oldId, newRdn, deleteOldRdn, entry );
+            rename( oldId, newRdn, deleteOldRdn, entry );
 
-        /*
-         * H A N D L E   D N   C H A N G E
-         * ====================================================================
-         * We only need to update the Rdn index.
-         * No need to calculate the new Dn.
-         */
-        String parentId = getParentId( oldId );
+            /*
+             * H A N D L E   D N   C H A N G E
+             * ====================================================================
+             * We only need to update the Rdn index.
+             * No need to calculate the new Dn.
+             */
+            String parentId = getParentId( oldId );
 
-        // Get the old parentIdAndRdn to get the nb of children and descendant
-        ParentIdAndRdn parentIdAndRdn = rdnIdx.reverseLookup( oldId );
+            // Get the old parentIdAndRdn to get the nb of children and descendant
+            ParentIdAndRdn parentIdAndRdn = rdnIdx.reverseLookup( oldId );
 
-        // Now we can drop it
-        rdnIdx.drop( oldId );
+            // Now we can drop it
+            rdnIdx.drop( oldId );
 
-        // Update the descendants
-        parentIdAndRdn.setParentId( parentId );
-        parentIdAndRdn.setRdns( newRdn );
+            // Update the descendants
+            parentIdAndRdn.setParentId( parentId );
+            parentIdAndRdn.setRdns( newRdn );
 
-        rdnIdx.add( parentIdAndRdn, oldId );
+            rdnIdx.add( parentIdAndRdn, oldId );
 
-        entryDnCache.removeAll();
-        
-        if ( isSyncOnWrite.get() )
+            entryDnCache.removeAll();
+
+            if ( isSyncOnWrite.get() )
+            {
+                sync();
+            }
+        }
+        finally
         {
-            sync();
+            structureLock.writeLock().unlock();
         }
     }
 
@@ -3125,6 +3772,49 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     }
 
 
+    /**
+     * {@inheritDoc}
+     */
+    public EntryOrdinalMap getEntryOrdinalMap()
+    {
+        return entryOrdinalMap;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public NgramIndex getNgramIndex( AttributeType attributeType )
+    {
+        return ngramIndices.get( attributeType.getOid() );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public IndexStatistics getIndexStatistics( AttributeType attributeType ) throws Exception
+    {
+        String oid = attributeType.getOid();
+        IndexStatistics statistics = indexStatistics.get( oid );
+
+        if ( statistics == null )
+        {
+            return null;
+        }
+
+        synchronized ( statistics )
+        {
+            if ( statistics.isStale() )
+            {
+                statistics.build( userIndices.get( oid ), presenceIdx.count( oid ) );
+            }
+        }
+
+        return statistics;
+    }
+
+
     /**
      * Acquire a Read lock
      */
@@ -3168,7 +3858,46 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
      */
     public void updateCache( OperationContext opCtx )
     {
-        // partition implementations should override this if they want to use cache
+        // partition implementations should override this if they want to use an on-heap cache
+        if ( offHeapEntryCache == null )
+        {
+            return;
+        }
+
+        try
+        {
+            if ( opCtx instanceof ModifyOperationContext )
+            {
+                // replace the entry
+                ModifyOperationContext modCtx = ( ModifyOperationContext ) opCtx;
+                Entry entry = modCtx.getAlteredEntry();
+                String id = entry.get( SchemaConstants.ENTRY_UUID_AT ).getString();
+
+                if ( entry instanceof ClonedServerEntry )
+                {
+                    entry = ( ( ClonedServerEntry ) entry ).getOriginalEntry();
+                }
+
+                offHeapEntryCache.replace( id, entry );
+            }
+            else if ( ( opCtx instanceof MoveOperationContext )
+                || ( opCtx instanceof MoveAndRenameOperationContext )
+                || ( opCtx instanceof RenameOperationContext ) )
+            {
+                // clear the cache it is not worth updating all the children
+                offHeapEntryCache.clear();
+            }
+            else if ( opCtx instanceof DeleteOperationContext )
+            {
+                // delete the entry
+                DeleteOperationContext delCtx = ( DeleteOperationContext ) opCtx;
+                offHeapEntryCache.remove( delCtx.getEntry().get( SchemaConstants.ENTRY_UUID_AT ).getString() );
+            }
+        }
+        catch ( LdapException e )
+        {
+            LOG.warn( "Failed to update entry cache", e );
+        }
     }
 
 
@@ -3180,7 +3909,12 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
      */
     public Entry lookupCache( String id )
     {
-        return null;
+        if ( offHeapEntryCache == null )
+        {
+            return null;
+        }
+
+        return offHeapEntryCache.get( id );
     }
 
 
@@ -3195,6 +3929,17 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
      */
     public void addToCache( String id, Entry entry )
     {
+        if ( offHeapEntryCache == null )
+        {
+            return;
+        }
+
+        if ( entry instanceof ClonedServerEntry )
+        {
+            entry = ( ( ClonedServerEntry ) entry ).getOriginalEntry();
+        }
+
+        offHeapEntryCache.put( id, entry );
     }
 
 
@@ -3234,7 +3979,8 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     {
         if ( operationContext.getSession() != null )
         {
-            rwLock = operationContext.getSession().getDirectoryService().getOperationManager().getRWLock();
+            rwLock = operationContext.getSession().getDirectoryService().getOperationManager()
+                .getRWLock( getSuffixDn() );
         }
         else
         {
@@ -3265,6 +4011,34 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     }
     
     
+    /**
+     * {@inheritDoc}
+     * When the modifications are applied concurrently, they may complete out of order :
+     * the context CSN is then only updated if the new CSN is more recent.
+     */
+    @Override
+    protected void setContextCsn( String csn )
+    {
+        if ( !isConcurrentModificationsEnabled() )
+        {
+            super.setContextCsn( csn );
+
+            return;
+        }
+
+        synchronized ( contextCsnLock )
+        {
+            String currentCsn = super.getContextCsn();
+
+            // The CSNs start with their timestamp, they can be compared as Strings
+            if ( ( currentCsn == null ) || ( csn.compareTo( currentCsn ) > 0 ) )
+            {
+                super.setContextCsn( csn );
+            }
+        }
+    }
+
+
     @Override
     public String getContextCsn()
     {
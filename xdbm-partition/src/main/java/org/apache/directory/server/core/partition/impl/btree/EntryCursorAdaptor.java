@@ -28,6 +28,7 @@ import org.apache.directory.api.ldap.model.cursor.CursorException;
 import org.apache.directory.api.ldap.model.entry.Entry;
 import org.apache.directory.api.ldap.model.exception.LdapException;
 import org.apache.directory.api.ldap.model.filter.ExprNode;
+import org.apache.directory.server.xdbm.EntryOrdinalMap;
 import org.apache.directory.server.xdbm.IndexEntry;
 import org.apache.directory.server.xdbm.search.Evaluator;
 import org.apache.directory.server.xdbm.search.PartitionSearchResult;
@@ -51,6 +52,12 @@ public class EntryCursorAdaptor extends AbstractCursor<Entry>
     private final Cursor<IndexEntry<String, String>> indexCursor;
     private final Evaluator<? extends ExprNode> evaluator;
 
+    /** The map of the ordinals the candidates may be stored with */
+    private final EntryOrdinalMap ordinalMap;
+
+    /** The generation of the search in the ordinal map */
+    private final long searchGeneration;
+
 
     public EntryCursorAdaptor( AbstractBTreePartition db, PartitionSearchResult searchResult )
     {
@@ -61,6 +68,8 @@ public class EntryCursorAdaptor extends AbstractCursor<Entry>
 
         indexCursor = searchResult.getResultSet();
         evaluator = searchResult.getEvaluator();
+        ordinalMap = db.getEntryOrdinalMap();
+        searchGeneration = searchResult.getSearchGeneration();
     }
 
 
@@ -129,6 +138,9 @@ public class EntryCursorAdaptor extends AbstractCursor<Entry>
         }
 
         indexCursor.close();
+
+        // The released ordinals can now be reused
+        ordinalMap.endSearch( searchGeneration );
     }
 
 
@@ -143,6 +155,7 @@ public class EntryCursorAdaptor extends AbstractCursor<Entry>
         }
 
         indexCursor.close( cause );
+        ordinalMap.endSearch( searchGeneration );
     }
 
 
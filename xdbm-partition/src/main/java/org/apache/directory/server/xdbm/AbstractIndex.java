@@ -49,6 +49,9 @@ public abstract class AbstractIndex<K, ID> implements Index<K, ID>
     /** Tells if this index has a Reverse table */
     protected boolean withReverse;
 
+    /** The size of the n-grams in the companion substring index, 0 if disabled */
+    protected int ngramSize;
+
     /** A counter used to differ the commit on disk after N operations */
     protected AtomicInteger commitNumber;
 
@@ -142,6 +145,25 @@ public abstract class AbstractIndex<K, ID> implements Index<K, ID>
     }
 
 
+    /**
+     * {@inheritDoc}
+     */
+    public int getNgramSize()
+    {
+        return ngramSize;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setNgramSize( int ngramSize )
+    {
+        protect( "ngramSize" );
+        this.ngramSize = ngramSize;
+    }
+
+
     /**
      * Protects configuration properties from being set after initialization.
      *
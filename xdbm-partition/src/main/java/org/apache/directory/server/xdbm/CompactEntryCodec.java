@@ -0,0 +1,548 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.xdbm;
+
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.DefaultAttribute;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.Value;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.name.Rdn;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.util.Strings;
+
+
+/**
+ * Encodes and decodes the entries stored in the MasterTable, using a compact binary
+ * format which does not rely on the Java serialization. The attribute types are
+ * stored as their numeric OID, each arc being encoded on as few bytes as possible,
+ * and an offset table gives the position of each attribute, so that an attribute
+ * can be decoded without decoding the others. The entries are decoded as
+ * {@link LazyEntry} instances, which only decode the attributes they are asked for.
+ * <br>
+ * The structure used to store the entry is the following :
+ * <ul>
+ *   <li><b>[a byte]</b> : the format version. The entries serialized by the
+ *   previous serializers start with the Java serialization magic number instead</li>
+ *   <li><b>[Rdn]</b> : the entry's Rdn user provided name, empty if the Dn is empty</li>
+ *   <li><b>[nbAttributes]</b> : the number of attributes. Can be 0</li>
+ *   <li><b>[tableLength]</b> : the length of the offset table, on 4 bytes</li>
+ *   <li>For each Attribute, the offset table contains :
+ *     <ul>
+ *       <li><b>[oid]</b> : the attribute type OID, preceded by its length</li>
+ *       <li><b>[offset]</b> : the position of the attribute in the data, on 4 bytes</li>
+ *     </ul>
+ *   </li>
+ *   <li>For each Attribute, the data contains :
+ *     <ul>
+ *       <li><b>[upId]</b> : the attribute's user provided ID</li>
+ *       <li><b>[a byte]</b> : 1 if the values are human readable, 0 otherwise</li>
+ *       <li><b>[nbValues]</b> : the number of values, followed by the values</li>
+ *     </ul>
+ *   </li>
+ * </ul>
+ * The numbers and the lengths are variable length integers, and the strings are
+ * stored in UTF-8, preceded by their length plus one, 0 being used for null.
+ * <br></br>
+ * <b>This class must *not* be used outside of the server.</b>
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public final class CompactEntryCodec
+{
+    /** The current version of the format */
+    public static final byte VERSION_1 = 0x01;
+
+    /** The length of an OID which is not stored as numeric arcs */
+    private static final int TEXTUAL_OID = 0;
+
+    /** The charset used to encode the strings */
+    private static final Charset UTF8 = Charset.forName( "UTF-8" );
+
+    /** The encoded OIDs, as there are only a few attribute types */
+    private static final ConcurrentHashMap<String, byte[]> ENCODED_OIDS = new ConcurrentHashMap<String, byte[]>();
+
+
+    private CompactEntryCodec()
+    {
+    }
+
+
+    /**
+     * Tells if a serialized entry uses this format
+     *
+     * @param bytes The buffer containing the serialized entry
+     * @param pos The position of the serialized entry in the buffer
+     * @return true if the entry uses this format
+     */
+    public static boolean isCompact( byte[] bytes, int pos )
+    {
+        return ( bytes.length > pos ) && ( bytes[pos] == VERSION_1 );
+    }
+
+
+    /**
+     * Encodes an entry. If the entry is a {@link LazyEntry} whose attributes have not
+     * been decoded, its attributes are copied as they are.
+     *
+     * @param entry The entry to encode
+     * @return The encoded entry
+     */
+    public static byte[] encode( Entry entry )
+    {
+        Buffer out = new Buffer();
+
+        out.writeByte( VERSION_1 );
+
+        Dn dn = entry.getDn();
+
+        if ( ( dn == null ) || dn.isEmpty() )
+        {
+            out.writeString( "" );
+        }
+        else
+        {
+            out.writeString( dn.getRdn().getName() );
+        }
+
+        if ( entry instanceof LazyEntry )
+        {
+            byte[] attributes = ( ( LazyEntry ) entry ).getUndecodedAttributes();
+
+            if ( attributes != null )
+            {
+                out.write( attributes, 0, attributes.length );
+
+                return out.toByteArray();
+            }
+        }
+
+        // Write the attributes first, to know their offsets
+        Buffer table = new Buffer();
+        Buffer data = new Buffer();
+        int nbAttributes = 0;
+
+        for ( Attribute attribute : entry )
+        {
+            byte[] oid = encodeOid( attribute.getAttributeType().getOid() );
+            table.write( oid, 0, oid.length );
+            table.writeInt( data.size() );
+
+            data.writeString( attribute.getUpId() );
+            data.writeByte( attribute.isHumanReadable() ? 1 : 0 );
+            data.writeVarInt( attribute.size() );
+
+            for ( Value<?> value : attribute )
+            {
+                if ( value.isNull() )
+                {
+                    data.writeVarInt( 0 );
+                }
+                else if ( attribute.isHumanReadable() )
+                {
+                    data.writeString( value.getString() );
+                }
+                else
+                {
+                    byte[] bytes = value.getBytes();
+                    data.writeVarInt( bytes.length + 1 );
+                    data.write( bytes, 0, bytes.length );
+                }
+            }
+
+            nbAttributes++;
+        }
+
+        out.writeVarInt( nbAttributes );
+        out.writeInt( table.size() );
+        out.write( table.bytes, 0, table.size() );
+        out.write( data.bytes, 0, data.size() );
+
+        return out.toByteArray();
+    }
+
+
+    /**
+     * Decodes an entry. The attributes are decoded when they are read.
+     *
+     * @param schemaManager The SchemaManager
+     * @param bytes The buffer containing the encoded entry, which must not be modified
+     * @param pos The position of the entry in the buffer
+     * @param length The length of the entry
+     * @return The entry
+     * @throws IOException If the entry is not in this format
+     */
+    public static Entry decode( SchemaManager schemaManager, byte[] bytes, int pos, int length ) throws IOException
+    {
+        if ( !isCompact( bytes, pos ) )
+        {
+            throw new IOException( "Unknown entry format : " + ( length > 0 ? bytes[pos] : -1 ) );
+        }
+
+        if ( ( pos != 0 ) || ( length != bytes.length ) )
+        {
+            bytes = Arrays.copyOfRange( bytes, pos, pos + length );
+        }
+
+        return new LazyEntry( schemaManager, bytes );
+    }
+
+
+    /**
+     * Encodes an OID as its numeric arcs, or as a string if it's not numeric
+     */
+    static byte[] encodeOid( String oid )
+    {
+        byte[] encoded = ENCODED_OIDS.get( oid );
+
+        if ( encoded != null )
+        {
+            return encoded;
+        }
+
+        Buffer buffer = new Buffer();
+        buffer.writeByte( 0 );
+
+        try
+        {
+            for ( String arc : oid.split( "\\." ) )
+            {
+                long value = Long.parseLong( arc );
+
+                if ( value < 0 )
+                {
+                    throw new NumberFormatException( arc );
+                }
+
+                buffer.writeVarLong( value );
+            }
+
+            if ( buffer.size() > 256 )
+            {
+                throw new NumberFormatException( oid );
+            }
+
+            encoded = buffer.toByteArray();
+            encoded[0] = ( byte ) ( encoded.length - 1 );
+        }
+        catch ( NumberFormatException nfe )
+        {
+            buffer = new Buffer();
+            buffer.writeByte( TEXTUAL_OID );
+            buffer.writeString( oid );
+            encoded = buffer.toByteArray();
+        }
+
+        ENCODED_OIDS.putIfAbsent( oid, encoded );
+
+        return encoded;
+    }
+
+
+    /**
+     * @return The length of the encoded OID at the given position, including its header
+     */
+    static int oidLength( byte[] bytes, int pos )
+    {
+        int length = bytes[pos] & 0xFF;
+
+        if ( length == TEXTUAL_OID )
+        {
+            Reader reader = new Reader( bytes, pos + 1 );
+            int stringLength = reader.readVarInt();
+
+            return reader.pos - pos + stringLength - 1;
+        }
+
+        return length + 1;
+    }
+
+
+    /**
+     * Decodes the OID at the given position
+     */
+    static String decodeOid( byte[] bytes, int pos )
+    {
+        int length = bytes[pos] & 0xFF;
+        Reader reader = new Reader( bytes, pos + 1 );
+
+        if ( length == TEXTUAL_OID )
+        {
+            return reader.readString();
+        }
+
+        StringBuilder sb = new StringBuilder();
+        int end = pos + 1 + length;
+
+        while ( reader.pos < end )
+        {
+            if ( sb.length() > 0 )
+            {
+                sb.append( '.' );
+            }
+
+            sb.append( reader.readVarLong() );
+        }
+
+        return sb.toString();
+    }
+
+
+    /**
+     * Decodes the Rdn stored at the given position
+     */
+    static Dn decodeDn( SchemaManager schemaManager, byte[] bytes, int pos ) throws LdapException
+    {
+        String rdn = new Reader( bytes, pos ).readString();
+
+        if ( Strings.isEmpty( rdn ) )
+        {
+            return Dn.EMPTY_DN;
+        }
+
+        return new Dn( schemaManager, new Rdn( schemaManager, rdn ) );
+    }
+
+
+    /**
+     * Decodes the attribute stored at the given position
+     */
+    static Attribute decodeAttribute( AttributeType attributeType, byte[] bytes, int pos ) throws LdapException
+    {
+        Reader reader = new Reader( bytes, pos );
+
+        String upId = reader.readString();
+        boolean humanReadable = reader.readByte() == 1;
+        int nbValues = reader.readVarInt();
+
+        Attribute attribute;
+
+        if ( upId == null )
+        {
+            attribute = new DefaultAttribute( attributeType );
+        }
+        else
+        {
+            attribute = new DefaultAttribute( upId, attributeType );
+        }
+
+        for ( int i = 0; i < nbValues; i++ )
+        {
+            if ( humanReadable )
+            {
+                attribute.add( reader.readString() );
+            }
+            else
+            {
+                attribute.add( reader.readBytes() );
+            }
+        }
+
+        return attribute;
+    }
+
+
+    /**
+     * A growable buffer the entries are encoded in
+     */
+    static final class Buffer
+    {
+        private byte[] bytes = new byte[256];
+        private int size;
+
+
+        private void ensureCapacity( int length )
+        {
+            if ( size + length > bytes.length )
+            {
+                bytes = Arrays.copyOf( bytes, Math.max( bytes.length * 2, size + length ) );
+            }
+        }
+
+
+        void writeByte( int value )
+        {
+            ensureCapacity( 1 );
+            bytes[size++] = ( byte ) value;
+        }
+
+
+        void writeInt( int value )
+        {
+            ensureCapacity( 4 );
+            bytes[size++] = ( byte ) ( value >>> 24 );
+            bytes[size++] = ( byte ) ( value >>> 16 );
+            bytes[size++] = ( byte ) ( value >>> 8 );
+            bytes[size++] = ( byte ) value;
+        }
+
+
+        void writeVarInt( int value )
+        {
+            writeVarLong( value & 0xFFFFFFFFL );
+        }
+
+
+        void writeVarLong( long value )
+        {
+            while ( ( value & ~0x7FL ) != 0 )
+            {
+                writeByte( ( int ) ( ( value & 0x7F ) | 0x80 ) );
+                value >>>= 7;
+            }
+
+            writeByte( ( int ) value );
+        }
+
+
+        void writeString( String value )
+        {
+            if ( value == null )
+            {
+                writeVarInt( 0 );
+
+                return;
+            }
+
+            byte[] utf8 = value.getBytes( UTF8 );
+            writeVarInt( utf8.length + 1 );
+            write( utf8, 0, utf8.length );
+        }
+
+
+        void write( byte[] source, int pos, int length )
+        {
+            ensureCapacity( length );
+            System.arraycopy( source, pos, bytes, size, length );
+            size += length;
+        }
+
+
+        int size()
+        {
+            return size;
+        }
+
+
+        byte[] toByteArray()
+        {
+            return Arrays.copyOf( bytes, size );
+        }
+    }
+
+
+    /**
+     * Reads the encoded data from a buffer
+     */
+    static final class Reader
+    {
+        private final byte[] bytes;
+        int pos;
+
+
+        Reader( byte[] bytes, int pos )
+        {
+            this.bytes = bytes;
+            this.pos = pos;
+        }
+
+
+        int readByte()
+        {
+            return bytes[pos++];
+        }
+
+
+        int readInt()
+        {
+            int value = ( ( bytes[pos] & 0xFF ) << 24 ) | ( ( bytes[pos + 1] & 0xFF ) << 16 )
+                | ( ( bytes[pos + 2] & 0xFF ) << 8 ) | ( bytes[pos + 3] & 0xFF );
+            pos += 4;
+
+            return value;
+        }
+
+
+        int readVarInt()
+        {
+            return ( int ) readVarLong();
+        }
+
+
+        long readVarLong()
+        {
+            long value = 0L;
+            int shift = 0;
+
+            while ( true )
+            {
+                byte b = bytes[pos++];
+                value |= ( long ) ( b & 0x7F ) << shift;
+
+                if ( ( b & 0x80 ) == 0 )
+                {
+                    return value;
+                }
+
+                shift += 7;
+            }
+        }
+
+
+        String readString()
+        {
+            int length = readVarInt();
+
+            if ( length == 0 )
+            {
+                return null;
+            }
+
+            String value = new String( bytes, pos, length - 1, UTF8 );
+            pos += length - 1;
+
+            return value;
+        }
+
+
+        byte[] readBytes()
+        {
+            int length = readVarInt();
+
+            if ( length == 0 )
+            {
+                return null;
+            }
+
+            byte[] value = Arrays.copyOfRange( bytes, pos, pos + length - 1 );
+            pos += length - 1;
+
+            return value;
+        }
+    }
+}
@@ -0,0 +1,594 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.xdbm;
+
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.UUID;
+
+
+/**
+ * A compact, in-memory mapping between the entry UUIDs stored in the MasterTable
+ * and small integer ordinals. The ordinals are used by the search engine to
+ * represent candidate sets as compressed bitmaps instead of sets of Strings.
+ * <br>
+ * Ordinals are lazily assigned the first time an entry ID is seen. A search may
+ * still hold a candidate set containing the ordinal of a removed entry, which must
+ * not designate another entry while this search runs : the searches are registered
+ * with {@link #beginSearch()} and {@link #endSearch(long)}, and a released ordinal
+ * is only reused once all the searches started before its release are done. A
+ * search which is never ended only delays the reuse of the ordinals. The ordinals
+ * are never persisted : a candidate set only lives for the duration of a search.
+ * <br>
+ * The IDs which are UUIDs in their canonical form are stored as two longs, and
+ * their String is only rebuilt when {@link #getId(int)} is called. The other IDs
+ * are kept as is.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class EntryOrdinalMap
+{
+    /** The value returned when an ID has no ordinal */
+    public static final int NO_ORDINAL = -1;
+
+    /** The initial capacity of the ordinal to ID tables */
+    private static final int INITIAL_CAPACITY = 1024;
+
+    /** The state of an ordinal which is not associated with an ID */
+    private static final byte FREE = 0;
+
+    /** The state of an ordinal associated with a UUID, stored in the high and low tables */
+    private static final byte UUID_ID = 1;
+
+    /** The state of an ordinal associated with an ID which is not a canonical UUID */
+    private static final byte OTHER_ID = 2;
+
+    /** A removed slot in the hash table */
+    private static final int REMOVED = -1;
+
+    /** The mapping, replaced (never modified in place) when it grows or is cleared */
+    private volatile Tables tables = new Tables( INITIAL_CAPACITY );
+
+    /** The IDs which are not canonical UUIDs, by ordinal */
+    private final Map<Integer, String> otherIds = new HashMap<Integer, String>();
+
+    /** The ordinals of the IDs which are not canonical UUIDs */
+    private final Map<String, Integer> otherOrdinals = new HashMap<String, Integer>();
+
+    /** The next never used ordinal */
+    private int nextOrdinal;
+
+    /** The generation of the last started search */
+    private long generation;
+
+    /** The generations of the running searches */
+    private final TreeSet<Long> searches = new TreeSet<Long>();
+
+    /** The released ordinals which may still be held by a running search, oldest first */
+    private final Deque<long[]> retired = new ArrayDeque<long[]>();
+
+    /** The released ordinals which can be reused */
+    private final Deque<Integer> freeOrdinals = new ArrayDeque<Integer>();
+
+    /** The number of IDs having an ordinal */
+    private volatile int size;
+
+
+    /**
+     * Gets the ordinal associated with an entry ID, allocating a new one if
+     * the ID has never been seen.
+     *
+     * @param id The entry ID
+     * @return The ordinal for this ID
+     */
+    public int getOrdinal( String id )
+    {
+        long[] uuid = parseUuid( id );
+
+        if ( uuid != null )
+        {
+            int ordinal = tables.find( uuid[0], uuid[1] );
+
+            if ( ordinal != NO_ORDINAL )
+            {
+                return ordinal;
+            }
+        }
+
+        synchronized ( this )
+        {
+            int ordinal = lookup( id, uuid );
+
+            if ( ordinal != NO_ORDINAL )
+            {
+                return ordinal;
+            }
+
+            ordinal = allocate();
+            size++;
+
+            Tables current = tables.ensureCapacity( nextOrdinal, size );
+
+            if ( uuid != null )
+            {
+                // The slot is filled before the ordinal is published in the hash table
+                current.highs[ordinal] = uuid[0];
+                current.lows[ordinal] = uuid[1];
+                current.states[ordinal] = UUID_ID;
+                current.insert( ordinal );
+            }
+            else
+            {
+                otherIds.put( ordinal, id );
+                otherOrdinals.put( id, ordinal );
+                current.states[ordinal] = OTHER_ID;
+            }
+
+            tables = current;
+
+            return ordinal;
+        }
+    }
+
+
+    /**
+     * Gets a free ordinal, reusing a released one if no running search can hold it.
+     * Must be called while holding the lock.
+     */
+    private int allocate()
+    {
+        // The ordinals released before the oldest running search started can be reused
+        while ( !retired.isEmpty() && ( searches.isEmpty() || ( searches.first() > retired.peekFirst()[1] ) ) )
+        {
+            freeOrdinals.addLast( ( int ) retired.pollFirst()[0] );
+        }
+
+        Integer free = freeOrdinals.pollFirst();
+
+        if ( free != null )
+        {
+            return free;
+        }
+
+        if ( nextOrdinal == Integer.MAX_VALUE )
+        {
+            throw new IllegalStateException( "No more ordinal available : " + size + " entries have one" );
+        }
+
+        return nextOrdinal++;
+    }
+
+
+    /**
+     * Gets the ordinal associated with an entry ID, without allocating a new one
+     *
+     * @param id The entry ID
+     * @return The ordinal for this ID, or {@link #NO_ORDINAL} if the ID has none
+     */
+    public int lookupOrdinal( String id )
+    {
+        long[] uuid = parseUuid( id );
+
+        if ( uuid != null )
+        {
+            int ordinal = tables.find( uuid[0], uuid[1] );
+
+            if ( ordinal != NO_ORDINAL )
+            {
+                return ordinal;
+            }
+        }
+
+        // The ID may have just been added by another thread
+        synchronized ( this )
+        {
+            return lookup( id, uuid );
+        }
+    }
+
+
+    /**
+     * Gets the ordinal of an ID. Must be called while holding the lock.
+     */
+    private int lookup( String id, long[] uuid )
+    {
+        if ( uuid != null )
+        {
+            return tables.find( uuid[0], uuid[1] );
+        }
+
+        Integer ordinal = otherOrdinals.get( id );
+
+        return ( ordinal == null ) ? NO_ORDINAL : ordinal;
+    }
+
+
+    /**
+     * Gets the entry ID associated with an ordinal
+     *
+     * @param ordinal The ordinal
+     * @return The entry ID, or null if the ordinal is not in use
+     */
+    public String getId( int ordinal )
+    {
+        Tables current = tables;
+
+        if ( ( ordinal < 0 ) || ( ordinal >= current.states.length ) )
+        {
+            return null;
+        }
+
+        switch ( current.states[ordinal] )
+        {
+            case UUID_ID:
+                return new UUID( current.highs[ordinal], current.lows[ordinal] ).toString();
+
+            case OTHER_ID:
+                synchronized ( this )
+                {
+                    return otherIds.get( ordinal );
+                }
+
+            default:
+                return null;
+        }
+    }
+
+
+    /**
+     * Releases the ordinal associated with an entry ID. This has to be called
+     * when the entry is removed from the partition. The ordinal is reused once
+     * the searches running at this time are done.
+     *
+     * @param id The removed entry ID
+     */
+    public synchronized void release( String id )
+    {
+        long[] uuid = parseUuid( id );
+        int ordinal;
+
+        if ( uuid != null )
+        {
+            ordinal = tables.remove( uuid[0], uuid[1] );
+        }
+        else
+        {
+            Integer other = otherOrdinals.remove( id );
+            ordinal = ( other == null ) ? NO_ORDINAL : other;
+            otherIds.remove( ordinal );
+        }
+
+        if ( ordinal != NO_ORDINAL )
+        {
+            tables.states[ordinal] = FREE;
+            size--;
+
+            // The searches started up to now may hold this ordinal
+            retired.addLast( new long[]
+                { ordinal, generation } );
+        }
+    }
+
+
+    /**
+     * Registers a search which is going to hold some ordinals. The ordinals released
+     * from now on won't be reused before {@link #endSearch(long)} is called.
+     *
+     * @return The generation of the search, to give back to {@link #endSearch(long)}
+     */
+    public synchronized long beginSearch()
+    {
+        generation++;
+        searches.add( generation );
+
+        return generation;
+    }
+
+
+    /**
+     * Unregisters a search, which doesn't hold any ordinal anymore. Ending a search
+     * more than once is harmless.
+     *
+     * @param searchGeneration The generation returned by {@link #beginSearch()}
+     */
+    public synchronized void endSearch( long searchGeneration )
+    {
+        searches.remove( searchGeneration );
+    }
+
+
+    /**
+     * Removes all the ordinals
+     */
+    public synchronized void clear()
+    {
+        tables = new Tables( INITIAL_CAPACITY );
+        otherIds.clear();
+        otherOrdinals.clear();
+        retired.clear();
+        freeOrdinals.clear();
+        nextOrdinal = 0;
+        size = 0;
+    }
+
+
+    /**
+     * @return The number of IDs having an ordinal
+     */
+    public int size()
+    {
+        return size;
+    }
+
+
+    /**
+     * Parses a UUID in its canonical, lower case, form.
+     *
+     * @param id The ID to parse
+     * @return The high and low parts of the UUID, or null if the ID is not a canonical UUID
+     */
+    private static long[] parseUuid( String id )
+    {
+        if ( ( id == null ) || ( id.length() != 36 ) )
+        {
+            return null;
+        }
+
+        long high = 0L;
+        long low = 0L;
+        int nbDigits = 0;
+
+        for ( int i = 0; i < 36; i++ )
+        {
+            char c = id.charAt( i );
+
+            if ( ( i == 8 ) || ( i == 13 ) || ( i == 18 ) || ( i == 23 ) )
+            {
+                if ( c != '-' )
+                {
+                    return null;
+                }
+
+                continue;
+            }
+
+            int digit;
+
+            if ( ( c >= '0' ) && ( c <= '9' ) )
+            {
+                digit = c - '0';
+            }
+            else if ( ( c >= 'a' ) && ( c <= 'f' ) )
+            {
+                digit = c - 'a' + 10;
+            }
+            else
+            {
+                return null;
+            }
+
+            if ( nbDigits < 16 )
+            {
+                high = ( high << 4 ) | digit;
+            }
+            else
+            {
+                low = ( low << 4 ) | digit;
+            }
+
+            nbDigits++;
+        }
+
+        return new long[]
+            { high, low };
+    }
+
+
+    /**
+     * @see Object#toString()
+     */
+    public String toString()
+    {
+        return "EntryOrdinalMap[" + size + " ordinals]";
+    }
+
+
+    /**
+     * The ordinal to UUID tables, and the open addressing hash table giving the
+     * ordinal of a UUID. The readers don't take any lock : a slot is filled before
+     * the ordinal is stored in the hash table, and a reader missing a recent change
+     * falls back to a locked lookup.
+     */
+    private static final class Tables
+    {
+        /** The high parts of the UUIDs, by ordinal */
+        private final long[] highs;
+
+        /** The low parts of the UUIDs, by ordinal */
+        private final long[] lows;
+
+        /** The state of each ordinal */
+        private final byte[] states;
+
+        /** The hash table, containing the ordinals plus one, 0 for an empty slot */
+        private final int[] slots;
+
+        /** The number of used or removed slots in the hash table */
+        private int used;
+
+
+        private Tables( int capacity )
+        {
+            highs = new long[capacity];
+            lows = new long[capacity];
+            states = new byte[capacity];
+            slots = new int[capacity * 2];
+        }
+
+
+        private Tables( Tables tables, int capacity, int hashCapacity )
+        {
+            highs = Arrays.copyOf( tables.highs, capacity );
+            lows = Arrays.copyOf( tables.lows, capacity );
+            states = Arrays.copyOf( tables.states, capacity );
+            slots = new int[hashCapacity];
+
+            // Only the UUIDs still associated with their ordinal are rehashed
+            for ( int ordinal = 0; ordinal < tables.states.length; ordinal++ )
+            {
+                if ( states[ordinal] == UUID_ID )
+                {
+                    insert( ordinal );
+                }
+            }
+        }
+
+
+        /**
+         * Makes sure the tables can hold a number of ordinals, and that the hash
+         * table is not too loaded. Must be called while holding the map lock.
+         *
+         * @return These tables, or new ones if they had to grow or be rehashed
+         */
+        private Tables ensureCapacity( int nbOrdinals, int size )
+        {
+            int capacity = states.length;
+
+            while ( capacity < nbOrdinals )
+            {
+                capacity *= 2;
+            }
+
+            int hashCapacity = slots.length;
+
+            while ( hashCapacity < size * 4 )
+            {
+                hashCapacity *= 2;
+            }
+
+            if ( ( capacity == states.length ) && ( ( used + 1 ) * 2 <= slots.length ) )
+            {
+                return this;
+            }
+
+            return new Tables( this, capacity, hashCapacity );
+        }
+
+
+        private static int hash( long high, long low )
+        {
+            long h = high ^ low;
+            h ^= ( h >>> 33 );
+            h *= 0xff51afd7ed558ccdL;
+            h ^= ( h >>> 33 );
+
+            return ( int ) h;
+        }
+
+
+        /**
+         * @return The ordinal of a UUID, or NO_ORDINAL if it has none
+         */
+        private int find( long high, long low )
+        {
+            int mask = slots.length - 1;
+            int pos = hash( high, low ) & mask;
+
+            while ( true )
+            {
+                int slot = slots[pos];
+
+                if ( slot == 0 )
+                {
+                    return NO_ORDINAL;
+                }
+
+                if ( slot != REMOVED )
+                {
+                    int ordinal = slot - 1;
+
+                    if ( ( ordinal < states.length ) && ( highs[ordinal] == high ) && ( lows[ordinal] == low )
+                        && ( states[ordinal] == UUID_ID ) )
+                    {
+                        return ordinal;
+                    }
+                }
+
+                pos = ( pos + 1 ) & mask;
+            }
+        }
+
+
+        /**
+         * Adds an ordinal, which UUID is already stored, to the hash table
+         */
+        private void insert( int ordinal )
+        {
+            int mask = slots.length - 1;
+            int pos = hash( highs[ordinal], lows[ordinal] ) & mask;
+
+            while ( slots[pos] != 0 )
+            {
+                pos = ( pos + 1 ) & mask;
+            }
+
+            slots[pos] = ordinal + 1;
+            used++;
+        }
+
+
+        /**
+         * Removes a UUID from the hash table
+         *
+         * @return Its ordinal, or NO_ORDINAL if it had none
+         */
+        private int remove( long high, long low )
+        {
+            int mask = slots.length - 1;
+            int pos = hash( high, low ) & mask;
+
+            while ( slots[pos] != 0 )
+            {
+                int slot = slots[pos];
+
+                if ( slot != REMOVED )
+                {
+                    int ordinal = slot - 1;
+
+                    if ( ( highs[ordinal] == high ) && ( lows[ordinal] == low ) && ( states[ordinal] == UUID_ID ) )
+                    {
+                        slots[pos] = REMOVED;
+
+                        return ordinal;
+                    }
+                }
+
+                pos = ( pos + 1 ) & mask;
+            }
+
+            return NO_ORDINAL;
+        }
+    }
+}
@@ -100,6 +100,26 @@ public interface Index<K, ID>
     URI getWkDirPath();
 
 
+    /**
+     * Gets the size of the n-grams stored in the companion substring index
+     * maintained for this attribute. A value of 0 means no substring index
+     * is maintained.
+     *
+     * @return the n-gram size, or 0 if the substring index is disabled
+     */
+    int getNgramSize();
+
+
+    /**
+     * Sets the size of the n-grams stored in the companion substring index
+     * used to evaluate (attr=*any*) filters. Setting it to 0 disables the
+     * substring index.
+     *
+     * @param ngramSize the n-gram size, 0 to disable the substring index
+     */
+    void setNgramSize( int ngramSize );
+
+
     // -----------------------------------------------------------------------
     // E N D   C O N F I G U R A T I O N   M E T H O D S
     // -----------------------------------------------------------------------
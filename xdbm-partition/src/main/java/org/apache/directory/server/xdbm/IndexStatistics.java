@@ -0,0 +1,606 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.xdbm;
+
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.Value;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.apache.directory.api.util.Strings;
+
+
+/**
+ * The statistics associated with a user index, used by the optimizer to
+ * estimate the number of candidates of a filter without reading the index.
+ * <br>
+ * The statistics contain the number of values and entries in the index, the number
+ * of distinct keys, and, for human readable AttributeTypes, an equi-depth histogram
+ * of the keys. The counts are updated on each modification, while the histogram
+ * bucket boundaries are computed by a full index scan, done again when the number
+ * of updates since the last scan becomes too large.
+ * <br>
+ * The estimates are never 0, as a 0 count is considered as an exact result by the
+ * search engine.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class IndexStatistics
+{
+    /** The default number of buckets in a histogram */
+    public static final int DEFAULT_NB_BUCKETS = 64;
+
+    /** The returned estimate when the statistics can't tell */
+    public static final long UNKNOWN = -1L;
+
+    /** The minimal number of updates before the histogram is rebuilt */
+    private static final long MIN_UPDATES_BEFORE_REBUILD = 1000L;
+
+    /** The ratio of updates, compared to the number of values, before the histogram is rebuilt */
+    private static final long UPDATES_REBUILD_RATIO = 5L;
+
+    /** The indexed AttributeType */
+    private final AttributeType attributeType;
+
+    /** The comparator used to order the keys in the index */
+    private final Comparator<Object> comparator;
+
+    /** The number of buckets of the histogram */
+    private final int nbBuckets;
+
+    /** The number of (value, entry ID) tuples in the index */
+    private long count;
+
+    /** The number of entries having at least one value */
+    private long nbEntries;
+
+    /** The number of distinct values, at the time the histogram was built */
+    private long distinctKeys;
+
+    /** The number of updates since the histogram was built */
+    private long nbUpdates;
+
+    /** Tells if the statistics have been computed */
+    private boolean built;
+
+    /** The highest key of each bucket, null if there is no histogram */
+    private String[] bounds;
+
+    /** The number of tuples in each bucket */
+    private long[] bucketCounts;
+
+    /** The number of distinct keys in each bucket */
+    private long[] bucketDistinctKeys;
+
+
+    /**
+     * Creates a new instance of IndexStatistics. The statistics have to be built
+     * before being used.
+     *
+     * @param attributeType The indexed AttributeType
+     */
+    public IndexStatistics( AttributeType attributeType )
+    {
+        this( attributeType, DEFAULT_NB_BUCKETS );
+    }
+
+
+    /**
+     * Creates a new instance of IndexStatistics. The statistics have to be built
+     * before being used.
+     *
+     * @param attributeType The indexed AttributeType
+     * @param nbBuckets The number of buckets in the histogram
+     */
+    @SuppressWarnings("unchecked")
+    public IndexStatistics( AttributeType attributeType, int nbBuckets )
+    {
+        this.attributeType = attributeType;
+        this.nbBuckets = nbBuckets;
+
+        if ( attributeType.getSyntax().isHumanReadable() && ( attributeType.getEquality() != null ) )
+        {
+            comparator = ( Comparator<Object> ) attributeType.getEquality().getLdapComparator();
+        }
+        else
+        {
+            comparator = null;
+        }
+    }
+
+
+    /**
+     * @return The indexed AttributeType
+     */
+    public AttributeType getAttributeType()
+    {
+        return attributeType;
+    }
+
+
+    /**
+     * Computes the statistics by reading the whole index.
+     *
+     * @param index The index
+     * @param nbEntries The number of entries having the indexed attribute
+     * @throws Exception If the index can't be read
+     */
+    public synchronized void build( Index<?, String> index, long nbEntries ) throws Exception
+    {
+        long total = index.count();
+        long depth = Math.max( 1L, total / nbBuckets );
+
+        List<String> newBounds = new ArrayList<String>();
+        List<Long> newCounts = new ArrayList<Long>();
+        List<Long> newDistinctKeys = new ArrayList<Long>();
+
+        long nbTuples = 0L;
+        long nbKeys = 0L;
+        long bucketCount = 0L;
+        long bucketKeys = 0L;
+        Object lastKey = null;
+
+        Cursor<? extends IndexEntry<?, String>> cursor = index.forwardCursor();
+
+        try
+        {
+            cursor.beforeFirst();
+
+            while ( cursor.next() )
+            {
+                Object key = cursor.get().getKey();
+                nbTuples++;
+
+                if ( ( lastKey == null ) || ( compare( lastKey, key ) != 0 ) )
+                {
+                    // A new key. Close the current bucket if it's full
+                    if ( ( lastKey != null ) && ( bucketCount >= depth ) && ( comparator != null ) )
+                    {
+                        newBounds.add( ( String ) lastKey );
+                        newCounts.add( bucketCount );
+                        newDistinctKeys.add( bucketKeys );
+                        bucketCount = 0L;
+                        bucketKeys = 0L;
+                    }
+
+                    nbKeys++;
+                    bucketKeys++;
+                    lastKey = key;
+                }
+
+                bucketCount++;
+            }
+        }
+        finally
+        {
+            cursor.close();
+        }
+
+        if ( ( bucketCount > 0L ) && ( comparator != null ) )
+        {
+            newBounds.add( ( String ) lastKey );
+            newCounts.add( bucketCount );
+            newDistinctKeys.add( bucketKeys );
+        }
+
+        count = nbTuples;
+        distinctKeys = nbKeys;
+        this.nbEntries = nbEntries;
+        nbUpdates = 0L;
+
+        if ( comparator != null )
+        {
+            int size = newBounds.size();
+            bounds = newBounds.toArray( new String[size] );
+            bucketCounts = new long[size];
+            bucketDistinctKeys = new long[size];
+
+            for ( int i = 0; i < size; i++ )
+            {
+                bucketCounts[i] = newCounts.get( i );
+                bucketDistinctKeys[i] = newDistinctKeys.get( i );
+            }
+        }
+        else
+        {
+            bounds = null;
+            bucketCounts = null;
+            bucketDistinctKeys = null;
+        }
+
+        built = true;
+    }
+
+
+    /**
+     * Tells if the statistics have to be built again, because they have never been
+     * computed, or because too many updates have been done since the last build.
+     *
+     * @return <code>true</code> if the statistics have to be built
+     */
+    public synchronized boolean isStale()
+    {
+        return !built || ( nbUpdates > Math.max( MIN_UPDATES_BEFORE_REBUILD, count / UPDATES_REBUILD_RATIO ) );
+    }
+
+
+    /**
+     * Updates the statistics after an entry modification.
+     *
+     * @param oldAttribute The indexed attribute before the modification, may be null
+     * @param newAttribute The indexed attribute after the modification, may be null
+     */
+    public synchronized void update( Attribute oldAttribute, Attribute newAttribute )
+    {
+        Set<Object> oldValues = getNormValues( oldAttribute );
+        Set<Object> newValues = getNormValues( newAttribute );
+
+        if ( oldValues.isEmpty() && !newValues.isEmpty() )
+        {
+            nbEntries++;
+        }
+        else if ( !oldValues.isEmpty() && newValues.isEmpty() )
+        {
+            nbEntries = Math.max( 0L, nbEntries - 1L );
+        }
+
+        for ( Object value : oldValues )
+        {
+            if ( !newValues.contains( value ) )
+            {
+                updateCount( value, -1L );
+            }
+        }
+
+        for ( Object value : newValues )
+        {
+            if ( !oldValues.contains( value ) )
+            {
+                updateCount( value, 1L );
+            }
+        }
+    }
+
+
+    private Set<Object> getNormValues( Attribute attribute )
+    {
+        Set<Object> values = new HashSet<Object>();
+
+        if ( attribute != null )
+        {
+            for ( Value<?> value : attribute )
+            {
+                values.add( value.getNormValue() );
+            }
+        }
+
+        return values;
+    }
+
+
+    private void updateCount( Object value, long delta )
+    {
+        count = Math.max( 0L, count + delta );
+        nbUpdates++;
+
+        if ( ( bounds != null ) && ( bounds.length > 0 ) && ( value instanceof String ) )
+        {
+            int bucket = getBucket( value );
+            bucketCounts[bucket] = Math.max( 0L, bucketCounts[bucket] + delta );
+        }
+    }
+
+
+    private int compare( Object key1, Object key2 )
+    {
+        if ( comparator != null )
+        {
+            return comparator.compare( key1, key2 );
+        }
+
+        return key1.equals( key2 ) ? 0 : 1;
+    }
+
+
+    /**
+     * Finds the bucket containing a key : the first one with a bound above
+     * or equal to the key. The keys above the last bound belong to the last bucket.
+     */
+    private int getBucket( Object key )
+    {
+        int low = 0;
+        int high = bounds.length - 1;
+
+        while ( low < high )
+        {
+            int middle = ( low + high ) >>> 1;
+
+            if ( comparator.compare( bounds[middle], key ) < 0 )
+            {
+                low = middle + 1;
+            }
+            else
+            {
+                high = middle;
+            }
+        }
+
+        return low;
+    }
+
+
+    /**
+     * @return <code>true</code> if a histogram is available for range estimations
+     */
+    public synchronized boolean hasHistogram()
+    {
+        return built && ( bounds != null ) && ( bounds.length > 0 );
+    }
+
+
+    /**
+     * @return The number of (value, entry ID) tuples in the index
+     */
+    public synchronized long count()
+    {
+        return count;
+    }
+
+
+    /**
+     * @return The number of entries having at least one value for the indexed attribute
+     */
+    public synchronized long getEntryCount()
+    {
+        return nbEntries;
+    }
+
+
+    /**
+     * @return The number of distinct keys in the index, when the statistics were built
+     */
+    public synchronized long getDistinctKeys()
+    {
+        return distinctKeys;
+    }
+
+
+    /**
+     * Estimates the number of entries having a given value.
+     *
+     * @param key The normalized value
+     * @return The estimated number of entries, or {@link #UNKNOWN}
+     */
+    public synchronized long equalityCount( Object key )
+    {
+        if ( !hasHistogram() || !( key instanceof String ) )
+        {
+            if ( built && ( distinctKeys > 0L ) )
+            {
+                return Math.max( 1L, count / distinctKeys );
+            }
+
+            return UNKNOWN;
+        }
+
+        int bucket = getBucket( key );
+
+        return Math.max( 1L, bucketCounts[bucket] / Math.max( 1L, bucketDistinctKeys[bucket] ) );
+    }
+
+
+    /**
+     * Estimates the number of entries having a value greater than or equal to
+     * a given value.
+     *
+     * @param key The normalized value
+     * @return The estimated number of entries, or {@link #UNKNOWN}
+     */
+    public synchronized long greaterThanCount( Object key )
+    {
+        if ( !hasHistogram() || !( key instanceof String ) )
+        {
+            return UNKNOWN;
+        }
+
+        int bucket = getBucket( key );
+
+        // Half of the key bucket, and all the buckets after it
+        long total = ( bucketCounts[bucket] + 1L ) / 2L;
+
+        for ( int i = bucket + 1; i < bucketCounts.length; i++ )
+        {
+            total += bucketCounts[i];
+        }
+
+        return Math.max( 1L, total );
+    }
+
+
+    /**
+     * Estimates the number of entries having a value lower than or equal to
+     * a given value.
+     *
+     * @param key The normalized value
+     * @return The estimated number of entries, or {@link #UNKNOWN}
+     */
+    public synchronized long lessThanCount( Object key )
+    {
+        if ( !hasHistogram() || !( key instanceof String ) )
+        {
+            return UNKNOWN;
+        }
+
+        int bucket = getBucket( key );
+
+        // All the buckets before the key one, and half of the key bucket
+        long total = ( bucketCounts[bucket] + 1L ) / 2L;
+
+        for ( int i = 0; i < bucket; i++ )
+        {
+            total += bucketCounts[i];
+        }
+
+        return Math.max( 1L, total );
+    }
+
+
+    /**
+     * Estimates the number of entries having a value starting with a given prefix.
+     *
+     * @param prefix The normalized prefix
+     * @return The estimated number of entries, or {@link #UNKNOWN}
+     */
+    public synchronized long prefixCount( String prefix )
+    {
+        if ( !hasHistogram() )
+        {
+            return UNKNOWN;
+        }
+
+        int first = getBucket( prefix );
+        int last = getBucket( prefix + Character.MAX_VALUE );
+
+        if ( first == last )
+        {
+            // The prefix is contained in a single bucket : assume it selects half of it
+            return Math.max( 1L, ( bucketCounts[first] + 1L ) / 2L );
+        }
+
+        long total = ( bucketCounts[first] + 1L ) / 2L + ( bucketCounts[last] + 1L ) / 2L;
+
+        for ( int i = first + 1; i < last; i++ )
+        {
+            total += bucketCounts[i];
+        }
+
+        return Math.max( 1L, total );
+    }
+
+
+    /**
+     * Writes the statistics.
+     *
+     * @param out The output to write to
+     * @throws IOException If the statistics can't be written
+     */
+    public synchronized void writeExternal( DataOutput out ) throws IOException
+    {
+        out.writeLong( count );
+        out.writeLong( nbEntries );
+        out.writeLong( distinctKeys );
+        out.writeLong( nbUpdates );
+
+        if ( bounds == null )
+        {
+            out.writeInt( -1 );
+        }
+        else
+        {
+            out.writeInt( bounds.length );
+
+            for ( int i = 0; i < bounds.length; i++ )
+            {
+                byte[] bound = Strings.getBytesUtf8( bounds[i] );
+                out.writeInt( bound.length );
+                out.write( bound );
+                out.writeLong( bucketCounts[i] );
+                out.writeLong( bucketDistinctKeys[i] );
+            }
+        }
+    }
+
+
+    /**
+     * Reads the statistics written by {@link #writeExternal(DataOutput)}.
+     *
+     * @param in The input to read from
+     * @throws IOException If the statistics can't be read
+     */
+    public synchronized void readExternal( DataInput in ) throws IOException
+    {
+        count = in.readLong();
+        nbEntries = in.readLong();
+        distinctKeys = in.readLong();
+        nbUpdates = in.readLong();
+
+        int size = in.readInt();
+
+        if ( size < 0 )
+        {
+            bounds = null;
+            bucketCounts = null;
+            bucketDistinctKeys = null;
+        }
+        else
+        {
+            bounds = new String[size];
+            bucketCounts = new long[size];
+            bucketDistinctKeys = new long[size];
+
+            for ( int i = 0; i < size; i++ )
+            {
+                byte[] bound = new byte[in.readInt()];
+                in.readFully( bound );
+                bounds[i] = Strings.utf8ToString( bound );
+                bucketCounts[i] = in.readLong();
+                bucketDistinctKeys[i] = in.readLong();
+            }
+
+            // A histogram which does not match the comparator can't be used
+            if ( comparator == null )
+            {
+                bounds = null;
+                bucketCounts = null;
+                bucketDistinctKeys = null;
+            }
+        }
+
+        built = true;
+    }
+
+
+    /**
+     * Invalidates the statistics, which will be built again before being used
+     */
+    public synchronized void invalidate()
+    {
+        built = false;
+    }
+
+
+    /**
+     * @see Object#toString()
+     */
+    public synchronized String toString()
+    {
+        return "IndexStatistics<" + attributeType.getName() + ", count=" + count + ", entries=" + nbEntries
+            + ", distinctKeys=" + distinctKeys + ", buckets=" + ( bounds == null ? 0 : bounds.length ) + ">";
+    }
+}
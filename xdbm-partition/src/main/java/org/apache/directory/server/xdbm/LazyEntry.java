@@ -0,0 +1,905 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.xdbm;
+
+
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.Value;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.exception.LdapInvalidDnException;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * An Entry read from the MasterTable, encoded with the {@link CompactEntryCodec}, which
+ * decodes its attributes only when they are used. The methods addressing a single
+ * attribute only decode this attribute, while the methods using the whole entry decode
+ * all of them. Cloning an entry whose attributes have not been decoded yet is cheap, as
+ * the clone shares the encoded attributes.
+ * <br></br>
+ * <b>This class must *not* be used outside of the server.</b>
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class LazyEntry implements Entry
+{
+    /** The serialVersionUID */
+    private static final long serialVersionUID = 1L;
+
+    /** the logger for this class */
+    private static final Logger LOG = LoggerFactory.getLogger( LazyEntry.class );
+
+    /** The schemaManager reference */
+    private final transient SchemaManager schemaManager;
+
+    /** The encoded entry, which is never modified */
+    private final byte[] bytes;
+
+    /** The position of the attributes in the encoded entry */
+    private final int attributesPos;
+
+    /** The position of the offset table */
+    private final int tablePos;
+
+    /** The position of the attributes data */
+    private final int dataPos;
+
+    /** The number of encoded attributes */
+    private final int nbAttributes;
+
+    /** The position of each encoded OID in the offset table */
+    private int[] oidPositions;
+
+    /** Tells if each encoded attribute has been decoded */
+    private boolean[] decoded;
+
+    /** Tells if at least one attribute has been decoded. Also read without the lock */
+    private volatile boolean touched;
+
+    /**
+     * Tells if all the attributes have been decoded. Also read without the lock, so it's
+     * only set once the decoded attributes have all been stored in the entry
+     */
+    private volatile boolean materialized;
+
+    /** Tells if the Dn has been decoded or set */
+    private boolean dnSet;
+
+    /** The decoded part of the entry */
+    private final Entry entry;
+
+
+    /**
+     * Creates a new instance of LazyEntry.
+     *
+     * @param schemaManager The SchemaManager
+     * @param bytes The encoded entry
+     */
+    LazyEntry( SchemaManager schemaManager, byte[] bytes )
+    {
+        this.schemaManager = schemaManager;
+        this.bytes = bytes;
+
+        // Skip the version and the Rdn
+        CompactEntryCodec.Reader reader = new CompactEntryCodec.Reader( bytes, 1 );
+        reader.readString();
+        attributesPos = reader.pos;
+
+        nbAttributes = reader.readVarInt();
+        int tableLength = reader.readInt();
+        tablePos = reader.pos;
+        dataPos = tablePos + tableLength;
+
+        entry = new DefaultEntry( schemaManager );
+    }
+
+
+    /**
+     * Creates a clone of a LazyEntry whose attributes have not been decoded
+     */
+    private LazyEntry( LazyEntry original )
+    {
+        schemaManager = original.schemaManager;
+        bytes = original.bytes;
+        attributesPos = original.attributesPos;
+        tablePos = original.tablePos;
+        dataPos = original.dataPos;
+        nbAttributes = original.nbAttributes;
+        oidPositions = original.oidPositions;
+
+        entry = new DefaultEntry( schemaManager );
+
+        if ( original.dnSet )
+        {
+            entry.setDn( original.entry.getDn() );
+            dnSet = true;
+        }
+    }
+
+
+    /**
+     * Reads the offset table
+     */
+    private void readTable()
+    {
+        if ( decoded != null )
+        {
+            return;
+        }
+
+        // The positions may have been read by the entry this one is a clone of
+        if ( oidPositions == null )
+        {
+            int[] positions = new int[nbAttributes];
+            int pos = tablePos;
+
+            for ( int i = 0; i < nbAttributes; i++ )
+            {
+                positions[i] = pos;
+                pos += CompactEntryCodec.oidLength( bytes, pos ) + 4;
+            }
+
+            oidPositions = positions;
+        }
+
+        decoded = new boolean[nbAttributes];
+    }
+
+
+    /**
+     * @return The position of the data of the i-th attribute
+     */
+    private int dataPosition( int i )
+    {
+        int pos = oidPositions[i] + CompactEntryCodec.oidLength( bytes, oidPositions[i] );
+
+        return dataPos + new CompactEntryCodec.Reader( bytes, pos ).readInt();
+    }
+
+
+    /**
+     * Decodes the Dn, if it has not been set
+     */
+    private synchronized void decodeDn()
+    {
+        if ( dnSet )
+        {
+            return;
+        }
+
+        try
+        {
+            entry.setDn( CompactEntryCodec.decodeDn( schemaManager, bytes, 1 ) );
+        }
+        catch ( LdapException le )
+        {
+            LOG.error( "Cannot decode the Dn of an entry", le );
+            throw new IllegalStateException( le.getMessage(), le );
+        }
+
+        dnSet = true;
+    }
+
+
+    /**
+     * Decodes an attribute, if it's present and has not been decoded yet
+     */
+    private synchronized void decode( AttributeType attributeType )
+    {
+        if ( materialized )
+        {
+            return;
+        }
+
+        if ( attributeType == null )
+        {
+            materialize();
+
+            return;
+        }
+
+        readTable();
+
+        byte[] oid = CompactEntryCodec.encodeOid( attributeType.getOid() );
+
+        for ( int i = 0; i < nbAttributes; i++ )
+        {
+            int pos = oidPositions[i];
+
+            if ( !decoded[i] && ( bytes[pos] == oid[0] ) && sameOid( oid, pos ) )
+            {
+                decodeAttribute( i, attributeType );
+
+                return;
+            }
+        }
+    }
+
+
+    /**
+     * Decodes the attribute having the given ID, or all the attributes if the ID is unknown
+     */
+    private void decode( String upId )
+    {
+        if ( !materialized )
+        {
+            decode( schemaManager.getAttributeType( upId ) );
+        }
+    }
+
+
+    private boolean sameOid( byte[] oid, int pos )
+    {
+        for ( int i = 1; i < oid.length; i++ )
+        {
+            if ( bytes[pos + i] != oid[i] )
+            {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+
+    private void decodeAttribute( int i, AttributeType attributeType )
+    {
+        try
+        {
+            entry.put( CompactEntryCodec.decodeAttribute( attributeType, bytes, dataPosition( i ) ) );
+        }
+        catch ( LdapException le )
+        {
+            LOG.error( "Cannot decode the attribute " + attributeType.getName() + " of an entry", le );
+            throw new IllegalStateException( le.getMessage(), le );
+        }
+
+        decoded[i] = true;
+        touched = true;
+    }
+
+
+    /**
+     * Decodes all the attributes which have not been decoded yet
+     */
+    private synchronized void materialize()
+    {
+        if ( materialized )
+        {
+            return;
+        }
+
+        decodeDn();
+        readTable();
+
+        for ( int i = 0; i < nbAttributes; i++ )
+        {
+            if ( !decoded[i] )
+            {
+                String oid = CompactEntryCodec.decodeOid( bytes, oidPositions[i] );
+
+                try
+                {
+                    decodeAttribute( i, schemaManager.lookupAttributeTypeRegistry( oid ) );
+                }
+                catch ( LdapException le )
+                {
+                    LOG.error( "Cannot find the attribute type " + oid + " of an entry", le );
+                    throw new IllegalStateException( le.getMessage(), le );
+                }
+            }
+        }
+
+        // Published last : a reader seeing it set sees all the decoded attributes
+        touched = true;
+        materialized = true;
+    }
+
+
+    private void decode( Attribute... attributes )
+    {
+        for ( Attribute attribute : attributes )
+        {
+            if ( attribute.getAttributeType() != null )
+            {
+                decode( attribute.getAttributeType() );
+            }
+            else
+            {
+                decode( attribute.getUpId() );
+            }
+        }
+    }
+
+
+    private void decode( AttributeType... attributeTypes )
+    {
+        for ( AttributeType attributeType : attributeTypes )
+        {
+            decode( attributeType );
+        }
+    }
+
+
+    private void decode( String... upIds )
+    {
+        for ( String upId : upIds )
+        {
+            decode( upId );
+        }
+    }
+
+
+    /**
+     * @return The encoded attributes, if none of them has been decoded, null otherwise
+     */
+    synchronized byte[] getUndecodedAttributes()
+    {
+        if ( touched )
+        {
+            return null;
+        }
+
+        return Arrays.copyOfRange( bytes, attributesPos, bytes.length );
+    }
+
+
+    public Entry add( AttributeType attributeType, byte[]... values ) throws LdapException
+    {
+        decode( attributeType );
+
+        return entry.add( attributeType, values );
+    }
+
+
+    public Entry add( AttributeType attributeType, String... values ) throws LdapException
+    {
+        decode( attributeType );
+
+        return entry.add( attributeType, values );
+    }
+
+
+    public Entry add( AttributeType attributeType, Value<?>... values ) throws LdapException
+    {
+        decode( attributeType );
+
+        return entry.add( attributeType, values );
+    }
+
+
+    public Entry add( String upId, AttributeType attributeType, byte[]... values ) throws LdapException
+    {
+        decode( attributeType );
+
+        return entry.add( upId, attributeType, values );
+    }
+
+
+    public Entry add( String upId, AttributeType attributeType, String... values ) throws LdapException
+    {
+        decode( attributeType );
+
+        return entry.add( upId, attributeType, values );
+    }
+
+
+    public Entry add( String upId, AttributeType attributeType, Value<?>... values ) throws LdapException
+    {
+        decode( attributeType );
+
+        return entry.add( upId, attributeType, values );
+    }
+
+
+    public boolean contains( AttributeType attributeType, byte[]... values )
+    {
+        decode( attributeType );
+
+        return entry.contains( attributeType, values );
+    }
+
+
+    public boolean contains( AttributeType attributeType, String... values )
+    {
+        decode( attributeType );
+
+        return entry.contains( attributeType, values );
+    }
+
+
+    public boolean contains( AttributeType attributeType, Value<?>... values )
+    {
+        decode( attributeType );
+
+        return entry.contains( attributeType, values );
+    }
+
+
+    public boolean containsAttribute( AttributeType attributeType )
+    {
+        decode( attributeType );
+
+        return entry.containsAttribute( attributeType );
+    }
+
+
+    public Attribute get( AttributeType attributeType )
+    {
+        decode( attributeType );
+
+        return entry.get( attributeType );
+    }
+
+
+    public Collection<Attribute> getAttributes()
+    {
+        materialize();
+
+        return entry.getAttributes();
+    }
+
+
+    public boolean hasObjectClass( Attribute... objectClasses )
+    {
+        decode( SchemaConstants.OBJECT_CLASS_AT );
+
+        return entry.hasObjectClass( objectClasses );
+    }
+
+
+    public Attribute put( AttributeType attributeType, byte[]... values ) throws LdapException
+    {
+        decode( attributeType );
+
+        return entry.put( attributeType, values );
+    }
+
+
+    public Attribute put( AttributeType attributeType, String... values ) throws LdapException
+    {
+        decode( attributeType );
+
+        return entry.put( attributeType, values );
+    }
+
+
+    public Attribute put( AttributeType attributeType, Value<?>... values ) throws LdapException
+    {
+        decode( attributeType );
+
+        return entry.put( attributeType, values );
+    }
+
+
+    public Attribute put( String upId, AttributeType attributeType, byte[]... values ) throws LdapException
+    {
+        decode( attributeType );
+
+        return entry.put( upId, attributeType, values );
+    }
+
+
+    public Attribute put( String upId, AttributeType attributeType, String... values ) throws LdapException
+    {
+        decode( attributeType );
+
+        return entry.put( upId, attributeType, values );
+    }
+
+
+    public Attribute put( String upId, AttributeType attributeType, Value<?>... values ) throws LdapException
+    {
+        decode( attributeType );
+
+        return entry.put( upId, attributeType, values );
+    }
+
+
+    public boolean remove( AttributeType attributeType, byte[]... values ) throws LdapException
+    {
+        decode( attributeType );
+
+        return entry.remove( attributeType, values );
+    }
+
+
+    public boolean remove( AttributeType attributeType, String... values ) throws LdapException
+    {
+        decode( attributeType );
+
+        return entry.remove( attributeType, values );
+    }
+
+
+    public boolean remove( AttributeType attributeType, Value<?>... values ) throws LdapException
+    {
+        decode( attributeType );
+
+        return entry.remove( attributeType, values );
+    }
+
+
+    public List<Attribute> remove( Attribute... attributes ) throws LdapException
+    {
+        decode( attributes );
+
+        return entry.remove( attributes );
+    }
+
+
+    public void removeAttributes( AttributeType... attributes )
+    {
+        decode( attributes );
+
+        entry.removeAttributes( attributes );
+    }
+
+
+    public Entry add( Attribute... attributes ) throws LdapException
+    {
+        decode( attributes );
+
+        return entry.add( attributes );
+    }
+
+
+    public Entry add( String upId, String... values ) throws LdapException
+    {
+        decode( upId );
+
+        return entry.add( upId, values );
+    }
+
+
+    public Entry add( String upId, byte[]... values ) throws LdapException
+    {
+        decode( upId );
+
+        return entry.add( upId, values );
+    }
+
+
+    public Entry add( String upId, Value<?>... values ) throws LdapException
+    {
+        decode( upId );
+
+        return entry.add( upId, values );
+    }
+
+
+    public void clear()
+    {
+        synchronized ( this )
+        {
+            // Nothing left to decode
+            decodeDn();
+            touched = true;
+            materialized = true;
+        }
+
+        entry.clear();
+    }
+
+
+    public boolean contains( Attribute... attributes )
+    {
+        decode( attributes );
+
+        return entry.contains( attributes );
+    }
+
+
+    public boolean contains( String upId, byte[]... values )
+    {
+        decode( upId );
+
+        return entry.contains( upId, values );
+    }
+
+
+    public boolean contains( String upId, String... values )
+    {
+        decode( upId );
+
+        return entry.contains( upId, values );
+    }
+
+
+    public boolean contains( String upId, Value<?>... values )
+    {
+        decode( upId );
+
+        return entry.contains( upId, values );
+    }
+
+
+    public boolean containsAttribute( String... attributes )
+    {
+        decode( attributes );
+
+        return entry.containsAttribute( attributes );
+    }
+
+
+    public Attribute get( String alias )
+    {
+        decode( alias );
+
+        return entry.get( alias );
+    }
+
+
+    public Dn getDn()
+    {
+        decodeDn();
+
+        return entry.getDn();
+    }
+
+
+    public boolean hasObjectClass( String... objectClasses )
+    {
+        decode( SchemaConstants.OBJECT_CLASS_AT );
+
+        return entry.hasObjectClass( objectClasses );
+    }
+
+
+    public boolean isSchemaAware()
+    {
+        return entry.isSchemaAware();
+    }
+
+
+    public Iterator<Attribute> iterator()
+    {
+        materialize();
+
+        return entry.iterator();
+    }
+
+
+    public List<Attribute> put( Attribute... attributes ) throws LdapException
+    {
+        decode( attributes );
+
+        return entry.put( attributes );
+    }
+
+
+    public Attribute put( String upId, byte[]... values )
+    {
+        decode( upId );
+
+        return entry.put( upId, values );
+    }
+
+
+    public Attribute put( String upId, String... values )
+    {
+        decode( upId );
+
+        return entry.put( upId, values );
+    }
+
+
+    public Attribute put( String upId, Value<?>... values )
+    {
+        decode( upId );
+
+        return entry.put( upId, values );
+    }
+
+
+    public boolean remove( String upId, byte[]... values ) throws LdapException
+    {
+        decode( upId );
+
+        return entry.remove( upId, values );
+    }
+
+
+    public boolean remove( String upId, String... values ) throws LdapException
+    {
+        decode( upId );
+
+        return entry.remove( upId, values );
+    }
+
+
+    public boolean remove( String upId, Value<?>... values ) throws LdapException
+    {
+        decode( upId );
+
+        return entry.remove( upId, values );
+    }
+
+
+    public void removeAttributes( String... attributes )
+    {
+        decode( attributes );
+
+        entry.removeAttributes( attributes );
+    }
+
+
+    public synchronized void setDn( Dn dn )
+    {
+        entry.setDn( dn );
+        dnSet = true;
+    }
+
+
+    public synchronized void setDn( String dn ) throws LdapInvalidDnException
+    {
+        entry.setDn( dn );
+        dnSet = true;
+    }
+
+
+    public int size()
+    {
+        if ( !touched )
+        {
+            return nbAttributes;
+        }
+
+        materialize();
+
+        return entry.size();
+    }
+
+
+    /**
+     * @see java.io.Externalizable#readExternal(ObjectInput)
+     */
+    public void readExternal( ObjectInput in ) throws IOException, ClassNotFoundException
+    {
+        materialize();
+
+        entry.readExternal( in );
+    }
+
+
+    /**
+     * @see java.io.Externalizable#writeExternal(ObjectOutput)
+     */
+    public void writeExternal( ObjectOutput out ) throws IOException
+    {
+        materialize();
+
+        entry.writeExternal( out );
+    }
+
+
+    /**
+     * The Java serialization stores the decoded entry, as a LazyEntry can only be
+     * created from its encoded form.
+     *
+     * @return The decoded entry
+     */
+    private Object writeReplace()
+    {
+        materialize();
+
+        return entry;
+    }
+
+
+    /**
+     * Clones the entry. If none of its attributes has been decoded, the clone
+     * shares the encoded attributes, otherwise all the attributes are decoded.
+     */
+    public Entry clone()
+    {
+        synchronized ( this )
+        {
+            if ( !touched )
+            {
+                return new LazyEntry( this );
+            }
+        }
+
+        materialize();
+
+        return entry.clone();
+    }
+
+
+    public Entry shallowClone()
+    {
+        materialize();
+
+        return entry.shallowClone();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int hashCode()
+    {
+        materialize();
+
+        return entry.hashCode();
+    }
+
+
+    /**
+     * @see Object#equals(Object);
+     */
+    @Override
+    public boolean equals( Object obj )
+    {
+        // Short circuit
+        if ( this == obj )
+        {
+            return true;
+        }
+
+        materialize();
+
+        if ( obj instanceof LazyEntry )
+        {
+            ( ( LazyEntry ) obj ).materialize();
+
+            return entry.equals( ( ( LazyEntry ) obj ).entry );
+        }
+
+        return entry.equals( obj );
+    }
+
+
+    /**
+     * @see Object#toString()
+     */
+    public String toString()
+    {
+        return toString( "" );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public String toString( String tabs )
+    {
+        materialize();
+
+        return entry.toString( tabs );
+    }
+}
@@ -0,0 +1,443 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.xdbm;
+
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.Value;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.filter.SubstringNode;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.apache.directory.api.ldap.model.schema.MatchingRule;
+import org.apache.directory.api.ldap.model.schema.Normalizer;
+import org.apache.directory.api.ldap.model.schema.normalizers.NoOpNormalizer;
+import org.apache.directory.server.xdbm.search.CandidateSet;
+
+
+/**
+ * A substring index associated with a user index. Each normalized value of the
+ * indexed attribute is split into all its n-grams (sequences of N consecutive
+ * characters), and the index associates each n-gram with the IDs of the entries
+ * containing it.
+ * <br>
+ * A (attr=*any*) filter can then be evaluated by intersecting the entries
+ * associated with the n-grams of its components, instead of scanning the whole
+ * user index. The result is a superset of the matching entries : the candidates
+ * still have to be checked against the filter.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class NgramIndex
+{
+    /** The default n-gram size */
+    public static final int DEFAULT_NGRAM_SIZE = 3;
+
+    /**
+     * We stop intersecting the n-gram postings when they are this many times larger
+     * than the current candidate set : the evaluator will do the remaining work
+     */
+    private static final long MAX_INTERSECTION_RATIO = 16L;
+
+    /** The indexed AttributeType */
+    private final AttributeType attributeType;
+
+    /** The index storing the n-gram to entry ID associations */
+    private final Index<String, String> ngramIdx;
+
+    /** The n-gram size */
+    private final int ngramSize;
+
+    /** The normalizer used for the substring filter components */
+    private final Normalizer normalizer;
+
+    /** The comparator used to order the n-grams in the underlying index */
+    private final Comparator<String> comparator;
+
+
+    /**
+     * Creates a new instance of NgramIndex.
+     *
+     * @param attributeType The indexed AttributeType
+     * @param ngramIdx The initialized index storing the n-grams
+     * @param ngramSize The n-gram size
+     */
+    @SuppressWarnings("unchecked")
+    public NgramIndex( AttributeType attributeType, Index<String, String> ngramIdx, int ngramSize )
+    {
+        if ( ngramSize < 1 )
+        {
+            throw new IllegalArgumentException( "Invalid n-gram size : " + ngramSize );
+        }
+
+        this.attributeType = attributeType;
+        this.ngramIdx = ngramIdx;
+        this.ngramSize = ngramSize;
+
+        MatchingRule rule = attributeType.getSubstring();
+
+        if ( rule == null )
+        {
+            rule = attributeType.getEquality();
+        }
+
+        if ( rule != null )
+        {
+            normalizer = rule.getNormalizer();
+        }
+        else
+        {
+            normalizer = new NoOpNormalizer( attributeType.getSyntaxOid() );
+        }
+
+        // The index keys are ordered using the equality comparator, which may consider
+        // two distinct n-grams as equal. The n-gram sets use the same comparator, so that
+        // they are consistent with the index content.
+        if ( attributeType.getEquality() != null )
+        {
+            comparator = ( Comparator<String> ) attributeType.getEquality().getLdapComparator();
+        }
+        else
+        {
+            comparator = null;
+        }
+    }
+
+
+    /**
+     * @return The indexed AttributeType
+     */
+    public AttributeType getAttributeType()
+    {
+        return attributeType;
+    }
+
+
+    /**
+     * @return The index storing the n-grams
+     */
+    public Index<String, String> getIndex()
+    {
+        return ngramIdx;
+    }
+
+
+    /**
+     * @return The n-gram size
+     */
+    public int getNgramSize()
+    {
+        return ngramSize;
+    }
+
+
+    /**
+     * Creates an empty set of n-grams
+     */
+    private Set<String> newNgramSet()
+    {
+        if ( comparator != null )
+        {
+            return new TreeSet<String>( comparator );
+        }
+        else
+        {
+            return new TreeSet<String>();
+        }
+    }
+
+
+    /**
+     * Adds all the n-grams of a normalized value into a set
+     */
+    private void addNgrams( String value, Set<String> ngrams )
+    {
+        if ( value == null )
+        {
+            return;
+        }
+
+        for ( int i = 0; i + ngramSize <= value.length(); i++ )
+        {
+            ngrams.add( value.substring( i, i + ngramSize ) );
+        }
+    }
+
+
+    /**
+     * Gets the n-grams of all the values of an attribute.
+     *
+     * @param attribute The attribute, may be null
+     * @return The set of n-grams for this attribute values
+     */
+    public Set<String> getNgrams( Attribute attribute )
+    {
+        Set<String> ngrams = newNgramSet();
+
+        if ( attribute == null )
+        {
+            return ngrams;
+        }
+
+        for ( Value<?> value : attribute )
+        {
+            Object normValue = value.getNormValue();
+
+            if ( normValue instanceof String )
+            {
+                addNgrams( ( String ) normValue, ngrams );
+            }
+        }
+
+        return ngrams;
+    }
+
+
+    /**
+     * Gets the n-grams of all the components of a substring filter. The components
+     * shorter than the n-gram size don't produce any n-gram.
+     *
+     * @param node The substring filter
+     * @return The set of n-grams, empty if the index can't be used for this filter
+     * @throws LdapException If a component can't be normalized
+     */
+    public Set<String> getNgrams( SubstringNode node ) throws LdapException
+    {
+        Set<String> ngrams = newNgramSet();
+
+        if ( node.getInitial() != null )
+        {
+            addNgrams( normalizer.normalize( node.getInitial() ), ngrams );
+        }
+
+        if ( node.getAny() != null )
+        {
+            for ( String any : node.getAny() )
+            {
+                addNgrams( normalizer.normalize( any ), ngrams );
+            }
+        }
+
+        if ( node.getFinal() != null )
+        {
+            addNgrams( normalizer.normalize( node.getFinal() ), ngrams );
+        }
+
+        return ngrams;
+    }
+
+
+    /**
+     * Updates the index for an entry, given the n-grams of its attribute before
+     * and after an operation. Only the differences are written in the index.
+     *
+     * @param id The entry ID
+     * @param oldNgrams The n-grams before the operation, may be null
+     * @param newNgrams The n-grams after the operation, may be null
+     * @throws Exception If the index can't be updated
+     */
+    public synchronized void update( String id, Set<String> oldNgrams, Set<String> newNgrams ) throws Exception
+    {
+        if ( oldNgrams != null )
+        {
+            for ( String ngram : oldNgrams )
+            {
+                if ( ( newNgrams == null ) || !newNgrams.contains( ngram ) )
+                {
+                    ngramIdx.drop( ngram, id );
+                }
+            }
+        }
+
+        if ( newNgrams != null )
+        {
+            for ( String ngram : newNgrams )
+            {
+                if ( ( oldNgrams == null ) || !oldNgrams.contains( ngram ) )
+                {
+                    ngramIdx.add( ngram, id );
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Estimates the number of candidates for a substring filter.
+     *
+     * @param node The substring filter
+     * @return The number of entries containing the most selective n-gram, or
+     * Long.MAX_VALUE if the index can't be used for this filter
+     * @throws Exception If the index can't be read
+     */
+    public long count( SubstringNode node ) throws Exception
+    {
+        Set<String> ngrams = getNgrams( node );
+
+        if ( ngrams.isEmpty() )
+        {
+            return Long.MAX_VALUE;
+        }
+
+        long count = Long.MAX_VALUE;
+
+        for ( String ngram : ngrams )
+        {
+            count = Math.min( count, ngramIdx.count( ngram ) );
+
+            if ( count == 0L )
+            {
+                break;
+            }
+        }
+
+        return count;
+    }
+
+
+    /**
+     * Adds into a candidate set the IDs of the entries which may match a substring
+     * filter, by intersecting the entries associated with the filter's n-grams.
+     *
+     * @param node The substring filter
+     * @param candidates The candidate set to feed
+     * @param ordinalMap The partition's entry ordinal map
+     * @return The number of candidates, or Long.MAX_VALUE if the index can't be used
+     * for this filter, in which case the candidate set is left untouched
+     * @throws Exception If the index can't be read
+     */
+    public long evaluate( SubstringNode node, CandidateSet candidates, EntryOrdinalMap ordinalMap ) throws Exception
+    {
+        Set<String> ngrams = getNgrams( node );
+
+        if ( ngrams.isEmpty() )
+        {
+            return Long.MAX_VALUE;
+        }
+
+        // Start with the most selective n-grams
+        final Map<String, Long> counts = new HashMap<String, Long>();
+
+        for ( String ngram : ngrams )
+        {
+            long count = ngramIdx.count( ngram );
+
+            if ( count == 0L )
+            {
+                return 0L;
+            }
+
+            counts.put( ngram, count );
+        }
+
+        List<String> sortedNgrams = new ArrayList<String>( counts.keySet() );
+
+        Collections.sort( sortedNgrams, new Comparator<String>()
+        {
+            public int compare( String ngram1, String ngram2 )
+            {
+                return counts.get( ngram1 ).compareTo( counts.get( ngram2 ) );
+            }
+        } );
+
+        CandidateSet intersection = null;
+
+        for ( String ngram : sortedNgrams )
+        {
+            if ( ( intersection != null ) && ( counts.get( ngram ) > intersection.size() * MAX_INTERSECTION_RATIO ) )
+            {
+                break;
+            }
+
+            CandidateSet postings = new CandidateSet( ordinalMap );
+            Cursor<IndexEntry<String, String>> cursor = ngramIdx.forwardCursor( ngram );
+
+            try
+            {
+                while ( cursor.next() )
+                {
+                    postings.add( cursor.get().getId() );
+                }
+            }
+            finally
+            {
+                cursor.close();
+            }
+
+            if ( intersection == null )
+            {
+                intersection = postings;
+            }
+            else
+            {
+                intersection.and( postings );
+            }
+
+            if ( intersection.isEmpty() )
+            {
+                return 0L;
+            }
+        }
+
+        candidates.or( intersection );
+
+        return intersection.size();
+    }
+
+
+    /**
+     * Flushes the underlying index on disk
+     *
+     * @throws Exception If the index can't be flushed
+     */
+    public void sync() throws Exception
+    {
+        ngramIdx.sync();
+    }
+
+
+    /**
+     * Closes the underlying index
+     *
+     * @throws Exception If the index can't be closed
+     */
+    public void close() throws Exception
+    {
+        ngramIdx.close();
+    }
+
+
+    /**
+     * @see Object#toString()
+     */
+    public String toString()
+    {
+        return "NgramIndex<" + attributeType.getName() + ", " + ngramSize + ">";
+    }
+}
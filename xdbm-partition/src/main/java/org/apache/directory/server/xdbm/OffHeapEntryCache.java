@@ -0,0 +1,478 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.xdbm;
+
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.server.core.api.monitor.MonitorCounter;
+import org.apache.directory.server.core.api.monitor.MonitorRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * An entry cache storing the serialized entries out of the Java heap, in direct
+ * buffers. Its size is expressed in bytes, not in number of entries, and the cached
+ * entries don't put any pressure on the garbage collector. An entry is deserialized
+ * each time it's read from the cache.
+ * <br>
+ * The memory is split into segments, used as a ring : the entries are appended to
+ * the current segment, and when it's full, the next one is reused, the entries it
+ * contains being evicted. An entry read from the next segment to be reused is
+ * appended again, so that the frequently read entries stay in the cache.
+ * <br>
+ * The serialization is left to the implementations, which reuse the serializer
+ * of their master table.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public abstract class OffHeapEntryCache
+{
+    /** A logger for this class */
+    private static final Logger LOG = LoggerFactory.getLogger( OffHeapEntryCache.class );
+
+    /** One megabyte */
+    public static final long MEGABYTE = 1024L * 1024L;
+
+    /** The maximum size of a segment */
+    public static final int MAX_SEGMENT_SIZE = 16 * 1024 * 1024;
+
+    /** The minimum number of segments */
+    private static final int MIN_NB_SEGMENTS = 4;
+
+    /** The size of the header preceding each entry : its length */
+    private static final int HEADER_SIZE = 4;
+
+    /** The segments, allocated when they are used for the first time */
+    private final ByteBuffer[] segments;
+
+    /** The IDs of the entries stored in each segment */
+    private final List<List<String>> segmentIds;
+
+    /** The number of bytes used in each segment */
+    private final int[] segmentUsed;
+
+    /** The size of a segment */
+    private final int segmentSize;
+
+    /** The location of each cached entry : the segment in the high bits, the offset in the low bits */
+    private final Map<String, Long> locations = new HashMap<String, Long>();
+
+    /** The segment entries are appended to */
+    private int currentSegment;
+
+    /** The position in the current segment */
+    private int position;
+
+    /** The number of bytes used by the cached entries */
+    private long usedBytes;
+
+    /** The number of successful lookups */
+    private final MonitorCounter hits = new MonitorCounter();
+
+    /** The number of failed lookups */
+    private final MonitorCounter misses = new MonitorCounter();
+
+    /** The number of entries evicted to make room for new ones */
+    private final MonitorCounter evictions = new MonitorCounter();
+
+
+    /**
+     * Creates a new instance of OffHeapEntryCache.
+     *
+     * @param sizeInMb The size of the cache, in megabytes
+     */
+    public OffHeapEntryCache( int sizeInMb )
+    {
+        if ( sizeInMb <= 0 )
+        {
+            throw new IllegalArgumentException( "Invalid cache size : " + sizeInMb );
+        }
+
+        long capacity = sizeInMb * MEGABYTE;
+        int nbSegments = ( int ) Math.max( MIN_NB_SEGMENTS, capacity / MAX_SEGMENT_SIZE );
+
+        segmentSize = ( int ) ( capacity / nbSegments );
+        segments = new ByteBuffer[nbSegments];
+        segmentUsed = new int[nbSegments];
+        segmentIds = new ArrayList<List<String>>( nbSegments );
+
+        for ( int i = 0; i < nbSegments; i++ )
+        {
+            segmentIds.add( new ArrayList<String>() );
+        }
+
+        LOG.debug( "Creating an off-heap entry cache of {} segments of {} bytes", nbSegments, segmentSize );
+    }
+
+
+    /**
+     * Serializes an entry
+     *
+     * @param entry The entry to serialize
+     * @return The serialized entry
+     * @throws IOException If the entry can't be serialized
+     */
+    protected abstract byte[] serialize( Entry entry ) throws IOException;
+
+
+    /**
+     * Deserializes an entry
+     *
+     * @param bytes The serialized entry
+     * @return The entry
+     * @throws IOException If the entry can't be deserialized
+     */
+    protected abstract Entry deserialize( byte[] bytes ) throws IOException;
+
+
+    /**
+     * Gets an entry from the cache
+     *
+     * @param id The entry ID
+     * @return A copy of the cached entry, or null if it's not in the cache
+     */
+    public Entry get( String id )
+    {
+        byte[] bytes;
+
+        synchronized ( this )
+        {
+            Long location = locations.get( id );
+
+            if ( location == null )
+            {
+                misses.increment();
+
+                return null;
+            }
+
+            hits.increment();
+
+            int segment = ( int ) ( location >>> 32 );
+            int offset = ( int ) location.longValue();
+            ByteBuffer buffer = segments[segment];
+
+            bytes = new byte[buffer.getInt( offset )];
+            buffer.position( offset + HEADER_SIZE );
+            buffer.get( bytes );
+
+            // Give a second chance to the entries about to be evicted
+            if ( ( segment != currentSegment ) && ( segment == nextSegment() ) )
+            {
+                write( id, bytes );
+            }
+        }
+
+        try
+        {
+            return deserialize( bytes );
+        }
+        catch ( IOException ioe )
+        {
+            LOG.warn( "Cannot deserialize the cached entry " + id, ioe );
+            remove( id );
+
+            return null;
+        }
+    }
+
+
+    /**
+     * Adds an entry in the cache, replacing the previous version if any. The
+     * entries which are too big to be stored in a segment are not cached.
+     *
+     * @param id The entry ID
+     * @param entry The entry
+     */
+    public void put( String id, Entry entry )
+    {
+        byte[] bytes = toBytes( id, entry );
+
+        synchronized ( this )
+        {
+            if ( bytes == null )
+            {
+                locations.remove( id );
+            }
+            else
+            {
+                write( id, bytes );
+            }
+        }
+    }
+
+
+    /**
+     * Replaces an entry in the cache, if it's present.
+     *
+     * @param id The entry ID
+     * @param entry The new version of the entry
+     */
+    public void replace( String id, Entry entry )
+    {
+        synchronized ( this )
+        {
+            if ( !locations.containsKey( id ) )
+            {
+                return;
+            }
+        }
+
+        put( id, entry );
+    }
+
+
+    /**
+     * Removes an entry from the cache
+     *
+     * @param id The entry ID
+     */
+    public synchronized void remove( String id )
+    {
+        locations.remove( id );
+    }
+
+
+    /**
+     * Removes all the entries from the cache. The memory is kept for the next entries.
+     */
+    public synchronized void clear()
+    {
+        locations.clear();
+
+        for ( int i = 0; i < segments.length; i++ )
+        {
+            segmentIds.get( i ).clear();
+            segmentUsed[i] = 0;
+        }
+
+        currentSegment = 0;
+        position = 0;
+        usedBytes = 0L;
+    }
+
+
+    /**
+     * Serializes an entry, returning null if it can't be cached
+     */
+    private byte[] toBytes( String id, Entry entry )
+    {
+        try
+        {
+            byte[] bytes = serialize( entry );
+
+            if ( bytes.length + HEADER_SIZE > segmentSize )
+            {
+                LOG.debug( "The entry {} is too big to be cached ({} bytes)", id, bytes.length );
+
+                return null;
+            }
+
+            return bytes;
+        }
+        catch ( IOException ioe )
+        {
+            LOG.warn( "Cannot serialize the entry " + id + " in the cache", ioe );
+
+            return null;
+        }
+    }
+
+
+    /**
+     * @return The next segment to be reused
+     */
+    private int nextSegment()
+    {
+        return ( currentSegment + 1 ) % segments.length;
+    }
+
+
+    /**
+     * Appends a serialized entry in the current segment, moving to the next segment
+     * if there is not enough room left. The caller holds the lock.
+     */
+    private void write( String id, byte[] bytes )
+    {
+        int length = bytes.length + HEADER_SIZE;
+
+        if ( ( segments[currentSegment] == null ) || ( position + length > segmentSize ) )
+        {
+            if ( segments[currentSegment] != null )
+            {
+                currentSegment = nextSegment();
+            }
+
+            reclaim( currentSegment );
+        }
+
+        ByteBuffer buffer = segments[currentSegment];
+
+        buffer.putInt( position, bytes.length );
+        buffer.position( position + HEADER_SIZE );
+        buffer.put( bytes );
+
+        locations.put( id, ( ( ( long ) currentSegment ) << 32 ) | position );
+        segmentIds.get( currentSegment ).add( id );
+        segmentUsed[currentSegment] += length;
+        usedBytes += length;
+        position += length;
+    }
+
+
+    /**
+     * Evicts the entries stored in a segment, so that it can be reused
+     */
+    private void reclaim( int segment )
+    {
+        if ( segments[segment] == null )
+        {
+            segments[segment] = ByteBuffer.allocateDirect( segmentSize );
+        }
+
+        for ( String id : segmentIds.get( segment ) )
+        {
+            Long location = locations.get( id );
+
+            // The entry may have been rewritten in another segment since
+            if ( ( location != null ) && ( ( int ) ( location >>> 32 ) == segment ) )
+            {
+                locations.remove( id );
+                evictions.increment();
+            }
+        }
+
+        segmentIds.get( segment ).clear();
+        usedBytes -= segmentUsed[segment];
+        segmentUsed[segment] = 0;
+        position = 0;
+    }
+
+
+    /**
+     * @return The number of cached entries
+     */
+    public synchronized int size()
+    {
+        return locations.size();
+    }
+
+
+    /**
+     * @return The size of the cache, in bytes
+     */
+    public long getCapacity()
+    {
+        return ( long ) segmentSize * segments.length;
+    }
+
+
+    /**
+     * @return The number of bytes written in the cache, including the space used by
+     * the stale versions of the entries, which is reclaimed when their segment is reused
+     */
+    public synchronized long getUsedBytes()
+    {
+        return usedBytes;
+    }
+
+
+    /**
+     * @return The number of lookups which have found the entry in the cache
+     */
+    public long getHitCount()
+    {
+        return hits.getValue();
+    }
+
+
+    /**
+     * @return The number of lookups which have not found the entry in the cache
+     */
+    public long getMissCount()
+    {
+        return misses.getValue();
+    }
+
+
+    /**
+     * @return The ratio of lookups which have found the entry in the cache, between 0 and 1
+     */
+    public double getHitRatio()
+    {
+        long nbHits = hits.getValue();
+        long lookups = nbHits + misses.getValue();
+
+        if ( lookups == 0 )
+        {
+            return 0d;
+        }
+
+        return ( double ) nbHits / lookups;
+    }
+
+
+    /**
+     * @return The number of entries evicted to make room for new ones
+     */
+    public long getEvictionCount()
+    {
+        return evictions.getValue();
+    }
+
+
+    /**
+     * Registers the hits, misses and evictions counters of this cache in the
+     * {@link MonitorRegistry#CACHES} category.
+     *
+     * @param registry The registry
+     * @param name The cache name, used as a prefix of the counters names
+     */
+    public void registerStatistics( MonitorRegistry registry, String name )
+    {
+        registry.register( MonitorRegistry.CACHES, name + ".hits", hits );
+        registry.register( MonitorRegistry.CACHES, name + ".misses", misses );
+        registry.register( MonitorRegistry.CACHES, name + ".evictions", evictions );
+    }
+
+
+    /**
+     * @see Object#toString()
+     */
+    public synchronized String toString()
+    {
+        StringBuilder sb = new StringBuilder();
+
+        sb.append( "OffHeapEntryCache : " ).append( locations.size() ).append( " entries, " );
+        sb.append( usedBytes ).append( '/' ).append( getCapacity() ).append( " bytes, " );
+        sb.append( hits ).append( " hits, " ).append( misses ).append( " misses, " );
+        sb.append( evictions ).append( " evictions" );
+
+        return sb.toString();
+    }
+}
@@ -432,6 +432,36 @@ public interface Store
     MasterTable getMasterTable();
 
 
+    /**
+     * Expose the map associating the MasterTable entry IDs with dense ordinals,
+     * used to build compact candidate sets during searches.
+     * 
+     * @return The EntryOrdinalMap instance
+     */
+    EntryOrdinalMap getEntryOrdinalMap();
+
+
+    /**
+     * Get the n-gram index used to evaluate substring filters on an AttributeType
+     *
+     * @param attributeType The AttributeType
+     * @return The n-gram index, or null if there is none for this AttributeType
+     */
+    NgramIndex getNgramIndex( AttributeType attributeType );
+
+
+    /**
+     * Get the statistics of the user index on an AttributeType, used by the optimizer
+     * to estimate the scan counts. The statistics are computed if they are missing
+     * or outdated.
+     *
+     * @param attributeType The AttributeType
+     * @return The index statistics, or null if there is no user index for this AttributeType
+     * @throws Exception If the statistics can't be computed
+     */
+    IndexStatistics getIndexStatistics( AttributeType attributeType ) throws Exception;
+
+
     /**
      * @return The ReadWrite lock used to protect the server against concurrent read and writes
      */
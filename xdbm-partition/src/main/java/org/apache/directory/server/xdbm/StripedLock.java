@@ -0,0 +1,108 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.xdbm;
+
+
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+
+/**
+ * A fixed set of locks, each key being associated with one of them. Two operations
+ * on the same key always use the same lock, while operations on distinct keys
+ * most of the time use distinct locks, and can proceed concurrently.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class StripedLock
+{
+    /** The default number of stripes */
+    public static final int DEFAULT_NB_STRIPES = 64;
+
+    /** The locks */
+    private final Lock[] locks;
+
+    /** The mask used to select a lock, the number of locks being a power of 2 */
+    private final int mask;
+
+
+    /**
+     * Creates a new instance of StripedLock, with the default number of stripes.
+     */
+    public StripedLock()
+    {
+        this( DEFAULT_NB_STRIPES );
+    }
+
+
+    /**
+     * Creates a new instance of StripedLock.
+     *
+     * @param nbStripes The number of locks, rounded up to the next power of 2
+     */
+    public StripedLock( int nbStripes )
+    {
+        if ( nbStripes < 1 )
+        {
+            throw new IllegalArgumentException( "Invalid number of stripes : " + nbStripes );
+        }
+
+        int size = 1;
+
+        while ( size < nbStripes )
+        {
+            size <<= 1;
+        }
+
+        locks = new Lock[size];
+        mask = size - 1;
+
+        for ( int i = 0; i < size; i++ )
+        {
+            locks[i] = new ReentrantLock();
+        }
+    }
+
+
+    /**
+     * Gets the lock associated with a key
+     *
+     * @param key The key
+     * @return The lock to use for this key
+     */
+    public Lock getLock( Object key )
+    {
+        int hash = key.hashCode();
+
+        // Spread the high bits, as for a HashMap
+        hash ^= ( hash >>> 16 );
+
+        return locks[hash & mask];
+    }
+
+
+    /**
+     * @return The number of locks
+     */
+    public int size()
+    {
+        return locks.length;
+    }
+}
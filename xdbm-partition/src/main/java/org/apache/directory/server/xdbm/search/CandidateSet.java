@@ -0,0 +1,720 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.xdbm.search;
+
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.apache.directory.server.xdbm.EntryOrdinalMap;
+
+
+/**
+ * A compact set of candidate entry IDs, stored as a compressed bitmap of the
+ * entries ordinals (see {@link EntryOrdinalMap}).
+ * <br>
+ * The bitmap is split in chunks of 65536 ordinals, indexed by the 16 high bits
+ * of the ordinal. Each chunk is either a sorted array of the 16 low bits when it
+ * contains less than 4096 ordinals, or a plain 8kB bitmap otherwise. Unions and
+ * intersections are computed chunk by chunk, without creating any String.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class CandidateSet implements Iterable<String>
+{
+    /** The maximum number of values stored in an array chunk */
+    private static final int MAX_ARRAY_SIZE = 4096;
+
+    /** The number of longs in a bitmap chunk */
+    private static final int BITMAP_SIZE = 1024;
+
+    /** The map used to convert entry IDs to ordinals and back */
+    private final EntryOrdinalMap ordinalMap;
+
+    /** The sorted high 16 bits of the stored ordinals */
+    private char[] keys = new char[4];
+
+    /** The chunks, in the same order than the keys */
+    private Chunk[] chunks = new Chunk[4];
+
+    /** The number of chunks */
+    private int nbChunks;
+
+
+    /**
+     * Creates a new empty CandidateSet
+     *
+     * @param ordinalMap The map used to convert entry IDs to ordinals
+     */
+    public CandidateSet( EntryOrdinalMap ordinalMap )
+    {
+        this.ordinalMap = ordinalMap;
+    }
+
+
+    /**
+     * Adds an entry ID to this set.
+     *
+     * @param id The entry ID to add
+     * @return true if the ID was not already present in the set
+     */
+    public boolean add( String id )
+    {
+        return addOrdinal( ordinalMap.getOrdinal( id ) );
+    }
+
+
+    /**
+     * Adds an ordinal to this set.
+     *
+     * @param ordinal The ordinal to add
+     * @return true if the ordinal was not already present in the set
+     */
+    public boolean addOrdinal( int ordinal )
+    {
+        char high = ( char ) ( ordinal >>> 16 );
+        char low = ( char ) ordinal;
+        int pos = Arrays.binarySearch( keys, 0, nbChunks, high );
+
+        if ( pos >= 0 )
+        {
+            Chunk chunk = chunks[pos];
+
+            if ( ( chunk instanceof ArrayChunk ) && ( chunk.cardinality == MAX_ARRAY_SIZE )
+                && !chunk.contains( low ) )
+            {
+                chunk = ( ( ArrayChunk ) chunk ).toBitmap();
+                chunks[pos] = chunk;
+            }
+
+            return chunk.add( low );
+        }
+
+        Chunk chunk = new ArrayChunk();
+        chunk.add( low );
+        insertChunk( -pos - 1, high, chunk );
+
+        return true;
+    }
+
+
+    /**
+     * Tells if an entry ID is present in this set.
+     *
+     * @param id The entry ID we are looking for
+     * @return true if the ID is present
+     */
+    public boolean contains( String id )
+    {
+        int ordinal = ordinalMap.lookupOrdinal( id );
+
+        if ( ordinal == EntryOrdinalMap.NO_ORDINAL )
+        {
+            return false;
+        }
+
+        return containsOrdinal( ordinal );
+    }
+
+
+    /**
+     * Tells if an ordinal is present in this set.
+     *
+     * @param ordinal The ordinal we are looking for
+     * @return true if the ordinal is present
+     */
+    public boolean containsOrdinal( int ordinal )
+    {
+        int pos = Arrays.binarySearch( keys, 0, nbChunks, ( char ) ( ordinal >>> 16 ) );
+
+        return ( pos >= 0 ) && chunks[pos].contains( ( char ) ordinal );
+    }
+
+
+    /**
+     * @return The number of entry IDs stored in this set
+     */
+    public int size()
+    {
+        int size = 0;
+
+        for ( int i = 0; i < nbChunks; i++ )
+        {
+            size += chunks[i].cardinality;
+        }
+
+        return size;
+    }
+
+
+    /**
+     * @return true if this set does not contain any entry ID
+     */
+    public boolean isEmpty()
+    {
+        return nbChunks == 0;
+    }
+
+
+    /**
+     * Removes all the entry IDs from this set
+     */
+    public void clear()
+    {
+        Arrays.fill( chunks, 0, nbChunks, null );
+        nbChunks = 0;
+    }
+
+
+    /**
+     * Adds all the entry IDs present in another set into this set (union).
+     *
+     * @param other The set to merge into this set
+     */
+    public void or( CandidateSet other )
+    {
+        for ( int i = 0; i < other.nbChunks; i++ )
+        {
+            char high = other.keys[i];
+            int pos = Arrays.binarySearch( keys, 0, nbChunks, high );
+
+            if ( pos >= 0 )
+            {
+                chunks[pos] = chunks[pos].or( other.chunks[i] );
+            }
+            else
+            {
+                insertChunk( -pos - 1, high, other.chunks[i].copy() );
+            }
+        }
+    }
+
+
+    /**
+     * Removes from this set all the entry IDs which are not present in
+     * another set (intersection).
+     *
+     * @param other The set to intersect with this set
+     */
+    public void and( CandidateSet other )
+    {
+        int newNbChunks = 0;
+
+        for ( int i = 0; i < nbChunks; i++ )
+        {
+            int pos = Arrays.binarySearch( other.keys, 0, other.nbChunks, keys[i] );
+
+            if ( pos < 0 )
+            {
+                continue;
+            }
+
+            Chunk chunk = chunks[i].and( other.chunks[pos] );
+
+            if ( chunk.cardinality > 0 )
+            {
+                keys[newNbChunks] = keys[i];
+                chunks[newNbChunks] = chunk;
+                newNbChunks++;
+            }
+        }
+
+        Arrays.fill( chunks, newNbChunks, nbChunks, null );
+        nbChunks = newNbChunks;
+    }
+
+
+    /**
+     * Iterates over the entry IDs stored in this set, in ordinal order. The IDs
+     * of entries deleted since they were added to the set are skipped.
+     *
+     * @return An iterator over the stored entry IDs
+     */
+    public Iterator<String> iterator()
+    {
+        return new CandidateIterator();
+    }
+
+
+    /**
+     * Inserts a new chunk at a given position
+     */
+    private void insertChunk( int pos, char high, Chunk chunk )
+    {
+        if ( nbChunks == keys.length )
+        {
+            keys = Arrays.copyOf( keys, nbChunks * 2 );
+            chunks = Arrays.copyOf( chunks, nbChunks * 2 );
+        }
+
+        System.arraycopy( keys, pos, keys, pos + 1, nbChunks - pos );
+        System.arraycopy( chunks, pos, chunks, pos + 1, nbChunks - pos );
+        keys[pos] = high;
+        chunks[pos] = chunk;
+        nbChunks++;
+    }
+
+
+    /**
+     * @see Object#toString()
+     */
+    public String toString()
+    {
+        return "CandidateSet[" + size() + " candidates in " + nbChunks + " chunks]";
+    }
+
+
+    /**
+     * A set of 16 bits values sharing the same 16 high bits
+     */
+    private abstract static class Chunk
+    {
+        /** The number of values in this chunk */
+        protected int cardinality;
+
+
+        abstract boolean add( char value );
+
+
+        abstract boolean contains( char value );
+
+
+        /** Computes the union with another chunk. May modify and return this chunk */
+        abstract Chunk or( Chunk other );
+
+
+        /** Computes the intersection with another chunk. May modify and return this chunk */
+        abstract Chunk and( Chunk other );
+
+
+        abstract Chunk copy();
+
+
+        /** @return The position of the first value after the given position, or -1 */
+        abstract int next( int position );
+
+
+        /** @return The value stored at a position */
+        abstract char valueAt( int position );
+    }
+
+
+    /**
+     * A chunk storing up to 4096 values in a sorted array
+     */
+    private static final class ArrayChunk extends Chunk
+    {
+        private char[] values;
+
+
+        ArrayChunk()
+        {
+            values = new char[4];
+        }
+
+
+        ArrayChunk( char[] values, int cardinality )
+        {
+            this.values = values;
+            this.cardinality = cardinality;
+        }
+
+
+        boolean add( char value )
+        {
+            int pos = Arrays.binarySearch( values, 0, cardinality, value );
+
+            if ( pos >= 0 )
+            {
+                return false;
+            }
+
+            pos = -pos - 1;
+
+            if ( cardinality == values.length )
+            {
+                values = Arrays.copyOf( values, Math.min( cardinality * 2, MAX_ARRAY_SIZE ) );
+            }
+
+            System.arraycopy( values, pos, values, pos + 1, cardinality - pos );
+            values[pos] = value;
+            cardinality++;
+
+            return true;
+        }
+
+
+        boolean contains( char value )
+        {
+            return Arrays.binarySearch( values, 0, cardinality, value ) >= 0;
+        }
+
+
+        Chunk or( Chunk other )
+        {
+            if ( other instanceof BitmapChunk )
+            {
+                return other.copy().or( this );
+            }
+
+            ArrayChunk array = ( ArrayChunk ) other;
+            char[] merged = new char[cardinality + array.cardinality];
+            int i = 0;
+            int j = 0;
+            int k = 0;
+
+            while ( ( i < cardinality ) && ( j < array.cardinality ) )
+            {
+                char v1 = values[i];
+                char v2 = array.values[j];
+
+                if ( v1 < v2 )
+                {
+                    merged[k++] = v1;
+                    i++;
+                }
+                else if ( v1 > v2 )
+                {
+                    merged[k++] = v2;
+                    j++;
+                }
+                else
+                {
+                    merged[k++] = v1;
+                    i++;
+                    j++;
+                }
+            }
+
+            while ( i < cardinality )
+            {
+                merged[k++] = values[i++];
+            }
+
+            while ( j < array.cardinality )
+            {
+                merged[k++] = array.values[j++];
+            }
+
+            ArrayChunk result = new ArrayChunk( merged, k );
+
+            if ( k > MAX_ARRAY_SIZE )
+            {
+                return result.toBitmap();
+            }
+
+            return result;
+        }
+
+
+        Chunk and( Chunk other )
+        {
+            int k = 0;
+
+            // Values are only removed, so we can do it in place
+            for ( int i = 0; i < cardinality; i++ )
+            {
+                if ( other.contains( values[i] ) )
+                {
+                    values[k++] = values[i];
+                }
+            }
+
+            cardinality = k;
+
+            return this;
+        }
+
+
+        Chunk copy()
+        {
+            return new ArrayChunk( Arrays.copyOf( values, Math.max( cardinality, 4 ) ), cardinality );
+        }
+
+
+        int next( int position )
+        {
+            int next = position + 1;
+
+            return next < cardinality ? next : -1;
+        }
+
+
+        char valueAt( int position )
+        {
+            return values[position];
+        }
+
+
+        BitmapChunk toBitmap()
+        {
+            BitmapChunk bitmap = new BitmapChunk();
+
+            for ( int i = 0; i < cardinality; i++ )
+            {
+                bitmap.add( values[i] );
+            }
+
+            return bitmap;
+        }
+    }
+
+
+    /**
+     * A chunk storing its values as bits in a 65536 bits bitmap
+     */
+    private static final class BitmapChunk extends Chunk
+    {
+        private final long[] bits;
+
+
+        BitmapChunk()
+        {
+            bits = new long[BITMAP_SIZE];
+        }
+
+
+        BitmapChunk( long[] bits, int cardinality )
+        {
+            this.bits = bits;
+            this.cardinality = cardinality;
+        }
+
+
+        boolean add( char value )
+        {
+            int index = value >>> 6;
+            long mask = 1L << value;
+
+            if ( ( bits[index] & mask ) != 0 )
+            {
+                return false;
+            }
+
+            bits[index] |= mask;
+            cardinality++;
+
+            return true;
+        }
+
+
+        boolean contains( char value )
+        {
+            return ( bits[value >>> 6] & ( 1L << value ) ) != 0;
+        }
+
+
+        Chunk or( Chunk other )
+        {
+            if ( other instanceof ArrayChunk )
+            {
+                ArrayChunk array = ( ArrayChunk ) other;
+
+                for ( int i = 0; i < array.cardinality; i++ )
+                {
+                    add( array.values[i] );
+                }
+
+                return this;
+            }
+
+            long[] otherBits = ( ( BitmapChunk ) other ).bits;
+            int newCardinality = 0;
+
+            for ( int i = 0; i < BITMAP_SIZE; i++ )
+            {
+                bits[i] |= otherBits[i];
+                newCardinality += Long.bitCount( bits[i] );
+            }
+
+            cardinality = newCardinality;
+
+            return this;
+        }
+
+
+        Chunk and( Chunk other )
+        {
+            if ( other instanceof ArrayChunk )
+            {
+                // The result can't be bigger than the array
+                return other.copy().and( this );
+            }
+
+            long[] otherBits = ( ( BitmapChunk ) other ).bits;
+            int newCardinality = 0;
+
+            for ( int i = 0; i < BITMAP_SIZE; i++ )
+            {
+                bits[i] &= otherBits[i];
+                newCardinality += Long.bitCount( bits[i] );
+            }
+
+            cardinality = newCardinality;
+
+            if ( cardinality <= MAX_ARRAY_SIZE )
+            {
+                return toArray();
+            }
+
+            return this;
+        }
+
+
+        Chunk copy()
+        {
+            return new BitmapChunk( Arrays.copyOf( bits, BITMAP_SIZE ), cardinality );
+        }
+
+
+        int next( int position )
+        {
+            int value = position + 1;
+
+            if ( value >= 65536 )
+            {
+                return -1;
+            }
+
+            int index = value >>> 6;
+            long word = bits[index] & ( -1L << value );
+
+            while ( true )
+            {
+                if ( word != 0 )
+                {
+                    return ( index << 6 ) + Long.numberOfTrailingZeros( word );
+                }
+
+                index++;
+
+                if ( index == BITMAP_SIZE )
+                {
+                    return -1;
+                }
+
+                word = bits[index];
+            }
+        }
+
+
+        char valueAt( int position )
+        {
+            // In a bitmap, the position is the value
+            return ( char ) position;
+        }
+
+
+        ArrayChunk toArray()
+        {
+            char[] values = new char[Math.max( cardinality, 4 )];
+            int k = 0;
+
+            for ( int i = 0; i < BITMAP_SIZE; i++ )
+            {
+                long word = bits[i];
+
+                while ( word != 0 )
+                {
+                    values[k++] = ( char ) ( ( i << 6 ) + Long.numberOfTrailingZeros( word ) );
+                    word &= word - 1;
+                }
+            }
+
+            return new ArrayChunk( values, k );
+        }
+    }
+
+
+    /**
+     * An iterator over the IDs stored in the set
+     */
+    private final class CandidateIterator implements Iterator<String>
+    {
+        /** The current chunk */
+        private int chunkPos;
+
+        /** The current position in the current chunk */
+        private int valuePos = -1;
+
+        /** The next ID to return */
+        private String nextId;
+
+
+        CandidateIterator()
+        {
+            nextId = fetchNext();
+        }
+
+
+        private String fetchNext()
+        {
+            while ( chunkPos < nbChunks )
+            {
+                Chunk chunk = chunks[chunkPos];
+                valuePos = chunk.next( valuePos );
+
+                if ( valuePos == -1 )
+                {
+                    chunkPos++;
+                    valuePos = -1;
+                    continue;
+                }
+
+                int ordinal = ( keys[chunkPos] << 16 ) | chunk.valueAt( valuePos );
+                String id = ordinalMap.getId( ordinal );
+
+                if ( id != null )
+                {
+                    return id;
+                }
+            }
+
+            return null;
+        }
+
+
+        public boolean hasNext()
+        {
+            return nextId != null;
+        }
+
+
+        public String next()
+        {
+            if ( nextId == null )
+            {
+                throw new NoSuchElementException();
+            }
+
+            String id = nextId;
+            nextId = fetchNext();
+
+            return id;
+        }
+
+
+        public void remove()
+        {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
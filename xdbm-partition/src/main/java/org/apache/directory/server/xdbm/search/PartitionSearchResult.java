@@ -22,6 +22,7 @@ package org.apache.directory.server.xdbm.search;
 
 import java.util.Set;
 
+import org.apache.directory.api.ldap.model.cursor.Cursor;
 import org.apache.directory.api.ldap.model.cursor.SetCursor;
 import org.apache.directory.api.ldap.model.filter.ExprNode;
 import org.apache.directory.api.ldap.model.message.AliasDerefMode;
@@ -41,11 +42,11 @@ import org.apache.directory.server.xdbm.IndexEntry;
  */
 public class PartitionSearchResult
 {
-    /** The set of candidate UUIDs selected by the search */
-    private SetCursor<IndexEntry<String, String>> resultSet;
+    /** The candidate UUIDs selected by the search */
+    private Cursor<IndexEntry<String, String>> resultSet;
 
     /** The set of candidate UUIDs */
-    private Set<String> candidateSet;
+    private CandidateSet candidateSet;
 
     /** The flag indicating if we are dereferencing the aliases. Default to Never. */
     private AliasDerefMode aliasDerefMode = AliasDerefMode.NEVER_DEREF_ALIASES;
@@ -56,6 +57,9 @@ public class PartitionSearchResult
     /** The SchemaManager */
     private SchemaManager schemaManager;
 
+    /** The generation of the search in the EntryOrdinalMap, 0 if it is not registered */
+    private long searchGeneration;
+
 
     /**
      * Create a PartitionSearchResult instance
@@ -69,7 +73,7 @@ public class PartitionSearchResult
     /**
      * @return the resultSet
      */
-    public SetCursor<IndexEntry<String, String>> getResultSet()
+    public Cursor<IndexEntry<String, String>> getResultSet()
     {
         return resultSet;
     }
@@ -84,10 +88,21 @@ public class PartitionSearchResult
     }
 
 
+    /**
+     * Sets a Cursor returning the candidates as they are read from the indexes.
+     *
+     * @param cursor the cursor over the candidates
+     */
+    public void setResultSet( Cursor<IndexEntry<String, String>> cursor )
+    {
+        resultSet = cursor;
+    }
+
+
     /**
      * @return the candidateSet
      */
-    public Set<String> getCandidateSet()
+    public CandidateSet getCandidateSet()
     {
         return candidateSet;
     }
@@ -96,7 +111,7 @@ public class PartitionSearchResult
     /**
      * @param candidateSet the candidateSet to set
      */
-    public void setCandidateSet( Set<String> set )
+    public void setCandidateSet( CandidateSet set )
     {
         candidateSet = set;
     }
@@ -165,6 +180,24 @@ public class PartitionSearchResult
     }
 
 
+    /**
+     * @return the generation of the search in the EntryOrdinalMap, 0 if it is not registered
+     */
+    public long getSearchGeneration()
+    {
+        return searchGeneration;
+    }
+
+
+    /**
+     * @param searchGeneration the generation returned by EntryOrdinalMap.beginSearch()
+     */
+    public void setSearchGeneration( long searchGeneration )
+    {
+        this.searchGeneration = searchGeneration;
+    }
+
+
     /**
      * @return the schemaManager
      */
@@ -198,6 +231,11 @@ public class PartitionSearchResult
         {
             sb.append( "No UUID found" );
         }
+        else if ( !( resultSet instanceof SetCursor ) )
+        {
+            // Don't read the candidates from the indexes just to print them
+            sb.append( resultSet );
+        }
         else
         {
             sb.append( '{' );
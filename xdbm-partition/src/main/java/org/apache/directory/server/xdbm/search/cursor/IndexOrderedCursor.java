@@ -0,0 +1,476 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.xdbm.search.cursor;
+
+
+import java.util.Iterator;
+
+import org.apache.directory.api.ldap.model.constants.Loggers;
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.cursor.CursorException;
+import org.apache.directory.api.ldap.model.cursor.InvalidCursorPositionException;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.server.i18n.I18n;
+import org.apache.directory.server.xdbm.AbstractIndexCursor;
+import org.apache.directory.server.xdbm.Index;
+import org.apache.directory.server.xdbm.IndexEntry;
+import org.apache.directory.server.xdbm.Store;
+import org.apache.directory.server.xdbm.search.CandidateSet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * A Cursor returning the candidates of a search in the order of a user index, so
+ * that the entries don't have to be sorted when a server side sort is requested on
+ * the indexed attribute. The candidates which don't have the attribute are returned
+ * after the others, or before them in reverse order, as they are considered larger
+ * than any value.
+ * <br>
+ * In the natural order, a candidate is returned with its smallest value, and the IDs
+ * already returned are kept to skip the next values of multi-valued attributes. The
+ * reverse order is only meaningful for single valued attributes.
+ * <br>
+ * This Cursor can only move forward.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class IndexOrderedCursor extends AbstractIndexCursor<String>
+{
+    /** A dedicated log for cursors */
+    private static final Logger LOG_CURSOR = LoggerFactory.getLogger( Loggers.CURSOR_LOG.getName() );
+
+    /** Speedup for logs */
+    private static final boolean IS_DEBUG = LOG_CURSOR.isDebugEnabled();
+
+    /** The candidates having the attribute, read from the index */
+    private static final int INDEXED = 0;
+
+    /** The candidates not having the attribute */
+    private static final int MISSING = 1;
+
+    /** All the candidates have been returned */
+    private static final int DONE = 2;
+
+    /** The store */
+    private final Store store;
+
+    /** The index the candidates are ordered by */
+    private final Index<Object, String> index;
+
+    /** The candidates, or null if all the entries are candidates */
+    private final CandidateSet candidates;
+
+    /** Tells if the index is read in reverse order */
+    private final boolean reverse;
+
+    /** The IDs already returned, when the attribute can have many values */
+    private final CandidateSet returned;
+
+    /** The phases, in the order they are run */
+    private final int[] phases;
+
+    /** The position in the phases */
+    private int phase = -1;
+
+    /** The cursor over the index */
+    private Cursor<IndexEntry<Object, String>> indexCursor;
+
+    /** The candidates iterator, when looking for the candidates not having the attribute */
+    private Iterator<String> candidatesIterator;
+
+    /** The cursor over all the entries, when looking for the entries not having the attribute */
+    private Cursor<IndexEntry<String, String>> allEntriesCursor;
+
+    /** The current element */
+    private IndexEntry<String, String> current;
+
+
+    /**
+     * Creates a new instance of IndexOrderedCursor.
+     *
+     * @param store The store
+     * @param index The index the candidates are ordered by
+     * @param candidates The candidates, or null if all the entries are candidates
+     * @param reverse Tells if the candidates are returned in reverse order
+     */
+    @SuppressWarnings("unchecked")
+    public IndexOrderedCursor( Store store, Index<?, String> index, CandidateSet candidates, boolean reverse )
+    {
+        if ( IS_DEBUG )
+        {
+            LOG_CURSOR.debug( "Creating IndexOrderedCursor {}", this );
+        }
+
+        this.store = store;
+        this.index = ( Index<Object, String> ) index;
+        this.candidates = candidates;
+        this.reverse = reverse;
+
+        if ( reverse )
+        {
+            returned = null;
+            phases = new int[]
+                { MISSING, INDEXED, DONE };
+        }
+        else
+        {
+            returned = new CandidateSet( store.getEntryOrdinalMap() );
+            phases = new int[]
+                { INDEXED, MISSING, DONE };
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    protected String getUnsupportedMessage()
+    {
+        return UNSUPPORTED_MSG;
+    }
+
+
+    /**
+     * Moves to the next phase, opening the cursors it needs
+     */
+    private void nextPhase() throws LdapException, CursorException
+    {
+        closeCursors();
+        phase++;
+
+        try
+        {
+            switch ( phases[phase] )
+            {
+                case INDEXED:
+                    indexCursor = index.forwardCursor();
+
+                    if ( reverse )
+                    {
+                        indexCursor.afterLast();
+                    }
+                    else
+                    {
+                        indexCursor.beforeFirst();
+                    }
+
+                    break;
+
+                case MISSING:
+                    if ( candidates != null )
+                    {
+                        candidatesIterator = candidates.iterator();
+                    }
+                    else
+                    {
+                        allEntriesCursor = new AllEntriesCursor( store );
+                        allEntriesCursor.beforeFirst();
+                    }
+
+                    break;
+
+                default:
+                    break;
+            }
+        }
+        catch ( LdapException le )
+        {
+            throw le;
+        }
+        catch ( CursorException ce )
+        {
+            throw ce;
+        }
+        catch ( Exception e )
+        {
+            throw new CursorException( e );
+        }
+    }
+
+
+    /**
+     * Reads the next candidate having the attribute from the index
+     *
+     * @return The candidate ID, or null if the index has been read
+     */
+    private String nextIndexed() throws LdapException, CursorException
+    {
+        while ( reverse ? indexCursor.previous() : indexCursor.next() )
+        {
+            String id = indexCursor.get().getId();
+
+            if ( ( candidates != null ) && !candidates.contains( id ) )
+            {
+                continue;
+            }
+
+            // A multi-valued attribute is listed once per value
+            if ( ( returned != null ) && !returned.add( id ) )
+            {
+                continue;
+            }
+
+            return id;
+        }
+
+        return null;
+    }
+
+
+    /**
+     * Reads the next candidate which has not been returned from the index
+     *
+     * @return The candidate ID, or null if all the candidates have been read
+     */
+    private String nextMissing() throws LdapException, CursorException
+    {
+        while ( true )
+        {
+            String id;
+
+            if ( candidatesIterator != null )
+            {
+                if ( !candidatesIterator.hasNext() )
+                {
+                    return null;
+                }
+
+                id = candidatesIterator.next();
+            }
+            else if ( allEntriesCursor.next() )
+            {
+                id = allEntriesCursor.get().getId();
+            }
+            else
+            {
+                return null;
+            }
+
+            if ( returned != null )
+            {
+                // The candidates having the attribute have all been returned
+                if ( !returned.contains( id ) )
+                {
+                    return id;
+                }
+            }
+            else if ( !store.getPresenceIndex().forward( index.getAttribute().getOid(), id ) )
+            {
+                return id;
+            }
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean next() throws LdapException, CursorException
+    {
+        checkNotClosed( "next()" );
+
+        if ( phase < 0 )
+        {
+            nextPhase();
+        }
+
+        while ( phases[phase] != DONE )
+        {
+            String id = ( phases[phase] == INDEXED ) ? nextIndexed() : nextMissing();
+
+            if ( id != null )
+            {
+                current = new IndexEntry<String, String>();
+                current.setId( id );
+                current.setKey( id );
+
+                return setAvailable( true );
+            }
+
+            nextPhase();
+        }
+
+        current = null;
+
+        return setAvailable( false );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public IndexEntry<String, String> get() throws CursorException
+    {
+        checkNotClosed( "get()" );
+
+        if ( current == null )
+        {
+            throw new InvalidCursorPositionException( I18n.err( I18n.ERR_708 ) );
+        }
+
+        return current;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void beforeFirst() throws LdapException, CursorException
+    {
+        checkNotClosed( "beforeFirst()" );
+
+        if ( phase >= 0 )
+        {
+            throw new UnsupportedOperationException( getUnsupportedMessage() );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void afterLast() throws LdapException, CursorException
+    {
+        throw new UnsupportedOperationException( getUnsupportedMessage() );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean first() throws LdapException, CursorException
+    {
+        beforeFirst();
+
+        return next();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean last() throws LdapException, CursorException
+    {
+        throw new UnsupportedOperationException( getUnsupportedMessage() );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean previous() throws LdapException, CursorException
+    {
+        throw new UnsupportedOperationException( getUnsupportedMessage() );
+    }
+
+
+    /**
+     * Closes the cursors opened by the current phase
+     */
+    private void closeCursors()
+    {
+        if ( indexCursor != null )
+        {
+            indexCursor.close();
+            indexCursor = null;
+        }
+
+        if ( allEntriesCursor != null )
+        {
+            allEntriesCursor.close();
+            allEntriesCursor = null;
+        }
+
+        candidatesIterator = null;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close()
+    {
+        if ( IS_DEBUG )
+        {
+            LOG_CURSOR.debug( "Closing IndexOrderedCursor {}", this );
+        }
+
+        closeCursors();
+        super.close();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close( Exception cause )
+    {
+        if ( IS_DEBUG )
+        {
+            LOG_CURSOR.debug( "Closing IndexOrderedCursor {}", this );
+        }
+
+        closeCursors();
+        super.close( cause );
+    }
+
+
+    /**
+     * @see Object#toString()
+     */
+    public String toString( String tabs )
+    {
+        StringBuilder sb = new StringBuilder();
+
+        sb.append( tabs ).append( "IndexOrderedCursor (" );
+
+        if ( available() )
+        {
+            sb.append( "available)" );
+        }
+        else
+        {
+            sb.append( "absent)" );
+        }
+
+        sb.append( " : " ).append( index.getAttributeId() );
+
+        if ( reverse )
+        {
+            sb.append( " (reverse)" );
+        }
+
+        sb.append( '\n' );
+
+        return sb.toString();
+    }
+
+
+    /**
+     * @see Object#toString()
+     */
+    public String toString()
+    {
+        return toString( "" );
+    }
+}
@@ -0,0 +1,387 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.xdbm.search.cursor;
+
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.directory.api.ldap.model.constants.Loggers;
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.cursor.CursorException;
+import org.apache.directory.api.ldap.model.cursor.InvalidCursorPositionException;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.server.i18n.I18n;
+import org.apache.directory.server.xdbm.AbstractIndexCursor;
+import org.apache.directory.server.xdbm.IndexEntry;
+import org.apache.directory.server.xdbm.search.CandidateSet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * A Cursor over the candidates of a search, which are pulled from their source
+ * (a CandidateSet, or a Cursor over an index) only when the cursor moves forward.
+ * When the source is an index Cursor, the first candidate is available without
+ * having to read all of them, and a size limited search only reads the candidates
+ * it needs. When the source is a CandidateSet, the filter has already been fully
+ * evaluated : the cursor only avoids copying the candidates.
+ * <br>
+ * The IDs already read are kept, so that the cursor can be moved backward, or
+ * positioned before the first candidate again, as the search cursors allow it.
+ * Only the IDs are kept, not the entries. An ID returned several times by an index
+ * Cursor, for an entry having several matching values, is only returned once.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class StreamingCandidateCursor extends AbstractIndexCursor<String>
+{
+    /** A dedicated log for cursors */
+    private static final Logger LOG_CURSOR = LoggerFactory.getLogger( Loggers.CURSOR_LOG.getName() );
+
+    /** Speedup for logs */
+    private static final boolean IS_DEBUG = LOG_CURSOR.isDebugEnabled();
+
+    /** The candidate IDs, when the source is a CandidateSet */
+    private Iterator<String> candidates;
+
+    /** The index Cursor, when the source is a Cursor */
+    private final Cursor<IndexEntry<String, String>> wrapped;
+
+    /** The candidate IDs already read from the source */
+    private final List<String> ids = new ArrayList<String>();
+
+    /** The candidate IDs already read from the index Cursor, to skip the duplicates */
+    private Set<String> readIds;
+
+    /** Tells if all the candidates have been read from the source */
+    private boolean exhausted;
+
+    /** The current position in the IDs, -1 if we are before the first one */
+    private int position = -1;
+
+    /** The current element */
+    private IndexEntry<String, String> current;
+
+
+    /**
+     * Creates a new instance of StreamingCandidateCursor over a CandidateSet
+     *
+     * @param candidateSet The set of candidates
+     */
+    public StreamingCandidateCursor( CandidateSet candidateSet )
+    {
+        if ( IS_DEBUG )
+        {
+            LOG_CURSOR.debug( "Creating StreamingCandidateCursor {}", this );
+        }
+
+        candidates = candidateSet.iterator();
+        wrapped = null;
+    }
+
+
+    /**
+     * Creates a new instance of StreamingCandidateCursor over an index Cursor. The
+     * Cursor only has to be able to move forward.
+     *
+     * @param wrapped The Cursor returning the candidates
+     */
+    public StreamingCandidateCursor( Cursor<IndexEntry<String, String>> wrapped )
+    {
+        if ( IS_DEBUG )
+        {
+            LOG_CURSOR.debug( "Creating StreamingCandidateCursor {}", this );
+        }
+
+        this.wrapped = wrapped;
+        readIds = new HashSet<String>();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    protected String getUnsupportedMessage()
+    {
+        return UNSUPPORTED_MSG;
+    }
+
+
+    /**
+     * Reads the next candidate from the source
+     *
+     * @return true if a candidate has been read
+     */
+    private boolean pull() throws LdapException, CursorException
+    {
+        if ( exhausted )
+        {
+            return false;
+        }
+
+        if ( candidates != null )
+        {
+            if ( candidates.hasNext() )
+            {
+                ids.add( candidates.next() );
+
+                return true;
+            }
+
+            candidates = null;
+        }
+        else
+        {
+            while ( wrapped.next() )
+            {
+                String id = wrapped.get().getId();
+
+                if ( readIds.add( id ) )
+                {
+                    ids.add( id );
+
+                    return true;
+                }
+            }
+
+            // We don't need the source anymore
+            wrapped.close();
+            readIds = null;
+        }
+
+        exhausted = true;
+
+        return false;
+    }
+
+
+    /**
+     * Sets the current element
+     */
+    private boolean setCurrent( int newPosition )
+    {
+        position = newPosition;
+
+        if ( ( position < 0 ) || ( position >= ids.size() ) )
+        {
+            current = null;
+
+            return setAvailable( false );
+        }
+
+        current = new IndexEntry<String, String>();
+        current.setId( ids.get( position ) );
+        current.setKey( current.getId() );
+
+        return setAvailable( true );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void beforeFirst() throws LdapException, CursorException
+    {
+        checkNotClosed( "beforeFirst()" );
+
+        setCurrent( -1 );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void afterLast() throws LdapException, CursorException
+    {
+        checkNotClosed( "afterLast()" );
+
+        while ( pull() )
+        {
+            // Read all the remaining candidates
+        }
+
+        setCurrent( ids.size() );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean first() throws LdapException, CursorException
+    {
+        beforeFirst();
+
+        return next();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean last() throws LdapException, CursorException
+    {
+        afterLast();
+
+        return previous();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean next() throws LdapException, CursorException
+    {
+        checkNotClosed( "next()" );
+
+        if ( position >= ids.size() )
+        {
+            // Already after the last candidate
+            return false;
+        }
+
+        if ( ( position + 1 == ids.size() ) && !pull() )
+        {
+            return setCurrent( ids.size() );
+        }
+
+        return setCurrent( position + 1 );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean previous() throws LdapException, CursorException
+    {
+        checkNotClosed( "previous()" );
+
+        if ( position < 0 )
+        {
+            return false;
+        }
+
+        return setCurrent( position - 1 );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public IndexEntry<String, String> get() throws CursorException
+    {
+        checkNotClosed( "get()" );
+
+        if ( current == null )
+        {
+            throw new InvalidCursorPositionException( I18n.err( I18n.ERR_708 ) );
+        }
+
+        return current;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close()
+    {
+        if ( IS_DEBUG )
+        {
+            LOG_CURSOR.debug( "Closing StreamingCandidateCursor {}", this );
+        }
+
+        if ( ( wrapped != null ) && !exhausted )
+        {
+            wrapped.close();
+        }
+
+        super.close();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close( Exception cause )
+    {
+        if ( IS_DEBUG )
+        {
+            LOG_CURSOR.debug( "Closing StreamingCandidateCursor {}", this );
+        }
+
+        if ( ( wrapped != null ) && !exhausted )
+        {
+            wrapped.close( cause );
+        }
+
+        super.close( cause );
+    }
+
+
+    /**
+     * @see Object#toString()
+     */
+    public String toString( String tabs )
+    {
+        StringBuilder sb = new StringBuilder();
+
+        sb.append( tabs ).append( "StreamingCandidateCursor (" );
+
+        if ( available() )
+        {
+            sb.append( "available)" );
+        }
+        else
+        {
+            sb.append( "absent)" );
+        }
+
+        sb.append( " : " ).append( ids.size() ).append( " candidates read" );
+
+        if ( exhausted )
+        {
+            sb.append( " (all)" );
+        }
+
+        sb.append( '\n' );
+
+        if ( wrapped != null )
+        {
+            sb.append( wrapped.toString( tabs + "    " ) );
+        }
+
+        return sb.toString();
+    }
+
+
+    /**
+     * @see Object#toString()
+     */
+    public String toString()
+    {
+        return toString( "" );
+    }
+}
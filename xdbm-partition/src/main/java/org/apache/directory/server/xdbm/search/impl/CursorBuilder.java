@@ -20,10 +20,14 @@
 package org.apache.directory.server.xdbm.search.impl;
 
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Set;
 import java.util.regex.Pattern;
 
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.cursor.Cursor;
 import org.apache.directory.api.ldap.model.entry.Value;
 import org.apache.directory.api.ldap.model.filter.AndNode;
@@ -31,6 +35,7 @@ import org.apache.directory.api.ldap.model.filter.ApproximateNode;
 import org.apache.directory.api.ldap.model.filter.EqualityNode;
 import org.apache.directory.api.ldap.model.filter.ExprNode;
 import org.apache.directory.api.ldap.model.filter.GreaterEqNode;
+import org.apache.directory.api.ldap.model.filter.LeafNode;
 import org.apache.directory.api.ldap.model.filter.LessEqNode;
 import org.apache.directory.api.ldap.model.filter.NotNode;
 import org.apache.directory.api.ldap.model.filter.OrNode;
@@ -47,16 +52,31 @@ import org.apache.directory.api.ldap.model.schema.normalizers.NoOpNormalizer;
 import org.apache.directory.api.util.exception.NotImplementedException;
 import org.apache.directory.server.core.api.partition.Partition;
 import org.apache.directory.server.i18n.I18n;
+import org.apache.directory.server.xdbm.EmptyIndexCursor;
 import org.apache.directory.server.xdbm.Index;
 import org.apache.directory.server.xdbm.IndexEntry;
+import org.apache.directory.server.xdbm.NgramIndex;
 import org.apache.directory.server.xdbm.ParentIdAndRdn;
 import org.apache.directory.server.xdbm.SingletonIndexCursor;
 import org.apache.directory.server.xdbm.Store;
+import org.apache.directory.server.xdbm.search.CandidateSet;
 import org.apache.directory.server.xdbm.search.PartitionSearchResult;
+import org.apache.directory.server.xdbm.search.Evaluator;
 import org.apache.directory.server.xdbm.search.cursor.ApproximateCursor;
 import org.apache.directory.server.xdbm.search.cursor.ChildrenCursor;
 import org.apache.directory.server.xdbm.search.cursor.DescendantCursor;
+import org.apache.directory.server.xdbm.search.cursor.EqualityCursor;
+import org.apache.directory.server.xdbm.search.cursor.GreaterEqCursor;
+import org.apache.directory.server.xdbm.search.cursor.LessEqCursor;
+import org.apache.directory.server.xdbm.search.cursor.OrCursor;
+import org.apache.directory.server.xdbm.search.cursor.PresenceCursor;
+import org.apache.directory.server.xdbm.search.cursor.SubstringCursor;
 import org.apache.directory.server.xdbm.search.evaluator.ApproximateEvaluator;
+import org.apache.directory.server.xdbm.search.evaluator.EqualityEvaluator;
+import org.apache.directory.server.xdbm.search.evaluator.GreaterEqEvaluator;
+import org.apache.directory.server.xdbm.search.evaluator.LessEqEvaluator;
+import org.apache.directory.server.xdbm.search.evaluator.PresenceEvaluator;
+import org.apache.directory.server.xdbm.search.evaluator.SubstringEvaluator;
 
 
 /**
@@ -72,6 +92,29 @@ public class CursorBuilder
     /** Evaluator dependency on a EvaluatorBuilder */
     private EvaluatorBuilder evaluatorBuilder;
 
+    /**
+     * The maximum ratio between the scan count of a conjunction child and the number of
+     * candidates already selected for this child to be used in the intersection
+     */
+    private static final long MAX_INTERSECTION_RATIO = 16L;
+
+    /** Orders annotated nodes by increasing scan count */
+    private static final Comparator<ExprNode> SCAN_COUNT_COMPARATOR = new Comparator<ExprNode>()
+    {
+        public int compare( ExprNode node1, ExprNode node2 )
+        {
+            long count1 = ( Long ) node1.get( "count" );
+            long count2 = ( Long ) node2.get( "count" );
+
+            if ( count1 == count2 )
+            {
+                return 0;
+            }
+
+            return count1 < count2 ? -1 : 1;
+        }
+    };
+
 
     /**
      * Creates an expression tree enumerator.
@@ -164,7 +207,7 @@ public class CursorBuilder
                 .build( node ) );
 
         int nbResults = 0;
-        Set<String> uuidSet = searchResult.getCandidateSet();
+        CandidateSet uuidSet = searchResult.getCandidateSet();
 
         while ( cursor.next() )
         {
@@ -172,9 +215,8 @@ public class CursorBuilder
 
             String uuid = indexEntry.getId();
 
-            if ( !uuidSet.contains( uuid ) )
+            if ( uuidSet.add( uuid ) )
             {
-                uuidSet.add( uuid );
                 nbResults++;
             }
         }
@@ -196,7 +238,7 @@ public class CursorBuilder
 
         if ( thisCandidates != null )
         {
-            Set<String> candidates = searchResult.getCandidateSet();
+            CandidateSet candidates = searchResult.getCandidateSet();
 
             for ( String candidate : thisCandidates )
             {
@@ -216,7 +258,7 @@ public class CursorBuilder
             // Get the cursor using the index
             Index<T, String> userIndex = ( Index<T, String> ) db.getIndex( attributeType );
             Cursor<IndexEntry<T, String>> userIdxCursor = userIndex.forwardCursor( value.getValue() );
-            Set<String> uuidSet = searchResult.getCandidateSet();
+            CandidateSet uuidSet = searchResult.getCandidateSet();
 
             // And loop on it
             while ( userIdxCursor.next() )
@@ -225,10 +267,9 @@ public class CursorBuilder
 
                 String uuid = indexEntry.getId();
 
-                if ( !uuidSet.contains( uuid ) )
+                if ( uuidSet.add( uuid ) )
                 {
-                    // The UUID is not present in the Set, we add it
-                    uuidSet.add( uuid );
+                    // The UUID was not present in the Set, it has been added
                     nbResults++;
                 }
             }
@@ -268,7 +309,7 @@ public class CursorBuilder
             indexEntry.setKey( value.getValue() );
 
             userIdxCursor.before( indexEntry );
-            Set<String> uuidSet = searchResult.getCandidateSet();
+            CandidateSet uuidSet = searchResult.getCandidateSet();
 
             // And loop on it
             while ( userIdxCursor.next() )
@@ -277,10 +318,9 @@ public class CursorBuilder
 
                 String uuid = indexEntry.getId();
 
-                if ( !uuidSet.contains( uuid ) )
+                if ( uuidSet.add( uuid ) )
                 {
-                    // The UUID is not present in the Set, we add it
-                    uuidSet.add( uuid );
+                    // The UUID was not present in the Set, it has been added
                     nbResults++;
                 }
             }
@@ -320,7 +360,7 @@ public class CursorBuilder
             indexEntry.setKey( value.getValue() );
 
             userIdxCursor.after( indexEntry );
-            Set<String> uuidSet = searchResult.getCandidateSet();
+            CandidateSet uuidSet = searchResult.getCandidateSet();
 
             // And loop on it
             while ( userIdxCursor.previous() )
@@ -329,10 +369,9 @@ public class CursorBuilder
 
                 String uuid = indexEntry.getId();
 
-                if ( !uuidSet.contains( uuid ) )
+                if ( uuidSet.add( uuid ) )
                 {
-                    // The UUID is not present in the Set, we add it
-                    uuidSet.add( uuid );
+                    // The UUID was not present in the Set, it has been added
                     nbResults++;
                 }
             }
@@ -368,7 +407,7 @@ public class CursorBuilder
 
             // Position the index on the element we should start from
             IndexEntry<String, String> indexEntry = new IndexEntry<String, String>();
-            Set<String> uuidSet = searchResult.getCandidateSet();
+            CandidateSet uuidSet = searchResult.getCandidateSet();
 
             // And loop on it
             while ( presenceCursor.next() )
@@ -377,10 +416,9 @@ public class CursorBuilder
 
                 String uuid = indexEntry.getId();
 
-                if ( !uuidSet.contains( uuid ) )
+                if ( uuidSet.add( uuid ) )
                 {
-                    // The UUID is not present in the Set, we add it
-                    uuidSet.add( uuid );
+                    // The UUID was not present in the Set, it has been added
                     nbResults++;
                 }
             }
@@ -398,24 +436,271 @@ public class CursorBuilder
 
 
     /**
-     * Computes the set of candidates for a OneLevelScope filter. We will feed the set only if
-     * we have an index for the AT.
+     * Creates a Cursor reading the candidates of a filter from the indexes while it moves
+     * forward, instead of gathering them all first. The Cursor returns a superset of the
+     * entries matching the filter, each candidate being then checked with the filter's
+     * evaluator :
+     * <ul>
+     *   <li>a leaf node reads the index of its attribute</li>
+     *   <li>a scope node reads the RdnIndex</li>
+     *   <li>a conjunction reads the candidates of its most selective child only</li>
+     *   <li>a disjunction reads the candidates of all its children one after the other, an
+     *   entry selected by a previous child being skipped</li>
+     * </ul>
+     * The candidates can't be read from the indexes if a leaf node attribute is not indexed,
+     * for a negation, or if one child of a disjunction can't be. The aliases are not
+     * dereferenced. A candidate may be returned more than once, when it has several values
+     * selected by a leaf node.
+     *
+     * @param node The annotated filter
+     * @return A Cursor over the candidates, or null if the whole MasterTable has to be scanned
+     * @throws Exception on db access failures
      */
-    private long computeOneLevelScope( ScopeNode node, PartitionSearchResult searchResult )
-        throws Exception
+    @SuppressWarnings("unchecked")
+    public Cursor<IndexEntry<String, String>> buildCursor( ExprNode node ) throws Exception
     {
-        int nbResults = 0;
+        Object count = node.get( "count" );
+
+        if ( ( count != null ) && ( ( Long ) count ) == 0L )
+        {
+            return new EmptyIndexCursor<String>();
+        }
+
+        // Only the IDs of the candidates are read, whatever the type of the index keys
+        switch ( node.getAssertionType() )
+        {
+            case APPROXIMATE:
+                if ( !db.hasIndexOn( ( ( LeafNode ) node ).getAttributeType() ) )
+                {
+                    return null;
+                }
+
+                return new ApproximateCursor<String>( db, ( ApproximateEvaluator<String> ) evaluatorBuilder.build( node ) );
+
+            case EQUALITY:
+                if ( !db.hasIndexOn( ( ( LeafNode ) node ).getAttributeType() ) )
+                {
+                    return null;
+                }
+
+                return new EqualityCursor<String>( db, ( EqualityEvaluator<String> ) evaluatorBuilder.build( node ) );
 
+            case GREATEREQ:
+                if ( !db.hasIndexOn( ( ( LeafNode ) node ).getAttributeType() ) )
+                {
+                    return null;
+                }
+
+                return new GreaterEqCursor<String>( db, ( GreaterEqEvaluator<String> ) evaluatorBuilder.build( node ) );
+
+            case LESSEQ:
+                if ( !db.hasIndexOn( ( ( LeafNode ) node ).getAttributeType() ) )
+                {
+                    return null;
+                }
+
+                return new LessEqCursor<String>( db, ( LessEqEvaluator<String> ) evaluatorBuilder.build( node ) );
+
+            case PRESENCE:
+                // The presence index is not maintained for the system indexes
+                if ( !db.hasUserIndexOn( ( ( LeafNode ) node ).getAttributeType() ) )
+                {
+                    return null;
+                }
+
+                return new PresenceCursor( db, ( PresenceEvaluator ) evaluatorBuilder.build( node ) );
+
+            case SUBSTRING:
+                if ( !db.hasIndexOn( ( ( LeafNode ) node ).getAttributeType() ) )
+                {
+                    return null;
+                }
+
+                return new SubstringCursor( db, ( SubstringEvaluator ) evaluatorBuilder.build( node ) );
+
+            case SCOPE:
+                return buildScopeCursor( ( ScopeNode ) node );
+
+            case AND:
+                return buildAndCursor( ( AndNode ) node );
+
+            case OR:
+                return buildOrCursor( ( OrNode ) node );
+
+            case NOT:
+                return null;
+
+            case ASSERTION:
+            case EXTENSIBLE:
+                throw new NotImplementedException();
+
+            default:
+                throw new IllegalStateException( I18n.err( I18n.ERR_260, node.getAssertionType() ) );
+        }
+    }
+
+
+    /**
+     * Creates a Cursor over the candidates of the most selective child of a conjunction
+     * which candidates can be read from the indexes.
+     */
+    private Cursor<IndexEntry<String, String>> buildAndCursor( AndNode node ) throws Exception
+    {
+        List<ExprNode> children = new ArrayList<ExprNode>( node.getChildren().size() );
+        List<ExprNode> notAnnotated = new ArrayList<ExprNode>();
+
+        for ( ExprNode child : node.getChildren() )
+        {
+            if ( child.get( "count" ) != null )
+            {
+                children.add( child );
+            }
+            else
+            {
+                notAnnotated.add( child );
+            }
+        }
+
+        Collections.sort( children, SCAN_COUNT_COMPARATOR );
+        children.addAll( notAnnotated );
+
+        for ( ExprNode child : children )
+        {
+            Cursor<IndexEntry<String, String>> cursor = buildCursor( child );
+
+            if ( cursor != null )
+            {
+                return cursor;
+            }
+        }
+
+        return null;
+    }
+
+
+    /**
+     * Creates a Cursor over the candidates of all the children of a disjunction, if they all
+     * can be read from the indexes.
+     */
+    private Cursor<IndexEntry<String, String>> buildOrCursor( OrNode node ) throws Exception
+    {
+        List<Cursor<IndexEntry<String, String>>> cursors = new ArrayList<Cursor<IndexEntry<String, String>>>();
+        List<Evaluator<? extends ExprNode>> evaluators = new ArrayList<Evaluator<? extends ExprNode>>();
+
+        for ( ExprNode child : node.getChildren() )
+        {
+            Object count = child.get( "count" );
+
+            if ( ( count != null ) && ( ( Long ) count == 0L ) )
+            {
+                // The child will not return any candidate
+                continue;
+            }
+
+            Cursor<IndexEntry<String, String>> cursor = buildCursor( child );
+
+            if ( cursor == null )
+            {
+                // We will anyway do a full scan
+                for ( Cursor<IndexEntry<String, String>> built : cursors )
+                {
+                    built.close();
+                }
+
+                return null;
+            }
+
+            cursors.add( cursor );
+            evaluators.add( evaluatorBuilder.build( child ) );
+        }
+
+        switch ( cursors.size() )
+        {
+            case 0:
+                return new EmptyIndexCursor<String>();
+
+            case 1:
+                return cursors.get( 0 );
+
+            default:
+                return new OrCursor<String>( cursors, evaluators );
+        }
+    }
+
+
+    /**
+     * Creates a Cursor over the candidates of a scope node, read from the RdnIndex
+     * while the Cursor moves forward. The aliases are not dereferenced.
+     *
+     * @param node The scope node
+     * @return A Cursor over the entries in the scope
+     * @throws Exception on db access failures
+     */
+    public Cursor<IndexEntry<String, String>> buildScopeCursor( ScopeNode node ) throws Exception
+    {
+        switch ( node.getScope() )
+        {
+            case ONELEVEL:
+                return buildChildrenCursor( node.getBaseId() );
+
+            case SUBTREE:
+                return buildDescendantCursor( node.getBaseId() );
+
+            default:
+                throw new IllegalArgumentException( I18n.err( I18n.ERR_713 ) );
+        }
+    }
+
+
+    /**
+     * Creates a Cursor over the children of an entry
+     */
+    private Cursor<IndexEntry<String, String>> buildChildrenCursor( String baseId ) throws Exception
+    {
         // We use the RdnIndex to get all the entries from a starting point
         // and below up to the number of children
         Cursor<IndexEntry<ParentIdAndRdn, String>> rdnCursor = db.getRdnIndex().forwardCursor();
 
         IndexEntry<ParentIdAndRdn, String> startingPos = new IndexEntry<ParentIdAndRdn, String>();
-        startingPos.setKey( new ParentIdAndRdn( node.getBaseId(), ( Rdn[] ) null ) );
+        startingPos.setKey( new ParentIdAndRdn( baseId, ( Rdn[] ) null ) );
         rdnCursor.before( startingPos );
 
-        Cursor<IndexEntry<String, String>> scopeCursor = new ChildrenCursor( db, node.getBaseId(), rdnCursor );
-        Set<String> candidateSet = searchResult.getCandidateSet();
+        return new ChildrenCursor( db, baseId, rdnCursor );
+    }
+
+
+    /**
+     * Creates a Cursor over an entry and all its descendants
+     */
+    private Cursor<IndexEntry<String, String>> buildDescendantCursor( String baseId ) throws Exception
+    {
+        // We use the RdnIndex to get all the entries from a starting point
+        // and below up to the number of descendant
+        ParentIdAndRdn parentIdAndRdn = db.getRdnIndex().reverseLookup( baseId );
+        IndexEntry<ParentIdAndRdn, String> startingPos = new IndexEntry<ParentIdAndRdn, String>();
+
+        startingPos.setKey( parentIdAndRdn );
+        startingPos.setId( baseId );
+
+        Cursor<IndexEntry<ParentIdAndRdn, String>> rdnCursor = new SingletonIndexCursor<ParentIdAndRdn>(
+            startingPos );
+        String parentId = parentIdAndRdn.getParentId();
+
+        return new DescendantCursor( db, baseId, parentId, rdnCursor );
+    }
+
+
+    /**
+     * Computes the set of candidates for a OneLevelScope filter. We will feed the set only if
+     * we have an index for the AT.
+     */
+    private long computeOneLevelScope( ScopeNode node, PartitionSearchResult searchResult )
+        throws Exception
+    {
+        int nbResults = 0;
+
+        Cursor<IndexEntry<String, String>> scopeCursor = buildChildrenCursor( node.getBaseId() );
+        CandidateSet candidateSet = searchResult.getCandidateSet();
 
         // Fetch all the UUIDs if we have an index
         // And loop on it
@@ -438,29 +723,26 @@ public class CursorBuilder
 
                     // This is an alias. Add it to the set of candidates to process, if it's not already
                     // present in the candidate set 
-                    if ( !candidateSet.contains( aliasedId ) )
+                    if ( candidateSet.add( aliasedId ) )
                     {
-                        candidateSet.add( aliasedId );
                         nbResults++;
                     }
                 }
                 else
                 {
                     // This is not an alias
-                    if ( !candidateSet.contains( uuid ) )
+                    if ( candidateSet.add( uuid ) )
                     {
-                        // The UUID is not present in the Set, we add it
-                        candidateSet.add( uuid );
+                        // The UUID was not present in the Set, it has been added
                         nbResults++;
                     }
                 }
             }
             else
             {
-                if ( !candidateSet.contains( uuid ) )
+                if ( candidateSet.add( uuid ) )
                 {
-                    // The UUID is not present in the Set, we add it
-                    candidateSet.add( uuid );
+                    // The UUID was not present in the Set, it has been added
                     nbResults++;
                 }
             }
@@ -489,21 +771,8 @@ public class CursorBuilder
 
         int nbResults = 0;
 
-        // We use the RdnIndex to get all the entries from a starting point
-        // and below up to the number of descendant
-        String baseId = node.getBaseId();
-        ParentIdAndRdn parentIdAndRdn = db.getRdnIndex().reverseLookup( baseId );
-        IndexEntry<ParentIdAndRdn, String> startingPos = new IndexEntry<ParentIdAndRdn, String>();
-
-        startingPos.setKey( parentIdAndRdn );
-        startingPos.setId( baseId );
-
-        Cursor<IndexEntry<ParentIdAndRdn, String>> rdnCursor = new SingletonIndexCursor<ParentIdAndRdn>(
-            startingPos );
-        String parentId = parentIdAndRdn.getParentId();
-
-        Cursor<IndexEntry<String, String>> scopeCursor = new DescendantCursor( db, baseId, parentId, rdnCursor );
-        Set<String> candidateSet = searchResult.getCandidateSet();
+        Cursor<IndexEntry<String, String>> scopeCursor = buildDescendantCursor( node.getBaseId() );
+        CandidateSet candidateSet = searchResult.getCandidateSet();
 
         // Fetch all the UUIDs if we have an index
         // And loop on it
@@ -526,9 +795,8 @@ public class CursorBuilder
 
                     // This is an alias. Add it to the set of candidates to process, if it's not already
                     // present in the candidate set 
-                    if ( !candidateSet.contains( aliasedId ) )
+                    if ( candidateSet.add( aliasedId ) )
                     {
-                        candidateSet.add( aliasedId );
                         nbResults++;
 
                         ScopeNode newScopeNode = new ScopeNode(
@@ -543,20 +811,18 @@ public class CursorBuilder
                 else
                 {
                     // This is not an alias
-                    if ( !candidateSet.contains( uuid ) )
+                    if ( candidateSet.add( uuid ) )
                     {
-                        // The UUID is not present in the Set, we add it
-                        candidateSet.add( uuid );
+                        // The UUID was not present in the Set, it has been added
                         nbResults++;
                     }
                 }
             }
             else
             {
-                if ( !candidateSet.contains( uuid ) )
+                if ( candidateSet.add( uuid ) )
                 {
-                    // The UUID is not present in the Set, we add it
-                    candidateSet.add( uuid );
+                    // The UUID was not present in the Set, it has been added
                     nbResults++;
                 }
             }
@@ -580,12 +846,31 @@ public class CursorBuilder
         // Fetch all the UUIDs if we have an index
         if ( db.hasIndexOn( attributeType ) )
         {
+            String initial = node.getInitial();
+
+            if ( initial == null )
+            {
+                // Try to get the candidates from the n-gram index, if any. They will
+                // be checked against the filter when the entries are fetched
+                NgramIndex ngramIdx = db.getNgramIndex( attributeType );
+
+                if ( ngramIdx != null )
+                {
+                    long nbCandidates = ngramIdx.evaluate( node, searchResult.getCandidateSet(),
+                        db.getEntryOrdinalMap() );
+
+                    if ( nbCandidates != Long.MAX_VALUE )
+                    {
+                        return nbCandidates;
+                    }
+                }
+            }
+
             Index<String, String> userIndex = ( ( Index<String, String> ) db.getIndex( attributeType ) );
             Cursor<IndexEntry<String, String>> cursor = userIndex.forwardCursor();
 
             // Position the index on the element we should start from
             IndexEntry<String, String> indexEntry = new IndexEntry<String, String>();
-            String initial = node.getInitial();
             
             boolean fullIndexScan = false;
             
@@ -633,7 +918,7 @@ public class CursorBuilder
                 regexp = null;
             }
 
-            Set<String> uuidSet = searchResult.getCandidateSet();
+            CandidateSet uuidSet = searchResult.getCandidateSet();
 
             // And loop on it
             while ( cursor.next() )
@@ -658,10 +943,9 @@ public class CursorBuilder
                 
                 String uuid = indexEntry.getId();
 
-                if ( !uuidSet.contains( uuid ) )
+                if ( uuidSet.add( uuid ) )
                 {
-                    // The UUID is not present in the Set, we add it
-                    uuidSet.add( uuid );
+                    // The UUID was not present in the Set, it has been added
                     nbResults++;
                 }
             }
@@ -730,28 +1014,29 @@ public class CursorBuilder
 
 
     /**
-     * Creates an AndCursor over a conjunction expression branch node.
+     * Computes the candidates of a conjunction expression branch node. Each child
+     * having a known scan count produces its own set of candidates, and those sets
+     * are intersected, starting with the smallest one. We stop as soon as the
+     * intersection is empty, or when the next child would select far more candidates
+     * than the intersection already contains. The remaining selective children are
+     * then checked using their index, so that no entry has to be fetched from the
+     * MasterTable for a candidate which does not match all of them.
      *
      * @param node a conjunction expression branch node
-     * @return Cursor over the conjunction expression
+     * @return The number of candidates for the conjunction expression
      * @throws Exception on db access failures
      */
     private long computeAnd( AndNode node, PartitionSearchResult searchResult ) throws Exception
     {
-        int minIndex = 0;
-        long minValue = Long.MAX_VALUE;
-        long value = Long.MAX_VALUE;
-
         /*
-         * We scan the child nodes of a branch node searching for the child
-         * expression node with the smallest scan count.  This is the child
-         * we will use for iteration
+         * We scan the child nodes of a branch node to gather the ones which have
+         * a scan count, sorted by increasing scan count.
          */
         final List<ExprNode> children = node.getChildren();
+        List<ExprNode> candidateChildren = new ArrayList<ExprNode>( children.size() );
 
-        for ( int i = 0; i < children.size(); i++ )
+        for ( ExprNode child : children )
         {
-            ExprNode child = children.get( i );
             Object count = child.get( "count" );
 
             if ( count == null )
@@ -759,7 +1044,7 @@ public class CursorBuilder
                 continue;
             }
 
-            value = ( Long ) count;
+            long value = ( Long ) count;
 
             if ( value == 0L )
             {
@@ -767,18 +1052,165 @@ public class CursorBuilder
                 return 0L;
             }
 
-            if ( value < minValue )
+            if ( value < Long.MAX_VALUE )
             {
-                minValue = value;
-                minIndex = i;
+                candidateChildren.add( child );
             }
         }
 
-        // Once found we return the number of candidates for this child
-        ExprNode minChild = children.get( minIndex );
-        long nbResults = build( minChild, searchResult );
+        if ( candidateChildren.isEmpty() )
+        {
+            // No child can be used to select candidates : use the first one, as we used to
+            return build( children.get( 0 ), searchResult );
+        }
 
-        return nbResults;
+        Collections.sort( candidateChildren, SCAN_COUNT_COMPARATOR );
+
+        CandidateSet parentSet = searchResult.getCandidateSet();
+        CandidateSet intersection = null;
+        int pos = 0;
+
+        try
+        {
+            for ( ; pos < candidateChildren.size(); pos++ )
+            {
+                ExprNode child = candidateChildren.get( pos );
+
+                if ( ( intersection != null )
+                    && ( ( Long ) child.get( "count" ) > ( long ) intersection.size() * MAX_INTERSECTION_RATIO ) )
+                {
+                    // Fetching this child's candidates would cost more than checking
+                    // the candidates we already have : stop here
+                    break;
+                }
+
+                CandidateSet childSet = new CandidateSet( db.getEntryOrdinalMap() );
+                searchResult.setCandidateSet( childSet );
+
+                long nbResults = build( child, searchResult );
+
+                if ( nbResults == Long.MAX_VALUE )
+                {
+                    // This child does not restrict the candidates
+                    continue;
+                }
+
+                if ( intersection == null )
+                {
+                    intersection = childSet;
+                }
+                else
+                {
+                    intersection.and( childSet );
+                }
+
+                if ( intersection.isEmpty() )
+                {
+                    return 0L;
+                }
+            }
+        }
+        finally
+        {
+            searchResult.setCandidateSet( parentSet );
+        }
+
+        if ( intersection == null )
+        {
+            // We will have to do a full scan
+            return Long.MAX_VALUE;
+        }
+
+        // The remaining children select too many entries to be scanned. Still, if they
+        // are selective enough and can be checked using an index, we use this index to
+        // remove the candidates which don't match before any entry is fetched
+        long maxProbeCount = db.count() / 2;
+
+        for ( ; pos < candidateChildren.size(); pos++ )
+        {
+            ExprNode child = candidateChildren.get( pos );
+
+            if ( ( Long ) child.get( "count" ) > maxProbeCount )
+            {
+                // The remaining children are not selective enough
+                break;
+            }
+
+            CandidateSet retained = retainIndexed( child, intersection );
+
+            if ( retained != null )
+            {
+                intersection = retained;
+
+                if ( intersection.isEmpty() )
+                {
+                    return 0L;
+                }
+            }
+        }
+
+        // Now, merge the intersection with the candidates we already have
+        parentSet.or( intersection );
+
+        return intersection.size();
+    }
+
+
+    /**
+     * Checks a set of candidates against an Equality or a Presence node, using the
+     * index on the node's attribute : only the candidates present in the index for
+     * the asserted value are retained.
+     *
+     * @param node The node to check the candidates against
+     * @param candidates The candidates to check
+     * @return The retained candidates, or null if the node can't be checked with an index
+     * @throws Exception on db access failures
+     */
+    @SuppressWarnings("unchecked")
+    private CandidateSet retainIndexed( ExprNode node, CandidateSet candidates ) throws Exception
+    {
+        Index<Object, String> index = null;
+        Object key = null;
+
+        if ( node instanceof EqualityNode )
+        {
+            EqualityNode<?> equalityNode = ( EqualityNode<?> ) node;
+
+            if ( db.hasIndexOn( equalityNode.getAttributeType() ) )
+            {
+                index = ( Index<Object, String> ) db.getIndex( equalityNode.getAttributeType() );
+                key = equalityNode.getValue().getValue();
+            }
+        }
+        else if ( node instanceof PresenceNode )
+        {
+            AttributeType attributeType = ( ( PresenceNode ) node ).getAttributeType();
+
+            // Only the user indexed attributes and the AdministrativeRole are in the presence index
+            if ( db.hasUserIndexOn( attributeType )
+                || attributeType.getOid().equals( SchemaConstants.ADMINISTRATIVE_ROLE_AT_OID ) )
+            {
+                index = ( Index ) db.getPresenceIndex();
+                key = attributeType.getOid();
+            }
+        }
+
+        if ( index == null )
+        {
+            return null;
+        }
+
+        CandidateSet retained = new CandidateSet( db.getEntryOrdinalMap() );
+
+        for ( String uuid : candidates )
+        {
+            if ( index.forward( key, uuid ) )
+            {
+                retained.add( uuid );
+            }
+        }
+
+        return retained;
     }
 
 
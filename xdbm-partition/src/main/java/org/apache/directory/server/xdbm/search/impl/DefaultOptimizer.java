@@ -46,6 +46,8 @@ import org.apache.directory.api.util.Strings;
 import org.apache.directory.server.core.api.partition.Partition;
 import org.apache.directory.server.i18n.I18n;
 import org.apache.directory.server.xdbm.Index;
+import org.apache.directory.server.xdbm.IndexStatistics;
+import org.apache.directory.server.xdbm.NgramIndex;
 import org.apache.directory.server.xdbm.Store;
 import org.apache.directory.server.xdbm.search.Optimizer;
 
@@ -59,6 +61,15 @@ public class DefaultOptimizer<E> implements Optimizer
 {
     static final String CANDIDATES_ANNOTATION_KEY = "candidates";
 
+    /** The maximum number of candidates gathered by an equality scan */
+    private static final int MAX_EQUALITY_CANDIDATES = 100;
+
+    /**
+     * The estimated number of candidates above which we don't even try to
+     * gather the candidates of an equality scan
+     */
+    private static final long EQUALITY_CANDIDATES_THRESHOLD = 10L * MAX_EQUALITY_CANDIDATES;
+
     /** the database this optimizer operates on */
     private final Store db;
     private String contextEntryId;
@@ -304,6 +315,21 @@ public class DefaultOptimizer<E> implements Optimizer
         if ( db.hasIndexOn( node.getAttributeType() ) )
         {
             Index<V, String> idx = ( Index<V, String> ) db.getIndex( node.getAttributeType() );
+            IndexStatistics statistics = db.getIndexStatistics( node.getAttributeType() );
+            long estimate = IndexStatistics.UNKNOWN;
+
+            if ( statistics != null )
+            {
+                estimate = statistics.equalityCount( node.getValue().getValue() );
+
+                if ( estimate > EQUALITY_CANDIDATES_THRESHOLD )
+                {
+                    // Not selective enough, don't read the index
+                    node.set( CANDIDATES_ANNOTATION_KEY, null );
+
+                    return estimate;
+                }
+            }
 
             Cursor<String> result = idx.forwardValueCursor( node.getValue().getValue() );
             Set<String> values = new HashSet<String>();
@@ -315,7 +341,7 @@ public class DefaultOptimizer<E> implements Optimizer
                 nbFound++;
 
                 // Arbitrary stop gathering the candidates if we have more than 100
-                if ( nbFound == 100 )
+                if ( nbFound == MAX_EQUALITY_CANDIDATES )
                 {
                     break;
                 }
@@ -323,7 +349,7 @@ public class DefaultOptimizer<E> implements Optimizer
 
             result.close();
 
-            if ( nbFound < 100 )
+            if ( nbFound < MAX_EQUALITY_CANDIDATES )
             {
                 // Store the found candidates in the node
                 node.set( CANDIDATES_ANNOTATION_KEY, values );
@@ -335,6 +361,11 @@ public class DefaultOptimizer<E> implements Optimizer
                 // Reset the candidates annotation
                 node.set( CANDIDATES_ANNOTATION_KEY, null );
 
+                if ( estimate != IndexStatistics.UNKNOWN )
+                {
+                    return Math.max( estimate, MAX_EQUALITY_CANDIDATES );
+                }
+
                 return idx.count( node.getValue().getValue() );
             }
         }
@@ -358,6 +389,28 @@ public class DefaultOptimizer<E> implements Optimizer
     {
         if ( db.hasIndexOn( node.getAttributeType() ) )
         {
+            // Use the index statistics if we have some
+            IndexStatistics statistics = db.getIndexStatistics( node.getAttributeType() );
+
+            if ( statistics != null )
+            {
+                long estimate;
+
+                if ( isGreaterThan )
+                {
+                    estimate = statistics.greaterThanCount( node.getValue().getValue() );
+                }
+                else
+                {
+                    estimate = statistics.lessThanCount( node.getValue().getValue() );
+                }
+
+                if ( estimate != IndexStatistics.UNKNOWN )
+                {
+                    return estimate;
+                }
+            }
+
             Index<V, String> idx = ( Index<V, String> ) db.getIndex( node.getAttributeType() );
 
             if ( isGreaterThan )
@@ -390,16 +443,45 @@ public class DefaultOptimizer<E> implements Optimizer
         if ( db.hasIndexOn( node.getAttributeType() ) )
         {
             Index<String, String> idx = ( Index<String, String> ) db.getIndex( node.getAttributeType() );
+            IndexStatistics statistics = db.getIndexStatistics( node.getAttributeType() );
 
             String initial = node.getInitial();
 
             if ( Strings.isEmpty( initial ) )
             {
-                // Not a (attr=ABC*) filter : full index scan
+                // Not a (attr=ABC*) filter : use the n-gram index if any, otherwise
+                // we will have to do a full index scan
+                NgramIndex ngramIdx = db.getNgramIndex( node.getAttributeType() );
+
+                if ( ngramIdx != null )
+                {
+                    long count = ngramIdx.count( node );
+
+                    if ( count != Long.MAX_VALUE )
+                    {
+                        return count;
+                    }
+                }
+
+                if ( statistics != null )
+                {
+                    return Math.max( 1L, statistics.count() );
+                }
+
                 return idx.count();
             }
             else
             {
+                if ( statistics != null )
+                {
+                    long estimate = statistics.prefixCount( initial );
+
+                    if ( estimate != IndexStatistics.UNKNOWN )
+                    {
+                        return estimate;
+                    }
+                }
+
                 return idx.greaterThanCount( initial );
             }
         }
@@ -424,6 +506,13 @@ public class DefaultOptimizer<E> implements Optimizer
     {
         if ( db.hasIndexOn( node.getAttributeType() ) )
         {
+            IndexStatistics statistics = db.getIndexStatistics( node.getAttributeType() );
+
+            if ( statistics != null )
+            {
+                return Math.max( 1L, statistics.count() );
+            }
+
             Index<?, ?> idx = db.getIndex( node.getAttributeType() );
             return idx.count();
         }
@@ -444,6 +533,13 @@ public class DefaultOptimizer<E> implements Optimizer
     {
         if ( db.hasUserIndexOn( node.getAttributeType() ) )
         {
+            IndexStatistics statistics = db.getIndexStatistics( node.getAttributeType() );
+
+            if ( statistics != null )
+            {
+                return Math.max( 1L, statistics.getEntryCount() );
+            }
+
             Index<String, String> presenceIndex = db.getPresenceIndex();
 
             return presenceIndex.count( node.getAttributeType().getOid() );
@@ -27,6 +27,7 @@ import net.sf.ehcache.Element;
 
 import org.apache.directory.api.ldap.model.cursor.Cursor;
 import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.exception.LdapException;
 import org.apache.directory.api.ldap.model.exception.LdapNoSuchObjectException;
 import org.apache.directory.api.ldap.model.filter.AndNode;
 import org.apache.directory.api.ldap.model.filter.ExprNode;
@@ -34,18 +35,30 @@ import org.apache.directory.api.ldap.model.filter.ObjectClassNode;
 import org.apache.directory.api.ldap.model.filter.ScopeNode;
 import org.apache.directory.api.ldap.model.message.AliasDerefMode;
 import org.apache.directory.api.ldap.model.message.SearchScope;
+import org.apache.directory.api.ldap.model.message.controls.SortKey;
+import org.apache.directory.api.ldap.model.message.controls.SortRequest;
 import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.apache.directory.api.ldap.model.schema.LdapComparator;
+import org.apache.directory.api.ldap.model.schema.MatchingRule;
 import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.server.core.api.CoreSession;
 import org.apache.directory.server.core.api.interceptor.context.SearchOperationContext;
+import org.apache.directory.server.core.api.monitor.MonitorRegistry;
 import org.apache.directory.server.core.api.partition.Partition;
 import org.apache.directory.server.core.partition.impl.btree.IndexCursorAdaptor;
 import org.apache.directory.server.i18n.I18n;
+import org.apache.directory.server.xdbm.Index;
 import org.apache.directory.server.xdbm.IndexEntry;
 import org.apache.directory.server.xdbm.Store;
+import org.apache.directory.server.xdbm.search.CandidateSet;
 import org.apache.directory.server.xdbm.search.Evaluator;
 import org.apache.directory.server.xdbm.search.Optimizer;
 import org.apache.directory.server.xdbm.search.PartitionSearchResult;
 import org.apache.directory.server.xdbm.search.SearchEngine;
+import org.apache.directory.server.xdbm.search.cursor.AllEntriesCursor;
+import org.apache.directory.server.xdbm.search.cursor.IndexOrderedCursor;
+import org.apache.directory.server.xdbm.search.cursor.StreamingCandidateCursor;
 import org.apache.directory.server.xdbm.search.evaluator.BaseLevelScopeEvaluator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -74,6 +87,15 @@ public class DefaultSearchEngine implements SearchEngine
     /** creates evaluators which check to see if candidates satisfy a filter expression */
     private final EvaluatorBuilder evaluatorBuilder;
 
+    /** the plans computed for the filter shapes we have already seen */
+    private final QueryPlanCache queryPlanCache;
+
+    /** The minimal ratio of the indexed entries the candidates must represent to be read in the index order */
+    private static final int INDEX_ORDER_RATIO = 10;
+
+    /** tells if the candidates can be read from the indexes while the entries are returned */
+    private boolean streaming = true;
+
 
     // ------------------------------------------------------------------------
     // C O N S T R U C T O R S
@@ -94,6 +116,7 @@ public class DefaultSearchEngine implements SearchEngine
         this.optimizer = optimizer;
         this.cursorBuilder = cursorBuilder;
         this.evaluatorBuilder = evaluatorBuilder;
+        this.queryPlanCache = new QueryPlanCache( db, QueryPlanCache.DEFAULT_CACHE_SIZE );
     }
 
 
@@ -108,6 +131,49 @@ public class DefaultSearchEngine implements SearchEngine
     }
 
 
+    /**
+     * Tells if the searches read their candidates from the underlying indexes while
+     * the entries are returned, instead of gathering them all first. This is the default.
+     * <br>
+     * The filter is then evaluated lazily : an AND reads the candidates of its most
+     * selective indexed child, an OR merges the Cursors of all its children, and each
+     * candidate is checked against the whole filter by the evaluator. The filters which
+     * can't be read from an index walk the MasterTable. The sorted searches, and the
+     * searches dereferencing the aliases, still evaluate their filter into a CandidateSet
+     * before the first entry is returned.
+     *
+     * @return true if the streaming mode is enabled
+     */
+    public boolean isStreaming()
+    {
+        return streaming;
+    }
+
+
+    /**
+     * Enables or disables the streaming mode. In streaming mode, the index cursors
+     * are kept open until the search cursor is closed, so it should only be enabled
+     * if the underlying store supports reading while it's being modified.
+     *
+     * @param streaming true to enable the streaming mode
+     */
+    public void setStreaming( boolean streaming )
+    {
+        this.streaming = streaming;
+    }
+
+
+    /**
+     * Gets the query plan cache for this DefaultSearchEngine.
+     *
+     * @return the query plan cache
+     */
+    public QueryPlanCache getQueryPlanCache()
+    {
+        return queryPlanCache;
+    }
+
+
     /**
      * {@inheritDoc}
      */
@@ -235,11 +301,50 @@ public class DefaultSearchEngine implements SearchEngine
         }
 
         // Annotate the node with the optimizer and return search enumeration.
-        optimizer.annotate( root );
-        Evaluator<? extends ExprNode> evaluator = evaluatorBuilder.build( root );
+        // The plans are only meaningful for the DefaultOptimizer's counts
+        if ( optimizer instanceof DefaultOptimizer )
+        {
+            queryPlanCache.annotate( root, scope, optimizer );
+        }
+        else
+        {
+            optimizer.annotate( root );
+        }
 
-        Set<String> uuidSet = new HashSet<String>();
+        Evaluator<? extends ExprNode> evaluator = evaluatorBuilder.build( root );
         searchResult.setAliasDerefMode( aliasDerefMode );
+        searchResult.setEvaluator( evaluator );
+
+        // The first sort key, if the candidates can be read in the order of its index
+        SortKey orderingKey = getOrderingKey( schemaManager, searchContext );
+
+        if ( streaming && ( orderingKey == null ) && !searchResult.isDerefAlways()
+            && !searchResult.isDerefInSearching() )
+        {
+            // The filter is evaluated lazily : the candidates are read from the indexes while
+            // the entries are returned, and each one is checked using the evaluator
+            Cursor<IndexEntry<String, String>> candidates = cursorBuilder.buildCursor( root );
+
+            if ( candidates != null )
+            {
+                count( searchContext, MonitorRegistry.INDEX_SCANS, 1L );
+            }
+            else
+            {
+                // Full scan : read the MasterTable as the entries are returned
+                candidates = new AllEntriesCursor( db );
+                count( searchContext, MonitorRegistry.FULL_SCANS, 1L );
+            }
+
+            candidates.beforeFirst();
+            searchResult.setResultSet( new StreamingCandidateCursor( candidates ) );
+
+            return searchResult;
+        }
+
+        // The whole filter is evaluated here, before the first entry is returned, as the
+        // candidates have to be sorted or dereferenced
+        CandidateSet uuidSet = new CandidateSet( db.getEntryOrdinalMap() );
         searchResult.setCandidateSet( uuidSet );
 
         long nbResults = cursorBuilder.build( root, searchResult );
@@ -248,13 +353,49 @@ public class DefaultSearchEngine implements SearchEngine
 
         if ( nbResults < Long.MAX_VALUE )
         {
-            for ( String uuid : uuidSet )
+            count( searchContext, MonitorRegistry.INDEX_SCANS, 1L );
+            count( searchContext, MonitorRegistry.CANDIDATES, uuidSet.size() );
+        }
+        else
+        {
+            count( searchContext, MonitorRegistry.FULL_SCANS, 1L );
+        }
+
+        if ( orderingKey != null )
+        {
+            Index<?, String> index = db.getIndex( schemaManager.getAttributeType( orderingKey.getAttributeTypeDesc() ) );
+
+            // Walking the whole index is only worth it if it selects enough of the candidates
+            if ( ( nbResults == Long.MAX_VALUE ) || ( ( long ) uuidSet.size() * INDEX_ORDER_RATIO >= index.count() ) )
             {
-                IndexEntry<String, String> indexEntry = new IndexEntry<String, String>();
-                indexEntry.setId( uuid );
-                resultSet.add( indexEntry );
+                CandidateSet candidates = ( nbResults < Long.MAX_VALUE ) ? uuidSet : null;
+                StreamingCandidateCursor resultSet = new StreamingCandidateCursor( new IndexOrderedCursor( db,
+                    index, candidates, orderingKey.isReverseOrder() ) );
+
+                if ( !streaming )
+                {
+                    // Read all the candidates now, so that the index cursor is closed
+                    resultSet.afterLast();
+                    resultSet.beforeFirst();
+                }
+
+                searchResult.setResultSet( resultSet );
+                searchContext.setSortedByFirstKey( true );
+
+                return searchResult;
             }
         }
+
+        if ( nbResults < Long.MAX_VALUE )
+        {
+            // The candidates are read from the set as the entries are returned, without being copied
+            searchResult.setResultSet( new StreamingCandidateCursor( uuidSet ) );
+        }
+        else if ( streaming )
+        {
+            // Full scan : read the MasterTable as the entries are returned
+            searchResult.setResultSet( new StreamingCandidateCursor( new AllEntriesCursor( db ) ) );
+        }
         else
         {
             // Full scan : use the MasterTable
@@ -272,15 +413,95 @@ public class DefaultSearchEngine implements SearchEngine
 
                 resultSet.add( forwardIndexEntry );
             }
-        }
 
-        searchResult.setEvaluator( evaluator );
-        searchResult.setResultSet( resultSet );
+            cursor.close();
+
+            searchResult.setResultSet( resultSet );
+        }
 
         return searchResult;
     }
 
 
+    /**
+     * Adds a value to a search counter of the partition, if the search comes from a
+     * DirectoryService.
+     */
+    private void count( SearchOperationContext searchContext, String counter, long value )
+    {
+        CoreSession session = searchContext.getSession();
+
+        if ( ( session == null ) || ( session.getDirectoryService() == null ) )
+        {
+            return;
+        }
+
+        MonitorRegistry registry = session.getDirectoryService().getMonitorRegistry();
+        registry.getCounter( MonitorRegistry.SEARCH, ( ( Partition ) db ).getId() + "." + counter ).add( value );
+    }
+
+
+    /**
+     * Gets the first key of the server side sort control, if the candidates can be read
+     * in the order of the index on its attribute. The index must be ordered with the
+     * comparator used to sort, and a reverse order can only be used on a single valued
+     * attribute, as the entries are sorted using their smallest value.
+     *
+     * @param schemaManager The SchemaManager
+     * @param searchContext The search context
+     * @return The first sort key, or null if the candidates can't be read in the index order
+     */
+    private SortKey getOrderingKey( SchemaManager schemaManager, SearchOperationContext searchContext )
+        throws Exception
+    {
+        SortRequest sortControl = ( SortRequest ) searchContext.getRequestControl( SortRequest.OID );
+
+        if ( ( sortControl == null ) || ( sortControl.getSortKeys() == null ) || sortControl.getSortKeys().isEmpty() )
+        {
+            return null;
+        }
+
+        SortKey sortKey = sortControl.getSortKeys().get( 0 );
+        AttributeType attributeType = schemaManager.getAttributeType( sortKey.getAttributeTypeDesc() );
+
+        if ( ( attributeType == null ) || ( attributeType.getEquality() == null ) || !db.hasUserIndexOn( attributeType ) )
+        {
+            return null;
+        }
+
+        if ( sortKey.isReverseOrder() && !attributeType.isSingleValued() )
+        {
+            return null;
+        }
+
+        String sortRuleOid = sortKey.getMatchingRuleId();
+
+        if ( sortRuleOid == null )
+        {
+            MatchingRule ordering = attributeType.getOrdering();
+            sortRuleOid = ( ordering != null ) ? ordering.getOid() : attributeType.getEquality().getOid();
+        }
+
+        try
+        {
+            LdapComparator<?> sortComparator = schemaManager.lookupComparatorRegistry( sortRuleOid );
+            LdapComparator<?> indexComparator = schemaManager.lookupComparatorRegistry( attributeType.getEquality()
+                .getOid() );
+
+            if ( sortComparator.getClass() != indexComparator.getClass() )
+            {
+                return null;
+            }
+        }
+        catch ( LdapException le )
+        {
+            return null;
+        }
+
+        return sortKey;
+    }
+
+
     /**
      * @see SearchEngine#evaluator(ExprNode)
      */
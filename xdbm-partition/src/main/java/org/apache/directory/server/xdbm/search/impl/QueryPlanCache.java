@@ -0,0 +1,543 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.xdbm.search.impl;
+
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.directory.api.ldap.model.filter.AndNode;
+import org.apache.directory.api.ldap.model.filter.ApproximateNode;
+import org.apache.directory.api.ldap.model.filter.BranchNode;
+import org.apache.directory.api.ldap.model.filter.EqualityNode;
+import org.apache.directory.api.ldap.model.filter.ExprNode;
+import org.apache.directory.api.ldap.model.filter.ExtensibleNode;
+import org.apache.directory.api.ldap.model.filter.GreaterEqNode;
+import org.apache.directory.api.ldap.model.filter.LeafNode;
+import org.apache.directory.api.ldap.model.filter.LessEqNode;
+import org.apache.directory.api.ldap.model.filter.NotNode;
+import org.apache.directory.api.ldap.model.filter.OrNode;
+import org.apache.directory.api.ldap.model.filter.PresenceNode;
+import org.apache.directory.api.ldap.model.filter.ScopeNode;
+import org.apache.directory.api.ldap.model.filter.SubstringNode;
+import org.apache.directory.api.ldap.model.message.SearchScope;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.apache.directory.server.xdbm.Store;
+import org.apache.directory.server.xdbm.search.Optimizer;
+
+
+/**
+ * A bounded cache of query plans, keyed by the shape of the filter : its structure
+ * and the attributes it uses, without the asserted values. Applications usually
+ * send a few filter templates with different values, and the relative selectivity
+ * of the template's nodes rarely depends on those values.
+ * <br>
+ * A plan remembers the scan counts of the conjunction children computed the first
+ * time a filter shape is seen. The CursorBuilder fetches the candidates of every
+ * child having a bounded count, from the smallest count to the biggest one, and
+ * intersects them, so those counts only decide the order in which the children are
+ * read and when the intersection stops. When the same shape is searched again, the
+ * most selective child of each conjunction is annotated by the optimizer, and the
+ * other leaves reuse their cached counts, which saves the index lookups the
+ * optimizer would do for them. The non-leaf nodes, the scope nodes and the children
+ * of disjunctions and negations are always annotated by the optimizer, as their
+ * counts depend on the search base or can't be safely approximated.
+ * <br>
+ * Only the counts are cached : the evaluators and the cursors hold the asserted
+ * values, and are built for each search.
+ * <br>
+ * A plan is dropped when the number of entries in the partition or the number of
+ * values in the index of one of the reused leaves has changed too much since it
+ * was computed, when the schema has been reloaded, or when the most selective child
+ * is no longer the one we started with.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class QueryPlanCache
+{
+    /** The default number of plans kept in the cache */
+    public static final int DEFAULT_CACHE_SIZE = 256;
+
+    /** The maximum ratio of entries or index values added or deleted before a plan is recomputed */
+    private static final long MAX_ENTRIES_DRIFT_RATIO = 5L;
+
+    /** A marker for the counts which are not known */
+    private static final long UNKNOWN = -1L;
+
+    /** The database the plans are computed for */
+    private final Store db;
+
+    /** The cached plans, in access order */
+    private final Map<String, PlanNode> plans;
+
+    /** The number of searches which used a cached plan */
+    private long hits;
+
+    /** The number of searches which had to compute a plan */
+    private long misses;
+
+
+    /**
+     * A node of a cached plan, mirroring a node of the filter.
+     */
+    private static final class PlanNode
+    {
+        /** The scan count of the filter node, or UNKNOWN */
+        private final long count;
+
+        /** The filter node AttributeType, for the leaves */
+        private final AttributeType attributeType;
+
+        /** The children plans, for the branch nodes */
+        private final PlanNode[] children;
+
+        /** The number of entries in the partition when the plan was computed */
+        private final long nbEntries;
+
+        /** The number of values in the leaf index when the plan was computed, or UNKNOWN */
+        private final long indexCount;
+
+
+        private PlanNode( long count, AttributeType attributeType, PlanNode[] children, long nbEntries,
+            long indexCount )
+        {
+            this.count = count;
+            this.attributeType = attributeType;
+            this.children = children;
+            this.nbEntries = nbEntries;
+            this.indexCount = indexCount;
+        }
+    }
+
+
+    /**
+     * Creates a new instance of QueryPlanCache.
+     *
+     * @param db The database the plans are computed for
+     * @param cacheSize The maximum number of plans to keep
+     */
+    public QueryPlanCache( Store db, final int cacheSize )
+    {
+        this.db = db;
+
+        plans = new LinkedHashMap<String, PlanNode>( 16, 0.75f, true )
+        {
+            private static final long serialVersionUID = 1L;
+
+
+            protected boolean removeEldestEntry( Map.Entry<String, PlanNode> eldest )
+            {
+                return size() > cacheSize;
+            }
+        };
+    }
+
+
+    /**
+     * Annotates a filter with scan counts, using a cached plan if we have one for
+     * this filter shape.
+     *
+     * @param root The filter to annotate
+     * @param scope The search scope
+     * @param optimizer The optimizer used to compute the counts
+     * @return The root node scan count
+     * @throws Exception If the counts can't be computed
+     */
+    public Long annotate( ExprNode root, SearchScope scope, Optimizer optimizer ) throws Exception
+    {
+        if ( !( root instanceof AndNode ) )
+        {
+            // Nothing to gain
+            return optimizer.annotate( root );
+        }
+
+        StringBuilder sb = new StringBuilder();
+        sb.append( scope.getScope() ).append( ':' );
+        buildShape( root, sb );
+        String shape = sb.toString();
+
+        PlanNode plan = null;
+
+        synchronized ( plans )
+        {
+            plan = plans.get( shape );
+        }
+
+        long nbEntries = db.count();
+
+        if ( ( plan != null ) && !hasDrifted( plan.nbEntries, nbEntries ) )
+        {
+            long count = apply( root, plan, optimizer );
+
+            if ( count != UNKNOWN )
+            {
+                synchronized ( plans )
+                {
+                    hits++;
+                }
+
+                return count;
+            }
+        }
+
+        // No valid plan : annotate the whole filter, and remember the counts
+        Long count = optimizer.annotate( root );
+        plan = record( root, nbEntries );
+
+        synchronized ( plans )
+        {
+            misses++;
+            plans.put( shape, plan );
+        }
+
+        return count;
+    }
+
+
+    /**
+     * Tells if a number of entries or index values has changed too much for a plan to be reused
+     */
+    private boolean hasDrifted( long planCount, long count )
+    {
+        return Math.abs( count - planCount ) * MAX_ENTRIES_DRIFT_RATIO > planCount;
+    }
+
+
+    /**
+     * Appends the shape of a filter node to a StringBuilder : its type, its
+     * attribute and its children, but not its value.
+     */
+    private void buildShape( ExprNode node, StringBuilder sb )
+    {
+        if ( node instanceof BranchNode )
+        {
+            if ( node instanceof AndNode )
+            {
+                sb.append( "(&" );
+            }
+            else if ( node instanceof OrNode )
+            {
+                sb.append( "(|" );
+            }
+            else if ( node instanceof NotNode )
+            {
+                sb.append( "(!" );
+            }
+            else
+            {
+                sb.append( '(' ).append( node.getClass().getSimpleName() );
+            }
+
+            for ( ExprNode child : ( ( BranchNode ) node ).getChildren() )
+            {
+                buildShape( child, sb );
+            }
+
+            sb.append( ')' );
+
+            return;
+        }
+
+        sb.append( '(' );
+
+        if ( node instanceof ScopeNode )
+        {
+            sb.append( "scope" );
+        }
+        else if ( node instanceof LeafNode )
+        {
+            AttributeType attributeType = ( ( LeafNode ) node ).getAttributeType();
+
+            if ( attributeType != null )
+            {
+                sb.append( attributeType.getOid() );
+            }
+
+            if ( node instanceof EqualityNode )
+            {
+                sb.append( '=' );
+            }
+            else if ( node instanceof GreaterEqNode )
+            {
+                sb.append( ">=" );
+            }
+            else if ( node instanceof LessEqNode )
+            {
+                sb.append( "<=" );
+            }
+            else if ( node instanceof ApproximateNode )
+            {
+                sb.append( "~=" );
+            }
+            else if ( node instanceof PresenceNode )
+            {
+                sb.append( "=*" );
+            }
+            else if ( node instanceof SubstringNode )
+            {
+                // The presence of an initial component changes the way the index is used
+                SubstringNode substringNode = ( SubstringNode ) node;
+                sb.append( substringNode.getInitial() != null ? "=i*" : "=*" );
+
+                if ( substringNode.getAny() != null )
+                {
+                    sb.append( substringNode.getAny().size() );
+                }
+
+                sb.append( substringNode.getFinal() != null ? "*f" : "*" );
+            }
+            else if ( node instanceof ExtensibleNode )
+            {
+                sb.append( ':' ).append( ( ( ExtensibleNode ) node ).getMatchingRuleId() );
+            }
+            else
+            {
+                sb.append( node.getClass().getSimpleName() );
+            }
+        }
+        else
+        {
+            sb.append( node.getClass().getSimpleName() );
+        }
+
+        sb.append( ')' );
+    }
+
+
+    /**
+     * Tells if the cached count of a node can be used instead of asking the optimizer
+     */
+    private boolean isReusable( ExprNode node )
+    {
+        return ( node instanceof EqualityNode ) || ( node instanceof GreaterEqNode )
+            || ( node instanceof LessEqNode ) || ( node instanceof ApproximateNode )
+            || ( node instanceof PresenceNode ) || ( node instanceof SubstringNode );
+    }
+
+
+    /**
+     * Gets the number of values in the index of a leaf attribute, or UNKNOWN if
+     * the attribute is not indexed
+     */
+    private long getIndexCount( AttributeType attributeType ) throws Exception
+    {
+        if ( ( attributeType == null ) || !db.hasIndexOn( attributeType ) )
+        {
+            return UNKNOWN;
+        }
+
+        return db.getIndex( attributeType ).count();
+    }
+
+
+    /**
+     * Records the counts computed by the optimizer for a filter node
+     */
+    private PlanNode record( ExprNode node, long nbEntries ) throws Exception
+    {
+        Object count = node.get( "count" );
+        long value = count == null ? UNKNOWN : ( Long ) count;
+
+        if ( node instanceof BranchNode )
+        {
+            List<ExprNode> children = ( ( BranchNode ) node ).getChildren();
+            PlanNode[] childrenPlans = new PlanNode[children.size()];
+
+            for ( int i = 0; i < childrenPlans.length; i++ )
+            {
+                childrenPlans[i] = record( children.get( i ), nbEntries );
+            }
+
+            return new PlanNode( value, null, childrenPlans, nbEntries, UNKNOWN );
+        }
+
+        AttributeType attributeType = null;
+        long indexCount = UNKNOWN;
+
+        if ( node instanceof LeafNode )
+        {
+            attributeType = ( ( LeafNode ) node ).getAttributeType();
+
+            if ( isReusable( node ) )
+            {
+                indexCount = getIndexCount( attributeType );
+            }
+        }
+
+        // A count of 0 is only true for the recorded value
+        if ( value == 0L )
+        {
+            value = 1L;
+        }
+
+        return new PlanNode( value, attributeType, null, nbEntries, indexCount );
+    }
+
+
+    /**
+     * Annotates a filter node using a cached plan.
+     *
+     * @return The node scan count, or UNKNOWN if the plan can't be used
+     */
+    private long apply( ExprNode node, PlanNode plan, Optimizer optimizer ) throws Exception
+    {
+        if ( !( node instanceof AndNode ) )
+        {
+            return optimizer.annotate( node );
+        }
+
+        List<ExprNode> children = ( ( AndNode ) node ).getChildren();
+
+        // The child the CursorBuilder started with, and the next best child
+        int driver = -1;
+        long driverCount = Long.MAX_VALUE;
+        long nextCount = Long.MAX_VALUE;
+
+        for ( int i = 0; i < children.size(); i++ )
+        {
+            long childCount = plan.children[i].count;
+
+            if ( childCount == UNKNOWN )
+            {
+                continue;
+            }
+
+            if ( ( driver == -1 ) || ( childCount < driverCount ) )
+            {
+                nextCount = driverCount;
+                driver = i;
+                driverCount = childCount;
+            }
+            else if ( childCount < nextCount )
+            {
+                nextCount = childCount;
+            }
+        }
+
+        long count = Long.MAX_VALUE;
+
+        for ( int i = 0; i < children.size(); i++ )
+        {
+            ExprNode child = children.get( i );
+            PlanNode childPlan = plan.children[i];
+            long childCount;
+
+            if ( child instanceof AndNode )
+            {
+                childCount = apply( child, childPlan, optimizer );
+
+                if ( childCount == UNKNOWN )
+                {
+                    return UNKNOWN;
+                }
+            }
+            else if ( ( i != driver ) && ( childPlan.count != UNKNOWN ) && isReusable( child ) )
+            {
+                if ( ( ( LeafNode ) child ).getAttributeType() != childPlan.attributeType )
+                {
+                    // The schema has changed
+                    return UNKNOWN;
+                }
+
+                long indexCount = getIndexCount( childPlan.attributeType );
+
+                if ( ( indexCount == UNKNOWN ) != ( childPlan.indexCount == UNKNOWN ) )
+                {
+                    // The index has been added or removed
+                    return UNKNOWN;
+                }
+
+                if ( ( indexCount != UNKNOWN ) && hasDrifted( childPlan.indexCount, indexCount ) )
+                {
+                    // The index has been updated too much for the cached count to be trusted
+                    return UNKNOWN;
+                }
+
+                childCount = childPlan.count;
+                child.set( "count", childCount );
+            }
+            else
+            {
+                childCount = optimizer.annotate( child );
+            }
+
+            if ( ( i == driver ) && ( childCount > nextCount ) )
+            {
+                // This child is not the most selective anymore
+                return UNKNOWN;
+            }
+
+            count = Math.min( count, childCount );
+        }
+
+        node.set( "count", count );
+
+        return count;
+    }
+
+
+    /**
+     * Removes all the cached plans
+     */
+    public void clear()
+    {
+        synchronized ( plans )
+        {
+            plans.clear();
+        }
+    }
+
+
+    /**
+     * @return The number of cached plans
+     */
+    public int size()
+    {
+        synchronized ( plans )
+        {
+            return plans.size();
+        }
+    }
+
+
+    /**
+     * @return The number of searches which used a cached plan
+     */
+    public long getHits()
+    {
+        synchronized ( plans )
+        {
+            return hits;
+        }
+    }
+
+
+    /**
+     * @return The number of searches which had to compute a plan
+     */
+    public long getMisses()
+    {
+        synchronized ( plans )
+        {
+            return misses;
+        }
+    }
+}
@@ -0,0 +1,233 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.xdbm;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+import org.apache.directory.server.core.api.partition.Partition;
+import org.apache.directory.server.xdbm.search.CandidateSet;
+import org.junit.Before;
+import org.junit.Test;
+
+
+/**
+ * Tests the {@link EntryOrdinalMap} class.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class EntryOrdinalMapTest
+{
+    private EntryOrdinalMap ordinalMap;
+
+
+    @Before
+    public void setUp()
+    {
+        ordinalMap = new EntryOrdinalMap();
+    }
+
+
+    @Test
+    public void testUuids()
+    {
+        List<String> ids = new ArrayList<String>();
+        Set<Integer> ordinals = new HashSet<Integer>();
+
+        // Enough IDs to make the tables grow
+        for ( int i = 0; i < 5000; i++ )
+        {
+            String id = UUID.randomUUID().toString();
+            ids.add( id );
+            ordinals.add( ordinalMap.getOrdinal( id ) );
+        }
+
+        assertEquals( 5000, ordinals.size() );
+        assertEquals( 5000, ordinalMap.size() );
+
+        for ( String id : ids )
+        {
+            int ordinal = ordinalMap.lookupOrdinal( id );
+
+            assertEquals( ordinal, ordinalMap.getOrdinal( id ) );
+            assertEquals( id, ordinalMap.getId( ordinal ) );
+        }
+    }
+
+
+    @Test
+    public void testOtherIds()
+    {
+        String upperCase = UUID.randomUUID().toString().toUpperCase();
+        String root = Partition.ROOT_ID;
+
+        int upperCaseOrdinal = ordinalMap.getOrdinal( upperCase );
+        int rootOrdinal = ordinalMap.getOrdinal( root );
+        int otherOrdinal = ordinalMap.getOrdinal( "id1" );
+
+        assertEquals( upperCase, ordinalMap.getId( upperCaseOrdinal ) );
+        assertEquals( root, ordinalMap.getId( rootOrdinal ) );
+        assertEquals( "id1", ordinalMap.getId( otherOrdinal ) );
+        assertEquals( otherOrdinal, ordinalMap.lookupOrdinal( "id1" ) );
+        assertEquals( EntryOrdinalMap.NO_ORDINAL, ordinalMap.lookupOrdinal( "id2" ) );
+    }
+
+
+    @Test
+    public void testReleasedOrdinalsAreNotReusedDuringASearch()
+    {
+        List<Integer> released = new ArrayList<Integer>();
+        long search = ordinalMap.beginSearch();
+
+        for ( int i = 0; i < 100; i++ )
+        {
+            String id = UUID.randomUUID().toString();
+            released.add( ordinalMap.getOrdinal( id ) );
+            ordinalMap.release( id );
+
+            assertEquals( EntryOrdinalMap.NO_ORDINAL, ordinalMap.lookupOrdinal( id ) );
+        }
+
+        assertEquals( 0, ordinalMap.size() );
+
+        for ( int i = 0; i < 100; i++ )
+        {
+            assertFalse( released.contains( ordinalMap.getOrdinal( UUID.randomUUID().toString() ) ) );
+        }
+
+        for ( int ordinal : released )
+        {
+            assertNull( ordinalMap.getId( ordinal ) );
+        }
+
+        // Once the search is done, the released ordinals are reused
+        ordinalMap.endSearch( search );
+
+        for ( int i = 0; i < 100; i++ )
+        {
+            assertTrue( released.contains( ordinalMap.getOrdinal( UUID.randomUUID().toString() ) ) );
+        }
+    }
+
+
+    @Test
+    public void testSearchStartedAfterReleaseDoesNotDelayReuse()
+    {
+        String removed = UUID.randomUUID().toString();
+        int ordinal = ordinalMap.getOrdinal( removed );
+        long before = ordinalMap.beginSearch();
+        ordinalMap.release( removed );
+        long after = ordinalMap.beginSearch();
+
+        // The first search may still hold the ordinal
+        assertFalse( ordinal == ordinalMap.getOrdinal( UUID.randomUUID().toString() ) );
+
+        ordinalMap.endSearch( before );
+
+        // The second one can't : it was started after the release
+        String added = UUID.randomUUID().toString();
+        assertEquals( ordinal, ordinalMap.getOrdinal( added ) );
+        assertEquals( added, ordinalMap.getId( ordinal ) );
+        assertEquals( EntryOrdinalMap.NO_ORDINAL, ordinalMap.lookupOrdinal( removed ) );
+
+        ordinalMap.endSearch( after );
+    }
+
+
+    @Test
+    public void testChurn()
+    {
+        int nbEntries = 1000;
+        List<String> ids = new ArrayList<String>();
+        int maxOrdinal = 0;
+
+        // Entries keep being added and removed, while some searches are running
+        for ( int round = 0; round < 200; round++ )
+        {
+            long search = ordinalMap.beginSearch();
+
+            for ( int i = 0; i < nbEntries / 2; i++ )
+            {
+                String id = ( i % 10 == 0 ) ? "other" + round + "-" + i : UUID.randomUUID().toString();
+                ids.add( id );
+                maxOrdinal = Math.max( maxOrdinal, ordinalMap.getOrdinal( id ) );
+            }
+
+            while ( ids.size() > nbEntries / 2 )
+            {
+                ordinalMap.release( ids.remove( 0 ) );
+            }
+
+            ordinalMap.endSearch( search );
+        }
+
+        // The ordinals only depend on the number of entries, not on the number of removals
+        assertEquals( nbEntries / 2, ordinalMap.size() );
+        assertTrue( "Max ordinal : " + maxOrdinal, maxOrdinal < nbEntries * 2 );
+
+        for ( String id : ids )
+        {
+            assertEquals( id, ordinalMap.getId( ordinalMap.lookupOrdinal( id ) ) );
+        }
+    }
+
+
+    @Test
+    public void testCandidateSetAfterRelease()
+    {
+        String removed = UUID.randomUUID().toString();
+        String kept = UUID.randomUUID().toString();
+
+        long search = ordinalMap.beginSearch();
+        CandidateSet candidates = new CandidateSet( ordinalMap );
+        candidates.add( removed );
+        candidates.add( kept );
+
+        // The removed entry's ordinal must not designate an entry added later
+        ordinalMap.release( removed );
+        String added = UUID.randomUUID().toString();
+        ordinalMap.getOrdinal( added );
+
+        assertFalse( candidates.contains( removed ) );
+        assertFalse( candidates.contains( added ) );
+        assertTrue( candidates.contains( kept ) );
+
+        Set<String> ids = new HashSet<String>();
+
+        for ( String id : candidates )
+        {
+            ids.add( id );
+        }
+
+        assertEquals( 1, ids.size() );
+        assertTrue( ids.contains( kept ) );
+
+        ordinalMap.endSearch( search );
+    }
+}
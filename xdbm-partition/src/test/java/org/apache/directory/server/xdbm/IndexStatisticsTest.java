@@ -0,0 +1,214 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.xdbm;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.entry.DefaultModification;
+import org.apache.directory.api.ldap.model.entry.ModificationOperation;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.schema.extractor.SchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.extractor.impl.DefaultSchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.loader.LdifSchemaLoader;
+import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
+import org.apache.directory.api.util.exception.Exceptions;
+import org.apache.directory.server.core.api.CacheService;
+import org.apache.directory.server.core.api.DnFactory;
+import org.apache.directory.server.core.partition.impl.avl.AvlPartition;
+import org.apache.directory.server.core.shared.DefaultDnFactory;
+import org.apache.directory.server.xdbm.impl.avl.AvlIndex;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+
+/**
+ * Tests the {@link IndexStatistics} class, and its maintenance by the partition.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class IndexStatisticsTest
+{
+    private static SchemaManager schemaManager = null;
+    private static DnFactory dnFactory;
+    private static CacheService cacheService;
+
+    /** The CN AttributType instance */
+    private static AttributeType CN_AT;
+
+    private AvlPartition partition;
+
+
+    @BeforeClass
+    public static void setup() throws Exception
+    {
+        String workingDirectory = System.getProperty( "workingDirectory" );
+
+        if ( workingDirectory == null )
+        {
+            String path = IndexStatisticsTest.class.getResource( "" ).getPath();
+            int targetPos = path.indexOf( "target" );
+            workingDirectory = path.substring( 0, targetPos + 6 );
+        }
+
+        File schemaRepository = new File( workingDirectory, "schema" );
+        SchemaLdifExtractor extractor = new DefaultSchemaLdifExtractor( new File( workingDirectory ) );
+        extractor.extractOrCopy( true );
+        LdifSchemaLoader loader = new LdifSchemaLoader( schemaRepository );
+        schemaManager = new DefaultSchemaManager( loader );
+
+        boolean loaded = schemaManager.loadAllEnabled();
+
+        if ( !loaded )
+        {
+            fail( "Schema load failed : " + Exceptions.printErrors( schemaManager.getErrors() ) );
+        }
+
+        cacheService = new CacheService();
+        cacheService.initialize( null );
+        dnFactory = new DefaultDnFactory( schemaManager, cacheService.getCache( "dnCache" ) );
+
+        CN_AT = schemaManager.getAttributeType( SchemaConstants.CN_AT );
+    }
+
+
+    @Before
+    public void createStore() throws Exception
+    {
+        partition = new AvlPartition( schemaManager, dnFactory );
+        partition.setId( "example" );
+        partition.setSyncOnWrite( false );
+
+        partition.addIndex( new AvlIndex<String>( SchemaConstants.OU_AT_OID ) );
+        partition.addIndex( new AvlIndex<String>( SchemaConstants.CN_AT_OID ) );
+        partition.setSuffixDn( new Dn( schemaManager, "o=Good Times Co." ) );
+
+        partition.setCacheService( cacheService );
+        partition.initialize();
+
+        StoreUtils.loadExampleData( partition, schemaManager );
+    }
+
+
+    @After
+    public void destroyStore() throws Exception
+    {
+        partition.destroy();
+    }
+
+
+    @Test
+    public void testStatisticsBuild() throws Exception
+    {
+        IndexStatistics statistics = partition.getIndexStatistics( CN_AT );
+
+        assertFalse( statistics.isStale() );
+        assertTrue( statistics.hasHistogram() );
+        assertEquals( partition.getUserIndex( CN_AT ).count(), statistics.count() );
+        assertEquals( partition.getPresenceIndex().count( CN_AT.getOid() ), statistics.getEntryCount() );
+        assertEquals( 3, statistics.getDistinctKeys() );
+
+        assertNull( partition.getIndexStatistics( schemaManager.getAttributeType( SchemaConstants.UID_AT ) ) );
+    }
+
+
+    @Test
+    public void testEstimates() throws Exception
+    {
+        IndexStatistics statistics = partition.getIndexStatistics( CN_AT );
+
+        // The estimates are never 0, and never larger than the index
+        long count = statistics.count();
+
+        for ( String value : new String[]
+            { "a", "jack daniels", "jim bean", "johnny walker", "zzz" } )
+        {
+            assertTrue( statistics.equalityCount( value ) >= 1L );
+            assertTrue( statistics.greaterThanCount( value ) >= 1L );
+            assertTrue( statistics.greaterThanCount( value ) <= count );
+            assertTrue( statistics.lessThanCount( value ) >= 1L );
+            assertTrue( statistics.lessThanCount( value ) <= count );
+        }
+
+        assertTrue( statistics.greaterThanCount( "a" ) >= statistics.greaterThanCount( "zzz" ) );
+        assertTrue( statistics.lessThanCount( "a" ) <= statistics.lessThanCount( "zzz" ) );
+        assertTrue( statistics.prefixCount( "j" ) <= count );
+    }
+
+
+    @Test
+    public void testStatisticsUpdatedOnModify() throws Exception
+    {
+        IndexStatistics statistics = partition.getIndexStatistics( CN_AT );
+        long count = statistics.count();
+        long nbEntries = statistics.getEntryCount();
+
+        Dn dn = new Dn( schemaManager, "cn=JOhnny WAlkeR,ou=Sales,o=Good Times Co." );
+        partition.modify( dn, new DefaultModification( ModificationOperation.ADD_ATTRIBUTE, CN_AT, "Johnny Cash" ) );
+
+        assertEquals( count + 1, statistics.count() );
+        assertEquals( nbEntries, statistics.getEntryCount() );
+        assertEquals( partition.getUserIndex( CN_AT ).count(), statistics.count() );
+
+        partition.modify( dn, new DefaultModification( ModificationOperation.REMOVE_ATTRIBUTE, CN_AT, "Johnny Cash" ) );
+
+        assertEquals( count, statistics.count() );
+        assertEquals( partition.getUserIndex( CN_AT ).count(), statistics.count() );
+    }
+
+
+    @Test
+    public void testWriteRead() throws Exception
+    {
+        IndexStatistics statistics = partition.getIndexStatistics( CN_AT );
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream( baos );
+        statistics.writeExternal( out );
+        out.flush();
+
+        IndexStatistics read = new IndexStatistics( CN_AT );
+        assertTrue( read.isStale() );
+
+        read.readExternal( new DataInputStream( new ByteArrayInputStream( baos.toByteArray() ) ) );
+
+        assertFalse( read.isStale() );
+        assertEquals( statistics.count(), read.count() );
+        assertEquals( statistics.getEntryCount(), read.getEntryCount() );
+        assertEquals( statistics.getDistinctKeys(), read.getDistinctKeys() );
+        assertEquals( statistics.greaterThanCount( "jim" ), read.greaterThanCount( "jim" ) );
+        assertEquals( statistics.prefixCount( "j" ), read.prefixCount( "j" ) );
+    }
+}
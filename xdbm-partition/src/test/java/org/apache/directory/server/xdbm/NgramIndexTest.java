@@ -0,0 +1,217 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.xdbm;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.entry.DefaultModification;
+import org.apache.directory.api.ldap.model.entry.ModificationOperation;
+import org.apache.directory.api.ldap.model.filter.FilterParser;
+import org.apache.directory.api.ldap.model.filter.SubstringNode;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.schema.extractor.SchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.extractor.impl.DefaultSchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.loader.LdifSchemaLoader;
+import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
+import org.apache.directory.api.util.Strings;
+import org.apache.directory.api.util.exception.Exceptions;
+import org.apache.directory.server.core.api.CacheService;
+import org.apache.directory.server.core.api.DnFactory;
+import org.apache.directory.server.core.partition.impl.avl.AvlPartition;
+import org.apache.directory.server.core.shared.DefaultDnFactory;
+import org.apache.directory.server.xdbm.impl.avl.AvlIndex;
+import org.apache.directory.server.xdbm.search.CandidateSet;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+
+/**
+ * Tests the {@link NgramIndex} class, and its maintenance by the partition.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class NgramIndexTest
+{
+    private static SchemaManager schemaManager = null;
+    private static DnFactory dnFactory;
+    private static CacheService cacheService;
+
+    /** The CN AttributType instance */
+    private static AttributeType CN_AT;
+
+    private AvlPartition partition;
+
+
+    @BeforeClass
+    public static void setup() throws Exception
+    {
+        String workingDirectory = System.getProperty( "workingDirectory" );
+
+        if ( workingDirectory == null )
+        {
+            String path = NgramIndexTest.class.getResource( "" ).getPath();
+            int targetPos = path.indexOf( "target" );
+            workingDirectory = path.substring( 0, targetPos + 6 );
+        }
+
+        File schemaRepository = new File( workingDirectory, "schema" );
+        SchemaLdifExtractor extractor = new DefaultSchemaLdifExtractor( new File( workingDirectory ) );
+        extractor.extractOrCopy( true );
+        LdifSchemaLoader loader = new LdifSchemaLoader( schemaRepository );
+        schemaManager = new DefaultSchemaManager( loader );
+
+        boolean loaded = schemaManager.loadAllEnabled();
+
+        if ( !loaded )
+        {
+            fail( "Schema load failed : " + Exceptions.printErrors( schemaManager.getErrors() ) );
+        }
+
+        cacheService = new CacheService();
+        cacheService.initialize( null );
+        dnFactory = new DefaultDnFactory( schemaManager, cacheService.getCache( "dnCache" ) );
+
+        CN_AT = schemaManager.getAttributeType( SchemaConstants.CN_AT );
+    }
+
+
+    @Before
+    public void createStore() throws Exception
+    {
+        partition = new AvlPartition( schemaManager, dnFactory );
+        partition.setId( "example" );
+        partition.setSyncOnWrite( false );
+
+        AvlIndex<String> cnIndex = new AvlIndex<String>( SchemaConstants.CN_AT_OID );
+        cnIndex.setNgramSize( NgramIndex.DEFAULT_NGRAM_SIZE );
+
+        partition.addIndex( new AvlIndex<String>( SchemaConstants.OU_AT_OID ) );
+        partition.addIndex( cnIndex );
+        partition.setSuffixDn( new Dn( schemaManager, "o=Good Times Co." ) );
+
+        partition.setCacheService( cacheService );
+        partition.initialize();
+
+        StoreUtils.loadExampleData( partition, schemaManager );
+    }
+
+
+    @After
+    public void destroyStore() throws Exception
+    {
+        partition.destroy();
+    }
+
+
+    private Set<String> evaluate( String filter, long expectedCount ) throws Exception
+    {
+        SubstringNode node = ( SubstringNode ) FilterParser.parse( schemaManager, filter );
+        NgramIndex ngramIndex = partition.getNgramIndex( CN_AT );
+        CandidateSet candidates = new CandidateSet( partition.getEntryOrdinalMap() );
+
+        assertEquals( expectedCount, ngramIndex.evaluate( node, candidates, partition.getEntryOrdinalMap() ) );
+
+        Set<String> ids = new HashSet<String>();
+
+        for ( String id : candidates )
+        {
+            ids.add( id );
+        }
+
+        return ids;
+    }
+
+
+    @Test
+    public void testNgramIndexCreation() throws Exception
+    {
+        assertNotNull( partition.getNgramIndex( CN_AT ) );
+        assertNull( partition.getNgramIndex( schemaManager.getAttributeType( SchemaConstants.OU_AT ) ) );
+    }
+
+
+    @Test
+    public void testEvaluateAny() throws Exception
+    {
+        Set<String> expected = new HashSet<String>();
+        expected.add( Strings.getUUID( 5 ) );
+        expected.add( Strings.getUUID( 11 ) );
+
+        assertEquals( expected, evaluate( "(cn=*WALKE*)", 2L ) );
+        assertEquals( 2L, partition.getNgramIndex( CN_AT ).count(
+            ( SubstringNode ) FilterParser.parse( schemaManager, "(cn=*walke*)" ) ) );
+    }
+
+
+    @Test
+    public void testEvaluateNoMatch() throws Exception
+    {
+        assertEquals( 0, evaluate( "(cn=*xyz*)", 0L ).size() );
+    }
+
+
+    @Test
+    public void testEvaluateShortComponents() throws Exception
+    {
+        // Components shorter than the n-gram size can't use the index
+        assertEquals( 0, evaluate( "(cn=*wa*ke*)", Long.MAX_VALUE ).size() );
+    }
+
+
+    @Test
+    public void testIndexUpdatedOnModifyAndDelete() throws Exception
+    {
+        Dn dn = new Dn( schemaManager, "cn=JOhnny WAlkeR,ou=Sales,o=Good Times Co." );
+
+        partition.modify( dn, new DefaultModification( ModificationOperation.ADD_ATTRIBUTE, CN_AT, "Johnny Cash" ) );
+
+        Set<String> expected = new HashSet<String>();
+        expected.add( Strings.getUUID( 5 ) );
+
+        assertEquals( expected, evaluate( "(cn=*cash*)", 1L ) );
+
+        partition.modify( dn, new DefaultModification( ModificationOperation.REMOVE_ATTRIBUTE, CN_AT, "Johnny Cash" ) );
+
+        assertEquals( 0, evaluate( "(cn=*cash*)", 0L ).size() );
+
+        // The n-grams shared with the remaining value must still be there
+        assertEquals( 2, evaluate( "(cn=*johnny*)", 2L ).size() );
+
+        partition.delete( Strings.getUUID( 11 ) );
+
+        expected.clear();
+        expected.add( Strings.getUUID( 5 ) );
+
+        assertEquals( expected, evaluate( "(cn=*johnny*)", 1L ) );
+    }
+}
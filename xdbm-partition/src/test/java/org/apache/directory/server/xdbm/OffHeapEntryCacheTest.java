@@ -0,0 +1,181 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.xdbm;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
+
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.junit.Before;
+import org.junit.Test;
+
+
+/**
+ * Tests the {@link OffHeapEntryCache} class.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class OffHeapEntryCacheTest
+{
+    /** A 1MB cache, using a plain Java serialization */
+    private OffHeapEntryCache cache;
+
+
+    @Before
+    public void setUp()
+    {
+        cache = new OffHeapEntryCache( 1 )
+        {
+            protected byte[] serialize( Entry entry ) throws IOException
+            {
+                ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                ObjectOutputStream out = new ObjectOutputStream( baos );
+                out.writeObject( entry );
+                out.flush();
+
+                return baos.toByteArray();
+            }
+
+
+            protected Entry deserialize( byte[] bytes ) throws IOException
+            {
+                ObjectInputStream in = new ObjectInputStream( new ByteArrayInputStream( bytes ) );
+
+                try
+                {
+                    return ( Entry ) in.readObject();
+                }
+                catch ( ClassNotFoundException cnfe )
+                {
+                    throw new IOException( cnfe.getMessage() );
+                }
+            }
+        };
+    }
+
+
+    private Entry createEntry( int i, int size ) throws Exception
+    {
+        char[] chars = new char[size];
+        Arrays.fill( chars, 'x' );
+
+        Entry entry = new DefaultEntry( new Dn( "cn=entry" + i ) );
+        entry.add( "cn", "entry" + i );
+        entry.add( "description", new String( chars ) );
+
+        return entry;
+    }
+
+
+    @Test
+    public void testPutGet() throws Exception
+    {
+        assertNull( cache.get( "1" ) );
+
+        cache.put( "1", createEntry( 1, 10 ) );
+
+        Entry entry = cache.get( "1" );
+
+        assertNotNull( entry );
+        assertEquals( "entry1", entry.get( "cn" ).getString() );
+        assertEquals( 1, cache.size() );
+        assertEquals( 1L, cache.getHitCount() );
+        assertEquals( 1L, cache.getMissCount() );
+        assertEquals( 0.5d, cache.getHitRatio(), 0.001d );
+
+        cache.replace( "1", createEntry( 2, 10 ) );
+        assertEquals( "entry2", cache.get( "1" ).get( "cn" ).getString() );
+
+        // Replace does not add a missing entry
+        cache.replace( "3", createEntry( 3, 10 ) );
+        assertNull( cache.get( "3" ) );
+
+        cache.remove( "1" );
+        assertNull( cache.get( "1" ) );
+        assertEquals( 0, cache.size() );
+    }
+
+
+    @Test
+    public void testEviction() throws Exception
+    {
+        // 200 entries of about 10KB don't fit in 1MB
+        for ( int i = 0; i < 200; i++ )
+        {
+            cache.put( Integer.toString( i ), createEntry( i, 10000 ) );
+        }
+
+        assertTrue( cache.getEvictionCount() > 0 );
+        assertTrue( cache.getUsedBytes() <= cache.getCapacity() );
+        assertEquals( 200L - cache.getEvictionCount(), cache.size() );
+
+        // The oldest entries have been evicted, the last ones are still there
+        assertNull( cache.get( "0" ) );
+        assertNotNull( cache.get( "199" ) );
+    }
+
+
+    @Test
+    public void testTooBigEntry() throws Exception
+    {
+        // A segment is 256KB in a 1MB cache
+        Entry entry = createEntry( 1, 60000 );
+
+        for ( int i = 0; i < 5; i++ )
+        {
+            entry.add( "description", i + entry.get( "description" ).getString() );
+        }
+
+        cache.put( "1", entry );
+
+        assertNull( cache.get( "1" ) );
+        assertEquals( 0, cache.size() );
+    }
+
+
+    @Test
+    public void testClear() throws Exception
+    {
+        for ( int i = 0; i < 10; i++ )
+        {
+            cache.put( Integer.toString( i ), createEntry( i, 100 ) );
+        }
+
+        assertEquals( 10, cache.size() );
+
+        cache.clear();
+
+        assertEquals( 0, cache.size() );
+        assertEquals( 0L, cache.getUsedBytes() );
+        assertNull( cache.get( "5" ) );
+    }
+}
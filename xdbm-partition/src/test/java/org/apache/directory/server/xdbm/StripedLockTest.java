@@ -0,0 +1,59 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.xdbm;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+
+/**
+ * Tests the {@link StripedLock} class.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class StripedLockTest
+{
+    @Test
+    public void testSize()
+    {
+        assertEquals( StripedLock.DEFAULT_NB_STRIPES, new StripedLock().size() );
+        assertEquals( 1, new StripedLock( 1 ).size() );
+        assertEquals( 16, new StripedLock( 10 ).size() );
+    }
+
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidSize()
+    {
+        new StripedLock( 0 );
+    }
+
+
+    @Test
+    public void testSameKeySameLock()
+    {
+        StripedLock locks = new StripedLock();
+
+        assertSame( locks.getLock( "entry-1" ), locks.getLock( new String( "entry-1" ) ) );
+    }
+}
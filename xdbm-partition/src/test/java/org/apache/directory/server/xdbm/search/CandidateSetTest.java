@@ -0,0 +1,176 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.xdbm.search;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.directory.server.xdbm.EntryOrdinalMap;
+import org.junit.Before;
+import org.junit.Test;
+
+
+/**
+ * Tests the {@link CandidateSet} class.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class CandidateSetTest
+{
+    private EntryOrdinalMap ordinalMap;
+
+
+    @Before
+    public void setUp()
+    {
+        ordinalMap = new EntryOrdinalMap();
+    }
+
+
+    private Set<String> toSet( CandidateSet candidates )
+    {
+        Set<String> set = new HashSet<String>();
+
+        for ( String id : candidates )
+        {
+            set.add( id );
+        }
+
+        return set;
+    }
+
+
+    @Test
+    public void testAddContains()
+    {
+        CandidateSet candidates = new CandidateSet( ordinalMap );
+
+        assertTrue( candidates.isEmpty() );
+        assertTrue( candidates.add( "id1" ) );
+        assertFalse( candidates.add( "id1" ) );
+        assertTrue( candidates.add( "id2" ) );
+
+        assertTrue( candidates.contains( "id1" ) );
+        assertTrue( candidates.contains( "id2" ) );
+        assertFalse( candidates.contains( "id3" ) );
+        assertEquals( 2, candidates.size() );
+    }
+
+
+    @Test
+    public void testManyCandidates()
+    {
+        // More than 65536 ordinals, with more than 4096 values in the first chunks
+        CandidateSet candidates = new CandidateSet( ordinalMap );
+        Set<String> expected = new HashSet<String>();
+
+        for ( int i = 0; i < 100000; i++ )
+        {
+            candidates.add( "id" + i );
+            expected.add( "id" + i );
+        }
+
+        assertEquals( 100000, candidates.size() );
+        assertEquals( expected, toSet( candidates ) );
+    }
+
+
+    @Test
+    public void testOr()
+    {
+        CandidateSet candidates1 = new CandidateSet( ordinalMap );
+        CandidateSet candidates2 = new CandidateSet( ordinalMap );
+        Set<String> expected = new HashSet<String>();
+
+        for ( int i = 0; i < 10000; i += 2 )
+        {
+            candidates1.add( "id" + i );
+            expected.add( "id" + i );
+        }
+
+        for ( int i = 0; i < 10000; i += 3 )
+        {
+            candidates2.add( "id" + i );
+            expected.add( "id" + i );
+        }
+
+        candidates1.or( candidates2 );
+
+        assertEquals( expected.size(), candidates1.size() );
+        assertEquals( expected, toSet( candidates1 ) );
+    }
+
+
+    @Test
+    public void testAnd()
+    {
+        CandidateSet candidates1 = new CandidateSet( ordinalMap );
+        CandidateSet candidates2 = new CandidateSet( ordinalMap );
+        Set<String> expected = new HashSet<String>();
+
+        for ( int i = 0; i < 20000; i++ )
+        {
+            candidates1.add( "id" + i );
+
+            if ( i % 6 == 0 )
+            {
+                expected.add( "id" + i );
+            }
+        }
+
+        for ( int i = 0; i < 20000; i += 3 )
+        {
+            if ( i % 2 == 0 )
+            {
+                candidates2.add( "id" + i );
+            }
+        }
+
+        candidates1.and( candidates2 );
+
+        assertEquals( expected.size(), candidates1.size() );
+        assertEquals( expected, toSet( candidates1 ) );
+
+        candidates1.and( new CandidateSet( ordinalMap ) );
+        assertTrue( candidates1.isEmpty() );
+    }
+
+
+    @Test
+    public void testReleasedOrdinalsAreSkipped()
+    {
+        CandidateSet candidates = new CandidateSet( ordinalMap );
+
+        candidates.add( "id1" );
+        candidates.add( "id2" );
+        ordinalMap.release( "id1" );
+
+        Set<String> expected = new HashSet<String>();
+        expected.add( "id2" );
+
+        assertFalse( candidates.contains( "id1" ) );
+        assertEquals( expected, toSet( candidates ) );
+    }
+}
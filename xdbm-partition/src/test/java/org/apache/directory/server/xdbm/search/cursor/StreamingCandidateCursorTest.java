@@ -0,0 +1,157 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.xdbm.search.cursor;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.directory.api.ldap.model.cursor.InvalidCursorPositionException;
+import org.apache.directory.server.xdbm.EntryOrdinalMap;
+import org.apache.directory.server.xdbm.search.CandidateSet;
+import org.junit.Before;
+import org.junit.Test;
+
+
+/**
+ * Tests the {@link StreamingCandidateCursor} class.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class StreamingCandidateCursorTest
+{
+    private CandidateSet candidates;
+
+
+    @Before
+    public void setUp()
+    {
+        candidates = new CandidateSet( new EntryOrdinalMap() );
+
+        for ( int i = 0; i < 10; i++ )
+        {
+            candidates.add( "id" + i );
+        }
+    }
+
+
+    private List<String> expected()
+    {
+        List<String> ids = new ArrayList<String>();
+
+        for ( String id : candidates )
+        {
+            ids.add( id );
+        }
+
+        return ids;
+    }
+
+
+    @Test
+    public void testNext() throws Exception
+    {
+        StreamingCandidateCursor cursor = new StreamingCandidateCursor( candidates );
+        List<String> ids = new ArrayList<String>();
+
+        cursor.beforeFirst();
+
+        while ( cursor.next() )
+        {
+            assertTrue( cursor.available() );
+            ids.add( cursor.get().getId() );
+        }
+
+        assertFalse( cursor.available() );
+        assertFalse( cursor.next() );
+        assertEquals( expected(), ids );
+
+        cursor.close();
+    }
+
+
+    @Test
+    public void testPrevious() throws Exception
+    {
+        StreamingCandidateCursor cursor = new StreamingCandidateCursor( candidates );
+        List<String> expected = expected();
+
+        // Read a few candidates, then go back
+        assertTrue( cursor.next() );
+        assertTrue( cursor.next() );
+        assertTrue( cursor.next() );
+        assertEquals( expected.get( 2 ), cursor.get().getId() );
+        assertTrue( cursor.previous() );
+        assertEquals( expected.get( 1 ), cursor.get().getId() );
+        assertTrue( cursor.previous() );
+        assertFalse( cursor.previous() );
+
+        // Now, read the remaining ones from the end
+        List<String> ids = new ArrayList<String>();
+        cursor.afterLast();
+
+        while ( cursor.previous() )
+        {
+            ids.add( 0, cursor.get().getId() );
+        }
+
+        assertEquals( expected, ids );
+
+        assertTrue( cursor.last() );
+        assertEquals( expected.get( 9 ), cursor.get().getId() );
+        assertTrue( cursor.first() );
+        assertEquals( expected.get( 0 ), cursor.get().getId() );
+
+        cursor.close();
+    }
+
+
+    @Test(expected = InvalidCursorPositionException.class)
+    public void testGetBeforeFirst() throws Exception
+    {
+        StreamingCandidateCursor cursor = new StreamingCandidateCursor( candidates );
+
+        try
+        {
+            cursor.get();
+        }
+        finally
+        {
+            cursor.close();
+        }
+    }
+
+
+    @Test
+    public void testEmpty() throws Exception
+    {
+        StreamingCandidateCursor cursor = new StreamingCandidateCursor( new CandidateSet( new EntryOrdinalMap() ) );
+
+        assertFalse( cursor.first() );
+        assertFalse( cursor.last() );
+        assertFalse( cursor.next() );
+
+        cursor.close();
+    }
+}
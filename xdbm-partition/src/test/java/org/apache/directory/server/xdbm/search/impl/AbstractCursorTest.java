@@ -20,7 +20,9 @@
 package org.apache.directory.server.xdbm.search.impl;
 
 
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 import org.apache.directory.api.ldap.model.cursor.Cursor;
@@ -38,8 +40,11 @@ import org.apache.directory.server.core.partition.impl.btree.EntryCursorAdaptor;
 import org.apache.directory.server.core.partition.impl.btree.IndexCursorAdaptor;
 import org.apache.directory.server.xdbm.IndexEntry;
 import org.apache.directory.server.xdbm.Store;
+import org.apache.directory.server.xdbm.search.CandidateSet;
 import org.apache.directory.server.xdbm.search.Evaluator;
 import org.apache.directory.server.xdbm.search.PartitionSearchResult;
+import org.apache.directory.server.xdbm.search.cursor.AllEntriesCursor;
+import org.apache.directory.server.xdbm.search.cursor.StreamingCandidateCursor;
 
 
 /**
@@ -71,7 +76,7 @@ public class AbstractCursorTest
         PartitionSearchResult searchResult = new PartitionSearchResult( schemaManager );
         Set<IndexEntry<String, String>> resultSet = new HashSet<IndexEntry<String, String>>();
 
-        Set<String> uuids = new HashSet<String>();
+        CandidateSet uuids = new CandidateSet( store.getEntryOrdinalMap() );
         searchResult.setCandidateSet( uuids );
 
         long candidates = cursorBuilder.build( root, searchResult );
@@ -114,4 +119,62 @@ public class AbstractCursorTest
         return new EntryFilteringCursorImpl( new EntryCursorAdaptor( ( AbstractBTreePartition ) store, searchResult ),
             operationContext, directoryService.getSchemaManager() );
     }
+
+
+    /**
+     * Creates a cursor from a filter, reading the candidates from the indexes while
+     * the entries are returned, as the streaming mode does
+     * 
+     * @param root The filter we are using for the cursor construction
+     * @return The constructed cursor
+     * @throws Exception If anything went wrong
+     */
+    protected Cursor<Entry> buildStreamingCursor( ExprNode root ) throws Exception
+    {
+        Evaluator<? extends ExprNode> evaluator = evaluatorBuilder.build( root );
+
+        PartitionSearchResult searchResult = new PartitionSearchResult( schemaManager );
+        Cursor<IndexEntry<String, String>> candidates = cursorBuilder.buildCursor( root );
+
+        if ( candidates == null )
+        {
+            // Full scan : read the MasterTable
+            candidates = new AllEntriesCursor( store );
+        }
+
+        candidates.beforeFirst();
+        searchResult.setResultSet( new StreamingCandidateCursor( candidates ) );
+        searchResult.setEvaluator( evaluator );
+
+        // We want all the user attributes plus the entryUUID
+        SearchOperationContext operationContext =
+            new SearchOperationContext( session, Dn.ROOT_DSE, SearchScope.ONELEVEL, null, "*", "EntryUUID" );
+
+        return new EntryFilteringCursorImpl( new EntryCursorAdaptor( ( AbstractBTreePartition ) store, searchResult ),
+            operationContext, directoryService.getSchemaManager() );
+    }
+
+
+    /**
+     * Reads all the entries from a cursor, and closes it
+     * 
+     * @param cursor The cursor to read
+     * @return The entryUUIDs of the returned entries, in the returned order
+     * @throws Exception If anything went wrong
+     */
+    protected List<String> readUuids( Cursor<Entry> cursor ) throws Exception
+    {
+        List<String> uuids = new ArrayList<String>();
+
+        cursor.beforeFirst();
+
+        while ( cursor.next() )
+        {
+            uuids.add( cursor.get().get( "entryUUID" ).getString() );
+        }
+
+        cursor.close();
+
+        return uuids;
+    }
 }
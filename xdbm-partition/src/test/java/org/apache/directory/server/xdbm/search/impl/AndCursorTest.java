@@ -20,12 +20,15 @@
 package org.apache.directory.server.xdbm.search.impl;
 
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.io.File;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 import org.apache.commons.io.FileUtils;
@@ -48,6 +51,7 @@ import org.apache.directory.server.core.api.MockCoreSession;
 import org.apache.directory.server.core.api.MockDirectoryService;
 import org.apache.directory.server.core.api.partition.Partition;
 import org.apache.directory.server.core.partition.impl.avl.AvlPartition;
+import org.apache.directory.server.xdbm.IndexEntry;
 import org.apache.directory.server.xdbm.StoreUtils;
 import org.apache.directory.server.xdbm.impl.avl.AvlIndex;
 import org.junit.After;
@@ -213,6 +217,23 @@ public class AndCursorTest extends AbstractCursorTest
     }
 
 
+    @Test
+    public void testAndCursorWithStreamingCursor() throws Exception
+    {
+        ExprNode exprNode = FilterParser.parse( schemaManager, "(&(cn=J*)(sn=*))" );
+
+        // The candidates are read from the cn index, and checked by the evaluator
+        Cursor<IndexEntry<String, String>> candidates = cursorBuilder.buildCursor( exprNode );
+        assertNotNull( candidates );
+        candidates.close();
+
+        List<String> uuids = readUuids( buildStreamingCursor( exprNode ) );
+
+        assertEquals( 3, uuids.size() );
+        assertEquals( new HashSet<String>( readUuids( buildCursor( exprNode ) ) ), new HashSet<String>( uuids ) );
+    }
+
+
     @Test
     public void testAndCursorWithManualFilter() throws Exception
     {
@@ -298,4 +319,35 @@ public class AndCursorTest extends AbstractCursorTest
         cursor.close();
         assertTrue( cursor.isClosed() );
     }
+
+
+    @Test
+    public void testAndCursorWithIndexIntersection() throws Exception
+    {
+        ExprNode exprNode = FilterParser.parse( schemaManager, "(&(ou=Sales)(cn=J*)(objectClass=person))" );
+
+        // Annotate the filter so that the indexed children are intersected
+        new DefaultOptimizer<Entry>( store ).annotate( exprNode );
+
+        Set<String> expectedUuid = new HashSet<String>();
+        expectedUuid.add( Strings.getUUID( 5 ) );
+        expectedUuid.add( Strings.getUUID( 6 ) );
+
+        Set<String> foundUuid = new HashSet<String>();
+
+        Cursor<Entry> cursor = buildCursor( exprNode );
+
+        cursor.beforeFirst();
+
+        while ( cursor.next() )
+        {
+            Entry entry = cursor.get();
+            foundUuid.add( entry.get( "entryUUID" ).getString() );
+        }
+
+        assertEquals( expectedUuid, foundUuid );
+
+        cursor.close();
+        assertTrue( cursor.isClosed() );
+    }
 }
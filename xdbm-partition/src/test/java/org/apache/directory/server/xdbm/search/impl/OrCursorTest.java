@@ -20,7 +20,10 @@
 package org.apache.directory.server.xdbm.search.impl;
 
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -177,6 +180,32 @@ public class OrCursorTest extends AbstractCursorTest
     }
 
 
+    @Test
+    public void testOrCursorWithStreamingCursor() throws Exception
+    {
+        // Jack Daniels matches both the children, it must only be returned once
+        ExprNode exprNode = FilterParser.parse( schemaManager, "(|(cn=J*)(ou=Engineering))" );
+
+        Cursor<IndexEntry<String, String>> candidates = cursorBuilder.buildCursor( exprNode );
+        assertNotNull( candidates );
+        candidates.close();
+
+        List<String> uuids = readUuids( buildStreamingCursor( exprNode ) );
+
+        assertEquals( uuids.size(), new HashSet<String>( uuids ).size() );
+        assertEquals( new HashSet<String>( readUuids( buildCursor( exprNode ) ) ), new HashSet<String>( uuids ) );
+
+        // An OR with a child which is not indexed needs a full scan
+        exprNode = FilterParser.parse( schemaManager, "(|(cn=J*)(sn=W*))" );
+        assertNull( cursorBuilder.buildCursor( exprNode ) );
+
+        uuids = readUuids( buildStreamingCursor( exprNode ) );
+
+        assertEquals( 6, uuids.size() );
+        assertEquals( new HashSet<String>( readUuids( buildCursor( exprNode ) ) ), new HashSet<String>( uuids ) );
+    }
+
+
     @Test
     public void testOrCursorUsingCursorBuilder() throws Exception
     {
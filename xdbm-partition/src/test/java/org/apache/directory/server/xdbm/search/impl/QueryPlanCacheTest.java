@@ -0,0 +1,288 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.xdbm.search.impl;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.entry.DefaultAttribute;
+import org.apache.directory.api.ldap.model.entry.DefaultModification;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.ModificationOperation;
+import org.apache.directory.api.ldap.model.filter.ExprNode;
+import org.apache.directory.api.ldap.model.filter.FilterParser;
+import org.apache.directory.api.ldap.model.message.SearchScope;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.schema.extractor.SchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.extractor.impl.DefaultSchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.loader.LdifSchemaLoader;
+import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
+import org.apache.directory.api.util.exception.Exceptions;
+import org.apache.directory.server.core.api.CacheService;
+import org.apache.directory.server.core.api.LdapPrincipal;
+import org.apache.directory.server.core.api.MockCoreSession;
+import org.apache.directory.server.core.api.MockDirectoryService;
+import org.apache.directory.server.core.api.partition.Partition;
+import org.apache.directory.server.core.partition.impl.avl.AvlPartition;
+import org.apache.directory.server.core.partition.impl.btree.AbstractBTreePartition;
+import org.apache.directory.server.xdbm.StoreUtils;
+import org.apache.directory.server.xdbm.impl.avl.AvlIndex;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Test class for the QueryPlanCache.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class QueryPlanCacheTest extends AbstractCursorTest
+{
+    private static final Logger LOG = LoggerFactory.getLogger( QueryPlanCacheTest.class );
+
+    File wkdir;
+    private static CacheService cacheService;
+
+
+    @BeforeClass
+    public static void setup() throws Exception
+    {
+        // setup the standard registries
+        String workingDirectory = System.getProperty( "workingDirectory" );
+
+        if ( workingDirectory == null )
+        {
+            String path = QueryPlanCacheTest.class.getResource( "" ).getPath();
+            int targetPos = path.indexOf( "target" );
+            workingDirectory = path.substring( 0, targetPos + 6 );
+        }
+
+        File schemaRepository = new File( workingDirectory, "schema" );
+        SchemaLdifExtractor extractor = new DefaultSchemaLdifExtractor( new File( workingDirectory ) );
+        extractor.extractOrCopy( true );
+        LdifSchemaLoader loader = new LdifSchemaLoader( schemaRepository );
+        schemaManager = new DefaultSchemaManager( loader );
+
+        boolean loaded = schemaManager.loadAllEnabled();
+
+        if ( !loaded )
+        {
+            fail( "Schema load failed : " + Exceptions.printErrors( schemaManager.getErrors() ) );
+        }
+
+        loaded = schemaManager.loadWithDeps( "collective" );
+
+        if ( !loaded )
+        {
+            fail( "Schema load failed : " + Exceptions.printErrors( schemaManager.getErrors() ) );
+        }
+
+        cacheService = new CacheService();
+        cacheService.initialize( null );
+    }
+
+
+    public QueryPlanCacheTest() throws Exception
+    {
+    }
+
+
+    @Before
+    public void createStore() throws Exception
+    {
+        directoryService = new MockDirectoryService();
+
+        // setup the working directory for the store
+        wkdir = File.createTempFile( getClass().getSimpleName(), "db" );
+        wkdir.delete();
+        wkdir = new File( wkdir.getParentFile(), getClass().getSimpleName() );
+        wkdir.mkdirs();
+
+        // initialize the store
+        store = new AvlPartition( schemaManager, directoryService.getDnFactory() );
+        ( ( Partition ) store ).setId( "example" );
+        store.setCacheSize( 10 );
+        store.setPartitionPath( wkdir.toURI() );
+        store.setSyncOnWrite( false );
+
+        store.addIndex( new AvlIndex<String>( SchemaConstants.OU_AT_OID ) );
+        store.addIndex( new AvlIndex<String>( SchemaConstants.CN_AT_OID ) );
+        ( ( Partition ) store ).setSuffixDn( new Dn( schemaManager, "o=Good Times Co." ) );
+        ( ( Partition ) store ).setCacheService( cacheService );
+        ( ( Partition ) store ).initialize();
+
+        StoreUtils.loadExampleData( store, schemaManager );
+
+        evaluatorBuilder = new EvaluatorBuilder( store, schemaManager );
+        cursorBuilder = new CursorBuilder( store, evaluatorBuilder );
+        directoryService.setSchemaManager( schemaManager );
+        session = new MockCoreSession( new LdapPrincipal(), directoryService );
+
+        LOG.debug( "Created new store" );
+    }
+
+
+    @After
+    public void destroyStore() throws Exception
+    {
+        if ( store != null )
+        {
+            ( ( Partition ) store ).destroy();
+        }
+
+        store = null;
+        if ( wkdir != null )
+        {
+            FileUtils.deleteDirectory( wkdir );
+        }
+
+        wkdir = null;
+    }
+
+
+    /**
+     * Searches a filter annotated with the query plan cache, and checks that we get the same
+     * entries as with a filter annotated by the optimizer only.
+     */
+    private void checkSearch( QueryPlanCache planCache, String filter ) throws Exception
+    {
+        DefaultOptimizer<Entry> optimizer = new DefaultOptimizer<Entry>( store );
+
+        ExprNode expected = FilterParser.parse( schemaManager, filter );
+        optimizer.annotate( expected );
+
+        ExprNode root = FilterParser.parse( schemaManager, filter );
+        planCache.annotate( root, SearchScope.SUBTREE, optimizer );
+
+        assertEquals( getUuids( expected ), getUuids( root ) );
+    }
+
+
+    private Set<String> getUuids( ExprNode root ) throws Exception
+    {
+        Set<String> uuids = new HashSet<String>();
+        Cursor<Entry> cursor = buildCursor( root );
+
+        while ( cursor.next() )
+        {
+            uuids.add( cursor.get().get( "entryUUID" ).getString() );
+        }
+
+        cursor.close();
+
+        return uuids;
+    }
+
+
+    @Test
+    public void testPlanReused() throws Exception
+    {
+        QueryPlanCache planCache = new QueryPlanCache( store, QueryPlanCache.DEFAULT_CACHE_SIZE );
+
+        checkSearch( planCache, "(&(ou=Sales)(cn=JOhnny WAlkeR))" );
+        assertEquals( 0L, planCache.getHits() );
+        assertEquals( 1L, planCache.getMisses() );
+
+        // Same shape, different values
+        checkSearch( planCache, "(&(ou=Sales)(cn=JIM BEAN))" );
+        checkSearch( planCache, "(&(ou=Engineering)(cn=Jack Daniels))" );
+        checkSearch( planCache, "(&(ou=Sales)(cn=Jack Daniels))" );
+        assertEquals( 1, planCache.size() );
+        assertEquals( 4L, planCache.getMisses() + planCache.getHits() );
+        assertTrue( planCache.getHits() >= 1L );
+
+        // Another shape
+        checkSearch( planCache, "(&(cn=J*)(sn=*))" );
+        assertEquals( 2, planCache.size() );
+    }
+
+
+    @Test
+    public void testNestedFilters() throws Exception
+    {
+        QueryPlanCache planCache = new QueryPlanCache( store, QueryPlanCache.DEFAULT_CACHE_SIZE );
+
+        checkSearch( planCache, "(&(&(ou=Sales)(cn=J*))(|(sn=walker)(sn=bean)))" );
+        checkSearch( planCache, "(&(&(ou=Engineering)(cn=J*))(|(sn=daniels)(sn=bean)))" );
+        checkSearch( planCache, "(&(!(ou=Sales))(cn=jim bean))" );
+        checkSearch( planCache, "(&(!(ou=Engineering))(cn=jack daniels))" );
+
+        assertEquals( 2, planCache.size() );
+    }
+
+
+    @Test
+    public void testCacheSize() throws Exception
+    {
+        QueryPlanCache planCache = new QueryPlanCache( store, 2 );
+
+        checkSearch( planCache, "(&(ou=Sales)(cn=JOhnny WAlkeR))" );
+        checkSearch( planCache, "(&(cn=J*)(sn=*))" );
+        checkSearch( planCache, "(&(cn=J*)(ou=Sales))" );
+
+        assertEquals( 2, planCache.size() );
+
+        planCache.clear();
+
+        assertEquals( 0, planCache.size() );
+    }
+
+
+    @Test
+    public void testPlanDroppedOnIndexUpdates() throws Exception
+    {
+        QueryPlanCache planCache = new QueryPlanCache( store, QueryPlanCache.DEFAULT_CACHE_SIZE );
+
+        // The cn child is re-annotated, the ou child reuses its cached count
+        checkSearch( planCache, "(&(ou=Sales)(cn=JIM BEAN))" );
+        checkSearch( planCache, "(&(ou=Sales)(cn=JOhnny WAlkeR))" );
+        assertEquals( 1L, planCache.getHits() );
+        assertEquals( 1L, planCache.getMisses() );
+
+        // Add many ou values, without changing the number of entries
+        Dn dn = new Dn( schemaManager, "cn=JIM BEAN,ou=Sales,o=Good Times Co." );
+        ( ( AbstractBTreePartition ) store ).modify( dn, new DefaultModification(
+            ModificationOperation.ADD_ATTRIBUTE, new DefaultAttribute( schemaManager.getAttributeType( "ou" ),
+                "Sales 1", "Sales 2", "Sales 3", "Sales 4", "Sales 5", "Sales 6", "Sales 7", "Sales 8" ) ) );
+
+        // The cached ou count can't be trusted anymore
+        checkSearch( planCache, "(&(ou=Sales)(cn=JIM BEAN))" );
+        assertEquals( 1L, planCache.getHits() );
+        assertEquals( 2L, planCache.getMisses() );
+
+        // The new plan is used
+        checkSearch( planCache, "(&(ou=Sales)(cn=JOhnny WAlkeR))" );
+        assertEquals( 2L, planCache.getHits() );
+        assertEquals( 2L, planCache.getMisses() );
+    }
+}